@@ -1,17 +1,111 @@
 package intothewoods;
 
-import intothewoods.common.TokenType;
-import intothewoods.lexer.LexerToken;
-import intothewoods.parser.ASTNode;
+import intothewoods.analyser.Program;
+import intothewoods.analyser.SemanticAnalyser;
+import intothewoods.interpreter.Interpreter;
+import intothewoods.interpreter.Profiler;
+import intothewoods.interpreter.TierManager;
+import intothewoods.ir.IRBuilder;
+import intothewoods.ir.IRProgram;
+import intothewoods.ir.IRVerifier;
+import intothewoods.lexer.BasicLexer;
+import intothewoods.mips.MipsCompiler;
+import intothewoods.optimizer.PassManager;
+import intothewoods.parser.BasicParser;
+import intothewoods.runtime.SlabHeap;
+import intothewoods.runtime.BufferedRuntime;
+import intothewoods.runtime.OakRuntime;
+import intothewoods.runtime.OakRuntimeException;
+import intothewoods.vm.BytecodeCompiler;
+import intothewoods.vm.VirtualMachine;
+import intothewoods.x86.X86Compiler;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 public class Main {
 
     public static void main(String[] args) throws Exception {
-	    ASTNode node1 = new ASTNode(new LexerToken(TokenType.INT_LITERAL, "3", 1, 2));
-	    ASTNode node2 = new ASTNode(new LexerToken(TokenType.INT_LITERAL, "4", 1, 2));
-	    ASTNode node3 = new ASTNode(TokenType.EQUAL_SIGN);
-	    node3.addChild(node1);
-	    node3.addChild(node2);
-	    System.out.println(node3.toStringTree());
+	    boolean profile = args.length == 2 && args[0].equals("--profile");
+	    boolean tiered = args.length == 2 && args[0].equals("--tiered");
+	    boolean dumpIR = (args.length == 2 || args.length == 3) && args[0].equals("--ir");
+	    boolean x86 = (args.length == 2 || args.length == 3) && args[0].equals("--x86");
+	    boolean mips = (args.length == 2 || args.length == 3) && args[0].equals("--mips");
+	    int level = x86 || mips ? PassManager.MAX_LEVEL : 0;
+	    if ((dumpIR || x86 || mips) && args.length == 3) {
+		    level = args[1].matches("-O[0-" + PassManager.MAX_LEVEL + "]") ? args[1].charAt(2) - '0' : -1;
+	    }
+	    if ((args.length != 1 && !profile && !tiered && !dumpIR && !x86 && !mips) || level < 0) {
+		    System.err.println("Usage: intothewoods.Main [--profile | --tiered | (--ir | --x86 | --mips) [-O0 | -O1 | -O2]] FILE");
+		    System.exit(1);
+	    }
+	    Program program;
+	    try (InputStream input = new FileInputStream(args[args.length - 1])) {
+		    program = new SemanticAnalyser(new BasicParser(new BasicLexer(input)).parseTokens()).analyse();
+	    }
+	    if (dumpIR || x86 || mips) {
+		    IRProgram ir = new IRBuilder(program).build();
+		    IRVerifier.verify(ir);
+		    if (level > 0) {
+			    try (PassManager passManager = PassManager.create(level, Runtime.getRuntime().availableProcessors())) {
+				    passManager.optimize(ir);
+				    System.err.print(passManager.getReport());
+			    }
+		    }
+		    if (x86) {
+			    File source = new File(args[args.length - 1]);
+			    String name = source.getName();
+			    File executable = new File(source.getAbsoluteFile().getParentFile(),
+					    name.contains(".") ? name.substring(0, name.lastIndexOf('.')) : name + ".out");
+			    Path assembly = Files.createTempFile("oak", ".s");
+			    try {
+				    try (FileChannel channel = FileChannel.open(assembly, StandardOpenOption.WRITE)) {
+					    new X86Compiler(ir).compile(channel, Runtime.getRuntime().availableProcessors());
+				    }
+				    X86Compiler.link(assembly, executable);
+			    } finally {
+				    Files.delete(assembly);
+			    }
+		    } else if (mips) {
+			    File source = new File(args[args.length - 1]);
+			    String name = source.getName();
+			    File assembly = new File(source.getAbsoluteFile().getParentFile(),
+					    (name.contains(".") ? name.substring(0, name.lastIndexOf('.')) : name) + ".s");
+			    try (FileChannel channel = FileChannel.open(assembly.toPath(), StandardOpenOption.CREATE,
+					    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				    new MipsCompiler(ir).compile(channel, Runtime.getRuntime().availableProcessors());
+			    }
+		    } else {
+			    System.out.print(ir);
+		    }
+		    return;
+	    }
+	    OakRuntime runtime = new BufferedRuntime(new SlabHeap(), new FileInputStream(FileDescriptor.in),
+			    new FileOutputStream(FileDescriptor.out), new FileOutputStream(FileDescriptor.err));
+	    int exitCode = 1;
+	    Profiler profiler = profile ? new Profiler(program) : null;
+	    try {
+		    if (profile) {
+			    exitCode = new Interpreter(program, runtime, profiler).run();
+		    } else if (tiered) {
+			    exitCode = new Interpreter(program, runtime, null, new TierManager(program)).run();
+		    } else {
+			    exitCode = new VirtualMachine(new BytecodeCompiler(program).compile(), runtime).run();
+		    }
+	    } catch (OakRuntimeException ex) {
+		    System.err.println(ex.getMessage());
+	    }
+	    if (profile) {
+		    profiler.exportToFlightRecorder();
+		    System.err.print(profiler.getReport());
+	    }
+	    System.exit(exitCode);
     }
 }
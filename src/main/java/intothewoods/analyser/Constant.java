@@ -0,0 +1,214 @@
+package intothewoods.analyser;
+
+import intothewoods.common.Type;
+import intothewoods.lexer.LexerToken;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * A constant value, e.g. a literal.
+ *
+ * The value of non string constants is encoded as a long: bools are 0 or 1, bytes and ints are
+ * sign extended and floats are stored as their raw IEEE-754 bits (in the lower 32 bits).
+ * String constants store their bytes instead.
+ */
+public class Constant implements Operand {
+
+	private final Type type;
+	private final long value;
+	private final byte[] bytes;
+
+	/**
+	 * Initialize a new non string constant.
+	 * @param type type of the constant
+	 * @param value encoded value of the constant
+	 */
+	public Constant(Type type, long value) {
+		this(type, value, null);
+	}
+
+	/**
+	 * Initialize a new string constant.
+	 * @param bytes bytes of the string
+	 */
+	public Constant(byte[] bytes) {
+		this(Type.STRING, 0, bytes);
+	}
+
+	private Constant(Type type, long value, byte[] bytes) {
+		this.type = type;
+		this.value = value;
+		this.bytes = bytes;
+	}
+
+	/**
+	 * Create a new bool constant.
+	 * @param value given value
+	 * @return new constant
+	 */
+	public static Constant ofBool(boolean value) {
+		return new Constant(Type.BOOL, value ? 1 : 0);
+	}
+
+	/**
+	 * Create a new int constant.
+	 * @param value given value
+	 * @return new constant
+	 */
+	public static Constant ofInt(int value) {
+		return new Constant(Type.INT, value);
+	}
+
+	/**
+	 * Create a new float constant.
+	 * @param value given value
+	 * @return new constant
+	 */
+	public static Constant ofFloat(float value) {
+		return new Constant(Type.FLOAT, Float.floatToRawIntBits(value));
+	}
+
+	/**
+	 * Parse the given literal token into a constant.
+	 * @param token given literal token
+	 * @return new constant
+	 * @throws SemanticException literal is out of the range of its type
+	 */
+	public static Constant parse(LexerToken token) throws SemanticException {
+		String text = token.getText();
+		try {
+			switch (token.getType()) {
+				case BOOL_LITERAL:
+					return ofBool(text.equals("true"));
+				case BYTE_LITERAL:
+					int byteValue = Integer.parseInt(text.substring(0, text.length() - 1));
+					if (byteValue < Byte.MIN_VALUE || byteValue > Byte.MAX_VALUE) {
+						throw new SemanticException("Byte literal out of range", token);
+					}
+					return new Constant(Type.BYTE, byteValue);
+				case INT_LITERAL:
+					return ofInt(Integer.parseInt(text));
+				case FLOAT_LITERAL:
+					return ofFloat(Float.parseFloat(text));
+				case STRING_LITERAL:
+					return new Constant(unescape(text.substring(1, text.length() - 1)));
+				default:
+					throw new SemanticException("Expected literal", token);
+			}
+		} catch (NumberFormatException ex) {
+			throw new SemanticException("Literal out of range", token);
+		}
+	}
+
+	private static byte[] unescape(String text) {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream(text.length());
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '\\' && i + 1 < text.length()) {
+				i++;
+				switch (text.charAt(i)) {
+					case 'n':
+						c = '\n';
+						break;
+					case 'r':
+						c = '\r';
+						break;
+					case 't':
+						c = '\t';
+						break;
+					default:
+						c = text.charAt(i);
+				}
+			}
+			stream.write(c);
+		}
+		return stream.toByteArray();
+	}
+
+	@Override
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * Return the encoded value of this non string constant.
+	 * @return encoded value
+	 */
+	public long getValue() {
+		return value;
+	}
+
+	public int getInt() {
+		return (int) value;
+	}
+
+	public boolean getBool() {
+		return value != 0;
+	}
+
+	public float getFloat() {
+		return Float.intBitsToFloat((int) value);
+	}
+
+	/**
+	 * Return the bytes of this string constant.
+	 * @return bytes of the string or null if this isn't a string constant
+	 */
+	public byte[] getBytes() {
+		return bytes;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof Constant)) {
+			return false;
+		}
+		Constant other = (Constant) obj;
+		return type == other.type && value == other.value && Arrays.equals(bytes, other.bytes);
+	}
+
+	@Override
+	public int hashCode() {
+		return type.hashCode() * 31 + (int) (value ^ (value >>> 32)) + Arrays.hashCode(bytes);
+	}
+
+	@Override
+	public String toString() {
+		if (type.isPointerLike() && bytes == null) {
+			return type + "@" + Long.toHexString(value);
+		}
+		switch (type) {
+			case BOOL:
+				return getBool() ? "true" : "false";
+			case BYTE:
+				return value + "b";
+			case FLOAT:
+				return Float.toString(getFloat());
+			case STRING:
+				StringBuilder builder = new StringBuilder("\"");
+				for (byte b : bytes) {
+					switch (b) {
+						case '\n':
+							builder.append("\\n");
+							break;
+						case '\r':
+							builder.append("\\r");
+							break;
+						case '\t':
+							builder.append("\\t");
+							break;
+						case '"':
+						case '\\':
+							builder.append('\\').append((char) b);
+							break;
+						default:
+							builder.append((char) (b & 0xFF));
+					}
+				}
+				return builder.append('"').toString();
+			default:
+				return Long.toString(value);
+		}
+	}
+}
@@ -0,0 +1,164 @@
+package intothewoods.analyser;
+
+import intothewoods.common.Type;
+import intothewoods.parser.ASTNode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A declared function.
+ */
+public class Function {
+
+	private final String name;
+	private final Type returnType;
+	private final int index;
+	private final int line;
+	private final ASTNode declaration;
+	private final List<Variable> parameters = new ArrayList<>();
+	private final List<Type> parameterTypes = new ArrayList<>();
+	private final List<Variable> locals = new ArrayList<>();
+	private final Map<Type, Variable> returnVariables = new EnumMap<>(Type.class);
+
+	/**
+	 * Initialize a new function without parameters.
+	 * @param name name of the function
+	 * @param returnType return type of the function
+	 * @param index index of this function in the list of functions of its program
+	 * @param line line of the function header
+	 * @param declaration FUNCTION_DECLARATION node of this function
+	 */
+	public Function(String name, Type returnType, int index, int line, ASTNode declaration) {
+		this.name = name;
+		this.returnType = returnType;
+		this.index = index;
+		this.line = line;
+		this.declaration = declaration;
+	}
+
+	/**
+	 * Add a new parameter to this function.
+	 * @param name name of the parameter
+	 * @param type type of the parameter
+	 * @return variable representing the new parameter
+	 */
+	Variable addParameter(String name, Type type) {
+		Variable variable = addLocal(name, type);
+		parameters.add(variable);
+		parameterTypes.add(type);
+		return variable;
+	}
+
+	/**
+	 * Add a new function local variable.
+	 * @param name name of the variable
+	 * @param type type of the variable
+	 * @return new variable
+	 */
+	Variable addLocal(String name, Type type) {
+		Variable variable = new Variable(name, type, locals.size(), false);
+		locals.add(variable);
+		return variable;
+	}
+
+	/**
+	 * Return the ret_TYPE variable for the given type, creating it if necessary.
+	 * @param type given type
+	 * @return ret_TYPE variable
+	 */
+	Variable obtainReturnVariable(Type type) {
+		Variable variable = returnVariables.get(type);
+		if (variable == null) {
+			variable = addLocal(type.getReturnVariableName(), type);
+			returnVariables.put(type, variable);
+		}
+		return variable;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Type getReturnType() {
+		return returnType;
+	}
+
+	/**
+	 * Return the index of this function in the list of functions of its program.
+	 * @return index of this function
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	/**
+	 * Return the line of the function header.
+	 * @return line of the function header
+	 */
+	public int getLine() {
+		return line;
+	}
+
+	/**
+	 * Return the FUNCTION_DECLARATION node of this function.
+	 * @return declaration node
+	 */
+	public ASTNode getDeclaration() {
+		return declaration;
+	}
+
+	/**
+	 * Return the CODE_BLOCK node containing the statements of this function.
+	 * @return body node
+	 */
+	public ASTNode getBody() {
+		return declaration.getChild(1);
+	}
+
+	public List<Variable> getParameters() {
+		return Collections.unmodifiableList(parameters);
+	}
+
+	public List<Type> getParameterTypes() {
+		return Collections.unmodifiableList(parameterTypes);
+	}
+
+	/**
+	 * Return all function local variables, the parameters come first.
+	 * @return function local variables
+	 */
+	public List<Variable> getLocals() {
+		return Collections.unmodifiableList(locals);
+	}
+
+	/**
+	 * Return the ret_TYPE variable for the given type.
+	 * @param type given type
+	 * @return ret_TYPE variable or null if this function doesn't use it
+	 */
+	public Variable getReturnVariable(Type type) {
+		return returnVariables.get(type);
+	}
+
+	/**
+	 * Return all ret_TYPE variables used in this function.
+	 * @return used ret_TYPE variables
+	 */
+	public Iterable<Variable> getReturnVariables() {
+		return Collections.unmodifiableCollection(returnVariables.values());
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append(returnType).append(' ').append(name);
+		for (Type type : parameterTypes) {
+			builder.append(' ').append(type);
+		}
+		return builder.toString();
+	}
+}
@@ -0,0 +1,15 @@
+package intothewoods.analyser;
+
+import intothewoods.common.Type;
+
+/**
+ * Value used by a statement, either a variable or a constant (literal).
+ */
+public interface Operand {
+
+	/**
+	 * Return the type of this operand.
+	 * @return type of this operand
+	 */
+	Type getType();
+}
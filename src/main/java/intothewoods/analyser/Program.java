@@ -0,0 +1,161 @@
+package intothewoods.analyser;
+
+import intothewoods.common.Builtin;
+import intothewoods.common.Token;
+import intothewoods.common.Type;
+import intothewoods.lexer.LexerToken;
+import intothewoods.parser.ASTNode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An analysed program: the AST of a whole file together with its resolved
+ * global variables, functions and the resolved names and calls of each statement.
+ *
+ * It isn't modified after the analysis and can therefore be shared between several executions.
+ */
+public class Program {
+
+	private final ASTNode ast;
+	private final List<Variable> globals = new ArrayList<>();
+	private final List<Function> functions = new ArrayList<>();
+	private final Map<ASTNode, Operand> operands = new IdentityHashMap<>();
+	private final Map<ASTNode, Variable> targets = new IdentityHashMap<>();
+	private final Map<ASTNode, Function> calledFunctions = new IdentityHashMap<>();
+	private final Map<ASTNode, Builtin> calledBuiltins = new IdentityHashMap<>();
+
+	Program(ASTNode ast) {
+		this.ast = ast;
+	}
+
+	Variable addGlobal(String name, Type type) {
+		Variable variable = new Variable(name, type, globals.size(), true);
+		globals.add(variable);
+		return variable;
+	}
+
+	void addFunction(Function function) {
+		functions.add(function);
+	}
+
+	void putOperand(ASTNode valueNode, Operand operand) {
+		operands.put(valueNode, operand);
+	}
+
+	void putTarget(ASTNode statement, Variable target) {
+		targets.put(statement, target);
+	}
+
+	void putCall(ASTNode call, Function function) {
+		calledFunctions.put(call, function);
+	}
+
+	void putCall(ASTNode call, Builtin builtin) {
+		calledBuiltins.put(call, builtin);
+	}
+
+	/**
+	 * Return the WHOLE_FILE rooted AST of this program.
+	 * @return AST
+	 */
+	public ASTNode getAST() {
+		return ast;
+	}
+
+	public List<Variable> getGlobals() {
+		return Collections.unmodifiableList(globals);
+	}
+
+	public List<Function> getFunctions() {
+		return Collections.unmodifiableList(functions);
+	}
+
+	/**
+	 * Return the main function (the one called "main" without any parameters).
+	 * @return main function or null if this program hasn't one
+	 */
+	public Function getMainFunction() {
+		for (Function function : functions) {
+			if (function.getName().equals("main") && function.getParameters().isEmpty()) {
+				return function;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Return the operand a VALUE node stands for.
+	 * @param valueNode given VALUE node
+	 * @return variable or constant
+	 */
+	public Operand getOperand(ASTNode valueNode) {
+		return operands.get(valueNode);
+	}
+
+	/**
+	 * Return the variable a statement writes to.
+	 *
+	 * This is the declared variable for VARIABLE_DECLARATION nodes, the assigned variable
+	 * for VARIABLE_ASSIGNMENT nodes and the ret_TYPE variable for FUNCTION_CALL nodes.
+	 *
+	 * @param statement given statement node
+	 * @return written variable or null if the statement doesn't write to a variable
+	 */
+	public Variable getTarget(ASTNode statement) {
+		return targets.get(statement);
+	}
+
+	/**
+	 * Return the user defined function called by the given FUNCTION_CALL node.
+	 * @param call given FUNCTION_CALL node
+	 * @return called function or null if a built in function is called
+	 */
+	public Function getCalledFunction(ASTNode call) {
+		return calledFunctions.get(call);
+	}
+
+	/**
+	 * Return the built in function called by the given FUNCTION_CALL node.
+	 * @param call given FUNCTION_CALL node
+	 * @return called built in function or null if a user defined function is called
+	 */
+	public Builtin getCalledBuiltin(ASTNode call) {
+		return calledBuiltins.get(call);
+	}
+
+	/**
+	 * Return the operands passed as arguments by the given FUNCTION_CALL node.
+	 * @param call given FUNCTION_CALL node
+	 * @return arguments
+	 */
+	public List<Operand> getArguments(ASTNode call) {
+		List<Operand> arguments = new ArrayList<>(call.getNumberOfChildren() - 1);
+		for (int i = 1; i < call.getNumberOfChildren(); i++) {
+			arguments.add(operands.get(call.getChild(i)));
+		}
+		return arguments;
+	}
+
+	/**
+	 * Return the line the given node starts in.
+	 * @param node given node
+	 * @return line of the first token of the node or 0 if the node has no (non imaginary) tokens
+	 */
+	public static int getLine(ASTNode node) {
+		Token token = node.getToken();
+		if (token instanceof LexerToken) {
+			return ((LexerToken) token).getLine();
+		}
+		for (ASTNode child : node) {
+			int line = getLine(child);
+			if (line > 0) {
+				return line;
+			}
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,287 @@
+package intothewoods.analyser;
+
+import intothewoods.common.Builtin;
+import intothewoods.common.TokenType;
+import intothewoods.common.Type;
+import intothewoods.lexer.LexerToken;
+import intothewoods.parser.ASTNode;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Semantic analyser turning a WHOLE_FILE rooted AST into a program.
+ *
+ * It resolves the names of variables and called functions and checks the types of
+ * all statements. It's kept simple, like the parser: it stops at the first error.
+ */
+public class SemanticAnalyser {
+
+	private final ASTNode ast;
+	private Program program;
+	private final Map<String, Variable> globalScope = new HashMap<>();
+	private final List<Map<String, Variable>> scopes = new ArrayList<>();
+	private Function currentFunction;
+
+	/**
+	 * Initialize a semantic analyser for the given AST.
+	 * @param ast WHOLE_FILE rooted AST, as returned by the parser
+	 */
+	public SemanticAnalyser(ASTNode ast) {
+		this.ast = ast;
+	}
+
+	/**
+	 * Analyse the AST.
+	 * @return analysed program
+	 * @throws SemanticException the AST contains a semantic error
+	 */
+	public Program analyse() throws SemanticException {
+		program = new Program(ast);
+		for (ASTNode declaration : ast.getChild(0)) {
+			analyseGlobal(declaration);
+		}
+		for (ASTNode declaration : ast.getChild(1)) {
+			analyseFunctionHeader(declaration);
+		}
+		for (Function function : program.getFunctions()) {
+			analyseFunctionBody(function);
+		}
+		return program;
+	}
+
+	private void analyseGlobal(ASTNode declaration) throws SemanticException {
+		LexerToken nameToken = token(declaration.getChild(1));
+		if (globalScope.containsKey(nameToken.getText())) {
+			throw new SemanticException("Global variable already declared", nameToken);
+		}
+		Type type = Type.fromName(declaration.getChild(0).getText());
+		analyseValue(declaration.getChild(2), type);
+		Variable variable = program.addGlobal(nameToken.getText(), type);
+		globalScope.put(variable.getName(), variable);
+		program.putTarget(declaration, variable);
+	}
+
+	private void analyseFunctionHeader(ASTNode declaration) throws SemanticException {
+		ASTNode header = declaration.getChild(0);
+		LexerToken nameToken = token(header.getChild(1));
+		Type returnType = Type.fromName(header.getChild(0).getText());
+		Function function = new Function(nameToken.getText(), returnType, program.getFunctions().size(),
+				nameToken.getLine(), declaration);
+		if (header.getNumberOfChildren() > 2) {
+			for (ASTNode parameter : header.getChild(2)) {
+				LexerToken parameterName = token(parameter.getChild(1));
+				for (Variable other : function.getParameters()) {
+					if (other.getName().equals(parameterName.getText())) {
+						throw new SemanticException("Parameter already declared", parameterName);
+					}
+				}
+				function.addParameter(parameterName.getText(), Type.fromName(parameter.getChild(0).getText()));
+			}
+		}
+		if (findFunction(function.getName(), function.getParameterTypes()) != null) {
+			throw new SemanticException("Function already declared", nameToken);
+		}
+		if (Builtin.find(function.getName(), function.getParameterTypes()) != null) {
+			throw new SemanticException("Built in function can't be redeclared", nameToken);
+		}
+		program.addFunction(function);
+	}
+
+	private void analyseFunctionBody(Function function) throws SemanticException {
+		currentFunction = function;
+		scopes.clear();
+		Map<String, Variable> baseScope = new HashMap<>();
+		for (Variable parameter : function.getParameters()) {
+			baseScope.put(parameter.getName(), parameter);
+		}
+		scopes.add(baseScope);
+		ASTNode body = function.getBody();
+		analyseBlockStatements(body);
+		if (function.getReturnType() != Type.VOID) {
+			ASTNode last = null;
+			for (ASTNode statement : body) {
+				if (statement.hasNotType(TokenType.COMMENT)) {
+					last = statement;
+				}
+			}
+			if (last == null || last.hasNotType(TokenType.RETURN_STATEMENT)) {
+				throw new SemanticException("Expected return statement at the end of the function",
+						token(function.getDeclaration().getChild(0).getChild(1)));
+			}
+		}
+	}
+
+	private void analyseBlock(ASTNode block) throws SemanticException {
+		scopes.add(new HashMap<String, Variable>());
+		analyseBlockStatements(block);
+		scopes.remove(scopes.size() - 1);
+	}
+
+	private void analyseBlockStatements(ASTNode block) throws SemanticException {
+		for (ASTNode statement : block) {
+			analyseStatement(statement);
+		}
+	}
+
+	private void analyseStatement(ASTNode statement) throws SemanticException {
+		switch (statement.getType()) {
+			case VARIABLE_DECLARATION:
+				analyseDeclaration(statement);
+				break;
+			case VARIABLE_ASSIGNMENT:
+				Variable variable = lookupVariable(token(statement.getChild(0)));
+				analyseValue(statement.getChild(1), variable.getType());
+				program.putTarget(statement, variable);
+				break;
+			case FUNCTION_CALL:
+				analyseCall(statement);
+				break;
+			case RETURN_STATEMENT:
+				analyseReturn(statement);
+				break;
+			case CONDITION:
+				analyseValue(statement.getChild(0), Type.BOOL);
+				analyseBlock(statement.getChild(1));
+				if (statement.getNumberOfChildren() > 2) {
+					analyseBlock(statement.getChild(2));
+				}
+				break;
+			case LOOP:
+				analyseValue(statement.getChild(0), Type.BOOL);
+				analyseBlock(statement.getChild(1));
+				break;
+			case COMMENT:
+				break;
+			default:
+				throw new IllegalArgumentException("Unexpected statement " + statement.getType());
+		}
+	}
+
+	private void analyseDeclaration(ASTNode statement) throws SemanticException {
+		LexerToken nameToken = token(statement.getChild(1));
+		Map<String, Variable> scope = scopes.get(scopes.size() - 1);
+		if (scope.containsKey(nameToken.getText()) ||
+				(scopes.size() == 1 && isReturnVariableName(nameToken.getText()))) {
+			throw new SemanticException("Variable already declared", nameToken);
+		}
+		Type type = Type.fromName(statement.getChild(0).getText());
+		analyseValue(statement.getChild(2), type);
+		Variable variable = currentFunction.addLocal(nameToken.getText(), type);
+		scope.put(variable.getName(), variable);
+		program.putTarget(statement, variable);
+	}
+
+	private void analyseCall(ASTNode call) throws SemanticException {
+		LexerToken nameToken = token(call.getChild(0));
+		String name = nameToken.getText();
+		List<Type> argumentTypes = new ArrayList<>();
+		for (int i = 1; i < call.getNumberOfChildren(); i++) {
+			argumentTypes.add(analyseValue(call.getChild(i), null).getType());
+		}
+		Type returnType;
+		Function function = findFunction(name, argumentTypes);
+		if (function != null) {
+			program.putCall(call, function);
+			returnType = function.getReturnType();
+		} else {
+			Builtin builtin = Builtin.find(name, argumentTypes);
+			if (builtin == null) {
+				throw new SemanticException("No matching function for argument types " + argumentTypes, nameToken);
+			}
+			if (builtin.isGetRef()) {
+				Operand operand = program.getOperand(call.getChild(1));
+				if (!(operand instanceof Variable)) {
+					throw new SemanticException("get_ref expects a variable", nameToken);
+				}
+				((Variable) operand).setReferenced();
+			}
+			program.putCall(call, builtin);
+			returnType = builtin.getReturnType();
+		}
+		if (returnType != Type.VOID) {
+			program.putTarget(call, currentFunction.obtainReturnVariable(returnType));
+		}
+	}
+
+	private void analyseReturn(ASTNode statement) throws SemanticException {
+		Type returnType = currentFunction.getReturnType();
+		if (statement.isLeaf()) {
+			if (returnType != Type.VOID) {
+				throw new SemanticException("Expected return value of type " + returnType,
+						token(currentFunction.getDeclaration().getChild(0).getChild(1)));
+			}
+		} else {
+			if (returnType == Type.VOID) {
+				throw new SemanticException("Void function can't return a value", token(statement.getChild(0).getChild(0)));
+			}
+			analyseValue(statement.getChild(0), returnType);
+		}
+	}
+
+	/**
+	 * Analyse the given VALUE node.
+	 * @param valueNode given VALUE node
+	 * @param expectedType expected type of the value or null if any type is allowed
+	 * @return operand the value stands for
+	 * @throws SemanticException unknown variable or type mismatch
+	 */
+	private Operand analyseValue(ASTNode valueNode, Type expectedType) throws SemanticException {
+		LexerToken valueToken = token(valueNode.getChild(0));
+		Operand operand;
+		if (valueToken.isLiteral()) {
+			operand = Constant.parse(valueToken);
+		} else {
+			operand = lookupVariable(valueToken);
+		}
+		if (expectedType != null && operand.getType() != expectedType) {
+			throw new SemanticException("Expected value of type " + expectedType + " but got " + operand.getType(),
+					valueToken);
+		}
+		program.putOperand(valueNode, operand);
+		return operand;
+	}
+
+	private Variable lookupVariable(LexerToken nameToken) throws SemanticException {
+		String name = nameToken.getText();
+		if (currentFunction != null) {
+			for (int i = scopes.size() - 1; i >= 0; i--) {
+				Variable variable = scopes.get(i).get(name);
+				if (variable != null) {
+					return variable;
+				}
+			}
+			if (isReturnVariableName(name)) {
+				return currentFunction.obtainReturnVariable(Type.fromName(name.substring(4)));
+			}
+		}
+		Variable variable = globalScope.get(name);
+		if (variable == null) {
+			throw new SemanticException("Unknown variable", nameToken);
+		}
+		return variable;
+	}
+
+	private Function findFunction(String name, List<Type> parameterTypes) {
+		for (Function function : program.getFunctions()) {
+			if (function.getName().equals(name) && function.getParameterTypes().equals(parameterTypes)) {
+				return function;
+			}
+		}
+		return null;
+	}
+
+	private static boolean isReturnVariableName(String name) {
+		if (!name.startsWith("ret_")) {
+			return false;
+		}
+		Type type = Type.fromName(name.substring(4));
+		return type != null && type != Type.VOID;
+	}
+
+	private static LexerToken token(ASTNode node) {
+		return (LexerToken) node.getToken();
+	}
+}
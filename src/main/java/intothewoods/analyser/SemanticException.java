@@ -0,0 +1,20 @@
+package intothewoods.analyser;
+
+import intothewoods.lexer.LexerToken;
+
+/**
+ * Exception raised when the semantic analyser spots an error (e.g. a type mismatch).
+ */
+public class SemanticException extends Exception {
+
+	private final LexerToken token;
+
+	public SemanticException(String message, LexerToken token) {
+		super("Error at " + token.getLine() + "[" + token.getColumn() + "]: " + message + " '" + token.getText() + "'");
+		this.token = token;
+	}
+
+	public LexerToken getToken() {
+		return token;
+	}
+}
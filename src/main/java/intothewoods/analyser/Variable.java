@@ -0,0 +1,70 @@
+package intothewoods.analyser;
+
+import intothewoods.common.Type;
+
+/**
+ * A declared variable, either a global variable or a function local one (including
+ * parameters and ret_TYPE variables).
+ */
+public class Variable implements Operand {
+
+	private final String name;
+	private final Type type;
+	private final int index;
+	private final boolean global;
+	private boolean referenced;
+
+	/**
+	 * Initialize a new variable.
+	 * @param name name of the variable
+	 * @param type type of the variable
+	 * @param index index of the variable in the list of globals or in the list of locals of its function
+	 * @param global is this a global variable?
+	 */
+	public Variable(String name, Type type, int index, boolean global) {
+		this.name = name;
+		this.type = type;
+		this.index = index;
+		this.global = global;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * Return the index of this variable in the list of globals (for global variables) or
+	 * in the list of locals of its function.
+	 * @return index of this variable
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	public boolean isGlobal() {
+		return global;
+	}
+
+	/**
+	 * Checks whether or not the variable is passed to get_ref somewhere,
+	 * therefore it has to be stored in memory.
+	 * @return is this variable referenced?
+	 */
+	public boolean isReferenced() {
+		return referenced;
+	}
+
+	void setReferenced() {
+		referenced = true;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
@@ -0,0 +1,213 @@
+package intothewoods.backend;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Writes assembly code that is emitted in parts (usually one per function) in parallel to a channel
+ * (usually a FileChannel).
+ *
+ * Every part is emitted on a fork join pool into a StringBuilder of the worker thread and encoded (as
+ * ISO-8859-1) into a byte buffer taken from a pool. The buffers are written in the order in which the parts
+ * were added, as soon as all preceding parts are written, with gathering writes of the consecutive finished
+ * buffers, and return to the pool afterwards. The output is therefore independent of the number of threads,
+ * and only the parts in flight (at most a few per thread) are held in memory.
+ */
+public class AssemblyWriter implements AutoCloseable {
+
+	/**
+	 * Part of the assembly code. Parts are emitted concurrently, so they must not share mutable state.
+	 */
+	public interface Part {
+
+		/**
+		 * Append the code of this part.
+		 */
+		void emit(StringBuilder output);
+	}
+
+	/**
+	 * Maximum number of parts in flight per thread, adding a part blocks until the oldest one is written.
+	 */
+	static final int PARTS_PER_THREAD = 4;
+
+	/**
+	 * Maximum number of buffers in one gathering write.
+	 */
+	static final int MAX_GATHERED = 64;
+
+	/**
+	 * Minimum capacity of the buffers, smaller parts share the capacity of the pooled buffers.
+	 */
+	static final int MIN_CAPACITY = 1 << 16;
+
+	/**
+	 * Size of the StringBuilders kept by the worker threads, larger ones are dropped after use.
+	 */
+	private static final int MAX_KEPT_BUILDER = 1 << 22;
+
+	private static final ThreadLocal<StringBuilder> BUILDERS = new ThreadLocal<StringBuilder>() {
+		@Override
+		protected StringBuilder initialValue() {
+			return new StringBuilder();
+		}
+	};
+
+	private final GatheringByteChannel channel;
+	private final ForkJoinPool pool;
+	private final int maxPending;
+	private final ArrayDeque<Future<ByteBuffer>> pending = new ArrayDeque<>();
+	/**
+	 * Pooled buffers, guarded by their own lock.
+	 */
+	private final List<ByteBuffer> buffers = new ArrayList<>();
+	private long written;
+
+	/**
+	 * Initialize a writer.
+	 * @param channel channel the code is written to, it isn't closed by the writer
+	 * @param threads number of parts emitted at once
+	 */
+	public AssemblyWriter(GatheringByteChannel channel, int threads) {
+		this.channel = channel;
+		this.pool = new ForkJoinPool(threads);
+		this.maxPending = PARTS_PER_THREAD * threads;
+	}
+
+	/**
+	 * Start emitting the given part, write the finished parts at the head of the queue and wait for the
+	 * oldest part if too many are in flight.
+	 */
+	public void add(final Part part) throws IOException {
+		pending.add(pool.submit(new Callable<ByteBuffer>() {
+			@Override
+			public ByteBuffer call() {
+				return emit(part);
+			}
+		}));
+		while (pending.size() > maxPending || (!pending.isEmpty() && pending.peek().isDone())) {
+			writeFinished();
+		}
+	}
+
+	/**
+	 * Wait for all parts and write them.
+	 */
+	public void finish() throws IOException {
+		while (!pending.isEmpty()) {
+			writeFinished();
+		}
+	}
+
+	/**
+	 * Return the number of bytes written.
+	 */
+	public long getWritten() {
+		return written;
+	}
+
+	/**
+	 * Stop the threads of this writer, parts that aren't written yet are dropped.
+	 */
+	@Override
+	public void close() {
+		for (Future<ByteBuffer> future : pending) {
+			future.cancel(false);
+		}
+		pending.clear();
+		pool.shutdown();
+	}
+
+	private ByteBuffer emit(Part part) {
+		StringBuilder output = BUILDERS.get();
+		output.setLength(0);
+		part.emit(output);
+		ByteBuffer buffer = acquire(output.length());
+		CharsetEncoder encoder = StandardCharsets.ISO_8859_1.newEncoder()
+				.onUnmappableCharacter(CodingErrorAction.REPLACE).onMalformedInput(CodingErrorAction.REPLACE);
+		encoder.encode(CharBuffer.wrap(output), buffer, true);
+		encoder.flush(buffer);
+		buffer.flip();
+		if (output.length() > MAX_KEPT_BUILDER) {
+			BUILDERS.remove();
+		}
+		return buffer;
+	}
+
+	/**
+	 * Return a cleared buffer with at least the given capacity, from the pool if possible.
+	 * Smaller pooled buffers stay in the pool for smaller parts.
+	 */
+	private ByteBuffer acquire(int capacity) {
+		synchronized (buffers) {
+			for (int i = 0; i < buffers.size(); i++) {
+				if (buffers.get(i).capacity() >= capacity) {
+					ByteBuffer buffer = buffers.remove(i);
+					buffer.clear();
+					return buffer;
+				}
+			}
+		}
+		int size = MIN_CAPACITY;
+		while (size < capacity && size < (1 << 30)) {
+			size <<= 1;
+		}
+		return ByteBuffer.allocateDirect(Math.max(size, capacity));
+	}
+
+	/**
+	 * Wait for the oldest part and write it together with the finished parts following it.
+	 */
+	private void writeFinished() throws IOException {
+		List<ByteBuffer> finished = new ArrayList<>();
+		finished.add(get(pending.poll()));
+		while (finished.size() < MAX_GATHERED && !pending.isEmpty() && pending.peek().isDone()) {
+			finished.add(get(pending.poll()));
+		}
+		ByteBuffer[] sources = finished.toArray(new ByteBuffer[finished.size()]);
+		long remaining = 0;
+		for (ByteBuffer source : sources) {
+			remaining += source.remaining();
+		}
+		written += remaining;
+		while (remaining > 0) {
+			remaining -= channel.write(sources);
+		}
+		synchronized (buffers) {
+			if (buffers.size() < maxPending + MAX_GATHERED) {
+				buffers.addAll(finished);
+			}
+		}
+	}
+
+	private static ByteBuffer get(Future<ByteBuffer> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while emitting the assembly code");
+		} catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IllegalStateException("Emitting the assembly code failed", cause);
+		}
+	}
+}
@@ -0,0 +1,172 @@
+package intothewoods.backend;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Target independent peephole rules for the jumps and branches of a listing.
+ *
+ * Jumps and branches followed by a delay slot are only retargeted, as the instruction in the slot has to
+ * stay behind them.
+ */
+public class ControlFlowRules {
+
+	private ControlFlowRules() {
+	}
+
+	/**
+	 * Return the rules: jumps to the next instruction, branches over jumps, jumps to jumps and unreachable
+	 * instructions behind jumps.
+	 */
+	public static <T> List<PeepholeRule<T>> create() {
+		List<PeepholeRule<T>> rules = new ArrayList<>();
+		rules.add(new JumpToNext<T>());
+		rules.add(new BranchOverJump<T>());
+		rules.add(new JumpChain<T>());
+		rules.add(new UnreachableCode<T>());
+		return rules;
+	}
+
+	/**
+	 * Removes jumps and branches to the label directly following them.
+	 */
+	static class JumpToNext<T> implements PeepholeRule<T> {
+
+		@Override
+		public String getName() {
+			return "jump to next";
+		}
+
+		@Override
+		public boolean apply(PeepholeOptimizer<T> optimizer, List<T> code, int index) {
+			T instruction = code.get(index);
+			if (!optimizer.isTransfer(instruction) || optimizer.hasDelaySlot(code, index)) {
+				return false;
+			}
+			String label = optimizer.getTarget().getTarget(instruction);
+			if (label == null || !optimizer.isLabelAt(code, index + 1, label)) {
+				return false;
+			}
+			code.remove(index);
+			return true;
+		}
+	}
+
+	/**
+	 * Replaces a branch over a jump by the inverted branch to the target of the jump.
+	 */
+	static class BranchOverJump<T> implements PeepholeRule<T> {
+
+		@Override
+		public String getName() {
+			return "branch over jump";
+		}
+
+		@Override
+		public boolean apply(PeepholeOptimizer<T> optimizer, List<T> code, int index) {
+			PeepholeTarget<T> target = optimizer.getTarget();
+			T branch = code.get(index);
+			if (optimizer.isLabel(branch) || !target.isBranch(branch) || index + 2 >= code.size()
+					|| optimizer.hasDelaySlot(code, index) || optimizer.hasDelaySlot(code, index + 1)) {
+				return false;
+			}
+			T jump = code.get(index + 1);
+			if (optimizer.isLabel(jump) || !target.isJump(jump) || target.getTarget(jump) == null
+					|| !optimizer.isLabelAt(code, index + 2, target.getTarget(branch))) {
+				return false;
+			}
+			T inverted = target.invert(branch, target.getTarget(jump));
+			if (inverted == null) {
+				return false;
+			}
+			code.set(index, inverted);
+			code.remove(index + 1);
+			return true;
+		}
+	}
+
+	/**
+	 * Lets jumps and branches to a jump jump to its target directly.
+	 */
+	static class JumpChain<T> implements PeepholeRule<T> {
+
+		@Override
+		public String getName() {
+			return "jump chain";
+		}
+
+		@Override
+		public boolean apply(PeepholeOptimizer<T> optimizer, List<T> code, int index) {
+			PeepholeTarget<T> target = optimizer.getTarget();
+			T instruction = code.get(index);
+			if (!optimizer.isTransfer(instruction) || target.getTarget(instruction) == null) {
+				return false;
+			}
+			String label = target.getTarget(instruction);
+			Set<String> visited = new HashSet<>();
+			visited.add(label);
+			String destination = getJumpTarget(optimizer, code, label);
+			if (destination == null) {
+				return false;
+			}
+			while (destination != null && visited.add(destination)) {
+				label = destination;
+				destination = getJumpTarget(optimizer, code, label);
+			}
+			if (destination != null) {
+				// the jumps form a cycle
+				return false;
+			}
+			code.set(index, target.retarget(instruction, label));
+			return true;
+		}
+
+		/**
+		 * Return the target of the jump at the given label or null if there's no jump without delay slot.
+		 */
+		private static <T> String getJumpTarget(PeepholeOptimizer<T> optimizer, List<T> code, String label) {
+			int position = optimizer.indexOfLabel(code, label);
+			if (position < 0) {
+				return null;
+			}
+			position = optimizer.skipLabels(code, position);
+			if (position == code.size() || !optimizer.getTarget().isJump(code.get(position))
+					|| optimizer.hasDelaySlot(code, position)) {
+				return null;
+			}
+			String destination = optimizer.getTarget().getTarget(code.get(position));
+			return label.equals(destination) ? null : destination;
+		}
+	}
+
+	/**
+	 * Removes the instructions between a jump and the next label.
+	 */
+	static class UnreachableCode<T> implements PeepholeRule<T> {
+
+		@Override
+		public String getName() {
+			return "unreachable code";
+		}
+
+		@Override
+		public boolean apply(PeepholeOptimizer<T> optimizer, List<T> code, int index) {
+			T instruction = code.get(index);
+			if (optimizer.isLabel(instruction) || !optimizer.getTarget().isJump(instruction)) {
+				return false;
+			}
+			int next = index + (optimizer.hasDelaySlot(code, index) ? 2 : 1);
+			int end = next;
+			while (end < code.size() && !optimizer.isLabel(code.get(end))) {
+				end++;
+			}
+			if (end == next) {
+				return false;
+			}
+			code.subList(next, end).clear();
+			return true;
+		}
+	}
+}
@@ -0,0 +1,275 @@
+package intothewoods.backend;
+
+import intothewoods.ir.IntList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Graph coloring register allocator (Chaitin and Briggs) with conservative coalescing.
+ *
+ * The nodes of a move that don't interfere are merged if the merged node has less than K neighbors of
+ * significant degree (Briggs' criterion), so that the coalescing never makes the graph harder to color.
+ * Then the nodes with less than K neighbors are removed from the graph one after another, they can always
+ * be colored. If no such node is left, the node with the lowest spill cost per neighbor is removed
+ * optimistically. The nodes get their registers in the reverse order of the removal, nodes without a free
+ * register are spilled. Nodes live across a call only get callee saved registers, so their K is smaller.
+ * Spilled nodes that don't interfere share their stack slot.
+ *
+ * The locations use the encoding of RegisterAllocation.
+ */
+public class GraphColoring {
+
+	private final InterferenceGraph graph;
+	private final int[] callerSaved;
+	private final int[] calleeSaved;
+	private final int[] hints;
+	private final int[] aliases;
+	private final List<Set<Integer>> adjacency;
+	private final boolean[] crossesCall;
+	private final double[] costs;
+	private final int[] locations;
+	private final boolean[] usedRegisters;
+	private final IntList representatives = new IntList();
+	private int slotCount;
+
+	/**
+	 * Initialize an allocator.
+	 * @param graph interference graph of the function
+	 * @param registerCount number of registers of the target
+	 * @param callerSaved allocatable registers that calls clobber, in the order of preference
+	 * @param calleeSaved allocatable registers that calls preserve, in the order of preference
+	 * @param hints preferred register of each node or RegisterAllocation.NONE, by node
+	 */
+	public GraphColoring(InterferenceGraph graph, int registerCount, int[] callerSaved, int[] calleeSaved,
+	                     int[] hints) {
+		this.graph = graph;
+		this.callerSaved = callerSaved;
+		this.calleeSaved = calleeSaved;
+		this.hints = hints.clone();
+		int nodeCount = graph.getNodeCount();
+		this.aliases = new int[nodeCount];
+		this.adjacency = new ArrayList<>(nodeCount);
+		this.crossesCall = new boolean[nodeCount];
+		this.costs = new double[nodeCount];
+		this.locations = new int[nodeCount];
+		this.usedRegisters = new boolean[registerCount];
+		Arrays.fill(locations, RegisterAllocation.NONE);
+		for (int node = 0; node < nodeCount; node++) {
+			aliases[node] = node;
+			adjacency.add(null);
+		}
+		IntList nodes = graph.getNodes();
+		for (int i = 0; i < nodes.size(); i++) {
+			int node = nodes.get(i);
+			Set<Integer> neighbors = new HashSet<>();
+			IntList graphNeighbors = graph.getNeighbors(node);
+			for (int j = 0; j < graphNeighbors.size(); j++) {
+				neighbors.add(graphNeighbors.get(j));
+			}
+			adjacency.set(node, neighbors);
+			crossesCall[node] = graph.crossesCall(node);
+			costs[node] = graph.getCost(node);
+		}
+	}
+
+	public GraphColoring allocate() {
+		coalesce();
+		IntList nodes = graph.getNodes();
+		for (int i = 0; i < nodes.size(); i++) {
+			if (aliases[nodes.get(i)] == nodes.get(i)) {
+				representatives.add(nodes.get(i));
+			}
+		}
+		IntList stack = simplify();
+		IntList spilled = new IntList();
+		for (int i = stack.size() - 1; i >= 0; i--) {
+			int node = stack.get(i);
+			int register = findRegister(node);
+			if (register == RegisterAllocation.NONE) {
+				spilled.add(node);
+			} else {
+				locations[node] = register;
+				usedRegisters[register] = true;
+			}
+		}
+		assignSlots(spilled);
+		return this;
+	}
+
+	private int find(int node) {
+		while (aliases[node] != node) {
+			node = aliases[node];
+		}
+		return node;
+	}
+
+	private int getK(boolean crossesCall) {
+		return crossesCall ? calleeSaved.length : callerSaved.length + calleeSaved.length;
+	}
+
+	private void coalesce() {
+		IntList moves = graph.getMoves();
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int i = 0; i < moves.size(); i += 2) {
+				int first = find(moves.get(i));
+				int second = find(moves.get(i + 1));
+				if (first == second || adjacency.get(first).contains(second)) {
+					continue;
+				}
+				boolean calls = crossesCall[first] || crossesCall[second];
+				Set<Integer> neighbors = new HashSet<>(adjacency.get(first));
+				neighbors.addAll(adjacency.get(second));
+				int significant = 0;
+				for (int neighbor : neighbors) {
+					Set<Integer> others = adjacency.get(neighbor);
+					int degree = others.size() - (others.contains(first) && others.contains(second) ? 1 : 0);
+					if (degree >= getK(crossesCall[neighbor])) {
+						significant++;
+					}
+				}
+				if (significant < getK(calls)) {
+					merge(first, second);
+					changed = true;
+				}
+			}
+		}
+	}
+
+	private void merge(int node, int other) {
+		aliases[other] = node;
+		for (int neighbor : adjacency.get(other)) {
+			adjacency.get(neighbor).remove(other);
+			adjacency.get(neighbor).add(node);
+			adjacency.get(node).add(neighbor);
+		}
+		adjacency.set(other, new HashSet<Integer>());
+		crossesCall[node] |= crossesCall[other];
+		costs[node] += costs[other];
+		if (hints[node] == RegisterAllocation.NONE) {
+			hints[node] = hints[other];
+		}
+	}
+
+	/**
+	 * Remove the nodes from the graph.
+	 * @return nodes in the order of their removal
+	 */
+	private IntList simplify() {
+		IntList stack = new IntList();
+		int[] degrees = new int[aliases.length];
+		boolean[] removed = new boolean[aliases.length];
+		for (int i = 0; i < representatives.size(); i++) {
+			degrees[representatives.get(i)] = adjacency.get(representatives.get(i)).size();
+		}
+		while (stack.size() < representatives.size()) {
+			int chosen = RegisterAllocation.NONE;
+			double chosenCost = 0;
+			for (int i = 0; i < representatives.size(); i++) {
+				int node = representatives.get(i);
+				if (removed[node]) {
+					continue;
+				}
+				if (degrees[node] < getK(crossesCall[node])) {
+					chosen = node;
+					break;
+				}
+				double cost = costs[node] / (degrees[node] + 1);
+				if (chosen == RegisterAllocation.NONE || cost < chosenCost) {
+					chosen = node;
+					chosenCost = cost;
+				}
+			}
+			removed[chosen] = true;
+			stack.add(chosen);
+			for (int neighbor : adjacency.get(chosen)) {
+				degrees[neighbor]--;
+			}
+		}
+		return stack;
+	}
+
+	private int findRegister(int node) {
+		boolean[] taken = new boolean[usedRegisters.length];
+		for (int neighbor : adjacency.get(node)) {
+			if (RegisterAllocation.isRegister(locations[neighbor])) {
+				taken[locations[neighbor]] = true;
+			}
+		}
+		int hint = hints[node];
+		if (hint != RegisterAllocation.NONE && !taken[hint]
+				&& (contains(calleeSaved, hint) || (!crossesCall[node] && contains(callerSaved, hint)))) {
+			return hint;
+		}
+		if (!crossesCall[node]) {
+			for (int register : callerSaved) {
+				if (!taken[register]) {
+					return register;
+				}
+			}
+		}
+		for (int register : calleeSaved) {
+			if (!taken[register]) {
+				return register;
+			}
+		}
+		return RegisterAllocation.NONE;
+	}
+
+	private void assignSlots(IntList spilled) {
+		for (int i = 0; i < spilled.size(); i++) {
+			int node = spilled.get(i);
+			Set<Integer> taken = new HashSet<>();
+			for (int neighbor : adjacency.get(node)) {
+				if (RegisterAllocation.isSlot(locations[neighbor])) {
+					taken.add(RegisterAllocation.getSlot(locations[neighbor]));
+				}
+			}
+			int slot = 0;
+			while (taken.contains(slot)) {
+				slot++;
+			}
+			locations[node] = RegisterAllocation.slot(slot);
+			slotCount = Math.max(slotCount, slot + 1);
+		}
+	}
+
+	private static boolean contains(int[] registers, int register) {
+		for (int element : registers) {
+			if (element == register) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public InterferenceGraph getGraph() {
+		return graph;
+	}
+
+	/**
+	 * Return the location of the given node (see InterferenceGraph.getNode) or NONE.
+	 */
+	public int getLocation(int node) {
+		return locations[find(node)];
+	}
+
+	/**
+	 * Checks whether any node is kept in the given register.
+	 */
+	public boolean isUsed(int register) {
+		return usedRegisters[register];
+	}
+
+	/**
+	 * Return the number of spill slots.
+	 */
+	public int getSlotCount() {
+		return slotCount;
+	}
+}
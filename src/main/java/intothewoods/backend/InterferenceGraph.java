@@ -0,0 +1,249 @@
+package intothewoods.backend;
+
+import intothewoods.common.Builtin;
+import intothewoods.common.Type;
+import intothewoods.ir.Coalescing;
+import intothewoods.ir.Dominators;
+import intothewoods.ir.IRFunction;
+import intothewoods.ir.IROpcode;
+import intothewoods.ir.IntList;
+import intothewoods.ir.Liveness;
+import intothewoods.ir.Loops;
+
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Interference graph of the values of a function, the input of the graph coloring register allocator.
+ *
+ * A node stands for a word of a class of the Coalescing (values connected by phis that don't interfere),
+ * on targets whose registers are smaller than pointers the pointers and strings occupy two nodes (begin
+ * and end, see getNode). Two nodes interfere if one is defined while the other is live. The copies of the
+ * program (COPY instructions and phi operands of other classes) are recorded as moves that the allocator
+ * tries to coalesce, nodes live across a call are marked. The parameters are moved into their locations on
+ * function entry, so they are live from the start of the entry block, wherever their PARAM instructions are.
+ *
+ * The spill cost of a node is the number of its definitions and uses, weighted by 10 per loop level.
+ */
+public class InterferenceGraph {
+
+	private final IRFunction function;
+	private final Liveness liveness;
+	private final Coalescing coalescing;
+	private final boolean splitPointers;
+	private final int nodeCount;
+	private final IntList[] neighbors;
+	private final Set<Long> edges = new HashSet<>();
+	private final IntList nodes = new IntList();
+	private final boolean[] active;
+	private final boolean[] crossesCall;
+	private final double[] costs;
+	private final IntList moves = new IntList();
+	private final Loops loops;
+
+	/**
+	 * Build the graph of the given function.
+	 * @param function function in SSA form without unreachable blocks
+	 * @param runtimeBuiltins built in functions that are called in the runtime of the back end
+	 * @param splitPointers store pointers and strings in two nodes
+	 */
+	public InterferenceGraph(IRFunction function, Set<Builtin> runtimeBuiltins, boolean splitPointers) {
+		this.function = function;
+		this.splitPointers = splitPointers;
+		Dominators dominators = new Dominators(function);
+		this.liveness = new Liveness(function, dominators);
+		this.coalescing = new Coalescing(function, liveness);
+		this.loops = new Loops(function, dominators);
+		this.nodeCount = 2 * function.getValueCount();
+		this.neighbors = new IntList[nodeCount];
+		this.active = new boolean[nodeCount];
+		this.crossesCall = new boolean[nodeCount];
+		this.costs = new double[nodeCount];
+		for (int block : dominators.getReversePostOrder()) {
+			buildBlock(block, runtimeBuiltins);
+		}
+		for (int node = 0; node < nodeCount; node++) {
+			if (active[node]) {
+				nodes.add(node);
+			}
+		}
+	}
+
+	private void buildBlock(int block, Set<Builtin> runtimeBuiltins) {
+		BitSet live = (BitSet) liveness.getLiveOut(block).clone();
+		IntList instructions = function.getInstructions(block);
+		Loops.Loop loop = loops.getLoop(block);
+		double weight = Math.pow(10, loop == null ? 0 : Math.min(loop.getDepth(), 6));
+		for (int i = instructions.size() - 1; i >= 0; i--) {
+			int instruction = instructions.get(i);
+			int opcode = function.getOpcode(instruction);
+			if (opcode == IROpcode.PHI) {
+				continue;
+			}
+			if (opcode == IROpcode.PARAM) {
+				if (defines(instruction)) {
+					live.set(instruction);
+				}
+				continue;
+			}
+			if (defines(instruction)) {
+				define(instruction, live, weight);
+			}
+			if (opcode == IROpcode.CALL
+					|| (opcode == IROpcode.BUILTIN && runtimeBuiltins.contains(function.getBuiltin(instruction)))) {
+				for (int value = live.nextSetBit(0); value >= 0; value = live.nextSetBit(value + 1)) {
+					for (int word = 0; word < getWords(value); word++) {
+						crossesCall[getNode(value, word)] = true;
+					}
+				}
+			}
+			if (opcode == IROpcode.COPY) {
+				addMove(instruction, function.getFirst(instruction));
+			}
+			for (int j = 0; j < function.getOperandCount(instruction); j++) {
+				int operand = function.getOperand(instruction, j);
+				if (function.getBlock(operand) != IRFunction.NONE) {
+					live.set(operand);
+					addCost(operand, weight);
+				}
+			}
+		}
+		for (int i = 0; i < instructions.size(); i++) {
+			int instruction = instructions.get(i);
+			if (function.getOpcode(instruction) == IROpcode.PARAM && defines(instruction)) {
+				define(instruction, live, weight);
+			}
+		}
+		for (int i = 0; i < instructions.size() && function.getOpcode(instructions.get(i)) == IROpcode.PHI; i++) {
+			int phi = instructions.get(i);
+			define(phi, live, weight);
+			IntList predecessors = function.getPredecessors(block);
+			for (int j = 0; j < function.getOperandCount(phi); j++) {
+				int operand = function.getOperand(phi, j);
+				if (function.getBlock(operand) != IRFunction.NONE) {
+					addMove(phi, operand);
+					Loops.Loop predecessorLoop = loops.getLoop(predecessors.get(j));
+					addCost(operand, Math.pow(10, predecessorLoop == null ? 0 : Math.min(predecessorLoop.getDepth(), 6)));
+				}
+			}
+		}
+	}
+
+	private void define(int instruction, BitSet live, double weight) {
+		for (int word = 0; word < getWords(instruction); word++) {
+			active[getNode(instruction, word)] = true;
+		}
+		if (getWords(instruction) == 2) {
+			addEdge(getNode(instruction, 0), getNode(instruction, 1));
+		}
+		for (int value = live.nextSetBit(0); value >= 0; value = live.nextSetBit(value + 1)) {
+			if (coalescing.getRepresentative(value) != coalescing.getRepresentative(instruction)) {
+				for (int word = 0; word < getWords(instruction); word++) {
+					for (int other = 0; other < getWords(value); other++) {
+						addEdge(getNode(instruction, word), getNode(value, other));
+					}
+				}
+			}
+		}
+		live.clear(instruction);
+		addCost(instruction, weight);
+	}
+
+	private void addCost(int value, double weight) {
+		for (int word = 0; word < getWords(value); word++) {
+			costs[getNode(value, word)] += weight;
+		}
+	}
+
+	private void addMove(int destination, int source) {
+		if (function.getBlock(source) != IRFunction.NONE
+				&& coalescing.getRepresentative(destination) != coalescing.getRepresentative(source)) {
+			for (int word = 0; word < getWords(destination); word++) {
+				moves.add(getNode(destination, word));
+				moves.add(getNode(source, word));
+			}
+		}
+	}
+
+	private void addEdge(int first, int second) {
+		if (first != second && edges.add(key(first, second))) {
+			getNeighbors(first).add(second);
+			getNeighbors(second).add(first);
+		}
+	}
+
+	private static long key(int first, int second) {
+		return ((long) Math.min(first, second) << 32) | Math.max(first, second);
+	}
+
+	/**
+	 * Checks whether the given instruction defines a value that needs a location.
+	 */
+	public boolean defines(int instruction) {
+		return function.getBlock(instruction) != IRFunction.NONE && function.getType(instruction) != Type.VOID
+				&& function.getOpcode(instruction) != IROpcode.NOP;
+	}
+
+	/**
+	 * Return the number of nodes (words) of the given value.
+	 */
+	public int getWords(int value) {
+		return splitPointers && function.getType(value).isPointerLike() ? 2 : 1;
+	}
+
+	/**
+	 * Return the node of the given word of a value (0 is the begin of a pointer, 1 its end).
+	 */
+	public int getNode(int value, int word) {
+		return 2 * coalescing.getRepresentative(value) + word;
+	}
+
+	public IRFunction getFunction() {
+		return function;
+	}
+
+	public Liveness getLiveness() {
+		return liveness;
+	}
+
+	/**
+	 * Return the upper bound of the node numbers.
+	 */
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	/**
+	 * Return the nodes of the defined values, in ascending order.
+	 */
+	public IntList getNodes() {
+		return nodes;
+	}
+
+	public IntList getNeighbors(int node) {
+		if (neighbors[node] == null) {
+			neighbors[node] = new IntList();
+		}
+		return neighbors[node];
+	}
+
+	public boolean interfere(int first, int second) {
+		return edges.contains(key(first, second));
+	}
+
+	public boolean crossesCall(int node) {
+		return crossesCall[node];
+	}
+
+	public double getCost(int node) {
+		return costs[node];
+	}
+
+	/**
+	 * Return the moves as pairs of nodes (destination, source).
+	 */
+	public IntList getMoves() {
+		return moves;
+	}
+}
@@ -0,0 +1,136 @@
+package intothewoods.backend;
+
+import intothewoods.ir.IntList;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Linear scan register allocator (Poletto and Sarkar).
+ *
+ * The intervals are visited by their start, the active intervals (those holding a register) that end
+ * before the start of the current one release their registers. Intervals containing a call only get
+ * callee saved registers, the others prefer the caller saved registers, which don't have to be saved in
+ * the prologue. If no register is free, the interval ending last (the current or an active one with a
+ * suitable register) is spilled to a stack slot for its whole lifetime.
+ */
+public class LinearScan {
+
+	private final LiveIntervals intervals;
+	private final int[] callerSaved;
+	private final int[] calleeSaved;
+	private final int[] hints;
+	private final RegisterAllocation allocation;
+	private final int[] owners;
+	private final List<Integer> active = new ArrayList<>();
+
+	/**
+	 * Initialize an allocator.
+	 * @param intervals live intervals of the function
+	 * @param registerCount number of registers of the target
+	 * @param callerSaved allocatable registers that calls clobber, in the order of preference
+	 * @param calleeSaved allocatable registers that calls preserve, in the order of preference
+	 * @param hints preferred register of each interval (e.g. the argument register of a parameter)
+	 *              or RegisterAllocation.NONE, by interval
+	 */
+	public LinearScan(LiveIntervals intervals, int registerCount, int[] callerSaved, int[] calleeSaved,
+	                  int[] hints) {
+		this.intervals = intervals;
+		this.callerSaved = callerSaved;
+		this.calleeSaved = calleeSaved;
+		this.hints = hints;
+		this.allocation = new RegisterAllocation(intervals, registerCount);
+		this.owners = new int[registerCount];
+		for (int i = 0; i < owners.length; i++) {
+			owners[i] = RegisterAllocation.NONE;
+		}
+	}
+
+	public RegisterAllocation allocate() {
+		List<Integer> order = new ArrayList<>();
+		IntList all = intervals.getIntervals();
+		for (int i = 0; i < all.size(); i++) {
+			order.add(all.get(i));
+		}
+		Collections.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer first, Integer second) {
+				int result = Integer.compare(intervals.getStart(first), intervals.getStart(second));
+				return result != 0 ? result : Integer.compare(first, second);
+			}
+		});
+		for (int interval : order) {
+			expire(intervals.getStart(interval));
+			boolean crossesCall = intervals.crossesCall(interval);
+			int register = findFreeRegister(interval, crossesCall);
+			if (register != RegisterAllocation.NONE) {
+				assign(interval, register);
+				continue;
+			}
+			int victim = RegisterAllocation.NONE;
+			for (int candidate : active) {
+				if ((!crossesCall || contains(calleeSaved, allocation.getIntervalLocation(candidate)))
+						&& (victim == RegisterAllocation.NONE || intervals.getEnd(candidate) > intervals.getEnd(victim))) {
+					victim = candidate;
+				}
+			}
+			if (victim != RegisterAllocation.NONE && intervals.getEnd(victim) > intervals.getEnd(interval)) {
+				register = allocation.getIntervalLocation(victim);
+				active.remove(Integer.valueOf(victim));
+				allocation.spill(victim);
+				assign(interval, register);
+			} else {
+				allocation.spill(interval);
+			}
+		}
+		return allocation;
+	}
+
+	private void expire(int position) {
+		for (int i = active.size() - 1; i >= 0; i--) {
+			int interval = active.get(i);
+			if (intervals.getEnd(interval) <= position) {
+				owners[allocation.getIntervalLocation(interval)] = RegisterAllocation.NONE;
+				active.remove(i);
+			}
+		}
+	}
+
+	private int findFreeRegister(int interval, boolean crossesCall) {
+		int hint = hints[interval];
+		if (hint != RegisterAllocation.NONE && owners[hint] == RegisterAllocation.NONE
+				&& (contains(calleeSaved, hint) || (!crossesCall && contains(callerSaved, hint)))) {
+			return hint;
+		}
+		if (!crossesCall) {
+			for (int register : callerSaved) {
+				if (owners[register] == RegisterAllocation.NONE) {
+					return register;
+				}
+			}
+		}
+		for (int register : calleeSaved) {
+			if (owners[register] == RegisterAllocation.NONE) {
+				return register;
+			}
+		}
+		return RegisterAllocation.NONE;
+	}
+
+	private void assign(int interval, int register) {
+		owners[register] = interval;
+		allocation.assignRegister(interval, register);
+		active.add(interval);
+	}
+
+	private static boolean contains(int[] registers, int register) {
+		for (int element : registers) {
+			if (element == register) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,198 @@
+package intothewoods.backend;
+
+import intothewoods.common.Builtin;
+import intothewoods.common.Type;
+import intothewoods.ir.Coalescing;
+import intothewoods.ir.Dominators;
+import intothewoods.ir.IRFunction;
+import intothewoods.ir.IROpcode;
+import intothewoods.ir.IntList;
+import intothewoods.ir.Liveness;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Set;
+
+/**
+ * Live intervals of the values of a function, the input of the register allocators.
+ *
+ * The blocks are laid out in reverse post order and their instructions get even positions, the end of a
+ * block (where the copies of the phi operands are placed) is the position after its terminator. The values
+ * of a class of the Coalescing share an interval and therefore a location, the interval of a class reaches
+ * from the first definition to the last use of its values, holes are ignored. Parameters are defined at
+ * position 0, the phis of a block at its start.
+ *
+ * Calls (of functions and of the built in functions that the back end implements in its runtime) clobber
+ * the caller saved registers, values whose interval contains a call have to be kept elsewhere.
+ */
+public class LiveIntervals {
+
+	private final IRFunction function;
+	private final Liveness liveness;
+	private final Coalescing coalescing;
+	private final int[] order;
+	private final int[] blockStarts;
+	private final int[] blockEnds;
+	private final int[] positions;
+	private final int[] starts;
+	private final int[] ends;
+	private final IntList calls = new IntList();
+	private final IntList intervals = new IntList();
+
+	/**
+	 * Compute the intervals of the given function.
+	 * @param function function in SSA form without unreachable blocks
+	 * @param runtimeBuiltins built in functions that are called in the runtime of the back end
+	 */
+	public LiveIntervals(IRFunction function, Set<Builtin> runtimeBuiltins) {
+		this.function = function;
+		Dominators dominators = new Dominators(function);
+		this.liveness = new Liveness(function, dominators);
+		this.coalescing = new Coalescing(function, liveness);
+		this.order = dominators.getReversePostOrder();
+		this.blockStarts = new int[function.getBlockCount()];
+		this.blockEnds = new int[function.getBlockCount()];
+		this.positions = new int[function.getValueCount()];
+		this.starts = new int[function.getValueCount()];
+		this.ends = new int[function.getValueCount()];
+		Arrays.fill(starts, Integer.MAX_VALUE);
+		Arrays.fill(ends, -1);
+		int position = 0;
+		for (int block : order) {
+			IntList instructions = function.getInstructions(block);
+			blockStarts[block] = position;
+			for (int i = 0; i < instructions.size(); i++) {
+				int instruction = instructions.get(i);
+				positions[instruction] = position;
+				if (isCall(instruction, runtimeBuiltins)) {
+					calls.add(position);
+				}
+				position += 2;
+			}
+			blockEnds[block] = position - 1;
+		}
+		for (int block : order) {
+			addLive(liveness.getLiveIn(block), blockStarts[block]);
+			addLive(liveness.getLiveOut(block), blockEnds[block]);
+			IntList instructions = function.getInstructions(block);
+			for (int i = 0; i < instructions.size(); i++) {
+				int instruction = instructions.get(i);
+				int opcode = function.getOpcode(instruction);
+				if (defines(instruction)) {
+					int definition = opcode == IROpcode.PARAM ? 0
+							: opcode == IROpcode.PHI ? blockStarts[block] : positions[instruction];
+					extend(instruction, definition);
+					extend(instruction, definition + 1);
+				}
+				if (opcode == IROpcode.PHI) {
+					continue;
+				}
+				for (int j = 0; j < function.getOperandCount(instruction); j++) {
+					int operand = function.getOperand(instruction, j);
+					if (function.getBlock(operand) != IRFunction.NONE) {
+						extend(operand, positions[instruction]);
+					}
+				}
+			}
+		}
+		for (int value = 0; value < starts.length; value++) {
+			if (ends[value] >= 0) {
+				intervals.add(value);
+			}
+		}
+	}
+
+	private boolean isCall(int instruction, Set<Builtin> runtimeBuiltins) {
+		int opcode = function.getOpcode(instruction);
+		return opcode == IROpcode.CALL
+				|| (opcode == IROpcode.BUILTIN && runtimeBuiltins.contains(function.getBuiltin(instruction)));
+	}
+
+	/**
+	 * Checks whether the given instruction defines a value that needs a location.
+	 */
+	public boolean defines(int instruction) {
+		return function.getBlock(instruction) != IRFunction.NONE && function.getType(instruction) != Type.VOID
+				&& function.getOpcode(instruction) != IROpcode.NOP;
+	}
+
+	private void addLive(BitSet live, int position) {
+		for (int value = live.nextSetBit(0); value >= 0; value = live.nextSetBit(value + 1)) {
+			extend(value, position);
+		}
+	}
+
+	private void extend(int value, int position) {
+		int representative = coalescing.getRepresentative(value);
+		starts[representative] = Math.min(starts[representative], position);
+		ends[representative] = Math.max(ends[representative], position);
+	}
+
+	public IRFunction getFunction() {
+		return function;
+	}
+
+	public Liveness getLiveness() {
+		return liveness;
+	}
+
+	/**
+	 * Return the representative of the class of the given value, it identifies the interval of the value.
+	 */
+	public int getInterval(int value) {
+		return coalescing.getRepresentative(value);
+	}
+
+	/**
+	 * Return the intervals (class representatives), ordered by their values.
+	 */
+	public IntList getIntervals() {
+		return intervals;
+	}
+
+	public int getStart(int interval) {
+		return starts[interval];
+	}
+
+	public int getEnd(int interval) {
+		return ends[interval];
+	}
+
+	/**
+	 * Checks whether both intervals contain a common position.
+	 */
+	public boolean overlap(int first, int second) {
+		return starts[first] < ends[second] && starts[second] < ends[first];
+	}
+
+	/**
+	 * Checks whether a call lies strictly inside the interval, so that its value has to survive the call.
+	 */
+	public boolean crossesCall(int interval) {
+		for (int i = 0; i < calls.size(); i++) {
+			if (calls.get(i) > starts[interval] && calls.get(i) < ends[interval]) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Return the reachable blocks in the order of the code.
+	 */
+	public int[] getOrder() {
+		return order;
+	}
+
+	public int getPosition(int instruction) {
+		return positions[instruction];
+	}
+
+	public int getBlockStart(int block) {
+		return blockStarts[block];
+	}
+
+	public int getBlockEnd(int block) {
+		return blockEnds[block];
+	}
+}
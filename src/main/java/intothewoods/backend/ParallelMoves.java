@@ -0,0 +1,92 @@
+package intothewoods.backend;
+
+import intothewoods.ir.IntList;
+
+/**
+ * Sequentializes a set of moves that happen at the same time (the copies into the phis of a block, the
+ * arguments of a call).
+ *
+ * A move is emitted as soon as its destination isn't read by another pending move. If only cycles are left,
+ * the value of a destination is saved in the temporary location and the moves reading it read the temporary
+ * instead. Moves of values without a location (constants and strings) are emitted last, they can't be
+ * overwritten by the other moves.
+ */
+public class ParallelMoves {
+
+	/**
+	 * Emits the sequential moves in the code of the target.
+	 */
+	public interface Emitter {
+
+		/**
+		 * Emit a move between two locations.
+		 */
+		void move(int destination, int source);
+
+		/**
+		 * Emit the materialization of a value without location (constant or string) in a location.
+		 */
+		void load(int destination, int value);
+	}
+
+	private final IntList destinations = new IntList();
+	private final IntList sources = new IntList();
+	private final IntList loadDestinations = new IntList();
+	private final IntList loadValues = new IntList();
+
+	/**
+	 * Add a move from a location.
+	 */
+	public void addMove(int destination, int source) {
+		if (destination != source) {
+			destinations.add(destination);
+			sources.add(source);
+		}
+	}
+
+	/**
+	 * Add a move of a value without location.
+	 */
+	public void addLoad(int destination, int value) {
+		loadDestinations.add(destination);
+		loadValues.add(value);
+	}
+
+	public boolean isEmpty() {
+		return destinations.isEmpty() && loadDestinations.isEmpty();
+	}
+
+	/**
+	 * Emit all moves and clear them.
+	 * @param emitter emitter of the target
+	 * @param temporary location that isn't used by any move, it's overwritten when breaking cycles
+	 */
+	public void emit(Emitter emitter, int temporary) {
+		while (!destinations.isEmpty()) {
+			boolean progress = false;
+			for (int i = 0; i < destinations.size(); i++) {
+				if (!sources.contains(destinations.get(i))) {
+					emitter.move(destinations.get(i), sources.get(i));
+					destinations.removeAt(i);
+					sources.removeAt(i);
+					progress = true;
+					i--;
+				}
+			}
+			if (!progress) {
+				int saved = destinations.get(0);
+				emitter.move(temporary, saved);
+				for (int i = 0; i < sources.size(); i++) {
+					if (sources.get(i) == saved) {
+						sources.set(i, temporary);
+					}
+				}
+			}
+		}
+		for (int i = 0; i < loadDestinations.size(); i++) {
+			emitter.load(loadDestinations.get(i), loadValues.get(i));
+		}
+		loadDestinations.clear();
+		loadValues.clear();
+	}
+}
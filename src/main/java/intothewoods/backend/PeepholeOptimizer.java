@@ -0,0 +1,263 @@
+package intothewoods.backend;
+
+import intothewoods.ir.IntList;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Peephole optimizer for the assembly listings of the back ends, it applies the rules of the target
+ * at every position of a listing until none of them matches anymore.
+ *
+ * The listings are the instructions of a single function in their final order, labels included. Besides
+ * the rules, it offers the analyses that they need: the liveness of a register after an instruction
+ * (found by following the control flow through the listing, labels outside of it are asked for with
+ * PeepholeTarget.isLiveOutside) and the reaching definition of a register in straight line code.
+ *
+ * @param <T> type of the entries of the listings
+ */
+public class PeepholeOptimizer<T> {
+
+	/**
+	 * Maximum number of passes over a listing, rules that retarget jumps could otherwise chase each other.
+	 */
+	static final int MAX_PASSES = 16;
+
+	/**
+	 * Maximum number of instructions that a liveness query visits before assuming that the register is live.
+	 */
+	static final int MAX_VISITED = 512;
+
+	private final PeepholeTarget<T> target;
+	private final List<PeepholeRule<T>> rules;
+	private final Map<String, Integer> labels = new HashMap<>();
+	private List<T> labelledCode;
+
+	/**
+	 * Initialize an optimizer.
+	 * @param target view of the instructions of the target
+	 * @param rules rules in the order of their application (see ControlFlowRules for target independent ones)
+	 */
+	public PeepholeOptimizer(PeepholeTarget<T> target, List<PeepholeRule<T>> rules) {
+		this.target = target;
+		this.rules = rules;
+	}
+
+	public PeepholeTarget<T> getTarget() {
+		return target;
+	}
+
+	/**
+	 * Optimize the given listing.
+	 * @return optimized copy of the listing
+	 */
+	public List<T> optimize(List<T> listing) {
+		List<T> code = new ArrayList<>(listing);
+		boolean changed = true;
+		for (int pass = 0; pass < MAX_PASSES && changed; pass++) {
+			changed = false;
+			for (int i = 0; i < code.size(); i++) {
+				for (PeepholeRule<T> rule : rules) {
+					if (i < code.size() && rule.apply(this, code, i)) {
+						labelledCode = null;
+						changed = true;
+					}
+				}
+			}
+		}
+		labelledCode = null;
+		return code;
+	}
+
+	public boolean isLabel(T entry) {
+		return target.getLabel(entry) != null;
+	}
+
+	/**
+	 * Checks whether the instruction is a jump or branch.
+	 */
+	public boolean isTransfer(T instruction) {
+		return !isLabel(instruction) && (target.isJump(instruction) || target.isBranch(instruction));
+	}
+
+	/**
+	 * Checks whether the instruction at the given index is followed by a delay slot.
+	 */
+	public boolean hasDelaySlot(List<T> code, int index) {
+		return index + 1 < code.size() && target.isDelaySlot(code.get(index + 1));
+	}
+
+	/**
+	 * Return the index of the first instruction at or after the given index that isn't a label.
+	 */
+	public int skipLabels(List<T> code, int index) {
+		while (index < code.size() && isLabel(code.get(index))) {
+			index++;
+		}
+		return index;
+	}
+
+	/**
+	 * Checks whether the label is defined at the given index or by one of the labels directly following it.
+	 */
+	public boolean isLabelAt(List<T> code, int index, String label) {
+		for (int i = index; i < code.size() && isLabel(code.get(i)); i++) {
+			if (target.getLabel(code.get(i)).equals(label)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Return the index of the given label in the listing or -1.
+	 */
+	public int indexOfLabel(List<T> code, String label) {
+		if (labelledCode != code) {
+			labels.clear();
+			for (int i = 0; i < code.size(); i++) {
+				if (isLabel(code.get(i))) {
+					labels.put(target.getLabel(code.get(i)), i);
+				}
+			}
+			labelledCode = code;
+		}
+		Integer index = labels.get(label);
+		return index == null ? -1 : index;
+	}
+
+	/**
+	 * Return the index of the instruction defining the given register that reaches the instruction at the
+	 * given index in straight line code or -1 if there's none.
+	 */
+	public int findDefinition(List<T> code, int index, String register) {
+		for (int i = index - 1; i >= 0; i--) {
+			T instruction = code.get(i);
+			if (isLabel(instruction) || isTransfer(instruction) || target.isDelaySlot(instruction)) {
+				return -1;
+			}
+			Set<String> writes = target.getWrites(instruction);
+			if (writes == null) {
+				return -1;
+			}
+			if (writes.contains(register)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Checks whether none of the instructions between the given indices (both exclusive) may change the
+	 * register.
+	 */
+	public boolean isUnchanged(List<T> code, int from, int to, String register) {
+		for (int i = from + 1; i < to; i++) {
+			Set<String> writes = target.getWrites(code.get(i));
+			if (writes == null || writes.contains(register)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Checks whether the value of the register after the instruction at the given index (and its delay slot)
+	 * is never read.
+	 */
+	public boolean isDead(List<T> code, int index, String register) {
+		IntList work = new IntList();
+		if (hasDelaySlot(code, index) && isTransfer(code.get(index))) {
+			Boolean slot = checkDelaySlot(code.get(index + 1), register);
+			if (slot != null) {
+				return slot;
+			}
+		}
+		if (!addSuccessors(code, index, register, work)) {
+			return false;
+		}
+		boolean[] visited = new boolean[code.size()];
+		int count = 0;
+		while (!work.isEmpty()) {
+			int position = work.last();
+			work.truncate(work.size() - 1);
+			if (position >= code.size()) {
+				return false;
+			}
+			if (visited[position]) {
+				continue;
+			}
+			visited[position] = true;
+			if (++count > MAX_VISITED) {
+				return false;
+			}
+			T instruction = code.get(position);
+			if (isLabel(instruction)) {
+				work.add(position + 1);
+				continue;
+			}
+			Set<String> reads = target.getReads(instruction);
+			Set<String> writes = target.getWrites(instruction);
+			if (reads == null || writes == null || reads.contains(register)) {
+				return false;
+			}
+			if (writes.contains(register)) {
+				continue;
+			}
+			if (isTransfer(instruction) && hasDelaySlot(code, position)) {
+				Boolean slot = checkDelaySlot(code.get(position + 1), register);
+				if (slot != null) {
+					if (!slot) {
+						return false;
+					}
+					continue;
+				}
+			}
+			if (!addSuccessors(code, position, register, work)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Check the register at an instruction in a delay slot.
+	 * @return false if the instruction may read it, true if it overwrites it, else null
+	 */
+	private Boolean checkDelaySlot(T instruction, String register) {
+		Set<String> reads = target.getReads(instruction);
+		Set<String> writes = target.getWrites(instruction);
+		if (reads == null || writes == null || reads.contains(register)) {
+			return false;
+		}
+		return writes.contains(register) ? true : null;
+	}
+
+	/**
+	 * Add the instructions that can follow the given one to the work list.
+	 * @return false if the register may be live at a label outside of the listing
+	 */
+	private boolean addSuccessors(List<T> code, int index, String register, IntList work) {
+		T instruction = code.get(index);
+		if (!isTransfer(instruction)) {
+			work.add(index + 1);
+			return true;
+		}
+		String label = target.getTarget(instruction);
+		if (label != null) {
+			int position = indexOfLabel(code, label);
+			if (position >= 0) {
+				work.add(position);
+			} else if (target.isLiveOutside(label, register)) {
+				return false;
+			}
+		}
+		if (target.isBranch(instruction)) {
+			work.add(index + (hasDelaySlot(code, index) ? 2 : 1));
+		}
+		return true;
+	}
+}
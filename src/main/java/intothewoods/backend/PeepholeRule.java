@@ -0,0 +1,23 @@
+package intothewoods.backend;
+
+import java.util.List;
+
+/**
+ * Rewrite rule of the PeepholeOptimizer.
+ *
+ * @param <T> type of the entries of the listing
+ */
+public interface PeepholeRule<T> {
+
+	/**
+	 * Return the short name of the rule.
+	 */
+	String getName();
+
+	/**
+	 * Rewrite the instructions starting at the given index if the rule matches, without changing the
+	 * behaviour of the code. The rule must not loop with itself or the other rules.
+	 * @return true if the code changed
+	 */
+	boolean apply(PeepholeOptimizer<T> optimizer, List<T> code, int index);
+}
@@ -0,0 +1,69 @@
+package intothewoods.backend;
+
+import java.util.Set;
+
+/**
+ * Target specific view of the entries (labels and instructions) of an assembly listing, which the
+ * PeepholeOptimizer and its target independent rules use.
+ *
+ * Registers are named by the target, pseudo registers like the flags are allowed. The register sets
+ * only have to be conservative: getReads has to contain every register that the instruction may read,
+ * getWrites every register that it may change. A register that is only partially or conditionally
+ * changed counts as read too, so that the analyses treat every written register that isn't read as
+ * overwritten.
+ *
+ * @param <T> type of the entries
+ */
+public interface PeepholeTarget<T> {
+
+	/**
+	 * Return the label that the entry defines or null if it's an instruction.
+	 */
+	String getLabel(T entry);
+
+	/**
+	 * Return the label of the listing that a jump or branch jumps to or null (also for calls).
+	 */
+	String getTarget(T instruction);
+
+	/**
+	 * Checks whether the instruction transfers control and never falls through (a jump or a return).
+	 */
+	boolean isJump(T instruction);
+
+	/**
+	 * Checks whether the instruction is a conditional branch to a label.
+	 */
+	boolean isBranch(T instruction);
+
+	/**
+	 * Checks whether the instruction belongs to the delay slot of the preceding jump or branch.
+	 */
+	boolean isDelaySlot(T instruction);
+
+	/**
+	 * Return a copy of the jump or branch that jumps to the given label.
+	 */
+	T retarget(T instruction, String label);
+
+	/**
+	 * Return a branch with the opposite condition jumping to the given label or null if there's none.
+	 */
+	T invert(T branch, String label);
+
+	/**
+	 * Return the registers that the instruction may read, for instructions leaving the function also the
+	 * registers live after it, or null if they are unknown.
+	 */
+	Set<String> getReads(T instruction);
+
+	/**
+	 * Return the registers that the instruction may change or null if they are unknown.
+	 */
+	Set<String> getWrites(T instruction);
+
+	/**
+	 * Checks whether the register may be live at a label outside of the listing.
+	 */
+	boolean isLiveOutside(String label, String register);
+}
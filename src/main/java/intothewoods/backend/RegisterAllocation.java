@@ -0,0 +1,92 @@
+package intothewoods.backend;
+
+import intothewoods.ir.IRFunction;
+
+import java.util.Arrays;
+
+/**
+ * Result of a register allocation: the location of every value of a function.
+ *
+ * A location is either a register (index into the register table of the target, at least 0) or a
+ * spill slot in the stack frame (encoded as a negative number, see slot(int)). Values without a location
+ * (constants, strings and instructions without a result) have NONE.
+ */
+public class RegisterAllocation {
+
+	public static final int NONE = IRFunction.NONE;
+
+	private final LiveIntervals intervals;
+	private final int[] locations;
+	private final boolean[] usedRegisters;
+	private int slotCount;
+
+	RegisterAllocation(LiveIntervals intervals, int registerCount) {
+		this.intervals = intervals;
+		this.locations = new int[intervals.getFunction().getValueCount()];
+		this.usedRegisters = new boolean[registerCount];
+		Arrays.fill(locations, NONE);
+	}
+
+	/**
+	 * Return the location of the given spill slot.
+	 */
+	public static int slot(int slot) {
+		return -2 - slot;
+	}
+
+	public static boolean isRegister(int location) {
+		return location >= 0;
+	}
+
+	public static boolean isSlot(int location) {
+		return location <= -2;
+	}
+
+	/**
+	 * Return the spill slot index of the given slot location.
+	 */
+	public static int getSlot(int location) {
+		return -2 - location;
+	}
+
+	void assignRegister(int interval, int register) {
+		locations[interval] = register;
+		usedRegisters[register] = true;
+	}
+
+	void spill(int interval) {
+		locations[interval] = slot(slotCount++);
+	}
+
+	int getIntervalLocation(int interval) {
+		return locations[interval];
+	}
+
+	/**
+	 * Return the location of the given value or NONE.
+	 */
+	public int getLocation(int value) {
+		if (!intervals.defines(value)) {
+			return NONE;
+		}
+		return locations[intervals.getInterval(value)];
+	}
+
+	/**
+	 * Checks whether any value is kept in the given register.
+	 */
+	public boolean isUsed(int register) {
+		return usedRegisters[register];
+	}
+
+	/**
+	 * Return the number of spill slots.
+	 */
+	public int getSlotCount() {
+		return slotCount;
+	}
+
+	public LiveIntervals getIntervals() {
+		return intervals;
+	}
+}
@@ -0,0 +1,221 @@
+package intothewoods.batch;
+
+import intothewoods.runtime.AbstractHeap;
+import intothewoods.runtime.InterruptionException;
+import intothewoods.runtime.OakRuntime;
+import intothewoods.runtime.OakRuntimeException;
+import intothewoods.runtime.SlabHeap;
+import intothewoods.vm.Bytecode;
+import intothewoods.vm.VirtualMachine;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs many Oak programs concurrently in one JVM on a thread pool, e.g. the tests of a test suite.
+ *
+ * The runs only share the compiled (immutable) bytecode, each run has its own heap, standard streams
+ * and virtual machine, the latter stores the global variables. A run is stopped when it exceeds its
+ * timeout and its allocations fail with out of memory when they exceed its memory limit. The captured
+ * output counts against the memory limit too, printing beyond it fails.
+ */
+public class BatchRunner implements AutoCloseable {
+
+	public static final long DEFAULT_TIMEOUT_MILLIS = 10000;
+	public static final long DEFAULT_MEMORY_LIMIT = 64 << 20;
+
+	private final ExecutorService executor;
+	private final ScheduledExecutorService watchdog;
+
+	public BatchRunner() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Initialize a batch runner.
+	 * @param threads number of runs executed at once
+	 */
+	public BatchRunner(int threads) {
+		ThreadFactory factory = new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "oak-batch");
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+		this.executor = Executors.newFixedThreadPool(threads, factory);
+		this.watchdog = Executors.newSingleThreadScheduledExecutor(factory);
+	}
+
+	public Future<RunResult> submit(Bytecode bytecode, String input) {
+		return submit(bytecode, input, DEFAULT_TIMEOUT_MILLIS, DEFAULT_MEMORY_LIMIT);
+	}
+
+	/**
+	 * Submit a run of the given program.
+	 * @param bytecode compiled program, it can be shared by any number of runs
+	 * @param input standard input of the run
+	 * @param timeoutMillis maximum duration of the run
+	 * @param memoryLimit maximum number of bytes allocated on the heap of the run
+	 * @return result of the run
+	 */
+	public Future<RunResult> submit(final Bytecode bytecode, String input, final long timeoutMillis,
+	                                final long memoryLimit) {
+		final byte[] inputBytes = input.getBytes(StandardCharsets.ISO_8859_1);
+		return executor.submit(new Callable<RunResult>() {
+			@Override
+			public RunResult call() {
+				return execute(bytecode, inputBytes, timeoutMillis, memoryLimit);
+			}
+		});
+	}
+
+	/**
+	 * Run the given program once for each of the given inputs and wait for all runs.
+	 * @param bytecode compiled program
+	 * @param inputs standard input of each run
+	 * @param timeoutMillis maximum duration of each run
+	 * @param memoryLimit maximum number of bytes allocated on the heap of each run
+	 * @return results in the order of the inputs
+	 * @throws InterruptedException the waiting thread was interrupted
+	 */
+	public List<RunResult> runAll(Bytecode bytecode, List<String> inputs, long timeoutMillis, long memoryLimit)
+			throws InterruptedException {
+		List<Future<RunResult>> futures = new ArrayList<>();
+		for (String input : inputs) {
+			futures.add(submit(bytecode, input, timeoutMillis, memoryLimit));
+		}
+		List<RunResult> results = new ArrayList<>();
+		for (Future<RunResult> future : futures) {
+			try {
+				results.add(future.get());
+			} catch (ExecutionException ex) {
+				throw new IllegalStateException(ex.getCause());
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Stop all runs and the threads of this runner.
+	 */
+	@Override
+	public void close() {
+		executor.shutdownNow();
+		watchdog.shutdownNow();
+	}
+
+	private RunResult execute(Bytecode bytecode, byte[] input, long timeoutMillis, long memoryLimit) {
+		AbstractHeap heap = new SlabHeap();
+		heap.setMemoryLimit(memoryLimit);
+		CapturedOutput output = new CapturedOutput(heap);
+		CapturedOutput errorOutput = new CapturedOutput(heap);
+		OakRuntime runtime = new OakRuntime(heap, new ByteArrayInputStream(input), output, errorOutput);
+		Timeout timeout = new Timeout(Thread.currentThread());
+		long start = System.nanoTime();
+		ScheduledFuture<?> timer = watchdog.schedule(timeout, timeoutMillis, TimeUnit.MILLISECONDS);
+		int exitCode = 1;
+		String error = null;
+		boolean interrupted = false;
+		try {
+			exitCode = new VirtualMachine(bytecode, runtime).run();
+		} catch (InterruptionException ex) {
+			interrupted = true;
+			error = ex.getMessage();
+		} catch (OakRuntimeException ex) {
+			error = ex.getMessage();
+		} finally {
+			timeout.finish();
+			timer.cancel(false);
+			Thread.interrupted();
+		}
+		long nanos = System.nanoTime() - start;
+		if (interrupted && timeout.hasExpired()) {
+			return new RunResult(1, output.toByteArray(), errorOutput.toByteArray(),
+					"Timeout after " + timeoutMillis + " ms", true, nanos);
+		}
+		return new RunResult(exitCode, output.toByteArray(), errorOutput.toByteArray(), error, false, nanos);
+	}
+
+	/**
+	 * Captures an output stream of a run, the captured bytes count against the memory limit of its heap.
+	 */
+	private static class CapturedOutput extends OutputStream {
+
+		private final AbstractHeap heap;
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		CapturedOutput(AbstractHeap heap) {
+			this.heap = heap;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			reserve(1);
+			bytes.write(b);
+		}
+
+		@Override
+		public void write(byte[] buffer, int offset, int length) throws IOException {
+			reserve(length);
+			bytes.write(buffer, offset, length);
+		}
+
+		private void reserve(int length) throws IOException {
+			long limit = heap.getMemoryLimit();
+			if (length > limit - heap.getAllocatedBytes()) {
+				throw new IOException("Output exceeds the memory limit");
+			}
+			heap.setMemoryLimit(limit - length);
+		}
+
+		byte[] toByteArray() {
+			return bytes.toByteArray();
+		}
+	}
+
+	/**
+	 * Interrupts the thread of a run when the timeout expires and the run is still active.
+	 */
+	private static class Timeout implements Runnable {
+
+		private final Thread thread;
+		private boolean finished = false;
+		private boolean expired = false;
+
+		Timeout(Thread thread) {
+			this.thread = thread;
+		}
+
+		@Override
+		public synchronized void run() {
+			if (!finished) {
+				expired = true;
+				thread.interrupt();
+			}
+		}
+
+		synchronized void finish() {
+			finished = true;
+		}
+
+		synchronized boolean hasExpired() {
+			return expired;
+		}
+	}
+}
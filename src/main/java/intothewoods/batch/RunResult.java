@@ -0,0 +1,77 @@
+package intothewoods.batch;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Result of a single run of a BatchRunner.
+ */
+public class RunResult {
+
+	private final int exitCode;
+	private final byte[] output;
+	private final byte[] errorOutput;
+	private final String error;
+	private final boolean timedOut;
+	private final long nanos;
+
+	/**
+	 * Initialize a run result.
+	 * @param exitCode exit code of the program, 1 if it failed
+	 * @param output standard output of the run
+	 * @param errorOutput error output of the run
+	 * @param error message of the runtime error or null if the program didn't fail
+	 * @param timedOut did the run exceed its timeout?
+	 * @param nanos duration of the run
+	 */
+	public RunResult(int exitCode, byte[] output, byte[] errorOutput, String error, boolean timedOut, long nanos) {
+		this.exitCode = exitCode;
+		this.output = output;
+		this.errorOutput = errorOutput;
+		this.error = error;
+		this.timedOut = timedOut;
+		this.nanos = nanos;
+	}
+
+	public int getExitCode() {
+		return exitCode;
+	}
+
+	public String getOutput() {
+		return new String(output, StandardCharsets.ISO_8859_1);
+	}
+
+	public String getErrorOutput() {
+		return new String(errorOutput, StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Return the message of the runtime error.
+	 * @return message or null if the program didn't fail
+	 */
+	public String getError() {
+		return error;
+	}
+
+	public boolean isTimedOut() {
+		return timedOut;
+	}
+
+	/**
+	 * Return whether the program ended without an error and with exit code 0.
+	 */
+	public boolean isSuccessful() {
+		return error == null && exitCode == 0;
+	}
+
+	public long getNanos() {
+		return nanos;
+	}
+
+	@Override
+	public String toString() {
+		if (timedOut) {
+			return "timed out";
+		}
+		return error == null ? "exit code " + exitCode : "failed: " + error;
+	}
+}
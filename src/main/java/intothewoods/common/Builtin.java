@@ -0,0 +1,207 @@
+package intothewoods.common;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static intothewoods.common.Type.*;
+
+/**
+ * Built in function of Oak, with its function header.
+ *
+ * See language specification.
+ */
+public enum Builtin {
+
+	/* Type conversions */
+	TO_BOOL_BYTE("to_bool", true, false, BOOL, BYTE),
+	TO_BOOL_INT("to_bool", true, false, BOOL, INT),
+	TO_BOOL_FLOAT("to_bool", true, false, BOOL, FLOAT),
+	TO_BYTE_BOOL("to_byte", true, false, BYTE, BOOL),
+	TO_BYTE_INT("to_byte", true, true, BYTE, INT),
+	TO_INT_BOOL("to_int", true, false, INT, BOOL),
+	TO_INT_BYTE("to_int", true, false, INT, BYTE),
+	TO_INT_FLOAT("to_int", true, false, INT, FLOAT),
+	TO_FLOAT_INT("to_float", true, false, FLOAT, INT),
+	ROUND("round", true, true, INT, FLOAT),
+	FLOOR("floor", true, true, INT, FLOAT),
+	TO_POINTER_STRING("to_pointer", true, false, POINTER, STRING),
+	TO_STRING_POINTER("to_string", true, false, STRING, POINTER),
+	TO_STRING_BYTE("to_string", false, false, STRING, BYTE),
+	TO_STRING_INT("to_string", false, false, STRING, INT),
+	TO_STRING_FLOAT("to_string", false, false, STRING, FLOAT),
+
+	/* Arithmetic operations */
+	ADD_BYTE("add", true, false, BYTE, BYTE, BYTE),
+	ADD_INT("add", true, false, INT, INT, INT),
+	ADD_FLOAT("add", true, false, FLOAT, FLOAT, FLOAT),
+	ADD_POINTER("add", true, true, POINTER, POINTER, INT),
+	SUB_BYTE("sub", true, false, BYTE, BYTE, BYTE),
+	SUB_INT("sub", true, false, INT, INT, INT),
+	SUB_FLOAT("sub", true, false, FLOAT, FLOAT, FLOAT),
+	MUL_BYTE("mul", true, false, BYTE, BYTE, BYTE),
+	MUL_INT("mul", true, false, INT, INT, INT),
+	MUL_FLOAT("mul", true, false, FLOAT, FLOAT, FLOAT),
+	DIV_BYTE("div", true, true, BYTE, BYTE, BYTE),
+	DIV_INT("div", true, true, INT, INT, INT),
+	DIV_FLOAT("div", true, true, FLOAT, FLOAT, FLOAT),
+	MOD_BYTE("mod", true, true, BYTE, BYTE, BYTE),
+	MOD_INT("mod", true, true, INT, INT, INT),
+
+	/* Boolean operations */
+	NOT("not", true, false, BOOL, BOOL),
+	AND("and", true, false, BOOL, BOOL, BOOL),
+	OR("or", true, false, BOOL, BOOL, BOOL),
+	XOR("xor", true, false, BOOL, BOOL, BOOL),
+
+	/* Compare operations */
+	EQUAL_BOOL("equal", true, false, BOOL, BOOL, BOOL),
+	EQUAL_BYTE("equal", true, false, BOOL, BYTE, BYTE),
+	EQUAL_INT("equal", true, false, BOOL, INT, INT),
+	EQUAL_FLOAT("equal", true, false, BOOL, FLOAT, FLOAT),
+	EQUAL_POINTER("equal", true, false, BOOL, POINTER, POINTER),
+	EQUAL_STRING("equal", false, false, BOOL, STRING, STRING),
+	LESS_BYTE("less", true, false, BOOL, BYTE, BYTE),
+	LESS_INT("less", true, false, BOOL, INT, INT),
+	LESS_FLOAT("less", true, false, BOOL, FLOAT, FLOAT),
+
+	/* Variable references */
+	GET_REF_BOOL("get_ref", false, false, POINTER, BOOL),
+	GET_REF_BYTE("get_ref", false, false, POINTER, BYTE),
+	GET_REF_INT("get_ref", false, false, POINTER, INT),
+	GET_REF_FLOAT("get_ref", false, false, POINTER, FLOAT),
+	GET_REF_POINTER("get_ref", false, false, POINTER, POINTER),
+	GET_REF_STRING("get_ref", false, false, POINTER, STRING),
+
+	/* Pointers and heap allocation */
+	MALLOC("malloc", false, true, POINTER, INT),
+	FREE("free", false, true, VOID, POINTER),
+	CLONE_MEM("clone_mem", false, true, POINTER, POINTER),
+	COPY_MEM("copy_mem", false, true, VOID, POINTER, POINTER),
+	APPEND_POINTER("append", false, true, POINTER, POINTER, POINTER),
+	MEM_SIZE("mem_size", true, false, INT, POINTER),
+	GET_BOOL("get_bool", false, true, BOOL, POINTER),
+	GET_BYTE("get_byte", false, true, BYTE, POINTER),
+	GET_INT("get_int", false, true, INT, POINTER),
+	GET_FLOAT("get_float", false, true, FLOAT, POINTER),
+	GET_POINTER("get_pointer", false, true, POINTER, POINTER),
+	GET_STRING("get_string", false, true, STRING, POINTER),
+	SET_BOOL("set_bool", false, true, VOID, POINTER, BOOL),
+	SET_BYTE("set_byte", false, true, VOID, POINTER, BYTE),
+	SET_INT("set_int", false, true, VOID, POINTER, INT),
+	SET_FLOAT("set_float", false, true, VOID, POINTER, FLOAT),
+	SET_POINTER("set_pointer", false, true, VOID, POINTER, POINTER),
+	SET_STRING("set_string", false, true, VOID, POINTER, STRING),
+
+	/* Strings */
+	APPEND_STRING("append", false, true, STRING, STRING, STRING),
+
+	/* IO */
+	PRINT("print", false, true, VOID, STRING),
+	PRINT_ERR("print_err", false, true, VOID, STRING),
+	READ_BYTE("read_byte", false, false, BYTE),
+	READ_STRING("read_string", false, false, STRING),
+
+	/* Misc */
+	EXIT("exit", false, true, INT, INT),
+	ASSERT("assert", false, true, VOID, BOOL),
+	ASSERT_MESSAGE("assert", false, true, VOID, BOOL, STRING);
+
+	private final String name;
+	private final boolean pure;
+	private final boolean throwing;
+	private final Type returnType;
+	private final List<Type> parameterTypes;
+
+	private Builtin(String name, boolean pure, boolean throwing, Type returnType, Type... parameterTypes) {
+		this.name = name;
+		this.pure = pure;
+		this.throwing = throwing;
+		this.returnType = returnType;
+		this.parameterTypes = Arrays.asList(parameterTypes);
+	}
+
+	/**
+	 * Return the name of this function, as used in Oak code.
+	 * @return name of this function
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Checks whether or not the result of this function only depends on its arguments
+	 * and the call has no side effects (besides throwing an exception).
+	 * @return is this function pure?
+	 */
+	public boolean isPure() {
+		return pure;
+	}
+
+	/**
+	 * Checks whether or not a call of this function can fail at runtime (or exit the program).
+	 * @return can this function throw an exception?
+	 */
+	public boolean isThrowing() {
+		return throwing;
+	}
+
+	public Type getReturnType() {
+		return returnType;
+	}
+
+	public List<Type> getParameterTypes() {
+		return parameterTypes;
+	}
+
+	public int getNumberOfParameters() {
+		return parameterTypes.size();
+	}
+
+	/**
+	 * Checks whether or not this is one of the get_ref functions.
+	 * They get the variable passed to them and not its value.
+	 * @return is this a get_ref function?
+	 */
+	public boolean isGetRef() {
+		return name.equals("get_ref");
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append(returnType).append(' ').append(name);
+		for (Type type : parameterTypes) {
+			builder.append(' ').append(type);
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Checks whether or not there's a built in function with the given name.
+	 * @param name given name
+	 * @return is there a built in function with the given name?
+	 */
+	public static boolean isBuiltinName(String name) {
+		for (Builtin builtin : values()) {
+			if (builtin.name.equals(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Find the built in function with the given name and parameter types.
+	 * @param name given name
+	 * @param argumentTypes types of the arguments
+	 * @return matching built in function or null if there is none
+	 */
+	public static Builtin find(String name, List<Type> argumentTypes) {
+		for (Builtin builtin : values()) {
+			if (builtin.name.equals(name) && builtin.parameterTypes.equals(argumentTypes)) {
+				return builtin;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,99 @@
+package intothewoods.common;
+
+/**
+ * Data type of an Oak value.
+ *
+ * See language specification.
+ */
+public enum Type {
+
+	BOOL("bool", 1),
+	BYTE("byte", 1),
+	INT("int", 4),
+	FLOAT("float", 4),
+	POINTER("pointer", 8),
+	STRING("string", 8),
+	VOID("void", 0);
+
+	private final String name;
+	private final int size;
+
+	private Type(String name, int size) {
+		this.name = name;
+		this.size = size;
+	}
+
+	/**
+	 * Return the name of this type, as used in Oak code.
+	 * @return name of this type
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Return the size of a value of this type in bytes.
+	 * @return size in bytes
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Return the name of the function local variable that stores the return value of
+	 * calls to functions returning this type (e.g. "ret_int").
+	 * @return name of the ret_TYPE variable
+	 */
+	public String getReturnVariableName() {
+		return "ret_" + name;
+	}
+
+	/**
+	 * Checks whether or not values of this type reference a memory area.
+	 * @return is this the pointer or the string type?
+	 */
+	public boolean isPointerLike() {
+		return this == POINTER || this == STRING;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+	/**
+	 * Return the type with the given name.
+	 * @param name given name, e.g. "int" or "void"
+	 * @return type with the given name or null if there is no such type
+	 */
+	public static Type fromName(String name) {
+		for (Type type : values()) {
+			if (type.name.equals(name)) {
+				return type;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Return the type of the given literal token.
+	 * @param type type of the literal token
+	 * @return type of the literal or null if the token type isn't a literal type
+	 */
+	public static Type fromLiteral(TokenType type) {
+		switch (type) {
+			case BOOL_LITERAL:
+				return BOOL;
+			case BYTE_LITERAL:
+				return BYTE;
+			case INT_LITERAL:
+				return INT;
+			case FLOAT_LITERAL:
+				return FLOAT;
+			case STRING_LITERAL:
+				return STRING;
+			default:
+				return null;
+		}
+	}
+}
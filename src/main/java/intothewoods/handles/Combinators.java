@@ -0,0 +1,320 @@
+package intothewoods.handles;
+
+import intothewoods.common.Builtin;
+import intothewoods.common.Type;
+import intothewoods.runtime.AbstractHeap;
+import intothewoods.runtime.OakRuntime;
+import intothewoods.runtime.OakRuntimeException;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+import static java.lang.invoke.MethodHandles.dropArguments;
+import static java.lang.invoke.MethodHandles.filterArguments;
+import static java.lang.invoke.MethodHandles.filterReturnValue;
+import static java.lang.invoke.MethodHandles.foldArguments;
+import static java.lang.invoke.MethodHandles.insertArguments;
+import static java.lang.invoke.MethodHandles.permuteArguments;
+import static java.lang.invoke.MethodType.methodType;
+
+/**
+ * Factory of the method handles the HandleBuilder combines.
+ *
+ * There are three kinds of handles:
+ * <ul>
+ *     <li>values: (long[] frame)long, read an Oak value</li>
+ *     <li>statements: (long[] frame)boolean, return true if the function returned</li>
+ *     <li>operations: (long, long)long, implement a built in function</li>
+ * </ul>
+ */
+final class Combinators {
+
+	static final MethodType VALUE = methodType(long.class, long[].class);
+	static final MethodType STATEMENT = methodType(boolean.class, long[].class);
+	static final MethodType OPERATION = methodType(long.class, long.class, long.class);
+
+	private static final MethodHandle READ_ARRAY = MethodHandles.arrayElementGetter(long[].class);
+	private static final MethodHandle WRITE_LOCAL = find("writeLocal", boolean.class, long.class, long[].class, int.class);
+	private static final MethodHandle WRITE_GLOBAL = find("writeGlobal", boolean.class, long.class, long[].class,
+			long[].class, int.class);
+	private static final MethodHandle RETURN = find("returnValue", boolean.class, long.class, long[].class, int.class);
+	private static final MethodHandle RESULT = find("result", long.class, boolean.class, long[].class, int.class);
+	private static final MethodHandle FREE_CELLS = find("freeCells", long.class, AbstractHeap.class, int[].class,
+			int.class, boolean.class, long[].class);
+	private static final MethodHandle DISCARD = find("discard", boolean.class, long.class);
+	private static final MethodHandle IS_TRUE = find("isTrue", boolean.class, long.class);
+	private static final MethodHandle LOOP = find("loop", boolean.class, MethodHandle.class, MethodHandle.class,
+			long[].class);
+	private static final MethodHandle CREATE_FRAME = find("createFrame", long[].class, int.class, long[].class);
+	private static final MethodHandle NEW_CELL = find("newCell", long.class, AbstractHeap.class, Type.class, long.class);
+	private static final MethodHandle RETHROW = find("rethrow", boolean.class, int.class, OakRuntimeException.class,
+			long[].class);
+	private static final MethodHandle OVERFLOW = find("overflow", boolean.class, int.class, StackOverflowError.class,
+			long[].class);
+	private static final MethodHandle RUNTIME_CALL;
+	private static final MethodHandle TRUE_STATEMENT =
+			dropArguments(MethodHandles.constant(boolean.class, true), 0, long[].class);
+	private static final MethodHandle FALSE_STATEMENT =
+			dropArguments(MethodHandles.constant(boolean.class, false), 0, long[].class);
+
+	static {
+		try {
+			RUNTIME_CALL = MethodHandles.lookup().findVirtual(OakRuntime.class, "call",
+					methodType(long.class, Builtin.class, long.class, long.class));
+		} catch (NoSuchMethodException | IllegalAccessException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	private Combinators() {
+	}
+
+	static MethodHandle local(int index) {
+		return insertArguments(READ_ARRAY, 1, index);
+	}
+
+	static MethodHandle global(long[] globals, int index) {
+		return dropArguments(insertArguments(READ_ARRAY, 0, globals, index), 0, long[].class);
+	}
+
+	static MethodHandle constant(long value) {
+		return dropArguments(MethodHandles.constant(long.class, value), 0, long[].class);
+	}
+
+	/**
+	 * Return a value handle applying the operation to the two given values.
+	 */
+	static MethodHandle apply(MethodHandle operation, MethodHandle first, MethodHandle second) {
+		return permuteArguments(filterArguments(operation, 0, first, second), VALUE, 0, 0);
+	}
+
+	/**
+	 * Return the operation implemented by the runtime for the given built in function.
+	 */
+	static MethodHandle operation(OakRuntime runtime, Builtin builtin) {
+		switch (builtin) {
+			case ADD_INT:
+				return find("addInt", long.class, long.class, long.class);
+			case SUB_INT:
+				return find("subInt", long.class, long.class, long.class);
+			case MUL_INT:
+				return find("mulInt", long.class, long.class, long.class);
+			case LESS_BYTE:
+			case LESS_INT:
+				return find("less", long.class, long.class, long.class);
+			case EQUAL_BOOL:
+			case EQUAL_BYTE:
+			case EQUAL_INT:
+			case EQUAL_POINTER:
+				return find("equal", long.class, long.class, long.class);
+			case AND:
+				return find("and", long.class, long.class, long.class);
+			case OR:
+				return find("or", long.class, long.class, long.class);
+			case TO_BYTE_BOOL:
+			case TO_INT_BOOL:
+			case TO_INT_BYTE:
+			case TO_POINTER_STRING:
+			case TO_STRING_POINTER:
+				return find("first", long.class, long.class, long.class);
+			default:
+				return insertArguments(RUNTIME_CALL.bindTo(runtime), 0, builtin);
+		}
+	}
+
+	static MethodHandle writeLocal(int index, MethodHandle value) {
+		return foldArguments(insertArguments(WRITE_LOCAL, 2, index), value);
+	}
+
+	static MethodHandle writeGlobal(long[] globals, int index, MethodHandle value) {
+		return foldArguments(insertArguments(WRITE_GLOBAL, 2, globals, index), value);
+	}
+
+	/**
+	 * Return a statement evaluating the given value and ignoring it.
+	 */
+	static MethodHandle evaluate(MethodHandle value) {
+		return filterReturnValue(value, DISCARD);
+	}
+
+	/**
+	 * Return a statement storing the value in the return slot of the frame and returning.
+	 */
+	static MethodHandle returnValue(int slot, MethodHandle value) {
+		return foldArguments(insertArguments(RETURN, 2, slot), value);
+	}
+
+	/**
+	 * Return a value handle that allocates a memory cell holding the given value and yields its pointer.
+	 */
+	static MethodHandle newCell(AbstractHeap heap, Type type, MethodHandle value) {
+		return filterReturnValue(value, insertArguments(NEW_CELL, 0, heap, type));
+	}
+
+	static MethodHandle sequence(MethodHandle... statements) {
+		MethodHandle rest = FALSE_STATEMENT;
+		for (int i = statements.length - 1; i >= 0; i--) {
+			rest = rest == FALSE_STATEMENT ? statements[i] : MethodHandles.guardWithTest(statements[i], TRUE_STATEMENT, rest);
+		}
+		return rest;
+	}
+
+	static MethodHandle branch(MethodHandle condition, MethodHandle then, MethodHandle otherwise) {
+		return MethodHandles.guardWithTest(filterReturnValue(condition, IS_TRUE), then,
+				otherwise == null ? FALSE_STATEMENT : otherwise);
+	}
+
+	static MethodHandle loop(MethodHandle condition, MethodHandle body) {
+		return insertArguments(LOOP, 0, filterReturnValue(condition, IS_TRUE), body);
+	}
+
+	/**
+	 * Return a value handle calling a function.
+	 * @param function handle of the called function, (long[] frame)long
+	 * @param frameSize size of the frame of the called function
+	 * @param arguments values of the arguments
+	 */
+	static MethodHandle call(MethodHandle function, int frameSize, MethodHandle... arguments) {
+		MethodHandle creator = insertArguments(CREATE_FRAME, 0, frameSize).asCollector(long[].class, arguments.length);
+		if (arguments.length == 0) {
+			creator = dropArguments(creator, 0, long[].class);
+		} else {
+			creator = permuteArguments(filterArguments(creator, 0, arguments), methodType(long[].class, long[].class),
+					new int[arguments.length]);
+		}
+		return filterArguments(function, 0, creator);
+	}
+
+	/**
+	 * Return the handle of a function with the given body, it returns the content of the return slot.
+	 */
+	static MethodHandle function(MethodHandle body, int returnSlot) {
+		return foldArguments(insertArguments(RESULT, 2, returnSlot), body);
+	}
+
+	/**
+	 * Return the handle of a function with the given body, that frees the memory cells whose pointers are
+	 * stored in the given slots before it returns the content of the return slot.
+	 */
+	static MethodHandle function(MethodHandle body, int returnSlot, AbstractHeap heap, int[] cells) {
+		if (cells.length == 0) {
+			return function(body, returnSlot);
+		}
+		return foldArguments(insertArguments(FREE_CELLS, 0, heap, cells, returnSlot), body);
+	}
+
+	/**
+	 * Return a statement adding the given line to the runtime exceptions without line that the statement throws
+	 * and turning a stack overflow in it into a runtime exception with the given line.
+	 */
+	static MethodHandle guard(MethodHandle statement, int line) {
+		MethodHandle guarded = MethodHandles.catchException(statement, OakRuntimeException.class,
+				insertArguments(RETHROW, 0, line));
+		return MethodHandles.catchException(guarded, StackOverflowError.class, insertArguments(OVERFLOW, 0, line));
+	}
+
+	private static boolean writeLocal(long value, long[] frame, int index) {
+		frame[index] = value;
+		return false;
+	}
+
+	private static boolean writeGlobal(long value, long[] frame, long[] globals, int index) {
+		globals[index] = value;
+		return false;
+	}
+
+	private static boolean returnValue(long value, long[] frame, int slot) {
+		frame[slot] = value;
+		return true;
+	}
+
+	private static long result(boolean returned, long[] frame, int slot) {
+		return frame[slot];
+	}
+
+	private static long freeCells(AbstractHeap heap, int[] cells, int slot, boolean returned, long[] frame)
+			throws OakRuntimeException {
+		for (int cell : cells) {
+			heap.free(frame[cell]);
+		}
+		return frame[slot];
+	}
+
+	private static boolean discard(long value) {
+		return false;
+	}
+
+	private static boolean isTrue(long value) {
+		return value != 0;
+	}
+
+	private static boolean loop(MethodHandle condition, MethodHandle body, long[] frame) throws Throwable {
+		while ((boolean) condition.invokeExact(frame)) {
+			if ((boolean) body.invokeExact(frame)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static long[] createFrame(int size, long[] arguments) {
+		long[] frame = new long[size];
+		System.arraycopy(arguments, 0, frame, 0, arguments.length);
+		return frame;
+	}
+
+	private static long newCell(AbstractHeap heap, Type type, long value) throws OakRuntimeException {
+		long cell = heap.malloc(type.getSize());
+		heap.store(cell, type, value);
+		return cell;
+	}
+
+	private static boolean rethrow(int line, OakRuntimeException exception, long[] frame) throws OakRuntimeException {
+		throw OakRuntimeException.atLine(exception, line);
+	}
+
+	private static boolean overflow(int line, StackOverflowError error, long[] frame) throws OakRuntimeException {
+		throw new OakRuntimeException("Stack overflow", line);
+	}
+
+	private static long addInt(long first, long second) {
+		return (int) first + (int) second;
+	}
+
+	private static long subInt(long first, long second) {
+		return (int) first - (int) second;
+	}
+
+	private static long mulInt(long first, long second) {
+		return (int) first * (int) second;
+	}
+
+	private static long less(long first, long second) {
+		return first < second ? 1 : 0;
+	}
+
+	private static long equal(long first, long second) {
+		return first == second ? 1 : 0;
+	}
+
+	private static long and(long first, long second) {
+		return first & second;
+	}
+
+	private static long or(long first, long second) {
+		return first | second;
+	}
+
+	private static long first(long first, long second) {
+		return first;
+	}
+
+	private static MethodHandle find(String name, Class<?> returnType, Class<?>... parameterTypes) {
+		try {
+			return MethodHandles.lookup().findStatic(Combinators.class, name, methodType(returnType, parameterTypes));
+		} catch (NoSuchMethodException | IllegalAccessException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+}
@@ -0,0 +1,237 @@
+package intothewoods.handles;
+
+import intothewoods.analyser.Constant;
+import intothewoods.analyser.Function;
+import intothewoods.analyser.Operand;
+import intothewoods.analyser.Program;
+import intothewoods.analyser.Variable;
+import intothewoods.common.Builtin;
+import intothewoods.common.TokenType;
+import intothewoods.common.Type;
+import intothewoods.parser.ASTNode;
+import intothewoods.runtime.OakRuntime;
+import intothewoods.runtime.OakRuntimeException;
+import intothewoods.runtime.Pointers;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MutableCallSite;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds the method handle trees of an analysed program for one execution.
+ *
+ * Every function is called via its own call site, its target is the handle tree of the function body,
+ * that takes the frame of the function (the function local variables followed by the return slot).
+ */
+public class HandleBuilder {
+
+	private final Program program;
+	private final OakRuntime runtime;
+	private final long[] globals;
+	private final MutableCallSite[] callSites;
+	private int returnSlot;
+
+	/**
+	 * Initialize a handle builder.
+	 * @param program analysed program
+	 * @param runtime runtime of the execution
+	 * @param globals storage of the global variables
+	 */
+	public HandleBuilder(Program program, OakRuntime runtime, long[] globals) {
+		this.program = program;
+		this.runtime = runtime;
+		this.globals = globals;
+		this.callSites = new MutableCallSite[program.getFunctions().size()];
+		for (int i = 0; i < callSites.length; i++) {
+			callSites[i] = new MutableCallSite(Combinators.VALUE);
+		}
+	}
+
+	/**
+	 * Build the handles of all functions and link them to their call sites.
+	 * @throws OakRuntimeException a string literal can't be allocated
+	 */
+	public void buildFunctions() throws OakRuntimeException {
+		for (Function function : program.getFunctions()) {
+			callSites[function.getIndex()].setTarget(buildFunction(function));
+		}
+	}
+
+	/**
+	 * Return the handle calling the given function, (long[] frame)long.
+	 * @param function given function
+	 * @return invoker of the call site of the function
+	 */
+	public MethodHandle getFunctionHandle(Function function) {
+		return callSites[function.getIndex()].dynamicInvoker();
+	}
+
+	/**
+	 * Return the size of the frame of the given function.
+	 */
+	public static int getFrameSize(Function function) {
+		return function.getLocals().size() + 1;
+	}
+
+	/**
+	 * Build the statement initializing the global variables.
+	 * @return statement handle to invoke with an empty frame
+	 * @throws OakRuntimeException a string literal can't be allocated
+	 */
+	public MethodHandle buildGlobalInitialization() throws OakRuntimeException {
+		List<MethodHandle> statements = new ArrayList<>();
+		for (ASTNode declaration : program.getAST().getChild(0)) {
+			statements.add(Combinators.guard(buildDeclaration(declaration), Program.getLine(declaration)));
+		}
+		return Combinators.sequence(statements.toArray(new MethodHandle[statements.size()]));
+	}
+
+	private MethodHandle buildFunction(Function function) throws OakRuntimeException {
+		returnSlot = getFrameSize(function) - 1;
+		List<MethodHandle> prologue = new ArrayList<>();
+		List<Integer> cells = new ArrayList<>();
+		for (Variable local : function.getLocals()) {
+			if (local.isReferenced()) {
+				MethodHandle value = function.getParameters().contains(local) ? Combinators.local(local.getIndex())
+						: Combinators.constant(OakRuntime.defaultValue(local.getType()));
+				prologue.add(writeSlot(local, Combinators.newCell(runtime.getHeap(), local.getType(), value)));
+				cells.add(local.getIndex());
+			}
+		}
+		for (Variable variable : function.getReturnVariables()) {
+			if (!variable.isReferenced()) {
+				prologue.add(writeSlot(variable, Combinators.constant(OakRuntime.defaultValue(variable.getType()))));
+			}
+		}
+		MethodHandle body = buildBlock(function.getBody(), prologue);
+		int[] cellSlots = new int[cells.size()];
+		for (int i = 0; i < cellSlots.length; i++) {
+			cellSlots[i] = cells.get(i);
+		}
+		return Combinators.function(body, returnSlot, runtime.getHeap(), cellSlots);
+	}
+
+	private MethodHandle buildBlock(ASTNode block, List<MethodHandle> statements) throws OakRuntimeException {
+		for (ASTNode statement : block) {
+			if (statement.hasNotType(TokenType.COMMENT)) {
+				statements.add(buildStatement(statement));
+			}
+		}
+		return Combinators.sequence(statements.toArray(new MethodHandle[statements.size()]));
+	}
+
+	private MethodHandle buildStatement(ASTNode statement) throws OakRuntimeException {
+		int line = Program.getLine(statement);
+		switch (statement.getType()) {
+			case VARIABLE_DECLARATION:
+				return Combinators.guard(buildDeclaration(statement), line);
+			case VARIABLE_ASSIGNMENT:
+				return Combinators.guard(write(program.getTarget(statement),
+						value(program.getOperand(statement.getChild(1)))), line);
+			case FUNCTION_CALL:
+				return Combinators.guard(buildCall(statement), line);
+			case RETURN_STATEMENT:
+				return Combinators.returnValue(returnSlot, statement.isLeaf() ?
+						Combinators.constant(0) : value(program.getOperand(statement.getChild(0))));
+			case CONDITION:
+				return Combinators.branch(value(program.getOperand(statement.getChild(0))),
+						buildBlock(statement.getChild(1), new ArrayList<MethodHandle>()),
+						statement.getNumberOfChildren() > 2 ?
+								buildBlock(statement.getChild(2), new ArrayList<MethodHandle>()) : null);
+			case LOOP:
+				return Combinators.loop(value(program.getOperand(statement.getChild(0))),
+						buildBlock(statement.getChild(1), new ArrayList<MethodHandle>()));
+			default:
+				throw new IllegalArgumentException("Unexpected statement " + statement.getType());
+		}
+	}
+
+	private MethodHandle buildDeclaration(ASTNode declaration) throws OakRuntimeException {
+		Variable variable = program.getTarget(declaration);
+		MethodHandle value = value(program.getOperand(declaration.getChild(2)));
+		if (variable.isReferenced() && variable.isGlobal()) {
+			return writeSlot(variable, Combinators.newCell(runtime.getHeap(), variable.getType(), value));
+		}
+		return write(variable, value);
+	}
+
+	private MethodHandle buildCall(ASTNode call) throws OakRuntimeException {
+		List<Operand> arguments = program.getArguments(call);
+		Variable target = program.getTarget(call);
+		Function function = program.getCalledFunction(call);
+		MethodHandle result;
+		if (function != null) {
+			MethodHandle[] values = new MethodHandle[arguments.size()];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = value(arguments.get(i));
+			}
+			result = Combinators.call(getFunctionHandle(function), getFrameSize(function), values);
+		} else {
+			Builtin builtin = program.getCalledBuiltin(call);
+			if (builtin.isGetRef()) {
+				return write(target, slotValue((Variable) arguments.get(0)));
+			}
+			result = Combinators.apply(Combinators.operation(runtime, builtin),
+					arguments.size() > 0 ? value(arguments.get(0)) : Combinators.constant(0),
+					arguments.size() > 1 ? value(arguments.get(1)) : Combinators.constant(0));
+			if (builtin == Builtin.FREE && arguments.get(0) instanceof Variable) {
+				return Combinators.sequence(Combinators.evaluate(result),
+						write((Variable) arguments.get(0), Combinators.constant(Pointers.INVALID)));
+			}
+		}
+		return target == null ? Combinators.evaluate(result) : write(target, result);
+	}
+
+	private MethodHandle value(Operand operand) throws OakRuntimeException {
+		if (operand instanceof Constant) {
+			Constant constant = (Constant) operand;
+			if (constant.getBytes() != null) {
+				return Combinators.constant(runtime.getHeap().allocateBytes(constant.getBytes()));
+			}
+			return Combinators.constant(constant.getValue());
+		}
+		Variable variable = (Variable) operand;
+		if (variable.isReferenced()) {
+			return Combinators.apply(Combinators.operation(runtime, getter(variable.getType())),
+					slotValue(variable), Combinators.constant(0));
+		}
+		return slotValue(variable);
+	}
+
+	/**
+	 * Return a value handle reading the slot of the variable, the pointer to the cell for referenced variables.
+	 */
+	private MethodHandle slotValue(Variable variable) {
+		if (variable.isGlobal()) {
+			return Combinators.global(globals, variable.getIndex());
+		}
+		return Combinators.local(variable.getIndex());
+	}
+
+	private MethodHandle write(Variable variable, MethodHandle value) {
+		if (variable.isReferenced()) {
+			return Combinators.evaluate(Combinators.apply(Combinators.operation(runtime, setter(variable.getType())),
+					slotValue(variable), value));
+		}
+		return writeSlot(variable, value);
+	}
+
+	/**
+	 * Return a statement writing the slot of the variable, the pointer to the cell for referenced variables.
+	 */
+	private MethodHandle writeSlot(Variable variable, MethodHandle value) {
+		if (variable.isGlobal()) {
+			return Combinators.writeGlobal(globals, variable.getIndex(), value);
+		}
+		return Combinators.writeLocal(variable.getIndex(), value);
+	}
+
+	private static Builtin getter(Type type) {
+		return Builtin.valueOf("GET_" + type.name());
+	}
+
+	private static Builtin setter(Type type) {
+		return Builtin.valueOf("SET_" + type.name());
+	}
+}
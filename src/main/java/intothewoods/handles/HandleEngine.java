@@ -0,0 +1,79 @@
+package intothewoods.handles;
+
+import intothewoods.analyser.Function;
+import intothewoods.analyser.Program;
+import intothewoods.runtime.ExitException;
+import intothewoods.runtime.OakRuntime;
+import intothewoods.runtime.OakRuntimeException;
+import intothewoods.runtime.ProgramThread;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.Callable;
+
+/**
+ * Execution engine that combines the statements of every function into a single method handle tree.
+ *
+ * The control structures are built with guardWithTest and a loop combinator, calls of built in
+ * functions are argument filters of the operation handles. As the handle trees are bound to call sites,
+ * the JIT compiler can inline whole function bodies without any generated class files.
+ */
+public class HandleEngine {
+
+	/**
+	 * Size of the Java stack of the thread running the program, it limits the recursion depth.
+	 * It's smaller than the stack of the Interpreter, as every call allocates a frame and each garbage
+	 * collection has to scan the whole stack.
+	 */
+	public static final long JAVA_STACK_SIZE = 1L << 26;
+
+	private final Program program;
+	private final OakRuntime runtime;
+
+	public HandleEngine(Program program, OakRuntime runtime) {
+		this.program = program;
+		this.runtime = runtime;
+	}
+
+	/**
+	 * Run the program: initialize the global variables and call the main function.
+	 *
+	 * The program runs on its own thread with a Java stack of JAVA_STACK_SIZE bytes, as every Oak call
+	 * is a nested invocation of method handles.
+	 *
+	 * @return exit code (the return value of main, if it returns an int, or the argument of exit)
+	 * @throws OakRuntimeException the program failed
+	 */
+	public int run() throws OakRuntimeException {
+		final Function main = program.getMainFunction();
+		if (main == null) {
+			throw new OakRuntimeException("Program has no main function");
+		}
+		return ProgramThread.run("oak-handles", JAVA_STACK_SIZE, new Callable<Integer>() {
+			@Override
+			public Integer call() throws OakRuntimeException {
+				return execute(main);
+			}
+		});
+	}
+
+	private int execute(Function main) throws OakRuntimeException {
+		try {
+			HandleBuilder builder = new HandleBuilder(program, runtime, new long[program.getGlobals().size()]);
+			builder.buildFunctions();
+			MethodHandle initialization = builder.buildGlobalInitialization();
+			boolean ignored = (boolean) initialization.invokeExact(new long[1]);
+			MethodHandle function = builder.getFunctionHandle(main);
+			return (int) (long) function.invokeExact(new long[HandleBuilder.getFrameSize(main)]);
+		} catch (ExitException ex) {
+			return ex.getExitCode();
+		} catch (StackOverflowError error) {
+			throw new OakRuntimeException("Stack overflow");
+		} catch (OakRuntimeException | RuntimeException | Error ex) {
+			throw ex;
+		} catch (Throwable throwable) {
+			throw new IllegalStateException(throwable);
+		} finally {
+			runtime.flush();
+		}
+	}
+}
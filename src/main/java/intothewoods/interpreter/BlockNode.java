@@ -0,0 +1,48 @@
+package intothewoods.interpreter;
+
+import intothewoods.runtime.OakRuntimeException;
+
+/**
+ * Sequence of statements, the only node whose children can be replaced.
+ */
+public class BlockNode extends StatementNode {
+
+	private final StatementNode[] statements;
+
+	public BlockNode(int line, StatementNode[] statements) {
+		super(line);
+		this.statements = statements;
+	}
+
+	/**
+	 * Replace the statement at the given index, used by nodes that rewrite themselves.
+	 * @param index given index
+	 * @param statement new statement
+	 */
+	void replace(int index, StatementNode statement) {
+		statements[index] = statement;
+	}
+
+	StatementNode getStatement(int index) {
+		return statements[index];
+	}
+
+	int size() {
+		return statements.length;
+	}
+
+	@Override
+	public int execute(Frame frame) throws OakRuntimeException {
+		int i = 0;
+		try {
+			for (; i < statements.length; i++) {
+				if (statements[i].execute(frame) == RETURN) {
+					return RETURN;
+				}
+			}
+		} catch (OakRuntimeException ex) {
+			throw OakRuntimeException.atLine(ex, statements[i].line);
+		}
+		return NORMAL;
+	}
+}
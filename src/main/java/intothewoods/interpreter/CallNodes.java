@@ -0,0 +1,223 @@
+package intothewoods.interpreter;
+
+import intothewoods.common.Builtin;
+import intothewoods.common.Type;
+import intothewoods.runtime.AbstractHeap;
+import intothewoods.runtime.OakRuntime;
+import intothewoods.runtime.OakRuntimeException;
+import intothewoods.runtime.Pointers;
+
+/**
+ * Specialized nodes for function calls.
+ *
+ * The operation nodes write their result directly into a function local variable (the
+ * ret_TYPE variable), calls with any other target use the generic nodes.
+ */
+public final class CallNodes {
+
+	private CallNodes() {
+	}
+
+	/**
+	 * Call of a user defined function, it caches the root node of the called function.
+	 */
+	public static class Direct extends StatementNode {
+
+		private final FunctionNode function;
+		private final ValueNode[] arguments;
+		private final Target target;
+
+		public Direct(int line, FunctionNode function, ValueNode[] arguments, Target target) {
+			super(line);
+			this.function = function;
+			this.arguments = arguments;
+			this.target = target;
+		}
+
+		@Override
+		public int execute(Frame frame) throws OakRuntimeException {
+			CallStack stack = frame.stack;
+			Frame calleeFrame = stack.push(function.getFrameSize());
+			long value;
+			try {
+				for (int i = 0; i < arguments.length; i++) {
+					calleeFrame.set(i, arguments[i].read(frame));
+				}
+				value = function.invoke(calleeFrame);
+			} finally {
+				stack.pop(calleeFrame);
+			}
+			if (target != null) {
+				target.write(frame, value);
+			}
+			return NORMAL;
+		}
+	}
+
+	/**
+	 * Call of any built in function, implemented by the runtime.
+	 */
+	public static class Generic extends StatementNode {
+
+		private final OakRuntime runtime;
+		private final Builtin builtin;
+		private final ValueNode first;
+		private final ValueNode second;
+		private final Target target;
+		private final Target freed;
+
+		/**
+		 * Initialize a generic built in function call.
+		 * @param line line of the call
+		 * @param runtime runtime implementing the built in functions
+		 * @param builtin called function
+		 * @param first first argument or null
+		 * @param second second argument or null
+		 * @param target target of the return value or null
+		 * @param freed variable passed to free, it's invalidated after the call, or null
+		 */
+		public Generic(int line, OakRuntime runtime, Builtin builtin, ValueNode first, ValueNode second,
+		               Target target, Target freed) {
+			super(line);
+			this.runtime = runtime;
+			this.builtin = builtin;
+			this.first = first;
+			this.second = second;
+			this.target = target;
+			this.freed = freed;
+		}
+
+		@Override
+		public int execute(Frame frame) throws OakRuntimeException {
+			long value = runtime.call(builtin, first == null ? 0 : first.read(frame),
+					second == null ? 0 : second.read(frame));
+			if (target != null) {
+				target.write(frame, value);
+			}
+			if (freed != null) {
+				freed.write(frame, Pointers.INVALID);
+			}
+			return NORMAL;
+		}
+	}
+
+	/**
+	 * Base class of binary operations writing into a function local variable.
+	 */
+	abstract static class Binary extends StatementNode {
+
+		final int target;
+		final ValueNode first;
+		final ValueNode second;
+
+		Binary(int line, int target, ValueNode first, ValueNode second) {
+			super(line);
+			this.target = target;
+			this.first = first;
+			this.second = second;
+		}
+	}
+
+	/**
+	 * add int int
+	 */
+	public static class AddInt extends Binary {
+
+		public AddInt(int line, int target, ValueNode first, ValueNode second) {
+			super(line, target, first, second);
+		}
+
+		@Override
+		public int execute(Frame frame) throws OakRuntimeException {
+			frame.set(target, (int) first.read(frame) + (int) second.read(frame));
+			return NORMAL;
+		}
+	}
+
+	/**
+	 * sub int int
+	 */
+	public static class SubInt extends Binary {
+
+		public SubInt(int line, int target, ValueNode first, ValueNode second) {
+			super(line, target, first, second);
+		}
+
+		@Override
+		public int execute(Frame frame) throws OakRuntimeException {
+			frame.set(target, (int) first.read(frame) - (int) second.read(frame));
+			return NORMAL;
+		}
+	}
+
+	/**
+	 * mul int int
+	 */
+	public static class MulInt extends Binary {
+
+		public MulInt(int line, int target, ValueNode first, ValueNode second) {
+			super(line, target, first, second);
+		}
+
+		@Override
+		public int execute(Frame frame) throws OakRuntimeException {
+			frame.set(target, (int) first.read(frame) * (int) second.read(frame));
+			return NORMAL;
+		}
+	}
+
+	/**
+	 * less int int and less byte byte
+	 */
+	public static class Less extends Binary {
+
+		public Less(int line, int target, ValueNode first, ValueNode second) {
+			super(line, target, first, second);
+		}
+
+		@Override
+		public int execute(Frame frame) throws OakRuntimeException {
+			frame.set(target, first.read(frame) < second.read(frame) ? 1 : 0);
+			return NORMAL;
+		}
+	}
+
+	/**
+	 * equal for all types except float and string
+	 */
+	public static class Equal extends Binary {
+
+		public Equal(int line, int target, ValueNode first, ValueNode second) {
+			super(line, target, first, second);
+		}
+
+		@Override
+		public int execute(Frame frame) throws OakRuntimeException {
+			frame.set(target, first.read(frame) == second.read(frame) ? 1 : 0);
+			return NORMAL;
+		}
+	}
+
+	/**
+	 * get_int pointer
+	 */
+	public static class GetInt extends StatementNode {
+
+		private final AbstractHeap heap;
+		private final int target;
+		private final ValueNode pointer;
+
+		public GetInt(int line, AbstractHeap heap, int target, ValueNode pointer) {
+			super(line);
+			this.heap = heap;
+			this.target = target;
+			this.pointer = pointer;
+		}
+
+		@Override
+		public int execute(Frame frame) throws OakRuntimeException {
+			frame.set(target, heap.load(pointer.read(frame), Type.INT));
+			return NORMAL;
+		}
+	}
+}
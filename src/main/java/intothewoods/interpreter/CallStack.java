@@ -0,0 +1,88 @@
+package intothewoods.interpreter;
+
+import intothewoods.runtime.OakRuntimeException;
+
+import java.util.Arrays;
+
+/**
+ * Call stack of the Interpreter: the local variables of all active frames are stored in one growable
+ * long array, the frame of a called function directly follows the frame of its caller.
+ *
+ * The Frame objects are pooled by call depth, so calls don't allocate once the stack reached its depth.
+ *
+ * Executing the nodes of a call still recurses on the Java stack, so the recursion depth is bounded by the
+ * Java stack of the thread running the program too (see Interpreter.JAVA_STACK_SIZE), which allows
+ * at least 500000 nested calls of a small function.
+ */
+public class CallStack {
+
+	/**
+	 * Default maximum number of local variables of all active frames.
+	 */
+	public static final int DEFAULT_MAX_SIZE = 1 << 24;
+
+	private final int maxSize;
+	long[] values;
+	private Frame[] frames = new Frame[64];
+	private int top = 0;
+	private int depth = 0;
+
+	public CallStack() {
+		this(DEFAULT_MAX_SIZE);
+	}
+
+	/**
+	 * Initialize a call stack.
+	 * @param maxSize maximum number of local variables of all active frames, limits the recursion depth
+	 */
+	public CallStack(int maxSize) {
+		this.maxSize = maxSize;
+		this.values = new long[Math.min(256, maxSize)];
+	}
+
+	/**
+	 * Push a new frame, its local variables are zero.
+	 * @param size number of local variables of the frame
+	 * @return new frame, only valid until it's popped
+	 * @throws OakRuntimeException stack overflow
+	 */
+	public Frame push(int size) throws OakRuntimeException {
+		int end = top + size;
+		if (end > values.length) {
+			if (end > maxSize) {
+				throw new OakRuntimeException("Stack overflow");
+			}
+			values = Arrays.copyOf(values, (int) Math.min(maxSize, Math.max(end, values.length * 2L)));
+		} else {
+			Arrays.fill(values, top, end, 0);
+		}
+		if (depth == frames.length) {
+			frames = Arrays.copyOf(frames, depth * 2);
+		}
+		Frame frame = frames[depth];
+		if (frame == null) {
+			frame = new Frame(this);
+			frames[depth] = frame;
+		}
+		depth++;
+		frame.base = top;
+		frame.returnValue = 0;
+		top = end;
+		return frame;
+	}
+
+	/**
+	 * Pop the given frame, it has to be the top most frame.
+	 */
+	public void pop(Frame frame) {
+		top = frame.base;
+		depth--;
+	}
+
+	/**
+	 * Return the number of active frames.
+	 */
+	public int getDepth() {
+		return depth;
+	}
+}
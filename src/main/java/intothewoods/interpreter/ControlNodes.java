@@ -0,0 +1,81 @@
+package intothewoods.interpreter;
+
+import intothewoods.runtime.OakRuntimeException;
+
+/**
+ * Nodes for the control structures and the return statement.
+ */
+public final class ControlNodes {
+
+	private ControlNodes() {
+	}
+
+	/**
+	 * Conditional (_if with an optional _else block).
+	 */
+	public static class If extends StatementNode {
+
+		private final ValueNode condition;
+		private final BlockNode thenBlock;
+		private final BlockNode elseBlock;
+
+		public If(int line, ValueNode condition, BlockNode thenBlock, BlockNode elseBlock) {
+			super(line);
+			this.condition = condition;
+			this.thenBlock = thenBlock;
+			this.elseBlock = elseBlock;
+		}
+
+		@Override
+		public int execute(Frame frame) throws OakRuntimeException {
+			if (condition.read(frame) != 0) {
+				return thenBlock.execute(frame);
+			}
+			return elseBlock == null ? NORMAL : elseBlock.execute(frame);
+		}
+	}
+
+	/**
+	 * While loop.
+	 */
+	public static class While extends StatementNode {
+
+		private final ValueNode condition;
+		private final BlockNode body;
+
+		public While(int line, ValueNode condition, BlockNode body) {
+			super(line);
+			this.condition = condition;
+			this.body = body;
+		}
+
+		@Override
+		public int execute(Frame frame) throws OakRuntimeException {
+			while (condition.read(frame) != 0) {
+				if (body.execute(frame) == RETURN) {
+					return RETURN;
+				}
+			}
+			return NORMAL;
+		}
+	}
+
+	/**
+	 * Return statement, with or without a value.
+	 */
+	public static class Return extends StatementNode {
+
+		private final ValueNode value;
+
+		public Return(int line, ValueNode value) {
+			super(line);
+			this.value = value;
+		}
+
+		@Override
+		public int execute(Frame frame) throws OakRuntimeException {
+			frame.returnValue = value == null ? 0 : value.read(frame);
+			return RETURN;
+		}
+	}
+}
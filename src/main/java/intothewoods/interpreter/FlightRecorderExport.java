@@ -0,0 +1,98 @@
+package intothewoods.interpreter;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Creates and commits the profile events of the JDK Flight Recorder.
+ *
+ * The event types are defined at runtime via jdk.jfr.EventFactory and accessed reflectively,
+ * as the project is compiled for Java 7, which has no flight recorder API.
+ */
+class FlightRecorderExport {
+
+	private final Method newEvent;
+	private final Method set;
+	private final Method commit;
+	private final Object functionFactory;
+	private final Object loopFactory;
+	private final Object builtinFactory;
+
+	private FlightRecorderExport() throws ReflectiveOperationException {
+		Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+		Class<?> eventClass = Class.forName("jdk.jfr.Event");
+		newEvent = factoryClass.getMethod("newEvent");
+		set = eventClass.getMethod("set", int.class, Object.class);
+		commit = eventClass.getMethod("commit");
+		functionFactory = createFactory("intothewoods.FunctionProfile", "Oak Function Profile",
+				String.class, "function", int.class, "line", long.class, "calls",
+				long.class, "selfNanos", long.class, "totalNanos");
+		loopFactory = createFactory("intothewoods.LoopProfile", "Oak Loop Profile",
+				int.class, "line", long.class, "iterations");
+		builtinFactory = createFactory("intothewoods.BuiltinProfile", "Oak Built In Function Profile",
+				String.class, "builtin", long.class, "calls");
+	}
+
+	/**
+	 * Create an exporter.
+	 * @return exporter or null if the flight recorder isn't available
+	 */
+	static FlightRecorderExport create() {
+		try {
+			return new FlightRecorderExport();
+		} catch (ReflectiveOperationException | LinkageError ex) {
+			return null;
+		}
+	}
+
+	void commitFunction(String function, int line, long calls, long selfNanos, long totalNanos) {
+		commit(functionFactory, function, line, calls, selfNanos, totalNanos);
+	}
+
+	void commitLoop(int line, long iterations) {
+		commit(loopFactory, line, iterations);
+	}
+
+	void commitBuiltin(String builtin, long calls) {
+		commit(builtinFactory, builtin, calls);
+	}
+
+	private void commit(Object factory, Object... values) {
+		try {
+			Object event = newEvent.invoke(factory);
+			for (int i = 0; i < values.length; i++) {
+				set.invoke(event, i, values[i]);
+			}
+			commit.invoke(event);
+		} catch (ReflectiveOperationException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	/**
+	 * Create an event factory.
+	 * @param name name of the event type
+	 * @param label label of the event type
+	 * @param fields pairs of field type and field name
+	 */
+	private static Object createFactory(String name, String label, Object... fields)
+			throws ReflectiveOperationException {
+		Class<?> annotationElement = Class.forName("jdk.jfr.AnnotationElement");
+		Class<?> valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor");
+		Constructor<?> annotation = annotationElement.getConstructor(Class.class, Object.class);
+		List<Object> annotations = Arrays.asList(
+				annotation.newInstance(Class.forName("jdk.jfr.Name"), name),
+				annotation.newInstance(Class.forName("jdk.jfr.Label"), label),
+				annotation.newInstance(Class.forName("jdk.jfr.Category"), new String[]{"Oak"}));
+		Constructor<?> descriptor = valueDescriptor.getConstructor(Class.class, String.class);
+		List<Object> descriptors = new ArrayList<>();
+		for (int i = 0; i < fields.length; i += 2) {
+			descriptors.add(descriptor.newInstance(fields[i], fields[i + 1]));
+		}
+		return Class.forName("jdk.jfr.EventFactory").getMethod("create", List.class, List.class)
+				.invoke(null, annotations, descriptors);
+	}
+}
@@ -0,0 +1,23 @@
+package intothewoods.interpreter;
+
+/**
+ * Activation of a function: its local variables, stored in a CallStack, and its return value.
+ */
+public class Frame {
+
+	final CallStack stack;
+	int base;
+	long returnValue;
+
+	Frame(CallStack stack) {
+		this.stack = stack;
+	}
+
+	long get(int index) {
+		return stack.values[base + index];
+	}
+
+	void set(int index, long value) {
+		stack.values[base + index] = value;
+	}
+}
@@ -0,0 +1,107 @@
+package intothewoods.interpreter;
+
+import intothewoods.analyser.Function;
+import intothewoods.runtime.ExitException;
+import intothewoods.runtime.OakRuntimeException;
+
+import java.lang.invoke.MethodHandle;
+
+/**
+ * Root node of a function, its body is built on the first invocation.
+ *
+ * If tiered execution is enabled, it counts the invocations and loop iterations of the function
+ * and switches to the compiled method of the function when it gets hot, see TierManager.
+ */
+public class FunctionNode {
+
+	private final Function function;
+	private final NodeBuilder builder;
+	private final TierManager tiers;
+	private StatementNode body;
+	private volatile MethodHandle compiled;
+	private int hotness = 0;
+
+	FunctionNode(Function function, NodeBuilder builder) {
+		this.function = function;
+		this.builder = builder;
+		this.tiers = builder.getTierManager();
+	}
+
+	public Function getFunction() {
+		return function;
+	}
+
+	/**
+	 * Return the number of local variables of the function.
+	 * @return size of a frame of this function
+	 */
+	public int getFrameSize() {
+		return function.getLocals().size();
+	}
+
+	/**
+	 * Invoke the function.
+	 * @param frame new frame of the function, the parameters are already set
+	 * @return encoded return value (0 for void functions)
+	 * @throws OakRuntimeException the program failed
+	 */
+	public long invoke(Frame frame) throws OakRuntimeException {
+		MethodHandle target = compiled;
+		if (target == null && tiers != null) {
+			target = countHotness(1);
+		}
+		if (target != null) {
+			return invokeCompiled(target, frame);
+		}
+		if (body == null) {
+			body = builder.buildRoot(function);
+		}
+		body.execute(frame);
+		return frame.returnValue;
+	}
+
+	/**
+	 * Add to the hotness of the function, links the compiled method if the function is hot.
+	 * @param count invocations or loop iterations
+	 * @return compiled method or null if the function isn't compiled
+	 * @throws OakRuntimeException a string literal can't be allocated
+	 */
+	MethodHandle countHotness(int count) throws OakRuntimeException {
+		if (hotness < tiers.getThreshold()) {
+			hotness += count;
+			if (hotness < tiers.getThreshold()) {
+				return null;
+			}
+		}
+		MethodHandle target = compiled;
+		if (target != null || tiers.hasFailed()) {
+			return target;
+		}
+		target = builder.linkCompiled(function);
+		if (target != null) {
+			compiled = target;
+		}
+		return target;
+	}
+
+	/**
+	 * Return whether the calls of the function use its compiled method.
+	 */
+	public boolean isCompiled() {
+		return compiled != null;
+	}
+
+	private long invokeCompiled(MethodHandle target, Frame frame) throws OakRuntimeException {
+		try {
+			return (long) target.invokeExact(frame.stack.values, frame.base);
+		} catch (ExitException ex) {
+			throw ex;
+		} catch (OakRuntimeException ex) {
+			throw builder.locateCompiled(ex);
+		} catch (RuntimeException | Error ex) {
+			throw ex;
+		} catch (Throwable throwable) {
+			throw new IllegalStateException(throwable);
+		}
+	}
+}
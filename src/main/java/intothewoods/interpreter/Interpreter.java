@@ -0,0 +1,93 @@
+package intothewoods.interpreter;
+
+import intothewoods.analyser.Program;
+import intothewoods.runtime.ExitException;
+import intothewoods.runtime.OakRuntime;
+import intothewoods.runtime.OakRuntimeException;
+import intothewoods.runtime.ProgramThread;
+
+import java.util.concurrent.Callable;
+
+/**
+ * AST based interpreter executing a tree of self specializing nodes.
+ *
+ * Function bodies are turned into nodes on their first call, function call nodes replace themselves
+ * on their first execution with nodes specialized for the called function (e.g. an int addition node
+ * or a direct call node that caches the root node of the called function). As Oak is statically typed,
+ * these specializations stay valid for the whole execution.
+ *
+ * With a TierManager the execution is tiered: hot functions are compiled to JVM bytecode in the
+ * background and called via their compiled methods once these are available.
+ */
+public class Interpreter {
+
+	/**
+	 * Size of the Java stack of the thread running the program, it limits the recursion depth.
+	 */
+	public static final long JAVA_STACK_SIZE = 1L << 28;
+
+	private final Program program;
+	private final OakRuntime runtime;
+	private final Profiler profiler;
+	private final TierManager tiers;
+
+	public Interpreter(Program program, OakRuntime runtime) {
+		this(program, runtime, null);
+	}
+
+	public Interpreter(Program program, OakRuntime runtime, Profiler profiler) {
+		this(program, runtime, profiler, null);
+	}
+
+	/**
+	 * Initialize an interpreter.
+	 * @param program analysed program
+	 * @param runtime runtime used for the built in functions
+	 * @param profiler profiler that collects the execution profile or null to disable profiling
+	 * @param tiers tier manager that compiles hot functions in the background or null to interpret everything
+	 */
+	public Interpreter(Program program, OakRuntime runtime, Profiler profiler, TierManager tiers) {
+		this.program = program;
+		this.runtime = runtime;
+		this.profiler = profiler;
+		this.tiers = tiers;
+	}
+
+	/**
+	 * Run the program: initialize the global variables and call the main function.
+	 *
+	 * The program runs on its own thread with a Java stack of JAVA_STACK_SIZE bytes, as executing the
+	 * nodes of a call still uses the Java stack, its local variables are stored in a CallStack.
+	 *
+	 * @return exit code (the return value of main, if it returns an int, or the argument of exit)
+	 * @throws OakRuntimeException the program failed
+	 */
+	public int run() throws OakRuntimeException {
+		if (program.getMainFunction() == null) {
+			throw new OakRuntimeException("Program has no main function");
+		}
+		return ProgramThread.run("oak-interpreter", JAVA_STACK_SIZE, new Callable<Integer>() {
+			@Override
+			public Integer call() throws OakRuntimeException {
+				return execute();
+			}
+		});
+	}
+
+	private int execute() throws OakRuntimeException {
+		NodeBuilder builder = new NodeBuilder(program, runtime, new long[program.getGlobals().size()], profiler,
+				tiers);
+		CallStack stack = new CallStack();
+		try {
+			builder.buildGlobalInitialization().execute(stack.push(0));
+			FunctionNode node = builder.getFunctionNode(program.getMainFunction());
+			return (int) node.invoke(stack.push(node.getFrameSize()));
+		} catch (ExitException ex) {
+			return ex.getExitCode();
+		} catch (StackOverflowError error) {
+			throw new OakRuntimeException("Stack overflow");
+		} finally {
+			runtime.flush();
+		}
+	}
+}
@@ -0,0 +1,352 @@
+package intothewoods.interpreter;
+
+import intothewoods.analyser.Constant;
+import intothewoods.analyser.Function;
+import intothewoods.analyser.Operand;
+import intothewoods.analyser.Program;
+import intothewoods.analyser.Variable;
+import intothewoods.common.Builtin;
+import intothewoods.common.TokenType;
+import intothewoods.parser.ASTNode;
+import intothewoods.jvm.JvmContext;
+import intothewoods.jvm.JvmProgram;
+import intothewoods.runtime.OakRuntime;
+import intothewoods.runtime.OakRuntimeException;
+
+import java.lang.invoke.MethodHandle;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds the executable nodes of an analysed program for one execution.
+ */
+public class NodeBuilder {
+
+	private final Program program;
+	private final OakRuntime runtime;
+	private final long[] globals;
+	private final FunctionNode[] functions;
+	private final Profiler profiler;
+	private final TierManager tiers;
+	private FunctionNode currentFunction;
+	private JvmProgram compiledProgram;
+	private JvmContext compiledContext;
+
+	public NodeBuilder(Program program, OakRuntime runtime, long[] globals) {
+		this(program, runtime, globals, null);
+	}
+
+	public NodeBuilder(Program program, OakRuntime runtime, long[] globals, Profiler profiler) {
+		this(program, runtime, globals, profiler, null);
+	}
+
+	/**
+	 * Initialize a node builder.
+	 * @param program analysed program
+	 * @param runtime runtime of the execution
+	 * @param globals storage of the global variables
+	 * @param profiler profiler the built nodes report to or null to build no profiling nodes
+	 * @param tiers tier manager compiling hot functions or null to interpret all functions
+	 */
+	public NodeBuilder(Program program, OakRuntime runtime, long[] globals, Profiler profiler, TierManager tiers) {
+		this.program = program;
+		this.runtime = runtime;
+		this.globals = globals;
+		this.functions = new FunctionNode[program.getFunctions().size()];
+		this.profiler = profiler;
+		this.tiers = tiers;
+	}
+
+	TierManager getTierManager() {
+		return tiers;
+	}
+
+	/**
+	 * Return the root node of the given function.
+	 * @param function given function
+	 * @return root node, the same for every call
+	 */
+	public FunctionNode getFunctionNode(Function function) {
+		FunctionNode node = functions[function.getIndex()];
+		if (node == null) {
+			node = new FunctionNode(function, this);
+			functions[function.getIndex()] = node;
+		}
+		return node;
+	}
+
+	/**
+	 * Link the compiled method of the given function, if the compiled program is available.
+	 * @param function given function
+	 * @return handle of the compiled method, see JvmProgram.getFunctionHandle, or null
+	 * @throws OakRuntimeException a string literal can't be allocated
+	 */
+	MethodHandle linkCompiled(Function function) throws OakRuntimeException {
+		JvmProgram compiled = tiers.requestCompilation();
+		if (compiled == null) {
+			return null;
+		}
+		try {
+			if (compiledContext == null) {
+				compiledContext = compiled.createContext(runtime, globals);
+				compiledProgram = compiled;
+			}
+			return compiled.getFunctionHandle(function, compiledContext);
+		} catch (IllegalStateException | LinkageError ex) {
+			tiers.fail();
+			return null;
+		}
+	}
+
+	/**
+	 * Add the line and function of the compiled code that threw the given exception to it.
+	 * @param exception exception thrown by a compiled method, except exit exceptions
+	 * @return exception with line
+	 */
+	OakRuntimeException locateCompiled(OakRuntimeException exception) {
+		return compiledProgram.locate(exception);
+	}
+
+	/**
+	 * Build the block initializing the global variables.
+	 * @return block to execute with an empty frame
+	 * @throws OakRuntimeException a string literal can't be allocated
+	 */
+	public BlockNode buildGlobalInitialization() throws OakRuntimeException {
+		List<StatementNode> statements = new ArrayList<>();
+		for (ASTNode declaration : program.getAST().getChild(0)) {
+			statements.add(buildDeclaration(declaration));
+		}
+		return new BlockNode(0, statements.toArray(new StatementNode[statements.size()]));
+	}
+
+	/**
+	 * Build the root statement of the given function: its body, wrapped in a profiling node if profiling.
+	 * @param function given function
+	 * @return root statement
+	 * @throws OakRuntimeException a string literal can't be allocated
+	 */
+	StatementNode buildRoot(Function function) throws OakRuntimeException {
+		currentFunction = getFunctionNode(function);
+		BlockNode body = buildBody(function);
+		StatementNode root = profiler == null ? body : new ProfilingNodes.FunctionBody(body, profiler,
+				function.getIndex());
+		List<Integer> cells = new ArrayList<>();
+		for (Variable local : function.getLocals()) {
+			if (local.isReferenced()) {
+				cells.add(local.getIndex());
+			}
+		}
+		if (cells.isEmpty()) {
+			return root;
+		}
+		int[] cellIndexes = new int[cells.size()];
+		for (int i = 0; i < cellIndexes.length; i++) {
+			cellIndexes[i] = cells.get(i);
+		}
+		return new WriteNode.FreeCells(runtime.getHeap(), cellIndexes, root);
+	}
+
+	/**
+	 * Build the body of the given function, including the initialization of
+	 * the ret_TYPE variables and the allocation of the memory cells of referenced variables.
+	 * @param function given function
+	 * @return body node
+	 * @throws OakRuntimeException a string literal can't be allocated
+	 */
+	BlockNode buildBody(Function function) throws OakRuntimeException {
+		List<StatementNode> prologue = new ArrayList<>();
+		int line = function.getLine();
+		for (Variable local : function.getLocals()) {
+			if (local.isReferenced()) {
+				ValueNode value = function.getParameters().contains(local) ? new ValueNode.Local(local.getIndex())
+						: new ValueNode.Literal(OakRuntime.defaultValue(local.getType()));
+				prologue.add(new WriteNode.NewCell(line, runtime.getHeap(), slot(local), local.getType(), value));
+			}
+		}
+		for (Variable variable : function.getReturnVariables()) {
+			if (!variable.isReferenced()) {
+				prologue.add(new WriteNode.Local(line, variable.getIndex(),
+						new ValueNode.Literal(OakRuntime.defaultValue(variable.getType()))));
+			}
+		}
+		return buildBlock(function.getBody(), prologue);
+	}
+
+	private BlockNode buildBlock(ASTNode block, List<StatementNode> prologue) throws OakRuntimeException {
+		List<ASTNode> statements = new ArrayList<>();
+		for (ASTNode statement : block) {
+			if (statement.hasNotType(TokenType.COMMENT)) {
+				statements.add(statement);
+			}
+		}
+		StatementNode[] nodes = new StatementNode[prologue.size() + statements.size()];
+		BlockNode node = new BlockNode(Program.getLine(block), nodes);
+		for (int i = 0; i < prologue.size(); i++) {
+			nodes[i] = prologue.get(i);
+		}
+		for (int i = 0; i < statements.size(); i++) {
+			int index = prologue.size() + i;
+			nodes[index] = buildStatement(statements.get(i), node, index);
+		}
+		return node;
+	}
+
+	private StatementNode buildStatement(ASTNode statement, BlockNode block, int index) throws OakRuntimeException {
+		int line = Program.getLine(statement);
+		switch (statement.getType()) {
+			case VARIABLE_DECLARATION:
+				return buildDeclaration(statement);
+			case VARIABLE_ASSIGNMENT:
+				return buildWrite(line, program.getTarget(statement), value(program.getOperand(statement.getChild(1))));
+			case FUNCTION_CALL:
+				return new UninitializedCallNode(line, this, statement, block, index);
+			case RETURN_STATEMENT:
+				return new ControlNodes.Return(line,
+						statement.isLeaf() ? null : value(program.getOperand(statement.getChild(0))));
+			case CONDITION:
+				return new ControlNodes.If(line, value(program.getOperand(statement.getChild(0))),
+						buildBlock(statement.getChild(1), new ArrayList<StatementNode>()),
+						statement.getNumberOfChildren() > 2 ?
+								buildBlock(statement.getChild(2), new ArrayList<StatementNode>()) : null);
+			case LOOP:
+				ValueNode condition = value(program.getOperand(statement.getChild(0)));
+				BlockNode body = buildBlock(statement.getChild(1), new ArrayList<StatementNode>());
+				if (profiler != null) {
+					return new ProfilingNodes.While(line, condition, body, profiler, profiler.registerLoop(line));
+				}
+				if (tiers != null && currentFunction != null) {
+					return new TieringNodes.While(line, condition, body, currentFunction);
+				}
+				return new ControlNodes.While(line, condition, body);
+			default:
+				throw new IllegalArgumentException("Unexpected statement " + statement.getType());
+		}
+	}
+
+	private StatementNode buildDeclaration(ASTNode declaration) throws OakRuntimeException {
+		int line = Program.getLine(declaration);
+		Variable variable = program.getTarget(declaration);
+		ValueNode value = value(program.getOperand(declaration.getChild(2)));
+		if (variable.isReferenced() && variable.isGlobal()) {
+			return new WriteNode.NewCell(line, runtime.getHeap(), slot(variable), variable.getType(), value);
+		}
+		return buildWrite(line, variable, value);
+	}
+
+	private StatementNode buildWrite(int line, Variable variable, ValueNode value) {
+		if (!variable.isGlobal() && !variable.isReferenced()) {
+			return new WriteNode.Local(line, variable.getIndex(), value);
+		}
+		return new WriteNode(line, target(variable), value);
+	}
+
+	/**
+	 * Build the node specialized for the given function call.
+	 * @param call FUNCTION_CALL node
+	 * @param line line of the call
+	 * @return specialized node
+	 * @throws OakRuntimeException a string literal can't be allocated
+	 */
+	StatementNode specializeCall(ASTNode call, int line) throws OakRuntimeException {
+		List<Operand> arguments = program.getArguments(call);
+		Variable variable = program.getTarget(call);
+		Target target = variable == null ? null : target(variable);
+		Function function = program.getCalledFunction(call);
+		if (function != null) {
+			ValueNode[] values = new ValueNode[arguments.size()];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = value(arguments.get(i));
+			}
+			return new CallNodes.Direct(line, getFunctionNode(function), values, target);
+		}
+		Builtin builtin = program.getCalledBuiltin(call);
+		StatementNode node = specializeBuiltinCall(line, builtin, arguments, variable, target);
+		return profiler == null ? node : new ProfilingNodes.BuiltinCall(node, profiler, builtin);
+	}
+
+	private StatementNode specializeBuiltinCall(int line, Builtin builtin, List<Operand> arguments, Variable variable,
+	                                            Target target) throws OakRuntimeException {
+		if (builtin.isGetRef()) {
+			return new WriteNode(line, target, slotValue((Variable) arguments.get(0)));
+		}
+		ValueNode first = arguments.size() > 0 ? value(arguments.get(0)) : null;
+		ValueNode second = arguments.size() > 1 ? value(arguments.get(1)) : null;
+		if (variable != null && !variable.isGlobal() && !variable.isReferenced()) {
+			int index = variable.getIndex();
+			switch (builtin) {
+				case ADD_INT:
+					return new CallNodes.AddInt(line, index, first, second);
+				case SUB_INT:
+					return new CallNodes.SubInt(line, index, first, second);
+				case MUL_INT:
+					return new CallNodes.MulInt(line, index, first, second);
+				case LESS_BYTE:
+				case LESS_INT:
+					return new CallNodes.Less(line, index, first, second);
+				case EQUAL_BOOL:
+				case EQUAL_BYTE:
+				case EQUAL_INT:
+				case EQUAL_POINTER:
+					return new CallNodes.Equal(line, index, first, second);
+				case GET_INT:
+					return new CallNodes.GetInt(line, runtime.getHeap(), index, first);
+				case TO_BYTE_BOOL:
+				case TO_INT_BOOL:
+				case TO_INT_BYTE:
+				case TO_POINTER_STRING:
+				case TO_STRING_POINTER:
+					return new WriteNode.Local(line, index, first);
+				default:
+					break;
+			}
+		}
+		Target freed = null;
+		if (builtin == Builtin.FREE && arguments.get(0) instanceof Variable) {
+			freed = target((Variable) arguments.get(0));
+		}
+		return new CallNodes.Generic(line, runtime, builtin, first, second, target, freed);
+	}
+
+	private ValueNode value(Operand operand) throws OakRuntimeException {
+		if (operand instanceof Constant) {
+			Constant constant = (Constant) operand;
+			if (constant.getBytes() != null) {
+				return new ValueNode.Literal(runtime.getHeap().allocateBytes(constant.getBytes()));
+			}
+			return new ValueNode.Literal(constant.getValue());
+		}
+		Variable variable = (Variable) operand;
+		if (variable.isReferenced()) {
+			return new ValueNode.Cell(runtime.getHeap(), slotValue(variable), variable.getType());
+		}
+		return slotValue(variable);
+	}
+
+	/**
+	 * Return a node reading the slot of the variable, the pointer to the cell for referenced variables.
+	 */
+	private ValueNode slotValue(Variable variable) {
+		if (variable.isGlobal()) {
+			return new ValueNode.Global(globals, variable.getIndex());
+		}
+		return new ValueNode.Local(variable.getIndex());
+	}
+
+	private Target target(Variable variable) {
+		if (variable.isReferenced()) {
+			return new Target.Cell(runtime.getHeap(), slotValue(variable), variable.getType());
+		}
+		return slot(variable);
+	}
+
+	/**
+	 * Return a target writing the slot of the variable, the pointer to the cell for referenced variables.
+	 */
+	private Target slot(Variable variable) {
+		if (variable.isGlobal()) {
+			return new Target.Global(globals, variable.getIndex());
+		}
+		return new Target.Local(variable.getIndex());
+	}
+}
@@ -0,0 +1,194 @@
+package intothewoods.interpreter;
+
+import intothewoods.analyser.Function;
+import intothewoods.analyser.Program;
+import intothewoods.common.Builtin;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Collects the execution profile of a program run by the Interpreter: the calls and the self and
+ * total time of every function, the iterations of every loop and the calls of every built in function.
+ *
+ * The interpreter only builds the profiling nodes if it's given a profiler, so profiling costs
+ * nothing when it's disabled. Recursive calls count towards the self time of each call, but only
+ * the outermost active call of a function counts towards its total time.
+ */
+public class Profiler {
+
+	private final Program program;
+	private final long[] calls;
+	private final long[] selfNanos;
+	private final long[] totalNanos;
+	private final int[] activeCalls;
+	private final long[] builtinCalls = new long[Builtin.values().length];
+	private final List<Integer> loopLines = new ArrayList<>();
+	private long[] loopIterations = new long[8];
+	private long[] startTimes = new long[64];
+	private long[] childNanos = new long[64];
+	private int depth = 0;
+
+	public Profiler(Program program) {
+		this.program = program;
+		int functionCount = program.getFunctions().size();
+		calls = new long[functionCount];
+		selfNanos = new long[functionCount];
+		totalNanos = new long[functionCount];
+		activeCalls = new int[functionCount];
+	}
+
+	/**
+	 * Called when a function body is entered.
+	 * @param function index of the function
+	 */
+	void enter(int function) {
+		if (depth == startTimes.length) {
+			startTimes = Arrays.copyOf(startTimes, depth * 2);
+			childNanos = Arrays.copyOf(childNanos, depth * 2);
+		}
+		calls[function]++;
+		activeCalls[function]++;
+		childNanos[depth] = 0;
+		startTimes[depth++] = System.nanoTime();
+	}
+
+	/**
+	 * Called when a function body is left, normally or by an exception.
+	 * @param function index of the function
+	 */
+	void exit(int function) {
+		long elapsed = System.nanoTime() - startTimes[--depth];
+		selfNanos[function] += elapsed - childNanos[depth];
+		if (--activeCalls[function] == 0) {
+			totalNanos[function] += elapsed;
+		}
+		if (depth > 0) {
+			childNanos[depth - 1] += elapsed;
+		}
+	}
+
+	/**
+	 * Register a loop.
+	 * @param line line of the loop
+	 * @return index of the loop
+	 */
+	int registerLoop(int line) {
+		int loop = loopLines.size();
+		loopLines.add(line);
+		if (loop == loopIterations.length) {
+			loopIterations = Arrays.copyOf(loopIterations, loop * 2);
+		}
+		return loop;
+	}
+
+	void countIterations(int loop, long iterations) {
+		loopIterations[loop] += iterations;
+	}
+
+	void countBuiltinCall(Builtin builtin) {
+		builtinCalls[builtin.ordinal()]++;
+	}
+
+	public long getCalls(Function function) {
+		return calls[function.getIndex()];
+	}
+
+	public long getSelfNanos(Function function) {
+		return selfNanos[function.getIndex()];
+	}
+
+	public long getTotalNanos(Function function) {
+		return totalNanos[function.getIndex()];
+	}
+
+	public long getBuiltinCalls(Builtin builtin) {
+		return builtinCalls[builtin.ordinal()];
+	}
+
+	/**
+	 * Return the number of iterations of all loops starting in the given line.
+	 * @param line given line
+	 * @return iterations
+	 */
+	public long getLoopIterations(int line) {
+		long result = 0;
+		for (int i = 0; i < loopLines.size(); i++) {
+			if (loopLines.get(i) == line) {
+				result += loopIterations[i];
+			}
+		}
+		return result;
+	}
+
+	public Program getProgram() {
+		return program;
+	}
+
+	/**
+	 * Return a flat text report, functions are ordered by their self time.
+	 * @return report with one line per function, loop and called built in function
+	 */
+	public String getReport() {
+		StringBuilder builder = new StringBuilder("Functions (calls, self time, total time):\n");
+		List<Function> functions = new ArrayList<>(program.getFunctions());
+		Collections.sort(functions, new Comparator<Function>() {
+			@Override
+			public int compare(Function first, Function second) {
+				return Long.compare(getSelfNanos(second), getSelfNanos(first));
+			}
+		});
+		for (Function function : functions) {
+			if (getCalls(function) > 0) {
+				builder.append(String.format(Locale.ROOT, "  line %d %s: %d calls, self %.3f ms, total %.3f ms%n",
+						function.getLine(), function, getCalls(function), getSelfNanos(function) / 1e6,
+						getTotalNanos(function) / 1e6));
+			}
+		}
+		builder.append("Loops (iterations):\n");
+		for (int i = 0; i < loopLines.size(); i++) {
+			builder.append(String.format(Locale.ROOT, "  line %d: %d%n", loopLines.get(i), loopIterations[i]));
+		}
+		builder.append("Built in functions (calls):\n");
+		for (Builtin builtin : Builtin.values()) {
+			if (getBuiltinCalls(builtin) > 0) {
+				builder.append(String.format(Locale.ROOT, "  %s: %d%n", builtin, getBuiltinCalls(builtin)));
+			}
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Emit the profile as events of the JDK Flight Recorder, if it's available (Java 9 or newer).
+	 *
+	 * The events (intothewoods.FunctionProfile, intothewoods.LoopProfile and intothewoods.BuiltinProfile)
+	 * are only recorded if a recording is running.
+	 *
+	 * @return true if the flight recorder is available
+	 */
+	public boolean exportToFlightRecorder() {
+		FlightRecorderExport export = FlightRecorderExport.create();
+		if (export == null) {
+			return false;
+		}
+		for (Function function : program.getFunctions()) {
+			if (getCalls(function) > 0) {
+				export.commitFunction(function.toString(), function.getLine(), getCalls(function),
+						getSelfNanos(function), getTotalNanos(function));
+			}
+		}
+		for (int i = 0; i < loopLines.size(); i++) {
+			export.commitLoop(loopLines.get(i), loopIterations[i]);
+		}
+		for (Builtin builtin : Builtin.values()) {
+			if (getBuiltinCalls(builtin) > 0) {
+				export.commitBuiltin(builtin.toString(), getBuiltinCalls(builtin));
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,98 @@
+package intothewoods.interpreter;
+
+import intothewoods.common.Builtin;
+import intothewoods.runtime.OakRuntimeException;
+
+/**
+ * Nodes that report to a Profiler, they're only built if profiling is enabled.
+ */
+public final class ProfilingNodes {
+
+	private ProfilingNodes() {
+	}
+
+	/**
+	 * Body of a function, measures the calls and the time spent in the function.
+	 */
+	public static class FunctionBody extends StatementNode {
+
+		private final StatementNode body;
+		private final Profiler profiler;
+		private final int function;
+
+		FunctionBody(StatementNode body, Profiler profiler, int function) {
+			super(body.line);
+			this.body = body;
+			this.profiler = profiler;
+			this.function = function;
+		}
+
+		@Override
+		public int execute(Frame frame) throws OakRuntimeException {
+			profiler.enter(function);
+			try {
+				return body.execute(frame);
+			} finally {
+				profiler.exit(function);
+			}
+		}
+	}
+
+	/**
+	 * While loop that counts its iterations.
+	 */
+	public static class While extends StatementNode {
+
+		private final ValueNode condition;
+		private final BlockNode body;
+		private final Profiler profiler;
+		private final int loop;
+
+		While(int line, ValueNode condition, BlockNode body, Profiler profiler, int loop) {
+			super(line);
+			this.condition = condition;
+			this.body = body;
+			this.profiler = profiler;
+			this.loop = loop;
+		}
+
+		@Override
+		public int execute(Frame frame) throws OakRuntimeException {
+			long iterations = 0;
+			try {
+				while (condition.read(frame) != 0) {
+					iterations++;
+					if (body.execute(frame) == RETURN) {
+						return RETURN;
+					}
+				}
+				return NORMAL;
+			} finally {
+				profiler.countIterations(loop, iterations);
+			}
+		}
+	}
+
+	/**
+	 * Specialized call of a built in function that counts its executions.
+	 */
+	public static class BuiltinCall extends StatementNode {
+
+		private final StatementNode call;
+		private final Profiler profiler;
+		private final Builtin builtin;
+
+		BuiltinCall(StatementNode call, Profiler profiler, Builtin builtin) {
+			super(call.line);
+			this.call = call;
+			this.profiler = profiler;
+			this.builtin = builtin;
+		}
+
+		@Override
+		public int execute(Frame frame) throws OakRuntimeException {
+			profiler.countBuiltinCall(builtin);
+			return call.execute(frame);
+		}
+	}
+}
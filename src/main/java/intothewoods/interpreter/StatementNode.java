@@ -0,0 +1,33 @@
+package intothewoods.interpreter;
+
+import intothewoods.runtime.OakRuntimeException;
+
+/**
+ * Executable node for a single statement.
+ */
+public abstract class StatementNode {
+
+	/**
+	 * Status of a statement that completed normally.
+	 */
+	public static final int NORMAL = 0;
+
+	/**
+	 * Status of a statement that returned from its function, the return value is stored in the frame.
+	 */
+	public static final int RETURN = 1;
+
+	final int line;
+
+	protected StatementNode(int line) {
+		this.line = line;
+	}
+
+	/**
+	 * Execute this statement.
+	 * @param frame current frame
+	 * @return NORMAL or RETURN
+	 * @throws OakRuntimeException the program failed
+	 */
+	public abstract int execute(Frame frame) throws OakRuntimeException;
+}
@@ -0,0 +1,76 @@
+package intothewoods.interpreter;
+
+import intothewoods.common.Type;
+import intothewoods.runtime.AbstractHeap;
+import intothewoods.runtime.OakRuntimeException;
+
+/**
+ * Variable a statement writes to.
+ */
+public abstract class Target {
+
+	/**
+	 * Write the given encoded value.
+	 * @param frame current frame
+	 * @param value encoded value
+	 * @throws OakRuntimeException the memory cell of a referenced variable can't be written
+	 */
+	public abstract void write(Frame frame, long value) throws OakRuntimeException;
+
+	/**
+	 * Writes a function local variable.
+	 */
+	public static class Local extends Target {
+
+		final int index;
+
+		public Local(int index) {
+			this.index = index;
+		}
+
+		@Override
+		public void write(Frame frame, long value) {
+			frame.set(index, value);
+		}
+	}
+
+	/**
+	 * Writes a global variable.
+	 */
+	public static class Global extends Target {
+
+		private final long[] globals;
+		private final int index;
+
+		public Global(long[] globals, int index) {
+			this.globals = globals;
+			this.index = index;
+		}
+
+		@Override
+		public void write(Frame frame, long value) {
+			globals[index] = value;
+		}
+	}
+
+	/**
+	 * Writes a variable passed to get_ref into its memory cell.
+	 */
+	public static class Cell extends Target {
+
+		private final AbstractHeap heap;
+		private final ValueNode pointer;
+		private final Type type;
+
+		public Cell(AbstractHeap heap, ValueNode pointer, Type type) {
+			this.heap = heap;
+			this.pointer = pointer;
+			this.type = type;
+		}
+
+		@Override
+		public void write(Frame frame, long value) throws OakRuntimeException {
+			heap.store(pointer.read(frame), type, value);
+		}
+	}
+}
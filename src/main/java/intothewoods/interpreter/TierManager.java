@@ -0,0 +1,106 @@
+package intothewoods.interpreter;
+
+import intothewoods.analyser.Program;
+import intothewoods.jvm.JvmCompiler;
+import intothewoods.jvm.JvmProgram;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Decides when functions executed by the Interpreter are compiled to JVM bytecode (the fast tier)
+ * and compiles them in the background.
+ *
+ * Every function starts in the interpreter, its root node counts its invocations and the iterations
+ * of its loops. When a function gets hot (the count reaches the threshold) the compilation of the
+ * program is started on the executor, the interpreter keeps going in the meantime. The first hot
+ * invocation after the compilation finished links the compiled method into the root node of the
+ * function, all call sites of the function use the compiled method from then on.
+ *
+ * Linking happens on the thread of the interpreter, as it allocates the string literals of the
+ * compiled code on the heap, which isn't thread safe.
+ */
+public class TierManager {
+
+	public static final int DEFAULT_THRESHOLD = 1000;
+
+	private final Program program;
+	private final int threshold;
+	private final Executor executor;
+	private volatile JvmProgram compiled;
+	private volatile boolean failed = false;
+	private boolean started = false;
+
+	/**
+	 * Initialize a tier manager with the default threshold that compiles on its own background thread.
+	 * @param program analysed program
+	 */
+	public TierManager(Program program) {
+		this(program, DEFAULT_THRESHOLD, new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				Thread thread = new Thread(command, "oak-compiler");
+				thread.setDaemon(true);
+				thread.start();
+			}
+		});
+	}
+
+	/**
+	 * Initialize a tier manager.
+	 * @param program analysed program
+	 * @param threshold invocations plus loop iterations after which a function is hot
+	 * @param executor executor running the compilation
+	 */
+	public TierManager(Program program, int threshold, Executor executor) {
+		this.program = program;
+		this.threshold = threshold;
+		this.executor = executor;
+	}
+
+	public int getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * Called when a function got hot, starts the compilation if it hasn't been started yet.
+	 * @return compiled program or null if it isn't (yet) available
+	 */
+	JvmProgram requestCompilation() {
+		if (!started) {
+			started = true;
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						compiled = new JvmCompiler(program).compile();
+					} catch (RuntimeException | LinkageError ex) {
+						failed = true;
+					}
+				}
+			});
+		}
+		return compiled;
+	}
+
+	/**
+	 * Called when the compiled code can't be linked, functions stay in the interpreter.
+	 */
+	void fail() {
+		failed = true;
+		compiled = null;
+	}
+
+	/**
+	 * Return whether the program has been compiled successfully.
+	 */
+	public boolean isCompiled() {
+		return compiled != null;
+	}
+
+	/**
+	 * Return whether the compilation or the linking failed.
+	 */
+	public boolean hasFailed() {
+		return failed;
+	}
+}
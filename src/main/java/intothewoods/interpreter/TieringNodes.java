@@ -0,0 +1,50 @@
+package intothewoods.interpreter;
+
+import intothewoods.runtime.OakRuntimeException;
+
+/**
+ * Nodes that report to the tier manager, they're only built if tiered execution is enabled.
+ */
+public final class TieringNodes {
+
+	private TieringNodes() {
+	}
+
+	/**
+	 * While loop that adds its iterations to the hotness of its function.
+	 */
+	public static class While extends StatementNode {
+
+		/**
+		 * Iterations between two reports, so that long running loops make their function hot.
+		 */
+		static final int REPORT_INTERVAL = 64;
+
+		private final ValueNode condition;
+		private final BlockNode body;
+		private final FunctionNode function;
+
+		While(int line, ValueNode condition, BlockNode body, FunctionNode function) {
+			super(line);
+			this.condition = condition;
+			this.body = body;
+			this.function = function;
+		}
+
+		@Override
+		public int execute(Frame frame) throws OakRuntimeException {
+			int iterations = 0;
+			while (condition.read(frame) != 0) {
+				if (++iterations == REPORT_INTERVAL) {
+					function.countHotness(iterations);
+					iterations = 0;
+				}
+				if (body.execute(frame) == RETURN) {
+					return RETURN;
+				}
+			}
+			function.countHotness(iterations);
+			return NORMAL;
+		}
+	}
+}
@@ -0,0 +1,33 @@
+package intothewoods.interpreter;
+
+import intothewoods.parser.ASTNode;
+import intothewoods.runtime.OakRuntimeException;
+
+/**
+ * Function call that hasn't been executed yet.
+ *
+ * On its first execution it replaces itself in its block with a node specialized
+ * for the called function, its argument types and its target.
+ */
+public class UninitializedCallNode extends StatementNode {
+
+	private final NodeBuilder builder;
+	private final ASTNode call;
+	private final BlockNode block;
+	private final int index;
+
+	UninitializedCallNode(int line, NodeBuilder builder, ASTNode call, BlockNode block, int index) {
+		super(line);
+		this.builder = builder;
+		this.call = call;
+		this.block = block;
+		this.index = index;
+	}
+
+	@Override
+	public int execute(Frame frame) throws OakRuntimeException {
+		StatementNode specialized = builder.specializeCall(call, line);
+		block.replace(index, specialized);
+		return specialized.execute(frame);
+	}
+}
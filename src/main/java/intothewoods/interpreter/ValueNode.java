@@ -0,0 +1,93 @@
+package intothewoods.interpreter;
+
+import intothewoods.common.Type;
+import intothewoods.runtime.AbstractHeap;
+import intothewoods.runtime.OakRuntimeException;
+
+/**
+ * Node that reads a value: a variable or a constant.
+ */
+public abstract class ValueNode {
+
+	/**
+	 * Read the encoded value.
+	 * @param frame current frame
+	 * @return encoded value
+	 * @throws OakRuntimeException the memory cell of a referenced variable can't be read
+	 */
+	public abstract long read(Frame frame) throws OakRuntimeException;
+
+	/**
+	 * Reads a function local variable.
+	 */
+	public static class Local extends ValueNode {
+
+		final int index;
+
+		public Local(int index) {
+			this.index = index;
+		}
+
+		@Override
+		public long read(Frame frame) {
+			return frame.get(index);
+		}
+	}
+
+	/**
+	 * Reads a global variable.
+	 */
+	public static class Global extends ValueNode {
+
+		private final long[] globals;
+		private final int index;
+
+		public Global(long[] globals, int index) {
+			this.globals = globals;
+			this.index = index;
+		}
+
+		@Override
+		public long read(Frame frame) {
+			return globals[index];
+		}
+	}
+
+	/**
+	 * Reads a constant.
+	 */
+	public static class Literal extends ValueNode {
+
+		private final long value;
+
+		public Literal(long value) {
+			this.value = value;
+		}
+
+		@Override
+		public long read(Frame frame) {
+			return value;
+		}
+	}
+
+	/**
+	 * Reads a variable passed to get_ref from its memory cell.
+	 */
+	public static class Cell extends ValueNode {
+
+		private final AbstractHeap heap;
+		private final ValueNode pointer;
+		private final Type type;
+
+		public Cell(AbstractHeap heap, ValueNode pointer, Type type) {
+			this.heap = heap;
+			this.pointer = pointer;
+			this.type = type;
+		}
+
+		@Override
+		public long read(Frame frame) throws OakRuntimeException {
+			return heap.load(pointer.read(frame), type);
+		}
+	}
+}
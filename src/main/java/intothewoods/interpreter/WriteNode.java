@@ -0,0 +1,115 @@
+package intothewoods.interpreter;
+
+import intothewoods.common.Type;
+import intothewoods.runtime.AbstractHeap;
+import intothewoods.runtime.OakRuntimeException;
+
+/**
+ * Variable declaration or assignment.
+ */
+public class WriteNode extends StatementNode {
+
+	private final Target target;
+	private final ValueNode value;
+
+	public WriteNode(int line, Target target, ValueNode value) {
+		super(line);
+		this.target = target;
+		this.value = value;
+	}
+
+	@Override
+	public int execute(Frame frame) throws OakRuntimeException {
+		target.write(frame, value.read(frame));
+		return NORMAL;
+	}
+
+	/**
+	 * Declaration of a variable passed to get_ref: allocates its memory cell and stores the initial value.
+	 */
+	public static class NewCell extends StatementNode {
+
+		private final AbstractHeap heap;
+		private final Target slot;
+		private final Type type;
+		private final ValueNode value;
+
+		/**
+		 * Initialize a new cell declaration.
+		 * @param line line of the declaration
+		 * @param heap heap the cell is allocated on
+		 * @param slot variable slot that holds the pointer to the cell
+		 * @param type type of the variable
+		 * @param value initial value
+		 */
+		public NewCell(int line, AbstractHeap heap, Target slot, Type type, ValueNode value) {
+			super(line);
+			this.heap = heap;
+			this.slot = slot;
+			this.type = type;
+			this.value = value;
+		}
+
+		@Override
+		public int execute(Frame frame) throws OakRuntimeException {
+			long initialValue = value.read(frame);
+			long cell = heap.malloc(type.getSize());
+			heap.store(cell, type, initialValue);
+			slot.write(frame, cell);
+			return NORMAL;
+		}
+	}
+
+	/**
+	 * Function body that frees the memory cells of the referenced local variables when it completes.
+	 */
+	public static class FreeCells extends StatementNode {
+
+		private final AbstractHeap heap;
+		private final int[] cells;
+		private final StatementNode body;
+
+		/**
+		 * Initialize a function body freeing cells.
+		 * @param heap heap the cells are allocated on
+		 * @param cells indexes of the local variables holding the pointers to the cells
+		 * @param body body of the function
+		 */
+		public FreeCells(AbstractHeap heap, int[] cells, StatementNode body) {
+			super(body.line);
+			this.heap = heap;
+			this.cells = cells;
+			this.body = body;
+		}
+
+		@Override
+		public int execute(Frame frame) throws OakRuntimeException {
+			int status = body.execute(frame);
+			for (int cell : cells) {
+				heap.free(frame.get(cell));
+			}
+			return status;
+		}
+	}
+
+	/**
+	 * Declaration or assignment of a function local variable that isn't referenced.
+	 */
+	public static class Local extends StatementNode {
+
+		private final int index;
+		private final ValueNode value;
+
+		public Local(int line, int index, ValueNode value) {
+			super(line);
+			this.index = index;
+			this.value = value;
+		}
+
+		@Override
+		public int execute(Frame frame) throws OakRuntimeException {
+			frame.set(index, value.read(frame));
+			return NORMAL;
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package intothewoods.ir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Groups the values of a function into classes that can share a single location (register or stack slot)
+ * when the function leaves SSA form.
+ *
+ * A phi needs a copy from each of its operands at the end of the corresponding predecessor. Phis and their
+ * operands are put into the same class if no values of both classes interfere, the copy then vanishes.
+ * This is the case for the usual ret_TYPE pattern: a call result that flows into a variable of a loop or
+ * a branch is written directly into the location of the variable.
+ */
+public class Coalescing {
+
+	private final IRFunction function;
+	private final Liveness liveness;
+	private final int[] parents;
+	private final List<IntList> members;
+	private int copies;
+
+	public Coalescing(IRFunction function, Liveness liveness) {
+		this.function = function;
+		this.liveness = liveness;
+		parents = new int[function.getValueCount()];
+		members = new ArrayList<>(function.getValueCount());
+		for (int value = 0; value < parents.length; value++) {
+			parents[value] = value;
+			IntList list = new IntList(1);
+			list.add(value);
+			members.add(list);
+		}
+		for (int block : new Dominators(function).getReversePostOrder()) {
+			IntList instructions = function.getInstructions(block);
+			for (int i = 0; i < instructions.size() && function.getOpcode(instructions.get(i)) == IROpcode.PHI; i++) {
+				int phi = instructions.get(i);
+				for (int j = 0; j < function.getOperandCount(phi); j++) {
+					int operand = function.getOperand(phi, j);
+					if (getRepresentative(operand) == getRepresentative(phi)) {
+						continue;
+					}
+					if (function.getBlock(operand) == IRFunction.NONE || !union(phi, operand)) {
+						copies++;
+					}
+				}
+			}
+		}
+	}
+
+	private boolean union(int first, int second) {
+		int firstRepresentative = getRepresentative(first);
+		int secondRepresentative = getRepresentative(second);
+		IntList firstMembers = members.get(firstRepresentative);
+		IntList secondMembers = members.get(secondRepresentative);
+		for (int i = 0; i < firstMembers.size(); i++) {
+			for (int j = 0; j < secondMembers.size(); j++) {
+				if (liveness.interfere(firstMembers.get(i), secondMembers.get(j))) {
+					return false;
+				}
+			}
+		}
+		if (firstMembers.size() < secondMembers.size()) {
+			int representative = firstRepresentative;
+			firstRepresentative = secondRepresentative;
+			secondRepresentative = representative;
+		}
+		parents[secondRepresentative] = firstRepresentative;
+		members.get(firstRepresentative).addAll(members.get(secondRepresentative));
+		members.set(secondRepresentative, null);
+		return true;
+	}
+
+	/**
+	 * Return the value representing the class of the given value, all values of a class share a location.
+	 */
+	public int getRepresentative(int value) {
+		int representative = value;
+		while (parents[representative] != representative) {
+			representative = parents[representative];
+		}
+		while (parents[value] != representative) {
+			int parent = parents[value];
+			parents[value] = representative;
+			value = parent;
+		}
+		return representative;
+	}
+
+	/**
+	 * Return the values of the class represented by the given value.
+	 */
+	public IntList getMembers(int representative) {
+		return members.get(getRepresentative(representative));
+	}
+
+	/**
+	 * Checks whether the given operand (index) of the phi has to be copied into the location of the phi.
+	 */
+	public boolean needsCopy(int phi, int operand) {
+		return getRepresentative(function.getOperand(phi, operand)) != getRepresentative(phi);
+	}
+
+	/**
+	 * Return the number of phi operands that still need a copy.
+	 */
+	public int getCopyCount() {
+		return copies;
+	}
+}
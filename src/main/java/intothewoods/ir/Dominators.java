@@ -0,0 +1,121 @@
+package intothewoods.ir;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Dominator tree of the blocks of a function, computed with the iterative algorithm of Cooper, Harvey
+ * and Kennedy ("A Simple, Fast Dominance Algorithm") on the reverse post order.
+ *
+ * The tree reflects the function at the time of the computation, it has to be recomputed after
+ * changes of the control flow graph.
+ */
+public class Dominators {
+
+	private final int[] order;
+	private final int[] orderNumbers;
+	private final int[] immediateDominators;
+	private final int[] depths;
+	private final List<IntList> children = new ArrayList<>();
+
+	public Dominators(IRFunction function) {
+		int count = function.getBlockCount();
+		order = function.getReversePostOrder();
+		orderNumbers = new int[count];
+		Arrays.fill(orderNumbers, IRFunction.NONE);
+		for (int i = 0; i < order.length; i++) {
+			orderNumbers[order[i]] = i;
+		}
+		immediateDominators = new int[count];
+		Arrays.fill(immediateDominators, IRFunction.NONE);
+		immediateDominators[0] = 0;
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int i = 1; i < order.length; i++) {
+				int block = order[i];
+				IntList predecessors = function.getPredecessors(block);
+				int dominator = IRFunction.NONE;
+				for (int j = 0; j < predecessors.size(); j++) {
+					int predecessor = predecessors.get(j);
+					if (immediateDominators[predecessor] == IRFunction.NONE) {
+						continue;
+					}
+					dominator = dominator == IRFunction.NONE ? predecessor : intersect(predecessor, dominator);
+				}
+				if (immediateDominators[block] != dominator) {
+					immediateDominators[block] = dominator;
+					changed = true;
+				}
+			}
+		}
+		depths = new int[count];
+		for (int block = 0; block < count; block++) {
+			children.add(new IntList(2));
+		}
+		for (int i = 1; i < order.length; i++) {
+			int block = order[i];
+			depths[block] = depths[immediateDominators[block]] + 1;
+			children.get(immediateDominators[block]).add(block);
+		}
+	}
+
+	private int intersect(int first, int second) {
+		while (first != second) {
+			while (orderNumbers[first] > orderNumbers[second]) {
+				first = immediateDominators[first];
+			}
+			while (orderNumbers[second] > orderNumbers[first]) {
+				second = immediateDominators[second];
+			}
+		}
+		return first;
+	}
+
+	/**
+	 * Return the immediate dominator of the given block.
+	 * @return immediate dominator, the entry block for the entry block and NONE for unreachable blocks
+	 */
+	public int getImmediateDominator(int block) {
+		return immediateDominators[block];
+	}
+
+	/**
+	 * Return the blocks immediately dominated by the given block.
+	 */
+	public IntList getChildren(int block) {
+		return children.get(block);
+	}
+
+	/**
+	 * Return the depth of the block in the dominator tree (0 for the entry block).
+	 */
+	public int getDepth(int block) {
+		return depths[block];
+	}
+
+	/**
+	 * Return the reachable blocks in reverse post order, every block comes after its dominators.
+	 */
+	public int[] getReversePostOrder() {
+		return order;
+	}
+
+	public boolean isReachable(int block) {
+		return orderNumbers[block] != IRFunction.NONE;
+	}
+
+	/**
+	 * Checks whether the first block dominates the second (every block dominates itself).
+	 */
+	public boolean dominates(int first, int second) {
+		if (!isReachable(first) || !isReachable(second)) {
+			return false;
+		}
+		while (depths[second] > depths[first]) {
+			second = immediateDominators[second];
+		}
+		return first == second;
+	}
+}
@@ -0,0 +1,451 @@
+package intothewoods.ir;
+
+import intothewoods.analyser.Constant;
+import intothewoods.analyser.Function;
+import intothewoods.analyser.Operand;
+import intothewoods.analyser.Program;
+import intothewoods.analyser.Variable;
+import intothewoods.common.Builtin;
+import intothewoods.common.TokenType;
+import intothewoods.common.Type;
+import intothewoods.parser.ASTNode;
+import intothewoods.runtime.OakRuntime;
+import intothewoods.runtime.Pointers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lowers an analysed program (its WHOLE_FILE AST) into the SSA intermediate representation.
+ *
+ * The SSA form is constructed directly while lowering the structured control flow, following
+ * Braun et al., "Simple and Efficient Construction of Static Single Assignment Form": every local
+ * variable that isn't referenced is an SSA variable, phis are created on demand when a variable is
+ * read in a block with several predecessors. Blocks are sealed as soon as all their predecessors
+ * are known, trivial phis and unreachable blocks are removed afterwards.
+ *
+ * Referenced variables live in heap cells, like in the other engines: their slot holds the pointer
+ * to the cell, reads and writes use the get_TYPE and set_TYPE built in functions. The cells of local
+ * variables are allocated on function entry and freed before every return.
+ */
+public class IRBuilder {
+
+	private final Program program;
+	private final List<Constant> strings = new ArrayList<>();
+	private final Map<Constant, Integer> stringIndexes = new HashMap<>();
+
+	private IRFunction function;
+	private Function source;
+	private int current;
+	private final List<int[]> definitions = new ArrayList<>();
+	private final List<int[]> incompletePhis = new ArrayList<>();
+	private boolean[] sealed = new boolean[16];
+	private Type[] variableTypes;
+	/**
+	 * Referenced local variables of the current function.
+	 */
+	private final List<Variable> cells = new ArrayList<>();
+
+	public IRBuilder(Program program) {
+		this.program = program;
+	}
+
+	/**
+	 * Lower the whole program.
+	 * @return program in SSA form
+	 */
+	public IRProgram build() {
+		List<IRFunction> functions = new ArrayList<>();
+		IRFunction initialization = buildInitialization();
+		for (Function function : program.getFunctions()) {
+			functions.add(buildFunction(function));
+		}
+		Type[] globalTypes = new Type[program.getGlobals().size()];
+		for (Variable global : program.getGlobals()) {
+			globalTypes[global.getIndex()] = global.isReferenced() ? Type.POINTER : global.getType();
+		}
+		Function main = program.getMainFunction();
+		return new IRProgram(functions, initialization, strings, globalTypes,
+				main == null ? IRFunction.NONE : main.getIndex());
+	}
+
+	/**
+	 * Build the void function initializing the global variables.
+	 */
+	private IRFunction buildInitialization() {
+		start(new IRFunction("$init", IRFunction.NONE, Type.VOID, new Type[0]), null, new Type[0]);
+		for (ASTNode declaration : program.getAST().getChild(0)) {
+			buildDeclaration(declaration);
+		}
+		function.ret(current, IRFunction.NONE, 0);
+		return finish();
+	}
+
+	private IRFunction buildFunction(Function source) {
+		List<Variable> locals = source.getLocals();
+		Type[] types = new Type[locals.size()];
+		for (Variable local : locals) {
+			types[local.getIndex()] = local.isReferenced() ? Type.POINTER : local.getType();
+		}
+		Type[] parameterTypes = source.getParameterTypes().toArray(new Type[source.getParameters().size()]);
+		start(new IRFunction(source.getName(), source.getIndex(), source.getReturnType(), parameterTypes), source,
+				types);
+		int line = source.getLine();
+		cells.clear();
+		for (int i = 0; i < parameterTypes.length; i++) {
+			Variable parameter = source.getParameters().get(i);
+			int value = function.param(current, i);
+			writeVariable(parameter.getIndex(), parameter.isReferenced() ? newCell(parameter.getType(), value, line)
+					: value);
+		}
+		for (Variable local : locals) {
+			if (local.isReferenced()) {
+				if (!source.getParameters().contains(local)) {
+					writeVariable(local.getIndex(), newCell(local.getType(),
+							function.constant(local.getType(), OakRuntime.defaultValue(local.getType())), line));
+				}
+				cells.add(local);
+			}
+		}
+		for (Variable variable : source.getReturnVariables()) {
+			if (!variable.isReferenced()) {
+				writeVariable(variable.getIndex(),
+						function.constant(variable.getType(), OakRuntime.defaultValue(variable.getType())));
+			}
+		}
+		buildBlock(source.getBody());
+		if (function.getTerminator(current) == IRFunction.NONE) {
+			Type type = source.getReturnType();
+			freeCells(0);
+			function.ret(current, type == Type.VOID ? IRFunction.NONE :
+					function.constant(type, OakRuntime.defaultValue(type)), 0);
+		}
+		cells.clear();
+		return finish();
+	}
+
+	private void start(IRFunction function, Function source, Type[] variableTypes) {
+		this.function = function;
+		this.source = source;
+		this.variableTypes = variableTypes;
+		definitions.clear();
+		incompletePhis.clear();
+		current = newBlock();
+		seal(current);
+	}
+
+	private IRFunction finish() {
+		function.removeUnreachableBlocks();
+		function.removeTrivialPhis();
+		IRFunction result = function;
+		function = null;
+		return result;
+	}
+
+	// statements
+
+	private void buildBlock(ASTNode block) {
+		for (ASTNode statement : block) {
+			if (statement.hasNotType(TokenType.COMMENT)) {
+				buildStatement(statement);
+			}
+		}
+	}
+
+	private void buildStatement(ASTNode statement) {
+		int line = Program.getLine(statement);
+		switch (statement.getType()) {
+			case VARIABLE_DECLARATION:
+				buildDeclaration(statement);
+				break;
+			case VARIABLE_ASSIGNMENT:
+				write(program.getTarget(statement), value(program.getOperand(statement.getChild(1)), line), line);
+				break;
+			case FUNCTION_CALL:
+				buildCall(statement, line);
+				break;
+			case RETURN_STATEMENT:
+				buildReturn(statement, line);
+				break;
+			case CONDITION:
+				buildCondition(statement, line);
+				break;
+			case LOOP:
+				buildLoop(statement, line);
+				break;
+			default:
+				throw new IllegalArgumentException("Unexpected statement " + statement.getType());
+		}
+	}
+
+	private void buildDeclaration(ASTNode declaration) {
+		int line = Program.getLine(declaration);
+		Variable variable = program.getTarget(declaration);
+		int value = value(program.getOperand(declaration.getChild(2)), line);
+		if (variable.isReferenced() && variable.isGlobal()) {
+			writeSlot(variable, newCell(variable.getType(), value, line));
+		} else {
+			write(variable, value, line);
+		}
+	}
+
+	private void buildCall(ASTNode call, int line) {
+		List<Operand> arguments = program.getArguments(call);
+		Variable target = program.getTarget(call);
+		Function called = program.getCalledFunction(call);
+		int result;
+		if (called != null) {
+			int[] values = new int[arguments.size()];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = value(arguments.get(i), line);
+			}
+			result = function.call(current, called.getIndex(), called.getReturnType(), values, line);
+		} else {
+			Builtin builtin = program.getCalledBuiltin(call);
+			if (builtin.isGetRef()) {
+				result = readSlot((Variable) arguments.get(0));
+			} else {
+				int first = arguments.size() > 0 ? value(arguments.get(0), line) : IRFunction.NONE;
+				int second = arguments.size() > 1 ? value(arguments.get(1), line) : IRFunction.NONE;
+				result = function.builtin(current, builtin, first, second, line);
+				if (builtin == Builtin.FREE && arguments.get(0) instanceof Variable) {
+					write((Variable) arguments.get(0), function.constant(Type.POINTER, Pointers.INVALID), line);
+				}
+			}
+		}
+		if (target != null) {
+			write(target, result, line);
+		}
+	}
+
+	private void buildReturn(ASTNode statement, int line) {
+		int value = IRFunction.NONE;
+		Type type = source.getReturnType();
+		if (!statement.isLeaf()) {
+			value = value(program.getOperand(statement.getChild(0)), line);
+		} else if (type != Type.VOID) {
+			value = function.constant(type, OakRuntime.defaultValue(type));
+		}
+		freeCells(line);
+		function.ret(current, value, line);
+		current = newBlock();
+		seal(current);
+	}
+
+	private void buildCondition(ASTNode statement, int line) {
+		int condition = value(program.getOperand(statement.getChild(0)), line);
+		int thenBlock = newBlock();
+		int join = newBlock();
+		int elseBlock = statement.getNumberOfChildren() > 2 ? newBlock() : join;
+		function.branch(current, condition, thenBlock, elseBlock);
+		seal(thenBlock);
+		current = thenBlock;
+		buildBlock(statement.getChild(1));
+		jumpIfOpen(join);
+		if (elseBlock != join) {
+			seal(elseBlock);
+			current = elseBlock;
+			buildBlock(statement.getChild(2));
+			jumpIfOpen(join);
+		}
+		seal(join);
+		current = join;
+	}
+
+	private void buildLoop(ASTNode statement, int line) {
+		int header = newBlock();
+		function.jump(current, header);
+		current = header;
+		int condition = value(program.getOperand(statement.getChild(0)), line);
+		int body = newBlock();
+		int exit = newBlock();
+		function.branch(current, condition, body, exit);
+		seal(body);
+		current = body;
+		buildBlock(statement.getChild(1));
+		jumpIfOpen(header);
+		seal(header);
+		seal(exit);
+		current = exit;
+	}
+
+	private void jumpIfOpen(int target) {
+		if (function.getTerminator(current) == IRFunction.NONE) {
+			function.jump(current, target);
+		}
+	}
+
+	// values and variables
+
+	private int value(Operand operand, int line) {
+		if (operand instanceof Constant) {
+			Constant constant = (Constant) operand;
+			if (constant.getBytes() != null) {
+				Integer index = stringIndexes.get(constant);
+				if (index == null) {
+					index = strings.size();
+					strings.add(constant);
+					stringIndexes.put(constant, index);
+				}
+				return function.string(index);
+			}
+			return function.constant(constant.getType(), constant.getValue());
+		}
+		Variable variable = (Variable) operand;
+		int slot = readSlot(variable);
+		if (variable.isReferenced()) {
+			return function.builtin(current, getBuiltin(variable.getType()), slot, IRFunction.NONE, line);
+		}
+		return slot;
+	}
+
+	/**
+	 * Return the value of the slot of the variable, the pointer to the cell for referenced variables.
+	 */
+	private int readSlot(Variable variable) {
+		if (variable.isGlobal()) {
+			return function.loadGlobal(current, variable.getIndex(),
+					variable.isReferenced() ? Type.POINTER : variable.getType());
+		}
+		return readVariable(variable.getIndex(), current);
+	}
+
+	private void writeSlot(Variable variable, int value) {
+		if (variable.isGlobal()) {
+			function.storeGlobal(current, variable.getIndex(), value);
+		} else {
+			writeVariable(variable.getIndex(), value);
+		}
+	}
+
+	private void write(Variable variable, int value, int line) {
+		if (variable.isReferenced()) {
+			function.builtin(current, setBuiltin(variable.getType()), readSlot(variable), value, line);
+		} else {
+			writeSlot(variable, value);
+		}
+	}
+
+	private void freeCells(int line) {
+		for (Variable variable : cells) {
+			function.builtin(current, Builtin.FREE, readSlot(variable), IRFunction.NONE, line);
+		}
+	}
+
+	private int newCell(Type type, int value, int line) {
+		int cell = function.builtin(current, Builtin.MALLOC, function.constant(Type.INT, type.getSize()),
+				IRFunction.NONE, line);
+		function.builtin(current, setBuiltin(type), cell, value, line);
+		return cell;
+	}
+
+	// SSA construction
+
+	private int newBlock() {
+		int block = function.addBlock();
+		int[] blockDefinitions = new int[variableTypes.length];
+		Arrays.fill(blockDefinitions, IRFunction.NONE);
+		definitions.add(blockDefinitions);
+		int[] blockPhis = new int[variableTypes.length];
+		Arrays.fill(blockPhis, IRFunction.NONE);
+		incompletePhis.add(blockPhis);
+		if (block == sealed.length) {
+			sealed = Arrays.copyOf(sealed, block * 2);
+		}
+		sealed[block] = false;
+		return block;
+	}
+
+	private void writeVariable(int variable, int value) {
+		definitions.get(current)[variable] = value;
+	}
+
+	private int readVariable(int variable, int block) {
+		int value = definitions.get(block)[variable];
+		if (value != IRFunction.NONE) {
+			return value;
+		}
+		IntList predecessors = function.getPredecessors(block);
+		if (!sealed[block]) {
+			value = function.phi(block, variableTypes[variable]);
+			incompletePhis.get(block)[variable] = value;
+		} else if (predecessors.size() == 1) {
+			value = readVariable(variable, predecessors.get(0));
+		} else if (predecessors.isEmpty()) {
+			value = function.constant(variableTypes[variable], OakRuntime.defaultValue(variableTypes[variable]));
+		} else {
+			value = function.phi(block, variableTypes[variable]);
+			definitions.get(block)[variable] = value;
+			addPhiOperands(variable, value, block);
+		}
+		definitions.get(block)[variable] = value;
+		return value;
+	}
+
+	private void addPhiOperands(int variable, int phi, int block) {
+		IntList predecessors = function.getPredecessors(block);
+		int[] operands = new int[predecessors.size()];
+		for (int i = 0; i < operands.length; i++) {
+			operands[i] = readVariable(variable, predecessors.get(i));
+		}
+		function.setPhiOperands(phi, operands);
+	}
+
+	private void seal(int block) {
+		int[] phis = incompletePhis.get(block);
+		for (int variable = 0; variable < phis.length; variable++) {
+			if (phis[variable] != IRFunction.NONE) {
+				addPhiOperands(variable, phis[variable], block);
+				phis[variable] = IRFunction.NONE;
+			}
+		}
+		sealed[block] = true;
+	}
+
+	/**
+	 * Return the get_TYPE function reading a value of the given type.
+	 */
+	public static Builtin getBuiltin(Type type) {
+		switch (type) {
+			case BOOL:
+				return Builtin.GET_BOOL;
+			case BYTE:
+				return Builtin.GET_BYTE;
+			case INT:
+				return Builtin.GET_INT;
+			case FLOAT:
+				return Builtin.GET_FLOAT;
+			case POINTER:
+				return Builtin.GET_POINTER;
+			case STRING:
+				return Builtin.GET_STRING;
+			default:
+				throw new IllegalArgumentException("No get function for " + type);
+		}
+	}
+
+	/**
+	 * Return the set_TYPE function writing a value of the given type.
+	 */
+	public static Builtin setBuiltin(Type type) {
+		switch (type) {
+			case BOOL:
+				return Builtin.SET_BOOL;
+			case BYTE:
+				return Builtin.SET_BYTE;
+			case INT:
+				return Builtin.SET_INT;
+			case FLOAT:
+				return Builtin.SET_FLOAT;
+			case POINTER:
+				return Builtin.SET_POINTER;
+			case STRING:
+				return Builtin.SET_STRING;
+			default:
+				throw new IllegalArgumentException("No set function for " + type);
+		}
+	}
+}
@@ -0,0 +1,951 @@
+package intothewoods.ir;
+
+import intothewoods.analyser.Constant;
+import intothewoods.common.Builtin;
+import intothewoods.common.Type;
+import intothewoods.runtime.OakRuntime;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Function in SSA form: a control flow graph of basic blocks containing three address instructions.
+ *
+ * The instructions are stored in parallel primitive arrays indexed by the instruction, which is also the
+ * id of the value it defines (see IROpcode for the meaning of the fields). Variable length operand lists
+ * (of phis and calls) are stored in a shared operand pool. Block 0 is the entry block, every block ends
+ * with exactly one terminator (jump, branch or return) and starts with its phis.
+ */
+public class IRFunction {
+
+	public static final int NONE = -1;
+
+	/**
+	 * Flag of malloc instructions whose memory area doesn't escape the function and can be allocated
+	 * in the stack frame.
+	 */
+	public static final int STACK = 1;
+
+	/**
+	 * Flag of get_TYPE, set_TYPE and add (pointer) instructions whose pointer is proven to be valid and large
+	 * enough, so that they can skip the range check.
+	 */
+	public static final int UNCHECKED = 2;
+
+	private static final Builtin[] BUILTINS = Builtin.values();
+	private static final Type[] TYPES = Type.values();
+
+	private final String name;
+	private final int index;
+	private final Type returnType;
+	private final Type[] parameterTypes;
+
+	private int size = 0;
+	private int[] opcodes = new int[64];
+	private byte[] types = new byte[64];
+	private int[] firsts = new int[64];
+	private int[] seconds = new int[64];
+	private int[] thirds = new int[64];
+	private int[] blocks = new int[64];
+	private int[] lines = new int[64];
+	private long[] constants = new long[64];
+	private byte[] flags = new byte[64];
+	private int[] pool = new int[64];
+	private int poolSize = 0;
+
+	private final List<IntList> blockInstructions = new ArrayList<>();
+	private final List<IntList> predecessors = new ArrayList<>();
+	private final List<Map<Long, Integer>> constantValues = new ArrayList<>(TYPES.length);
+	private final Map<Integer, Integer> stringValues = new HashMap<>();
+
+	/**
+	 * Initialize a function without blocks.
+	 * @param name name of the function
+	 * @param index index of the function in the program, NONE for the global initialization
+	 * @param returnType return type
+	 * @param parameterTypes types of the parameters
+	 */
+	public IRFunction(String name, int index, Type returnType, Type[] parameterTypes) {
+		this.name = name;
+		this.index = index;
+		this.returnType = returnType;
+		this.parameterTypes = parameterTypes;
+		for (int i = 0; i < TYPES.length; i++) {
+			constantValues.add(new HashMap<Long, Integer>());
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public Type getReturnType() {
+		return returnType;
+	}
+
+	public Type[] getParameterTypes() {
+		return parameterTypes;
+	}
+
+	/**
+	 * Return the number of instructions, including removed ones (all values are smaller).
+	 */
+	public int getValueCount() {
+		return size;
+	}
+
+	/**
+	 * Return the number of instructions in blocks.
+	 */
+	public int getInstructionCount() {
+		int count = 0;
+		for (IntList instructions : blockInstructions) {
+			count += instructions.size();
+		}
+		return count;
+	}
+
+	// instructions
+
+	public int getOpcode(int value) {
+		return opcodes[value];
+	}
+
+	public Type getType(int value) {
+		return TYPES[types[value]];
+	}
+
+	public int getFirst(int value) {
+		return firsts[value];
+	}
+
+	public int getSecond(int value) {
+		return seconds[value];
+	}
+
+	public int getThird(int value) {
+		return thirds[value];
+	}
+
+	/**
+	 * Return the block of the given instruction, NONE for floating and removed instructions.
+	 */
+	public int getBlock(int value) {
+		return blocks[value];
+	}
+
+	public int getLine(int value) {
+		return lines[value];
+	}
+
+	/**
+	 * Return the value of a CONST instruction.
+	 */
+	public long getConstant(int value) {
+		return constants[value];
+	}
+
+	public Builtin getBuiltin(int value) {
+		return BUILTINS[thirds[value]];
+	}
+
+	public boolean isConstant(int value) {
+		return opcodes[value] == IROpcode.CONST;
+	}
+
+	/**
+	 * Return the number of value operands of the given instruction.
+	 */
+	public int getOperandCount(int value) {
+		switch (opcodes[value]) {
+			case IROpcode.PHI:
+			case IROpcode.CALL:
+				return seconds[value];
+			case IROpcode.BUILTIN:
+				return seconds[value] != NONE ? 2 : firsts[value] != NONE ? 1 : 0;
+			case IROpcode.STORE_GLOBAL:
+			case IROpcode.COPY:
+			case IROpcode.BRANCH:
+				return 1;
+			case IROpcode.RETURN:
+				return firsts[value] != NONE ? 1 : 0;
+			default:
+				return 0;
+		}
+	}
+
+	public int getOperand(int value, int operand) {
+		switch (opcodes[value]) {
+			case IROpcode.PHI:
+			case IROpcode.CALL:
+				return pool[firsts[value] + operand];
+			default:
+				return operand == 0 ? firsts[value] : seconds[value];
+		}
+	}
+
+	public void setOperand(int value, int operand, int newValue) {
+		switch (opcodes[value]) {
+			case IROpcode.PHI:
+			case IROpcode.CALL:
+				pool[firsts[value] + operand] = newValue;
+				break;
+			default:
+				if (operand == 0) {
+					firsts[value] = newValue;
+				} else {
+					seconds[value] = newValue;
+				}
+		}
+	}
+
+	/**
+	 * Checks whether the given built in function checks the range of its pointer argument (and can
+	 * therefore be flagged with UNCHECKED).
+	 */
+	public static boolean isRangeChecked(Builtin builtin) {
+		switch (builtin) {
+			case ADD_POINTER:
+			case GET_BOOL:
+			case GET_BYTE:
+			case GET_INT:
+			case GET_FLOAT:
+			case GET_POINTER:
+			case GET_STRING:
+			case SET_BOOL:
+			case SET_BYTE:
+			case SET_INT:
+			case SET_FLOAT:
+			case SET_POINTER:
+			case SET_STRING:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Return the flags (STACK and UNCHECKED) of the given instruction.
+	 */
+	public int getFlags(int value) {
+		return flags[value];
+	}
+
+	public boolean hasFlag(int value, int flag) {
+		return (flags[value] & flag) != 0;
+	}
+
+	public void setFlag(int value, int flag) {
+		flags[value] |= flag;
+	}
+
+	/**
+	 * Checks whether the given instruction has no side effects and can't fail,
+	 * so that it can be removed if its value is unused.
+	 */
+	public boolean isPure(int value) {
+		switch (opcodes[value]) {
+			case IROpcode.CONST:
+			case IROpcode.STRING:
+			case IROpcode.PARAM:
+			case IROpcode.PHI:
+			case IROpcode.LOAD_GLOBAL:
+			case IROpcode.COPY:
+				return true;
+			case IROpcode.BUILTIN:
+				return getBuiltin(value).isPure() && !getBuiltin(value).isThrowing();
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Create a constant (or return the existing equal constant).
+	 * @param type type of the constant
+	 * @param constant encoded value
+	 * @return constant value
+	 */
+	public int constant(Type type, long constant) {
+		Map<Long, Integer> values = constantValues.get(type.ordinal());
+		Integer existing = values.get(constant);
+		if (existing != null) {
+			return existing;
+		}
+		int value = create(IROpcode.CONST, type, NONE, NONE, NONE, 0);
+		constants[value] = constant;
+		values.put(constant, value);
+		return value;
+	}
+
+	/**
+	 * Create the pointer to a string literal (or return the existing one).
+	 * @param literal index of the string literal in the program
+	 * @return string value
+	 */
+	public int string(int literal) {
+		Integer existing = stringValues.get(literal);
+		if (existing != null) {
+			return existing;
+		}
+		int value = create(IROpcode.STRING, Type.STRING, NONE, NONE, literal, 0);
+		stringValues.put(literal, value);
+		return value;
+	}
+
+	public int param(int block, int parameter) {
+		return append(block, create(IROpcode.PARAM, parameterTypes[parameter], parameter, NONE, NONE, 0));
+	}
+
+	/**
+	 * Create a phi without operands, inserted after the existing phis of the block.
+	 */
+	public int phi(int block, Type type) {
+		int value = create(IROpcode.PHI, type, poolSize, 0, NONE, 0);
+		IntList instructions = blockInstructions.get(block);
+		int position = 0;
+		while (position < instructions.size() && opcodes[instructions.get(position)] == IROpcode.PHI) {
+			position++;
+		}
+		instructions.insert(position, value);
+		blocks[value] = block;
+		return value;
+	}
+
+	/**
+	 * Set the operands of a phi, one per predecessor of its block.
+	 */
+	public void setPhiOperands(int phi, int[] operands) {
+		int offset = allocatePool(operands.length);
+		System.arraycopy(operands, 0, pool, offset, operands.length);
+		firsts[phi] = offset;
+		seconds[phi] = operands.length;
+	}
+
+	/**
+	 * Create a call of a built in function.
+	 * @param block block to append it to or NONE
+	 * @param builtin called function
+	 * @param first first argument or NONE
+	 * @param second second argument or NONE
+	 * @param line line of the call
+	 * @return call instruction
+	 */
+	public int builtin(int block, Builtin builtin, int first, int second, int line) {
+		return append(block, create(IROpcode.BUILTIN, builtin.getReturnType(), first, second, builtin.ordinal(), line));
+	}
+
+	/**
+	 * Create a call of a user defined function.
+	 * @param block block to append it to or NONE
+	 * @param function index of the called function
+	 * @param returnType return type of the called function
+	 * @param arguments arguments
+	 * @param line line of the call
+	 * @return call instruction
+	 */
+	public int call(int block, int function, Type returnType, int[] arguments, int line) {
+		int offset = allocatePool(arguments.length);
+		System.arraycopy(arguments, 0, pool, offset, arguments.length);
+		return append(block, create(IROpcode.CALL, returnType, offset, arguments.length, function, line));
+	}
+
+	public int loadGlobal(int block, int global, Type type) {
+		return append(block, create(IROpcode.LOAD_GLOBAL, type, NONE, NONE, global, 0));
+	}
+
+	public int storeGlobal(int block, int global, int value) {
+		return append(block, create(IROpcode.STORE_GLOBAL, Type.VOID, value, NONE, global, 0));
+	}
+
+	public int copy(int block, int value) {
+		return append(block, create(IROpcode.COPY, getType(value), value, NONE, NONE, 0));
+	}
+
+	public int jump(int block, int target) {
+		predecessors.get(target).add(block);
+		return append(block, create(IROpcode.JUMP, Type.VOID, target, NONE, NONE, 0));
+	}
+
+	public int branch(int block, int condition, int trueTarget, int falseTarget) {
+		predecessors.get(trueTarget).add(block);
+		predecessors.get(falseTarget).add(block);
+		return append(block, create(IROpcode.BRANCH, Type.VOID, condition, trueTarget, falseTarget, 0));
+	}
+
+	public int ret(int block, int value, int line) {
+		return append(block, create(IROpcode.RETURN, Type.VOID, value, NONE, NONE, line));
+	}
+
+	/**
+	 * Insert an instruction that isn't part of a block into the given block.
+	 * @param block given block
+	 * @param position index in the instruction list of the block
+	 * @param value inserted instruction
+	 */
+	public void insert(int block, int position, int value) {
+		blockInstructions.get(block).insert(position, value);
+		blocks[value] = block;
+	}
+
+	/**
+	 * Remove the given instruction from its block, it can be inserted again.
+	 */
+	public void detach(int value) {
+		if (blocks[value] != NONE) {
+			blockInstructions.get(blocks[value]).removeValue(value);
+			blocks[value] = NONE;
+		}
+	}
+
+	/**
+	 * Remove the given instruction, its value must be unused.
+	 */
+	public void remove(int value) {
+		detach(value);
+		if (opcodes[value] == IROpcode.CONST) {
+			constantValues.get(types[value]).remove(constants[value]);
+		} else if (opcodes[value] == IROpcode.STRING) {
+			stringValues.remove(thirds[value]);
+		}
+		opcodes[value] = IROpcode.NOP;
+	}
+
+	/**
+	 * Replace all uses of the given value by the replacement.
+	 * @return number of replaced uses
+	 */
+	public int replaceAllUses(int value, int replacement) {
+		int count = 0;
+		for (IntList instructions : blockInstructions) {
+			for (int i = 0; i < instructions.size(); i++) {
+				int instruction = instructions.get(i);
+				for (int j = getOperandCount(instruction) - 1; j >= 0; j--) {
+					if (getOperand(instruction, j) == value) {
+						setOperand(instruction, j, replacement);
+						count++;
+					}
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Replace the operands of all instructions by their representative in the given mapping.
+	 * @param replacements replacement of each value or NONE if the value isn't replaced,
+	 *                     replacements are followed transitively
+	 */
+	public void replaceAllUses(int[] replacements) {
+		for (IntList instructions : blockInstructions) {
+			for (int i = 0; i < instructions.size(); i++) {
+				int instruction = instructions.get(i);
+				for (int j = getOperandCount(instruction) - 1; j >= 0; j--) {
+					int operand = getOperand(instruction, j);
+					if (operand < replacements.length && replacements[operand] != NONE) {
+						setOperand(instruction, j, resolve(replacements, operand));
+					}
+				}
+			}
+		}
+	}
+
+	private static int resolve(int[] replacements, int value) {
+		int result = value;
+		while (result < replacements.length && replacements[result] != NONE && replacements[result] != result) {
+			result = replacements[result];
+		}
+		return result;
+	}
+
+	/**
+	 * Remove all phis whose operands are (apart from the phi itself) the same value, their uses
+	 * are replaced by this value. Phis that only refer to themselves are replaced by the default value.
+	 * @return true if phis were removed
+	 */
+	public boolean removeTrivialPhis() {
+		int[] replacements = new int[size];
+		Arrays.fill(replacements, NONE);
+		boolean removed = false;
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (IntList instructions : blockInstructions) {
+				for (int i = 0; i < instructions.size() && opcodes[instructions.get(i)] == IROpcode.PHI; i++) {
+					int phi = instructions.get(i);
+					int same = NONE;
+					boolean trivial = true;
+					for (int j = 0; j < seconds[phi]; j++) {
+						int operand = resolve(replacements, pool[firsts[phi] + j]);
+						if (operand == phi || operand == same) {
+							continue;
+						}
+						if (same != NONE) {
+							trivial = false;
+							break;
+						}
+						same = operand;
+					}
+					if (trivial) {
+						if (same == NONE) {
+							same = constant(getType(phi), OakRuntime.defaultValue(getType(phi)));
+							if (same >= replacements.length) {
+								int length = replacements.length;
+								replacements = Arrays.copyOf(replacements, size);
+								Arrays.fill(replacements, length, size, NONE);
+							}
+						}
+						replacements[phi] = same;
+						remove(phi);
+						i--;
+						changed = true;
+						removed = true;
+					}
+				}
+			}
+		}
+		if (removed) {
+			replaceAllUses(replacements);
+		}
+		return removed;
+	}
+
+	/**
+	 * Count the uses of every value.
+	 * @return number of uses by value
+	 */
+	public int[] countUses() {
+		int[] uses = new int[size];
+		for (IntList instructions : blockInstructions) {
+			for (int i = 0; i < instructions.size(); i++) {
+				int instruction = instructions.get(i);
+				for (int j = getOperandCount(instruction) - 1; j >= 0; j--) {
+					uses[getOperand(instruction, j)]++;
+				}
+			}
+		}
+		return uses;
+	}
+
+	// blocks
+
+	public int addBlock() {
+		blockInstructions.add(new IntList());
+		predecessors.add(new IntList(2));
+		return blockInstructions.size() - 1;
+	}
+
+	public int getBlockCount() {
+		return blockInstructions.size();
+	}
+
+	public IntList getInstructions(int block) {
+		return blockInstructions.get(block);
+	}
+
+	public IntList getPredecessors(int block) {
+		return predecessors.get(block);
+	}
+
+	/**
+	 * Return the terminator of the given block.
+	 * @return last instruction or NONE if the block isn't terminated yet
+	 */
+	public int getTerminator(int block) {
+		IntList instructions = blockInstructions.get(block);
+		if (instructions.isEmpty() || !IROpcode.isTerminator(opcodes[instructions.last()])) {
+			return NONE;
+		}
+		return instructions.last();
+	}
+
+	public int getSuccessorCount(int block) {
+		int terminator = getTerminator(block);
+		if (terminator == NONE) {
+			return 0;
+		}
+		switch (opcodes[terminator]) {
+			case IROpcode.JUMP:
+				return 1;
+			case IROpcode.BRANCH:
+				return 2;
+			default:
+				return 0;
+		}
+	}
+
+	public int getSuccessor(int block, int successor) {
+		int terminator = getTerminator(block);
+		if (opcodes[terminator] == IROpcode.JUMP) {
+			return firsts[terminator];
+		}
+		return successor == 0 ? seconds[terminator] : thirds[terminator];
+	}
+
+	/**
+	 * Remove the edge from the predecessor to the block (once) and the corresponding phi operands.
+	 */
+	public void removePredecessor(int block, int predecessor) {
+		IntList preds = predecessors.get(block);
+		int position = preds.indexOf(predecessor);
+		preds.removeAt(position);
+		IntList instructions = blockInstructions.get(block);
+		for (int i = 0; i < instructions.size() && opcodes[instructions.get(i)] == IROpcode.PHI; i++) {
+			int phi = instructions.get(i);
+			int offset = firsts[phi];
+			System.arraycopy(pool, offset + position + 1, pool, offset + position, seconds[phi] - position - 1);
+			seconds[phi]--;
+		}
+	}
+
+	/**
+	 * Replace the branch terminating the given block by a jump to the target taken for the given condition.
+	 */
+	public void foldBranch(int block, boolean condition) {
+		int terminator = getTerminator(block);
+		int target = condition ? seconds[terminator] : thirds[terminator];
+		int other = condition ? thirds[terminator] : seconds[terminator];
+		removePredecessor(other, block);
+		opcodes[terminator] = IROpcode.JUMP;
+		firsts[terminator] = target;
+		seconds[terminator] = NONE;
+		thirds[terminator] = NONE;
+	}
+
+	/**
+	 * Redirect the edge from the given block to the old successor to the new successor, the corresponding
+	 * phi operands of the old successor are removed, the new successor gets the block as its last
+	 * predecessor (its phis need an additional operand).
+	 */
+	public void redirectEdge(int block, int oldSuccessor, int newSuccessor) {
+		int terminator = getTerminator(block);
+		if (opcodes[terminator] == IROpcode.JUMP) {
+			firsts[terminator] = newSuccessor;
+		} else if (seconds[terminator] == oldSuccessor) {
+			seconds[terminator] = newSuccessor;
+		} else {
+			thirds[terminator] = newSuccessor;
+		}
+		removePredecessor(oldSuccessor, block);
+		predecessors.get(newSuccessor).add(block);
+	}
+
+	/**
+	 * Split the given block: the instructions from the given position on are moved into a new block,
+	 * which becomes the predecessor of the successors. The given block is left without terminator.
+	 * @return new block
+	 */
+	public int splitBlock(int block, int position) {
+		int newBlock = addBlock();
+		IntList instructions = blockInstructions.get(block);
+		IntList moved = blockInstructions.get(newBlock);
+		for (int i = position; i < instructions.size(); i++) {
+			moved.add(instructions.get(i));
+			blocks[instructions.get(i)] = newBlock;
+		}
+		instructions.truncate(position);
+		for (int i = 0; i < getSuccessorCount(newBlock); i++) {
+			IntList preds = predecessors.get(getSuccessor(newBlock, i));
+			for (int j = 0; j < preds.size(); j++) {
+				if (preds.get(j) == block) {
+					preds.set(j, newBlock);
+				}
+			}
+		}
+		return newBlock;
+	}
+
+	/**
+	 * Merge every block ending with a jump into its successor if it's the only predecessor of the successor,
+	 * the remaining blocks are renumbered (see removeUnreachableBlocks).
+	 * @return true if blocks were merged
+	 */
+	public boolean mergeBlocks() {
+		boolean changed = false;
+		for (int block = 0; block < getBlockCount(); block++) {
+			int terminator = getTerminator(block);
+			while (terminator != NONE && opcodes[terminator] == IROpcode.JUMP) {
+				int successor = firsts[terminator];
+				if (successor == block || successor == 0 || predecessors.get(successor).size() != 1) {
+					break;
+				}
+				remove(terminator);
+				IntList instructions = blockInstructions.get(block);
+				IntList moved = blockInstructions.get(successor);
+				for (int i = 0; i < moved.size(); i++) {
+					int instruction = moved.get(i);
+					if (opcodes[instruction] == IROpcode.PHI) {
+						replaceAllUses(instruction, pool[firsts[instruction]]);
+						blocks[instruction] = NONE;
+						opcodes[instruction] = IROpcode.NOP;
+					} else {
+						instructions.add(instruction);
+						blocks[instruction] = block;
+					}
+				}
+				moved.clear();
+				predecessors.get(successor).clear();
+				for (int i = 0; i < getSuccessorCount(block); i++) {
+					IntList preds = predecessors.get(getSuccessor(block, i));
+					for (int j = 0; j < preds.size(); j++) {
+						if (preds.get(j) == successor) {
+							preds.set(j, block);
+						}
+					}
+				}
+				terminator = getTerminator(block);
+				changed = true;
+			}
+		}
+		if (changed) {
+			removeUnreachableBlocks();
+		}
+		return changed;
+	}
+
+	/**
+	 * Return the blocks reachable from the entry block in reverse post order.
+	 */
+	public int[] getReversePostOrder() {
+		int count = getBlockCount();
+		int[] order = new int[count];
+		int position = count;
+		boolean[] visited = new boolean[count];
+		int[] stack = new int[count];
+		int[] nextSuccessor = new int[count];
+		int depth = 0;
+		stack[depth++] = 0;
+		visited[0] = true;
+		while (depth > 0) {
+			int block = stack[depth - 1];
+			if (nextSuccessor[block] < getSuccessorCount(block)) {
+				int successor = getSuccessor(block, nextSuccessor[block]++);
+				if (!visited[successor]) {
+					visited[successor] = true;
+					stack[depth++] = successor;
+				}
+			} else {
+				depth--;
+				order[--position] = block;
+			}
+		}
+		return Arrays.copyOfRange(order, position, count);
+	}
+
+	/**
+	 * Remove all blocks that aren't reachable from the entry block and renumber the remaining blocks
+	 * in reverse post order.
+	 * @return true if blocks were removed
+	 */
+	public boolean removeUnreachableBlocks() {
+		int[] order = getReversePostOrder();
+		int count = getBlockCount();
+		int[] numbers = new int[count];
+		Arrays.fill(numbers, NONE);
+		for (int i = 0; i < order.length; i++) {
+			numbers[order[i]] = i;
+		}
+		boolean changed = order.length != count;
+		for (int block = 0; block < count; block++) {
+			if (numbers[block] == NONE) {
+				for (int i = 0; i < getSuccessorCount(block); i++) {
+					int successor = getSuccessor(block, i);
+					if (numbers[successor] != NONE) {
+						removePredecessor(successor, block);
+					}
+				}
+				IntList instructions = blockInstructions.get(block);
+				for (int i = 0; i < instructions.size(); i++) {
+					blocks[instructions.get(i)] = NONE;
+					opcodes[instructions.get(i)] = IROpcode.NOP;
+				}
+			}
+		}
+		List<IntList> newInstructions = new ArrayList<>();
+		List<IntList> newPredecessors = new ArrayList<>();
+		for (int block : order) {
+			changed |= numbers[block] != block;
+			IntList instructions = blockInstructions.get(block);
+			for (int i = 0; i < instructions.size(); i++) {
+				int instruction = instructions.get(i);
+				blocks[instruction] = numbers[block];
+				switch (opcodes[instruction]) {
+					case IROpcode.JUMP:
+						firsts[instruction] = numbers[firsts[instruction]];
+						break;
+					case IROpcode.BRANCH:
+						seconds[instruction] = numbers[seconds[instruction]];
+						thirds[instruction] = numbers[thirds[instruction]];
+						break;
+					default:
+						break;
+				}
+			}
+			IntList preds = predecessors.get(block);
+			for (int i = 0; i < preds.size(); i++) {
+				preds.set(i, numbers[preds.get(i)]);
+			}
+			newInstructions.add(instructions);
+			newPredecessors.add(preds);
+		}
+		blockInstructions.clear();
+		blockInstructions.addAll(newInstructions);
+		predecessors.clear();
+		predecessors.addAll(newPredecessors);
+		return changed;
+	}
+
+	// storage
+
+	private int create(int opcode, Type type, int first, int second, int third, int line) {
+		if (size == opcodes.length) {
+			int capacity = size * 2;
+			opcodes = Arrays.copyOf(opcodes, capacity);
+			types = Arrays.copyOf(types, capacity);
+			firsts = Arrays.copyOf(firsts, capacity);
+			seconds = Arrays.copyOf(seconds, capacity);
+			thirds = Arrays.copyOf(thirds, capacity);
+			blocks = Arrays.copyOf(blocks, capacity);
+			lines = Arrays.copyOf(lines, capacity);
+			constants = Arrays.copyOf(constants, capacity);
+			flags = Arrays.copyOf(flags, capacity);
+		}
+		opcodes[size] = opcode;
+		types[size] = (byte) type.ordinal();
+		firsts[size] = first;
+		seconds[size] = second;
+		thirds[size] = third;
+		blocks[size] = NONE;
+		lines[size] = line;
+		flags[size] = 0;
+		return size++;
+	}
+
+	private int append(int block, int value) {
+		if (block != NONE) {
+			blockInstructions.get(block).add(value);
+			blocks[value] = block;
+		}
+		return value;
+	}
+
+	private int allocatePool(int length) {
+		if (poolSize + length > pool.length) {
+			pool = Arrays.copyOf(pool, Math.max(pool.length * 2, poolSize + length));
+		}
+		int offset = poolSize;
+		poolSize += length;
+		return offset;
+	}
+
+	// text dump
+
+	/**
+	 * Return the textual representation of the given operand: a value or a constant.
+	 */
+	public String formatValue(int value) {
+		if (value == NONE) {
+			return "none";
+		}
+		switch (opcodes[value]) {
+			case IROpcode.CONST:
+				return new Constant(getType(value), constants[value]).toString();
+			case IROpcode.STRING:
+				return "str" + thirds[value];
+			default:
+				return "v" + value;
+		}
+	}
+
+	/**
+	 * Return the textual representation of the given instruction.
+	 */
+	public String formatInstruction(int value) {
+		StringBuilder builder = new StringBuilder();
+		if (getType(value) != Type.VOID) {
+			builder.append("v").append(value).append(" = ");
+		}
+		int opcode = opcodes[value];
+		switch (opcode) {
+			case IROpcode.BUILTIN:
+				builder.append(getBuiltin(value).name().toLowerCase());
+				break;
+			case IROpcode.CALL:
+				builder.append("call f").append(thirds[value]);
+				break;
+			case IROpcode.PARAM:
+				builder.append("param ").append(firsts[value]);
+				break;
+			case IROpcode.LOAD_GLOBAL:
+			case IROpcode.STORE_GLOBAL:
+				builder.append(IROpcode.getName(opcode)).append(" g").append(thirds[value]);
+				break;
+			case IROpcode.JUMP:
+				return builder.append("jump b").append(firsts[value]).toString();
+			case IROpcode.BRANCH:
+				return builder.append("branch ").append(formatValue(firsts[value])).append(" b")
+						.append(seconds[value]).append(" b").append(thirds[value]).toString();
+			default:
+				builder.append(IROpcode.getName(opcode));
+		}
+		if (opcode == IROpcode.PHI) {
+			IntList preds = predecessors.get(blocks[value]);
+			for (int i = 0; i < getOperandCount(value); i++) {
+				builder.append(" [").append(formatValue(getOperand(value, i))).append(" b")
+						.append(i < preds.size() ? preds.get(i) : NONE).append("]");
+			}
+		} else {
+			for (int i = 0; i < getOperandCount(value); i++) {
+				builder.append(" ").append(formatValue(getOperand(value, i)));
+			}
+		}
+		if (getType(value) != Type.VOID) {
+			builder.append(" : ").append(getType(value));
+		}
+		if (hasFlag(value, STACK)) {
+			builder.append(" [stack]");
+		}
+		if (hasFlag(value, UNCHECKED)) {
+			builder.append(" [unchecked]");
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Return a text dump of the function: its header, the string literals it uses and its blocks.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder("function ").append(returnType).append(" ").append(name);
+		if (index != NONE) {
+			builder.append(" f").append(index);
+		}
+		builder.append("(");
+		for (int i = 0; i < parameterTypes.length; i++) {
+			builder.append(i > 0 ? ", " : "").append(parameterTypes[i]);
+		}
+		builder.append(")\n");
+		for (int block = 0; block < getBlockCount(); block++) {
+			builder.append("b").append(block).append(":");
+			IntList preds = predecessors.get(block);
+			if (!preds.isEmpty()) {
+				builder.append(" preds");
+				for (int i = 0; i < preds.size(); i++) {
+					builder.append(" b").append(preds.get(i));
+				}
+			}
+			builder.append("\n");
+			IntList instructions = blockInstructions.get(block);
+			for (int i = 0; i < instructions.size(); i++) {
+				builder.append("  ").append(formatInstruction(instructions.get(i))).append("\n");
+			}
+		}
+		return builder.toString();
+	}
+}
@@ -0,0 +1,152 @@
+package intothewoods.ir;
+
+import intothewoods.common.Builtin;
+import intothewoods.runtime.ExitException;
+import intothewoods.runtime.OakRuntime;
+import intothewoods.runtime.OakRuntimeException;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Straightforward interpreter of the SSA form, the reference semantics for the passes working on it.
+ *
+ * Every call gets an array with a slot per value, the phis of a block are evaluated as parallel copies
+ * when entering it.
+ */
+public class IRInterpreter {
+
+	private final IRProgram program;
+	private final OakRuntime runtime;
+	private final Map<IRFunction, long[]> templates = new IdentityHashMap<>();
+	private long[] strings;
+	private long[] globals;
+
+	public IRInterpreter(IRProgram program, OakRuntime runtime) {
+		this.program = program;
+		this.runtime = runtime;
+	}
+
+	/**
+	 * Run the program: initialize the global variables and call the main function.
+	 * @return exit code (the return value of main, if it returns an int, or the argument of exit)
+	 * @throws OakRuntimeException the program failed
+	 */
+	public int run() throws OakRuntimeException {
+		if (program.getMainFunction() == IRFunction.NONE) {
+			throw new OakRuntimeException("Program has no main function");
+		}
+		strings = new long[program.getStrings().size()];
+		for (int i = 0; i < strings.length; i++) {
+			strings[i] = runtime.getHeap().allocateBytes(program.getStrings().get(i).getBytes());
+		}
+		globals = new long[program.getGlobalTypes().length];
+		try {
+			invoke(program.getInitialization(), new long[0]);
+			return (int) invoke(program.getFunction(program.getMainFunction()), new long[0]);
+		} catch (ExitException ex) {
+			return ex.getExitCode();
+		} catch (StackOverflowError error) {
+			throw new OakRuntimeException("Stack overflow");
+		} finally {
+			runtime.flush();
+		}
+	}
+
+	private long[] getTemplate(IRFunction function) {
+		long[] template = templates.get(function);
+		if (template == null) {
+			template = new long[function.getValueCount()];
+			for (int value = 0; value < template.length; value++) {
+				if (function.getOpcode(value) == IROpcode.CONST) {
+					template[value] = function.getConstant(value);
+				} else if (function.getOpcode(value) == IROpcode.STRING) {
+					template[value] = strings[function.getThird(value)];
+				}
+			}
+			templates.put(function, template);
+		}
+		return template;
+	}
+
+	private long invoke(IRFunction function, long[] arguments) throws OakRuntimeException {
+		long[] values = getTemplate(function).clone();
+		long[] phiValues = new long[4];
+		int block = 0;
+		int previous = IRFunction.NONE;
+		while (true) {
+			IntList instructions = function.getInstructions(block);
+			int start = 0;
+			if (previous != IRFunction.NONE) {
+				int predecessor = function.getPredecessors(block).indexOf(previous);
+				while (start < instructions.size() && function.getOpcode(instructions.get(start)) == IROpcode.PHI) {
+					if (start == phiValues.length) {
+						phiValues = Arrays.copyOf(phiValues, start * 2);
+					}
+					phiValues[start] = values[function.getOperand(instructions.get(start), predecessor)];
+					start++;
+				}
+				for (int i = 0; i < start; i++) {
+					values[instructions.get(i)] = phiValues[i];
+				}
+			}
+			for (int i = start; i < instructions.size(); i++) {
+				int instruction = instructions.get(i);
+				switch (function.getOpcode(instruction)) {
+					case IROpcode.PARAM:
+						values[instruction] = arguments[function.getFirst(instruction)];
+						break;
+					case IROpcode.BUILTIN:
+						values[instruction] = callBuiltin(function, instruction, values);
+						break;
+					case IROpcode.CALL:
+						long[] callArguments = new long[function.getOperandCount(instruction)];
+						for (int j = 0; j < callArguments.length; j++) {
+							callArguments[j] = values[function.getOperand(instruction, j)];
+						}
+						values[instruction] = invoke(program.getFunction(function.getThird(instruction)), callArguments);
+						break;
+					case IROpcode.LOAD_GLOBAL:
+						values[instruction] = globals[function.getThird(instruction)];
+						break;
+					case IROpcode.STORE_GLOBAL:
+						globals[function.getThird(instruction)] = values[function.getFirst(instruction)];
+						break;
+					case IROpcode.COPY:
+						values[instruction] = values[function.getFirst(instruction)];
+						break;
+					case IROpcode.JUMP:
+						previous = block;
+						block = function.getFirst(instruction);
+						break;
+					case IROpcode.BRANCH:
+						previous = block;
+						block = values[function.getFirst(instruction)] != 0 ? function.getSecond(instruction)
+								: function.getThird(instruction);
+						break;
+					case IROpcode.RETURN:
+						return function.getFirst(instruction) == IRFunction.NONE ? 0 : values[function.getFirst(instruction)];
+					default:
+						throw new IllegalStateException("Unexpected instruction " + function.formatInstruction(instruction));
+				}
+			}
+		}
+	}
+
+	private long callBuiltin(IRFunction function, int instruction, long[] values) throws OakRuntimeException {
+		Builtin builtin = function.getBuiltin(instruction);
+		int first = function.getFirst(instruction);
+		int second = function.getSecond(instruction);
+		try {
+			long firstValue = first == IRFunction.NONE ? 0 : values[first];
+			long secondValue = second == IRFunction.NONE ? 0 : values[second];
+			if (function.hasFlag(instruction, IRFunction.UNCHECKED)) {
+				return runtime.callUnchecked(builtin, firstValue, secondValue);
+			}
+			return runtime.call(builtin, firstValue, secondValue);
+		} catch (OakRuntimeException ex) {
+			throw OakRuntimeException.atLine(ex, function.getLine(instruction));
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package intothewoods.ir;
+
+/**
+ * Opcodes of the SSA intermediate representation.
+ *
+ * Every instruction defines at most one value, identified by the index of the instruction.
+ * The fields of an instruction (see IRFunction) are used as follows:
+ *
+ * <pre>
+ * CONST                                      constant value (floating, not in a block)
+ * STRING        third: string literal index  (floating, not in a block)
+ * PARAM         first: parameter index
+ * PHI           operands: one per predecessor of the block, in the order of the predecessors
+ * BUILTIN       first, second: arguments (NONE if unused), third: builtin ordinal
+ * CALL          operands: arguments, third: function index
+ * LOAD_GLOBAL   third: global index
+ * STORE_GLOBAL  first: value, third: global index
+ * COPY          first: value
+ * JUMP          first: target block
+ * BRANCH        first: condition, second: target block if true, third: target block if false
+ * RETURN        first: value (NONE for void functions)
+ * NOP           removed instruction
+ * </pre>
+ *
+ * Referenced variables are lowered to heap cells, accessed via the get_TYPE and set_TYPE built in functions.
+ */
+public final class IROpcode {
+
+	public static final int NOP = 0;
+	public static final int CONST = 1;
+	public static final int STRING = 2;
+	public static final int PARAM = 3;
+	public static final int PHI = 4;
+	public static final int BUILTIN = 5;
+	public static final int CALL = 6;
+	public static final int LOAD_GLOBAL = 7;
+	public static final int STORE_GLOBAL = 8;
+	public static final int COPY = 9;
+	public static final int JUMP = 10;
+	public static final int BRANCH = 11;
+	public static final int RETURN = 12;
+
+	private static final String[] NAMES = {"nop", "const", "string", "param", "phi", "builtin", "call",
+			"load_global", "store_global", "copy", "jump", "branch", "return"};
+
+	private IROpcode() {
+	}
+
+	public static String getName(int opcode) {
+		return NAMES[opcode];
+	}
+
+	public static boolean isTerminator(int opcode) {
+		return opcode == JUMP || opcode == BRANCH || opcode == RETURN;
+	}
+
+	/**
+	 * Checks whether instructions with the given opcode are floating: they aren't part of a block
+	 * and are available everywhere in the function.
+	 */
+	public static boolean isFloating(int opcode) {
+		return opcode == CONST || opcode == STRING;
+	}
+}
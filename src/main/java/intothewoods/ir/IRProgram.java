@@ -0,0 +1,111 @@
+package intothewoods.ir;
+
+import intothewoods.analyser.Constant;
+import intothewoods.common.Type;
+
+import java.util.List;
+
+/**
+ * Program in SSA form: its functions (by function index), the function initializing the global
+ * variables and the string literals.
+ */
+public class IRProgram {
+
+	private final List<IRFunction> functions;
+	private final IRFunction initialization;
+	private final List<Constant> strings;
+	private final Type[] globalTypes;
+	private final int mainFunction;
+
+	/**
+	 * Initialize a program.
+	 * @param functions functions, by function index (removed functions are null)
+	 * @param initialization void function initializing the global variables
+	 * @param strings string literals, by literal index
+	 * @param globalTypes types of the global slots (pointers for referenced globals)
+	 * @param mainFunction index of the main function or NONE
+	 */
+	public IRProgram(List<IRFunction> functions, IRFunction initialization, List<Constant> strings,
+	                 Type[] globalTypes, int mainFunction) {
+		this.functions = functions;
+		this.initialization = initialization;
+		this.strings = strings;
+		this.globalTypes = globalTypes;
+		this.mainFunction = mainFunction;
+	}
+
+	/**
+	 * Return the functions, by function index, removed functions are null.
+	 */
+	public List<IRFunction> getFunctions() {
+		return functions;
+	}
+
+	public IRFunction getFunction(int index) {
+		return functions.get(index);
+	}
+
+	/**
+	 * Remove the function with the given index, it must not be called anymore.
+	 */
+	public void removeFunction(int index) {
+		functions.set(index, null);
+	}
+
+	public IRFunction getInitialization() {
+		return initialization;
+	}
+
+	public List<Constant> getStrings() {
+		return strings;
+	}
+
+	/**
+	 * Return the types of the global slots, by global index (VOID for removed globals).
+	 */
+	public Type[] getGlobalTypes() {
+		return globalTypes;
+	}
+
+	/**
+	 * Remove the global with the given index, it must not be accessed anymore.
+	 */
+	public void removeGlobal(int index) {
+		globalTypes[index] = Type.VOID;
+	}
+
+	public int getMainFunction() {
+		return mainFunction;
+	}
+
+	/**
+	 * Return the number of instructions in all functions.
+	 */
+	public int getInstructionCount() {
+		int count = initialization.getInstructionCount();
+		for (IRFunction function : functions) {
+			if (function != null) {
+				count += function.getInstructionCount();
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Return a text dump of the program.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < strings.size(); i++) {
+			builder.append("str").append(i).append(" = ").append(strings.get(i)).append("\n");
+		}
+		builder.append(initialization);
+		for (IRFunction function : functions) {
+			if (function != null) {
+				builder.append(function);
+			}
+		}
+		return builder.toString();
+	}
+}
@@ -0,0 +1,180 @@
+package intothewoods.ir;
+
+import intothewoods.common.Builtin;
+import intothewoods.common.Type;
+
+/**
+ * Checks the structural invariants of the SSA form, used after the construction and after every pass.
+ *
+ * A function is valid if every block is reachable and ends with exactly one terminator, phis are at the
+ * start of their blocks and have one operand per predecessor, the predecessor lists match the terminators
+ * and every operand is defined by an instruction that dominates its use (for phi operands: that dominates
+ * the end of the corresponding predecessor).
+ */
+public class IRVerifier {
+
+	private final IRFunction function;
+	private final Dominators dominators;
+
+	private IRVerifier(IRFunction function) {
+		this.function = function;
+		this.dominators = new Dominators(function);
+	}
+
+	/**
+	 * Verify all functions of the given program.
+	 * @throws IllegalStateException a function is invalid
+	 */
+	public static void verify(IRProgram program) {
+		verify(program.getInitialization());
+		for (IRFunction function : program.getFunctions()) {
+			if (function != null) {
+				verify(function);
+			}
+		}
+	}
+
+	/**
+	 * Verify the given function.
+	 * @throws IllegalStateException the function is invalid
+	 */
+	public static void verify(IRFunction function) {
+		new IRVerifier(function).verify();
+	}
+
+	private void verify() {
+		int edges = 0;
+		int predecessorCount = 0;
+		for (int block = 0; block < function.getBlockCount(); block++) {
+			if (!dominators.isReachable(block)) {
+				fail("Block b" + block + " is unreachable");
+			}
+			verifyBlock(block);
+			edges += function.getSuccessorCount(block);
+			IntList predecessors = function.getPredecessors(block);
+			predecessorCount += predecessors.size();
+			for (int i = 0; i < predecessors.size(); i++) {
+				if (!isSuccessor(predecessors.get(i), block)) {
+					fail("Block b" + predecessors.get(i) + " isn't a predecessor of b" + block);
+				}
+			}
+		}
+		if (edges != predecessorCount) {
+			fail("Predecessor lists don't match the terminators");
+		}
+	}
+
+	private boolean isSuccessor(int block, int successor) {
+		if (block < 0 || block >= function.getBlockCount()) {
+			return false;
+		}
+		for (int i = 0; i < function.getSuccessorCount(block); i++) {
+			if (function.getSuccessor(block, i) == successor) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void verifyBlock(int block) {
+		IntList instructions = function.getInstructions(block);
+		if (function.getTerminator(block) == IRFunction.NONE) {
+			fail("Block b" + block + " isn't terminated");
+		}
+		boolean phis = true;
+		for (int i = 0; i < instructions.size(); i++) {
+			int instruction = instructions.get(i);
+			int opcode = function.getOpcode(instruction);
+			if (function.getBlock(instruction) != block) {
+				fail(instruction, "has a wrong block");
+			}
+			if (opcode == IROpcode.NOP || IROpcode.isFloating(opcode)) {
+				fail(instruction, "can't be part of a block");
+			}
+			if (IROpcode.isTerminator(opcode) && i != instructions.size() - 1) {
+				fail(instruction, "terminates the block early");
+			}
+			if (opcode == IROpcode.PHI) {
+				if (!phis) {
+					fail(instruction, "isn't at the start of the block");
+				}
+				verifyPhi(block, instruction);
+			} else {
+				phis = false;
+				for (int j = 0; j < function.getOperandCount(instruction); j++) {
+					int operand = function.getOperand(instruction, j);
+					verifyDefined(instruction, operand);
+					int definition = function.getBlock(operand);
+					if (definition != IRFunction.NONE && !(definition == block ? instructions.indexOf(operand) < i
+							: dominators.dominates(definition, block))) {
+						fail(instruction, "uses " + function.formatValue(operand) + " before its definition");
+					}
+				}
+			}
+			if (opcode == IROpcode.JUMP || opcode == IROpcode.BRANCH) {
+				for (int j = 0; j < function.getSuccessorCount(block); j++) {
+					int successor = function.getSuccessor(block, j);
+					if (successor < 0 || successor >= function.getBlockCount()) {
+						fail(instruction, "has an invalid target");
+					}
+				}
+			}
+			if (opcode == IROpcode.RETURN
+					&& (function.getOperandCount(instruction) == 1) == (function.getReturnType() == Type.VOID)) {
+				fail(instruction, "doesn't match the return type");
+			}
+			verifyFlags(instruction);
+		}
+	}
+
+	private void verifyPhi(int block, int phi) {
+		IntList predecessors = function.getPredecessors(block);
+		if (function.getOperandCount(phi) != predecessors.size()) {
+			fail(phi, "has " + function.getOperandCount(phi) + " operands but its block has "
+					+ predecessors.size() + " predecessors");
+		}
+		for (int i = 0; i < predecessors.size(); i++) {
+			int operand = function.getOperand(phi, i);
+			verifyDefined(phi, operand);
+			int definition = function.getBlock(operand);
+			if (definition != IRFunction.NONE && !dominators.dominates(definition, predecessors.get(i))) {
+				fail(phi, "uses " + function.formatValue(operand) + " before its definition");
+			}
+		}
+	}
+
+	private void verifyDefined(int instruction, int operand) {
+		if (operand < 0 || operand >= function.getValueCount()) {
+			fail(instruction, "has an invalid operand");
+		}
+		int opcode = function.getOpcode(operand);
+		if (opcode == IROpcode.NOP || (!IROpcode.isFloating(opcode) && function.getBlock(operand) == IRFunction.NONE)) {
+			fail(instruction, "uses the removed value v" + operand);
+		}
+		if (function.getType(operand) == Type.VOID) {
+			fail(instruction, "uses v" + operand + " which has no value");
+		}
+	}
+
+	private void verifyFlags(int instruction) {
+		int flags = function.getFlags(instruction);
+		if (flags == 0) {
+			return;
+		}
+		Builtin builtin = function.getOpcode(instruction) == IROpcode.BUILTIN ? function.getBuiltin(instruction) : null;
+		if ((flags & IRFunction.STACK) != 0 && builtin != Builtin.MALLOC) {
+			fail(instruction, "can't be allocated on the stack");
+		}
+		if ((flags & IRFunction.UNCHECKED) != 0 && (builtin == null || !IRFunction.isRangeChecked(builtin))) {
+			fail(instruction, "has no range check");
+		}
+	}
+
+	private void fail(int instruction, String message) {
+		fail("Instruction '" + function.formatInstruction(instruction) + "' " + message);
+	}
+
+	private void fail(String message) {
+		throw new IllegalStateException("Invalid function " + function.getName() + ": " + message);
+	}
+}
@@ -0,0 +1,125 @@
+package intothewoods.ir;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of ints, used for the instruction lists and the predecessors of basic blocks.
+ */
+public class IntList {
+
+	private int[] values;
+	private int size = 0;
+
+	public IntList() {
+		this(4);
+	}
+
+	public IntList(int capacity) {
+		this.values = new int[Math.max(capacity, 1)];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int get(int index) {
+		if (index >= size) {
+			throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+		}
+		return values[index];
+	}
+
+	public void set(int index, int value) {
+		if (index >= size) {
+			throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+		}
+		values[index] = value;
+	}
+
+	public int last() {
+		return get(size - 1);
+	}
+
+	public void add(int value) {
+		if (size == values.length) {
+			values = Arrays.copyOf(values, size * 2);
+		}
+		values[size++] = value;
+	}
+
+	/**
+	 * Insert the value at the given index, shifting the following values.
+	 */
+	public void insert(int index, int value) {
+		add(0);
+		System.arraycopy(values, index, values, index + 1, size - index - 1);
+		values[index] = value;
+	}
+
+	public void addAll(IntList other) {
+		for (int i = 0; i < other.size; i++) {
+			add(other.values[i]);
+		}
+	}
+
+	/**
+	 * Remove the value at the given index, shifting the following values.
+	 * @return removed value
+	 */
+	public int removeAt(int index) {
+		int value = get(index);
+		System.arraycopy(values, index + 1, values, index, size - index - 1);
+		size--;
+		return value;
+	}
+
+	/**
+	 * Remove all values from the given index on.
+	 */
+	public void truncate(int newSize) {
+		size = Math.min(size, newSize);
+	}
+
+	/**
+	 * Remove the first occurrence of the given value.
+	 * @return false if the list doesn't contain the value
+	 */
+	public boolean removeValue(int value) {
+		int index = indexOf(value);
+		if (index == -1) {
+			return false;
+		}
+		removeAt(index);
+		return true;
+	}
+
+	public int indexOf(int value) {
+		for (int i = 0; i < size; i++) {
+			if (values[i] == value) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public boolean contains(int value) {
+		return indexOf(value) != -1;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	public int[] toArray() {
+		return Arrays.copyOf(values, size);
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(toArray());
+	}
+}
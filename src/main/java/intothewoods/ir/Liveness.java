@@ -0,0 +1,146 @@
+package intothewoods.ir;
+
+import java.util.BitSet;
+
+/**
+ * Liveness of the values of a function in SSA form, computed per block by backward data flow analysis.
+ *
+ * Constants and strings aren't tracked, they can be materialized at every use. A phi operand is live at
+ * the end of the corresponding predecessor and not at the start of the phi's block, a phi is defined at
+ * the start of its block.
+ */
+public class Liveness {
+
+	private final IRFunction function;
+	private final Dominators dominators;
+	private final BitSet[] liveIn;
+	private final BitSet[] liveOut;
+
+	public Liveness(IRFunction function, Dominators dominators) {
+		this.function = function;
+		this.dominators = dominators;
+		int count = function.getBlockCount();
+		liveIn = new BitSet[count];
+		liveOut = new BitSet[count];
+		for (int block = 0; block < count; block++) {
+			liveIn[block] = new BitSet();
+			liveOut[block] = new BitSet();
+		}
+		int[] order = dominators.getReversePostOrder();
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int i = order.length - 1; i >= 0; i--) {
+				int block = order[i];
+				BitSet out = new BitSet();
+				for (int j = 0; j < function.getSuccessorCount(block); j++) {
+					int successor = function.getSuccessor(block, j);
+					out.or(liveIn[successor]);
+					addPhiOperands(successor, block, out);
+				}
+				BitSet in = (BitSet) out.clone();
+				IntList instructions = function.getInstructions(block);
+				for (int j = instructions.size() - 1; j >= 0; j--) {
+					int instruction = instructions.get(j);
+					in.clear(instruction);
+					if (function.getOpcode(instruction) != IROpcode.PHI) {
+						addOperands(instruction, in);
+					}
+				}
+				if (!out.equals(liveOut[block]) || !in.equals(liveIn[block])) {
+					liveOut[block] = out;
+					liveIn[block] = in;
+					changed = true;
+				}
+			}
+		}
+	}
+
+	private void addPhiOperands(int block, int predecessor, BitSet live) {
+		IntList instructions = function.getInstructions(block);
+		IntList predecessors = function.getPredecessors(block);
+		for (int i = 0; i < instructions.size() && function.getOpcode(instructions.get(i)) == IROpcode.PHI; i++) {
+			for (int j = 0; j < predecessors.size(); j++) {
+				if (predecessors.get(j) == predecessor && isTracked(function.getOperand(instructions.get(i), j))) {
+					live.set(function.getOperand(instructions.get(i), j));
+				}
+			}
+		}
+	}
+
+	private void addOperands(int instruction, BitSet live) {
+		for (int i = 0; i < function.getOperandCount(instruction); i++) {
+			int operand = function.getOperand(instruction, i);
+			if (isTracked(operand)) {
+				live.set(operand);
+			}
+		}
+	}
+
+	private boolean isTracked(int value) {
+		return function.getBlock(value) != IRFunction.NONE;
+	}
+
+	/**
+	 * Return the values live at the start of the given block (without the phis of the block).
+	 */
+	public BitSet getLiveIn(int block) {
+		return liveIn[block];
+	}
+
+	/**
+	 * Return the values live at the end of the given block (including the phi operands of the successors).
+	 */
+	public BitSet getLiveOut(int block) {
+		return liveOut[block];
+	}
+
+	/**
+	 * Checks whether the given values are live at the same time, so that they can't share a location.
+	 */
+	public boolean interfere(int first, int second) {
+		if (first == second || !isTracked(first) || !isTracked(second)) {
+			return false;
+		}
+		int firstBlock = function.getBlock(first);
+		int secondBlock = function.getBlock(second);
+		if (firstBlock == secondBlock) {
+			IntList instructions = function.getInstructions(firstBlock);
+			if (function.getOpcode(first) == IROpcode.PHI && function.getOpcode(second) == IROpcode.PHI) {
+				return true;
+			}
+			return instructions.indexOf(first) < instructions.indexOf(second) ? isLiveAfter(first, second)
+					: isLiveAfter(second, first);
+		}
+		if (dominators.dominates(firstBlock, secondBlock)) {
+			return isLiveAfter(first, second);
+		}
+		if (dominators.dominates(secondBlock, firstBlock)) {
+			return isLiveAfter(second, first);
+		}
+		return false;
+	}
+
+	/**
+	 * Checks whether the value is live directly after the definition of the given instruction.
+	 */
+	public boolean isLiveAfter(int value, int instruction) {
+		int block = function.getBlock(instruction);
+		if (liveOut[block].get(value)) {
+			return true;
+		}
+		IntList instructions = function.getInstructions(block);
+		for (int i = instructions.indexOf(instruction) + 1; i < instructions.size(); i++) {
+			int user = instructions.get(i);
+			if (function.getOpcode(user) == IROpcode.PHI) {
+				continue;
+			}
+			for (int j = 0; j < function.getOperandCount(user); j++) {
+				if (function.getOperand(user, j) == value) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,174 @@
+package intothewoods.ir;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Natural loops of a function: every back edge (an edge to a block that dominates its source) belongs
+ * to the loop of its target, the loop header. Back edges to the same header form a single loop.
+ * The loops of _while statements are always natural loops.
+ */
+public class Loops {
+
+	/**
+	 * Natural loop, its blocks are the header and all blocks that reach a latch without passing the header.
+	 */
+	public static class Loop {
+
+		private final int header;
+		private final boolean[] contained;
+		private final IntList blocks = new IntList();
+		private final IntList latches = new IntList(1);
+		private Loop parent;
+		private int depth = 1;
+
+		Loop(int header, int blockCount) {
+			this.header = header;
+			this.contained = new boolean[blockCount];
+		}
+
+		public int getHeader() {
+			return header;
+		}
+
+		/**
+		 * Return the blocks of the loop, starting with the header.
+		 */
+		public IntList getBlocks() {
+			return blocks;
+		}
+
+		/**
+		 * Return the sources of the back edges.
+		 */
+		public IntList getLatches() {
+			return latches;
+		}
+
+		public boolean contains(int block) {
+			return block >= 0 && block < contained.length && contained[block];
+		}
+
+		/**
+		 * Return the innermost loop containing this loop or null.
+		 */
+		public Loop getParent() {
+			return parent;
+		}
+
+		/**
+		 * Return the nesting depth (1 for outermost loops).
+		 */
+		public int getDepth() {
+			return depth;
+		}
+	}
+
+	private final List<Loop> loops = new ArrayList<>();
+
+	public Loops(IRFunction function, Dominators dominators) {
+		Loop[] byHeader = new Loop[function.getBlockCount()];
+		for (int block : dominators.getReversePostOrder()) {
+			for (int i = 0; i < function.getSuccessorCount(block); i++) {
+				int successor = function.getSuccessor(block, i);
+				if (!dominators.dominates(successor, block)) {
+					continue;
+				}
+				Loop loop = byHeader[successor];
+				if (loop == null) {
+					loop = new Loop(successor, function.getBlockCount());
+					loop.contained[successor] = true;
+					loop.blocks.add(successor);
+					byHeader[successor] = loop;
+					loops.add(loop);
+				}
+				if (!loop.latches.contains(block)) {
+					loop.latches.add(block);
+				}
+				addBlocks(function, loop, block);
+			}
+		}
+		Collections.sort(loops, new Comparator<Loop>() {
+			@Override
+			public int compare(Loop first, Loop second) {
+				return Integer.compare(first.blocks.size(), second.blocks.size());
+			}
+		});
+		for (int i = 0; i < loops.size(); i++) {
+			Loop loop = loops.get(i);
+			for (int j = i + 1; j < loops.size() && loop.parent == null; j++) {
+				if (loops.get(j).contains(loop.header)) {
+					loop.parent = loops.get(j);
+				}
+			}
+		}
+		for (int i = loops.size() - 1; i >= 0; i--) {
+			Loop loop = loops.get(i);
+			loop.depth = loop.parent == null ? 1 : loop.parent.depth + 1;
+		}
+	}
+
+	private static void addBlocks(IRFunction function, Loop loop, int latch) {
+		IntList worklist = new IntList();
+		if (!loop.contained[latch]) {
+			loop.contained[latch] = true;
+			loop.blocks.add(latch);
+			worklist.add(latch);
+		}
+		while (!worklist.isEmpty()) {
+			IntList predecessors = function.getPredecessors(worklist.removeAt(worklist.size() - 1));
+			for (int i = 0; i < predecessors.size(); i++) {
+				int predecessor = predecessors.get(i);
+				if (!loop.contained[predecessor]) {
+					loop.contained[predecessor] = true;
+					loop.blocks.add(predecessor);
+					worklist.add(predecessor);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Return all loops, inner loops before the loops containing them.
+	 */
+	public List<Loop> getLoops() {
+		return loops;
+	}
+
+	/**
+	 * Return the innermost loop containing the given block or null.
+	 */
+	public Loop getLoop(int block) {
+		for (Loop loop : loops) {
+			if (loop.contains(block)) {
+				return loop;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Return the preheader of the given loop: the only predecessor of the header outside the loop,
+	 * if the header is its only successor.
+	 * @return preheader or NONE if the loop has none
+	 */
+	public static int getPreheader(IRFunction function, Loop loop) {
+		int preheader = IRFunction.NONE;
+		IntList predecessors = function.getPredecessors(loop.getHeader());
+		for (int i = 0; i < predecessors.size(); i++) {
+			int predecessor = predecessors.get(i);
+			if (!loop.contains(predecessor)) {
+				if (preheader != IRFunction.NONE) {
+					return IRFunction.NONE;
+				}
+				preheader = predecessor;
+			}
+		}
+		if (preheader == IRFunction.NONE || function.getSuccessorCount(preheader) != 1) {
+			return IRFunction.NONE;
+		}
+		return preheader;
+	}
+}
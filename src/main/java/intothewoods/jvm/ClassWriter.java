@@ -0,0 +1,201 @@
+package intothewoods.jvm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal writer of java class files, supports classes with static methods only.
+ *
+ * The written class files have the version 49 (Java 5), the JVM verifies them by type inference,
+ * therefore no stack map frames are needed.
+ */
+public class ClassWriter {
+
+	public static final int VERSION = 49;
+
+	public static final int ACC_PUBLIC = 0x0001;
+	public static final int ACC_STATIC = 0x0008;
+	public static final int ACC_FINAL = 0x0010;
+	public static final int ACC_SUPER = 0x0020;
+
+	private static final int CONSTANT_UTF8 = 1;
+	private static final int CONSTANT_INTEGER = 3;
+	private static final int CONSTANT_LONG = 5;
+	private static final int CONSTANT_CLASS = 7;
+	private static final int CONSTANT_FIELD_REF = 9;
+	private static final int CONSTANT_METHOD_REF = 10;
+	private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+	private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+	private final DataOutputStream pool = new DataOutputStream(poolBytes);
+	private final Map<String, Integer> poolIndexes = new HashMap<>();
+	private int poolSize = 1;
+	private final String name;
+	private final int thisClass;
+	private final int superClass;
+	private final int sourceFile;
+	private final List<MethodWriter> methods = new ArrayList<>();
+
+	/**
+	 * Initialize a class writer.
+	 * @param name internal name of the written class (e.g. "a/b/C")
+	 * @param sourceFile name of the source file shown in stack traces
+	 */
+	public ClassWriter(String name, String sourceFile) {
+		this.name = name;
+		this.thisClass = classReference(name);
+		this.superClass = classReference("java/lang/Object");
+		this.sourceFile = utf8(sourceFile);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Add a method, its code has to be emitted via the returned writer.
+	 * @param access access flags
+	 * @param name method name
+	 * @param descriptor method descriptor
+	 * @return writer of the method code
+	 */
+	public MethodWriter addMethod(int access, String name, String descriptor) {
+		MethodWriter method = new MethodWriter(this, access, utf8(name), utf8(descriptor),
+				MethodWriter.getArgumentSize(descriptor) + ((access & ACC_STATIC) == 0 ? 1 : 0));
+		methods.add(method);
+		return method;
+	}
+
+	/**
+	 * Return the content of the class file.
+	 * @return bytes of the class file
+	 */
+	public byte[] toByteArray() {
+		int lineNumberTable = utf8("LineNumberTable");
+		int code = utf8("Code");
+		int sourceFileAttribute = utf8("SourceFile");
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeInt(0xCAFEBABE);
+			out.writeShort(0);
+			out.writeShort(VERSION);
+			out.writeShort(poolSize);
+			poolBytes.writeTo(out);
+			out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(0);
+			out.writeShort(0);
+			out.writeShort(methods.size());
+			for (MethodWriter method : methods) {
+				method.write(out, code, lineNumberTable);
+			}
+			out.writeShort(1);
+			out.writeShort(sourceFileAttribute);
+			out.writeInt(2);
+			out.writeShort(sourceFile);
+		} catch (IOException ex) {
+			throw new IllegalStateException(ex);
+		}
+		return bytes.toByteArray();
+	}
+
+	int utf8(String value) {
+		String key = CONSTANT_UTF8 + ":" + value;
+		Integer index = poolIndexes.get(key);
+		if (index == null) {
+			index = addEntry(key, 1);
+			try {
+				pool.writeByte(CONSTANT_UTF8);
+				pool.writeUTF(value);
+			} catch (IOException ex) {
+				throw new IllegalStateException(ex);
+			}
+		}
+		return index;
+	}
+
+	int classReference(String className) {
+		return reference(CONSTANT_CLASS, utf8(className), -1);
+	}
+
+	int integerConstant(int value) {
+		String key = CONSTANT_INTEGER + ":" + value;
+		Integer index = poolIndexes.get(key);
+		if (index == null) {
+			index = addEntry(key, 1);
+			try {
+				pool.writeByte(CONSTANT_INTEGER);
+				pool.writeInt(value);
+			} catch (IOException ex) {
+				throw new IllegalStateException(ex);
+			}
+		}
+		return index;
+	}
+
+	int longConstant(long value) {
+		String key = CONSTANT_LONG + ":" + value;
+		Integer index = poolIndexes.get(key);
+		if (index == null) {
+			index = addEntry(key, 2);
+			try {
+				pool.writeByte(CONSTANT_LONG);
+				pool.writeLong(value);
+			} catch (IOException ex) {
+				throw new IllegalStateException(ex);
+			}
+		}
+		return index;
+	}
+
+	int methodReference(String owner, String name, String descriptor) {
+		return reference(CONSTANT_METHOD_REF, classReference(owner), nameAndType(name, descriptor));
+	}
+
+	int fieldReference(String owner, String name, String descriptor) {
+		return reference(CONSTANT_FIELD_REF, classReference(owner), nameAndType(name, descriptor));
+	}
+
+	private int nameAndType(String name, String descriptor) {
+		return reference(CONSTANT_NAME_AND_TYPE, utf8(name), utf8(descriptor));
+	}
+
+	/**
+	 * Return the index of the pool entry consisting of the given tag and one or two pool indexes.
+	 * @param second second index or -1
+	 */
+	private int reference(int tag, int first, int second) {
+		String key = tag + ":" + first + ":" + second;
+		Integer index = poolIndexes.get(key);
+		if (index == null) {
+			index = addEntry(key, 1);
+			try {
+				pool.writeByte(tag);
+				pool.writeShort(first);
+				if (second != -1) {
+					pool.writeShort(second);
+				}
+			} catch (IOException ex) {
+				throw new IllegalStateException(ex);
+			}
+		}
+		return index;
+	}
+
+	private int addEntry(String key, int slots) {
+		if (poolSize + slots > 0xFFFF) {
+			throw new IllegalStateException("Constant pool of class " + name + " is too large");
+		}
+		int index = poolSize;
+		poolIndexes.put(key, index);
+		poolSize += slots;
+		return index;
+	}
+}
@@ -0,0 +1,569 @@
+package intothewoods.jvm;
+
+import intothewoods.analyser.Constant;
+import intothewoods.analyser.Function;
+import intothewoods.analyser.Operand;
+import intothewoods.analyser.Program;
+import intothewoods.analyser.Variable;
+import intothewoods.common.Builtin;
+import intothewoods.common.Type;
+import intothewoods.parser.ASTNode;
+import intothewoods.runtime.OakRuntime;
+import intothewoods.runtime.Pointers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static intothewoods.jvm.MethodWriter.*;
+
+/**
+ * Compiler turning an analysed program into a JVM class, every Oak function becomes a static method.
+ *
+ * All Oak values are JVM longs with the usual encoding, int and float operations convert their
+ * arguments and results inline, so that the JIT compiler of the JVM can optimize them like java code.
+ * Every method takes the JvmContext of the execution as its first argument, followed by the
+ * parameters of the function in local variable slots 1, 3, 5 and so on.
+ */
+public class JvmCompiler {
+
+	/**
+	 * Binary name of the generated class.
+	 */
+	public static final String CLASS_NAME = "intothewoods.jvm.generated.OakProgram";
+
+	/**
+	 * Name of the generated method initializing the global variables.
+	 */
+	public static final String INIT_METHOD = "$init";
+
+	private static final String CONTEXT = "intothewoods/jvm/JvmContext";
+	private static final String CONTEXT_DESCRIPTOR = "L" + CONTEXT + ";";
+	private static final String RUNTIME = "intothewoods/runtime/OakRuntime";
+
+	private final Program program;
+	private final ClassWriter writer;
+	private final List<Constant> strings = new ArrayList<>();
+	private final Map<Constant, Integer> stringIndexes = new HashMap<>();
+	private MethodWriter method;
+	private int valueSlot;
+	private int tempSlot;
+	/**
+	 * Referenced local variables of the current method.
+	 */
+	private final List<Variable> cells = new ArrayList<>();
+
+	public JvmCompiler(Program program) {
+		this.program = program;
+		this.writer = new ClassWriter(CLASS_NAME.replace('.', '/'), "oak");
+	}
+
+	/**
+	 * Compile the program.
+	 * @return compiled program, its class is loaded by a new class loader
+	 */
+	public JvmProgram compile() {
+		for (Function function : program.getFunctions()) {
+			compileFunction(function);
+		}
+		compileInit();
+		byte[] bytes = writer.toByteArray();
+		Class<?> compiledClass = new OakClassLoader().define(CLASS_NAME, bytes);
+		Function main = program.getMainFunction();
+		return new JvmProgram(compiledClass, bytes, strings, program.getGlobals().size(),
+				main == null ? null : getMethodName(main));
+	}
+
+	/**
+	 * Return the name of the method implementing the given function (functions can be overloaded).
+	 * @param function given function
+	 * @return NAME$INDEX
+	 */
+	public static String getMethodName(Function function) {
+		return function.getName() + "$" + function.getIndex();
+	}
+
+	/**
+	 * Return the descriptor of the method implementing a function with the given number of parameters.
+	 */
+	public static String getMethodDescriptor(int parameterCount) {
+		StringBuilder builder = new StringBuilder("(").append(CONTEXT_DESCRIPTOR);
+		for (int i = 0; i < parameterCount; i++) {
+			builder.append('J');
+		}
+		return builder.append(")J").toString();
+	}
+
+	private void compileFunction(Function function) {
+		startMethod(getMethodName(function), function.getParameters().size(), function.getLocals().size());
+		method.line(function.getLine());
+		for (Variable local : function.getLocals()) {
+			if (local.isReferenced()) {
+				cells.add(local);
+			}
+		}
+		for (Variable parameter : function.getParameters()) {
+			if (parameter.isReferenced()) {
+				method.loadLong(slot(parameter));
+				method.storeLong(valueSlot);
+				allocateCell(parameter);
+				writeValueSlot(parameter);
+			}
+		}
+		for (Variable variable : cells) {
+			if (!function.getParameters().contains(variable)) {
+				allocateCell(variable);
+			}
+		}
+		for (Variable variable : function.getReturnVariables()) {
+			method.pushLong(OakRuntime.defaultValue(variable.getType()));
+			write(variable);
+		}
+		compileBlock(function.getBody());
+		method.instruction(LCONST_0, 2);
+		compileReturn();
+	}
+
+	private void compileInit() {
+		startMethod(INIT_METHOD, 0, 0);
+		for (ASTNode declaration : program.getAST().getChild(0)) {
+			method.line(Program.getLine(declaration));
+			compileDeclaration(declaration);
+		}
+		method.instruction(LCONST_0, 2);
+		method.instruction(LRETURN, -2);
+	}
+
+	private void startMethod(String name, int parameterCount, int localCount) {
+		cells.clear();
+		method = writer.addMethod(ClassWriter.ACC_PUBLIC | ClassWriter.ACC_STATIC, name,
+				getMethodDescriptor(parameterCount));
+		valueSlot = 1 + localCount * 2;
+		tempSlot = valueSlot + 2;
+		method.useLocals(tempSlot + 2);
+	}
+
+	private void compileBlock(ASTNode block) {
+		for (ASTNode statement : block) {
+			method.line(Program.getLine(statement));
+			compileStatement(statement);
+		}
+	}
+
+	private void compileStatement(ASTNode statement) {
+		switch (statement.getType()) {
+			case VARIABLE_DECLARATION:
+				compileDeclaration(statement);
+				break;
+			case VARIABLE_ASSIGNMENT:
+				read(program.getOperand(statement.getChild(1)));
+				write(program.getTarget(statement));
+				break;
+			case FUNCTION_CALL:
+				compileCall(statement);
+				break;
+			case RETURN_STATEMENT:
+				if (statement.isLeaf()) {
+					method.instruction(LCONST_0, 2);
+				} else {
+					read(program.getOperand(statement.getChild(0)));
+				}
+				compileReturn();
+				break;
+			case CONDITION:
+				compileCondition(statement);
+				break;
+			case LOOP:
+				compileLoop(statement);
+				break;
+			default:
+				break;
+		}
+	}
+
+	private void compileDeclaration(ASTNode declaration) {
+		Variable variable = program.getTarget(declaration);
+		read(program.getOperand(declaration.getChild(2)));
+		if (variable.isReferenced() && variable.isGlobal()) {
+			method.storeLong(valueSlot);
+			allocateCell(variable);
+			writeValueSlot(variable);
+		} else {
+			write(variable);
+		}
+	}
+
+	private void compileCondition(ASTNode condition) {
+		Label elseLabel = new Label();
+		readBool(program.getOperand(condition.getChild(0)));
+		method.jump(IFEQ, elseLabel);
+		compileBlock(condition.getChild(1));
+		if (condition.getNumberOfChildren() > 2) {
+			Label end = new Label();
+			method.jump(GOTO, end);
+			method.mark(elseLabel);
+			compileBlock(condition.getChild(2));
+			method.mark(end);
+		} else {
+			method.mark(elseLabel);
+		}
+	}
+
+	private void compileLoop(ASTNode loop) {
+		Label check = new Label();
+		Label body = new Label();
+		method.jump(GOTO, check);
+		method.mark(body);
+		compileBlock(loop.getChild(1));
+		method.mark(check);
+		method.line(Program.getLine(loop));
+		readBool(program.getOperand(loop.getChild(0)));
+		method.jump(IFNE, body);
+	}
+
+	private void compileCall(ASTNode call) {
+		List<Operand> arguments = program.getArguments(call);
+		Variable target = program.getTarget(call);
+		Function function = program.getCalledFunction(call);
+		if (function != null) {
+			method.loadReference(0);
+			for (Operand argument : arguments) {
+				read(argument);
+			}
+			method.invokeStatic(writer.getName(), getMethodName(function), getMethodDescriptor(arguments.size()));
+			finishCall(target);
+			return;
+		}
+		Builtin builtin = program.getCalledBuiltin(call);
+		if (builtin.isGetRef()) {
+			readSlot((Variable) arguments.get(0));
+			write(target);
+			return;
+		}
+		if (!compileOperation(builtin, arguments)) {
+			method.loadReference(0);
+			method.pushInt(builtin.ordinal());
+			if (arguments.size() > 0) {
+				read(arguments.get(0));
+			} else {
+				method.instruction(LCONST_0, 2);
+			}
+			if (arguments.size() > 1) {
+				read(arguments.get(1));
+			} else {
+				method.instruction(LCONST_0, 2);
+			}
+			method.invokeVirtual(CONTEXT, "call", "(IJJ)J");
+		}
+		finishCall(target);
+		if (builtin == Builtin.FREE && arguments.get(0) instanceof Variable) {
+			method.pushLong(Pointers.INVALID);
+			write((Variable) arguments.get(0));
+		}
+	}
+
+	/**
+	 * Store the return value on the stack in the target or drop it.
+	 */
+	private void finishCall(Variable target) {
+		if (target == null) {
+			method.instruction(POP2, -2);
+		} else {
+			write(target);
+		}
+	}
+
+	/**
+	 * Emit the inline implementation of the given built in function, if it has one.
+	 * @return true if code has been emitted
+	 */
+	private boolean compileOperation(Builtin builtin, List<Operand> arguments) {
+		switch (builtin) {
+			case TO_BYTE_BOOL:
+			case TO_INT_BOOL:
+			case TO_INT_BYTE:
+			case TO_POINTER_STRING:
+			case TO_STRING_POINTER:
+				read(arguments.get(0));
+				return true;
+			case NOT:
+				read(arguments.get(0));
+				method.instruction(LCONST_1, 2);
+				method.instruction(LXOR, -2);
+				return true;
+			case AND:
+				readLongs(arguments);
+				method.instruction(LAND, -2);
+				return true;
+			case OR:
+				readLongs(arguments);
+				method.instruction(LOR, -2);
+				return true;
+			case XOR:
+				readLongs(arguments);
+				method.instruction(LXOR, -2);
+				return true;
+			case ADD_INT:
+				intOperation(arguments, IADD, false);
+				return true;
+			case SUB_INT:
+				intOperation(arguments, ISUB, false);
+				return true;
+			case MUL_INT:
+				intOperation(arguments, IMUL, false);
+				return true;
+			case ADD_BYTE:
+				intOperation(arguments, IADD, true);
+				return true;
+			case SUB_BYTE:
+				intOperation(arguments, ISUB, true);
+				return true;
+			case MUL_BYTE:
+				intOperation(arguments, IMUL, true);
+				return true;
+			case DIV_INT:
+			case MOD_INT:
+				readInt(arguments.get(0));
+				readInt(arguments.get(1));
+				method.invokeStatic(RUNTIME, builtin == Builtin.DIV_INT ? "divInt" : "modInt", "(II)I");
+				method.instruction(I2L, 1);
+				return true;
+			case LESS_BYTE:
+			case LESS_INT:
+				// the sign bit of the comparison result (-1, 0 or 1) is the result
+				readLongs(arguments);
+				method.instruction(LCMP, -3);
+				lessResult();
+				return true;
+			case EQUAL_BOOL:
+			case EQUAL_BYTE:
+			case EQUAL_INT:
+			case EQUAL_POINTER:
+				readLongs(arguments);
+				method.instruction(LCMP, -3);
+				equalResult();
+				return true;
+			case ADD_FLOAT:
+				floatOperation(arguments, FADD);
+				return true;
+			case SUB_FLOAT:
+				floatOperation(arguments, FSUB);
+				return true;
+			case MUL_FLOAT:
+				floatOperation(arguments, FMUL);
+				return true;
+			case DIV_FLOAT:
+				readFloat(arguments.get(0));
+				readFloat(arguments.get(1));
+				method.invokeStatic(RUNTIME, "divFloat", "(FF)F");
+				ofFloat();
+				return true;
+			case LESS_FLOAT:
+				// fcmpg yields 1 for NaN, so only a real less results in -1
+				readFloat(arguments.get(0));
+				readFloat(arguments.get(1));
+				method.instruction(FCMPG, -1);
+				lessResult();
+				return true;
+			case EQUAL_FLOAT:
+				// fcmpl yields -1 for NaN
+				readFloat(arguments.get(0));
+				readFloat(arguments.get(1));
+				method.instruction(FCMPL, -1);
+				equalResult();
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	private void intOperation(List<Operand> arguments, int opcode, boolean toByte) {
+		readInt(arguments.get(0));
+		readInt(arguments.get(1));
+		method.instruction(opcode, -1);
+		if (toByte) {
+			method.instruction(I2B, 0);
+		}
+		method.instruction(I2L, 1);
+	}
+
+	private void floatOperation(List<Operand> arguments, int opcode) {
+		readFloat(arguments.get(0));
+		readFloat(arguments.get(1));
+		method.instruction(opcode, -1);
+		ofFloat();
+	}
+
+	/**
+	 * Turn the comparison result on the stack into 1 if it's -1 and into 0 otherwise.
+	 */
+	private void lessResult() {
+		method.pushInt(31);
+		method.instruction(IUSHR, -1);
+		method.instruction(I2L, 1);
+	}
+
+	/**
+	 * Turn the comparison result on the stack into 1 if it's 0 and into 0 otherwise.
+	 */
+	private void equalResult() {
+		method.pushInt(1);
+		method.instruction(IAND, -1);
+		method.pushInt(1);
+		method.instruction(IXOR, -1);
+		method.instruction(I2L, 1);
+	}
+
+	private void ofFloat() {
+		method.invokeStatic("java/lang/Float", "floatToRawIntBits", "(F)I");
+		method.instruction(I2L, 1);
+	}
+
+	private void readLongs(List<Operand> arguments) {
+		read(arguments.get(0));
+		read(arguments.get(1));
+	}
+
+	private void readInt(Operand operand) {
+		read(operand);
+		method.instruction(L2I, -1);
+	}
+
+	private void readBool(Operand operand) {
+		readInt(operand);
+	}
+
+	private void readFloat(Operand operand) {
+		readInt(operand);
+		method.invokeStatic("java/lang/Float", "intBitsToFloat", "(I)F");
+	}
+
+	/**
+	 * Push the value of the given operand, loading referenced variables from their memory cell.
+	 */
+	private void read(Operand operand) {
+		if (operand instanceof Constant) {
+			Constant constant = (Constant) operand;
+			if (constant.getBytes() == null) {
+				method.pushLong(constant.getValue());
+			} else {
+				method.loadReference(0);
+				method.getField(CONTEXT, "strings", "[J");
+				method.pushInt(string(constant));
+				method.instruction(LALOAD, 0);
+			}
+			return;
+		}
+		Variable variable = (Variable) operand;
+		if (variable.isReferenced()) {
+			method.loadReference(0);
+			method.pushInt(getter(variable.getType()).ordinal());
+			readSlot(variable);
+			method.instruction(LCONST_0, 2);
+			method.invokeVirtual(CONTEXT, "call", "(IJJ)J");
+		} else {
+			readSlot(variable);
+		}
+	}
+
+	/**
+	 * Pop a value and write it to the given variable, storing it in the memory cell of referenced variables.
+	 */
+	private void write(Variable variable) {
+		if (variable.isReferenced()) {
+			method.storeLong(valueSlot);
+			writeValueSlot(variable);
+		} else {
+			writeSlot(variable);
+		}
+	}
+
+	/**
+	 * Write the value in the value slot into the memory cell of the given referenced variable.
+	 */
+	private void writeValueSlot(Variable variable) {
+		method.loadReference(0);
+		method.pushInt(setter(variable.getType()).ordinal());
+		readSlot(variable);
+		method.loadLong(valueSlot);
+		method.invokeVirtual(CONTEXT, "call", "(IJJ)J");
+		method.instruction(POP2, -2);
+	}
+
+	/**
+	 * Free the cells of the referenced local variables and return the value on top of the stack.
+	 */
+	private void compileReturn() {
+		for (Variable variable : cells) {
+			method.loadReference(0);
+			method.pushInt(Builtin.FREE.ordinal());
+			readSlot(variable);
+			method.instruction(LCONST_0, 2);
+			method.invokeVirtual(CONTEXT, "call", "(IJJ)J");
+			method.instruction(POP2, -2);
+		}
+		method.instruction(LRETURN, -2);
+	}
+
+	/**
+	 * Allocate the memory cell of the given referenced variable and store the pointer in its slot.
+	 */
+	private void allocateCell(Variable variable) {
+		method.loadReference(0);
+		method.pushInt(Builtin.MALLOC.ordinal());
+		method.pushLong(variable.getType().getSize());
+		method.instruction(LCONST_0, 2);
+		method.invokeVirtual(CONTEXT, "call", "(IJJ)J");
+		writeSlot(variable);
+	}
+
+	/**
+	 * Push the content of the slot of the variable, the pointer to the cell for referenced variables.
+	 */
+	private void readSlot(Variable variable) {
+		if (variable.isGlobal()) {
+			method.loadReference(0);
+			method.getField(CONTEXT, "globals", "[J");
+			method.pushInt(variable.getIndex());
+			method.instruction(LALOAD, 0);
+		} else {
+			method.loadLong(slot(variable));
+		}
+	}
+
+	private void writeSlot(Variable variable) {
+		if (variable.isGlobal()) {
+			method.storeLong(tempSlot);
+			method.loadReference(0);
+			method.getField(CONTEXT, "globals", "[J");
+			method.pushInt(variable.getIndex());
+			method.loadLong(tempSlot);
+			method.instruction(LASTORE, -4);
+		} else {
+			method.storeLong(slot(variable));
+		}
+	}
+
+	private int slot(Variable variable) {
+		return 1 + variable.getIndex() * 2;
+	}
+
+	private int string(Constant constant) {
+		Integer index = stringIndexes.get(constant);
+		if (index == null) {
+			index = strings.size();
+			strings.add(constant);
+			stringIndexes.put(constant, index);
+		}
+		return index;
+	}
+
+	private static Builtin getter(Type type) {
+		return Builtin.valueOf("GET_" + type.name());
+	}
+
+	private static Builtin setter(Type type) {
+		return Builtin.valueOf("SET_" + type.name());
+	}
+}
@@ -0,0 +1,41 @@
+package intothewoods.jvm;
+
+import intothewoods.common.Builtin;
+import intothewoods.runtime.OakRuntime;
+import intothewoods.runtime.OakRuntimeException;
+
+/**
+ * State of an execution of a compiled program, passed as the first argument to every generated method.
+ *
+ * Its members are public because the generated class is loaded by another class loader.
+ */
+public final class JvmContext {
+
+	private static final Builtin[] BUILTINS = Builtin.values();
+
+	/**
+	 * Values of the global variables.
+	 */
+	public final long[] globals;
+
+	/**
+	 * Pointers to the heap allocated string literals, by literal index.
+	 */
+	public final long[] strings;
+
+	private final OakRuntime runtime;
+
+	public JvmContext(OakRuntime runtime, long[] globals, long[] strings) {
+		this.runtime = runtime;
+		this.globals = globals;
+		this.strings = strings;
+	}
+
+	/**
+	 * Call the built in function with the given ordinal.
+	 * @see OakRuntime#call(Builtin, long, long)
+	 */
+	public long call(int builtin, long first, long second) throws OakRuntimeException {
+		return runtime.call(BUILTINS[builtin], first, second);
+	}
+}
@@ -0,0 +1,186 @@
+package intothewoods.jvm;
+
+import intothewoods.analyser.Constant;
+import intothewoods.analyser.Function;
+import intothewoods.runtime.ExitException;
+import intothewoods.runtime.OakRuntime;
+import intothewoods.runtime.OakRuntimeException;
+import intothewoods.runtime.ProgramThread;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Oak program compiled into a loaded JVM class, it can be run multiple times.
+ */
+public class JvmProgram {
+
+	/**
+	 * Size of the Java stack of the thread running the program, it limits the recursion depth.
+	 */
+	public static final long JAVA_STACK_SIZE = 1L << 28;
+
+	private final Class<?> compiledClass;
+	private final byte[] classFile;
+	private final List<Constant> strings;
+	private final int globalCount;
+	private final String mainMethod;
+
+	/**
+	 * Initialize a compiled program.
+	 * @param compiledClass loaded class
+	 * @param classFile content of the class file
+	 * @param strings string literals, by literal index
+	 * @param globalCount number of global variables
+	 * @param mainMethod name of the method implementing the main function or null
+	 */
+	public JvmProgram(Class<?> compiledClass, byte[] classFile, List<Constant> strings, int globalCount,
+	                  String mainMethod) {
+		this.compiledClass = compiledClass;
+		this.classFile = classFile;
+		this.strings = strings;
+		this.globalCount = globalCount;
+		this.mainMethod = mainMethod;
+	}
+
+	public Class<?> getCompiledClass() {
+		return compiledClass;
+	}
+
+	public byte[] getClassFile() {
+		return classFile;
+	}
+
+	/**
+	 * Run the program: initialize the global variables and call the main function.
+	 *
+	 * The program runs on its own thread with a Java stack of JAVA_STACK_SIZE bytes, as every Oak call
+	 * is a call of a compiled method.
+	 *
+	 * @param runtime runtime used for the built in functions
+	 * @return exit code (the return value of main, if it returns an int, or the argument of exit)
+	 * @throws OakRuntimeException the program failed
+	 */
+	public int run(final OakRuntime runtime) throws OakRuntimeException {
+		if (mainMethod == null) {
+			throw new OakRuntimeException("Program has no main function");
+		}
+		return ProgramThread.run("oak-jvm", JAVA_STACK_SIZE, new Callable<Integer>() {
+			@Override
+			public Integer call() throws OakRuntimeException {
+				return execute(runtime);
+			}
+		});
+	}
+
+	private int execute(OakRuntime runtime) throws OakRuntimeException {
+		try {
+			JvmContext context = createContext(runtime, new long[globalCount]);
+			invoke(JvmCompiler.INIT_METHOD, context);
+			return (int) invoke(mainMethod, context);
+		} catch (ExitException ex) {
+			return ex.getExitCode();
+		} finally {
+			runtime.flush();
+		}
+	}
+
+	/**
+	 * Create the context of an execution, allocating the string literals on the heap of the runtime.
+	 * @param runtime runtime used for the built in functions
+	 * @param globals storage of the global variables
+	 * @return new context
+	 * @throws OakRuntimeException out of memory
+	 */
+	public JvmContext createContext(OakRuntime runtime, long[] globals) throws OakRuntimeException {
+		long[] stringPointers = new long[strings.size()];
+		for (int i = 0; i < stringPointers.length; i++) {
+			stringPointers[i] = runtime.getHeap().allocateBytes(strings.get(i).getBytes());
+		}
+		return new JvmContext(runtime, globals, stringPointers);
+	}
+
+	/**
+	 * Return a handle calling the compiled method of the given function with the given context.
+	 * @param function given function
+	 * @param context context of the execution
+	 * @return handle of the type (long[] values, int base)long, the arguments are values[base] to
+	 * values[base + parameter count - 1]
+	 */
+	public MethodHandle getFunctionHandle(Function function, JvmContext context) {
+		int parameterCount = function.getParameters().size();
+		Class<?>[] parameterTypes = new Class<?>[parameterCount];
+		Arrays.fill(parameterTypes, long.class);
+		try {
+			MethodHandle method = MethodHandles.publicLookup().findStatic(compiledClass,
+					JvmCompiler.getMethodName(function),
+					MethodType.methodType(long.class, JvmContext.class).appendParameterTypes(parameterTypes))
+					.bindTo(context);
+			MethodHandle argument = MethodHandles.lookup().findStatic(JvmProgram.class, "argument",
+					MethodType.methodType(long.class, int.class, long[].class, int.class));
+			int[] reorder = new int[parameterCount * 2];
+			for (int i = parameterCount - 1; i >= 0; i--) {
+				method = MethodHandles.collectArguments(method, i, MethodHandles.insertArguments(argument, 0, i));
+				reorder[i * 2 + 1] = 1;
+			}
+			MethodType type = MethodType.methodType(long.class, long[].class, int.class);
+			if (parameterCount == 0) {
+				return MethodHandles.dropArguments(method, 0, long[].class, int.class);
+			}
+			return MethodHandles.permuteArguments(method, type, reorder);
+		} catch (NoSuchMethodException | IllegalAccessException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	private static long argument(int index, long[] values, int base) {
+		return values[base + index];
+	}
+
+	private long invoke(String name, JvmContext context) throws OakRuntimeException {
+		Throwable cause;
+		try {
+			Method method = compiledClass.getMethod(name, JvmContext.class);
+			return (Long) method.invoke(null, context);
+		} catch (InvocationTargetException ex) {
+			cause = ex.getCause();
+		} catch (NoSuchMethodException | IllegalAccessException ex) {
+			throw new IllegalStateException(ex);
+		}
+		if (cause instanceof StackOverflowError) {
+			OakRuntimeException overflow = new OakRuntimeException("Stack overflow");
+			overflow.setStackTrace(cause.getStackTrace());
+			throw locate(overflow);
+		}
+		if (cause instanceof ExitException) {
+			throw (ExitException) cause;
+		}
+		if (cause instanceof OakRuntimeException) {
+			throw locate((OakRuntimeException) cause);
+		}
+		if (cause instanceof RuntimeException) {
+			throw (RuntimeException) cause;
+		}
+		throw (Error) cause;
+	}
+
+	/**
+	 * Add the line of the innermost generated method to the given exception.
+	 * @param exception exception thrown by compiled code, except exit exceptions
+	 * @return exception with line or the given exception if it has a line or wasn't thrown in compiled code
+	 */
+	public OakRuntimeException locate(OakRuntimeException exception) {
+		for (StackTraceElement element : exception.getStackTrace()) {
+			if (element.getClassName().equals(compiledClass.getName())) {
+				return OakRuntimeException.atLine(exception, element.getLineNumber());
+			}
+		}
+		return exception;
+	}
+}
@@ -0,0 +1,18 @@
+package intothewoods.jvm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Position in the code of a method, used as a jump target.
+ */
+public class Label {
+
+	int position = -1;
+
+	/**
+	 * Pairs of the position of a jump instruction and the position of its 16 bit offset,
+	 * that are patched when the label is marked.
+	 */
+	final List<int[]> fixups = new ArrayList<>();
+}
@@ -0,0 +1,313 @@
+package intothewoods.jvm;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Writer of the code of a single method, created by ClassWriter.addMethod.
+ *
+ * It tracks the operand stack depth of the emitted instructions to calculate the maximum
+ * stack size, the code has to be emitted in an order that keeps the stack depth at every
+ * jump target consistent with the linear order.
+ */
+public class MethodWriter {
+
+	public static final int ICONST_M1 = 0x02;
+	public static final int LCONST_0 = 0x09;
+	public static final int LCONST_1 = 0x0a;
+	public static final int BIPUSH = 0x10;
+	public static final int SIPUSH = 0x11;
+	public static final int LDC = 0x12;
+	public static final int LDC_W = 0x13;
+	public static final int LDC2_W = 0x14;
+	public static final int LLOAD = 0x16;
+	public static final int ALOAD = 0x19;
+	public static final int LALOAD = 0x2f;
+	public static final int LSTORE = 0x37;
+	public static final int LASTORE = 0x50;
+	public static final int POP2 = 0x58;
+	public static final int IADD = 0x60;
+	public static final int FADD = 0x62;
+	public static final int ISUB = 0x64;
+	public static final int FSUB = 0x66;
+	public static final int IMUL = 0x68;
+	public static final int FMUL = 0x6a;
+	public static final int IUSHR = 0x7c;
+	public static final int IAND = 0x7e;
+	public static final int LAND = 0x7f;
+	public static final int LOR = 0x81;
+	public static final int IXOR = 0x82;
+	public static final int LXOR = 0x83;
+	public static final int I2L = 0x85;
+	public static final int L2I = 0x88;
+	public static final int I2B = 0x91;
+	public static final int LCMP = 0x94;
+	public static final int FCMPL = 0x95;
+	public static final int FCMPG = 0x96;
+	public static final int IFEQ = 0x99;
+	public static final int IFNE = 0x9a;
+	public static final int GOTO = 0xa7;
+	public static final int LRETURN = 0xad;
+	public static final int GETFIELD = 0xb4;
+	public static final int INVOKEVIRTUAL = 0xb6;
+	public static final int INVOKESTATIC = 0xb8;
+	public static final int WIDE = 0xc4;
+
+	private final ClassWriter owner;
+	private final int access;
+	private final int name;
+	private final int descriptor;
+	private byte[] code = new byte[256];
+	private int size = 0;
+	private int stack = 0;
+	private int maxStack = 0;
+	private int maxLocals;
+	private int[] lineNumbers = new int[32];
+	private int lineNumberCount = 0;
+
+	MethodWriter(ClassWriter owner, int access, int name, int descriptor, int argumentSize) {
+		this.owner = owner;
+		this.access = access;
+		this.name = name;
+		this.descriptor = descriptor;
+		this.maxLocals = argumentSize;
+	}
+
+	/**
+	 * Emit an instruction without operands.
+	 * @param opcode opcode of the instruction
+	 * @param stackChange change of the operand stack size (in slots)
+	 */
+	public void instruction(int opcode, int stackChange) {
+		writeByte(opcode);
+		changeStack(stackChange);
+	}
+
+	public void pushInt(int value) {
+		if (value >= -1 && value <= 5) {
+			instruction(ICONST_M1 + value + 1, 1);
+		} else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+			writeByte(BIPUSH);
+			writeByte(value);
+			changeStack(1);
+		} else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+			writeByte(SIPUSH);
+			writeShort(value);
+			changeStack(1);
+		} else {
+			int index = owner.integerConstant(value);
+			if (index <= 0xFF) {
+				writeByte(LDC);
+				writeByte(index);
+			} else {
+				writeByte(LDC_W);
+				writeShort(index);
+			}
+			changeStack(1);
+		}
+	}
+
+	public void pushLong(long value) {
+		if (value == 0 || value == 1) {
+			instruction(LCONST_0 + (int) value, 2);
+		} else {
+			writeByte(LDC2_W);
+			writeShort(owner.longConstant(value));
+			changeStack(2);
+		}
+	}
+
+	public void loadReference(int local) {
+		localInstruction(ALOAD, local, 1, 1);
+	}
+
+	public void loadLong(int local) {
+		localInstruction(LLOAD, local, 2, 2);
+	}
+
+	public void storeLong(int local) {
+		localInstruction(LSTORE, local, 2, -2);
+	}
+
+	/**
+	 * Emit a getfield instruction.
+	 * @param owner internal name of the class declaring the field
+	 * @param name field name
+	 * @param descriptor field descriptor
+	 */
+	public void getField(String owner, String name, String descriptor) {
+		writeByte(GETFIELD);
+		writeShort(this.owner.fieldReference(owner, name, descriptor));
+		changeStack(getTypeSize(descriptor, 0) - 1);
+	}
+
+	public void invokeStatic(String owner, String name, String descriptor) {
+		invoke(INVOKESTATIC, owner, name, descriptor);
+	}
+
+	public void invokeVirtual(String owner, String name, String descriptor) {
+		invoke(INVOKEVIRTUAL, owner, name, descriptor);
+	}
+
+	private void invoke(int opcode, String owner, String name, String descriptor) {
+		writeByte(opcode);
+		writeShort(this.owner.methodReference(owner, name, descriptor));
+		int returnSize = getTypeSize(descriptor, descriptor.indexOf(')') + 1);
+		changeStack(returnSize - getArgumentSize(descriptor) - (opcode == INVOKESTATIC ? 0 : 1));
+	}
+
+	/**
+	 * Emit a goto, ifeq or ifne instruction.
+	 * @param opcode opcode of the jump
+	 * @param target jump target, marked before or after this instruction
+	 */
+	public void jump(int opcode, Label target) {
+		int position = size;
+		writeByte(opcode);
+		int offsetPosition = size;
+		writeShort(0);
+		if (target.position == -1) {
+			target.fixups.add(new int[]{position, offsetPosition});
+		} else {
+			writeOffset(offsetPosition, target.position - position);
+		}
+		changeStack(opcode == GOTO ? 0 : -1);
+	}
+
+	/**
+	 * Mark the current code position as the position of the given label.
+	 */
+	public void mark(Label label) {
+		label.position = size;
+		for (int[] fixup : label.fixups) {
+			writeOffset(fixup[1], size - fixup[0]);
+		}
+		label.fixups.clear();
+	}
+
+	/**
+	 * Set the source line of the following instructions.
+	 */
+	public void line(int line) {
+		if (line <= 0) {
+			return;
+		}
+		if (lineNumberCount > 0 && lineNumbers[lineNumberCount * 2 - 2] == size) {
+			lineNumberCount--;
+		} else if (lineNumberCount > 0 && lineNumbers[lineNumberCount * 2 - 1] == line) {
+			return;
+		}
+		if (lineNumberCount * 2 == lineNumbers.length) {
+			lineNumbers = Arrays.copyOf(lineNumbers, lineNumbers.length * 2);
+		}
+		lineNumbers[lineNumberCount * 2] = size;
+		lineNumbers[lineNumberCount * 2 + 1] = line;
+		lineNumberCount++;
+	}
+
+	/**
+	 * Ensure that the method has at least the given number of local variable slots.
+	 */
+	public void useLocals(int count) {
+		maxLocals = Math.max(maxLocals, count);
+	}
+
+	public int getCodeSize() {
+		return size;
+	}
+
+	void write(DataOutputStream out, int codeAttribute, int lineNumberTableAttribute) throws IOException {
+		if (size > 0xFFFF) {
+			throw new IllegalStateException("Method code is too large");
+		}
+		out.writeShort(access);
+		out.writeShort(name);
+		out.writeShort(descriptor);
+		out.writeShort(1);
+		out.writeShort(codeAttribute);
+		int lineNumberTableLength = 2 + lineNumberCount * 4;
+		out.writeInt(12 + size + 6 + lineNumberTableLength);
+		out.writeShort(maxStack);
+		out.writeShort(maxLocals);
+		out.writeInt(size);
+		out.write(code, 0, size);
+		out.writeShort(0);
+		out.writeShort(1);
+		out.writeShort(lineNumberTableAttribute);
+		out.writeInt(lineNumberTableLength);
+		out.writeShort(lineNumberCount);
+		for (int i = 0; i < lineNumberCount * 2; i++) {
+			out.writeShort(lineNumbers[i]);
+		}
+	}
+
+	private void localInstruction(int opcode, int local, int slots, int stackChange) {
+		if (local <= 0xFF) {
+			writeByte(opcode);
+			writeByte(local);
+		} else {
+			writeByte(WIDE);
+			writeByte(opcode);
+			writeShort(local);
+		}
+		useLocals(local + slots);
+		changeStack(stackChange);
+	}
+
+	private void changeStack(int change) {
+		stack += change;
+		maxStack = Math.max(maxStack, stack);
+	}
+
+	private void writeOffset(int position, int offset) {
+		if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+			throw new IllegalStateException("Jump offset " + offset + " is too large");
+		}
+		code[position] = (byte) (offset >> 8);
+		code[position + 1] = (byte) offset;
+	}
+
+	private void writeByte(int value) {
+		if (size == code.length) {
+			code = Arrays.copyOf(code, code.length * 2);
+		}
+		code[size++] = (byte) value;
+	}
+
+	private void writeShort(int value) {
+		writeByte(value >> 8);
+		writeByte(value);
+	}
+
+	/**
+	 * Return the number of local variable slots of the arguments described by the given method descriptor.
+	 */
+	static int getArgumentSize(String descriptor) {
+		int result = 0;
+		int i = 1;
+		while (descriptor.charAt(i) != ')') {
+			result += getTypeSize(descriptor, i);
+			while (descriptor.charAt(i) == '[') {
+				i++;
+			}
+			i = descriptor.charAt(i) == 'L' ? descriptor.indexOf(';', i) + 1 : i + 1;
+		}
+		return result;
+	}
+
+	/**
+	 * Return the number of slots of the type that starts at the given position of the descriptor.
+	 */
+	private static int getTypeSize(String descriptor, int position) {
+		switch (descriptor.charAt(position)) {
+			case 'V':
+				return 0;
+			case 'J':
+			case 'D':
+				return 2;
+			default:
+				return 1;
+		}
+	}
+}
@@ -0,0 +1,21 @@
+package intothewoods.jvm;
+
+/**
+ * Class loader for classes generated from Oak programs, every compiled program gets its own loader.
+ */
+public class OakClassLoader extends ClassLoader {
+
+	public OakClassLoader() {
+		super(OakClassLoader.class.getClassLoader());
+	}
+
+	/**
+	 * Define a new class.
+	 * @param name binary name of the class (e.g. "a.b.C")
+	 * @param bytes content of the class file
+	 * @return defined class
+	 */
+	public Class<?> define(String name, byte[] bytes) {
+		return defineClass(name, bytes, 0, bytes.length);
+	}
+}
@@ -0,0 +1,141 @@
+package intothewoods.mips;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Fills the delay slots of the branches and jumps (the instruction after a branch or jump is executed
+ * before the control transfer takes effect).
+ *
+ * An instruction from before the branch (in the same basic block, at most WINDOW instructions back) is
+ * moved into the slot if it doesn't depend on the instructions it's moved across and doesn't change the
+ * operands of the branch. Unconditional jumps whose slot stays empty get a copy of the first instruction
+ * of their target instead and jump behind it. The remaining slots get a nop. Instructions that the code
+ * generator already placed in a slot (see MipsInstruction.slot) are kept.
+ */
+public class DelaySlotFiller {
+
+	static final int WINDOW = 8;
+
+	private DelaySlotFiller() {
+	}
+
+	/**
+	 * Fill the delay slots of the given code.
+	 * @param code code without delay slots (except the ones placed by the code generator)
+	 * @param labelPrefix prefix of the labels added behind copied jump targets
+	 * @return code with a delay slot after every branch and jump
+	 */
+	public static List<MipsInstruction> fill(List<MipsInstruction> code, String labelPrefix) {
+		List<MipsInstruction> result = new ArrayList<>(code.size() + code.size() / 4);
+		int barrier = 0;
+		for (int i = 0; i < code.size(); i++) {
+			MipsInstruction instruction = code.get(i);
+			if (!instruction.isControlTransfer()) {
+				result.add(instruction);
+				continue;
+			}
+			if (i + 1 < code.size() && code.get(i + 1).isDelaySlot()) {
+				result.add(instruction);
+				result.add(code.get(++i));
+			} else {
+				int candidate = findCandidate(result, barrier, instruction);
+				if (candidate >= 0) {
+					MipsInstruction moved = result.remove(candidate);
+					result.add(instruction);
+					result.add(moved.asDelaySlot());
+				} else {
+					result.add(instruction);
+					result.add(MipsInstruction.slot("nop"));
+				}
+			}
+			barrier = result.size();
+		}
+		fillFromTargets(result, labelPrefix);
+		return result;
+	}
+
+	private static int findCandidate(List<MipsInstruction> code, int barrier, MipsInstruction branch) {
+		for (int i = code.size() - 1; i >= Math.max(barrier, code.size() - WINDOW); i--) {
+			MipsInstruction candidate = code.get(i);
+			if (candidate.isLabel() || candidate.isControlTransfer() || "syscall".equals(candidate.getOpcode())) {
+				return -1;
+			}
+			if (candidate.isMovable() && fitsSlot(candidate, branch)
+					&& isIndependent(candidate, code.subList(i + 1, code.size()))) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Checks whether the instruction doesn't change the operands of the branch. A jal writes the return
+	 * address before the slot is executed.
+	 */
+	private static boolean fitsSlot(MipsInstruction instruction, MipsInstruction branch) {
+		if ("jal".equals(branch.getOpcode())) {
+			return !instruction.getReads().contains("$ra") && !instruction.getWrites().contains("$ra");
+		}
+		return Collections.disjoint(instruction.getWrites(), branch.getReads());
+	}
+
+	/**
+	 * Checks whether the instruction can be moved behind the given instructions.
+	 */
+	static boolean isIndependent(MipsInstruction instruction, List<MipsInstruction> others) {
+		Set<String> reads = instruction.getReads();
+		Set<String> writes = instruction.getWrites();
+		for (MipsInstruction other : others) {
+			if (!Collections.disjoint(writes, other.getReads()) || !Collections.disjoint(writes, other.getWrites())
+					|| !Collections.disjoint(reads, other.getWrites())
+					|| (instruction.writesMemory() && (other.readsMemory() || other.writesMemory()))
+					|| (instruction.readsMemory() && other.writesMemory())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Fill the empty slots of unconditional jumps with the first instruction of their targets.
+	 */
+	private static void fillFromTargets(List<MipsInstruction> code, String labelPrefix) {
+		int labelCount = 0;
+		for (int i = 0; i + 1 < code.size(); i++) {
+			MipsInstruction jump = code.get(i);
+			if (!"j".equals(jump.getOpcode()) || !"nop".equals(code.get(i + 1).getOpcode())) {
+				continue;
+			}
+			int first = indexOfLabel(code, jump.getTarget());
+			if (first < 0) {
+				continue;
+			}
+			while (first < code.size() && code.get(first).isLabel()) {
+				first++;
+			}
+			if (first == code.size() || !code.get(first).isMovable() || code.get(first).isDelaySlot()) {
+				continue;
+			}
+			String label = labelPrefix + "_d" + labelCount++;
+			MipsInstruction copy = code.get(first);
+			code.add(first + 1, MipsInstruction.label(label));
+			if (first < i) {
+				i++;
+			}
+			code.set(i, jump.withOperand(0, label));
+			code.set(i + 1, copy.asDelaySlot());
+		}
+	}
+
+	private static int indexOfLabel(List<MipsInstruction> code, String label) {
+		for (int i = 0; i < code.size(); i++) {
+			if (code.get(i).isLabel() && code.get(i).getLabel().equals(label)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,1194 @@
+package intothewoods.mips;
+
+import intothewoods.backend.AssemblyWriter;
+import intothewoods.backend.GraphColoring;
+import intothewoods.backend.InterferenceGraph;
+import intothewoods.backend.ParallelMoves;
+import intothewoods.backend.PeepholeOptimizer;
+import intothewoods.backend.RegisterAllocation;
+import intothewoods.common.Builtin;
+import intothewoods.common.Type;
+import intothewoods.ir.IRFunction;
+import intothewoods.ir.IROpcode;
+import intothewoods.ir.IRProgram;
+import intothewoods.ir.IntList;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Compiler turning a program in SSA form into 32 bit MIPS assembly for the MARS and SPIM simulators, the
+ * runtime oak_runtime.s is included in the generated code. The code uses the branch delay slots, so the
+ * simulators have to run it with delayed branching (see HEADER).
+ *
+ * Values live in the registers chosen by the graph coloring allocator or in spill slots of the stack frame,
+ * v0, v1, t8 and t9 are scratch registers of the code generator. Pointers and strings occupy two registers,
+ * the address of their first and of their last byte. Oak functions take their first four argument words in
+ * a0 to a3 and the others in the outgoing argument area of the caller's frame and return their result in v0
+ * (and v1). The built in functions that aren't inlined are routines of the runtime that take the line of the
+ * call in t9, for error messages. gp points to oak_data, which holds the stack limit and the globals.
+ *
+ * Range checks are inlined and branch to out of line jumps to oak_fail, instructions flagged with UNCHECKED
+ * skip them. Allocations flagged with STACK get a part of the stack frame.
+ */
+public class MipsCompiler {
+
+	public static final String RUNTIME = "oak_runtime.s";
+
+	public static final String HEADER = "# Run with delayed branching: java -jar Mars.jar db nc FILE"
+			+ " or spim -delayed_branches -file FILE\n";
+
+	static final int ZERO = 0;
+	static final int V0 = 2;
+	static final int V1 = 3;
+	static final int A0 = 4;
+	static final int A1 = 5;
+	static final int A2 = 6;
+	static final int A3 = 7;
+	static final int T0 = 8;
+	static final int T1 = 9;
+	static final int T2 = 10;
+	static final int T3 = 11;
+	static final int T4 = 12;
+	static final int T5 = 13;
+	static final int T6 = 14;
+	static final int T7 = 15;
+	static final int S0 = 16;
+	static final int S1 = 17;
+	static final int S2 = 18;
+	static final int S3 = 19;
+	static final int S4 = 20;
+	static final int S5 = 21;
+	static final int S6 = 22;
+	static final int S7 = 23;
+	static final int T8 = 24;
+	static final int T9 = 25;
+	static final int SP = 29;
+	static final int FP = 30;
+	static final int RA = 31;
+
+	private static final String[] NAMES = {"$zero", "$at", "$v0", "$v1", "$a0", "$a1", "$a2", "$a3", "$t0", "$t1",
+			"$t2", "$t3", "$t4", "$t5", "$t6", "$t7", "$s0", "$s1", "$s2", "$s3", "$s4", "$s5", "$s6", "$s7", "$t8",
+			"$t9", "$k0", "$k1", "$gp", "$sp", "$fp", "$ra"};
+
+	/**
+	 * Allocatable registers that calls clobber, those that aren't argument registers first.
+	 */
+	static final int[] CALLER_SAVED = {T0, T1, T2, T3, T4, T5, T6, T7, A3, A2, A1, A0};
+	static final int[] CALLEE_SAVED = {S0, S1, S2, S3, S4, S5, S6, S7, FP};
+	static final int ARGUMENT_REGISTERS = 4;
+
+	/**
+	 * Built in functions implemented by the runtime, the others are inlined.
+	 */
+	static final Set<Builtin> RUNTIME_BUILTINS = EnumSet.of(Builtin.TO_INT_FLOAT, Builtin.ROUND, Builtin.FLOOR,
+			Builtin.TO_STRING_BYTE, Builtin.TO_STRING_INT, Builtin.TO_STRING_FLOAT, Builtin.EQUAL_STRING,
+			Builtin.MALLOC, Builtin.FREE, Builtin.CLONE_MEM, Builtin.COPY_MEM, Builtin.APPEND_POINTER,
+			Builtin.APPEND_STRING, Builtin.PRINT, Builtin.PRINT_ERR, Builtin.READ_BYTE, Builtin.READ_STRING,
+			Builtin.EXIT);
+
+	/**
+	 * Failure kinds of oak_fail, see the runtime.
+	 */
+	private static final int FAIL_OFFSET = 0;
+	private static final int FAIL_INVALID_POINTER = 1;
+	private static final int FAIL_BYTE = 2;
+	private static final int FAIL_DIVISION = 4;
+	private static final int FAIL_ASSERTION = 5;
+	private static final int FAIL_ASSERTION_MESSAGE = 6;
+	private static final int FAIL_TOO_SMALL = 12;
+
+	/**
+	 * Size of the stack below the stack limit, as (size >> 16).
+	 */
+	private static final int STACK_SIZE = 0x80;
+
+	private final IRProgram program;
+	private final StringBuilder output;
+	private final MoveEmitter moveEmitter = new MoveEmitter();
+	private final PeepholeOptimizer<MipsInstruction> peephole = MipsPeephole.create();
+	private final int[] globalOffsets;
+	private IRFunction function;
+	private String functionLabel;
+	private InterferenceGraph graph;
+	private GraphColoring coloring;
+	private List<Integer> savedRegisters;
+	private boolean calls;
+	private int outgoingSize;
+	private int stackAreaOffset;
+	private int[] stackOffsets;
+	private int stackAreaSize;
+	private int frameSize;
+	private List<MipsInstruction> code;
+	private List<MipsInstruction> stubs;
+	private int labelCount;
+
+	public MipsCompiler(IRProgram program) {
+		this(program, new StringBuilder());
+	}
+
+	private MipsCompiler(IRProgram program, StringBuilder output) {
+		this.program = program;
+		this.output = output;
+		Type[] globalTypes = program.getGlobalTypes();
+		this.globalOffsets = new int[globalTypes.length + 1];
+		globalOffsets[0] = 4;
+		for (int i = 0; i < globalTypes.length; i++) {
+			globalOffsets[i + 1] = globalOffsets[i] + 4 * getWords(globalTypes[i]);
+		}
+	}
+
+	/**
+	 * Compile the program.
+	 * @return assembly code, including the runtime
+	 */
+	public String compile() {
+		for (AssemblyWriter.Part part : getParts()) {
+			part.emit(output);
+		}
+		return output.toString();
+	}
+
+	/**
+	 * Compile the program, the functions in parallel, and write the assembly code to the given channel.
+	 * The code is the same as the one returned by compile.
+	 * @param threads number of functions compiled at once
+	 */
+	public void compile(GatheringByteChannel channel, int threads) throws IOException {
+		try (AssemblyWriter writer = new AssemblyWriter(channel, threads)) {
+			for (AssemblyWriter.Part part : getParts()) {
+				writer.add(part);
+			}
+			writer.finish();
+		}
+	}
+
+	/**
+	 * Return the parts of the assembly code: main, the functions, each compiled by its own compiler, and the
+	 * runtime with the data.
+	 */
+	private List<AssemblyWriter.Part> getParts() {
+		List<AssemblyWriter.Part> parts = new ArrayList<>();
+		parts.add(new AssemblyWriter.Part() {
+			@Override
+			public void emit(StringBuilder output) {
+				output.append(HEADER).append("\t.text\n\t.globl main\n");
+				new MipsCompiler(program, output).compileEntry();
+			}
+		});
+		parts.add(getFunctionPart(program.getInitialization(), "oak_init"));
+		for (IRFunction candidate : program.getFunctions()) {
+			if (candidate != null) {
+				parts.add(getFunctionPart(candidate, getFunctionLabel(candidate.getIndex())));
+			}
+		}
+		parts.add(new AssemblyWriter.Part() {
+			@Override
+			public void emit(StringBuilder output) {
+				output.append(readRuntime());
+				new MipsCompiler(program, output).compileData();
+			}
+		});
+		return parts;
+	}
+
+	private AssemblyWriter.Part getFunctionPart(final IRFunction function, final String label) {
+		return new AssemblyWriter.Part() {
+			@Override
+			public void emit(StringBuilder output) {
+				new MipsCompiler(program, output).compileFunction(function, label);
+			}
+		};
+	}
+
+	private static String getFunctionLabel(int function) {
+		return "oak_f" + function;
+	}
+
+	private static String readRuntime() {
+		try (InputStream input = MipsCompiler.class.getResourceAsStream(RUNTIME)) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			for (int length = input.read(buffer); length >= 0; length = input.read(buffer)) {
+				bytes.write(buffer, 0, length);
+			}
+			return bytes.toString("ISO-8859-1");
+		} catch (IOException ex) {
+			throw new IllegalStateException("Can't read the runtime", ex);
+		}
+	}
+
+	/**
+	 * Compile main: set up gp and the stack limit, initialize the globals, call the main function and exit
+	 * with its result.
+	 */
+	private void compileEntry() {
+		IRFunction main = program.getFunction(program.getMainFunction());
+		code = new ArrayList<>();
+		code.add(MipsInstruction.label("main"));
+		emit("la", "$gp", "oak_data");
+		emit("addiu", "$t9", "$zero", "-8");
+		emit("and", "$sp", "$sp", "$t9");
+		emit("lui", "$t9", Integer.toString(STACK_SIZE));
+		emit("subu", "$t9", "$sp", "$t9");
+		emit("sw", "$t9", "0($gp)");
+		emit("jal", "oak_start");
+		emit("jal", "oak_init");
+		emit("jal", getFunctionLabel(main.getIndex()));
+		emit("move", "$a0", main.getReturnType() == Type.VOID ? "$zero" : "$v0");
+		emit("ori", "$v0", "$zero", "17");
+		emit("syscall");
+		appendCode(DelaySlotFiller.fill(code, "main"));
+	}
+
+	private void compileData() {
+		output.append("\t.data\n\t.align 2\noak_data:\n\t.word 0\n");
+		if (globalOffsets[globalOffsets.length - 1] > 4) {
+			output.append("\t.space ").append(globalOffsets[globalOffsets.length - 1] - 4).append('\n');
+		}
+		for (int i = 0; i < program.getStrings().size(); i++) {
+			output.append(getStringLabel(i)).append(":\n");
+			byte[] bytes = program.getStrings().get(i).getBytes();
+			for (int j = 0; j < bytes.length; j += 16) {
+				output.append("\t.byte ");
+				for (int k = j; k < Math.min(bytes.length, j + 16); k++) {
+					output.append(k > j ? ", " : "").append(bytes[k]);
+				}
+				output.append('\n');
+			}
+		}
+	}
+
+	private static String getStringLabel(int literal) {
+		return "oak_s" + literal;
+	}
+
+	private void appendCode(List<MipsInstruction> instructions) {
+		for (MipsInstruction instruction : instructions) {
+			output.append(instruction).append('\n');
+		}
+	}
+
+	// functions
+
+	private void compileFunction(IRFunction function, String label) {
+		this.function = function;
+		this.functionLabel = label;
+		this.graph = new InterferenceGraph(function, RUNTIME_BUILTINS, true);
+		int[] hints = new int[graph.getNodeCount()];
+		Arrays.fill(hints, RegisterAllocation.NONE);
+		IntList params = new IntList();
+		IntList entry = function.getInstructions(0);
+		for (int i = 0; i < entry.size(); i++) {
+			int instruction = entry.get(i);
+			if (function.getOpcode(instruction) == IROpcode.PARAM && graph.defines(instruction)) {
+				params.add(instruction);
+				int word = getParameterWord(function.getFirst(instruction));
+				for (int j = 0; j < graph.getWords(instruction) && word + j < ARGUMENT_REGISTERS; j++) {
+					hints[graph.getNode(instruction, j)] = A0 + word + j;
+				}
+			}
+		}
+		coloring = new GraphColoring(graph, NAMES.length, CALLER_SAVED, CALLEE_SAVED, hints).allocate();
+		savedRegisters = new ArrayList<>();
+		for (int register : CALLEE_SAVED) {
+			if (coloring.isUsed(register)) {
+				savedRegisters.add(register);
+			}
+		}
+		computeFrame();
+		code = new ArrayList<>();
+		stubs = new ArrayList<>();
+		labelCount = 0;
+		code.add(MipsInstruction.label(label));
+		emitPrologue(params);
+		int[] order = function.getReversePostOrder();
+		for (int i = 0; i < order.length; i++) {
+			code.add(MipsInstruction.label(getLabel(order[i])));
+			compileBlock(order[i], i + 1 < order.length ? order[i + 1] : RegisterAllocation.NONE);
+		}
+		code.addAll(stubs);
+		output.append("# ").append(function.getName()).append('\n');
+		appendCode(DelaySlotFiller.fill(peephole.optimize(code), label));
+	}
+
+	private String getLabel(int block) {
+		return functionLabel + "_" + block;
+	}
+
+	private String newLabel() {
+		return functionLabel + "_x" + labelCount++;
+	}
+
+	/**
+	 * Return the index of the first argument word of the given parameter.
+	 */
+	private int getParameterWord(int parameter) {
+		int word = 0;
+		for (int i = 0; i < parameter; i++) {
+			word += getWords(function.getParameterTypes()[i]);
+		}
+		return word;
+	}
+
+	private static int getWords(Type type) {
+		return type.isPointerLike() ? 2 : 1;
+	}
+
+	/**
+	 * Compute the layout of the stack frame: (from the stack pointer upwards) the outgoing arguments, the
+	 * spill slots, the stack area, the saved registers and the return address.
+	 */
+	private void computeFrame() {
+		int argumentWords = 0;
+		stackOffsets = new int[function.getValueCount()];
+		stackAreaSize = 0;
+		calls = false;
+		for (int block = 0; block < function.getBlockCount(); block++) {
+			IntList instructions = function.getInstructions(block);
+			for (int i = 0; i < instructions.size(); i++) {
+				int instruction = instructions.get(i);
+				int opcode = function.getOpcode(instruction);
+				if (opcode == IROpcode.CALL) {
+					calls = true;
+					int words = 0;
+					for (int j = 0; j < function.getOperandCount(instruction); j++) {
+						words += getWords(function.getType(function.getOperand(instruction, j)));
+					}
+					argumentWords = Math.max(argumentWords, words);
+				} else if (isStackAllocation(instruction)) {
+					stackOffsets[instruction] = stackAreaSize;
+					stackAreaSize += (int) (function.getConstant(function.getFirst(instruction)) + 7) & ~7;
+				} else if (opcode == IROpcode.BUILTIN && RUNTIME_BUILTINS.contains(function.getBuiltin(instruction))) {
+					calls = true;
+				}
+			}
+		}
+		outgoingSize = 4 * Math.max(0, argumentWords - ARGUMENT_REGISTERS);
+		stackAreaOffset = (outgoingSize + 4 * coloring.getSlotCount() + 7) & ~7;
+		int size = stackAreaOffset + stackAreaSize + 4 * savedRegisters.size() + (calls ? 4 : 0);
+		frameSize = (size + 7) & ~7;
+	}
+
+	private boolean isStackAllocation(int instruction) {
+		return function.getOpcode(instruction) == IROpcode.BUILTIN && function.getBuiltin(instruction) == Builtin.MALLOC
+				&& function.hasFlag(instruction, IRFunction.STACK) && function.isConstant(function.getFirst(instruction));
+	}
+
+	private String getSlotAddress(int location) {
+		return outgoingSize + 4 * RegisterAllocation.getSlot(location) + "($sp)";
+	}
+
+	private int getSaveOffset(int index) {
+		return frameSize - 4 * (index + 1 + (calls ? 1 : 0));
+	}
+
+	/**
+	 * Add a constant to a register, using the scratch register if the constant doesn't fit in an immediate.
+	 */
+	private void emitAddImmediate(int target, int source, int constant, int scratch) {
+		if (isImmediate(constant)) {
+			emit("addiu", NAMES[target], NAMES[source], Integer.toString(constant));
+		} else {
+			loadConstant(scratch, constant);
+			emit("addu", NAMES[target], NAMES[source], NAMES[scratch]);
+		}
+	}
+
+	private void emitPrologue(IntList params) {
+		if (frameSize > 0) {
+			emitAddImmediate(SP, SP, -frameSize, T9);
+		}
+		boolean checked = calls || stackAreaSize > 0;
+		if (checked) {
+			emit("lw", "$t9", "0($gp)");
+		}
+		if (calls) {
+			emit("sw", "$ra", frameSize - 4 + "($sp)");
+		}
+		for (int i = 0; i < savedRegisters.size(); i++) {
+			emit("sw", NAMES[savedRegisters.get(i)], getSaveOffset(i) + "($sp)");
+		}
+		if (checked) {
+			emit("sltu", "$t9", "$sp", "$t9");
+			emit("bne", "$t9", "$zero", "oak_stack_overflow");
+		}
+		ParallelMoves moves = new ParallelMoves();
+		for (int i = 0; i < params.size(); i++) {
+			int param = params.get(i);
+			int word = getParameterWord(function.getFirst(param));
+			for (int j = 0; j < graph.getWords(param); j++) {
+				if (word + j < ARGUMENT_REGISTERS) {
+					moves.addMove(getLocation(param, j), A0 + word + j);
+				}
+			}
+		}
+		moves.emit(moveEmitter, T9);
+		for (int i = 0; i < params.size(); i++) {
+			int param = params.get(i);
+			int word = getParameterWord(function.getFirst(param));
+			for (int j = 0; j < graph.getWords(param); j++) {
+				if (word + j >= ARGUMENT_REGISTERS) {
+					String source = frameSize + 4 * (word + j - ARGUMENT_REGISTERS) + "($sp)";
+					int location = getLocation(param, j);
+					if (RegisterAllocation.isRegister(location)) {
+						emit("lw", NAMES[location], source);
+					} else {
+						emit("lw", "$t8", source);
+						emit("sw", "$t8", getSlotAddress(location));
+					}
+				}
+			}
+		}
+	}
+
+	private void emitEpilogue() {
+		for (int i = 0; i < savedRegisters.size(); i++) {
+			emit("lw", NAMES[savedRegisters.get(i)], getSaveOffset(i) + "($sp)");
+		}
+		if (calls) {
+			emit("lw", "$ra", frameSize - 4 + "($sp)");
+		}
+		if (frameSize > 0) {
+			emitAddImmediate(SP, SP, frameSize, T9);
+		}
+		emit("jr", "$ra");
+	}
+
+	private void compileBlock(int block, int next) {
+		IntList instructions = function.getInstructions(block);
+		for (int i = 0; i < instructions.size(); i++) {
+			int instruction = instructions.get(i);
+			switch (function.getOpcode(instruction)) {
+				case IROpcode.PARAM:
+				case IROpcode.PHI:
+				case IROpcode.NOP:
+					break;
+				case IROpcode.COPY:
+					copyValue(instruction, function.getFirst(instruction));
+					break;
+				case IROpcode.LOAD_GLOBAL:
+					for (int word = 0; word < graph.getWords(instruction); word++) {
+						int target = getTarget(instruction, word, V0);
+						emit("lw", NAMES[target], getGlobal(instruction, word));
+						finish(instruction, word, target);
+					}
+					break;
+				case IROpcode.STORE_GLOBAL:
+					int value = function.getFirst(instruction);
+					for (int word = 0; word < graph.getWords(value); word++) {
+						emit("sw", use(value, word, V0), getGlobal(instruction, word));
+					}
+					break;
+				case IROpcode.CALL:
+					compileCall(instruction);
+					break;
+				case IROpcode.BUILTIN:
+					compileBuiltin(instruction);
+					break;
+				case IROpcode.JUMP:
+					compileEdge(block, function.getFirst(instruction), next);
+					break;
+				case IROpcode.BRANCH:
+					compileBranch(block, instruction, next);
+					break;
+				case IROpcode.RETURN:
+					int result = function.getFirst(instruction);
+					if (result != IRFunction.NONE) {
+						ParallelMoves moves = new ParallelMoves();
+						for (int word = 0; word < graph.getWords(result); word++) {
+							addArgument(moves, V0 + word, result, word);
+						}
+						moves.emit(moveEmitter, T9);
+					}
+					emitEpilogue();
+					break;
+				default:
+					throw new IllegalStateException("Unexpected instruction " + function.formatInstruction(instruction));
+			}
+		}
+	}
+
+	private String getGlobal(int instruction, int word) {
+		return globalOffsets[function.getThird(instruction)] + 4 * word + "($gp)";
+	}
+
+	// control flow
+
+	private ParallelMoves getPhiMoves(int block, int successor) {
+		ParallelMoves moves = new ParallelMoves();
+		int predecessor = function.getPredecessors(successor).indexOf(block);
+		IntList instructions = function.getInstructions(successor);
+		for (int i = 0; i < instructions.size() && function.getOpcode(instructions.get(i)) == IROpcode.PHI; i++) {
+			int phi = instructions.get(i);
+			int operand = function.getOperand(phi, predecessor);
+			for (int word = 0; word < graph.getWords(phi); word++) {
+				addArgument(moves, getLocation(phi, word), operand, word);
+			}
+		}
+		return moves;
+	}
+
+	private void compileEdge(int block, int successor, int next) {
+		getPhiMoves(block, successor).emit(moveEmitter, T9);
+		if (successor != next) {
+			emit("j", getLabel(successor));
+		}
+	}
+
+	private void compileBranch(int block, int branch, int next) {
+		int condition = function.getFirst(branch);
+		int trueTarget = function.getSecond(branch);
+		int falseTarget = function.getThird(branch);
+		if (function.isConstant(condition)) {
+			compileEdge(block, function.getConstant(condition) != 0 ? trueTarget : falseTarget, next);
+			return;
+		}
+		ParallelMoves trueMoves = getPhiMoves(block, trueTarget);
+		ParallelMoves falseMoves = getPhiMoves(block, falseTarget);
+		String register = use(condition, 0, V0);
+		if (falseTarget == next && falseMoves.isEmpty() && trueMoves.isEmpty()) {
+			emit("bne", register, "$zero", getLabel(trueTarget));
+			return;
+		}
+		String falseLabel = falseMoves.isEmpty() ? getLabel(falseTarget) : newLabel();
+		emit("beq", register, "$zero", falseLabel);
+		trueMoves.emit(moveEmitter, T9);
+		if (trueTarget != next || !falseMoves.isEmpty()) {
+			emit("j", getLabel(trueTarget));
+		}
+		if (!falseMoves.isEmpty()) {
+			code.add(MipsInstruction.label(falseLabel));
+			compileEdge(block, falseTarget, next);
+		}
+	}
+
+	// calls
+
+	private void compileCall(int instruction) {
+		ParallelMoves moves = new ParallelMoves();
+		int word = 0;
+		for (int i = 0; i < function.getOperandCount(instruction); i++) {
+			int argument = function.getOperand(instruction, i);
+			for (int j = 0; j < graph.getWords(argument); j++, word++) {
+				if (word < ARGUMENT_REGISTERS) {
+					addArgument(moves, A0 + word, argument, j);
+				} else {
+					emit("sw", use(argument, j, T8), 4 * (word - ARGUMENT_REGISTERS) + "($sp)");
+				}
+			}
+		}
+		moves.emit(moveEmitter, T9);
+		emit("jal", getFunctionLabel(function.getThird(instruction)));
+		finishCall(instruction);
+	}
+
+	private void finishCall(int instruction) {
+		if (graph.defines(instruction)) {
+			for (int word = 0; word < graph.getWords(instruction); word++) {
+				finish(instruction, word, V0 + word);
+			}
+		}
+	}
+
+	private void addArgument(ParallelMoves moves, int location, int value, int word) {
+		if (function.getBlock(value) == IRFunction.NONE) {
+			moves.addLoad(location, 2 * value + word);
+		} else {
+			moves.addMove(location, getLocation(value, word));
+		}
+	}
+
+	private void compileRuntimeCall(int instruction) {
+		ParallelMoves moves = new ParallelMoves();
+		int register = A0;
+		for (int operand : new int[]{function.getFirst(instruction), function.getSecond(instruction)}) {
+			if (operand != IRFunction.NONE) {
+				for (int word = 0; word < graph.getWords(operand); word++) {
+					addArgument(moves, register++, operand, word);
+				}
+			}
+		}
+		moves.emit(moveEmitter, T9);
+		loadConstant(T9, function.getLine(instruction));
+		emit("jal", "oak_" + function.getBuiltin(instruction).name().toLowerCase(Locale.ROOT));
+		finishCall(instruction);
+	}
+
+	// built in functions
+
+	private void compileBuiltin(int instruction) {
+		Builtin builtin = function.getBuiltin(instruction);
+		int first = function.getFirst(instruction);
+		int second = function.getSecond(instruction);
+		if (isStackAllocation(instruction)) {
+			compileStackAllocation(instruction);
+			return;
+		}
+		if (RUNTIME_BUILTINS.contains(builtin)) {
+			compileRuntimeCall(instruction);
+			return;
+		}
+		int target;
+		switch (builtin) {
+			case TO_BYTE_BOOL:
+			case TO_INT_BOOL:
+			case TO_INT_BYTE:
+			case TO_POINTER_STRING:
+			case TO_STRING_POINTER:
+			case GET_REF_BOOL:
+			case GET_REF_BYTE:
+			case GET_REF_INT:
+			case GET_REF_FLOAT:
+			case GET_REF_POINTER:
+			case GET_REF_STRING:
+				copyValue(instruction, first);
+				break;
+			case TO_BOOL_BYTE:
+			case TO_BOOL_INT:
+				target = getTarget(instruction, 0, V0);
+				emit("sltu", NAMES[target], "$zero", use(first, 0, V0));
+				finish(instruction, 0, target);
+				break;
+			case TO_BOOL_FLOAT:
+				target = getTarget(instruction, 0, V0);
+				emit("sll", "$v1", use(first, 0, V0), "1");
+				emit("addiu", "$v1", "$v1", "-1");
+				emit("lui", "$t9", "65280");
+				emit("sltu", NAMES[target], "$v1", "$t9");
+				finish(instruction, 0, target);
+				break;
+			case TO_BYTE_INT:
+				String value = use(first, 0, V0);
+				emit("sll", "$v1", value, "24");
+				emit("sra", "$v1", "$v1", "24");
+				emit("bne", "$v1", value, addStub(instruction, FAIL_BYTE, first));
+				finish(instruction, 0, V1);
+				break;
+			case TO_FLOAT_INT:
+				emit("mtc1", use(first, 0, V0), "$f0");
+				emit("cvt.s.w", "$f0", "$f0");
+				finishFloat(instruction);
+				break;
+			case ADD_BYTE:
+				compileOperation(instruction, "addu", "addiu", true);
+				break;
+			case ADD_INT:
+				compileOperation(instruction, "addu", "addiu", false);
+				break;
+			case SUB_BYTE:
+			case SUB_INT:
+				compileSubtraction(instruction, builtin == Builtin.SUB_BYTE);
+				break;
+			case MUL_BYTE:
+			case MUL_INT:
+				compileMultiplication(instruction, builtin == Builtin.MUL_BYTE);
+				break;
+			case DIV_BYTE:
+			case DIV_INT:
+				compileDivision(instruction, false, builtin == Builtin.DIV_BYTE);
+				break;
+			case MOD_BYTE:
+			case MOD_INT:
+				compileDivision(instruction, true, builtin == Builtin.MOD_BYTE);
+				break;
+			case ADD_FLOAT:
+				compileFloatOperation(instruction, "add.s");
+				break;
+			case SUB_FLOAT:
+				compileFloatOperation(instruction, "sub.s");
+				break;
+			case MUL_FLOAT:
+				compileFloatOperation(instruction, "mul.s");
+				break;
+			case DIV_FLOAT:
+				if (!function.isConstant(second) || (function.getConstant(second) & 0x7fffffff) == 0) {
+					emit("sll", "$t9", use(second, 0, V1), "1");
+					emit("beq", "$t9", "$zero", addStub(instruction, FAIL_DIVISION, IRFunction.NONE));
+				}
+				compileFloatOperation(instruction, "div.s");
+				break;
+			case NOT:
+				target = getTarget(instruction, 0, V0);
+				emit("xori", NAMES[target], use(first, 0, V0), "1");
+				finish(instruction, 0, target);
+				break;
+			case AND:
+				compileOperation(instruction, "and", "andi", false);
+				break;
+			case OR:
+				compileOperation(instruction, "or", "ori", false);
+				break;
+			case XOR:
+				compileOperation(instruction, "xor", "xori", false);
+				break;
+			case EQUAL_BOOL:
+			case EQUAL_BYTE:
+			case EQUAL_INT:
+				compileEquality(instruction);
+				break;
+			case EQUAL_POINTER:
+				target = getTarget(instruction, 0, V0);
+				emit("xor", "$v0", use(first, 0, V0), use(second, 0, V1));
+				emit("xor", "$v1", use(first, 1, V1), use(second, 1, T8));
+				emit("or", NAMES[target], "$v0", "$v1");
+				emit("sltiu", NAMES[target], NAMES[target], "1");
+				finish(instruction, 0, target);
+				break;
+			case LESS_BYTE:
+			case LESS_INT:
+				compileOperation(instruction, "slt", "slti", false);
+				break;
+			case EQUAL_FLOAT:
+			case LESS_FLOAT:
+				target = getTarget(instruction, 0, V0);
+				emit("mtc1", use(first, 0, V0), "$f0");
+				emit("mtc1", use(second, 0, V1), "$f2");
+				emit(builtin == Builtin.EQUAL_FLOAT ? "c.eq.s" : "c.lt.s", "$f0", "$f2");
+				emit("addiu", NAMES[target], "$zero", "1");
+				emit("movf", NAMES[target], "$zero");
+				finish(instruction, 0, target);
+				break;
+			case ADD_POINTER:
+				compileAddPointer(instruction);
+				break;
+			case MEM_SIZE:
+				target = getTarget(instruction, 0, V0);
+				emit("subu", "$t9", use(first, 1, V1), use(first, 0, V0));
+				emit("addiu", "$t9", "$t9", "1");
+				emit("sra", "$t8", "$t9", "31");
+				emit("or", NAMES[target], "$t9", "$t8");
+				finish(instruction, 0, target);
+				break;
+			case ASSERT:
+				if (!function.isConstant(first) || function.getConstant(first) == 0) {
+					emit("beq", use(first, 0, V0), "$zero", addStub(instruction, FAIL_ASSERTION, IRFunction.NONE));
+				}
+				break;
+			case ASSERT_MESSAGE:
+				if (!function.isConstant(first) || function.getConstant(first) == 0) {
+					emit("beq", use(first, 0, V0), "$zero", addStub(instruction, FAIL_ASSERTION_MESSAGE, second));
+				}
+				break;
+			case GET_BOOL:
+			case GET_BYTE:
+			case GET_INT:
+			case GET_FLOAT:
+			case GET_POINTER:
+			case GET_STRING:
+				compileLoad(instruction);
+				break;
+			case SET_BOOL:
+			case SET_BYTE:
+			case SET_INT:
+			case SET_FLOAT:
+			case SET_POINTER:
+			case SET_STRING:
+				compileStore(instruction);
+				break;
+			default:
+				throw new IllegalStateException("Unsupported built in function " + builtin);
+		}
+	}
+
+	private static boolean isCommutative(String operation) {
+		return !"slt".equals(operation);
+	}
+
+	/**
+	 * Compute "target = first op second" with a single instruction, using the immediate form if the second
+	 * operand is a small constant. The results of byte operations are sign extended.
+	 */
+	private void compileOperation(int instruction, String operation, String immediateOperation, boolean isByte) {
+		int first = function.getFirst(instruction);
+		int second = function.getSecond(instruction);
+		boolean unsigned = immediateOperation.endsWith("i") && !"addiu".equals(immediateOperation)
+				&& !"slti".equals(immediateOperation);
+		if (isCommutative(operation) && function.isConstant(first) && !function.isConstant(second)) {
+			first = second;
+			second = function.getFirst(instruction);
+		}
+		int target = getTarget(instruction, 0, V0);
+		String register = use(first, 0, V0);
+		if (fitsImmediate(second, unsigned)) {
+			emit(immediateOperation, NAMES[target], register, Integer.toString((int) function.getConstant(second)));
+		} else {
+			emit(operation, NAMES[target], register, use(second, 0, V1));
+		}
+		finishInt(instruction, target, isByte);
+	}
+
+	private void compileSubtraction(int instruction, boolean isByte) {
+		int second = function.getSecond(instruction);
+		int target = getTarget(instruction, 0, V0);
+		String register = use(function.getFirst(instruction), 0, V0);
+		if (function.isConstant(second) && isImmediate(-function.getConstant(second))) {
+			emit("addiu", NAMES[target], register, Long.toString(-function.getConstant(second)));
+		} else {
+			emit("subu", NAMES[target], register, use(second, 0, V1));
+		}
+		finishInt(instruction, target, isByte);
+	}
+
+	private void compileMultiplication(int instruction, boolean isByte) {
+		int target = getTarget(instruction, 0, V0);
+		emit("mult", use(function.getFirst(instruction), 0, V0), use(function.getSecond(instruction), 0, V1));
+		emit("mflo", NAMES[target]);
+		finishInt(instruction, target, isByte);
+	}
+
+	/**
+	 * Divide with a check for zero, the remainder gets the sign of the divisor.
+	 */
+	private void compileDivision(int instruction, boolean remainder, boolean isByte) {
+		int second = function.getSecond(instruction);
+		String divisor = use(second, 0, V1);
+		if (!function.isConstant(second) || function.getConstant(second) == 0) {
+			emit("beq", divisor, "$zero", addStub(instruction, FAIL_DIVISION, IRFunction.NONE));
+		}
+		emit("div", use(function.getFirst(instruction), 0, V0), divisor);
+		int target = getTarget(instruction, 0, V0);
+		if (remainder) {
+			emit("mfhi", "$t8");
+			emit("sra", "$t9", divisor, "31");
+			emit("xor", "$v0", divisor, "$t9");
+			emit("subu", "$v0", "$v0", "$t9");
+			emit("sra", "$t9", "$t8", "31");
+			emit("and", "$v0", "$v0", "$t9");
+			emit("addu", NAMES[target], "$t8", "$v0");
+		} else {
+			emit("mflo", NAMES[target]);
+		}
+		finishInt(instruction, target, isByte);
+	}
+
+	private void finishInt(int instruction, int target, boolean isByte) {
+		if (isByte) {
+			emit("sll", NAMES[target], NAMES[target], "24");
+			emit("sra", NAMES[target], NAMES[target], "24");
+		}
+		finish(instruction, 0, target);
+	}
+
+	private void compileEquality(int instruction) {
+		int first = function.getFirst(instruction);
+		int second = function.getSecond(instruction);
+		if (function.isConstant(first) && !function.isConstant(second)) {
+			first = second;
+			second = function.getFirst(instruction);
+		}
+		int target = getTarget(instruction, 0, V0);
+		String register = use(first, 0, V0);
+		if (function.isConstant(second) && function.getConstant(second) == 0) {
+			emit("sltiu", NAMES[target], register, "1");
+		} else {
+			if (fitsImmediate(second, true)) {
+				emit("xori", NAMES[target], register, Long.toString(function.getConstant(second)));
+			} else {
+				emit("xor", NAMES[target], register, use(second, 0, V1));
+			}
+			emit("sltiu", NAMES[target], NAMES[target], "1");
+		}
+		finish(instruction, 0, target);
+	}
+
+	private void compileFloatOperation(int instruction, String operation) {
+		emit("mtc1", use(function.getFirst(instruction), 0, V0), "$f0");
+		emit("mtc1", use(function.getSecond(instruction), 0, V1), "$f2");
+		emit(operation, "$f0", "$f0", "$f2");
+		finishFloat(instruction);
+	}
+
+	private void finishFloat(int instruction) {
+		int target = getTarget(instruction, 0, V0);
+		emit("mfc1", NAMES[target], "$f0");
+		finish(instruction, 0, target);
+	}
+
+	/**
+	 * Add an offset to the begin address of a pointer, the offset may be at most the size of the memory area.
+	 */
+	private void compileAddPointer(int instruction) {
+		int pointer = function.getFirst(instruction);
+		int offset = function.getSecond(instruction);
+		String begin = use(pointer, 0, V0);
+		String end = use(pointer, 1, V1);
+		String register = use(offset, 0, T8);
+		if (!function.hasFlag(instruction, IRFunction.UNCHECKED)) {
+			emit("subu", "$t9", end, begin);
+			emit("addiu", "$t9", "$t9", "1");
+			emit("bltz", "$t9", addStub(instruction, FAIL_INVALID_POINTER, IRFunction.NONE));
+			emit("sltu", "$t9", "$t9", register);
+			emit("bne", "$t9", "$zero", addStub(instruction, FAIL_OFFSET, offset));
+		}
+		emit("addu", "$t9", begin, register);
+		finish(instruction, 1, getRegisterIndex(end));
+		finish(instruction, 0, T9);
+	}
+
+	/**
+	 * Compute the address of the memory accessed by the given get_TYPE or set_TYPE.
+	 * @return register containing the address
+	 */
+	private String compileAddress(int instruction, Type type) {
+		int pointer = function.getFirst(instruction);
+		String begin = use(pointer, 0, V0);
+		if (!function.hasFlag(instruction, IRFunction.UNCHECKED)) {
+			emit("subu", "$t9", use(pointer, 1, V1), begin);
+			emit("slti", "$t9", "$t9", Integer.toString(type.getSize() - 1));
+			emit("bne", "$t9", "$zero", addStub(instruction, FAIL_TOO_SMALL + type.ordinal(), IRFunction.NONE));
+		}
+		return begin;
+	}
+
+	private void compileLoad(int instruction) {
+		Type type = function.getBuiltin(instruction).getReturnType();
+		String address = compileAddress(instruction, type);
+		int target = getTarget(instruction, 0, T9);
+		if (NAMES[target].equals(address)) {
+			target = T9;
+		}
+		String register = NAMES[target];
+		switch (type) {
+			case BOOL:
+				emit("lbu", register, "0(" + address + ")");
+				emit("sltu", register, "$zero", register);
+				break;
+			case BYTE:
+				emit("lb", register, "0(" + address + ")");
+				break;
+			case INT:
+			case FLOAT:
+				emit("lwr", register, "0(" + address + ")");
+				emit("lwl", register, "3(" + address + ")");
+				break;
+			default:
+				emit("lwr", "$t9", "4(" + address + ")");
+				emit("lwl", "$t9", "7(" + address + ")");
+				emit("lwr", "$t8", "0(" + address + ")");
+				emit("lwl", "$t8", "3(" + address + ")");
+				finish(instruction, 1, T9);
+				target = T8;
+		}
+		finish(instruction, 0, target);
+	}
+
+	private void compileStore(int instruction) {
+		Type type = function.getBuiltin(instruction).getParameterTypes().get(1);
+		String address = compileAddress(instruction, type);
+		int value = function.getSecond(instruction);
+		switch (type) {
+			case BOOL:
+			case BYTE:
+				emit("sb", use(value, 0, T8), "0(" + address + ")");
+				break;
+			case INT:
+			case FLOAT:
+				String register = use(value, 0, T8);
+				emit("swr", register, "0(" + address + ")");
+				emit("swl", register, "3(" + address + ")");
+				break;
+			default:
+				String begin = use(value, 0, T8);
+				emit("swr", begin, "0(" + address + ")");
+				emit("swl", begin, "3(" + address + ")");
+				String end = use(value, 1, T9);
+				emit("swr", end, "4(" + address + ")");
+				emit("swl", end, "7(" + address + ")");
+		}
+	}
+
+	/**
+	 * Allocate the memory area of a malloc flagged with STACK in the stack frame and clear it.
+	 */
+	private void compileStackAllocation(int instruction) {
+		int size = (int) function.getConstant(function.getFirst(instruction));
+		int offset = stackAreaOffset + stackOffsets[instruction];
+		int rounded = (size + 7) & ~7;
+		if (rounded <= 64) {
+			for (int i = 0; i < rounded; i += 4) {
+				emit("sw", "$zero", offset + i + "($sp)");
+			}
+		} else {
+			String loop = newLabel();
+			emit("addiu", "$t9", "$sp", Integer.toString(offset));
+			emit("addiu", "$t8", "$t9", Integer.toString(rounded));
+			code.add(MipsInstruction.label(loop));
+			emit("addiu", "$t9", "$t9", "4");
+			emit("bne", "$t9", "$t8", loop);
+			code.add(MipsInstruction.slot("sw", "$zero", "-4($t9)"));
+		}
+		int target = getTarget(instruction, 0, V0);
+		emit("addiu", NAMES[target], "$sp", Integer.toString(offset));
+		finish(instruction, 0, target);
+		target = getTarget(instruction, 1, V0);
+		emit("addiu", NAMES[target], "$sp", Integer.toString(offset + size - 1));
+		finish(instruction, 1, target);
+	}
+
+	/**
+	 * Add an out of line jump to oak_fail.
+	 * @param value value passed in a2 (and a3) or NONE
+	 * @return label of the jump
+	 */
+	private String addStub(int instruction, int kind, int value) {
+		String label = newLabel();
+		List<MipsInstruction> saved = code;
+		code = stubs;
+		code.add(MipsInstruction.label(label));
+		if (value != IRFunction.NONE) {
+			for (int word = 0; word < graph.getWords(value); word++) {
+				String register = use(value, word, A2 + word);
+				if (!register.equals(NAMES[A2 + word])) {
+					emit("move", NAMES[A2 + word], register);
+				}
+			}
+		}
+		loadConstant(A1, function.getLine(instruction));
+		emit("j", "oak_fail");
+		code.add(MipsInstruction.slot("ori", "$a0", "$zero", Integer.toString(kind)));
+		code = saved;
+		return label;
+	}
+
+	// operands and locations
+
+	private void emit(String opcode, String... operands) {
+		code.add(MipsInstruction.of(opcode, operands));
+	}
+
+	private static boolean isImmediate(long constant) {
+		return constant >= Short.MIN_VALUE && constant <= Short.MAX_VALUE;
+	}
+
+	private boolean fitsImmediate(int value, boolean unsigned) {
+		if (!function.isConstant(value) || function.getType(value).isPointerLike()) {
+			return false;
+		}
+		long constant = function.getConstant(value);
+		return unsigned ? constant >= 0 && constant <= 0xffff : isImmediate(constant);
+	}
+
+	private void loadConstant(int register, int constant) {
+		if (isImmediate(constant)) {
+			emit("addiu", NAMES[register], "$zero", Integer.toString(constant));
+		} else if (constant >= 0 && constant <= 0xffff) {
+			emit("ori", NAMES[register], "$zero", Integer.toString(constant));
+		} else {
+			emit("lui", NAMES[register], Integer.toString(constant >>> 16));
+			if ((constant & 0xffff) != 0) {
+				emit("ori", NAMES[register], NAMES[register], Integer.toString(constant & 0xffff));
+			}
+		}
+	}
+
+	private int getLocation(int value, int word) {
+		return coloring.getLocation(graph.getNode(value, word));
+	}
+
+	/**
+	 * Return the register containing the given word of a value, values that aren't in a register are loaded
+	 * into the scratch register.
+	 */
+	private String use(int value, int word, int scratch) {
+		switch (function.getOpcode(value)) {
+			case IROpcode.CONST:
+				long constant = function.getConstant(value);
+				int bits = (int) (function.getType(value).isPointerLike() && word == 0 ? constant >> 32 : constant);
+				if (bits == 0) {
+					return "$zero";
+				}
+				loadConstant(scratch, bits);
+				return NAMES[scratch];
+			case IROpcode.STRING:
+				int literal = function.getThird(value);
+				emit("la", NAMES[scratch], getStringLabel(literal));
+				if (word == 1) {
+					emitAddImmediate(scratch, scratch, program.getStrings().get(literal).getBytes().length - 1,
+							scratch == T9 ? T8 : T9);
+				}
+				return NAMES[scratch];
+			default:
+				int location = getLocation(value, word);
+				if (RegisterAllocation.isRegister(location)) {
+					return NAMES[location];
+				}
+				emit("lw", NAMES[scratch], getSlotAddress(location));
+				return NAMES[scratch];
+		}
+	}
+
+	private static int getRegisterIndex(String name) {
+		return Arrays.asList(NAMES).indexOf(name);
+	}
+
+	/**
+	 * Return the register to compute a word of the result in: its own register or the scratch register.
+	 */
+	private int getTarget(int instruction, int word, int scratch) {
+		int location = getLocation(instruction, word);
+		return RegisterAllocation.isRegister(location) ? location : scratch;
+	}
+
+	/**
+	 * Move a word of the result of the instruction from the given register to its location.
+	 */
+	private void finish(int instruction, int word, int register) {
+		moveEmitter.move(getLocation(instruction, word), register);
+	}
+
+	/**
+	 * Move the given value (with or without location) to the location of the instruction.
+	 */
+	private void copyValue(int instruction, int value) {
+		ParallelMoves moves = new ParallelMoves();
+		for (int word = 0; word < graph.getWords(instruction); word++) {
+			addArgument(moves, getLocation(instruction, word), value, word);
+		}
+		moves.emit(moveEmitter, T9);
+	}
+
+	private class MoveEmitter implements ParallelMoves.Emitter {
+
+		@Override
+		public void move(int destination, int source) {
+			if (destination == source || destination == RegisterAllocation.NONE) {
+				return;
+			}
+			if (RegisterAllocation.isRegister(destination)) {
+				if (RegisterAllocation.isRegister(source)) {
+					emit("move", NAMES[destination], NAMES[source]);
+				} else {
+					emit("lw", NAMES[destination], getSlotAddress(source));
+				}
+			} else if (RegisterAllocation.isRegister(source)) {
+				emit("sw", NAMES[source], getSlotAddress(destination));
+			} else {
+				emit("lw", "$t8", getSlotAddress(source));
+				emit("sw", "$t8", getSlotAddress(destination));
+			}
+		}
+
+		@Override
+		public void load(int destination, int value) {
+			if (destination == RegisterAllocation.NONE) {
+				return;
+			}
+			boolean register = RegisterAllocation.isRegister(destination);
+			String source = use(value / 2, value % 2, register ? destination : T8);
+			if (register && !source.equals(NAMES[destination])) {
+				emit("move", NAMES[destination], source);
+			} else if (!register) {
+				emit("sw", source, getSlotAddress(destination));
+			}
+		}
+	}
+}
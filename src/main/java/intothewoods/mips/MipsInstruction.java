@@ -0,0 +1,236 @@
+package intothewoods.mips;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Instruction or label of the generated MIPS code.
+ *
+ * It knows the registers it reads and writes (the HI/LO pair and the floating point condition flag are
+ * pseudo registers), which the delay slot filler uses to find instructions that can be moved.
+ */
+public class MipsInstruction {
+
+	private static final Set<String> BRANCHES = new HashSet<>(Arrays.asList("beq", "bne", "bltz", "bgez", "blez",
+			"bgtz"));
+	private static final Set<String> LOADS = new HashSet<>(Arrays.asList("lw", "lb", "lbu", "lwl", "lwr"));
+	private static final Set<String> HI_LO = new HashSet<>(Arrays.asList("mult", "multu", "div", "divu"));
+	private static final Set<String> STORES = new HashSet<>(Arrays.asList("sw", "sb", "swl", "swr"));
+
+	private final String label;
+	private final String opcode;
+	private final String[] operands;
+	private final boolean delaySlot;
+
+	private MipsInstruction(String label, String opcode, String[] operands, boolean delaySlot) {
+		this.label = label;
+		this.opcode = opcode;
+		this.operands = operands;
+		this.delaySlot = delaySlot;
+	}
+
+	public static MipsInstruction label(String label) {
+		return new MipsInstruction(label, null, new String[0], false);
+	}
+
+	public static MipsInstruction of(String opcode, String... operands) {
+		return new MipsInstruction(null, opcode, operands, false);
+	}
+
+	/**
+	 * Create an instruction that fills the delay slot of the preceding branch or jump.
+	 */
+	public static MipsInstruction slot(String opcode, String... operands) {
+		return new MipsInstruction(null, opcode, operands, true);
+	}
+
+	public boolean isLabel() {
+		return label != null;
+	}
+
+	public String getLabel() {
+		return label;
+	}
+
+	public String getOpcode() {
+		return opcode;
+	}
+
+	public String[] getOperands() {
+		return operands;
+	}
+
+	public String getOperand(int index) {
+		return operands[index];
+	}
+
+	/**
+	 * Checks whether the instruction was placed in a delay slot by the code generator.
+	 */
+	public boolean isDelaySlot() {
+		return delaySlot;
+	}
+
+	public MipsInstruction withOperand(int index, String operand) {
+		String[] copy = operands.clone();
+		copy[index] = operand;
+		return new MipsInstruction(label, opcode, copy, delaySlot);
+	}
+
+	public MipsInstruction asDelaySlot() {
+		return new MipsInstruction(label, opcode, operands, true);
+	}
+
+	public boolean isConditionalBranch() {
+		return !isLabel() && BRANCHES.contains(opcode);
+	}
+
+	/**
+	 * Checks whether the instruction is a branch or jump (and therefore has a delay slot).
+	 */
+	public boolean isControlTransfer() {
+		return isConditionalBranch() || "j".equals(opcode) || "jal".equals(opcode) || "jr".equals(opcode);
+	}
+
+	/**
+	 * Return the label a branch, j or jal jumps to, or null.
+	 */
+	public String getTarget() {
+		if (isConditionalBranch() || "j".equals(opcode) || "jal".equals(opcode)) {
+			return operands[operands.length - 1];
+		}
+		return null;
+	}
+
+	public boolean readsMemory() {
+		return !isLabel() && (LOADS.contains(opcode) || "syscall".equals(opcode));
+	}
+
+	public boolean writesMemory() {
+		return !isLabel() && (STORES.contains(opcode) || "syscall".equals(opcode));
+	}
+
+	/**
+	 * Checks whether the instruction can be moved into a delay slot: a single machine instruction that
+	 * doesn't transfer control or call the system.
+	 */
+	public boolean isMovable() {
+		return !isLabel() && !isControlTransfer() && !"syscall".equals(opcode) && !"la".equals(opcode)
+				&& !"nop".equals(opcode);
+	}
+
+	/**
+	 * Return the registers read by the instruction.
+	 */
+	public Set<String> getReads() {
+		Set<String> reads = new HashSet<>();
+		if (isLabel()) {
+			return reads;
+		}
+		List<String> registers = new ArrayList<>();
+		for (String operand : operands) {
+			registers.add(getRegister(operand));
+		}
+		switch (opcode) {
+			case "j":
+			case "jal":
+			case "la":
+			case "lui":
+			case "nop":
+				break;
+			case "syscall":
+				reads.addAll(Arrays.asList("$v0", "$a0", "$a1", "$a2", "$a3"));
+				break;
+			case "mtc1":
+				reads.add(registers.get(0));
+				break;
+			case "mflo":
+				reads.add("$lo");
+				break;
+			case "mfhi":
+				reads.add("$hi");
+				break;
+			case "movf":
+			case "movt":
+				reads.add("$fcc");
+				reads.addAll(registers);
+				break;
+			case "lwl":
+			case "lwr":
+				reads.addAll(registers);
+				break;
+			default:
+				if (isConditionalBranch() || STORES.contains(opcode) || opcode.startsWith("c.") || "jr".equals(opcode)
+						|| HI_LO.contains(opcode)) {
+					reads.addAll(registers);
+				} else {
+					reads.addAll(registers.subList(1, registers.size()));
+				}
+		}
+		reads.remove(null);
+		reads.remove("$zero");
+		return reads;
+	}
+
+	/**
+	 * Return the registers written by the instruction.
+	 */
+	public Set<String> getWrites() {
+		Set<String> writes = new HashSet<>();
+		if (isLabel() || isConditionalBranch() || STORES.contains(opcode)) {
+			return writes;
+		}
+		switch (opcode) {
+			case "j":
+			case "jr":
+			case "nop":
+				break;
+			case "jal":
+				writes.add("$ra");
+				break;
+			case "syscall":
+				writes.add("$v0");
+				break;
+			case "mtc1":
+				writes.add(operands[1]);
+				break;
+			default:
+				if (opcode.startsWith("c.")) {
+					writes.add("$fcc");
+				} else if (HI_LO.contains(opcode)) {
+					writes.add("$hi");
+					writes.add("$lo");
+				} else {
+					writes.add(getRegister(operands[0]));
+				}
+		}
+		writes.remove("$zero");
+		return writes;
+	}
+
+	/**
+	 * Return the register of an operand (also the base register of a memory operand) or null.
+	 */
+	private static String getRegister(String operand) {
+		int open = operand.indexOf("($");
+		if (open >= 0) {
+			return operand.substring(open + 1, operand.length() - 1);
+		}
+		return operand.startsWith("$") ? operand : null;
+	}
+
+	@Override
+	public String toString() {
+		if (isLabel()) {
+			return label + ":";
+		}
+		StringBuilder builder = new StringBuilder("\t").append(opcode);
+		for (int i = 0; i < operands.length; i++) {
+			builder.append(i == 0 ? " " : ", ").append(operands[i]);
+		}
+		return builder.toString();
+	}
+}
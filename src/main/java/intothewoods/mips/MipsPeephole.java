@@ -0,0 +1,373 @@
+package intothewoods.mips;
+
+import intothewoods.backend.ControlFlowRules;
+import intothewoods.backend.PeepholeOptimizer;
+import intothewoods.backend.PeepholeRule;
+import intothewoods.backend.PeepholeTarget;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Peephole rules for the MIPS code, they run before the delay slot filler, so the only delay slots are
+ * the ones placed by the code generator.
+ *
+ * Besides the target independent jump rules, they remove self moves, loads of a just stored value and
+ * stores of a just loaded one, propagate copies, remove instructions whose results are dead, replace
+ * multiplications by powers of two with shifts and branch on a value instead of its to_bool result.
+ * Calls follow the conventions of MipsCompiler: they read a0 to a3 and t9 and may change all caller saved
+ * registers, returns read v0, v1 and the callee saved registers.
+ */
+public class MipsPeephole implements PeepholeTarget<MipsInstruction> {
+
+	private static final Set<String> CALL_READS = new HashSet<>(Arrays.asList("$a0", "$a1", "$a2", "$a3", "$t9",
+			"$sp", "$gp"));
+	private static final Set<String> CALL_WRITES = new HashSet<>(Arrays.asList("$v0", "$v1", "$a0", "$a1", "$a2",
+			"$a3", "$t0", "$t1", "$t2", "$t3", "$t4", "$t5", "$t6", "$t7", "$t8", "$t9", "$hi", "$lo", "$fcc",
+			"$ra"));
+	private static final Set<String> RETURN_READS = new HashSet<>(Arrays.asList("$v0", "$v1", "$s0", "$s1", "$s2",
+			"$s3", "$s4", "$s5", "$s6", "$s7", "$fp", "$sp", "$gp", "$ra"));
+	private static final Map<String, String> INVERTED = new HashMap<>();
+
+	/**
+	 * Instructions without side effects besides writing their registers.
+	 */
+	private static final Set<String> PURE = new HashSet<>(Arrays.asList("move", "addu", "addiu", "subu", "and",
+			"andi", "or", "ori", "xor", "xori", "nor", "sll", "srl", "sra", "slt", "sltu", "slti", "sltiu", "lui",
+			"la", "mult", "multu", "div", "divu", "mflo", "mfhi", "mtc1", "mfc1", "movf", "movt"));
+
+	static {
+		String[] pairs = {"beq", "bne", "bltz", "bgez", "blez", "bgtz"};
+		for (int i = 0; i < pairs.length; i += 2) {
+			INVERTED.put(pairs[i], pairs[i + 1]);
+			INVERTED.put(pairs[i + 1], pairs[i]);
+		}
+	}
+
+	private MipsPeephole() {
+	}
+
+	/**
+	 * Create an optimizer with the rules.
+	 */
+	public static PeepholeOptimizer<MipsInstruction> create() {
+		List<PeepholeRule<MipsInstruction>> rules = ControlFlowRules.create();
+		rules.add(new SelfMove());
+		rules.add(new StoreLoad());
+		rules.add(new CopyPropagation());
+		rules.add(new StrengthReduction());
+		rules.add(new ConditionFusion());
+		rules.add(new DeadCode());
+		return new PeepholeOptimizer<>(new MipsPeephole(), rules);
+	}
+
+	@Override
+	public String getLabel(MipsInstruction entry) {
+		return entry.getLabel();
+	}
+
+	@Override
+	public String getTarget(MipsInstruction instruction) {
+		return isJump(instruction) || isBranch(instruction) ? instruction.getTarget() : null;
+	}
+
+	@Override
+	public boolean isJump(MipsInstruction instruction) {
+		return "j".equals(instruction.getOpcode()) || "jr".equals(instruction.getOpcode());
+	}
+
+	@Override
+	public boolean isBranch(MipsInstruction instruction) {
+		return instruction.isConditionalBranch();
+	}
+
+	@Override
+	public boolean isDelaySlot(MipsInstruction instruction) {
+		return instruction.isDelaySlot();
+	}
+
+	@Override
+	public MipsInstruction retarget(MipsInstruction instruction, String label) {
+		return instruction.withOperand(instruction.getOperands().length - 1, label);
+	}
+
+	@Override
+	public MipsInstruction invert(MipsInstruction branch, String label) {
+		String[] operands = branch.getOperands().clone();
+		operands[operands.length - 1] = label;
+		return MipsInstruction.of(INVERTED.get(branch.getOpcode()), operands);
+	}
+
+	@Override
+	public Set<String> getReads(MipsInstruction instruction) {
+		switch (instruction.getOpcode()) {
+			case "jal":
+				return CALL_READS;
+			case "jr":
+				Set<String> reads = new HashSet<>(RETURN_READS);
+				reads.addAll(instruction.getReads());
+				return reads;
+			default:
+				return instruction.getReads();
+		}
+	}
+
+	@Override
+	public Set<String> getWrites(MipsInstruction instruction) {
+		return "jal".equals(instruction.getOpcode()) ? CALL_WRITES : instruction.getWrites();
+	}
+
+	/**
+	 * Only oak_fail reads registers (a0 to a3), the stack overflow handler doesn't read any.
+	 */
+	@Override
+	public boolean isLiveOutside(String label, String register) {
+		switch (label) {
+			case "oak_fail":
+				return register.matches("\\$a[0-3]");
+			case "oak_stack_overflow":
+				return false;
+			default:
+				return true;
+		}
+	}
+
+	private static boolean is(MipsInstruction instruction, String opcode) {
+		return !instruction.isLabel() && opcode.equals(instruction.getOpcode());
+	}
+
+	/**
+	 * Return the value of a constant loaded by addiu or ori or null.
+	 */
+	private static Integer getConstant(MipsInstruction instruction) {
+		if ((is(instruction, "addiu") || is(instruction, "ori")) && instruction.getOperand(1).equals("$zero")) {
+			return Integer.parseInt(instruction.getOperand(2));
+		}
+		return null;
+	}
+
+	/**
+	 * Removes moves of a register to itself (also in the form of additions of zero).
+	 */
+	static class SelfMove implements PeepholeRule<MipsInstruction> {
+
+		@Override
+		public String getName() {
+			return "self move";
+		}
+
+		@Override
+		public boolean apply(PeepholeOptimizer<MipsInstruction> optimizer, List<MipsInstruction> code, int index) {
+			MipsInstruction instruction = code.get(index);
+			if (instruction.isLabel() || instruction.isDelaySlot()) {
+				return false;
+			}
+			String[] operands = instruction.getOperands();
+			boolean self;
+			switch (instruction.getOpcode()) {
+				case "move":
+					self = operands[0].equals(operands[1]);
+					break;
+				case "addu":
+				case "or":
+					self = (operands[0].equals(operands[1]) && operands[2].equals("$zero"))
+							|| (operands[0].equals(operands[2]) && operands[1].equals("$zero"));
+					break;
+				case "addiu":
+				case "ori":
+				case "sll":
+					self = operands[0].equals(operands[1]) && operands[2].equals("0");
+					break;
+				default:
+					self = false;
+			}
+			if (self) {
+				code.remove(index);
+			}
+			return self;
+		}
+	}
+
+	/**
+	 * Replaces the load of a just stored value with a move and removes the store of a just loaded value.
+	 */
+	static class StoreLoad implements PeepholeRule<MipsInstruction> {
+
+		@Override
+		public String getName() {
+			return "store load";
+		}
+
+		@Override
+		public boolean apply(PeepholeOptimizer<MipsInstruction> optimizer, List<MipsInstruction> code, int index) {
+			if (index + 1 >= code.size()) {
+				return false;
+			}
+			MipsInstruction first = code.get(index);
+			MipsInstruction second = code.get(index + 1);
+			if (second.isDelaySlot() || second.isLabel() || first.isLabel()
+					|| !first.getOperand(first.getOperands().length - 1).equals(
+					second.getOperand(second.getOperands().length - 1))) {
+				return false;
+			}
+			if (is(first, "sw") && is(second, "lw")) {
+				if (first.getOperand(0).equals(second.getOperand(0))) {
+					code.remove(index + 1);
+				} else {
+					code.set(index + 1, MipsInstruction.of("move", second.getOperand(0), first.getOperand(0)));
+				}
+				return true;
+			}
+			if (is(first, "lw") && is(second, "sw") && first.getOperand(0).equals(second.getOperand(0))
+					&& !first.getOperand(1).endsWith("(" + first.getOperand(0) + ")")) {
+				code.remove(index + 1);
+				return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Lets instructions read the source of a move instead of its destination.
+	 */
+	static class CopyPropagation implements PeepholeRule<MipsInstruction> {
+
+		private static final Set<String> PARTIAL = new HashSet<>(Arrays.asList("lwl", "lwr", "movf", "movt"));
+
+		@Override
+		public String getName() {
+			return "copy propagation";
+		}
+
+		@Override
+		public boolean apply(PeepholeOptimizer<MipsInstruction> optimizer, List<MipsInstruction> code, int index) {
+			MipsInstruction instruction = code.get(index);
+			if (instruction.isLabel() || instruction.isControlTransfer() || "syscall".equals(instruction.getOpcode())
+					|| PARTIAL.contains(instruction.getOpcode())) {
+				return false;
+			}
+			for (String register : instruction.getReads()) {
+				int definition = optimizer.findDefinition(code, index, register);
+				if (definition < 0 || !is(code.get(definition), "move")) {
+					continue;
+				}
+				String source = code.get(definition).getOperand(1);
+				if (source.equals(register) || !optimizer.isUnchanged(code, definition, index, source)) {
+					continue;
+				}
+				code.set(index, replaceReads(instruction, register, source));
+				return true;
+			}
+			return false;
+		}
+
+		private static MipsInstruction replaceReads(MipsInstruction instruction, String register, String source) {
+			String[] operands = instruction.getOperands();
+			boolean writesFirst = instruction.getWrites().contains(operands[0]) || "$zero".equals(operands[0])
+					&& !instruction.getReads().contains(operands[0]);
+			for (int i = writesFirst ? 1 : 0; i < operands.length; i++) {
+				if (operands[i].equals(register)) {
+					instruction = instruction.withOperand(i, source);
+				} else if (operands[i].endsWith("(" + register + ")")) {
+					instruction = instruction.withOperand(i, operands[i].substring(0, operands[i].indexOf('(') + 1)
+							+ source + ")");
+				}
+			}
+			return instruction;
+		}
+	}
+
+	/**
+	 * Replaces multiplications by a power of two loaded into a register with a shift.
+	 */
+	static class StrengthReduction implements PeepholeRule<MipsInstruction> {
+
+		@Override
+		public String getName() {
+			return "strength reduction";
+		}
+
+		@Override
+		public boolean apply(PeepholeOptimizer<MipsInstruction> optimizer, List<MipsInstruction> code, int index) {
+			if (index + 1 >= code.size() || !is(code.get(index), "mult") || code.get(index).isDelaySlot()
+					|| !is(code.get(index + 1), "mflo") || code.get(index + 1).isDelaySlot()) {
+				return false;
+			}
+			MipsInstruction multiplication = code.get(index);
+			for (int operand = 0; operand < 2; operand++) {
+				String factor = multiplication.getOperand(operand);
+				String other = multiplication.getOperand(1 - operand);
+				int definition = optimizer.findDefinition(code, index, factor);
+				Integer constant = definition < 0 ? null : getConstant(code.get(definition));
+				if (constant == null || constant <= 0 || Integer.bitCount(constant) != 1 || other.equals(factor)
+						|| !optimizer.isDead(code, index + 1, "$hi") || !optimizer.isDead(code, index + 1, "$lo")) {
+					continue;
+				}
+				code.set(index, MipsInstruction.of("sll", code.get(index + 1).getOperand(0), other,
+						Integer.toString(Integer.numberOfTrailingZeros(constant))));
+				code.remove(index + 1);
+				return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Lets a branch on the to_bool result of an int (sltu with zero) branch on the int directly.
+	 */
+	static class ConditionFusion implements PeepholeRule<MipsInstruction> {
+
+		@Override
+		public String getName() {
+			return "condition fusion";
+		}
+
+		@Override
+		public boolean apply(PeepholeOptimizer<MipsInstruction> optimizer, List<MipsInstruction> code, int index) {
+			if (index + 1 >= code.size() || !is(code.get(index), "sltu") || code.get(index).isDelaySlot()
+					|| !code.get(index).getOperand(1).equals("$zero")) {
+				return false;
+			}
+			MipsInstruction branch = code.get(index + 1);
+			String condition = code.get(index).getOperand(0);
+			if (!(is(branch, "beq") || is(branch, "bne")) || !branch.getOperand(1).equals("$zero")
+					|| !branch.getOperand(0).equals(condition) || condition.equals("$zero")
+					|| optimizer.hasDelaySlot(code, index + 1) || !optimizer.isDead(code, index + 1, condition)) {
+				return false;
+			}
+			code.set(index + 1, branch.withOperand(0, code.get(index).getOperand(2)));
+			code.remove(index);
+			return true;
+		}
+	}
+
+	/**
+	 * Removes instructions without side effects whose results are never read.
+	 */
+	static class DeadCode implements PeepholeRule<MipsInstruction> {
+
+		@Override
+		public String getName() {
+			return "dead code";
+		}
+
+		@Override
+		public boolean apply(PeepholeOptimizer<MipsInstruction> optimizer, List<MipsInstruction> code, int index) {
+			MipsInstruction instruction = code.get(index);
+			if (instruction.isLabel() || instruction.isDelaySlot() || !PURE.contains(instruction.getOpcode())) {
+				return false;
+			}
+			for (String register : instruction.getWrites()) {
+				if (!optimizer.isDead(code, index, register)) {
+					return false;
+				}
+			}
+			code.remove(index);
+			return true;
+		}
+	}
+}
@@ -0,0 +1,958 @@
+package intothewoods.mips;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Simulator for the subset of the MARS / SPIM assembly that the MipsCompiler and its runtime use.
+ *
+ * Branches and jumps are delayed like on the hardware (and in MARS and SPIM with delayed branching
+ * enabled), memory is little endian and the system calls follow MARS (9 sbrk, 10 exit, 14 read,
+ * 15 write, 17 exit with a code). It counts the executed instructions, which makes it possible to
+ * compare the generated code without a MIPS machine.
+ */
+public class MipsSimulator {
+
+	static final int TEXT_BASE = 0x00400000;
+	static final int DATA_BASE = 0x10010000;
+	static final int HEAP_BASE = 0x10040000;
+	static final int GLOBAL_POINTER = 0x10008000;
+	static final int STACK_POINTER = 0x7fffeffc;
+
+	private static final int PAGE_BITS = 12;
+
+	private static final Map<String, Integer> REGISTERS = new HashMap<>();
+	private static final Map<String, Format> FORMATS = new HashMap<>();
+
+	private enum Format {
+		REGISTERS, SHIFT, SHIFT_VARIABLE, IMMEDIATE, UPPER, MEMORY, BRANCH, BRANCH_ZERO, JUMP, JUMP_REGISTER,
+		HI_LO, MOVE_FROM, MOVE_CONDITION, COPROCESSOR, FLOAT3, FLOAT2, COMPARE, FLOAT_BRANCH, NONE
+	}
+
+	static {
+		String[] names = {"$zero", "$at", "$v0", "$v1", "$a0", "$a1", "$a2", "$a3", "$t0", "$t1", "$t2", "$t3",
+				"$t4", "$t5", "$t6", "$t7", "$s0", "$s1", "$s2", "$s3", "$s4", "$s5", "$s6", "$s7", "$t8", "$t9",
+				"$k0", "$k1", "$gp", "$sp", "$fp", "$ra"};
+		for (int i = 0; i < names.length; i++) {
+			REGISTERS.put(names[i], i);
+			REGISTERS.put("$" + i, i);
+			REGISTERS.put("$f" + i, i);
+		}
+		REGISTERS.put("$s8", 30);
+		put(Format.REGISTERS, "addu", "subu", "and", "or", "xor", "nor", "slt", "sltu", "movn", "movz");
+		put(Format.SHIFT, "sll", "srl", "sra");
+		put(Format.SHIFT_VARIABLE, "sllv", "srlv", "srav");
+		put(Format.IMMEDIATE, "addiu", "andi", "ori", "xori", "slti", "sltiu");
+		put(Format.UPPER, "lui");
+		put(Format.MEMORY, "lw", "sw", "lb", "lbu", "sb", "lwl", "lwr", "swl", "swr");
+		put(Format.BRANCH, "beq", "bne");
+		put(Format.BRANCH_ZERO, "bltz", "bgez", "blez", "bgtz");
+		put(Format.JUMP, "j", "jal");
+		put(Format.JUMP_REGISTER, "jr");
+		put(Format.HI_LO, "mult", "multu", "div", "divu");
+		put(Format.MOVE_FROM, "mfhi", "mflo");
+		put(Format.MOVE_CONDITION, "movf", "movt");
+		put(Format.COPROCESSOR, "mtc1", "mfc1");
+		put(Format.FLOAT3, "add.s", "sub.s", "mul.s", "div.s", "add.d", "sub.d", "mul.d", "div.d");
+		put(Format.FLOAT2, "abs.s", "abs.d", "neg.s", "neg.d", "mov.s", "mov.d", "cvt.s.w", "cvt.w.s", "cvt.d.w",
+				"cvt.w.d", "cvt.d.s", "cvt.s.d", "trunc.w.s", "trunc.w.d", "floor.w.s", "floor.w.d", "round.w.s",
+				"round.w.d");
+		put(Format.COMPARE, "c.eq.s", "c.lt.s", "c.le.s", "c.eq.d", "c.lt.d", "c.le.d");
+		put(Format.FLOAT_BRANCH, "bc1t", "bc1f");
+		put(Format.NONE, "syscall");
+	}
+
+	private static void put(Format format, String... opcodes) {
+		for (String opcode : opcodes) {
+			FORMATS.put(opcode, format);
+		}
+	}
+
+	/**
+	 * Machine instruction, the operands are registers, immediates or instruction indices.
+	 */
+	private static class Instruction {
+
+		final String opcode;
+		final int first;
+		final int second;
+		final int third;
+		final int line;
+
+		Instruction(String opcode, int first, int second, int third, int line) {
+			this.opcode = opcode.intern();
+			this.first = first;
+			this.second = second;
+			this.third = third;
+			this.line = line;
+		}
+	}
+
+	private final Map<String, Integer> labels = new HashMap<>();
+	private final List<Instruction> text = new ArrayList<>();
+	private final Map<Integer, byte[]> pages = new HashMap<>();
+	private final int[] registers = new int[32];
+	private final int[] floatRegisters = new int[32];
+	private int hi;
+	private int lo;
+	private boolean condition;
+	private int heapEnd = HEAP_BASE;
+	private long instructionCount;
+	private int lastPageNumber = -1;
+	private byte[] lastPage;
+
+	/**
+	 * Assemble the given program.
+	 * @throws IllegalArgumentException if the assembly is malformed or uses unsupported instructions
+	 */
+	public MipsSimulator(String assembly) {
+		String[] lines = assembly.split("\n");
+		assemble(lines, false);
+		assemble(lines, true);
+	}
+
+	/**
+	 * Assemble the lines, the first pass only computes the addresses of the labels.
+	 */
+	private void assemble(String[] lines, boolean emit) {
+		boolean inText = true;
+		int textIndex = 0;
+		int dataAddress = DATA_BASE;
+		List<String> pendingLabels = new ArrayList<>();
+		for (int number = 1; number <= lines.length; number++) {
+			String line = stripComment(lines[number - 1]).trim();
+			int colon;
+			while ((colon = findLabelEnd(line)) > 0) {
+				String label = line.substring(0, colon).trim();
+				if (!emit) {
+					if (labels.containsKey(label)) {
+						throw error(number, "Duplicate label " + label);
+					}
+					if (inText) {
+						labels.put(label, TEXT_BASE + 4 * textIndex);
+					} else {
+						pendingLabels.add(label);
+					}
+				}
+				line = line.substring(colon + 1).trim();
+			}
+			if (line.isEmpty()) {
+				continue;
+			}
+			String opcode = line.split("\\s+", 2)[0];
+			String rest = line.substring(opcode.length()).trim();
+			if (opcode.startsWith(".")) {
+				switch (opcode) {
+					case ".text":
+						dataAddress = assignLabels(pendingLabels, dataAddress, 1);
+						inText = true;
+						continue;
+					case ".data":
+						inText = false;
+						continue;
+					case ".globl":
+						continue;
+					default:
+						if (inText) {
+							throw error(number, "Unsupported directive " + opcode + " in .text");
+						}
+						dataAddress = emitData(opcode, rest, dataAddress, pendingLabels, emit, number);
+				}
+			} else {
+				if (!inText) {
+					throw error(number, "Instruction in .data");
+				}
+				List<Instruction> instructions = parseInstruction(opcode, splitOperands(rest), emit, number);
+				if (emit) {
+					text.addAll(instructions);
+				}
+				textIndex += instructions.size();
+			}
+		}
+		assignLabels(pendingLabels, dataAddress, 1);
+	}
+
+	private static String stripComment(String line) {
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (c == '"' && (i == 0 || line.charAt(i - 1) != '\\')) {
+				quoted = !quoted;
+			} else if (c == '#' && !quoted) {
+				return line.substring(0, i);
+			}
+		}
+		return line;
+	}
+
+	private static int findLabelEnd(String line) {
+		int colon = line.indexOf(':');
+		if (colon <= 0 || line.indexOf('"') >= 0 && line.indexOf('"') < colon) {
+			return -1;
+		}
+		return line.substring(0, colon).trim().matches("[A-Za-z_.$][A-Za-z0-9_.$]*") ? colon : -1;
+	}
+
+	private int assignLabels(List<String> pendingLabels, int address, int alignment) {
+		address = (address + alignment - 1) & -alignment;
+		for (String label : pendingLabels) {
+			labels.put(label, address);
+		}
+		pendingLabels.clear();
+		return address;
+	}
+
+	private int emitData(String directive, String rest, int address, List<String> pendingLabels, boolean emit,
+	                     int number) {
+		switch (directive) {
+			case ".align":
+				return assignLabels(pendingLabels, address, 1 << parseInt(rest, number));
+			case ".space":
+				address = assignLabels(pendingLabels, address, 1);
+				return address + parseInt(rest, number);
+			case ".word":
+			case ".byte": {
+				int size = directive.equals(".word") ? 4 : 1;
+				address = assignLabels(pendingLabels, address, size);
+				for (String operand : splitOperands(rest)) {
+					if (emit) {
+						int value = labels.containsKey(operand) ? labels.get(operand) : parseInt(operand, number);
+						for (int i = 0; i < size; i++) {
+							storeByte(address + i, value >> (8 * i));
+						}
+					}
+					address += size;
+				}
+				return address;
+			}
+			case ".ascii":
+			case ".asciiz": {
+				address = assignLabels(pendingLabels, address, 1);
+				byte[] bytes = parseString(rest, number);
+				if (emit) {
+					for (int i = 0; i < bytes.length; i++) {
+						storeByte(address + i, bytes[i]);
+					}
+				}
+				return address + bytes.length + (directive.equals(".asciiz") ? 1 : 0);
+			}
+			default:
+				throw error(number, "Unsupported directive " + directive);
+		}
+	}
+
+	private static byte[] parseString(String literal, int number) {
+		if (literal.length() < 2 || !literal.startsWith("\"") || !literal.endsWith("\"")) {
+			throw error(number, "Invalid string " + literal);
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		for (int i = 1; i < literal.length() - 1; i++) {
+			char c = literal.charAt(i);
+			if (c == '\\') {
+				c = literal.charAt(++i);
+				switch (c) {
+					case 'n':
+						c = '\n';
+						break;
+					case 't':
+						c = '\t';
+						break;
+					case '0':
+						c = '\0';
+						break;
+				}
+			}
+			bytes.write(c);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static List<String> splitOperands(String operands) {
+		List<String> result = new ArrayList<>();
+		if (operands.isEmpty()) {
+			return result;
+		}
+		for (String operand : operands.split(",")) {
+			result.add(operand.trim());
+		}
+		return result;
+	}
+
+	private List<Instruction> parseInstruction(String opcode, List<String> operands, boolean emit, int number) {
+		List<Instruction> result = new ArrayList<>(2);
+		switch (opcode) {
+			case "nop":
+				checkOperands(operands, 0, number);
+				result.add(new Instruction("sll", 0, 0, 0, number));
+				return result;
+			case "move":
+				checkOperands(operands, 2, number);
+				result.add(new Instruction("addu", register(operands.get(0), number), register(operands.get(1), number),
+						0, number));
+				return result;
+			case "la": {
+				checkOperands(operands, 2, number);
+				int target = register(operands.get(0), number);
+				int address = emit ? address(operands.get(1), number) : 0;
+				result.add(new Instruction("lui", target, address >>> 16, 0, number));
+				result.add(new Instruction("ori", target, target, address & 0xffff, number));
+				return result;
+			}
+		}
+		Format format = FORMATS.get(opcode);
+		if (format == null) {
+			throw error(number, "Unsupported instruction " + opcode);
+		}
+		int first = 0;
+		int second = 0;
+		int third = 0;
+		switch (format) {
+			case REGISTERS:
+			case FLOAT3:
+				checkOperands(operands, 3, number);
+				first = register(operands.get(0), number);
+				second = register(operands.get(1), number);
+				third = register(operands.get(2), number);
+				break;
+			case SHIFT:
+			case IMMEDIATE:
+				checkOperands(operands, 3, number);
+				first = register(operands.get(0), number);
+				second = register(operands.get(1), number);
+				third = parseInt(operands.get(2), number);
+				break;
+			case SHIFT_VARIABLE:
+				checkOperands(operands, 3, number);
+				first = register(operands.get(0), number);
+				second = register(operands.get(1), number);
+				third = register(operands.get(2), number);
+				break;
+			case UPPER:
+				checkOperands(operands, 2, number);
+				first = register(operands.get(0), number);
+				second = parseInt(operands.get(1), number);
+				break;
+			case MEMORY: {
+				checkOperands(operands, 2, number);
+				first = register(operands.get(0), number);
+				String memory = operands.get(1);
+				int open = memory.indexOf('(');
+				if (open < 0 || !memory.endsWith(")")) {
+					throw error(number, "Invalid memory operand " + memory);
+				}
+				third = open == 0 ? 0 : parseInt(memory.substring(0, open), number);
+				second = register(memory.substring(open + 1, memory.length() - 1), number);
+				break;
+			}
+			case BRANCH:
+				checkOperands(operands, 3, number);
+				first = register(operands.get(0), number);
+				second = register(operands.get(1), number);
+				third = emit ? textIndex(operands.get(2), number) : 0;
+				break;
+			case BRANCH_ZERO:
+				checkOperands(operands, 2, number);
+				first = register(operands.get(0), number);
+				third = emit ? textIndex(operands.get(1), number) : 0;
+				break;
+			case JUMP:
+			case FLOAT_BRANCH:
+				checkOperands(operands, 1, number);
+				third = emit ? textIndex(operands.get(0), number) : 0;
+				break;
+			case JUMP_REGISTER:
+			case MOVE_FROM:
+				checkOperands(operands, 1, number);
+				first = register(operands.get(0), number);
+				break;
+			case MOVE_CONDITION:
+				if (operands.size() == 3 && operands.get(2).equals("0")) {
+					operands = operands.subList(0, 2);
+				}
+				checkOperands(operands, 2, number);
+				first = register(operands.get(0), number);
+				second = register(operands.get(1), number);
+				break;
+			case HI_LO:
+			case COPROCESSOR:
+			case FLOAT2:
+			case COMPARE:
+				checkOperands(operands, 2, number);
+				first = register(operands.get(0), number);
+				second = register(operands.get(1), number);
+				break;
+			case NONE:
+				checkOperands(operands, 0, number);
+				break;
+		}
+		result.add(new Instruction(opcode, first, second, third, number));
+		return result;
+	}
+
+	private static void checkOperands(List<String> operands, int count, int number) {
+		if (operands.size() != count) {
+			throw error(number, "Expected " + count + " operands");
+		}
+	}
+
+	private static int register(String name, int number) {
+		Integer register = REGISTERS.get(name);
+		if (register == null) {
+			throw error(number, "Unknown register " + name);
+		}
+		return register;
+	}
+
+	private static int parseInt(String value, int number) {
+		try {
+			boolean negative = value.startsWith("-");
+			String digits = negative ? value.substring(1) : value;
+			long result = digits.startsWith("0x") ? Long.parseLong(digits.substring(2), 16) : Long.parseLong(digits);
+			return (int) (negative ? -result : result);
+		} catch (NumberFormatException ex) {
+			throw error(number, "Invalid number " + value);
+		}
+	}
+
+	private int address(String label, int number) {
+		Integer address = labels.get(label);
+		if (address == null) {
+			throw error(number, "Unknown label " + label);
+		}
+		return address;
+	}
+
+	private int textIndex(String label, int number) {
+		int address = address(label, number);
+		if (address < TEXT_BASE || address >= DATA_BASE) {
+			throw error(number, label + " is not a label in .text");
+		}
+		return (address - TEXT_BASE) / 4;
+	}
+
+	private static IllegalArgumentException error(int number, String message) {
+		return new IllegalArgumentException("Line " + number + ": " + message);
+	}
+
+	/**
+	 * Run the program, starting at main (or at the first instruction), until it exits.
+	 * A simulator runs its program only once.
+	 * @return exit code
+	 * @throws IllegalStateException if the program accesses invalid memory or jumps out of the code
+	 */
+	public int run(InputStream input, OutputStream output, OutputStream error) throws IOException {
+		registers[29] = STACK_POINTER;
+		registers[28] = GLOBAL_POINTER;
+		int pc = labels.containsKey("main") ? textIndex("main", 0) : 0;
+		int next = pc + 1;
+		int[] r = registers;
+		while (true) {
+			if (pc < 0 || pc >= text.size()) {
+				throw new IllegalStateException(String.format("Jump to 0x%08x outside of the code", TEXT_BASE + 4 * pc));
+			}
+			Instruction instruction = text.get(pc);
+			instructionCount++;
+			int following = next + 1;
+			int a = instruction.first;
+			int b = instruction.second;
+			int c = instruction.third;
+			try {
+				switch (instruction.opcode) {
+					case "addu":
+						set(a, r[b] + r[c]);
+						break;
+					case "subu":
+						set(a, r[b] - r[c]);
+						break;
+					case "and":
+						set(a, r[b] & r[c]);
+						break;
+					case "or":
+						set(a, r[b] | r[c]);
+						break;
+					case "xor":
+						set(a, r[b] ^ r[c]);
+						break;
+					case "nor":
+						set(a, ~(r[b] | r[c]));
+						break;
+					case "slt":
+						set(a, r[b] < r[c] ? 1 : 0);
+						break;
+					case "sltu":
+						set(a, (r[b] ^ Integer.MIN_VALUE) < (r[c] ^ Integer.MIN_VALUE) ? 1 : 0);
+						break;
+					case "movn":
+						if (r[c] != 0) {
+							set(a, r[b]);
+						}
+						break;
+					case "movz":
+						if (r[c] == 0) {
+							set(a, r[b]);
+						}
+						break;
+					case "sll":
+						set(a, r[b] << c);
+						break;
+					case "srl":
+						set(a, r[b] >>> c);
+						break;
+					case "sra":
+						set(a, r[b] >> c);
+						break;
+					case "sllv":
+						set(a, r[b] << r[c]);
+						break;
+					case "srlv":
+						set(a, r[b] >>> r[c]);
+						break;
+					case "srav":
+						set(a, r[b] >> r[c]);
+						break;
+					case "addiu":
+						set(a, r[b] + (short) c);
+						break;
+					case "andi":
+						set(a, r[b] & (c & 0xffff));
+						break;
+					case "ori":
+						set(a, r[b] | (c & 0xffff));
+						break;
+					case "xori":
+						set(a, r[b] ^ (c & 0xffff));
+						break;
+					case "slti":
+						set(a, r[b] < (short) c ? 1 : 0);
+						break;
+					case "sltiu":
+						set(a, (r[b] ^ Integer.MIN_VALUE) < ((short) c ^ Integer.MIN_VALUE) ? 1 : 0);
+						break;
+					case "lui":
+						set(a, b << 16);
+						break;
+					case "lw":
+						set(a, loadWord(r[b] + c));
+						break;
+					case "lb":
+						set(a, loadByte(r[b] + c));
+						break;
+					case "lbu":
+						set(a, loadByte(r[b] + c) & 0xff);
+						break;
+					case "lwr": {
+						int address = r[b] + c;
+						int value = r[a];
+						for (int i = 0; i <= 3 - (address & 3); i++) {
+							value = (value & ~(0xff << (8 * i))) | ((loadByte(address + i) & 0xff) << (8 * i));
+						}
+						set(a, value);
+						break;
+					}
+					case "lwl": {
+						int address = r[b] + c;
+						int value = r[a];
+						for (int i = 0; i <= (address & 3); i++) {
+							value = (value & ~(0xff << (8 * (3 - i)))) | ((loadByte(address - i) & 0xff) << (8 * (3 - i)));
+						}
+						set(a, value);
+						break;
+					}
+					case "sw":
+						storeWord(r[b] + c, r[a]);
+						break;
+					case "sb":
+						storeByte(r[b] + c, r[a]);
+						break;
+					case "swr": {
+						int address = r[b] + c;
+						for (int i = 0; i <= 3 - (address & 3); i++) {
+							storeByte(address + i, r[a] >> (8 * i));
+						}
+						break;
+					}
+					case "swl": {
+						int address = r[b] + c;
+						for (int i = 0; i <= (address & 3); i++) {
+							storeByte(address - i, r[a] >> (8 * (3 - i)));
+						}
+						break;
+					}
+					case "beq":
+						if (r[a] == r[b]) {
+							following = c;
+						}
+						break;
+					case "bne":
+						if (r[a] != r[b]) {
+							following = c;
+						}
+						break;
+					case "bltz":
+						if (r[a] < 0) {
+							following = c;
+						}
+						break;
+					case "bgez":
+						if (r[a] >= 0) {
+							following = c;
+						}
+						break;
+					case "blez":
+						if (r[a] <= 0) {
+							following = c;
+						}
+						break;
+					case "bgtz":
+						if (r[a] > 0) {
+							following = c;
+						}
+						break;
+					case "j":
+						following = c;
+						break;
+					case "jal":
+						r[31] = TEXT_BASE + 4 * (pc + 2);
+						following = c;
+						break;
+					case "jr":
+						if ((r[a] & 3) != 0) {
+							throw new IllegalStateException(String.format("Unaligned jump to 0x%08x", r[a]));
+						}
+						following = (r[a] - TEXT_BASE) >> 2;
+						break;
+					case "mult": {
+						long product = (long) r[a] * r[b];
+						lo = (int) product;
+						hi = (int) (product >> 32);
+						break;
+					}
+					case "multu": {
+						long product = (r[a] & 0xffffffffL) * (r[b] & 0xffffffffL);
+						lo = (int) product;
+						hi = (int) (product >> 32);
+						break;
+					}
+					case "div":
+						if (r[b] != 0) {
+							lo = r[a] / r[b];
+							hi = r[a] % r[b];
+						}
+						break;
+					case "divu":
+						if (r[b] != 0) {
+							lo = (int) ((r[a] & 0xffffffffL) / (r[b] & 0xffffffffL));
+							hi = (int) ((r[a] & 0xffffffffL) % (r[b] & 0xffffffffL));
+						}
+						break;
+					case "mfhi":
+						set(a, hi);
+						break;
+					case "mflo":
+						set(a, lo);
+						break;
+					case "movf":
+						if (!condition) {
+							set(a, r[b]);
+						}
+						break;
+					case "movt":
+						if (condition) {
+							set(a, r[b]);
+						}
+						break;
+					case "mtc1":
+						floatRegisters[b] = r[a];
+						break;
+					case "mfc1":
+						set(a, floatRegisters[b]);
+						break;
+					case "bc1t":
+						if (condition) {
+							following = c;
+						}
+						break;
+					case "bc1f":
+						if (!condition) {
+							following = c;
+						}
+						break;
+					case "syscall": {
+						Integer exitCode = syscall(input, output, error);
+						if (exitCode != null) {
+							output.flush();
+							error.flush();
+							return exitCode;
+						}
+						break;
+					}
+					default:
+						executeFloat(instruction);
+				}
+			} catch (IllegalStateException ex) {
+				throw new IllegalStateException("Line " + instruction.line + ": " + ex.getMessage(), ex);
+			}
+			pc = next;
+			next = following;
+		}
+	}
+
+	private void set(int register, int value) {
+		if (register != 0) {
+			registers[register] = value;
+		}
+	}
+
+	private void executeFloat(Instruction instruction) {
+		int a = instruction.first;
+		int b = instruction.second;
+		int c = instruction.third;
+		switch (instruction.opcode) {
+			case "add.s":
+				setFloat(a, getFloat(b) + getFloat(c));
+				break;
+			case "sub.s":
+				setFloat(a, getFloat(b) - getFloat(c));
+				break;
+			case "mul.s":
+				setFloat(a, getFloat(b) * getFloat(c));
+				break;
+			case "div.s":
+				setFloat(a, getFloat(b) / getFloat(c));
+				break;
+			case "add.d":
+				setDouble(a, getDouble(b) + getDouble(c));
+				break;
+			case "sub.d":
+				setDouble(a, getDouble(b) - getDouble(c));
+				break;
+			case "mul.d":
+				setDouble(a, getDouble(b) * getDouble(c));
+				break;
+			case "div.d":
+				setDouble(a, getDouble(b) / getDouble(c));
+				break;
+			case "abs.s":
+				floatRegisters[a] = floatRegisters[b] & Integer.MAX_VALUE;
+				break;
+			case "abs.d":
+				setDouble(a, Math.abs(getDouble(b)));
+				break;
+			case "neg.s":
+				floatRegisters[a] = floatRegisters[b] ^ Integer.MIN_VALUE;
+				break;
+			case "neg.d":
+				setDouble(a, -getDouble(b));
+				break;
+			case "mov.s":
+				floatRegisters[a] = floatRegisters[b];
+				break;
+			case "mov.d":
+				floatRegisters[a] = floatRegisters[b];
+				floatRegisters[a + 1] = floatRegisters[b + 1];
+				break;
+			case "cvt.s.w":
+				setFloat(a, (float) floatRegisters[b]);
+				break;
+			case "cvt.d.w":
+				setDouble(a, floatRegisters[b]);
+				break;
+			case "cvt.d.s":
+				setDouble(a, getFloat(b));
+				break;
+			case "cvt.s.d":
+				setFloat(a, (float) getDouble(b));
+				break;
+			case "cvt.w.s":
+			case "trunc.w.s":
+				floatRegisters[a] = (int) getFloat(b);
+				break;
+			case "cvt.w.d":
+			case "trunc.w.d":
+				floatRegisters[a] = (int) getDouble(b);
+				break;
+			case "floor.w.s":
+				floatRegisters[a] = (int) Math.floor(getFloat(b));
+				break;
+			case "floor.w.d":
+				floatRegisters[a] = (int) Math.floor(getDouble(b));
+				break;
+			case "round.w.s":
+				floatRegisters[a] = (int) Math.rint(getFloat(b));
+				break;
+			case "round.w.d":
+				floatRegisters[a] = (int) Math.rint(getDouble(b));
+				break;
+			case "c.eq.s":
+				condition = getFloat(a) == getFloat(b);
+				break;
+			case "c.lt.s":
+				condition = getFloat(a) < getFloat(b);
+				break;
+			case "c.le.s":
+				condition = getFloat(a) <= getFloat(b);
+				break;
+			case "c.eq.d":
+				condition = getDouble(a) == getDouble(b);
+				break;
+			case "c.lt.d":
+				condition = getDouble(a) < getDouble(b);
+				break;
+			case "c.le.d":
+				condition = getDouble(a) <= getDouble(b);
+				break;
+			default:
+				throw new IllegalStateException("Unknown instruction " + instruction.opcode);
+		}
+	}
+
+	private float getFloat(int register) {
+		return Float.intBitsToFloat(floatRegisters[register]);
+	}
+
+	private void setFloat(int register, float value) {
+		floatRegisters[register] = Float.floatToRawIntBits(value);
+	}
+
+	/**
+	 * Return the double in the given register pair, the even register holds the low word.
+	 */
+	private double getDouble(int register) {
+		return Double.longBitsToDouble(((long) floatRegisters[register + 1] << 32)
+				| (floatRegisters[register] & 0xffffffffL));
+	}
+
+	private void setDouble(int register, double value) {
+		long bits = Double.doubleToRawLongBits(value);
+		floatRegisters[register] = (int) bits;
+		floatRegisters[register + 1] = (int) (bits >> 32);
+	}
+
+	/**
+	 * Execute a system call.
+	 * @return exit code if the program exits, else null
+	 */
+	private Integer syscall(InputStream input, OutputStream output, OutputStream error) throws IOException {
+		int[] r = registers;
+		switch (r[2]) {
+			case 9:
+				if (r[4] < 0) {
+					throw new IllegalStateException("Negative sbrk size " + r[4]);
+				}
+				r[2] = heapEnd;
+				heapEnd += (r[4] + 3) & ~3;
+				return null;
+			case 10:
+				return 0;
+			case 14: {
+				if (r[4] != 0) {
+					throw new IllegalStateException("Can only read from standard input, not from " + r[4]);
+				}
+				byte[] buffer = new byte[Math.max(r[6], 0)];
+				int count = buffer.length == 0 ? 0 : input.read(buffer);
+				for (int i = 0; i < count; i++) {
+					storeByte(r[5] + i, buffer[i]);
+				}
+				r[2] = Math.max(count, 0);
+				return null;
+			}
+			case 15: {
+				if (r[4] != 1 && r[4] != 2) {
+					throw new IllegalStateException("Can only write to standard output and error, not to " + r[4]);
+				}
+				byte[] buffer = new byte[Math.max(r[6], 0)];
+				for (int i = 0; i < buffer.length; i++) {
+					buffer[i] = loadByte(r[5] + i);
+				}
+				(r[4] == 1 ? output : error).write(buffer);
+				r[2] = buffer.length;
+				return null;
+			}
+			case 17:
+				return r[4];
+			default:
+				throw new IllegalStateException("Unsupported system call " + r[2]);
+		}
+	}
+
+	private byte[] getPage(int address) {
+		int pageNumber = address >>> PAGE_BITS;
+		if (pageNumber != lastPageNumber) {
+			byte[] page = pages.get(pageNumber);
+			if (page == null) {
+				if (address < DATA_BASE) {
+					throw new IllegalStateException(String.format("Access of invalid address 0x%08x", address));
+				}
+				page = new byte[1 << PAGE_BITS];
+				pages.put(pageNumber, page);
+			}
+			lastPageNumber = pageNumber;
+			lastPage = page;
+		}
+		return lastPage;
+	}
+
+	private byte loadByte(int address) {
+		return getPage(address)[address & ((1 << PAGE_BITS) - 1)];
+	}
+
+	private void storeByte(int address, int value) {
+		getPage(address)[address & ((1 << PAGE_BITS) - 1)] = (byte) value;
+	}
+
+	private int loadWord(int address) {
+		checkAlignment(address);
+		byte[] page = getPage(address);
+		int offset = address & ((1 << PAGE_BITS) - 1);
+		return (page[offset] & 0xff) | (page[offset + 1] & 0xff) << 8 | (page[offset + 2] & 0xff) << 16
+				| page[offset + 3] << 24;
+	}
+
+	private void storeWord(int address, int value) {
+		checkAlignment(address);
+		byte[] page = getPage(address);
+		int offset = address & ((1 << PAGE_BITS) - 1);
+		page[offset] = (byte) value;
+		page[offset + 1] = (byte) (value >> 8);
+		page[offset + 2] = (byte) (value >> 16);
+		page[offset + 3] = (byte) (value >> 24);
+	}
+
+	private static void checkAlignment(int address) {
+		if ((address & 3) != 0) {
+			throw new IllegalStateException(String.format("Unaligned word access at 0x%08x", address));
+		}
+	}
+
+	/**
+	 * Return the number of executed instructions.
+	 */
+	public long getInstructionCount() {
+		return instructionCount;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1) {
+			System.err.println("Usage: intothewoods.mips.MipsSimulator FILE");
+			System.exit(1);
+		}
+		MipsSimulator simulator = new MipsSimulator(new String(Files.readAllBytes(Paths.get(args[0])),
+				StandardCharsets.UTF_8));
+		int exitCode = simulator.run(new FileInputStream(FileDescriptor.in), new FileOutputStream(FileDescriptor.out),
+				new FileOutputStream(FileDescriptor.err));
+		System.err.println("Executed " + simulator.getInstructionCount() + " instructions");
+		System.exit(exitCode);
+	}
+}
@@ -0,0 +1,288 @@
+package intothewoods.optimizer;
+
+import intothewoods.common.Builtin;
+import intothewoods.ir.IRFunction;
+import intothewoods.ir.IROpcode;
+import intothewoods.ir.IntList;
+import intothewoods.runtime.OakRuntime;
+import intothewoods.runtime.OakRuntimeException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Sparse conditional constant propagation (Wegman and Zadeck).
+ *
+ * Values start as unknown and only become constant or varying, blocks and edges only become executable
+ * when a branch can take them. Calls of pure built in functions with constant arguments are evaluated with
+ * OakRuntime.evaluate, so the folded results match the runtime exactly (wrapping arithmetic, NaN handling).
+ * Calls that would fail (e.g. a division by zero) aren't folded, they still fail at runtime.
+ *
+ * Afterwards constant values are replaced by constants, branches with constant conditions become jumps
+ * and the blocks that aren't executable anymore are removed.
+ */
+public class ConstantPropagation implements FunctionPass {
+
+	private static final byte UNKNOWN = 0;
+	private static final byte CONSTANT = 1;
+	private static final byte VARYING = 2;
+
+	@Override
+	public String getName() {
+		return "sccp";
+	}
+
+	@Override
+	public boolean run(IRFunction function) {
+		Solver solver = new Solver(function);
+		solver.solve();
+		return solver.rewrite();
+	}
+
+	private static class Solver {
+
+		private final IRFunction function;
+		private final byte[] states;
+		private final long[] values;
+		private final boolean[] executableBlocks;
+		private final List<boolean[]> executableEdges = new ArrayList<>();
+		private final IntList[] users;
+		private final IntList blockList = new IntList();
+		private final IntList valueList = new IntList();
+
+		Solver(IRFunction function) {
+			this.function = function;
+			int size = function.getValueCount();
+			states = new byte[size];
+			values = new long[size];
+			users = new IntList[size];
+			for (int value = 0; value < size; value++) {
+				if (function.getOpcode(value) == IROpcode.CONST) {
+					states[value] = CONSTANT;
+					values[value] = function.getConstant(value);
+				} else if (function.getOpcode(value) == IROpcode.STRING) {
+					states[value] = VARYING;
+				}
+			}
+			executableBlocks = new boolean[function.getBlockCount()];
+			for (int block = 0; block < function.getBlockCount(); block++) {
+				executableEdges.add(new boolean[function.getPredecessors(block).size()]);
+				IntList instructions = function.getInstructions(block);
+				for (int i = 0; i < instructions.size(); i++) {
+					int instruction = instructions.get(i);
+					for (int j = 0; j < function.getOperandCount(instruction); j++) {
+						int operand = function.getOperand(instruction, j);
+						if (users[operand] == null) {
+							users[operand] = new IntList(2);
+						}
+						users[operand].add(instruction);
+					}
+				}
+			}
+		}
+
+		void solve() {
+			markBlock(0);
+			while (!blockList.isEmpty() || !valueList.isEmpty()) {
+				while (!valueList.isEmpty()) {
+					IntList valueUsers = users[valueList.removeAt(valueList.size() - 1)];
+					for (int i = 0; valueUsers != null && i < valueUsers.size(); i++) {
+						int user = valueUsers.get(i);
+						if (executableBlocks[function.getBlock(user)]) {
+							visit(user);
+						}
+					}
+				}
+				if (!blockList.isEmpty()) {
+					IntList instructions = function.getInstructions(blockList.removeAt(blockList.size() - 1));
+					for (int i = 0; i < instructions.size(); i++) {
+						visit(instructions.get(i));
+					}
+				}
+			}
+		}
+
+		private void markBlock(int block) {
+			executableBlocks[block] = true;
+			blockList.add(block);
+		}
+
+		private void markEdge(int from, int to) {
+			IntList predecessors = function.getPredecessors(to);
+			boolean[] edges = executableEdges.get(to);
+			boolean added = false;
+			for (int i = 0; i < edges.length; i++) {
+				if (predecessors.get(i) == from && !edges[i]) {
+					edges[i] = true;
+					added = true;
+				}
+			}
+			if (!added) {
+				return;
+			}
+			if (!executableBlocks[to]) {
+				markBlock(to);
+			} else {
+				IntList instructions = function.getInstructions(to);
+				for (int i = 0; i < instructions.size() && function.getOpcode(instructions.get(i)) == IROpcode.PHI; i++) {
+					visit(instructions.get(i));
+				}
+			}
+		}
+
+		private void visit(int instruction) {
+			int block = function.getBlock(instruction);
+			switch (function.getOpcode(instruction)) {
+				case IROpcode.PHI:
+					visitPhi(block, instruction);
+					break;
+				case IROpcode.BUILTIN:
+					visitBuiltin(instruction);
+					break;
+				case IROpcode.COPY:
+					int operand = function.getFirst(instruction);
+					set(instruction, states[operand], values[operand]);
+					break;
+				case IROpcode.JUMP:
+					markEdge(block, function.getFirst(instruction));
+					break;
+				case IROpcode.BRANCH:
+					int condition = function.getFirst(instruction);
+					if (states[condition] == CONSTANT) {
+						markEdge(block, values[condition] != 0 ? function.getSecond(instruction)
+								: function.getThird(instruction));
+					} else if (states[condition] == VARYING) {
+						markEdge(block, function.getSecond(instruction));
+						markEdge(block, function.getThird(instruction));
+					}
+					break;
+				case IROpcode.RETURN:
+				case IROpcode.STORE_GLOBAL:
+					break;
+				default:
+					set(instruction, VARYING, 0);
+			}
+		}
+
+		private void visitPhi(int block, int phi) {
+			boolean[] edges = executableEdges.get(block);
+			byte state = UNKNOWN;
+			long value = 0;
+			for (int i = 0; i < edges.length && state != VARYING; i++) {
+				if (!edges[i]) {
+					continue;
+				}
+				int operand = function.getOperand(phi, i);
+				if (states[operand] == VARYING || (states[operand] == CONSTANT && state == CONSTANT
+						&& values[operand] != value)) {
+					state = VARYING;
+				} else if (states[operand] == CONSTANT) {
+					state = CONSTANT;
+					value = values[operand];
+				}
+			}
+			set(phi, state, value);
+		}
+
+		private void visitBuiltin(int instruction) {
+			Builtin builtin = function.getBuiltin(instruction);
+			if (!builtin.isPure()) {
+				set(instruction, VARYING, 0);
+				return;
+			}
+			int first = function.getFirst(instruction);
+			int second = function.getSecond(instruction);
+			byte firstState = first == IRFunction.NONE ? CONSTANT : states[first];
+			byte secondState = second == IRFunction.NONE ? CONSTANT : states[second];
+			if (firstState != CONSTANT || secondState != CONSTANT) {
+				if (isAbsorbing(builtin, first, firstState) || isAbsorbing(builtin, second, secondState)) {
+					set(instruction, CONSTANT, builtin == Builtin.OR ? 1 : 0);
+				} else if (firstState == VARYING || secondState == VARYING) {
+					set(instruction, VARYING, 0);
+				}
+				return;
+			}
+			try {
+				set(instruction, CONSTANT, OakRuntime.evaluate(builtin,
+						first == IRFunction.NONE ? 0 : values[first], second == IRFunction.NONE ? 0 : values[second]));
+			} catch (OakRuntimeException ex) {
+				set(instruction, VARYING, 0);
+			}
+		}
+
+		/**
+		 * Checks whether the operand determines the result of the call alone (e.g. false for and).
+		 */
+		private boolean isAbsorbing(Builtin builtin, int operand, byte state) {
+			if (state != CONSTANT || operand == IRFunction.NONE) {
+				return false;
+			}
+			switch (builtin) {
+				case AND:
+				case MUL_BYTE:
+				case MUL_INT:
+					return values[operand] == 0;
+				case OR:
+					return values[operand] == 1;
+				default:
+					return false;
+			}
+		}
+
+		private void set(int value, byte state, long constant) {
+			if (state == UNKNOWN || states[value] == VARYING
+					|| (states[value] == CONSTANT && state == CONSTANT && values[value] == constant)) {
+				return;
+			}
+			if (states[value] == CONSTANT) {
+				state = VARYING;
+			}
+			states[value] = state;
+			values[value] = constant;
+			valueList.add(value);
+		}
+
+		boolean rewrite() {
+			IntList folded = new IntList();
+			for (int block = 0; block < executableBlocks.length; block++) {
+				IntList instructions = function.getInstructions(block);
+				for (int i = 0; executableBlocks[block] && i < instructions.size(); i++) {
+					int instruction = instructions.get(i);
+					int opcode = function.getOpcode(instruction);
+					if (states[instruction] == CONSTANT && (opcode == IROpcode.PHI || opcode == IROpcode.BUILTIN
+							|| opcode == IROpcode.COPY)) {
+						folded.add(instruction);
+					}
+				}
+			}
+			int[] constants = new int[folded.size()];
+			for (int i = 0; i < constants.length; i++) {
+				int value = folded.get(i);
+				constants[i] = function.constant(function.getType(value), values[value]);
+			}
+			int[] replacements = new int[function.getValueCount()];
+			Arrays.fill(replacements, IRFunction.NONE);
+			for (int i = 0; i < constants.length; i++) {
+				replacements[folded.get(i)] = constants[i];
+			}
+			function.replaceAllUses(replacements);
+			for (int i = 0; i < folded.size(); i++) {
+				function.remove(folded.get(i));
+			}
+			boolean changed = !folded.isEmpty();
+			for (int block = 0; block < executableBlocks.length; block++) {
+				int terminator = function.getTerminator(block);
+				if (executableBlocks[block] && function.getOpcode(terminator) == IROpcode.BRANCH
+						&& function.isConstant(function.getFirst(terminator))) {
+					function.foldBranch(block, function.getConstant(function.getFirst(terminator)) != 0);
+					changed = true;
+				}
+			}
+			changed |= function.removeUnreachableBlocks();
+			changed |= function.removeTrivialPhis();
+			changed |= function.mergeBlocks();
+			return changed;
+		}
+	}
+}
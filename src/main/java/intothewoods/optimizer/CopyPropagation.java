@@ -0,0 +1,203 @@
+package intothewoods.optimizer;
+
+import intothewoods.ir.IRFunction;
+import intothewoods.ir.IROpcode;
+import intothewoods.ir.IntList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Removes copies of values, so that every use refers to the instruction computing the value.
+ *
+ * The ret_TYPE variables need no copies in SSA form, the builder already binds the call result to the
+ * assigned variable. What remains are copies (explicit ones and phis that only merge a single value, e.g.
+ * cycles of phis created by nested loops that don't change a variable) and round trips through globals:
+ * a global load after a store or load of the same global in the same block without a call in between
+ * is replaced by the stored or loaded value, a store overwritten by such a store is removed.
+ * The remaining phi copies are coalesced when leaving SSA form (see Coalescing).
+ */
+public class CopyPropagation implements FunctionPass {
+
+	@Override
+	public String getName() {
+		return "copy";
+	}
+
+	@Override
+	public boolean run(IRFunction function) {
+		int[] replacements = new int[function.getValueCount()];
+		Arrays.fill(replacements, IRFunction.NONE);
+		boolean changed = false;
+		for (int block = 0; block < function.getBlockCount(); block++) {
+			changed |= forwardGlobals(function, block, replacements);
+			IntList instructions = function.getInstructions(block);
+			for (int i = 0; i < instructions.size(); i++) {
+				int instruction = instructions.get(i);
+				if (function.getOpcode(instruction) == IROpcode.COPY) {
+					replacements[instruction] = function.getFirst(instruction);
+					function.remove(instruction);
+					i--;
+					changed = true;
+				}
+			}
+		}
+		if (changed) {
+			function.replaceAllUses(replacements);
+		}
+		changed |= removeRedundantPhis(function);
+		return changed;
+	}
+
+	private boolean forwardGlobals(IRFunction function, int block, int[] replacements) {
+		int[] values = new int[0];
+		int[] stores = new int[0];
+		boolean changed = false;
+		IntList instructions = function.getInstructions(block);
+		for (int i = 0; i < instructions.size(); i++) {
+			int instruction = instructions.get(i);
+			switch (function.getOpcode(instruction)) {
+				case IROpcode.LOAD_GLOBAL:
+				case IROpcode.STORE_GLOBAL:
+					int global = function.getThird(instruction);
+					if (global >= values.length) {
+						int length = values.length;
+						values = Arrays.copyOf(values, global + 1);
+						stores = Arrays.copyOf(stores, global + 1);
+						Arrays.fill(values, length, values.length, IRFunction.NONE);
+						Arrays.fill(stores, length, stores.length, IRFunction.NONE);
+					}
+					if (function.getOpcode(instruction) == IROpcode.STORE_GLOBAL) {
+						if (stores[global] != IRFunction.NONE) {
+							function.remove(stores[global]);
+							i--;
+							changed = true;
+						}
+						values[global] = function.getFirst(instruction);
+						stores[global] = instruction;
+					} else if (values[global] != IRFunction.NONE) {
+						replacements[instruction] = values[global];
+						function.remove(instruction);
+						i--;
+						changed = true;
+					} else {
+						values[global] = instruction;
+					}
+					break;
+				case IROpcode.CALL:
+					Arrays.fill(values, IRFunction.NONE);
+					Arrays.fill(stores, IRFunction.NONE);
+					break;
+				default:
+					break;
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Replace strongly connected components of phis that merge only a single value from outside
+	 * the component by this value (Braun et al.: Simple and Efficient Construction of SSA Form).
+	 */
+	private boolean removeRedundantPhis(IRFunction function) {
+		boolean changed = function.removeTrivialPhis();
+		IntList phis = new IntList();
+		for (int block = 0; block < function.getBlockCount(); block++) {
+			IntList instructions = function.getInstructions(block);
+			for (int i = 0; i < instructions.size() && function.getOpcode(instructions.get(i)) == IROpcode.PHI; i++) {
+				phis.add(instructions.get(i));
+			}
+		}
+		int[] replacements = new int[function.getValueCount()];
+		Arrays.fill(replacements, IRFunction.NONE);
+		boolean replaced = false;
+		for (IntList component : new PhiComponents(function, phis).components) {
+			if (component.size() < 2) {
+				continue;
+			}
+			int outside = IRFunction.NONE;
+			boolean redundant = true;
+			for (int i = 0; i < component.size() && redundant; i++) {
+				int phi = component.get(i);
+				for (int j = 0; j < function.getOperandCount(phi); j++) {
+					int operand = function.getOperand(phi, j);
+					if (component.contains(operand) || operand == outside) {
+						continue;
+					}
+					redundant = outside == IRFunction.NONE;
+					outside = operand;
+				}
+			}
+			if (redundant && outside != IRFunction.NONE) {
+				for (int i = 0; i < component.size(); i++) {
+					replacements[component.get(i)] = outside;
+				}
+				replaced = true;
+			}
+		}
+		if (replaced) {
+			function.replaceAllUses(replacements);
+			for (int value = 0; value < replacements.length; value++) {
+				if (replacements[value] != IRFunction.NONE) {
+					function.remove(value);
+				}
+			}
+		}
+		return changed | replaced;
+	}
+
+	/**
+	 * Strongly connected components (Tarjan) of the graph of phis and their phi operands.
+	 */
+	private static class PhiComponents {
+
+		private final IRFunction function;
+		private final int[] indices;
+		private final int[] lowLinks;
+		private final boolean[] onStack;
+		private final IntList stack = new IntList();
+		private final List<IntList> components = new ArrayList<>();
+		private int index = 1;
+
+		PhiComponents(IRFunction function, IntList phis) {
+			this.function = function;
+			indices = new int[function.getValueCount()];
+			lowLinks = new int[function.getValueCount()];
+			onStack = new boolean[function.getValueCount()];
+			for (int i = 0; i < phis.size(); i++) {
+				if (indices[phis.get(i)] == 0) {
+					visit(phis.get(i));
+				}
+			}
+		}
+
+		private void visit(int phi) {
+			indices[phi] = lowLinks[phi] = index++;
+			stack.add(phi);
+			onStack[phi] = true;
+			for (int i = 0; i < function.getOperandCount(phi); i++) {
+				int operand = function.getOperand(phi, i);
+				if (function.getOpcode(operand) != IROpcode.PHI || function.getBlock(operand) == IRFunction.NONE) {
+					continue;
+				}
+				if (indices[operand] == 0) {
+					visit(operand);
+					lowLinks[phi] = Math.min(lowLinks[phi], lowLinks[operand]);
+				} else if (onStack[operand]) {
+					lowLinks[phi] = Math.min(lowLinks[phi], indices[operand]);
+				}
+			}
+			if (lowLinks[phi] == indices[phi]) {
+				IntList component = new IntList();
+				int member;
+				do {
+					member = stack.removeAt(stack.size() - 1);
+					onStack[member] = false;
+					component.add(member);
+				} while (member != phi);
+				components.add(component);
+			}
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package intothewoods.optimizer;
+
+import intothewoods.ir.IRFunction;
+import intothewoods.ir.IntList;
+
+/**
+ * Removes the instructions whose values are never used and that have no side effects.
+ *
+ * Instructions with side effects (calls, stores, impure or failing built in functions and terminators)
+ * are live, every operand of a live instruction is live. Everything else is removed, which includes
+ * unused values of ret_TYPE variables and cycles of phis that only use each other.
+ */
+public class DeadCodeElimination implements FunctionPass {
+
+	@Override
+	public String getName() {
+		return "dce";
+	}
+
+	@Override
+	public boolean run(IRFunction function) {
+		boolean[] live = new boolean[function.getValueCount()];
+		IntList worklist = new IntList();
+		for (int block = 0; block < function.getBlockCount(); block++) {
+			IntList instructions = function.getInstructions(block);
+			for (int i = 0; i < instructions.size(); i++) {
+				int instruction = instructions.get(i);
+				if (!function.isPure(instruction)) {
+					live[instruction] = true;
+					worklist.add(instruction);
+				}
+			}
+		}
+		while (!worklist.isEmpty()) {
+			int instruction = worklist.removeAt(worklist.size() - 1);
+			for (int i = 0; i < function.getOperandCount(instruction); i++) {
+				int operand = function.getOperand(instruction, i);
+				if (!live[operand]) {
+					live[operand] = true;
+					worklist.add(operand);
+				}
+			}
+		}
+		IntList dead = new IntList();
+		for (int block = 0; block < function.getBlockCount(); block++) {
+			IntList instructions = function.getInstructions(block);
+			for (int i = 0; i < instructions.size(); i++) {
+				if (!live[instructions.get(i)]) {
+					dead.add(instructions.get(i));
+				}
+			}
+		}
+		for (int i = 0; i < dead.size(); i++) {
+			function.remove(dead.get(i));
+		}
+		return !dead.isEmpty();
+	}
+}
@@ -0,0 +1,423 @@
+package intothewoods.optimizer;
+
+import intothewoods.common.Builtin;
+import intothewoods.common.Type;
+import intothewoods.ir.IRFunction;
+import intothewoods.ir.IROpcode;
+import intothewoods.ir.IntList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds malloc calls with a constant size whose pointer doesn't escape the function and replaces them
+ * by cheaper storage.
+ *
+ * A pointer doesn't escape if it (and every pointer derived from it with add) is only used to access
+ * memory (get_TYPE and set_TYPE), to compute mem_size and to free it. Everything else (passing it to
+ * a function, storing it, returning it, merging it in a phi, comparing it, ...) lets it escape.
+ * get_ref has no instruction of its own, it yields the pointer to the cell of the variable, which
+ * escapes if this pointer is used otherwise. Allocations aren't optimized if their memory could be
+ * accessed after a free.
+ *
+ * If all accesses have constant offsets within the memory area and don't overlap, every accessed
+ * offset becomes a variable in SSA form and the allocation vanishes (scalar replacement, fresh memory
+ * is zeroed). Other non escaping allocations up to MAX_STACK_SIZE bytes are flagged with STACK,
+ * the back ends allocate them in the stack frame.
+ */
+public class EscapeAnalysis implements FunctionPass {
+
+	public static final int MAX_STACK_SIZE = 1024;
+
+	private static final int UNKNOWN = -1;
+
+	/**
+	 * Non escaping memory area and the instructions using it.
+	 */
+	private static class Allocation {
+
+		private final int malloc;
+		private final int size;
+		private final IntList addresses = new IntList();
+		private final IntList offsets = new IntList();
+		private final IntList accesses = new IntList();
+		private final IntList frees = new IntList();
+		private final IntList sizes = new IntList();
+		private boolean scalar = true;
+
+		Allocation(int malloc, int size) {
+			this.malloc = malloc;
+			this.size = size;
+			addresses.add(malloc);
+			offsets.add(0);
+		}
+
+		int getOffset(int address) {
+			return offsets.get(addresses.indexOf(address));
+		}
+
+		boolean isRelated(int instruction) {
+			return (instruction != malloc && addresses.contains(instruction)) || accesses.contains(instruction)
+					|| frees.contains(instruction) || sizes.contains(instruction);
+		}
+	}
+
+	@Override
+	public String getName() {
+		return "escape";
+	}
+
+	@Override
+	public boolean run(IRFunction function) {
+		boolean changed = function.removeUnreachableBlocks();
+		IntList mallocs = new IntList();
+		for (int block = 0; block < function.getBlockCount(); block++) {
+			IntList instructions = function.getInstructions(block);
+			for (int i = 0; i < instructions.size(); i++) {
+				int instruction = instructions.get(i);
+				if (function.getOpcode(instruction) == IROpcode.BUILTIN && function.getBuiltin(instruction) == Builtin.MALLOC
+						&& function.isConstant(function.getFirst(instruction))
+						&& function.getConstant(function.getFirst(instruction)) > 0
+						&& !function.hasFlag(instruction, IRFunction.STACK)) {
+					mallocs.add(instruction);
+				}
+			}
+		}
+		for (int i = 0; i < mallocs.size(); i++) {
+			Allocation allocation = analyse(function, computeUsers(function), mallocs.get(i));
+			if (allocation == null || !isFreedLast(function, allocation)) {
+				continue;
+			}
+			if (allocation.scalar) {
+				replaceByScalars(function, allocation);
+				changed = true;
+			} else if (allocation.size <= MAX_STACK_SIZE) {
+				function.setFlag(allocation.malloc, IRFunction.STACK);
+				foldSizes(function, allocation);
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	private static List<IntList> computeUsers(IRFunction function) {
+		List<IntList> users = new ArrayList<>(function.getValueCount());
+		for (int value = 0; value < function.getValueCount(); value++) {
+			users.add(null);
+		}
+		for (int block = 0; block < function.getBlockCount(); block++) {
+			IntList instructions = function.getInstructions(block);
+			for (int i = 0; i < instructions.size(); i++) {
+				int instruction = instructions.get(i);
+				for (int j = 0; j < function.getOperandCount(instruction); j++) {
+					int operand = function.getOperand(instruction, j);
+					if (users.get(operand) == null) {
+						users.set(operand, new IntList(2));
+					}
+					if (!users.get(operand).contains(instruction)) {
+						users.get(operand).add(instruction);
+					}
+				}
+			}
+		}
+		return users;
+	}
+
+	/**
+	 * Collect the instructions using the memory area of the given malloc.
+	 * @return allocation or null if the pointer escapes
+	 */
+	private static Allocation analyse(IRFunction function, List<IntList> users, int malloc) {
+		Allocation allocation = new Allocation(malloc, (int) function.getConstant(function.getFirst(malloc)));
+		for (int i = 0; i < allocation.addresses.size(); i++) {
+			int address = allocation.addresses.get(i);
+			int offset = allocation.offsets.get(i);
+			IntList addressUsers = users.get(address);
+			for (int j = 0; addressUsers != null && j < addressUsers.size(); j++) {
+				int user = addressUsers.get(j);
+				if (function.getOpcode(user) != IROpcode.BUILTIN) {
+					return null;
+				}
+				Builtin builtin = function.getBuiltin(user);
+				switch (builtin) {
+					case ADD_POINTER:
+						if (function.getFirst(user) != address) {
+							return null;
+						}
+						int newOffset = UNKNOWN;
+						int increment = function.getSecond(user);
+						if (offset != UNKNOWN && function.isConstant(increment)) {
+							long constant = function.getConstant(increment);
+							if (constant < 0 || constant > allocation.size - offset) {
+								return null;
+							}
+							newOffset = offset + (int) constant;
+						}
+						allocation.addresses.add(user);
+						allocation.offsets.add(newOffset);
+						break;
+					case GET_BOOL:
+					case GET_BYTE:
+					case GET_INT:
+					case GET_FLOAT:
+					case GET_POINTER:
+					case GET_STRING:
+						addAccess(allocation, user, offset, builtin.getReturnType());
+						break;
+					case SET_BOOL:
+					case SET_BYTE:
+					case SET_INT:
+					case SET_FLOAT:
+					case SET_POINTER:
+					case SET_STRING:
+						if (function.getSecond(user) == address) {
+							return null;
+						}
+						addAccess(allocation, user, offset, builtin.getParameterTypes().get(1));
+						break;
+					case FREE:
+						if (address != malloc) {
+							return null;
+						}
+						allocation.frees.add(user);
+						break;
+					case MEM_SIZE:
+						allocation.sizes.add(user);
+						break;
+					default:
+						return null;
+				}
+			}
+		}
+		if (allocation.scalar) {
+			allocation.scalar = haveDisjointFields(function, allocation);
+		}
+		return allocation;
+	}
+
+	private static void addAccess(Allocation allocation, int access, int offset, Type type) {
+		allocation.accesses.add(access);
+		if (offset == UNKNOWN || allocation.size - offset < type.getSize()) {
+			allocation.scalar = false;
+		}
+	}
+
+	/**
+	 * Checks that accesses at the same offset have the same type and accesses at different offsets
+	 * don't overlap.
+	 */
+	private static boolean haveDisjointFields(IRFunction function, Allocation allocation) {
+		Type[] types = new Type[allocation.size];
+		for (int i = 0; i < allocation.accesses.size(); i++) {
+			int access = allocation.accesses.get(i);
+			int offset = allocation.getOffset(function.getFirst(access));
+			Type type = getAccessType(function, access);
+			if (types[offset] == type) {
+				continue;
+			}
+			if (types[offset] != null) {
+				return false;
+			}
+			types[offset] = type;
+		}
+		int end = 0;
+		for (int offset = 0; offset < types.length; offset++) {
+			if (types[offset] != null) {
+				if (offset < end) {
+					return false;
+				}
+				end = offset + types[offset].getSize();
+			}
+		}
+		return true;
+	}
+
+	private static Type getAccessType(IRFunction function, int access) {
+		Builtin builtin = function.getBuiltin(access);
+		return builtin.getReturnType() == Type.VOID ? builtin.getParameterTypes().get(1) : builtin.getReturnType();
+	}
+
+	/**
+	 * Checks that no instruction using the memory area can be executed after one of its frees
+	 * (without allocating a new area with the malloc first).
+	 */
+	private static boolean isFreedLast(IRFunction function, Allocation allocation) {
+		int mallocBlock = function.getBlock(allocation.malloc);
+		for (int i = 0; i < allocation.frees.size(); i++) {
+			int free = allocation.frees.get(i);
+			int block = function.getBlock(free);
+			IntList instructions = function.getInstructions(block);
+			for (int j = instructions.indexOf(free) + 1; j < instructions.size(); j++) {
+				if (allocation.isRelated(instructions.get(j))) {
+					return false;
+				}
+			}
+			boolean[] visited = new boolean[function.getBlockCount()];
+			IntList worklist = new IntList();
+			worklist.add(block);
+			while (!worklist.isEmpty()) {
+				int current = worklist.removeAt(worklist.size() - 1);
+				for (int j = 0; j < function.getSuccessorCount(current); j++) {
+					int successor = function.getSuccessor(current, j);
+					if (visited[successor] || successor == mallocBlock) {
+						continue;
+					}
+					visited[successor] = true;
+					IntList successorInstructions = function.getInstructions(successor);
+					for (int k = 0; k < successorInstructions.size(); k++) {
+						if (allocation.isRelated(successorInstructions.get(k))) {
+							return false;
+						}
+					}
+					worklist.add(successor);
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Replace mem_size calls with a constant offset by their result.
+	 */
+	private static void foldSizes(IRFunction function, Allocation allocation) {
+		for (int i = 0; i < allocation.sizes.size(); i++) {
+			int memSize = allocation.sizes.get(i);
+			int offset = allocation.getOffset(function.getFirst(memSize));
+			if (offset != UNKNOWN) {
+				function.replaceAllUses(memSize, function.constant(Type.INT, allocation.size - offset));
+				function.remove(memSize);
+			}
+		}
+	}
+
+	private static void replaceByScalars(IRFunction function, Allocation allocation) {
+		foldSizes(function, allocation);
+		new ScalarReplacement(function, allocation).run();
+		for (int i = 0; i < allocation.accesses.size(); i++) {
+			function.remove(allocation.accesses.get(i));
+		}
+		for (int i = 0; i < allocation.frees.size(); i++) {
+			function.remove(allocation.frees.get(i));
+		}
+		for (int i = allocation.addresses.size() - 1; i >= 0; i--) {
+			function.remove(allocation.addresses.get(i));
+		}
+		function.removeTrivialPhis();
+	}
+
+	/**
+	 * Constructs the SSA form of the fields of an allocation: a get_TYPE is replaced by the value of the
+	 * last preceding set_TYPE of its field, phis are inserted where the values of several blocks meet.
+	 */
+	private static class ScalarReplacement {
+
+		private final IRFunction function;
+		private final Allocation allocation;
+		private final int mallocBlock;
+		private final int[] fields;
+		private final Type[] types;
+		private final int[][] lastDefinitions;
+		private final int[][] startDefinitions;
+
+		ScalarReplacement(IRFunction function, Allocation allocation) {
+			this.function = function;
+			this.allocation = allocation;
+			mallocBlock = function.getBlock(allocation.malloc);
+			fields = new int[allocation.size];
+			Arrays.fill(fields, IRFunction.NONE);
+			List<Type> fieldTypes = new ArrayList<>();
+			for (int i = 0; i < allocation.accesses.size(); i++) {
+				int offset = getOffset(allocation.accesses.get(i));
+				if (fields[offset] == IRFunction.NONE) {
+					fields[offset] = fieldTypes.size();
+					fieldTypes.add(getAccessType(function, allocation.accesses.get(i)));
+				}
+			}
+			types = fieldTypes.toArray(new Type[fieldTypes.size()]);
+			lastDefinitions = new int[types.length][function.getBlockCount()];
+			startDefinitions = new int[types.length][function.getBlockCount()];
+			for (int field = 0; field < types.length; field++) {
+				Arrays.fill(lastDefinitions[field], IRFunction.NONE);
+				Arrays.fill(startDefinitions[field], IRFunction.NONE);
+				lastDefinitions[field][mallocBlock] = function.constant(types[field], 0);
+			}
+		}
+
+		private int getOffset(int access) {
+			return allocation.getOffset(function.getFirst(access));
+		}
+
+		void run() {
+			for (int block = 0; block < function.getBlockCount(); block++) {
+				IntList instructions = function.getInstructions(block);
+				for (int i = 0; i < instructions.size(); i++) {
+					int instruction = instructions.get(i);
+					if (isSet(instruction)) {
+						lastDefinitions[fields[getOffset(instruction)]][block] = function.getSecond(instruction);
+					}
+				}
+			}
+			IntList gets = new IntList();
+			IntList values = new IntList();
+			for (int block = 0; block < function.getBlockCount(); block++) {
+				int[] current = new int[types.length];
+				Arrays.fill(current, IRFunction.NONE);
+				IntList instructions = function.getInstructions(block);
+				for (int i = 0; i < instructions.size(); i++) {
+					int instruction = instructions.get(i);
+					if (instruction == allocation.malloc) {
+						for (int field = 0; field < types.length; field++) {
+							current[field] = function.constant(types[field], 0);
+						}
+					} else if (isSet(instruction)) {
+						current[fields[getOffset(instruction)]] = function.getSecond(instruction);
+					} else if (allocation.accesses.contains(instruction)) {
+						int field = fields[getOffset(instruction)];
+						if (current[field] == IRFunction.NONE) {
+							current[field] = readStart(field, block);
+						}
+						gets.add(instruction);
+						values.add(current[field]);
+					}
+				}
+			}
+			int[] replacements = new int[function.getValueCount()];
+			Arrays.fill(replacements, IRFunction.NONE);
+			for (int i = 0; i < gets.size(); i++) {
+				replacements[gets.get(i)] = values.get(i);
+			}
+			function.replaceAllUses(replacements);
+		}
+
+		private boolean isSet(int instruction) {
+			return allocation.accesses.contains(instruction) && function.getBuiltin(instruction).getReturnType() == Type.VOID;
+		}
+
+		private int readEnd(int field, int block) {
+			if (lastDefinitions[field][block] != IRFunction.NONE) {
+				return lastDefinitions[field][block];
+			}
+			return readStart(field, block);
+		}
+
+		private int readStart(int field, int block) {
+			if (startDefinitions[field][block] != IRFunction.NONE) {
+				return startDefinitions[field][block];
+			}
+			IntList predecessors = function.getPredecessors(block);
+			if (predecessors.size() == 1) {
+				startDefinitions[field][block] = readEnd(field, predecessors.get(0));
+				return startDefinitions[field][block];
+			}
+			int phi = function.phi(block, types[field]);
+			startDefinitions[field][block] = phi;
+			int[] operands = new int[predecessors.size()];
+			for (int i = 0; i < operands.length; i++) {
+				operands[i] = readEnd(field, predecessors.get(i));
+			}
+			function.setPhiOperands(phi, operands);
+			return phi;
+		}
+	}
+}
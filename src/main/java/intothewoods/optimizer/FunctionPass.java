@@ -0,0 +1,22 @@
+package intothewoods.optimizer;
+
+import intothewoods.ir.IRFunction;
+
+/**
+ * Optimization working on a single function in SSA form.
+ *
+ * Passes don't keep state between runs, so that they can optimize several functions in parallel.
+ */
+public interface FunctionPass {
+
+	/**
+	 * Return the short name of the pass, used in timing reports.
+	 */
+	String getName();
+
+	/**
+	 * Optimize the given function, the result has to pass the IRVerifier.
+	 * @return true if the function changed
+	 */
+	boolean run(IRFunction function);
+}
@@ -0,0 +1,320 @@
+package intothewoods.optimizer;
+
+import intothewoods.common.Builtin;
+import intothewoods.common.Type;
+import intothewoods.ir.Dominators;
+import intothewoods.ir.IRFunction;
+import intothewoods.ir.IROpcode;
+import intothewoods.ir.IntList;
+import intothewoods.ir.Loops;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Recognizes the basic induction variables of loops (header phis that are incremented by a constant
+ * in every iteration, e.g. with add i 1) and optimizes them.
+ *
+ * The usual Oak loop computes its condition (less i n) before the loop and again at the end of the body,
+ * the header branches on a phi of both. If the compared values are the induction variable and a loop
+ * invariant bound, the condition is computed in the header instead, which turns the loop into a counted
+ * loop (see findCountedLoops) and makes the old comparisons dead. Multiplications of an induction
+ * variable by a constant are replaced by an additional induction variable (strength reduction).
+ */
+public class InductionVariables implements FunctionPass {
+
+	/**
+	 * Basic induction variable: phi = init before the first iteration, phi + step after each iteration.
+	 */
+	public static class InductionVariable {
+
+		private final int phi;
+		private final int init;
+		private final int update;
+		private final int step;
+
+		InductionVariable(int phi, int init, int update, int step) {
+			this.phi = phi;
+			this.init = init;
+			this.update = update;
+			this.step = step;
+		}
+
+		public int getPhi() {
+			return phi;
+		}
+
+		public int getInit() {
+			return init;
+		}
+
+		/**
+		 * Return the add (or sub) computing the value for the next iteration.
+		 */
+		public int getUpdate() {
+			return update;
+		}
+
+		public int getStep() {
+			return step;
+		}
+	}
+
+	/**
+	 * Loop whose header checks an induction variable against a loop invariant bound (less i n or
+	 * less n i) and leaves the loop if the check fails.
+	 */
+	public static class CountedLoop {
+
+		private final int header;
+		private final int preheader;
+		private final InductionVariable variable;
+		private final int condition;
+		private final int bound;
+
+		CountedLoop(int header, int preheader, InductionVariable variable, int condition, int bound) {
+			this.header = header;
+			this.preheader = preheader;
+			this.variable = variable;
+			this.condition = condition;
+			this.bound = bound;
+		}
+
+		public int getHeader() {
+			return header;
+		}
+
+		public int getPreheader() {
+			return preheader;
+		}
+
+		public InductionVariable getVariable() {
+			return variable;
+		}
+
+		/**
+		 * Return the less_int instruction in the header.
+		 */
+		public int getCondition() {
+			return condition;
+		}
+
+		public int getBound() {
+			return bound;
+		}
+
+		/**
+		 * Checks whether the condition is less i n (and not less n i).
+		 */
+		public boolean isUpperBound(IRFunction function) {
+			return function.getFirst(condition) == variable.getPhi();
+		}
+	}
+
+	@Override
+	public String getName() {
+		return "iv";
+	}
+
+	@Override
+	public boolean run(IRFunction function) {
+		boolean changed = LoopInvariantCodeMotion.insertPreheaders(function);
+		if (changed) {
+			function.removeUnreachableBlocks();
+		}
+		Dominators dominators = new Dominators(function);
+		for (Loops.Loop loop : new Loops(function, dominators).getLoops()) {
+			int preheader = Loops.getPreheader(function, loop);
+			if (preheader == IRFunction.NONE || loop.getLatches().size() != 1) {
+				continue;
+			}
+			List<InductionVariable> variables = findInductionVariables(function, loop, preheader);
+			changed |= canonicalizeCondition(function, loop, preheader, variables);
+			for (InductionVariable variable : variables) {
+				changed |= reduceStrength(function, loop, preheader, variable);
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Find the basic induction variables of a loop with a preheader and a single latch.
+	 */
+	public static List<InductionVariable> findInductionVariables(IRFunction function, Loops.Loop loop,
+	                                                             int preheader) {
+		List<InductionVariable> variables = new ArrayList<>();
+		IntList predecessors = function.getPredecessors(loop.getHeader());
+		if (predecessors.size() != 2 || loop.getLatches().size() != 1) {
+			return variables;
+		}
+		int entry = predecessors.indexOf(preheader);
+		IntList instructions = function.getInstructions(loop.getHeader());
+		for (int i = 0; i < instructions.size() && function.getOpcode(instructions.get(i)) == IROpcode.PHI; i++) {
+			int phi = instructions.get(i);
+			int update = function.getOperand(phi, 1 - entry);
+			if (function.getType(phi) != Type.INT || function.getOpcode(update) != IROpcode.BUILTIN
+					|| !loop.contains(function.getBlock(update))) {
+				continue;
+			}
+			Builtin builtin = function.getBuiltin(update);
+			int first = function.getFirst(update);
+			int second = function.getSecond(update);
+			if (builtin == Builtin.ADD_INT && first == phi && function.isConstant(second)) {
+				variables.add(new InductionVariable(phi, function.getOperand(phi, entry), update,
+						(int) function.getConstant(second)));
+			} else if (builtin == Builtin.ADD_INT && second == phi && function.isConstant(first)) {
+				variables.add(new InductionVariable(phi, function.getOperand(phi, entry), update,
+						(int) function.getConstant(first)));
+			} else if (builtin == Builtin.SUB_INT && first == phi && function.isConstant(second)) {
+				variables.add(new InductionVariable(phi, function.getOperand(phi, entry), update,
+						-(int) function.getConstant(second)));
+			}
+		}
+		return variables;
+	}
+
+	/**
+	 * Find the counted loops of the given function.
+	 */
+	public static List<CountedLoop> findCountedLoops(IRFunction function) {
+		List<CountedLoop> countedLoops = new ArrayList<>();
+		for (Loops.Loop loop : new Loops(function, new Dominators(function)).getLoops()) {
+			int preheader = Loops.getPreheader(function, loop);
+			int terminator = function.getTerminator(loop.getHeader());
+			if (preheader == IRFunction.NONE || function.getOpcode(terminator) != IROpcode.BRANCH
+					|| !loop.contains(function.getSecond(terminator)) || loop.contains(function.getThird(terminator))) {
+				continue;
+			}
+			int condition = function.getFirst(terminator);
+			if (function.getOpcode(condition) != IROpcode.BUILTIN || function.getBuiltin(condition) != Builtin.LESS_INT
+					|| function.getBlock(condition) != loop.getHeader()) {
+				continue;
+			}
+			for (InductionVariable variable : findInductionVariables(function, loop, preheader)) {
+				int first = function.getFirst(condition);
+				int second = function.getSecond(condition);
+				if (first == variable.getPhi() && !loop.contains(function.getBlock(second))) {
+					countedLoops.add(new CountedLoop(loop.getHeader(), preheader, variable, condition, second));
+				} else if (second == variable.getPhi() && !loop.contains(function.getBlock(first))) {
+					countedLoops.add(new CountedLoop(loop.getHeader(), preheader, variable, condition, first));
+				}
+			}
+		}
+		return countedLoops;
+	}
+
+	/**
+	 * Replace a header phi of less i n (before the loop) and less i' n (at the end of the body, i' being
+	 * the next value of i) by less i n in the header.
+	 */
+	private boolean canonicalizeCondition(IRFunction function, Loops.Loop loop, int preheader,
+	                                      List<InductionVariable> variables) {
+		int header = loop.getHeader();
+		int terminator = function.getTerminator(header);
+		if (variables.isEmpty() || function.getOpcode(terminator) != IROpcode.BRANCH) {
+			return false;
+		}
+		int condition = function.getFirst(terminator);
+		if (function.getOpcode(condition) != IROpcode.PHI || function.getBlock(condition) != header) {
+			return false;
+		}
+		int entry = function.getPredecessors(header).indexOf(preheader);
+		int before = function.getOperand(condition, entry);
+		int after = function.getOperand(condition, 1 - entry);
+		if (!isLess(function, before) || !isLess(function, after)) {
+			return false;
+		}
+		for (InductionVariable variable : variables) {
+			int first;
+			int second;
+			if (function.getFirst(before) == variable.getInit() && function.getFirst(after) == variable.getUpdate()
+					&& function.getSecond(before) == function.getSecond(after)) {
+				first = variable.getPhi();
+				second = function.getSecond(after);
+			} else if (function.getSecond(before) == variable.getInit()
+					&& function.getSecond(after) == variable.getUpdate()
+					&& function.getFirst(before) == function.getFirst(after)) {
+				first = function.getFirst(after);
+				second = variable.getPhi();
+			} else {
+				continue;
+			}
+			if (loop.contains(function.getBlock(first == variable.getPhi() ? second : first))) {
+				continue;
+			}
+			int less = function.builtin(IRFunction.NONE, Builtin.LESS_INT, first, second, function.getLine(after));
+			function.insert(header, countPhis(function, header), less);
+			function.replaceAllUses(condition, less);
+			function.remove(condition);
+			return true;
+		}
+		return false;
+	}
+
+	private static boolean isLess(IRFunction function, int value) {
+		return function.getOpcode(value) == IROpcode.BUILTIN && function.getBuiltin(value) == Builtin.LESS_INT;
+	}
+
+	private static int countPhis(IRFunction function, int block) {
+		IntList instructions = function.getInstructions(block);
+		int count = 0;
+		while (count < instructions.size() && function.getOpcode(instructions.get(count)) == IROpcode.PHI) {
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Replace mul i k (k being a constant) by a new induction variable j = init * k, j + step * k.
+	 */
+	private boolean reduceStrength(IRFunction function, Loops.Loop loop, int preheader, InductionVariable variable) {
+		IntList multiplications = new IntList();
+		IntList blocks = loop.getBlocks();
+		for (int i = 0; i < blocks.size(); i++) {
+			IntList instructions = function.getInstructions(blocks.get(i));
+			for (int j = 0; j < instructions.size(); j++) {
+				int instruction = instructions.get(j);
+				if (function.getOpcode(instruction) == IROpcode.BUILTIN && function.getBuiltin(instruction) == Builtin.MUL_INT
+						&& getFactor(function, instruction, variable) != IRFunction.NONE) {
+					multiplications.add(instruction);
+				}
+			}
+		}
+		int header = loop.getHeader();
+		int entry = function.getPredecessors(header).indexOf(preheader);
+		for (int i = 0; i < multiplications.size(); i++) {
+			int multiplication = multiplications.get(i);
+			int factor = getFactor(function, multiplication, variable);
+			int line = function.getLine(multiplication);
+			int init = function.builtin(IRFunction.NONE, Builtin.MUL_INT, variable.getInit(), factor, line);
+			function.insert(preheader, function.getInstructions(preheader).size() - 1, init);
+			int phi = function.phi(header, Type.INT);
+			int step = function.constant(Type.INT, variable.getStep() * (int) function.getConstant(factor));
+			int update = function.builtin(IRFunction.NONE, Builtin.ADD_INT, phi, step, line);
+			int updateBlock = function.getBlock(variable.getUpdate());
+			function.insert(updateBlock, function.getInstructions(updateBlock).indexOf(variable.getUpdate()) + 1, update);
+			int[] operands = new int[2];
+			operands[entry] = init;
+			operands[1 - entry] = update;
+			function.setPhiOperands(phi, operands);
+			function.replaceAllUses(multiplication, phi);
+			function.remove(multiplication);
+		}
+		return !multiplications.isEmpty();
+	}
+
+	/**
+	 * Return the constant factor of mul i k or mul k i (i being the given variable) or NONE.
+	 */
+	private static int getFactor(IRFunction function, int multiplication, InductionVariable variable) {
+		int first = function.getFirst(multiplication);
+		int second = function.getSecond(multiplication);
+		if (first == variable.getPhi() && function.isConstant(second)) {
+			return second;
+		}
+		if (second == variable.getPhi() && function.isConstant(first)) {
+			return first;
+		}
+		return IRFunction.NONE;
+	}
+}
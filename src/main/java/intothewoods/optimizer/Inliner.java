@@ -0,0 +1,291 @@
+package intothewoods.optimizer;
+
+import intothewoods.analyser.Function;
+import intothewoods.common.Type;
+import intothewoods.interpreter.Profiler;
+import intothewoods.ir.IRFunction;
+import intothewoods.ir.IROpcode;
+import intothewoods.ir.IRProgram;
+import intothewoods.ir.IntList;
+import intothewoods.runtime.OakRuntime;
+
+import java.util.Arrays;
+
+/**
+ * Inlines calls of small user defined functions.
+ *
+ * A callee is inlined if its size (number of instructions) is within the budget and it doesn't call
+ * itself. With an execution profile, the budget of functions that were called at least HOT_CALLS times
+ * is multiplied by HOT_FACTOR, calls in functions that were never called (and of such functions) only
+ * get a quarter of the budget.
+ * The functions are processed bottom up in the call graph, so that callees are already optimized,
+ * inlining into a function stops when it reaches the maximum function size.
+ *
+ * The inlined body jumps to the instructions after the call, the return values of its returns are
+ * merged with a phi (they are the values of the ret_TYPE variable after the call).
+ */
+public class Inliner implements ProgramPass {
+
+	public static final int DEFAULT_BUDGET = 40;
+	public static final int DEFAULT_MAX_FUNCTION_SIZE = 2000;
+	public static final long HOT_CALLS = 1000;
+	public static final int HOT_FACTOR = 4;
+
+	private final int budget;
+	private final int maxFunctionSize;
+	private final Profiler profile;
+
+	public Inliner() {
+		this(DEFAULT_BUDGET, DEFAULT_MAX_FUNCTION_SIZE, null);
+	}
+
+	/**
+	 * Initialize an inliner.
+	 * @param budget maximum size of inlined functions
+	 * @param maxFunctionSize size of a function from which on nothing is inlined into it
+	 * @param profile execution profile of the program or null
+	 */
+	public Inliner(int budget, int maxFunctionSize, Profiler profile) {
+		this.budget = budget;
+		this.maxFunctionSize = maxFunctionSize;
+		this.profile = profile;
+	}
+
+	@Override
+	public String getName() {
+		return "inline";
+	}
+
+	@Override
+	public boolean run(IRProgram program) {
+		boolean changed = false;
+		for (int index : getBottomUpOrder(program)) {
+			changed |= inlineCalls(program, program.getFunction(index));
+		}
+		changed |= inlineCalls(program, program.getInitialization());
+		return changed;
+	}
+
+	/**
+	 * Return the indexes of the functions in post order of the call graph (callees before their callers).
+	 */
+	private int[] getBottomUpOrder(IRProgram program) {
+		int count = program.getFunctions().size();
+		int[] order = new int[count];
+		int position = 0;
+		boolean[] visited = new boolean[count];
+		int[] stack = new int[count];
+		IntList[] callees = new IntList[count];
+		int[] nextCallee = new int[count];
+		for (int root = 0; root < count; root++) {
+			if (visited[root] || program.getFunction(root) == null) {
+				continue;
+			}
+			int depth = 0;
+			stack[depth++] = root;
+			visited[root] = true;
+			callees[root] = getCallees(program.getFunction(root));
+			while (depth > 0) {
+				int function = stack[depth - 1];
+				if (nextCallee[function] < callees[function].size()) {
+					int callee = callees[function].get(nextCallee[function]++);
+					if (!visited[callee]) {
+						visited[callee] = true;
+						callees[callee] = getCallees(program.getFunction(callee));
+						stack[depth++] = callee;
+					}
+				} else {
+					depth--;
+					order[position++] = function;
+				}
+			}
+		}
+		return Arrays.copyOf(order, position);
+	}
+
+	private static IntList getCallees(IRFunction function) {
+		IntList callees = new IntList();
+		for (int block = 0; block < function.getBlockCount(); block++) {
+			IntList instructions = function.getInstructions(block);
+			for (int i = 0; i < instructions.size(); i++) {
+				if (function.getOpcode(instructions.get(i)) == IROpcode.CALL) {
+					callees.add(function.getThird(instructions.get(i)));
+				}
+			}
+		}
+		return callees;
+	}
+
+	private boolean isInlinable(IRFunction caller, IRFunction callee) {
+		if (callee == caller || getCallees(callee).contains(callee.getIndex())) {
+			return false;
+		}
+		int calleeBudget = budget;
+		if (profile != null) {
+			long calls = profile.getCalls(getSource(callee));
+			if (calls == 0 || (caller.getIndex() != IRFunction.NONE && profile.getCalls(getSource(caller)) == 0)) {
+				calleeBudget /= 4;
+			} else if (calls >= HOT_CALLS) {
+				calleeBudget *= HOT_FACTOR;
+			}
+		}
+		return callee.getInstructionCount() <= calleeBudget;
+	}
+
+	private Function getSource(IRFunction function) {
+		return profile.getProgram().getFunctions().get(function.getIndex());
+	}
+
+	private boolean inlineCalls(IRProgram program, IRFunction function) {
+		boolean changed = false;
+		for (int block = 0; block < function.getBlockCount(); block++) {
+			IntList instructions = function.getInstructions(block);
+			for (int i = 0; i < instructions.size(); i++) {
+				int instruction = instructions.get(i);
+				if (function.getOpcode(instruction) != IROpcode.CALL
+						|| function.getInstructionCount() >= maxFunctionSize) {
+					continue;
+				}
+				IRFunction callee = program.getFunction(function.getThird(instruction));
+				if (isInlinable(function, callee)) {
+					inline(function, block, i, callee);
+					changed = true;
+					break;
+				}
+			}
+		}
+		if (changed) {
+			function.removeUnreachableBlocks();
+			function.mergeBlocks();
+		}
+		return changed;
+	}
+
+	/**
+	 * Inline the callee at the given call, the instructions after the call are moved into a new block.
+	 */
+	private void inline(IRFunction function, int block, int position, IRFunction callee) {
+		int call = function.getInstructions(block).get(position);
+		int continuation = function.splitBlock(block, position + 1);
+		function.detach(call);
+		int[] blocks = new int[callee.getBlockCount()];
+		for (int i = 0; i < blocks.length; i++) {
+			blocks[i] = function.addBlock();
+		}
+		int[] values = new int[callee.getValueCount()];
+		Arrays.fill(values, IRFunction.NONE);
+		IntList phis = new IntList();
+		IntList returnValues = new IntList();
+		for (int calleeBlock : callee.getReversePostOrder()) {
+			int newBlock = blocks[calleeBlock];
+			IntList instructions = callee.getInstructions(calleeBlock);
+			for (int i = 0; i < instructions.size(); i++) {
+				int instruction = instructions.get(i);
+				int first = callee.getFirst(instruction);
+				int line = callee.getLine(instruction);
+				int value;
+				switch (callee.getOpcode(instruction)) {
+					case IROpcode.PARAM:
+						value = function.getOperand(call, first);
+						break;
+					case IROpcode.PHI:
+						value = function.phi(newBlock, callee.getType(instruction));
+						phis.add(instruction);
+						break;
+					case IROpcode.BUILTIN:
+						value = function.builtin(newBlock, callee.getBuiltin(instruction),
+								map(function, callee, values, first), map(function, callee, values,
+										callee.getSecond(instruction)), line);
+						function.setFlag(value, callee.getFlags(instruction));
+						break;
+					case IROpcode.CALL:
+						int[] arguments = new int[callee.getOperandCount(instruction)];
+						for (int j = 0; j < arguments.length; j++) {
+							arguments[j] = map(function, callee, values, callee.getOperand(instruction, j));
+						}
+						value = function.call(newBlock, callee.getThird(instruction), callee.getType(instruction),
+								arguments, line);
+						break;
+					case IROpcode.LOAD_GLOBAL:
+						value = function.loadGlobal(newBlock, callee.getThird(instruction), callee.getType(instruction));
+						break;
+					case IROpcode.STORE_GLOBAL:
+						value = function.storeGlobal(newBlock, callee.getThird(instruction),
+								map(function, callee, values, first));
+						break;
+					case IROpcode.COPY:
+						value = function.copy(newBlock, map(function, callee, values, first));
+						break;
+					case IROpcode.JUMP:
+						value = function.jump(newBlock, blocks[first]);
+						break;
+					case IROpcode.BRANCH:
+						value = function.branch(newBlock, map(function, callee, values, first),
+								blocks[callee.getSecond(instruction)], blocks[callee.getThird(instruction)]);
+						break;
+					case IROpcode.RETURN:
+						returnValues.add(first == IRFunction.NONE ? IRFunction.NONE : map(function, callee, values, first));
+						value = function.jump(newBlock, continuation);
+						break;
+					default:
+						throw new IllegalStateException("Unexpected instruction " + callee.formatInstruction(instruction));
+				}
+				values[instruction] = value;
+			}
+		}
+		for (int i = 0; i < phis.size(); i++) {
+			int phi = phis.get(i);
+			int newPhi = values[phi];
+			IntList calleePredecessors = callee.getPredecessors(callee.getBlock(phi));
+			IntList predecessors = function.getPredecessors(function.getBlock(newPhi));
+			int[] operands = new int[predecessors.size()];
+			for (int j = 0; j < operands.length; j++) {
+				int calleePredecessor = indexOf(blocks, predecessors.get(j));
+				operands[j] = map(function, callee, values,
+						callee.getOperand(phi, calleePredecessors.indexOf(calleePredecessor)));
+			}
+			function.setPhiOperands(newPhi, operands);
+		}
+		function.jump(block, blocks[0]);
+		if (callee.getReturnType() != Type.VOID) {
+			int result;
+			if (returnValues.isEmpty()) {
+				result = function.constant(callee.getReturnType(),
+						OakRuntime.defaultValue(callee.getReturnType()));
+			} else if (returnValues.size() == 1) {
+				result = returnValues.get(0);
+			} else {
+				result = function.phi(continuation, callee.getReturnType());
+				function.setPhiOperands(result, returnValues.toArray());
+			}
+			function.replaceAllUses(call, result);
+		}
+		function.remove(call);
+	}
+
+	/**
+	 * Return the value in the caller corresponding to the given value of the callee.
+	 */
+	private static int map(IRFunction function, IRFunction callee, int[] values, int value) {
+		if (value == IRFunction.NONE) {
+			return IRFunction.NONE;
+		}
+		switch (callee.getOpcode(value)) {
+			case IROpcode.CONST:
+				return function.constant(callee.getType(value), callee.getConstant(value));
+			case IROpcode.STRING:
+				return function.string(callee.getThird(value));
+			default:
+				return values[value];
+		}
+	}
+
+	private static int indexOf(int[] array, int value) {
+		for (int i = 0; i < array.length; i++) {
+			if (array[i] == value) {
+				return i;
+			}
+		}
+		return IRFunction.NONE;
+	}
+}
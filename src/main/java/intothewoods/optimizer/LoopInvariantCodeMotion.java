@@ -0,0 +1,227 @@
+package intothewoods.optimizer;
+
+import intothewoods.common.Builtin;
+import intothewoods.ir.Dominators;
+import intothewoods.ir.IRFunction;
+import intothewoods.ir.IROpcode;
+import intothewoods.ir.IntList;
+import intothewoods.ir.Loops;
+
+import java.util.Arrays;
+
+/**
+ * Moves loop invariant instructions into the preheader of their loop, inner loops first,
+ * so that the instructions can move out of several loops.
+ *
+ * Every loop gets a preheader first. Pure built in functions with invariant operands are always moved,
+ * if they can fail (e.g. div) or read the heap (get_TYPE) they are only moved from the loop header
+ * if no instruction with side effects precedes them, so that they fail at the same point as before.
+ * Heap reads are only moved out of loops without heap writes, global loads out of loops without calls
+ * and stores to the global.
+ */
+public class LoopInvariantCodeMotion implements FunctionPass {
+
+	@Override
+	public String getName() {
+		return "licm";
+	}
+
+	@Override
+	public boolean run(IRFunction function) {
+		boolean changed = insertPreheaders(function);
+		Dominators dominators = new Dominators(function);
+		for (Loops.Loop loop : new Loops(function, dominators).getLoops()) {
+			int preheader = Loops.getPreheader(function, loop);
+			if (preheader != IRFunction.NONE) {
+				changed |= hoist(function, dominators, loop, preheader);
+			}
+		}
+		if (changed) {
+			function.removeUnreachableBlocks();
+		}
+		return changed;
+	}
+
+	/**
+	 * Give every loop a preheader.
+	 * @return true if blocks were inserted
+	 */
+	static boolean insertPreheaders(IRFunction function) {
+		boolean changed = false;
+		boolean inserted = true;
+		while (inserted) {
+			inserted = false;
+			for (Loops.Loop loop : new Loops(function, new Dominators(function)).getLoops()) {
+				if (Loops.getPreheader(function, loop) == IRFunction.NONE && insertPreheader(function, loop)) {
+					inserted = true;
+					changed = true;
+					break;
+				}
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Redirect all edges entering the loop to a new block jumping to the header,
+	 * the header phis get the operands of these edges merged by phis in the new block.
+	 * @return false if the loop is entered twice from the same block
+	 */
+	private static boolean insertPreheader(IRFunction function, Loops.Loop loop) {
+		int header = loop.getHeader();
+		IntList predecessors = function.getPredecessors(header);
+		IntList outside = new IntList();
+		for (int i = 0; i < predecessors.size(); i++) {
+			if (!loop.contains(predecessors.get(i))) {
+				if (outside.contains(predecessors.get(i))) {
+					return false;
+				}
+				outside.add(predecessors.get(i));
+			}
+		}
+		IntList instructions = function.getInstructions(header);
+		IntList phis = new IntList();
+		for (int i = 0; i < instructions.size() && function.getOpcode(instructions.get(i)) == IROpcode.PHI; i++) {
+			phis.add(instructions.get(i));
+		}
+		int[][] operands = new int[phis.size()][outside.size()];
+		for (int i = 0; i < phis.size(); i++) {
+			for (int j = 0; j < outside.size(); j++) {
+				operands[i][j] = function.getOperand(phis.get(i), predecessors.indexOf(outside.get(j)));
+			}
+		}
+		int preheader = function.addBlock();
+		for (int j = 0; j < outside.size(); j++) {
+			function.redirectEdge(outside.get(j), header, preheader);
+		}
+		for (int i = 0; i < phis.size(); i++) {
+			int value = operands[i][0];
+			for (int j = 1; j < outside.size(); j++) {
+				if (operands[i][j] != value) {
+					value = function.phi(preheader, function.getType(phis.get(i)));
+					function.setPhiOperands(value, operands[i]);
+					break;
+				}
+			}
+			int phi = phis.get(i);
+			int[] newOperands = new int[function.getOperandCount(phi) + 1];
+			for (int j = 0; j < newOperands.length - 1; j++) {
+				newOperands[j] = function.getOperand(phi, j);
+			}
+			newOperands[newOperands.length - 1] = value;
+			function.setPhiOperands(phi, newOperands);
+		}
+		function.jump(preheader, header);
+		return true;
+	}
+
+	private boolean hoist(IRFunction function, Dominators dominators, Loops.Loop loop, int preheader) {
+		boolean hasCall = false;
+		boolean writesHeap = false;
+		boolean[] storedGlobals = new boolean[0];
+		IntList blocks = loop.getBlocks();
+		for (int i = 0; i < blocks.size(); i++) {
+			IntList instructions = function.getInstructions(blocks.get(i));
+			for (int j = 0; j < instructions.size(); j++) {
+				int instruction = instructions.get(j);
+				switch (function.getOpcode(instruction)) {
+					case IROpcode.CALL:
+						hasCall = true;
+						writesHeap = true;
+						break;
+					case IROpcode.STORE_GLOBAL:
+						int global = function.getThird(instruction);
+						if (global >= storedGlobals.length) {
+							storedGlobals = Arrays.copyOf(storedGlobals, global + 1);
+						}
+						storedGlobals[global] = true;
+						break;
+					case IROpcode.BUILTIN:
+						writesHeap |= isHeapWrite(function.getBuiltin(instruction));
+						break;
+					default:
+						break;
+				}
+			}
+		}
+		boolean changed = false;
+		for (int block : dominators.getReversePostOrder()) {
+			if (!loop.contains(block)) {
+				continue;
+			}
+			boolean sideEffects = block != loop.getHeader();
+			IntList instructions = function.getInstructions(block);
+			for (int i = 0; i < instructions.size(); i++) {
+				int instruction = instructions.get(i);
+				boolean movable = isInvariant(function, loop, instruction);
+				switch (function.getOpcode(instruction)) {
+					case IROpcode.BUILTIN:
+						Builtin builtin = function.getBuiltin(instruction);
+						if (builtin.isPure()) {
+							movable &= !builtin.isThrowing() || !sideEffects;
+						} else {
+							movable &= isHeapRead(builtin) && !writesHeap && !sideEffects;
+						}
+						break;
+					case IROpcode.LOAD_GLOBAL:
+						int global = function.getThird(instruction);
+						movable &= !hasCall && (global >= storedGlobals.length || !storedGlobals[global]);
+						break;
+					case IROpcode.COPY:
+						break;
+					default:
+						movable = false;
+				}
+				if (movable) {
+					function.detach(instruction);
+					IntList target = function.getInstructions(preheader);
+					function.insert(preheader, target.size() - 1, instruction);
+					changed = true;
+					i--;
+				} else if (!function.isPure(instruction)) {
+					sideEffects = true;
+				}
+			}
+		}
+		return changed;
+	}
+
+	private static boolean isInvariant(IRFunction function, Loops.Loop loop, int instruction) {
+		for (int i = 0; i < function.getOperandCount(instruction); i++) {
+			if (loop.contains(function.getBlock(function.getOperand(instruction, i)))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isHeapRead(Builtin builtin) {
+		switch (builtin) {
+			case GET_BOOL:
+			case GET_BYTE:
+			case GET_INT:
+			case GET_FLOAT:
+			case GET_POINTER:
+			case GET_STRING:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	private static boolean isHeapWrite(Builtin builtin) {
+		switch (builtin) {
+			case SET_BOOL:
+			case SET_BYTE:
+			case SET_INT:
+			case SET_FLOAT:
+			case SET_POINTER:
+			case SET_STRING:
+			case COPY_MEM:
+			case FREE:
+				return true;
+			default:
+				return false;
+		}
+	}
+}
@@ -0,0 +1,327 @@
+package intothewoods.optimizer;
+
+import intothewoods.ir.IRFunction;
+import intothewoods.ir.IRProgram;
+import intothewoods.ir.IRVerifier;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs a pipeline of optimization passes over a program.
+ *
+ * Consecutive function passes form a stage: each function runs through all passes of the stage on its own
+ * and the functions (including the global initialization) are optimized in parallel on a fork join pool,
+ * the largest first. Program passes (like the inliner and the whole program dead code elimination) are
+ * barriers, they run alone after all functions finished the previous stage. As function passes only
+ * modify the given function, the optimized program doesn't depend on the number of threads.
+ *
+ * Every invocation of a pass is measured, the statistics (time and change of the instruction count) are
+ * accumulated per pass of the pipeline.
+ */
+public class PassManager implements AutoCloseable {
+
+	public static final int MAX_LEVEL = 2;
+
+	/**
+	 * Accumulated statistics of a pass in the pipeline.
+	 */
+	public static class PassStatistics {
+
+		private final String name;
+		private int runs;
+		private int changes;
+		private long nanos;
+		private long instructionDelta;
+
+		PassStatistics(String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Return the number of invocations, a function pass is invoked once per function.
+		 */
+		public int getRuns() {
+			return runs;
+		}
+
+		/**
+		 * Return the number of invocations that changed the IR.
+		 */
+		public int getChanges() {
+			return changes;
+		}
+
+		/**
+		 * Return the sum of the durations of all invocations (in all threads).
+		 */
+		public long getNanos() {
+			return nanos;
+		}
+
+		/**
+		 * Return the sum of the changes of the instruction count, negative if the pass removed instructions.
+		 */
+		public long getInstructionDelta() {
+			return instructionDelta;
+		}
+
+		private void add(boolean changed, long nanos, long instructionDelta) {
+			runs++;
+			if (changed) {
+				changes++;
+			}
+			this.nanos += nanos;
+			this.instructionDelta += instructionDelta;
+		}
+	}
+
+	private static class Entry {
+
+		private final FunctionPass functionPass;
+		private final ProgramPass programPass;
+		private final PassStatistics statistics;
+
+		private Entry(FunctionPass functionPass, ProgramPass programPass, String name) {
+			this.functionPass = functionPass;
+			this.programPass = programPass;
+			this.statistics = new PassStatistics(name);
+		}
+	}
+
+	/**
+	 * Runs the passes of a stage on a single function and records the measurements locally, they are
+	 * added to the statistics after the stage.
+	 */
+	private class FunctionTask extends RecursiveAction {
+
+		private final IRFunction function;
+		private final List<Entry> stage;
+		private final boolean[] changed;
+		private final long[] nanos;
+		private final long[] deltas;
+
+		private FunctionTask(IRFunction function, List<Entry> stage) {
+			this.function = function;
+			this.stage = stage;
+			this.changed = new boolean[stage.size()];
+			this.nanos = new long[stage.size()];
+			this.deltas = new long[stage.size()];
+		}
+
+		@Override
+		protected void compute() {
+			for (int i = 0; i < stage.size(); i++) {
+				int size = function.getInstructionCount();
+				long start = System.nanoTime();
+				changed[i] = stage.get(i).functionPass.run(function);
+				nanos[i] = System.nanoTime() - start;
+				deltas[i] = function.getInstructionCount() - size;
+				if (verifying) {
+					verify(stage.get(i), function);
+				}
+			}
+		}
+	}
+
+	private final ForkJoinPool pool;
+	private final List<Entry> entries = new ArrayList<>();
+	private boolean verifying;
+	private long nanos;
+
+	public PassManager() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Initialize a pass manager with an empty pipeline.
+	 * @param threads number of functions optimized at once
+	 */
+	public PassManager(int threads) {
+		this.pool = new ForkJoinPool(threads);
+	}
+
+	/**
+	 * Create a pass manager with the pipeline of the given optimization level.
+	 *
+	 * Level 0 doesn't optimize, level 1 runs the cheap scalar optimizations (constant and copy propagation,
+	 * dead code elimination), level 2 additionally inlines and runs the loop and memory optimizations.
+	 *
+	 * @param level optimization level, 0 to MAX_LEVEL
+	 * @param threads number of functions optimized at once
+	 */
+	public static PassManager create(int level, int threads) {
+		if (level < 0 || level > MAX_LEVEL) {
+			throw new IllegalArgumentException("Unknown optimization level " + level);
+		}
+		PassManager manager = new PassManager(threads);
+		if (level >= 2) {
+			manager.addPass(new Inliner());
+			manager.addPass(new ProgramPruning());
+		}
+		if (level >= 1) {
+			manager.addPass(new ConstantPropagation());
+			manager.addPass(new CopyPropagation());
+		}
+		if (level >= 2) {
+			manager.addPass(new EscapeAnalysis());
+			manager.addPass(new LoopInvariantCodeMotion());
+			manager.addPass(new InductionVariables());
+			manager.addPass(new RangeAnalysis());
+			manager.addPass(new ConstantPropagation());
+			manager.addPass(new CopyPropagation());
+		}
+		if (level >= 1) {
+			manager.addPass(new DeadCodeElimination());
+			manager.addPass(new ProgramPruning());
+		}
+		return manager;
+	}
+
+	/**
+	 * Append a function pass to the pipeline, the pass is shared by all threads.
+	 */
+	public void addPass(FunctionPass pass) {
+		entries.add(new Entry(pass, null, pass.getName()));
+	}
+
+	/**
+	 * Append a program pass to the pipeline.
+	 */
+	public void addPass(ProgramPass pass) {
+		entries.add(new Entry(null, pass, pass.getName()));
+	}
+
+	/**
+	 * Verify the IR after every pass, used for debugging the passes.
+	 */
+	public void setVerifying(boolean verifying) {
+		this.verifying = verifying;
+	}
+
+	/**
+	 * Run the pipeline on the given program.
+	 * @return true if the program changed
+	 */
+	public boolean optimize(IRProgram program) {
+		long start = System.nanoTime();
+		boolean changed = false;
+		List<Entry> stage = new ArrayList<>();
+		for (Entry entry : entries) {
+			if (entry.functionPass != null) {
+				stage.add(entry);
+				continue;
+			}
+			changed |= runStage(program, stage);
+			stage.clear();
+			int size = program.getInstructionCount();
+			long passStart = System.nanoTime();
+			boolean passChanged = entry.programPass.run(program);
+			entry.statistics.add(passChanged, System.nanoTime() - passStart, program.getInstructionCount() - size);
+			if (verifying) {
+				try {
+					IRVerifier.verify(program);
+				} catch (IllegalStateException ex) {
+					throw new IllegalStateException("Invalid IR after pass " + entry.statistics.getName(), ex);
+				}
+			}
+			changed |= passChanged;
+		}
+		changed |= runStage(program, stage);
+		nanos += System.nanoTime() - start;
+		return changed;
+	}
+
+	private boolean runStage(IRProgram program, List<Entry> stage) {
+		if (stage.isEmpty()) {
+			return false;
+		}
+		List<FunctionTask> tasks = new ArrayList<>();
+		tasks.add(new FunctionTask(program.getInitialization(), stage));
+		for (IRFunction function : program.getFunctions()) {
+			if (function != null) {
+				tasks.add(new FunctionTask(function, stage));
+			}
+		}
+		final List<FunctionTask> order = new ArrayList<>(tasks);
+		Collections.sort(order, new Comparator<FunctionTask>() {
+			@Override
+			public int compare(FunctionTask first, FunctionTask second) {
+				return Integer.compare(second.function.getInstructionCount(), first.function.getInstructionCount());
+			}
+		});
+		pool.invoke(new RecursiveAction() {
+			@Override
+			protected void compute() {
+				invokeAll(order);
+			}
+		});
+		boolean changed = false;
+		for (FunctionTask task : tasks) {
+			for (int i = 0; i < stage.size(); i++) {
+				stage.get(i).statistics.add(task.changed[i], task.nanos[i], task.deltas[i]);
+				changed |= task.changed[i];
+			}
+		}
+		return changed;
+	}
+
+	private static void verify(Entry entry, IRFunction function) {
+		try {
+			IRVerifier.verify(function);
+		} catch (IllegalStateException ex) {
+			throw new IllegalStateException("Invalid IR in " + function.getName() + " after pass "
+					+ entry.statistics.getName(), ex);
+		}
+	}
+
+	/**
+	 * Return the statistics of the passes, in the order of the pipeline.
+	 */
+	public List<PassStatistics> getStatistics() {
+		List<PassStatistics> statistics = new ArrayList<>();
+		for (Entry entry : entries) {
+			statistics.add(entry.statistics);
+		}
+		return statistics;
+	}
+
+	/**
+	 * Return the time spent in optimize (wall clock time).
+	 */
+	public long getNanos() {
+		return nanos;
+	}
+
+	/**
+	 * Return a human readable summary of the statistics.
+	 */
+	public String getReport() {
+		StringBuilder builder = new StringBuilder(String.format(Locale.ROOT,
+				"Passes (runs, changed, time, instructions), total %.3f ms:%n", nanos / 1e6));
+		for (Entry entry : entries) {
+			PassStatistics statistics = entry.statistics;
+			builder.append(String.format(Locale.ROOT, "  %s: %d runs, %d changed, %.3f ms, %+d instructions%n",
+					statistics.getName(), statistics.getRuns(), statistics.getChanges(), statistics.getNanos() / 1e6,
+					statistics.getInstructionDelta()));
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Stop the threads of this pass manager.
+	 */
+	@Override
+	public void close() {
+		pool.shutdown();
+	}
+}
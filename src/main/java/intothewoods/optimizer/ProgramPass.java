@@ -0,0 +1,20 @@
+package intothewoods.optimizer;
+
+import intothewoods.ir.IRProgram;
+
+/**
+ * Optimization working on the whole program, e.g. because it needs the bodies of the called functions.
+ */
+public interface ProgramPass {
+
+	/**
+	 * Return the short name of the pass, used in timing reports.
+	 */
+	String getName();
+
+	/**
+	 * Optimize the given program, the result has to pass the IRVerifier.
+	 * @return true if the program changed
+	 */
+	boolean run(IRProgram program);
+}
@@ -0,0 +1,118 @@
+package intothewoods.optimizer;
+
+import intothewoods.common.Type;
+import intothewoods.ir.IRFunction;
+import intothewoods.ir.IROpcode;
+import intothewoods.ir.IRProgram;
+import intothewoods.ir.IntList;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Whole program dead code elimination.
+ *
+ * Functions that aren't reachable in the call graph from main (and the global initialization) are removed,
+ * as are the globals that are never read and all stores to them. Afterwards the dead instructions of the
+ * remaining functions are removed (see DeadCodeElimination), including the computation of the stored values.
+ */
+public class ProgramPruning implements ProgramPass {
+
+	private final DeadCodeElimination deadCodeElimination = new DeadCodeElimination();
+
+	@Override
+	public String getName() {
+		return "prune";
+	}
+
+	@Override
+	public boolean run(IRProgram program) {
+		boolean changed = removeUnreachableFunctions(program);
+		List<IRFunction> functions = new ArrayList<>();
+		functions.add(program.getInitialization());
+		for (IRFunction function : program.getFunctions()) {
+			if (function != null) {
+				functions.add(function);
+			}
+		}
+		changed |= removeUnreadGlobals(program, functions);
+		for (IRFunction function : functions) {
+			changed |= deadCodeElimination.run(function);
+		}
+		return changed;
+	}
+
+	private boolean removeUnreachableFunctions(IRProgram program) {
+		int count = program.getFunctions().size();
+		boolean[] reachable = new boolean[count];
+		IntList worklist = new IntList();
+		addCallees(program.getInitialization(), reachable, worklist);
+		if (program.getMainFunction() != IRFunction.NONE && !reachable[program.getMainFunction()]) {
+			reachable[program.getMainFunction()] = true;
+			worklist.add(program.getMainFunction());
+		}
+		while (!worklist.isEmpty()) {
+			addCallees(program.getFunction(worklist.removeAt(worklist.size() - 1)), reachable, worklist);
+		}
+		boolean changed = false;
+		for (int index = 0; index < count; index++) {
+			if (!reachable[index] && program.getFunction(index) != null) {
+				program.removeFunction(index);
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	private static void addCallees(IRFunction function, boolean[] reachable, IntList worklist) {
+		for (int block = 0; block < function.getBlockCount(); block++) {
+			IntList instructions = function.getInstructions(block);
+			for (int i = 0; i < instructions.size(); i++) {
+				int instruction = instructions.get(i);
+				if (function.getOpcode(instruction) == IROpcode.CALL && !reachable[function.getThird(instruction)]) {
+					reachable[function.getThird(instruction)] = true;
+					worklist.add(function.getThird(instruction));
+				}
+			}
+		}
+	}
+
+	private boolean removeUnreadGlobals(IRProgram program, List<IRFunction> functions) {
+		Type[] globalTypes = program.getGlobalTypes();
+		boolean[] read = new boolean[globalTypes.length];
+		for (IRFunction function : functions) {
+			for (int block = 0; block < function.getBlockCount(); block++) {
+				IntList instructions = function.getInstructions(block);
+				for (int i = 0; i < instructions.size(); i++) {
+					if (function.getOpcode(instructions.get(i)) == IROpcode.LOAD_GLOBAL) {
+						read[function.getThird(instructions.get(i))] = true;
+					}
+				}
+			}
+		}
+		boolean changed = false;
+		for (IRFunction function : functions) {
+			IntList stores = new IntList();
+			for (int block = 0; block < function.getBlockCount(); block++) {
+				IntList instructions = function.getInstructions(block);
+				for (int i = 0; i < instructions.size(); i++) {
+					int instruction = instructions.get(i);
+					if (function.getOpcode(instruction) == IROpcode.STORE_GLOBAL && !read[function.getThird(instruction)]) {
+						stores.add(instruction);
+					}
+				}
+			}
+			for (int i = 0; i < stores.size(); i++) {
+				function.remove(stores.get(i));
+			}
+			changed |= !stores.isEmpty();
+		}
+		for (int global = 0; global < globalTypes.length; global++) {
+			if (!read[global] && globalTypes[global] != Type.VOID) {
+				program.removeGlobal(global);
+				changed = true;
+			}
+		}
+		return changed;
+	}
+}
@@ -0,0 +1,543 @@
+package intothewoods.optimizer;
+
+import intothewoods.common.Builtin;
+import intothewoods.common.Type;
+import intothewoods.ir.Dominators;
+import intothewoods.ir.IRFunction;
+import intothewoods.ir.IROpcode;
+import intothewoods.ir.IntList;
+import intothewoods.ir.Loops;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Proves get_TYPE, set_TYPE and add (pointer) calls to stay within their memory area and flags them
+ * with UNCHECKED, so that they skip their range check.
+ *
+ * An access to p + offset (of z bytes, 0 for add) is in range if the offset is at least 0 and
+ * offset + z is at most mem_size p. Offsets in counted loops (see InductionVariables) are analysed as
+ * affine functions m * i + k (m, k >= 0) of an induction variable i with step 1: i lies between its initial
+ * value and n - 1 in the loop body (n being the bound), so the access is in range if the initial value
+ * is at least 0 and m * (n - 1) + k + z <= mem_size p. This is proven statically for constant bounds and
+ * sizes and for bounds computed from the size (n = mem_size p / d - c, the typical loop over a memory
+ * area). Otherwise the condition is checked once before the loop: the loop is duplicated and the copy
+ * without range checks runs if the check succeeds, the original loop (with checks and the usual error
+ * messages) otherwise.
+ *
+ * Accesses with constant offsets into memory areas allocated with a constant size are proven everywhere.
+ */
+public class RangeAnalysis implements FunctionPass {
+
+	/**
+	 * Maximum number of instructions of a duplicated loop.
+	 */
+	public static final int MAX_VERSIONED_SIZE = 200;
+
+	/**
+	 * Maximum constant in an offset, larger values could overflow.
+	 */
+	private static final int LIMIT = 1 << 16;
+
+	/**
+	 * Range checked instruction accessing pointer + offset, with an affine offset m * i + k.
+	 */
+	private static class Access {
+
+		private final int instruction;
+		private final int pointer;
+		private final int offset;
+		private final int size;
+		private long factor;
+		private long constant;
+
+		Access(int instruction, int pointer, int offset, int size) {
+			this.instruction = instruction;
+			this.pointer = pointer;
+			this.offset = offset;
+			this.size = size;
+		}
+	}
+
+	@Override
+	public String getName() {
+		return "range";
+	}
+
+	@Override
+	public boolean run(IRFunction function) {
+		boolean changed = LoopInvariantCodeMotion.insertPreheaders(function);
+		if (changed) {
+			function.removeUnreachableBlocks();
+		}
+		changed |= flagConstantAccesses(function);
+		IntList versioned = new IntList();
+		boolean versionedLoop = true;
+		while (versionedLoop) {
+			versionedLoop = false;
+			Dominators dominators = new Dominators(function);
+			Loops loops = new Loops(function, dominators);
+			for (InductionVariables.CountedLoop counted : InductionVariables.findCountedLoops(function)) {
+				if (counted.getVariable().getStep() != 1 || !counted.isUpperBound(function)) {
+					continue;
+				}
+				Loops.Loop loop = loops.getLoop(counted.getHeader());
+				List<Access> pending = new ArrayList<>();
+				changed |= flagLoopAccesses(function, dominators, loop, counted, pending);
+				if (!pending.isEmpty() && !versioned.contains(loop.getHeader()) && canVersion(function, loops, loop)) {
+					versioned.add(loop.getHeader());
+					versioned.add(version(function, dominators, loop, counted, pending));
+					changed = true;
+					versionedLoop = true;
+					break;
+				}
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Return the access of the given instruction or null if it doesn't check a range.
+	 */
+	private static Access getAccess(IRFunction function, int instruction) {
+		if (function.getOpcode(instruction) != IROpcode.BUILTIN || !IRFunction.isRangeChecked(function.getBuiltin(instruction))
+				|| function.hasFlag(instruction, IRFunction.UNCHECKED)) {
+			return null;
+		}
+		Builtin builtin = function.getBuiltin(instruction);
+		if (builtin == Builtin.ADD_POINTER) {
+			return new Access(instruction, function.getFirst(instruction), function.getSecond(instruction), 0);
+		}
+		Type type = builtin.getReturnType() == Type.VOID ? builtin.getParameterTypes().get(1) : builtin.getReturnType();
+		int address = function.getFirst(instruction);
+		if (function.getOpcode(address) == IROpcode.BUILTIN && function.getBuiltin(address) == Builtin.ADD_POINTER) {
+			return new Access(instruction, function.getFirst(address), function.getSecond(address), type.getSize());
+		}
+		return new Access(instruction, address, IRFunction.NONE, type.getSize());
+	}
+
+	/**
+	 * Return the size of the memory area of the given pointer if it's allocated with a constant size, else -1.
+	 */
+	private static long getConstantSize(IRFunction function, int pointer) {
+		if (function.getOpcode(pointer) == IROpcode.BUILTIN && function.getBuiltin(pointer) == Builtin.MALLOC
+				&& function.isConstant(function.getFirst(pointer)) && function.getConstant(function.getFirst(pointer)) > 0) {
+			return function.getConstant(function.getFirst(pointer));
+		}
+		return -1;
+	}
+
+	private static boolean flagConstantAccesses(IRFunction function) {
+		boolean changed = false;
+		for (int block = 0; block < function.getBlockCount(); block++) {
+			IntList instructions = function.getInstructions(block);
+			for (int i = 0; i < instructions.size(); i++) {
+				Access access = getAccess(function, instructions.get(i));
+				if (access == null || (access.offset != IRFunction.NONE && !function.isConstant(access.offset))) {
+					continue;
+				}
+				long offset = access.offset == IRFunction.NONE ? 0 : function.getConstant(access.offset);
+				long size = getConstantSize(function, access.pointer);
+				if (offset >= 0 && size >= 0 && offset + access.size <= size) {
+					function.setFlag(access.instruction, IRFunction.UNCHECKED);
+					changed = true;
+				}
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Flag the accesses in the body of the counted loop that are statically in range, the accesses that
+	 * could be proven with a check before the loop are added to the pending accesses.
+	 */
+	private static boolean flagLoopAccesses(IRFunction function, Dominators dominators, Loops.Loop loop,
+	                                        InductionVariables.CountedLoop counted, List<Access> pending) {
+		int body = function.getSecond(function.getTerminator(loop.getHeader()));
+		int init = counted.getVariable().getInit();
+		boolean constantInit = function.isConstant(init);
+		if (constantInit && function.getConstant(init) < 0) {
+			return false;
+		}
+		List<InductionVariables.InductionVariable> variables = InductionVariables.findInductionVariables(function,
+				loop, counted.getPreheader());
+		boolean changed = false;
+		IntList blocks = loop.getBlocks();
+		for (int i = 0; i < blocks.size(); i++) {
+			if (!dominators.dominates(body, blocks.get(i))) {
+				continue;
+			}
+			IntList instructions = function.getInstructions(blocks.get(i));
+			for (int j = 0; j < instructions.size(); j++) {
+				Access access = getAccess(function, instructions.get(j));
+				if (access == null || loop.contains(function.getBlock(access.pointer))
+						|| !computeAffineOffset(function, counted.getVariable(), variables, access)) {
+					continue;
+				}
+				if (constantInit && isProven(function, counted, access)) {
+					function.setFlag(access.instruction, IRFunction.UNCHECKED);
+					changed = true;
+				} else {
+					pending.add(access);
+				}
+			}
+		}
+		return changed;
+	}
+
+	private static boolean computeAffineOffset(IRFunction function, InductionVariables.InductionVariable variable,
+	                                           List<InductionVariables.InductionVariable> variables, Access access) {
+		if (access.offset == IRFunction.NONE) {
+			return true;
+		}
+		long[] affine = getAffine(function, variable, variables, access.offset);
+		if (affine == null) {
+			return false;
+		}
+		access.factor = affine[0];
+		access.constant = affine[1];
+		return true;
+	}
+
+	/**
+	 * Return the factor and constant of the given value as an affine function of the variable (without
+	 * negative terms, so that no intermediate value exceeds the final one) or null. Other induction
+	 * variables of the loop (like the ones introduced by the strength reduction) are affine functions
+	 * of the variable if both start with a constant.
+	 */
+	private static long[] getAffine(IRFunction function, InductionVariables.InductionVariable variable,
+	                                List<InductionVariables.InductionVariable> variables, int value) {
+		if (value == variable.getPhi()) {
+			return new long[]{1, 0};
+		}
+		if (function.getOpcode(value) == IROpcode.PHI) {
+			for (InductionVariables.InductionVariable other : variables) {
+				if (other.getPhi() != value || other.getStep() < 0 || other.getStep() > LIMIT
+						|| !function.isConstant(variable.getInit())) {
+					continue;
+				}
+				long[] init = getAffine(function, variable, variables, other.getInit());
+				if (init == null || init[0] != 0) {
+					return null;
+				}
+				long constant = init[1] - other.getStep() * function.getConstant(variable.getInit());
+				return constant >= 0 ? new long[]{other.getStep(), constant} : null;
+			}
+			return null;
+		}
+		if (function.isConstant(value)) {
+			long constant = function.getConstant(value);
+			return constant >= 0 && constant <= LIMIT ? new long[]{0, constant} : null;
+		}
+		if (function.getOpcode(value) != IROpcode.BUILTIN) {
+			return null;
+		}
+		long[] result;
+		switch (function.getBuiltin(value)) {
+			case ADD_INT:
+				long[] first = getAffine(function, variable, variables, function.getFirst(value));
+				long[] second = getAffine(function, variable, variables, function.getSecond(value));
+				if (first == null || second == null) {
+					return null;
+				}
+				result = new long[]{first[0] + second[0], first[1] + second[1]};
+				break;
+			case MUL_INT:
+				int factor = function.getSecond(value);
+				int other = function.getFirst(value);
+				if (!function.isConstant(factor)) {
+					factor = function.getFirst(value);
+					other = function.getSecond(value);
+				}
+				long[] affine = getAffine(function, variable, variables, other);
+				if (!function.isConstant(factor) || affine == null || function.getConstant(factor) < 0
+						|| function.getConstant(factor) > LIMIT) {
+					return null;
+				}
+				result = new long[]{affine[0] * function.getConstant(factor), affine[1] * function.getConstant(factor)};
+				break;
+			default:
+				return null;
+		}
+		return result[0] <= LIMIT && result[1] <= LIMIT ? result : null;
+	}
+
+	/**
+	 * Checks statically whether m * (n - 1) + k + z <= mem_size p holds.
+	 */
+	private static boolean isProven(IRFunction function, InductionVariables.CountedLoop counted, Access access) {
+		int bound = counted.getBound();
+		long size = getConstantSize(function, access.pointer);
+		if (size >= 0 && (access.factor == 0 || function.isConstant(bound))) {
+			long last = access.factor == 0 ? 0 : function.getConstant(bound) - 1;
+			return access.factor * last + access.constant + access.size <= size;
+		}
+		long[] form = getBoundForm(function, bound, access.pointer);
+		return form != null && access.factor <= form[0] && access.constant + access.size <= access.factor * (form[1] + 1);
+	}
+
+	/**
+	 * Match n = mem_size p / d - c.
+	 * @return d and c or null
+	 */
+	private static long[] getBoundForm(IRFunction function, int bound, int pointer) {
+		long subtrahend = 0;
+		if (isBuiltin(function, bound, Builtin.SUB_INT) && function.isConstant(function.getSecond(bound))) {
+			subtrahend = function.getConstant(function.getSecond(bound));
+			bound = function.getFirst(bound);
+			if (subtrahend < 0 || subtrahend > LIMIT) {
+				return null;
+			}
+		}
+		long divisor = 1;
+		if (isBuiltin(function, bound, Builtin.DIV_INT) && function.isConstant(function.getSecond(bound))) {
+			divisor = function.getConstant(function.getSecond(bound));
+			bound = function.getFirst(bound);
+			if (divisor < 1 || divisor > LIMIT) {
+				return null;
+			}
+		}
+		if (isBuiltin(function, bound, Builtin.MEM_SIZE) && function.getFirst(bound) == pointer) {
+			return new long[]{divisor, subtrahend};
+		}
+		return null;
+	}
+
+	private static boolean isBuiltin(IRFunction function, int value, Builtin builtin) {
+		return function.getOpcode(value) == IROpcode.BUILTIN && function.getBuiltin(value) == builtin;
+	}
+
+	/**
+	 * Checks whether the loop can be duplicated: it's an innermost loop that is only left through
+	 * its header, into a block without other predecessors.
+	 */
+	private static boolean canVersion(IRFunction function, Loops loops, Loops.Loop loop) {
+		for (Loops.Loop other : loops.getLoops()) {
+			if (other.getParent() == loop) {
+				return false;
+			}
+		}
+		int header = loop.getHeader();
+		int exit = function.getThird(function.getTerminator(header));
+		int size = 0;
+		IntList blocks = loop.getBlocks();
+		for (int i = 0; i < blocks.size(); i++) {
+			int block = blocks.get(i);
+			size += function.getInstructions(block).size();
+			for (int j = 0; j < function.getSuccessorCount(block); j++) {
+				int successor = function.getSuccessor(block, j);
+				if (!loop.contains(successor) && !(block == header && successor == exit)) {
+					return false;
+				}
+			}
+		}
+		IntList exitPredecessors = function.getPredecessors(exit);
+		return size <= MAX_VERSIONED_SIZE && exitPredecessors.size() == 1
+				&& function.getOpcode(function.getInstructions(exit).get(0)) != IROpcode.PHI;
+	}
+
+	/**
+	 * Duplicate the loop, the preheader checks whether the pending accesses are in range and enters
+	 * the copy (in which they are unchecked) if they are.
+	 * @return header of the copy
+	 */
+	private static int version(IRFunction function, Dominators dominators, Loops.Loop loop,
+	                           InductionVariables.CountedLoop counted, List<Access> pending) {
+		int header = loop.getHeader();
+		int preheader = counted.getPreheader();
+		int exit = function.getThird(function.getTerminator(header));
+		int blockCount = function.getBlockCount();
+		int[] blockMap = new int[blockCount];
+		Arrays.fill(blockMap, IRFunction.NONE);
+		IntList blocks = new IntList();
+		for (int block : dominators.getReversePostOrder()) {
+			if (loop.contains(block)) {
+				blocks.add(block);
+				blockMap[block] = function.addBlock();
+			}
+		}
+		int[] valueMap = new int[function.getValueCount()];
+		Arrays.fill(valueMap, IRFunction.NONE);
+		int entry = function.addBlock();
+		int slow = function.splitBlock(preheader, function.getInstructions(preheader).size() - 1);
+		function.branch(preheader, buildCheck(function, preheader, counted, pending), entry, slow);
+		IntList phis = new IntList();
+		for (int i = 0; i < blocks.size(); i++) {
+			IntList instructions = function.getInstructions(blocks.get(i));
+			for (int j = 0; j < instructions.size(); j++) {
+				int instruction = instructions.get(j);
+				valueMap[instruction] = copy(function, instruction, blockMap[blocks.get(i)], valueMap, blockMap);
+				if (function.getOpcode(instruction) == IROpcode.PHI) {
+					phis.add(instruction);
+				}
+			}
+		}
+		function.jump(entry, blockMap[header]);
+		for (int i = 0; i < phis.size(); i++) {
+			int phi = phis.get(i);
+			IntList predecessors = function.getPredecessors(function.getBlock(phi));
+			IntList copyPredecessors = function.getPredecessors(function.getBlock(valueMap[phi]));
+			int[] operands = new int[copyPredecessors.size()];
+			for (int j = 0; j < operands.length; j++) {
+				int predecessor = copyPredecessors.get(j) == entry ? slow : original(blockMap, copyPredecessors.get(j));
+				operands[j] = map(valueMap, function.getOperand(phi, predecessors.indexOf(predecessor)));
+			}
+			function.setPhiOperands(valueMap[phi], operands);
+		}
+		mergeLoopValues(function, loop, exit, blockCount, valueMap);
+		for (Access access : pending) {
+			function.setFlag(valueMap[access.instruction], IRFunction.UNCHECKED);
+		}
+		return blockMap[header];
+	}
+
+	/**
+	 * Append the check of the pending accesses to the given block.
+	 * @return condition that is true if all pending accesses are in range
+	 */
+	private static int buildCheck(IRFunction function, int block, InductionVariables.CountedLoop counted,
+	                              List<Access> pending) {
+		int line = function.getLine(counted.getCondition());
+		int minusOne = function.constant(Type.INT, -1);
+		int init = counted.getVariable().getInit();
+		int condition = IRFunction.NONE;
+		if (!function.isConstant(init)) {
+			condition = function.builtin(block, Builtin.LESS_INT, minusOne, init, line);
+		}
+		IntList pointers = new IntList();
+		IntList sizes = new IntList();
+		for (Access access : pending) {
+			int index = pointers.indexOf(access.pointer);
+			if (index < 0) {
+				index = pointers.size();
+				pointers.add(access.pointer);
+				sizes.add(function.builtin(block, Builtin.MEM_SIZE, access.pointer, IRFunction.NONE, line));
+			}
+			int rest = function.builtin(block, Builtin.SUB_INT, sizes.get(index),
+					function.constant(Type.INT, access.constant + access.size), line);
+			int check = function.builtin(block, Builtin.LESS_INT, minusOne, rest, line);
+			if (access.factor > 0) {
+				int quotient = function.builtin(block, Builtin.DIV_INT, rest, function.constant(Type.INT, access.factor), line);
+				int limit = function.builtin(block, Builtin.ADD_INT, quotient, function.constant(Type.INT, 1), line);
+				int exceeds = function.builtin(block, Builtin.LESS_INT, limit, counted.getBound(), line);
+				check = function.builtin(block, Builtin.AND, check,
+						function.builtin(block, Builtin.NOT, exceeds, IRFunction.NONE, line), line);
+			}
+			condition = condition == IRFunction.NONE ? check : function.builtin(block, Builtin.AND, condition, check, line);
+		}
+		return condition;
+	}
+
+	private static int copy(IRFunction function, int instruction, int block, int[] valueMap, int[] blockMap) {
+		switch (function.getOpcode(instruction)) {
+			case IROpcode.PHI:
+				return function.phi(block, function.getType(instruction));
+			case IROpcode.BUILTIN:
+				int value = function.builtin(block, function.getBuiltin(instruction),
+						map(valueMap, function.getFirst(instruction)), map(valueMap, function.getSecond(instruction)),
+						function.getLine(instruction));
+				function.setFlag(value, function.getFlags(instruction));
+				return value;
+			case IROpcode.CALL:
+				int[] arguments = new int[function.getOperandCount(instruction)];
+				for (int i = 0; i < arguments.length; i++) {
+					arguments[i] = map(valueMap, function.getOperand(instruction, i));
+				}
+				return function.call(block, function.getThird(instruction), function.getType(instruction), arguments,
+						function.getLine(instruction));
+			case IROpcode.LOAD_GLOBAL:
+				return function.loadGlobal(block, function.getThird(instruction), function.getType(instruction));
+			case IROpcode.STORE_GLOBAL:
+				return function.storeGlobal(block, function.getThird(instruction), map(valueMap, function.getFirst(instruction)));
+			case IROpcode.COPY:
+				return function.copy(block, map(valueMap, function.getFirst(instruction)));
+			case IROpcode.JUMP:
+				return function.jump(block, mapBlock(blockMap, function.getFirst(instruction)));
+			case IROpcode.BRANCH:
+				return function.branch(block, map(valueMap, function.getFirst(instruction)),
+						mapBlock(blockMap, function.getSecond(instruction)), mapBlock(blockMap, function.getThird(instruction)));
+			default:
+				throw new IllegalStateException("Unexpected instruction " + function.formatInstruction(instruction));
+		}
+	}
+
+	private static int map(int[] valueMap, int value) {
+		return value != IRFunction.NONE && value < valueMap.length && valueMap[value] != IRFunction.NONE
+				? valueMap[value] : value;
+	}
+
+	private static int mapBlock(int[] blockMap, int block) {
+		return blockMap[block] != IRFunction.NONE ? blockMap[block] : block;
+	}
+
+	private static int original(int[] blockMap, int copy) {
+		for (int block = 0; block < blockMap.length; block++) {
+			if (blockMap[block] == copy) {
+				return block;
+			}
+		}
+		throw new IllegalStateException("Block b" + copy + " isn't a copy");
+	}
+
+	/**
+	 * Values of the header that are used after the loop are merged with their copies by phis in the exit.
+	 */
+	private static void mergeLoopValues(IRFunction function, Loops.Loop loop, int exit, int blockCount, int[] valueMap) {
+		IntList headerInstructions = function.getInstructions(loop.getHeader());
+		IntList exitPredecessors = function.getPredecessors(exit);
+		int[] replacements = new int[valueMap.length];
+		Arrays.fill(replacements, IRFunction.NONE);
+		IntList mergePhis = new IntList();
+		for (int i = 0; i < headerInstructions.size(); i++) {
+			int value = headerInstructions.get(i);
+			if (function.getType(value) == Type.VOID || !isUsedOutside(function, loop, blockCount, value)) {
+				continue;
+			}
+			int phi = function.phi(exit, function.getType(value));
+			int[] operands = new int[exitPredecessors.size()];
+			for (int j = 0; j < operands.length; j++) {
+				operands[j] = exitPredecessors.get(j) == loop.getHeader() ? value : valueMap[value];
+			}
+			function.setPhiOperands(phi, operands);
+			replacements[value] = phi;
+			mergePhis.add(phi);
+		}
+		for (int block = 0; block < blockCount; block++) {
+			if (loop.contains(block)) {
+				continue;
+			}
+			IntList instructions = function.getInstructions(block);
+			for (int i = 0; i < instructions.size(); i++) {
+				int instruction = instructions.get(i);
+				if (mergePhis.contains(instruction)) {
+					continue;
+				}
+				for (int j = 0; j < function.getOperandCount(instruction); j++) {
+					int operand = function.getOperand(instruction, j);
+					if (operand < replacements.length && replacements[operand] != IRFunction.NONE) {
+						function.setOperand(instruction, j, replacements[operand]);
+					}
+				}
+			}
+		}
+	}
+
+	private static boolean isUsedOutside(IRFunction function, Loops.Loop loop, int blockCount, int value) {
+		for (int block = 0; block < blockCount; block++) {
+			if (loop.contains(block)) {
+				continue;
+			}
+			IntList instructions = function.getInstructions(block);
+			for (int i = 0; i < instructions.size(); i++) {
+				int instruction = instructions.get(i);
+				for (int j = 0; j < function.getOperandCount(instruction); j++) {
+					if (function.getOperand(instruction, j) == value) {
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+}
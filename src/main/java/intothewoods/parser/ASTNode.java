@@ -188,4 +188,12 @@ public class ASTNode implements Iterable<ASTNode> {
     public String getText() {
         return token.getText();
     }
+
+	/**
+	 * Return the inherited token.
+	 * @return inherited token, a LexerToken for nodes that aren't imaginary
+	 */
+	public Token getToken() {
+		return token;
+	}
 }
\ No newline at end of file
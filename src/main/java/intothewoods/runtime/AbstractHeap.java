@@ -0,0 +1,342 @@
+package intothewoods.runtime;
+
+import intothewoods.common.Type;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Heap that stores the memory areas referenced by Oak pointers and strings.
+ *
+ * Subclasses implement the allocation strategy and the raw (unchecked) memory access,
+ * this class implements the range checked pointer operations of the built in functions on top.
+ * All multi byte values are stored in little endian byte order.
+ */
+public abstract class AbstractHeap {
+
+	private long memoryLimit = Long.MAX_VALUE;
+
+	/**
+	 * Allocate a memory area with the given size.
+	 * @param size given size (at least 1)
+	 * @return address of the first byte of the new memory area
+	 * @throws OakRuntimeException out of memory
+	 */
+	protected abstract int allocate(int size) throws OakRuntimeException;
+
+	/**
+	 * Release the memory area beginning at the given address.
+	 * @param address address of the first byte, as returned by allocate
+	 * @param size size of the memory area
+	 * @throws OakRuntimeException the address doesn't begin a live memory area of the given size
+	 * (only heaps that reuse memory check this)
+	 */
+	protected abstract void release(int address, int size) throws OakRuntimeException;
+
+	public abstract byte getByte(int address);
+
+	public abstract void setByte(int address, byte value);
+
+	public abstract int getInt(int address);
+
+	public abstract void setInt(int address, int value);
+
+	public abstract long getLong(int address);
+
+	public abstract void setLong(int address, long value);
+
+	/**
+	 * Copy bytes inside the heap, the areas may overlap.
+	 * @param source address of the first byte to copy
+	 * @param destination address of the first byte to copy to
+	 * @param length number of bytes
+	 */
+	public abstract void copy(int source, int destination, int length);
+
+	/**
+	 * Copy bytes from a java array into the heap.
+	 */
+	public abstract void write(int address, byte[] bytes, int offset, int length);
+
+	/**
+	 * Copy bytes from the heap into a java array.
+	 */
+	public abstract void read(int address, byte[] bytes, int offset, int length);
+
+	/**
+	 * Copy bytes from the heap into the given buffer, starting at its current position.
+	 */
+	public void read(int address, ByteBuffer buffer, int length) {
+		byte[] chunk = new byte[Math.min(length, 8192)];
+		for (int copied = 0; copied < length; copied += chunk.length) {
+			int chunkLength = Math.min(chunk.length, length - copied);
+			read(address + copied, chunk, 0, chunkLength);
+			buffer.put(chunk, 0, chunkLength);
+		}
+	}
+
+	/**
+	 * Return the number of bytes currently allocated.
+	 * @return allocated bytes
+	 */
+	public abstract long getAllocatedBytes();
+
+	public long getMemoryLimit() {
+		return memoryLimit;
+	}
+
+	/**
+	 * Set the maximum number of allocated bytes, allocations exceeding it fail with out of memory.
+	 * @param memoryLimit maximum number of allocated bytes
+	 */
+	public void setMemoryLimit(long memoryLimit) {
+		this.memoryLimit = memoryLimit;
+	}
+
+	/**
+	 * Allocate a memory area with the given size (malloc).
+	 * @param size given size
+	 * @return pointer referencing the new area
+	 * @throws OakRuntimeException negative size or out of memory
+	 */
+	public long malloc(int size) throws OakRuntimeException {
+		if (size < 0) {
+			throw new OakRuntimeException("Negative allocation size " + size);
+		}
+		if (size == 0) {
+			return Pointers.EMPTY;
+		}
+		if (size > memoryLimit - getAllocatedBytes()) {
+			throw new OakRuntimeException("Out of memory");
+		}
+		return Pointers.ofSize(allocate(size), size);
+	}
+
+	/**
+	 * Free the memory area referenced by the given pointer (free).
+	 * @param pointer given pointer
+	 * @throws OakRuntimeException invalid pointer
+	 */
+	public void free(long pointer) throws OakRuntimeException {
+		checkValid(pointer);
+		int size = Pointers.size(pointer);
+		if (size > 0) {
+			release(Pointers.begin(pointer), size);
+		}
+	}
+
+	/**
+	 * Create a pointer referencing a new memory area containing the given bytes.
+	 * @param bytes given bytes
+	 * @return new pointer
+	 * @throws OakRuntimeException out of memory
+	 */
+	public long allocateBytes(byte[] bytes) throws OakRuntimeException {
+		long pointer = malloc(bytes.length);
+		write(Pointers.begin(pointer), bytes, 0, bytes.length);
+		return pointer;
+	}
+
+	/**
+	 * Return a copy of the bytes referenced by the given pointer.
+	 * @param pointer given pointer
+	 * @return copied bytes
+	 * @throws OakRuntimeException invalid pointer
+	 */
+	public byte[] toBytes(long pointer) throws OakRuntimeException {
+		checkValid(pointer);
+		byte[] bytes = new byte[Pointers.size(pointer)];
+		read(Pointers.begin(pointer), bytes, 0, bytes.length);
+		return bytes;
+	}
+
+	/**
+	 * Create a copy of the referenced memory area (clone_mem).
+	 * @param pointer given pointer
+	 * @return pointer to the copy
+	 * @throws OakRuntimeException invalid pointer or out of memory
+	 */
+	public long cloneMem(long pointer) throws OakRuntimeException {
+		checkValid(pointer);
+		int size = Pointers.size(pointer);
+		long copy = malloc(size);
+		copy(Pointers.begin(pointer), Pointers.begin(copy), size);
+		return copy;
+	}
+
+	/**
+	 * Copy the memory area referenced by the source pointer into the one referenced by the destination (copy_mem).
+	 * @param source given source pointer
+	 * @param destination given destination pointer
+	 * @throws OakRuntimeException invalid pointers or the destination is too small
+	 */
+	public void copyMem(long source, long destination) throws OakRuntimeException {
+		checkValid(source);
+		checkValid(destination);
+		int size = Pointers.size(source);
+		if (Pointers.size(destination) < size) {
+			throw new OakRuntimeException("Destination of copy_mem is too small");
+		}
+		copy(Pointers.begin(source), Pointers.begin(destination), size);
+	}
+
+	/**
+	 * Create a new memory area containing the contents of both given areas (append).
+	 * @param first first pointer
+	 * @param second second pointer
+	 * @return pointer to the new memory area
+	 * @throws OakRuntimeException invalid pointers or out of memory
+	 */
+	public long append(long first, long second) throws OakRuntimeException {
+		checkValid(first);
+		checkValid(second);
+		int firstSize = Pointers.size(first);
+		int secondSize = Pointers.size(second);
+		long result = malloc(firstSize + secondSize);
+		copy(Pointers.begin(first), Pointers.begin(result), firstSize);
+		copy(Pointers.begin(second), Pointers.begin(result) + firstSize, secondSize);
+		return result;
+	}
+
+	/**
+	 * Checks whether or not both pointers reference memory areas with the same bytes.
+	 * @param first first pointer
+	 * @param second second pointer
+	 * @return do both areas contain the same bytes?
+	 * @throws OakRuntimeException invalid pointers
+	 */
+	public boolean equalBytes(long first, long second) throws OakRuntimeException {
+		checkValid(first);
+		checkValid(second);
+		if (first == second) {
+			return true;
+		}
+		int size = Pointers.size(first);
+		if (size != Pointers.size(second)) {
+			return false;
+		}
+		int firstBegin = Pointers.begin(first);
+		int secondBegin = Pointers.begin(second);
+		for (int i = 0; i < size; i++) {
+			if (getByte(firstBegin + i) != getByte(secondBegin + i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Increment the begin address of the given pointer (add pointer int).
+	 * @param pointer given pointer
+	 * @param offset given increment
+	 * @return new pointer
+	 * @throws OakRuntimeException negative offset or the resulting pointer lies outside of the memory area
+	 */
+	public static long addOffset(long pointer, int offset) throws OakRuntimeException {
+		checkValid(pointer);
+		if (offset < 0 || offset > Pointers.size(pointer)) {
+			throw new OakRuntimeException("Pointer offset " + offset + " out of range");
+		}
+		return Pointers.create(Pointers.begin(pointer) + offset, Pointers.end(pointer));
+	}
+
+	/**
+	 * Increment the begin address of the given pointer without checking the range,
+	 * used for offsets that are proven to be in range.
+	 * @param pointer given valid pointer
+	 * @param offset given increment (at most the size of the memory area)
+	 * @return new pointer
+	 */
+	public static long addOffsetUnchecked(long pointer, int offset) {
+		return Pointers.create(Pointers.begin(pointer) + offset, Pointers.end(pointer));
+	}
+
+	/**
+	 * Return the size of the referenced memory area (mem_size).
+	 * @param pointer given pointer
+	 * @return size or -1 if the pointer is invalid
+	 */
+	public static int memSize(long pointer) {
+		return Pointers.isValid(pointer) ? Pointers.size(pointer) : -1;
+	}
+
+	/**
+	 * Load a value of the given type from the referenced memory area (get_TYPE).
+	 * @param pointer given pointer
+	 * @param type type of the loaded value
+	 * @return encoded value
+	 * @throws OakRuntimeException the memory area is too small
+	 */
+	public long load(long pointer, Type type) throws OakRuntimeException {
+		checkAccess(pointer, type);
+		return loadUnchecked(pointer, type);
+	}
+
+	/**
+	 * Load a value of the given type from the referenced memory area without checking its size,
+	 * used for accesses that are proven to be in range.
+	 * @param pointer given pointer
+	 * @param type type of the loaded value
+	 * @return encoded value
+	 */
+	public long loadUnchecked(long pointer, Type type) {
+		int address = Pointers.begin(pointer);
+		switch (type) {
+			case BOOL:
+				return getByte(address) != 0 ? 1 : 0;
+			case BYTE:
+				return getByte(address);
+			case INT:
+			case FLOAT:
+				return getInt(address);
+			default:
+				return getLong(address);
+		}
+	}
+
+	/**
+	 * Store a value of the given type in the referenced memory area (set_TYPE).
+	 * @param pointer given pointer
+	 * @param type type of the stored value
+	 * @param value encoded value
+	 * @throws OakRuntimeException the memory area is too small
+	 */
+	public void store(long pointer, Type type, long value) throws OakRuntimeException {
+		checkAccess(pointer, type);
+		storeUnchecked(pointer, type, value);
+	}
+
+	/**
+	 * Store a value of the given type in the referenced memory area without checking its size,
+	 * used for accesses that are proven to be in range.
+	 * @param pointer given pointer
+	 * @param type type of the stored value
+	 * @param value encoded value
+	 */
+	public void storeUnchecked(long pointer, Type type, long value) {
+		int address = Pointers.begin(pointer);
+		switch (type) {
+			case BOOL:
+			case BYTE:
+				setByte(address, (byte) value);
+				break;
+			case INT:
+			case FLOAT:
+				setInt(address, (int) value);
+				break;
+			default:
+				setLong(address, value);
+		}
+	}
+
+	private static void checkAccess(long pointer, Type type) throws OakRuntimeException {
+		if (Pointers.size(pointer) < type.getSize()) {
+			throw new OakRuntimeException("Memory area too small to access a " + type);
+		}
+	}
+
+	private static void checkValid(long pointer) throws OakRuntimeException {
+		if (!Pointers.isValid(pointer)) {
+			throw new OakRuntimeException("Invalid pointer");
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package intothewoods.runtime;
+
+import java.util.Arrays;
+
+/**
+ * Heap backed by a growing byte array.
+ *
+ * This is the simplest heap implementation: it allocates by bumping a pointer
+ * and never reuses freed memory.
+ */
+public class BasicHeap extends AbstractHeap {
+
+	/**
+	 * The first address handed out, address 0 is reserved for empty memory areas.
+	 */
+	private static final int FIRST_ADDRESS = 8;
+
+	private byte[] memory = new byte[1024];
+	private int top = FIRST_ADDRESS;
+	private long allocatedBytes = 0;
+
+	@Override
+	protected int allocate(int size) throws OakRuntimeException {
+		if (size > Integer.MAX_VALUE - top) {
+			throw new OakRuntimeException("Out of memory");
+		}
+		int address = top;
+		top += size;
+		if (top > memory.length) {
+			memory = Arrays.copyOf(memory, (int) Math.min(Integer.MAX_VALUE - 8, Math.max(top, memory.length * 2L)));
+		}
+		allocatedBytes += size;
+		return address;
+	}
+
+	@Override
+	protected void release(int address, int size) {
+		allocatedBytes -= size;
+	}
+
+	@Override
+	public byte getByte(int address) {
+		return memory[address];
+	}
+
+	@Override
+	public void setByte(int address, byte value) {
+		memory[address] = value;
+	}
+
+	@Override
+	public int getInt(int address) {
+		return (memory[address] & 0xFF) | (memory[address + 1] & 0xFF) << 8 |
+				(memory[address + 2] & 0xFF) << 16 | memory[address + 3] << 24;
+	}
+
+	@Override
+	public void setInt(int address, int value) {
+		memory[address] = (byte) value;
+		memory[address + 1] = (byte) (value >> 8);
+		memory[address + 2] = (byte) (value >> 16);
+		memory[address + 3] = (byte) (value >> 24);
+	}
+
+	@Override
+	public long getLong(int address) {
+		return (getInt(address) & 0xFFFFFFFFL) | (long) getInt(address + 4) << 32;
+	}
+
+	@Override
+	public void setLong(int address, long value) {
+		setInt(address, (int) value);
+		setInt(address + 4, (int) (value >> 32));
+	}
+
+	@Override
+	public void copy(int source, int destination, int length) {
+		System.arraycopy(memory, source, memory, destination, length);
+	}
+
+	@Override
+	public void write(int address, byte[] bytes, int offset, int length) {
+		System.arraycopy(bytes, offset, memory, address, length);
+	}
+
+	@Override
+	public void read(int address, byte[] bytes, int offset, int length) {
+		System.arraycopy(memory, address, bytes, offset, length);
+	}
+
+	@Override
+	public long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+}
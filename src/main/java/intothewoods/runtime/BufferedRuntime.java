@@ -0,0 +1,161 @@
+package intothewoods.runtime;
+
+import intothewoods.common.Builtin;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Runtime that buffers the standard streams in large buffers and accesses them via channels.
+ *
+ * The output buffers are direct buffers, they are written to their channel when they're full and
+ * when the runtime is flushed. It's also flushed when a built in function fails (e.g. an assertion),
+ * when exit is called and before blocking to read input, so that prompts are visible.
+ */
+public class BufferedRuntime extends OakRuntime {
+
+	public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+	private final ReadableByteChannel inputChannel;
+	private final WritableByteChannel outputChannel;
+	private final WritableByteChannel errorChannel;
+	private final ByteBuffer inputBuffer;
+	private final ByteBuffer outputBuffer;
+	private final ByteBuffer errorBuffer;
+	private boolean endOfInput = false;
+
+	public BufferedRuntime(AbstractHeap heap, InputStream input, OutputStream output, OutputStream errorOutput) {
+		this(heap, input, output, errorOutput, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Initialize a buffered runtime.
+	 * @param heap heap used for all memory areas
+	 * @param input standard input
+	 * @param output standard output
+	 * @param errorOutput error output
+	 * @param bufferSize size of each buffer, the output is written when its buffer is full
+	 */
+	public BufferedRuntime(AbstractHeap heap, InputStream input, OutputStream output, OutputStream errorOutput,
+	                       int bufferSize) {
+		super(heap, input, output, errorOutput);
+		this.inputChannel = Channels.newChannel(input);
+		this.outputChannel = Channels.newChannel(output);
+		this.errorChannel = Channels.newChannel(errorOutput);
+		this.inputBuffer = ByteBuffer.allocate(bufferSize);
+		this.inputBuffer.limit(0);
+		this.outputBuffer = ByteBuffer.allocateDirect(bufferSize);
+		this.errorBuffer = ByteBuffer.allocateDirect(bufferSize);
+	}
+
+	@Override
+	public long call(Builtin builtin, long first, long second) throws OakRuntimeException {
+		try {
+			return super.call(builtin, first, second);
+		} catch (OakRuntimeException ex) {
+			flush();
+			throw ex;
+		}
+	}
+
+	@Override
+	public void flush() throws OakRuntimeException {
+		try {
+			drain(outputBuffer, outputChannel);
+			drain(errorBuffer, errorChannel);
+			output.flush();
+			errorOutput.flush();
+		} catch (IOException ex) {
+			throw new OakRuntimeException("IO error: " + ex.getMessage());
+		}
+	}
+
+	@Override
+	protected void print(OutputStream stream, long string) throws OakRuntimeException {
+		if (!Pointers.isValid(string)) {
+			throw new OakRuntimeException("Invalid pointer");
+		}
+		ByteBuffer buffer = stream == errorOutput ? errorBuffer : outputBuffer;
+		WritableByteChannel channel = stream == errorOutput ? errorChannel : outputChannel;
+		int address = Pointers.begin(string);
+		int size = Pointers.size(string);
+		try {
+			while (size > 0) {
+				if (!buffer.hasRemaining()) {
+					drain(buffer, channel);
+				}
+				int length = Math.min(size, buffer.remaining());
+				heap.read(address, buffer, length);
+				address += length;
+				size -= length;
+			}
+			if (!buffer.hasRemaining()) {
+				drain(buffer, channel);
+			}
+		} catch (IOException ex) {
+			throw new OakRuntimeException("IO error: " + ex.getMessage());
+		}
+	}
+
+	@Override
+	protected long readByte() throws OakRuntimeException {
+		return fill() ? inputBuffer.get() : -1;
+	}
+
+	@Override
+	protected long readString() throws OakRuntimeException {
+		byte[] bytes = new byte[64];
+		int length = 0;
+		while (fill()) {
+			byte value = inputBuffer.get();
+			if (value == '\n') {
+				break;
+			}
+			if (length == bytes.length) {
+				bytes = Arrays.copyOf(bytes, length * 2);
+			}
+			bytes[length++] = value;
+		}
+		return heap.allocateBytes(Arrays.copyOf(bytes, length));
+	}
+
+	/**
+	 * Ensure that the input buffer has remaining bytes, reads from the input channel if necessary.
+	 * @return false if the end of the input is reached
+	 */
+	private boolean fill() throws OakRuntimeException {
+		if (inputBuffer.hasRemaining()) {
+			return true;
+		}
+		if (endOfInput) {
+			return false;
+		}
+		flush();
+		try {
+			inputBuffer.clear();
+			int read;
+			do {
+				read = inputChannel.read(inputBuffer);
+			} while (read == 0);
+			inputBuffer.flip();
+			endOfInput = read == -1;
+			return !endOfInput;
+		} catch (IOException ex) {
+			throw new OakRuntimeException("IO error: " + ex.getMessage());
+		}
+	}
+
+	private static void drain(ByteBuffer buffer, WritableByteChannel channel) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+}
@@ -0,0 +1,18 @@
+package intothewoods.runtime;
+
+/**
+ * Exception raised when an Oak program calls exit, used to unwind the execution.
+ */
+public class ExitException extends OakRuntimeException {
+
+	private final int exitCode;
+
+	public ExitException(int exitCode) {
+		super("Exit with code " + exitCode);
+		this.exitCode = exitCode;
+	}
+
+	public int getExitCode() {
+		return exitCode;
+	}
+}
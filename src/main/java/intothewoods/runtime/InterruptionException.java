@@ -0,0 +1,11 @@
+package intothewoods.runtime;
+
+/**
+ * Exception raised when the thread executing an Oak program is interrupted (e.g. because of a timeout).
+ */
+public class InterruptionException extends OakRuntimeException {
+
+	public InterruptionException() {
+		super("Interrupted");
+	}
+}
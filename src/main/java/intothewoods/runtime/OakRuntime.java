@@ -0,0 +1,435 @@
+package intothewoods.runtime;
+
+import intothewoods.common.Builtin;
+import intothewoods.common.Type;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Runtime of an Oak program execution: the heap, the standard streams and the
+ * implementation of the built in functions, shared by all execution engines.
+ *
+ * Values are passed encoded as longs (see intothewoods.analyser.Constant and Pointers).
+ */
+public class OakRuntime {
+
+	protected final AbstractHeap heap;
+	protected final InputStream input;
+	protected final OutputStream output;
+	protected final OutputStream errorOutput;
+	private final StringAppender appender;
+
+	/**
+	 * Initialize a runtime.
+	 * @param heap heap used for all memory areas
+	 * @param input standard input
+	 * @param output standard output
+	 * @param errorOutput error output
+	 */
+	public OakRuntime(AbstractHeap heap, InputStream input, OutputStream output, OutputStream errorOutput) {
+		this.heap = heap;
+		this.input = input;
+		this.output = output;
+		this.errorOutput = errorOutput;
+		this.appender = new StringAppender(heap);
+	}
+
+	public AbstractHeap getHeap() {
+		return heap;
+	}
+
+	/**
+	 * Call the given built in function.
+	 *
+	 * The get_ref functions expect the pointer to the memory cell of the referenced variable
+	 * as their argument.
+	 *
+	 * @param builtin called built in function
+	 * @param first first argument (or 0 if the function has no arguments)
+	 * @param second second argument (or 0 if the function has less than two arguments)
+	 * @return encoded return value (0 for void functions)
+	 * @throws OakRuntimeException the function failed or the program exits
+	 */
+	public long call(Builtin builtin, long first, long second) throws OakRuntimeException {
+		if (builtin.isPure()) {
+			return evaluate(builtin, first, second);
+		}
+		switch (builtin) {
+			case TO_STRING_BYTE:
+			case TO_STRING_INT:
+				return allocateString(Long.toString(first));
+			case TO_STRING_FLOAT:
+				return allocateString(formatFloat(toFloat(first)));
+			case EQUAL_STRING:
+				return heap.equalBytes(first, second) ? 1 : 0;
+			case GET_REF_BOOL:
+			case GET_REF_BYTE:
+			case GET_REF_INT:
+			case GET_REF_FLOAT:
+			case GET_REF_POINTER:
+			case GET_REF_STRING:
+				return first;
+			case MALLOC:
+				return heap.malloc((int) first);
+			case FREE:
+				if (!appender.free(first)) {
+					heap.free(first);
+				}
+				return 0;
+			case CLONE_MEM:
+				return heap.cloneMem(first);
+			case COPY_MEM:
+				heap.copyMem(first, second);
+				return 0;
+			case APPEND_POINTER:
+				return heap.append(first, second);
+			case APPEND_STRING:
+				return appender.append(first, second);
+			case GET_BOOL:
+			case GET_BYTE:
+			case GET_INT:
+			case GET_FLOAT:
+			case GET_POINTER:
+			case GET_STRING:
+				return heap.load(first, builtin.getReturnType());
+			case SET_BOOL:
+			case SET_BYTE:
+			case SET_INT:
+			case SET_FLOAT:
+			case SET_POINTER:
+			case SET_STRING:
+				heap.store(first, builtin.getParameterTypes().get(1), second);
+				return 0;
+			case PRINT:
+				print(output, first);
+				return 0;
+			case PRINT_ERR:
+				print(errorOutput, first);
+				return 0;
+			case READ_BYTE:
+				return readByte();
+			case READ_STRING:
+				return readString();
+			case EXIT:
+				throw new ExitException((int) first);
+			case ASSERT:
+				if (first == 0) {
+					throw new OakRuntimeException("Assertion failed");
+				}
+				return 0;
+			case ASSERT_MESSAGE:
+				if (first == 0) {
+					throw new OakRuntimeException("Assertion failed: " +
+							new String(heap.toBytes(second), StandardCharsets.ISO_8859_1));
+				}
+				return 0;
+			default:
+				throw new IllegalArgumentException("Unsupported built in function " + builtin);
+		}
+	}
+
+	/**
+	 * Call the given built in function without its range check, the pointer argument has to be valid and
+	 * its memory area large enough (see IRFunction.UNCHECKED).
+	 *
+	 * @param builtin called built in function: get_TYPE, set_TYPE or add (pointer)
+	 * @param first first argument
+	 * @param second second argument (or 0 if the function has less than two arguments)
+	 * @return encoded return value (0 for void functions)
+	 * @throws OakRuntimeException the function failed
+	 */
+	public long callUnchecked(Builtin builtin, long first, long second) throws OakRuntimeException {
+		switch (builtin) {
+			case ADD_POINTER:
+				return AbstractHeap.addOffsetUnchecked(first, (int) second);
+			case GET_BOOL:
+			case GET_BYTE:
+			case GET_INT:
+			case GET_FLOAT:
+			case GET_POINTER:
+			case GET_STRING:
+				return heap.loadUnchecked(first, builtin.getReturnType());
+			case SET_BOOL:
+			case SET_BYTE:
+			case SET_INT:
+			case SET_FLOAT:
+			case SET_POINTER:
+			case SET_STRING:
+				heap.storeUnchecked(first, builtin.getParameterTypes().get(1), second);
+				return 0;
+			default:
+				return call(builtin, first, second);
+		}
+	}
+
+	/**
+	 * Evaluate the given pure built in function (see Builtin.isPure()), without accessing the heap.
+	 * It's used by the runtime and for folding calls with constant arguments.
+	 *
+	 * @param builtin called pure built in function
+	 * @param first first argument (or 0 if the function has no arguments)
+	 * @param second second argument (or 0 if the function has less than two arguments)
+	 * @return encoded return value
+	 * @throws OakRuntimeException the function failed
+	 */
+	public static long evaluate(Builtin builtin, long first, long second) throws OakRuntimeException {
+		switch (builtin) {
+			case TO_BOOL_BYTE:
+			case TO_BOOL_INT:
+				return first != 0 ? 1 : 0;
+			case TO_BOOL_FLOAT:
+				return toBool(toFloat(first)) ? 1 : 0;
+			case TO_BYTE_BOOL:
+			case TO_INT_BOOL:
+			case TO_INT_BYTE:
+			case TO_POINTER_STRING:
+			case TO_STRING_POINTER:
+				return first;
+			case TO_BYTE_INT:
+				return toByte((int) first);
+			case TO_INT_FLOAT:
+				return (int) toFloat(first);
+			case TO_FLOAT_INT:
+				return ofFloat((int) first);
+			case ROUND:
+				return round(toFloat(first));
+			case FLOOR:
+				return floor(toFloat(first));
+			case ADD_BYTE:
+				return (byte) (first + second);
+			case ADD_INT:
+				return (int) first + (int) second;
+			case ADD_FLOAT:
+				return ofFloat(toFloat(first) + toFloat(second));
+			case ADD_POINTER:
+				return AbstractHeap.addOffset(first, (int) second);
+			case SUB_BYTE:
+				return (byte) (first - second);
+			case SUB_INT:
+				return (int) first - (int) second;
+			case SUB_FLOAT:
+				return ofFloat(toFloat(first) - toFloat(second));
+			case MUL_BYTE:
+				return (byte) (first * second);
+			case MUL_INT:
+				return (int) first * (int) second;
+			case MUL_FLOAT:
+				return ofFloat(toFloat(first) * toFloat(second));
+			case DIV_BYTE:
+				return (byte) divInt((int) first, (int) second);
+			case DIV_INT:
+				return divInt((int) first, (int) second);
+			case DIV_FLOAT:
+				return ofFloat(divFloat(toFloat(first), toFloat(second)));
+			case MOD_BYTE:
+				return (byte) modInt((int) first, (int) second);
+			case MOD_INT:
+				return modInt((int) first, (int) second);
+			case NOT:
+				return first ^ 1;
+			case AND:
+				return first & second;
+			case OR:
+				return first | second;
+			case XOR:
+				return first ^ second;
+			case EQUAL_BOOL:
+			case EQUAL_BYTE:
+			case EQUAL_INT:
+			case EQUAL_POINTER:
+				return first == second ? 1 : 0;
+			case EQUAL_FLOAT:
+				return toFloat(first) == toFloat(second) ? 1 : 0;
+			case LESS_BYTE:
+			case LESS_INT:
+				return first < second ? 1 : 0;
+			case LESS_FLOAT:
+				return toFloat(first) < toFloat(second) ? 1 : 0;
+			case MEM_SIZE:
+				return AbstractHeap.memSize(first);
+			default:
+				throw new IllegalArgumentException("Built in function " + builtin + " isn't pure");
+		}
+	}
+
+	/**
+	 * Flush the output streams, should be called when the program ends.
+	 * @throws OakRuntimeException io error
+	 */
+	public void flush() throws OakRuntimeException {
+		try {
+			output.flush();
+			errorOutput.flush();
+		} catch (IOException ex) {
+			throw new OakRuntimeException("IO error: " + ex.getMessage());
+		}
+	}
+
+	/**
+	 * Create a new string on the heap.
+	 * @param text given text (only ISO-8859-1 characters)
+	 * @return pointer to the new string
+	 * @throws OakRuntimeException out of memory
+	 */
+	public long allocateString(String text) throws OakRuntimeException {
+		return heap.allocateBytes(text.getBytes(StandardCharsets.ISO_8859_1));
+	}
+
+	protected void print(OutputStream stream, long string) throws OakRuntimeException {
+		try {
+			stream.write(heap.toBytes(string));
+		} catch (IOException ex) {
+			throw new OakRuntimeException("IO error: " + ex.getMessage());
+		}
+	}
+
+	protected long readByte() throws OakRuntimeException {
+		try {
+			return (byte) input.read();
+		} catch (IOException ex) {
+			throw new OakRuntimeException("IO error: " + ex.getMessage());
+		}
+	}
+
+	protected long readString() throws OakRuntimeException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try {
+			int c = input.read();
+			while (c != -1 && c != '\n') {
+				bytes.write(c);
+				c = input.read();
+			}
+		} catch (IOException ex) {
+			throw new OakRuntimeException("IO error: " + ex.getMessage());
+		}
+		return heap.allocateBytes(bytes.toByteArray());
+	}
+
+	/**
+	 * Return the default value of variables of the given type (e.g. of the ret_TYPE variables).
+	 * @param type given type
+	 * @return encoded default value
+	 */
+	public static long defaultValue(Type type) {
+		return type.isPointerLike() ? Pointers.EMPTY : 0;
+	}
+
+	public static float toFloat(long value) {
+		return Float.intBitsToFloat((int) value);
+	}
+
+	public static long ofFloat(float value) {
+		return Float.floatToRawIntBits(value);
+	}
+
+	public static boolean toBool(float value) {
+		return value != 0 && !Float.isNaN(value);
+	}
+
+	public static int toByte(int value) throws OakRuntimeException {
+		if (value < Byte.MIN_VALUE || value > Byte.MAX_VALUE) {
+			throw new OakRuntimeException("Int " + value + " too large for a byte");
+		}
+		return value;
+	}
+
+	public static int divInt(int first, int second) throws OakRuntimeException {
+		if (second == 0) {
+			throw new OakRuntimeException("Division by zero");
+		}
+		return first / second;
+	}
+
+	/**
+	 * Calculate the mathematical modulo (the result is never negative).
+	 */
+	public static int modInt(int first, int second) throws OakRuntimeException {
+		if (second == 0) {
+			throw new OakRuntimeException("Division by zero");
+		}
+		int result = first % second;
+		if (result < 0) {
+			return second < 0 ? result - second : result + second;
+		}
+		return result;
+	}
+
+	public static float divFloat(float first, float second) throws OakRuntimeException {
+		if (second == 0) {
+			throw new OakRuntimeException("Division by zero");
+		}
+		return first / second;
+	}
+
+	public static int round(float value) throws OakRuntimeException {
+		if (Float.isNaN(value)) {
+			throw new OakRuntimeException("Can't round NaN");
+		}
+		return Math.round(value);
+	}
+
+	public static int floor(float value) throws OakRuntimeException {
+		if (Float.isNaN(value)) {
+			throw new OakRuntimeException("Can't floor NaN");
+		}
+		return (int) Math.floor(value);
+	}
+
+	/**
+	 * Format a float like the x86 and MIPS runtimes do: the shortest digits that identify the float,
+	 * in decimal notation if the magnitude is in [10^-3, 10^7), else in computerized scientific notation.
+	 * Unlike Float.toString, the digits are always the shortest ones (e.g. 1.2345679E8 for 123456789).
+	 */
+	public static String formatFloat(float value) {
+		if (Float.isNaN(value) || Float.isInfinite(value) || value == 0) {
+			return Float.toString(value);
+		}
+		float magnitude = Math.abs(value);
+		BigDecimal exact = new BigDecimal(magnitude);
+		BigDecimal rounded = exact;
+		for (int precision = 1; precision <= 9; precision++) {
+			rounded = exact.round(new MathContext(precision, RoundingMode.HALF_EVEN));
+			if (Float.parseFloat(rounded.toString()) == magnitude) {
+				break;
+			}
+		}
+		String digits = rounded.unscaledValue().toString();
+		int exponent = digits.length() - 1 - rounded.scale();
+		int count = digits.length();
+		while (count > 1 && digits.charAt(count - 1) == '0') {
+			count--;
+		}
+		digits = digits.substring(0, count);
+		StringBuilder builder = new StringBuilder();
+		if (value < 0) {
+			builder.append('-');
+		}
+		if (magnitude >= 1e-3f && magnitude < 1e7f) {
+			if (exponent >= 0) {
+				for (int i = 0; i <= exponent; i++) {
+					builder.append(i < count ? digits.charAt(i) : '0');
+				}
+				builder.append('.');
+				builder.append(count <= exponent + 1 ? "0" : digits.substring(exponent + 1));
+			} else {
+				builder.append("0.");
+				for (int i = -1; i > exponent; i--) {
+					builder.append('0');
+				}
+				builder.append(digits);
+			}
+		} else {
+			builder.append(digits.charAt(0)).append('.');
+			builder.append(count == 1 ? "0" : digits.substring(1));
+			builder.append('E').append(exponent);
+		}
+		return builder.toString();
+	}
+}
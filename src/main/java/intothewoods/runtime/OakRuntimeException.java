@@ -0,0 +1,41 @@
+package intothewoods.runtime;
+
+/**
+ * Exception raised when an Oak program fails at runtime (e.g. a division by zero).
+ */
+public class OakRuntimeException extends Exception {
+
+	private final int line;
+
+	public OakRuntimeException(String message) {
+		this(message, 0);
+	}
+
+	public OakRuntimeException(String message, int line) {
+		super(line > 0 ? "Error at line " + line + ": " + message : message);
+		this.line = line;
+	}
+
+	/**
+	 * Return the line of the statement that failed.
+	 * @return line or 0 if it's unknown
+	 */
+	public int getLine() {
+		return line;
+	}
+
+	/**
+	 * Add the line of the failed statement to the given exception, all engines report runtime errors
+	 * this way (as "Error at line LINE: MESSAGE").
+	 * @param exception given exception
+	 * @param line line of the failed statement
+	 * @return the given exception if it already has a line or ends the program (exit or interruption),
+	 * else an exception with the same message and the line
+	 */
+	public static OakRuntimeException atLine(OakRuntimeException exception, int line) {
+		if (exception.getLine() > 0 || exception instanceof ExitException || exception instanceof InterruptionException) {
+			return exception;
+		}
+		return new OakRuntimeException(exception.getMessage(), line);
+	}
+}
@@ -0,0 +1,66 @@
+package intothewoods.runtime;
+
+/**
+ * Encoding of Oak pointers (and strings) as longs.
+ *
+ * A pointer consists of two 4 byte pointers, the begin address (upper 32 bits) pointing at the
+ * first byte and the end address (lower 32 bits) pointing at the last byte of the referenced
+ * memory area. A pointer to an empty memory area has an end address one before its begin address,
+ * an invalid pointer has an end address that lies further before its begin address.
+ */
+public final class Pointers {
+
+	/**
+	 * Pointer to an empty memory area, the default value of pointers and strings.
+	 */
+	public static final long EMPTY = create(0, -1);
+
+	/**
+	 * An invalid pointer, e.g. a freed one.
+	 */
+	public static final long INVALID = create(0, -2);
+
+	private Pointers() {
+	}
+
+	/**
+	 * Create a pointer.
+	 * @param begin address of the first byte
+	 * @param end address of the last byte
+	 * @return encoded pointer
+	 */
+	public static long create(int begin, int end) {
+		return ((long) begin << 32) | (end & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Create a pointer referencing a memory area with the given size.
+	 * @param begin address of the first byte
+	 * @param size size of the memory area
+	 * @return encoded pointer
+	 */
+	public static long ofSize(int begin, int size) {
+		return create(begin, begin + size - 1);
+	}
+
+	public static int begin(long pointer) {
+		return (int) (pointer >> 32);
+	}
+
+	public static int end(long pointer) {
+		return (int) pointer;
+	}
+
+	/**
+	 * Return the size of the referenced memory area.
+	 * @param pointer given pointer
+	 * @return size in bytes or a negative number if the pointer is invalid
+	 */
+	public static int size(long pointer) {
+		return end(pointer) - begin(pointer) + 1;
+	}
+
+	public static boolean isValid(long pointer) {
+		return size(pointer) >= 0;
+	}
+}
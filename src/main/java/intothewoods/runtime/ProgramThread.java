@@ -0,0 +1,49 @@
+package intothewoods.runtime;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Runs a program on its own thread with a large Java stack, for engines that execute each Oak call
+ * as (at least) one Java call.
+ */
+public final class ProgramThread {
+
+	private ProgramThread() {
+	}
+
+	/**
+	 * Run the given execution on a new thread and wait for it.
+	 * Interrupting the waiting thread interrupts the execution.
+	 * @param name name of the new thread
+	 * @param stackSize size of the Java stack of the new thread in bytes, it limits the recursion depth
+	 * @param execution execution of the program, returning its exit code
+	 * @return exit code
+	 * @throws OakRuntimeException the program failed or the waiting thread was interrupted
+	 */
+	public static int run(String name, long stackSize, Callable<Integer> execution) throws OakRuntimeException {
+		FutureTask<Integer> task = new FutureTask<>(execution);
+		Thread thread = new Thread(null, task, name, stackSize);
+		thread.start();
+		try {
+			return task.get();
+		} catch (InterruptedException ex) {
+			thread.interrupt();
+			Thread.currentThread().interrupt();
+			throw new InterruptionException();
+		} catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof OakRuntimeException) {
+				throw (OakRuntimeException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IllegalStateException(cause);
+		}
+	}
+}
@@ -0,0 +1,374 @@
+package intothewoods.runtime;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Heap backed by direct byte buffers, that keeps the memory of Oak programs outside of the java heap.
+ *
+ * The address space is divided into slabs of SLAB_SIZE bytes. Small memory areas are rounded up to a
+ * size class (a power of two), every small slab holds blocks of one size class only. Freed blocks are
+ * kept in a free list per size class, new blocks are taken from the free list or by bumping the offset
+ * in the current slab of the size class. Larger memory areas get a span of consecutive slab addresses,
+ * backed by one buffer. Freed spans are merged with their free neighbours and reused by first fit: the
+ * first free span that is large enough is split, its buffer is reused if it backs all of the taken slabs.
+ * If no free span is large enough, the last one is extended by unused slab addresses.
+ *
+ * Freeing a pointer that doesn't reference the beginning of a live memory area fails.
+ */
+public class SlabHeap extends AbstractHeap {
+
+	public static final int SLAB_SHIFT = 18;
+	public static final int SLAB_SIZE = 1 << SLAB_SHIFT;
+
+	/**
+	 * Size of the smallest size class.
+	 */
+	private static final int MIN_BLOCK_SHIFT = 3;
+
+	/**
+	 * Size of the largest size class, larger areas get their own span of slabs.
+	 */
+	private static final int MAX_BLOCK_SHIFT = 14;
+
+	private static final int MAX_SLABS = 1 << (31 - SLAB_SHIFT);
+	private static final int LARGE = -1;
+	private static final int UNUSED = -2;
+	private static final byte[] ZEROS = new byte[1 << MAX_BLOCK_SHIFT];
+
+	/**
+	 * Buffer of each slab, slabs of a large span share their buffer.
+	 */
+	private final ByteBuffer[] buffers = new ByteBuffer[MAX_SLABS];
+
+	/**
+	 * Address of the first byte of the buffer of each slab.
+	 */
+	private final int[] bases = new int[MAX_SLABS];
+
+	/**
+	 * Size class of each slab, LARGE for the first slab of a span or UNUSED.
+	 */
+	private final int[] slabClasses = new int[MAX_SLABS];
+
+	/**
+	 * Allocated blocks of each small slab, number of slabs of each live large span.
+	 */
+	private final BitSet[] liveBlocks = new BitSet[MAX_SLABS];
+	private final int[] spanLengths = new int[MAX_SLABS];
+
+	private final int classCount = MAX_BLOCK_SHIFT - MIN_BLOCK_SHIFT + 1;
+	private final int[][] freeLists = new int[classCount][];
+	private final int[] freeCounts = new int[classCount];
+	private final int[] bumpSlabs = new int[classCount];
+	private final int[] bumpOffsets = new int[classCount];
+	/**
+	 * Number of slabs of each free span by its first slab, neighbouring free spans are merged.
+	 */
+	private final TreeMap<Integer, Integer> freeSpans = new TreeMap<>();
+
+	/**
+	 * Next unused slab, slab 0 is reserved for empty memory areas.
+	 */
+	private int nextSlab = 1;
+	private long allocatedBytes = 0;
+	private long reservedBytes = 0;
+
+	public SlabHeap() {
+		Arrays.fill(slabClasses, UNUSED);
+		for (int i = 0; i < classCount; i++) {
+			freeLists[i] = new int[16];
+		}
+	}
+
+	@Override
+	protected int allocate(int size) throws OakRuntimeException {
+		int address;
+		if (size > 1 << MAX_BLOCK_SHIFT) {
+			address = allocateSpan(getSlabCount(size));
+		} else {
+			address = allocateBlock(getSizeClass(size));
+		}
+		allocatedBytes += size;
+		return address;
+	}
+
+	@Override
+	protected void release(int address, int size) throws OakRuntimeException {
+		int slab = address >>> SLAB_SHIFT;
+		int sizeClass = slabClasses[slab];
+		if (size > 1 << MAX_BLOCK_SHIFT) {
+			if (sizeClass != LARGE || (address & (SLAB_SIZE - 1)) != 0 ||
+					spanLengths[slab] != getSlabCount(size)) {
+				throw new OakRuntimeException("Invalid pointer");
+			}
+			releaseSpan(slab);
+			allocatedBytes -= size;
+			return;
+		}
+		if (sizeClass != getSizeClass(size)) {
+			throw new OakRuntimeException("Invalid pointer");
+		}
+		int offset = address & (SLAB_SIZE - 1);
+		int blockShift = sizeClass + MIN_BLOCK_SHIFT;
+		int block = offset >> blockShift;
+		if ((block << blockShift) != offset || !liveBlocks[slab].get(block)) {
+			throw new OakRuntimeException("Invalid pointer");
+		}
+		liveBlocks[slab].clear(block);
+		if (freeCounts[sizeClass] == freeLists[sizeClass].length) {
+			freeLists[sizeClass] = Arrays.copyOf(freeLists[sizeClass], freeCounts[sizeClass] * 2);
+		}
+		freeLists[sizeClass][freeCounts[sizeClass]++] = address;
+		allocatedBytes -= size;
+	}
+
+	private int allocateBlock(int sizeClass) throws OakRuntimeException {
+		int blockSize = 1 << (sizeClass + MIN_BLOCK_SHIFT);
+		int address;
+		if (freeCounts[sizeClass] > 0) {
+			address = freeLists[sizeClass][--freeCounts[sizeClass]];
+			write(address, ZEROS, 0, blockSize);
+		} else {
+			if (bumpSlabs[sizeClass] == 0 || bumpOffsets[sizeClass] == SLAB_SIZE) {
+				int slab = reserveSlabs(1, SLAB_SIZE);
+				slabClasses[slab] = sizeClass;
+				liveBlocks[slab] = new BitSet();
+				bumpSlabs[sizeClass] = slab;
+				bumpOffsets[sizeClass] = 0;
+			}
+			address = (bumpSlabs[sizeClass] << SLAB_SHIFT) | bumpOffsets[sizeClass];
+			bumpOffsets[sizeClass] += blockSize;
+		}
+		liveBlocks[address >>> SLAB_SHIFT].set((address & (SLAB_SIZE - 1)) >> (sizeClass + MIN_BLOCK_SHIFT));
+		return address;
+	}
+
+	private int allocateSpan(int slabs) throws OakRuntimeException {
+		Map.Entry<Integer, Integer> span = null;
+		for (Map.Entry<Integer, Integer> entry : freeSpans.entrySet()) {
+			if (entry.getValue() >= slabs) {
+				span = entry;
+				break;
+			}
+		}
+		int first;
+		if (span != null) {
+			first = span.getKey();
+			int length = span.getValue();
+			freeSpans.remove(first);
+			if (length > slabs) {
+				freeSpans.put(first + slabs, length - slabs);
+			}
+			if (isBackedByOneBuffer(first, slabs)) {
+				ByteBuffer buffer = view(first << SLAB_SHIFT, slabs * SLAB_SIZE);
+				while (buffer.hasRemaining()) {
+					buffer.put(ZEROS, 0, Math.min(ZEROS.length, buffer.remaining()));
+				}
+			} else {
+				assignBuffer(first, slabs, allocateBuffer(slabs * SLAB_SIZE));
+			}
+		} else if (!freeSpans.isEmpty() && freeSpans.lastKey() + freeSpans.lastEntry().getValue() == nextSlab) {
+			// extend the last free span by unused slabs
+			first = freeSpans.lastKey();
+			int added = slabs - freeSpans.remove(first);
+			if (added > MAX_SLABS - nextSlab) {
+				throw new OakRuntimeException("Out of memory");
+			}
+			assignBuffer(first, slabs, allocateBuffer(slabs * SLAB_SIZE));
+			nextSlab += added;
+		} else {
+			first = reserveSlabs(slabs, slabs * SLAB_SIZE);
+		}
+		slabClasses[first] = LARGE;
+		spanLengths[first] = slabs;
+		return first << SLAB_SHIFT;
+	}
+
+	private boolean isBackedByOneBuffer(int first, int slabs) {
+		for (int i = 1; i < slabs; i++) {
+			if (buffers[first + i] != buffers[first]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void releaseSpan(int first) {
+		int slabs = spanLengths[first];
+		spanLengths[first] = 0;
+		slabClasses[first] = UNUSED;
+		Map.Entry<Integer, Integer> previous = freeSpans.lowerEntry(first);
+		if (previous != null && previous.getKey() + previous.getValue() == first) {
+			first = previous.getKey();
+			slabs += previous.getValue();
+		}
+		Integer next = freeSpans.remove(first + slabs);
+		if (next != null) {
+			slabs += next;
+		}
+		freeSpans.put(first, slabs);
+	}
+
+	/**
+	 * Reserve consecutive slab addresses backed by a new buffer.
+	 * @return index of the first slab
+	 */
+	private int reserveSlabs(int slabs, int bufferSize) throws OakRuntimeException {
+		if (slabs > MAX_SLABS - nextSlab) {
+			throw new OakRuntimeException("Out of memory");
+		}
+		int first = nextSlab;
+		assignBuffer(first, slabs, allocateBuffer(bufferSize));
+		nextSlab += slabs;
+		return first;
+	}
+
+	private ByteBuffer allocateBuffer(int size) throws OakRuntimeException {
+		ByteBuffer buffer;
+		try {
+			buffer = ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+		} catch (OutOfMemoryError error) {
+			throw new OakRuntimeException("Out of memory");
+		}
+		reservedBytes += size;
+		return buffer;
+	}
+
+	/**
+	 * Back the given consecutive slabs by the given buffer.
+	 */
+	private void assignBuffer(int first, int slabs, ByteBuffer buffer) {
+		for (int i = 0; i < slabs; i++) {
+			buffers[first + i] = buffer;
+			bases[first + i] = first << SLAB_SHIFT;
+		}
+	}
+
+	private static int getSlabCount(int size) {
+		return (int) (((long) size + SLAB_SIZE - 1) >> SLAB_SHIFT);
+	}
+
+	private static int getSizeClass(int size) {
+		int shift = 32 - Integer.numberOfLeadingZeros(size - 1);
+		return Math.max(shift, MIN_BLOCK_SHIFT) - MIN_BLOCK_SHIFT;
+	}
+
+	@Override
+	public byte getByte(int address) {
+		int slab = address >>> SLAB_SHIFT;
+		return buffers[slab].get(address - bases[slab]);
+	}
+
+	@Override
+	public void setByte(int address, byte value) {
+		int slab = address >>> SLAB_SHIFT;
+		buffers[slab].put(address - bases[slab], value);
+	}
+
+	@Override
+	public int getInt(int address) {
+		int slab = address >>> SLAB_SHIFT;
+		return buffers[slab].getInt(address - bases[slab]);
+	}
+
+	@Override
+	public void setInt(int address, int value) {
+		int slab = address >>> SLAB_SHIFT;
+		buffers[slab].putInt(address - bases[slab], value);
+	}
+
+	@Override
+	public long getLong(int address) {
+		int slab = address >>> SLAB_SHIFT;
+		return buffers[slab].getLong(address - bases[slab]);
+	}
+
+	@Override
+	public void setLong(int address, long value) {
+		int slab = address >>> SLAB_SHIFT;
+		buffers[slab].putLong(address - bases[slab], value);
+	}
+
+	@Override
+	public void copy(int source, int destination, int length) {
+		if (length == 0) {
+			return;
+		}
+		ByteBuffer from = view(source, length);
+		ByteBuffer to = view(destination, length);
+		if (buffers[source >>> SLAB_SHIFT] == buffers[destination >>> SLAB_SHIFT] &&
+				source < destination + length && destination < source + length) {
+			byte[] bytes = new byte[length];
+			from.get(bytes);
+			to.put(bytes);
+		} else {
+			to.put(from);
+		}
+	}
+
+	@Override
+	public void write(int address, byte[] bytes, int offset, int length) {
+		if (length > 0) {
+			view(address, length).put(bytes, offset, length);
+		}
+	}
+
+	@Override
+	public void read(int address, byte[] bytes, int offset, int length) {
+		if (length > 0) {
+			view(address, length).get(bytes, offset, length);
+		}
+	}
+
+	@Override
+	public void read(int address, ByteBuffer buffer, int length) {
+		if (length > 0) {
+			buffer.put(view(address, length));
+		}
+	}
+
+	@Override
+	public boolean equalBytes(long first, long second) throws OakRuntimeException {
+		if (!Pointers.isValid(first) || !Pointers.isValid(second)) {
+			return super.equalBytes(first, second);
+		}
+		if (first == second) {
+			return true;
+		}
+		int size = Pointers.size(first);
+		if (size != Pointers.size(second)) {
+			return false;
+		}
+		return size == 0 || view(Pointers.begin(first), size).equals(view(Pointers.begin(second), size));
+	}
+
+	@Override
+	public long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+
+	/**
+	 * Return the number of bytes of all buffers allocated so far.
+	 * @return reserved bytes, including unused and freed blocks
+	 */
+	public long getReservedBytes() {
+		return reservedBytes;
+	}
+
+	/**
+	 * Return a buffer whose remaining bytes are the given memory area.
+	 */
+	private ByteBuffer view(int address, int length) {
+		int slab = address >>> SLAB_SHIFT;
+		ByteBuffer buffer = buffers[slab].duplicate();
+		int position = address - bases[slab];
+		buffer.limit(position + length);
+		buffer.position(position);
+		return buffer;
+	}
+}
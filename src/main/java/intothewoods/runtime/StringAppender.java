@@ -0,0 +1,99 @@
+package intothewoods.runtime;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Implements append string string, so that chains of appends (e.g. building a string in a loop) take linear time.
+ *
+ * Every appended string lives in a buffer on the heap. Appending to the longest string of a buffer writes
+ * the second string behind it, if the buffer has enough spare capacity, and returns a longer string
+ * starting at the same address. Otherwise a new buffer is allocated, twice as large as needed if the first
+ * string is itself an appended string. The strings of a buffer share its memory, so it's only released
+ * when all of them are freed.
+ *
+ * Appends never write into the bytes of an existing string: appending to a string that isn't the longest
+ * string of its buffer (the buffer is shared beyond its end) copies it into a new buffer instead.
+ * Converting a string into a pointer returns the string's own bytes, as for all other strings.
+ */
+class StringAppender {
+
+	/**
+	 * Buffer of appended strings.
+	 */
+	private static class Buffer {
+
+		final long area;
+		int used;
+		int references = 1;
+
+		Buffer(long area, int used) {
+			this.area = area;
+			this.used = used;
+		}
+	}
+
+	private final AbstractHeap heap;
+	/**
+	 * Buffers by their address.
+	 */
+	private final Map<Integer, Buffer> buffers = new HashMap<>();
+
+	StringAppender(AbstractHeap heap) {
+		this.heap = heap;
+	}
+
+	/**
+	 * Append the second string to the first.
+	 * @param first first string
+	 * @param second second string
+	 * @return new string, it has to be freed via free
+	 * @throws OakRuntimeException invalid pointers or out of memory
+	 */
+	long append(long first, long second) throws OakRuntimeException {
+		if (!Pointers.isValid(first) || !Pointers.isValid(second)) {
+			throw new OakRuntimeException("Invalid pointer");
+		}
+		int firstSize = Pointers.size(first);
+		int secondSize = Pointers.size(second);
+		int size = firstSize + secondSize;
+		if (size == 0) {
+			return Pointers.EMPTY;
+		}
+		int begin = Pointers.begin(first);
+		Buffer buffer = firstSize == 0 ? null : buffers.get(begin);
+		if (buffer != null && firstSize == buffer.used && size <= Pointers.size(buffer.area)) {
+			heap.copy(Pointers.begin(second), begin + firstSize, secondSize);
+			buffer.used = size;
+			buffer.references++;
+			return Pointers.ofSize(begin, size);
+		}
+		long area = heap.malloc(buffer == null ? size : size * 2);
+		int address = Pointers.begin(area);
+		heap.copy(begin, address, firstSize);
+		heap.copy(Pointers.begin(second), address + firstSize, secondSize);
+		buffers.put(address, new Buffer(area, size));
+		return Pointers.ofSize(address, size);
+	}
+
+	/**
+	 * Free the given pointer if it references an appended string.
+	 * @param pointer given pointer
+	 * @return false if it doesn't reference an appended string
+	 * @throws OakRuntimeException invalid pointer
+	 */
+	boolean free(long pointer) throws OakRuntimeException {
+		if (!Pointers.isValid(pointer) || Pointers.size(pointer) == 0) {
+			return false;
+		}
+		Buffer buffer = buffers.get(Pointers.begin(pointer));
+		if (buffer == null) {
+			return false;
+		}
+		if (--buffer.references == 0) {
+			buffers.remove(Pointers.begin(pointer));
+			heap.free(buffer.area);
+		}
+		return true;
+	}
+}
@@ -0,0 +1,157 @@
+package intothewoods.vm;
+
+import intothewoods.analyser.Constant;
+import intothewoods.common.Builtin;
+
+import java.util.List;
+
+/**
+ * A program compiled into register based bytecode (see Opcode).
+ *
+ * The static slots consist of the global variables followed by the constants.
+ * The global variable initialization is compiled into an additional void function without
+ * parameters, the init function.
+ */
+public class Bytecode {
+
+	private final int[] code;
+	private final int[] lines;
+	private final Constant[] constants;
+	private final int globalCount;
+	private final String[] functionNames;
+	private final int[] entries;
+	private final int[] frameSizes;
+	private final int initFunction;
+	private final int mainFunction;
+
+	public Bytecode(int[] code, int[] lines, List<Constant> constants, int globalCount,
+	                String[] functionNames, int[] entries, int[] frameSizes, int initFunction, int mainFunction) {
+		this.code = code;
+		this.lines = lines;
+		this.constants = constants.toArray(new Constant[constants.size()]);
+		this.globalCount = globalCount;
+		this.functionNames = functionNames;
+		this.entries = entries;
+		this.frameSizes = frameSizes;
+		this.initFunction = initFunction;
+		this.mainFunction = mainFunction;
+	}
+
+	public int[] getCode() {
+		return code;
+	}
+
+	/**
+	 * Return the source line of each code index.
+	 * @return lines, with the same length as the code
+	 */
+	public int[] getLines() {
+		return lines;
+	}
+
+	public Constant[] getConstants() {
+		return constants;
+	}
+
+	public int getGlobalCount() {
+		return globalCount;
+	}
+
+	public int getFunctionCount() {
+		return entries.length;
+	}
+
+	public String getFunctionName(int function) {
+		return functionNames[function];
+	}
+
+	/**
+	 * Return the index of the first instruction of each function.
+	 * @return entry points
+	 */
+	public int[] getEntries() {
+		return entries;
+	}
+
+	/**
+	 * Return the number of registers of each function.
+	 * @return frame sizes
+	 */
+	public int[] getFrameSizes() {
+		return frameSizes;
+	}
+
+	public int getInitFunction() {
+		return initFunction;
+	}
+
+	/**
+	 * Return the index of the main function.
+	 * @return index of main or -1 if the program has no main function
+	 */
+	public int getMainFunction() {
+		return mainFunction;
+	}
+
+	/**
+	 * Return the function that contains the given code index.
+	 * @param pc given code index
+	 * @return function index
+	 */
+	public int getFunctionAt(int pc) {
+		int result = 0;
+		for (int i = 0; i < entries.length; i++) {
+			if (entries[i] <= pc && entries[i] >= entries[result]) {
+				result = i;
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		for (int pc = 0; pc < code.length; pc += Opcode.getLength(code, pc)) {
+			for (int i = 0; i < entries.length; i++) {
+				if (entries[i] == pc) {
+					builder.append(functionNames[i]).append(":\n");
+				}
+			}
+			builder.append(pc).append(":\t");
+			int opcode = code[pc];
+			builder.append(Opcode.getName(opcode));
+			int start = 1;
+			int end = Opcode.getLength(code, pc);
+			if (opcode == Opcode.CALL_BUILTIN) {
+				Builtin builtin = Builtin.values()[code[pc + 1]];
+				builder.append(' ').append(builtin.getName());
+				start = 2;
+				end = 3 + builtin.getNumberOfParameters();
+			} else if (opcode == Opcode.CALL) {
+				builder.append(' ').append(functionNames[code[pc + 1]]);
+				builder.append(' ').append(operandToString(code[pc + 2]));
+				start = 4;
+			}
+			for (int i = start; i < end; i++) {
+				boolean isTarget = i == end - 1 && Opcode.isJump(opcode);
+				builder.append(' ').append(isTarget ? "@" + code[pc + i] : operandToString(code[pc + i]));
+			}
+			builder.append('\n');
+		}
+		return builder.toString();
+	}
+
+	private String operandToString(int operand) {
+		if (operand == Opcode.NONE) {
+			return "_";
+		}
+		if (operand >= 0) {
+			return "r" + operand;
+		}
+		int slot = ~operand;
+		if (slot < globalCount) {
+			return "g" + slot;
+		}
+		return constants[slot - globalCount].toString();
+	}
+}
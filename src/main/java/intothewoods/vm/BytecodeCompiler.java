@@ -0,0 +1,479 @@
+package intothewoods.vm;
+
+import intothewoods.analyser.Constant;
+import intothewoods.analyser.Function;
+import intothewoods.analyser.Operand;
+import intothewoods.analyser.Program;
+import intothewoods.analyser.Variable;
+import intothewoods.common.Builtin;
+import intothewoods.common.Type;
+import intothewoods.parser.ASTNode;
+import intothewoods.runtime.OakRuntime;
+import intothewoods.runtime.Pointers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiler turning an analysed program into register based bytecode.
+ *
+ * Every function local variable gets its own register, followed by scratch registers that
+ * hold temporary values of a single statement. Variables passed to get_ref live in a heap
+ * allocated memory cell, their register holds the pointer to this cell. The cells of local
+ * variables are allocated on function entry and freed before every return.
+ */
+public class BytecodeCompiler {
+
+	private final Program program;
+	private int[] code = new int[256];
+	private int[] lines = new int[256];
+	private int size = 0;
+	private int currentLine = 0;
+	private int lastInstruction = -1;
+	private int lastTarget = 0;
+	private final List<Constant> constants = new ArrayList<>();
+	private final Map<Constant, Integer> constantSlots = new HashMap<>();
+	private int firstScratch;
+	private int nextScratch;
+	private int maxScratch;
+	/**
+	 * Referenced local variables of the current function.
+	 */
+	private final List<Variable> cells = new ArrayList<>();
+
+	public BytecodeCompiler(Program program) {
+		this.program = program;
+	}
+
+	/**
+	 * Compile the program.
+	 * @return compiled bytecode
+	 */
+	public Bytecode compile() {
+		List<Function> functions = program.getFunctions();
+		int count = functions.size() + 1;
+		String[] names = new String[count];
+		int[] entries = new int[count];
+		int[] frameSizes = new int[count];
+		for (Function function : functions) {
+			int index = function.getIndex();
+			names[index] = function.getName();
+			entries[index] = size;
+			frameSizes[index] = compileFunction(function);
+		}
+		int init = functions.size();
+		names[init] = "$init";
+		entries[init] = size;
+		frameSizes[init] = compileInit();
+		Function main = program.getMainFunction();
+		return new Bytecode(Arrays.copyOf(code, size), Arrays.copyOf(lines, size), constants,
+				program.getGlobals().size(), names, entries, frameSizes, init, main == null ? -1 : main.getIndex());
+	}
+
+	private int compileFunction(Function function) {
+		startFrame(function.getLocals().size());
+		currentLine = function.getLine();
+		for (Variable local : function.getLocals()) {
+			if (local.isReferenced()) {
+				cells.add(local);
+			}
+		}
+		for (Variable parameter : function.getParameters()) {
+			if (parameter.isReferenced()) {
+				int scratch = allocateScratch();
+				emit(Opcode.MOVE, scratch, parameter.getIndex());
+				allocateCell(parameter);
+				emitStore(parameter, scratch);
+			}
+		}
+		for (Variable variable : cells) {
+			if (!function.getParameters().contains(variable)) {
+				allocateCell(variable);
+			}
+		}
+		for (Variable variable : function.getReturnVariables()) {
+			write(variable, constant(new Constant(variable.getType(), OakRuntime.defaultValue(variable.getType()))));
+		}
+		compileBlock(function.getBody());
+		if (function.getReturnType() == Type.VOID) {
+			freeCells();
+			emit(Opcode.RETURN_VOID);
+		}
+		return firstScratch + maxScratch;
+	}
+
+	private int compileInit() {
+		startFrame(0);
+		for (ASTNode declaration : program.getAST().getChild(0)) {
+			currentLine = Program.getLine(declaration);
+			compileDeclaration(declaration);
+		}
+		emit(Opcode.RETURN_VOID);
+		return maxScratch;
+	}
+
+	private void startFrame(int localCount) {
+		cells.clear();
+		lastTarget = size;
+		firstScratch = localCount;
+		nextScratch = 0;
+		maxScratch = 0;
+	}
+
+	private void compileBlock(ASTNode block) {
+		for (ASTNode statement : block) {
+			currentLine = Program.getLine(statement);
+			nextScratch = 0;
+			compileStatement(statement);
+		}
+	}
+
+	private void compileStatement(ASTNode statement) {
+		switch (statement.getType()) {
+			case VARIABLE_DECLARATION:
+				compileDeclaration(statement);
+				break;
+			case VARIABLE_ASSIGNMENT:
+				compileAssignment(program.getTarget(statement), program.getOperand(statement.getChild(1)));
+				break;
+			case FUNCTION_CALL:
+				compileCall(statement);
+				break;
+			case RETURN_STATEMENT:
+				if (statement.isLeaf()) {
+					freeCells();
+					emit(Opcode.RETURN_VOID);
+				} else {
+					int value = read(program.getOperand(statement.getChild(0)));
+					freeCells();
+					emit(Opcode.RETURN, value);
+				}
+				break;
+			case CONDITION:
+				compileCondition(statement);
+				break;
+			case LOOP:
+				compileLoop(statement);
+				break;
+			default:
+				break;
+		}
+	}
+
+	private void compileDeclaration(ASTNode declaration) {
+		Variable variable = program.getTarget(declaration);
+		int value = read(program.getOperand(declaration.getChild(2)));
+		if (variable.isReferenced() && variable.isGlobal()) {
+			allocateCell(variable);
+		}
+		write(variable, value);
+	}
+
+	/**
+	 * Compile an assignment, fusing the copy of a result (like "i = ret_int" after "add i 1") with
+	 * the preceding int operation.
+	 */
+	private void compileAssignment(Variable target, Operand value) {
+		if (value instanceof Variable && !((Variable) value).isReferenced() && !target.isReferenced()) {
+			int opcode = fusible();
+			if ((opcode == Opcode.ADD_INT || opcode == Opcode.SUB_INT || opcode == Opcode.MUL_INT) &&
+					code[lastInstruction + 1] == operand((Variable) value)) {
+				int operation = lastInstruction;
+				code[operation] = opcode - Opcode.ADD_INT + Opcode.ADD_INT_MOVE;
+				emit(operand(target));
+				lastInstruction = operation;
+				return;
+			}
+		}
+		write(target, read(value));
+	}
+
+	/**
+	 * Emit a conditional jump, fused with the preceding comparison if it computes the condition.
+	 * @param condition condition operand
+	 * @param jumpIfTrue jump if the condition is true, otherwise if it's false
+	 * @param target jump target
+	 * @return code index of the jump instruction
+	 */
+	private int emitConditionalJump(Operand condition, boolean jumpIfTrue, int target) {
+		if (condition instanceof Variable && !((Variable) condition).isReferenced()) {
+			int opcode = fusible();
+			if ((opcode == Opcode.LESS || opcode == Opcode.EQUAL) &&
+					code[lastInstruction + 1] == operand((Variable) condition)) {
+				int jump = lastInstruction;
+				code[jump] = (opcode == Opcode.LESS ? Opcode.LESS_JUMP_IF_FALSE : Opcode.EQUAL_JUMP_IF_FALSE) +
+						(jumpIfTrue ? 1 : 0);
+				emit(target);
+				lastInstruction = jump;
+				return jump;
+			}
+		}
+		return emit(jumpIfTrue ? Opcode.JUMP_IF_TRUE : Opcode.JUMP_IF_FALSE, read(condition), target);
+	}
+
+	/**
+	 * Return the opcode of the last instruction, if it ends the code and can be fused with the next
+	 * instruction, because no jump targets the code after its start.
+	 * @return opcode or -1
+	 */
+	private int fusible() {
+		if (lastInstruction == -1 || lastTarget > lastInstruction ||
+				lastInstruction + Opcode.getLength(code, lastInstruction) != size) {
+			return -1;
+		}
+		return code[lastInstruction];
+	}
+
+	private void compileCondition(ASTNode condition) {
+		int jumpToElse = emitConditionalJump(program.getOperand(condition.getChild(0)), false, 0);
+		compileBlock(condition.getChild(1));
+		if (condition.getNumberOfChildren() > 2) {
+			int jumpToEnd = emit(Opcode.JUMP, 0);
+			patch(jumpToElse);
+			compileBlock(condition.getChild(2));
+			patch(jumpToEnd);
+		} else {
+			patch(jumpToElse);
+		}
+	}
+
+	/**
+	 * Compile a loop with the condition checked before the first iteration and at the end of
+	 * the body, so that the check at the end can be fused with a comparison at the end of the body.
+	 */
+	private void compileLoop(ASTNode loop) {
+		Operand condition = program.getOperand(loop.getChild(0));
+		int jumpToEnd = emitConditionalJump(condition, false, 0);
+		int body = size;
+		lastTarget = body;
+		compileBlock(loop.getChild(1));
+		currentLine = Program.getLine(loop);
+		nextScratch = 0;
+		emitConditionalJump(condition, true, body);
+		patch(jumpToEnd);
+	}
+
+	private void compileCall(ASTNode call) {
+		List<Operand> arguments = program.getArguments(call);
+		Variable target = program.getTarget(call);
+		Function function = program.getCalledFunction(call);
+		if (function != null) {
+			int[] registers = new int[arguments.size()];
+			for (int i = 0; i < registers.length; i++) {
+				registers[i] = read(arguments.get(i));
+			}
+			int destination = target == null ? Opcode.NONE : startWrite(target);
+			int[] instruction = new int[4 + registers.length];
+			instruction[0] = Opcode.CALL;
+			instruction[1] = function.getIndex();
+			instruction[2] = destination;
+			instruction[3] = registers.length;
+			System.arraycopy(registers, 0, instruction, 4, registers.length);
+			emit(instruction);
+			if (target != null) {
+				finishWrite(target, destination);
+			}
+			return;
+		}
+		Builtin builtin = program.getCalledBuiltin(call);
+		if (builtin.isGetRef()) {
+			write(target, operand((Variable) arguments.get(0)));
+			return;
+		}
+		int first = arguments.size() > 0 ? read(arguments.get(0)) : 0;
+		int second = arguments.size() > 1 ? read(arguments.get(1)) : 0;
+		int opcode = getOpcode(builtin);
+		if (opcode == Opcode.MOVE) {
+			write(target, first);
+		} else {
+			int destination = target == null ? Opcode.NONE : startWrite(target);
+			if (opcode == Opcode.CALL_BUILTIN) {
+				emit(Opcode.CALL_BUILTIN, builtin.ordinal(), destination, first, second);
+			} else if (opcode == Opcode.NOT) {
+				emit(Opcode.NOT, destination, first);
+			} else {
+				emit(opcode, destination, first, second);
+			}
+			if (target != null) {
+				finishWrite(target, destination);
+			}
+		}
+		if (builtin == Builtin.FREE && arguments.get(0) instanceof Variable) {
+			write((Variable) arguments.get(0), constant(new Constant(Type.POINTER, Pointers.INVALID)));
+		}
+	}
+
+	/**
+	 * Return the opcode implementing the given built in function.
+	 * @param builtin given built in function
+	 * @return special opcode, MOVE for identity conversions or CALL_BUILTIN
+	 */
+	static int getOpcode(Builtin builtin) {
+		switch (builtin) {
+			case TO_BYTE_BOOL:
+			case TO_INT_BOOL:
+			case TO_INT_BYTE:
+			case TO_POINTER_STRING:
+			case TO_STRING_POINTER:
+				return Opcode.MOVE;
+			case NOT:
+				return Opcode.NOT;
+			case ADD_INT:
+				return Opcode.ADD_INT;
+			case SUB_INT:
+				return Opcode.SUB_INT;
+			case MUL_INT:
+				return Opcode.MUL_INT;
+			case DIV_INT:
+				return Opcode.DIV_INT;
+			case MOD_INT:
+				return Opcode.MOD_INT;
+			case LESS_BYTE:
+			case LESS_INT:
+				return Opcode.LESS;
+			case EQUAL_BOOL:
+			case EQUAL_BYTE:
+			case EQUAL_INT:
+			case EQUAL_POINTER:
+				return Opcode.EQUAL;
+			case ADD_BYTE:
+				return Opcode.ADD_BYTE;
+			case SUB_BYTE:
+				return Opcode.SUB_BYTE;
+			case MUL_BYTE:
+				return Opcode.MUL_BYTE;
+			case ADD_FLOAT:
+				return Opcode.ADD_FLOAT;
+			case SUB_FLOAT:
+				return Opcode.SUB_FLOAT;
+			case MUL_FLOAT:
+				return Opcode.MUL_FLOAT;
+			case DIV_FLOAT:
+				return Opcode.DIV_FLOAT;
+			case LESS_FLOAT:
+				return Opcode.LESS_FLOAT;
+			case EQUAL_FLOAT:
+				return Opcode.EQUAL_FLOAT;
+			case AND:
+				return Opcode.AND;
+			case OR:
+				return Opcode.OR;
+			case XOR:
+				return Opcode.XOR;
+			default:
+				return Opcode.CALL_BUILTIN;
+		}
+	}
+
+	/**
+	 * Return a register operand holding the value of the given operand,
+	 * loading referenced variables from their memory cell into a scratch register.
+	 */
+	private int read(Operand operand) {
+		if (operand instanceof Constant) {
+			return constant((Constant) operand);
+		}
+		Variable variable = (Variable) operand;
+		if (!variable.isReferenced()) {
+			return operand(variable);
+		}
+		int scratch = allocateScratch();
+		emit(Opcode.CALL_BUILTIN, getter(variable.getType()).ordinal(), scratch, operand(variable), 0);
+		return scratch;
+	}
+
+	/**
+	 * Return the register a new value of the given variable has to be written to,
+	 * followed by a call of finishWrite.
+	 */
+	private int startWrite(Variable variable) {
+		return variable.isReferenced() ? allocateScratch() : operand(variable);
+	}
+
+	private void finishWrite(Variable variable, int register) {
+		if (variable.isReferenced()) {
+			emitStore(variable, register);
+		}
+	}
+
+	private void write(Variable variable, int value) {
+		if (variable.isReferenced()) {
+			emitStore(variable, value);
+		} else {
+			emit(Opcode.MOVE, operand(variable), value);
+		}
+	}
+
+	private void emitStore(Variable variable, int value) {
+		emit(Opcode.CALL_BUILTIN, setter(variable.getType()).ordinal(), Opcode.NONE, operand(variable), value);
+	}
+
+	private void allocateCell(Variable variable) {
+		emit(Opcode.CALL_BUILTIN, Builtin.MALLOC.ordinal(), operand(variable),
+				constant(Constant.ofInt(variable.getType().getSize())), 0);
+	}
+
+	private void freeCells() {
+		for (Variable variable : cells) {
+			emit(Opcode.CALL_BUILTIN, Builtin.FREE.ordinal(), Opcode.NONE, operand(variable), 0);
+		}
+	}
+
+	private int operand(Variable variable) {
+		return variable.isGlobal() ? ~variable.getIndex() : variable.getIndex();
+	}
+
+	private int constant(Constant constant) {
+		Integer slot = constantSlots.get(constant);
+		if (slot == null) {
+			slot = program.getGlobals().size() + constants.size();
+			constants.add(constant);
+			constantSlots.put(constant, slot);
+		}
+		return ~slot;
+	}
+
+	private int allocateScratch() {
+		int register = firstScratch + nextScratch;
+		nextScratch++;
+		maxScratch = Math.max(maxScratch, nextScratch);
+		return register;
+	}
+
+	static Builtin getter(Type type) {
+		return Builtin.valueOf("GET_" + type.name());
+	}
+
+	static Builtin setter(Type type) {
+		return Builtin.valueOf("SET_" + type.name());
+	}
+
+	/**
+	 * Emit the given instruction (or instruction part).
+	 * @return code index of the first emitted value
+	 */
+	private int emit(int... values) {
+		if (size + values.length > code.length) {
+			code = Arrays.copyOf(code, Math.max(code.length * 2, size + values.length));
+			lines = Arrays.copyOf(lines, code.length);
+		}
+		int start = size;
+		lastInstruction = start;
+		for (int value : values) {
+			lines[size] = currentLine;
+			code[size++] = value;
+		}
+		return start;
+	}
+
+	/**
+	 * Set the jump target of the jump instruction at the given index to the current end of the code.
+	 */
+	private void patch(int jump) {
+		code[jump + Opcode.getLength(code, jump) - 1] = size;
+		lastTarget = size;
+	}
+}
@@ -0,0 +1,142 @@
+package intothewoods.vm;
+
+/**
+ * Opcodes of the register based bytecode.
+ *
+ * Every instruction is an opcode followed by its operands. A register operand r is a
+ * register of the current frame if r &gt;= 0, otherwise it's the static slot ~r (a global
+ * variable or a constant). NONE marks a missing destination (e.g. of void calls).
+ *
+ * <pre>
+ * MOVE dst src
+ * JUMP target
+ * JUMP_IF_FALSE cond target
+ * JUMP_IF_TRUE cond target
+ * CALL function dst argc arg_1 ... arg_argc
+ * RETURN src
+ * RETURN_VOID
+ * CALL_BUILTIN builtin dst first second  (unused arguments are 0)
+ * [binary operation] dst first second
+ * NOT dst src
+ * [int operation]_MOVE dst first second copy
+ * [comparison]_JUMP_IF_(FALSE|TRUE) dst first second target
+ * </pre>
+ *
+ * The last two forms are superinstructions: an int operation whose result is also copied into
+ * a second register (e.g. "add i 1" followed by "i = ret_int") and a comparison followed by a
+ * conditional jump on its result.
+ */
+public final class Opcode {
+
+	public static final int NONE = Integer.MIN_VALUE;
+
+	public static final int MOVE = 0;
+	public static final int JUMP = 1;
+	public static final int JUMP_IF_FALSE = 2;
+	public static final int JUMP_IF_TRUE = 3;
+	public static final int CALL = 4;
+	public static final int RETURN = 5;
+	public static final int RETURN_VOID = 6;
+	public static final int CALL_BUILTIN = 7;
+	public static final int NOT = 8;
+	public static final int ADD_INT = 9;
+	public static final int SUB_INT = 10;
+	public static final int MUL_INT = 11;
+	public static final int DIV_INT = 12;
+	public static final int MOD_INT = 13;
+	public static final int LESS = 14;
+	public static final int EQUAL = 15;
+	public static final int ADD_BYTE = 16;
+	public static final int SUB_BYTE = 17;
+	public static final int MUL_BYTE = 18;
+	public static final int ADD_FLOAT = 19;
+	public static final int SUB_FLOAT = 20;
+	public static final int MUL_FLOAT = 21;
+	public static final int DIV_FLOAT = 22;
+	public static final int LESS_FLOAT = 23;
+	public static final int EQUAL_FLOAT = 24;
+	public static final int AND = 25;
+	public static final int OR = 26;
+	public static final int XOR = 27;
+	public static final int ADD_INT_MOVE = 28;
+	public static final int SUB_INT_MOVE = 29;
+	public static final int MUL_INT_MOVE = 30;
+	public static final int LESS_JUMP_IF_FALSE = 31;
+	public static final int LESS_JUMP_IF_TRUE = 32;
+	public static final int EQUAL_JUMP_IF_FALSE = 33;
+	public static final int EQUAL_JUMP_IF_TRUE = 34;
+
+	private static final String[] NAMES = {
+			"move", "jump", "jump_if_false", "jump_if_true", "call", "return", "return_void", "call_builtin",
+			"not", "add_int", "sub_int", "mul_int", "div_int", "mod_int", "less", "equal",
+			"add_byte", "sub_byte", "mul_byte", "add_float", "sub_float", "mul_float", "div_float",
+			"less_float", "equal_float", "and", "or", "xor", "add_int_move", "sub_int_move", "mul_int_move",
+			"less_jump_if_false", "less_jump_if_true", "equal_jump_if_false", "equal_jump_if_true"
+	};
+
+	private Opcode() {
+	}
+
+	/**
+	 * Return the name of the given opcode.
+	 * @param opcode given opcode
+	 * @return name of the opcode
+	 */
+	public static String getName(int opcode) {
+		return NAMES[opcode];
+	}
+
+	/**
+	 * Return the length (opcode and operands) of the instruction starting at the given index.
+	 * @param code code containing the instruction
+	 * @param pc index of the instruction
+	 * @return length of the instruction
+	 */
+	public static int getLength(int[] code, int pc) {
+		switch (code[pc]) {
+			case RETURN_VOID:
+				return 1;
+			case JUMP:
+			case RETURN:
+				return 2;
+			case MOVE:
+			case JUMP_IF_FALSE:
+			case JUMP_IF_TRUE:
+			case NOT:
+				return 3;
+			case CALL:
+				return 4 + code[pc + 3];
+			case CALL_BUILTIN:
+			case ADD_INT_MOVE:
+			case SUB_INT_MOVE:
+			case MUL_INT_MOVE:
+			case LESS_JUMP_IF_FALSE:
+			case LESS_JUMP_IF_TRUE:
+			case EQUAL_JUMP_IF_FALSE:
+			case EQUAL_JUMP_IF_TRUE:
+				return 5;
+			default:
+				return 4;
+		}
+	}
+
+	/**
+	 * Checks whether or not the given opcode is a jump, its last operand is the jump target.
+	 * @param opcode given opcode
+	 * @return is it a jump?
+	 */
+	public static boolean isJump(int opcode) {
+		switch (opcode) {
+			case JUMP:
+			case JUMP_IF_FALSE:
+			case JUMP_IF_TRUE:
+			case LESS_JUMP_IF_FALSE:
+			case LESS_JUMP_IF_TRUE:
+			case EQUAL_JUMP_IF_FALSE:
+			case EQUAL_JUMP_IF_TRUE:
+				return true;
+			default:
+				return false;
+		}
+	}
+}
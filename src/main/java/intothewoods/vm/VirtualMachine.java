@@ -0,0 +1,335 @@
+package intothewoods.vm;
+
+import intothewoods.analyser.Constant;
+import intothewoods.common.Builtin;
+import intothewoods.runtime.ExitException;
+import intothewoods.runtime.InterruptionException;
+import intothewoods.runtime.OakRuntime;
+import intothewoods.runtime.OakRuntimeException;
+
+import java.util.Arrays;
+
+/**
+ * Virtual machine executing register based bytecode with a single switch dispatch loop.
+ *
+ * All registers of all active frames are stored in one long array, the frame of a called function
+ * directly follows the frame of its caller. Calls don't use the java stack.
+ *
+ * Calls and backward jumps stop the execution if the executing thread is interrupted.
+ */
+public class VirtualMachine {
+
+	/**
+	 * Default maximum number of registers of all active frames.
+	 */
+	public static final int DEFAULT_MAX_REGISTERS = 1 << 22;
+
+	/**
+	 * Number of ints stored for each active call: return address, base and
+	 * frame size of the caller and the destination register.
+	 */
+	private static final int FRAME_INFO_SIZE = 4;
+
+	private static final Builtin[] BUILTINS = Builtin.values();
+
+	private final Bytecode bytecode;
+	private final OakRuntime runtime;
+	private final int[] code;
+	private final int[] entries;
+	private final int[] frameSizes;
+	private final int maxRegisters;
+	private long[] statics;
+	private long[] registers = new long[256];
+	private int[] frames = new int[64];
+
+	public VirtualMachine(Bytecode bytecode, OakRuntime runtime) {
+		this(bytecode, runtime, DEFAULT_MAX_REGISTERS);
+	}
+
+	/**
+	 * Initialize a virtual machine.
+	 * @param bytecode executed bytecode
+	 * @param runtime runtime used for the built in functions
+	 * @param maxRegisters maximum number of registers of all active frames, limits the recursion depth
+	 */
+	public VirtualMachine(Bytecode bytecode, OakRuntime runtime, int maxRegisters) {
+		this.bytecode = bytecode;
+		this.runtime = runtime;
+		this.code = bytecode.getCode();
+		this.entries = bytecode.getEntries();
+		this.frameSizes = bytecode.getFrameSizes();
+		this.maxRegisters = maxRegisters;
+	}
+
+	/**
+	 * Run the program: initialize the global variables and call the main function.
+	 * @return exit code (the return value of main, if it returns an int, or the argument of exit)
+	 * @throws OakRuntimeException the program failed
+	 */
+	public int run() throws OakRuntimeException {
+		if (bytecode.getMainFunction() == -1) {
+			throw new OakRuntimeException("Program has no main function");
+		}
+		try {
+			initStatics();
+			execute(bytecode.getInitFunction());
+			return (int) execute(bytecode.getMainFunction());
+		} catch (ExitException ex) {
+			return ex.getExitCode();
+		} finally {
+			runtime.flush();
+		}
+	}
+
+	private void initStatics() throws OakRuntimeException {
+		Constant[] constants = bytecode.getConstants();
+		int globalCount = bytecode.getGlobalCount();
+		statics = new long[globalCount + constants.length];
+		for (int i = 0; i < constants.length; i++) {
+			Constant constant = constants[i];
+			if (constant.getBytes() != null) {
+				statics[globalCount + i] = runtime.getHeap().allocateBytes(constant.getBytes());
+			} else {
+				statics[globalCount + i] = constant.getValue();
+			}
+		}
+	}
+
+	/**
+	 * Execute the given function, with its frame starting at register 0.
+	 * @param function index of the function
+	 * @return return value of the function (0 for void functions)
+	 * @throws OakRuntimeException the program failed
+	 */
+	private long execute(int function) throws OakRuntimeException {
+		final int[] code = this.code;
+		final long[] statics = this.statics;
+		long[] registers = ensureRegisters(frameSizes[function]);
+		int[] frames = this.frames;
+		int pc = entries[function];
+		int base = 0;
+		int frameSize = frameSizes[function];
+		int depth = 0;
+		try {
+			while (true) {
+				switch (code[pc]) {
+					case Opcode.MOVE:
+						write(registers, base, statics, code[pc + 1], read(registers, base, statics, code[pc + 2]));
+						pc += 3;
+						break;
+					case Opcode.JUMP:
+						pc = jump(pc, code[pc + 1]);
+						break;
+					case Opcode.JUMP_IF_FALSE:
+						pc = read(registers, base, statics, code[pc + 1]) == 0 ? jump(pc, code[pc + 2]) : pc + 3;
+						break;
+					case Opcode.JUMP_IF_TRUE:
+						pc = read(registers, base, statics, code[pc + 1]) != 0 ? jump(pc, code[pc + 2]) : pc + 3;
+						break;
+					case Opcode.CALL: {
+						checkInterrupted();
+						int callee = code[pc + 1];
+						int argumentCount = code[pc + 3];
+						int newBase = base + frameSize;
+						int newFrameSize = frameSizes[callee];
+						if (newBase + newFrameSize > registers.length) {
+							registers = ensureRegisters(newBase + newFrameSize);
+						}
+						for (int i = 0; i < argumentCount; i++) {
+							registers[newBase + i] = read(registers, base, statics, code[pc + 4 + i]);
+						}
+						int frame = depth * FRAME_INFO_SIZE;
+						if (frame + FRAME_INFO_SIZE > frames.length) {
+							frames = growFrames();
+						}
+						frames[frame] = pc + 4 + argumentCount;
+						frames[frame + 1] = base;
+						frames[frame + 2] = frameSize;
+						frames[frame + 3] = code[pc + 2];
+						depth++;
+						base = newBase;
+						frameSize = newFrameSize;
+						pc = entries[callee];
+						break;
+					}
+					case Opcode.RETURN:
+					case Opcode.RETURN_VOID: {
+						long value = code[pc] == Opcode.RETURN ? read(registers, base, statics, code[pc + 1]) : 0;
+						if (depth == 0) {
+							return value;
+						}
+						depth--;
+						int frame = depth * FRAME_INFO_SIZE;
+						pc = frames[frame];
+						base = frames[frame + 1];
+						frameSize = frames[frame + 2];
+						int destination = frames[frame + 3];
+						if (destination != Opcode.NONE) {
+							write(registers, base, statics, destination, value);
+						}
+						break;
+					}
+					case Opcode.CALL_BUILTIN: {
+						long value = runtime.call(BUILTINS[code[pc + 1]],
+								read(registers, base, statics, code[pc + 3]),
+								read(registers, base, statics, code[pc + 4]));
+						if (code[pc + 2] != Opcode.NONE) {
+							write(registers, base, statics, code[pc + 2], value);
+						}
+						pc += 5;
+						break;
+					}
+					case Opcode.NOT:
+						write(registers, base, statics, code[pc + 1], read(registers, base, statics, code[pc + 2]) ^ 1);
+						pc += 3;
+						break;
+					case Opcode.ADD_INT:
+						write(registers, base, statics, code[pc + 1], (int) read(registers, base, statics, code[pc + 2]) +
+								(int) read(registers, base, statics, code[pc + 3]));
+						pc += 4;
+						break;
+					case Opcode.SUB_INT:
+						write(registers, base, statics, code[pc + 1], (int) read(registers, base, statics, code[pc + 2]) -
+								(int) read(registers, base, statics, code[pc + 3]));
+						pc += 4;
+						break;
+					case Opcode.LESS:
+						write(registers, base, statics, code[pc + 1], read(registers, base, statics, code[pc + 2]) <
+								read(registers, base, statics, code[pc + 3]) ? 1 : 0);
+						pc += 4;
+						break;
+					case Opcode.EQUAL:
+						write(registers, base, statics, code[pc + 1], read(registers, base, statics, code[pc + 2]) ==
+								read(registers, base, statics, code[pc + 3]) ? 1 : 0);
+						pc += 4;
+						break;
+					case Opcode.ADD_INT_MOVE:
+					case Opcode.SUB_INT_MOVE:
+					case Opcode.MUL_INT_MOVE: {
+						long value = binaryOperation(code[pc] - Opcode.ADD_INT_MOVE + Opcode.ADD_INT,
+								read(registers, base, statics, code[pc + 2]), read(registers, base, statics, code[pc + 3]));
+						write(registers, base, statics, code[pc + 1], value);
+						write(registers, base, statics, code[pc + 4], value);
+						pc += 5;
+						break;
+					}
+					case Opcode.LESS_JUMP_IF_FALSE:
+					case Opcode.LESS_JUMP_IF_TRUE:
+					case Opcode.EQUAL_JUMP_IF_FALSE:
+					case Opcode.EQUAL_JUMP_IF_TRUE: {
+						long first = read(registers, base, statics, code[pc + 2]);
+						long second = read(registers, base, statics, code[pc + 3]);
+						int opcode = code[pc];
+						boolean value = opcode <= Opcode.LESS_JUMP_IF_TRUE ? first < second : first == second;
+						write(registers, base, statics, code[pc + 1], value ? 1 : 0);
+						boolean jumpIfTrue = opcode == Opcode.LESS_JUMP_IF_TRUE || opcode == Opcode.EQUAL_JUMP_IF_TRUE;
+						pc = value == jumpIfTrue ? jump(pc, code[pc + 4]) : pc + 5;
+						break;
+					}
+					default:
+						write(registers, base, statics, code[pc + 1], binaryOperation(code[pc],
+								read(registers, base, statics, code[pc + 2]),
+								read(registers, base, statics, code[pc + 3])));
+						pc += 4;
+				}
+			}
+		} catch (OakRuntimeException ex) {
+			throw OakRuntimeException.atLine(ex, bytecode.getLines()[pc]);
+		}
+	}
+
+	private static long binaryOperation(int opcode, long first, long second) throws OakRuntimeException {
+		switch (opcode) {
+			case Opcode.ADD_INT:
+				return (int) first + (int) second;
+			case Opcode.SUB_INT:
+				return (int) first - (int) second;
+			case Opcode.MUL_INT:
+				return (int) first * (int) second;
+			case Opcode.DIV_INT:
+				return OakRuntime.divInt((int) first, (int) second);
+			case Opcode.MOD_INT:
+				return OakRuntime.modInt((int) first, (int) second);
+			case Opcode.LESS:
+				return first < second ? 1 : 0;
+			case Opcode.EQUAL:
+				return first == second ? 1 : 0;
+			case Opcode.ADD_BYTE:
+				return (byte) (first + second);
+			case Opcode.SUB_BYTE:
+				return (byte) (first - second);
+			case Opcode.MUL_BYTE:
+				return (byte) (first * second);
+			case Opcode.ADD_FLOAT:
+				return OakRuntime.ofFloat(OakRuntime.toFloat(first) + OakRuntime.toFloat(second));
+			case Opcode.SUB_FLOAT:
+				return OakRuntime.ofFloat(OakRuntime.toFloat(first) - OakRuntime.toFloat(second));
+			case Opcode.MUL_FLOAT:
+				return OakRuntime.ofFloat(OakRuntime.toFloat(first) * OakRuntime.toFloat(second));
+			case Opcode.DIV_FLOAT:
+				return OakRuntime.ofFloat(OakRuntime.divFloat(OakRuntime.toFloat(first), OakRuntime.toFloat(second)));
+			case Opcode.LESS_FLOAT:
+				return OakRuntime.toFloat(first) < OakRuntime.toFloat(second) ? 1 : 0;
+			case Opcode.EQUAL_FLOAT:
+				return OakRuntime.toFloat(first) == OakRuntime.toFloat(second) ? 1 : 0;
+			case Opcode.AND:
+				return first & second;
+			case Opcode.OR:
+				return first | second;
+			case Opcode.XOR:
+				return first ^ second;
+			default:
+				throw new IllegalStateException("Unknown opcode " + opcode);
+		}
+	}
+
+	/**
+	 * Return the target of a jump, backward jumps check whether the executing thread is interrupted.
+	 */
+	private static int jump(int pc, int target) throws OakRuntimeException {
+		if (target <= pc) {
+			checkInterrupted();
+		}
+		return target;
+	}
+
+	/**
+	 * Stop the execution if the executing thread is interrupted (e.g. because of a timeout).
+	 * @throws OakRuntimeException the thread is interrupted
+	 */
+	private static void checkInterrupted() throws OakRuntimeException {
+		if (Thread.currentThread().isInterrupted()) {
+			throw new InterruptionException();
+		}
+	}
+
+	private static long read(long[] registers, int base, long[] statics, int operand) {
+		return operand >= 0 ? registers[base + operand] : statics[~operand];
+	}
+
+	private static void write(long[] registers, int base, long[] statics, int operand, long value) {
+		if (operand >= 0) {
+			registers[base + operand] = value;
+		} else {
+			statics[~operand] = value;
+		}
+	}
+
+	private int[] growFrames() throws OakRuntimeException {
+		if (frames.length >= maxRegisters) {
+			throw new OakRuntimeException("Stack overflow");
+		}
+		frames = Arrays.copyOf(frames, frames.length * 2);
+		return frames;
+	}
+
+	private long[] ensureRegisters(int size) throws OakRuntimeException {
+		if (size > maxRegisters) {
+			throw new OakRuntimeException("Stack overflow");
+		}
+		if (size > registers.length) {
+			registers = Arrays.copyOf(registers, (int) Math.min(maxRegisters, Math.max(size, registers.length * 2L)));
+		}
+		return registers;
+	}
+}
@@ -0,0 +1,1071 @@
+package intothewoods.x86;
+
+import intothewoods.backend.AssemblyWriter;
+import intothewoods.backend.LinearScan;
+import intothewoods.backend.LiveIntervals;
+import intothewoods.backend.ParallelMoves;
+import intothewoods.backend.PeepholeOptimizer;
+import intothewoods.backend.RegisterAllocation;
+import intothewoods.common.Builtin;
+import intothewoods.common.Type;
+import intothewoods.ir.IRFunction;
+import intothewoods.ir.IROpcode;
+import intothewoods.ir.IRProgram;
+import intothewoods.ir.IntList;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Compiler turning a program in SSA form into x86-64 assembly (GNU assembler, AT&T syntax) for Linux,
+ * linked with the C runtime oak_runtime.c (see link).
+ *
+ * Values live in the registers chosen by the linear scan allocator or in spill slots of the stack frame,
+ * rax, rdx and r11 are scratch registers of the code generator. Oak functions take their first six
+ * arguments in rdi, rsi, rdx, rcx, r8 and r9 and the others on the stack, like C functions, and return
+ * their result in rax. The built in functions that aren't inlined are C functions of the runtime that
+ * take the line of the call as their third argument, for error messages.
+ *
+ * Pointers keep their encoding (see Pointers), the addresses are offsets into the heap area of the runtime
+ * (oak_heap). Range checks are inlined and jump to out of line calls of oak_fail, instructions flagged with
+ * UNCHECKED skip them. Allocations flagged with STACK get a fixed part of the stack area of the runtime,
+ * reserved in the prologue and released in the epilogue of the function.
+ */
+public class X86Compiler {
+
+	public static final String RUNTIME = "oak_runtime.c";
+
+	static final int RAX = 0;
+	static final int RCX = 1;
+	static final int RDX = 2;
+	static final int RBX = 3;
+	static final int RSI = 4;
+	static final int RDI = 5;
+	static final int R8 = 6;
+	static final int R9 = 7;
+	static final int R10 = 8;
+	static final int R11 = 9;
+	static final int R12 = 10;
+	static final int R13 = 11;
+	static final int R14 = 12;
+	static final int R15 = 13;
+
+	private static final String[] NAMES = {"rax", "rcx", "rdx", "rbx", "rsi", "rdi", "r8", "r9", "r10", "r11",
+			"r12", "r13", "r14", "r15"};
+	private static final String[] NAMES32 = {"eax", "ecx", "edx", "ebx", "esi", "edi", "r8d", "r9d", "r10d",
+			"r11d", "r12d", "r13d", "r14d", "r15d"};
+	private static final String[] NAMES8 = {"al", "cl", "dl", "bl", "sil", "dil", "r8b", "r9b", "r10b", "r11b",
+			"r12b", "r13b", "r14b", "r15b"};
+
+	/**
+	 * Allocatable registers that calls clobber, those that aren't argument registers first.
+	 */
+	static final int[] CALLER_SAVED = {R10, R9, R8, RCX, RSI, RDI};
+	static final int[] CALLEE_SAVED = {RBX, R12, R13, R14, R15};
+	static final int[] ARGUMENTS = {RDI, RSI, RDX, RCX, R8, R9};
+
+	/**
+	 * Built in functions implemented by the runtime, the others are inlined.
+	 */
+	static final Set<Builtin> RUNTIME_BUILTINS = EnumSet.of(Builtin.TO_INT_FLOAT, Builtin.ROUND, Builtin.FLOOR,
+			Builtin.TO_STRING_BYTE, Builtin.TO_STRING_INT, Builtin.TO_STRING_FLOAT, Builtin.DIV_BYTE, Builtin.DIV_INT,
+			Builtin.DIV_FLOAT, Builtin.MOD_BYTE, Builtin.MOD_INT, Builtin.EQUAL_STRING, Builtin.MALLOC, Builtin.FREE,
+			Builtin.CLONE_MEM, Builtin.COPY_MEM, Builtin.APPEND_POINTER, Builtin.APPEND_STRING, Builtin.PRINT,
+			Builtin.PRINT_ERR, Builtin.READ_BYTE, Builtin.READ_STRING, Builtin.EXIT, Builtin.ASSERT,
+			Builtin.ASSERT_MESSAGE);
+
+	/**
+	 * Failure kinds of oak_fail, see the runtime.
+	 */
+	private static final int FAIL_OFFSET = 1;
+	private static final int FAIL_TOO_SMALL = 2;
+	private static final int FAIL_INVALID_POINTER = 3;
+	private static final int FAIL_BYTE = 4;
+	private static final int FAIL_STACK_OVERFLOW = 5;
+
+	private final IRProgram program;
+	private final StringBuilder output;
+	private final MoveEmitter moveEmitter = new MoveEmitter();
+	private final PeepholeOptimizer<String> peephole = X86Peephole.create();
+	private IRFunction function;
+	private String functionLabel;
+	private RegisterAllocation allocation;
+	private List<Integer> savedRegisters;
+	private int[] stackOffsets;
+	private int stackAreaSize;
+	private StringBuilder stubs;
+	private int labelCount;
+
+	public X86Compiler(IRProgram program) {
+		this(program, new StringBuilder());
+	}
+
+	private X86Compiler(IRProgram program, StringBuilder output) {
+		this.program = program;
+		this.output = output;
+	}
+
+	/**
+	 * Compile the program.
+	 * @return assembly code
+	 */
+	public String compile() {
+		for (AssemblyWriter.Part part : getParts()) {
+			part.emit(output);
+		}
+		return output.toString();
+	}
+
+	/**
+	 * Compile the program, the functions in parallel, and write the assembly code to the given channel.
+	 * The code is the same as the one returned by compile.
+	 * @param threads number of functions compiled at once
+	 */
+	public void compile(GatheringByteChannel channel, int threads) throws IOException {
+		try (AssemblyWriter writer = new AssemblyWriter(channel, threads)) {
+			for (AssemblyWriter.Part part : getParts()) {
+				writer.add(part);
+			}
+			writer.finish();
+		}
+	}
+
+	/**
+	 * Return the parts of the assembly code: the functions, each compiled by its own compiler, and the
+	 * entry point with the data.
+	 */
+	private List<AssemblyWriter.Part> getParts() {
+		List<AssemblyWriter.Part> parts = new ArrayList<>();
+		parts.add(new AssemblyWriter.Part() {
+			@Override
+			public void emit(StringBuilder output) {
+				output.append("\t.text\n");
+			}
+		});
+		parts.add(getFunctionPart(program.getInitialization(), "oak_init"));
+		for (IRFunction candidate : program.getFunctions()) {
+			if (candidate != null) {
+				parts.add(getFunctionPart(candidate, getFunctionLabel(candidate.getIndex())));
+			}
+		}
+		parts.add(new AssemblyWriter.Part() {
+			@Override
+			public void emit(StringBuilder output) {
+				new X86Compiler(program, output).compileEntry();
+			}
+		});
+		return parts;
+	}
+
+	private AssemblyWriter.Part getFunctionPart(final IRFunction function, final String label) {
+		return new AssemblyWriter.Part() {
+			@Override
+			public void emit(StringBuilder output) {
+				new X86Compiler(program, output).compileFunction(function, label);
+			}
+		};
+	}
+
+	/**
+	 * Compile oak_entry, which initializes the globals and calls the main function, the stack overflow
+	 * handler and the data.
+	 */
+	private void compileEntry() {
+		IRFunction main = program.getFunction(program.getMainFunction());
+		output.append("\t.globl oak_entry\noak_entry:\n");
+		emit("pushq %rbp");
+		emit("movq %rsp, %rbp");
+		emit("call oak_init");
+		emit("call " + getFunctionLabel(main.getIndex()));
+		if (main.getReturnType() == Type.VOID) {
+			emit("xorl %eax, %eax");
+		}
+		emit("popq %rbp");
+		emit("ret");
+		output.append(".Loak_stack_overflow:\n");
+		emit("movl $" + FAIL_STACK_OVERFLOW + ", %edi");
+		emit("xorl %esi, %esi");
+		emit("xorl %edx, %edx");
+		emit("call oak_fail");
+		compileData();
+	}
+
+	private static String getFunctionLabel(int function) {
+		return "oak_f" + function;
+	}
+
+	private void compileData() {
+		int count = program.getStrings().size();
+		output.append("\t.section .rodata\n");
+		for (int i = 0; i < count; i++) {
+			output.append(".Lstring").append(i).append(":\n");
+			byte[] bytes = program.getStrings().get(i).getBytes();
+			for (int j = 0; j < bytes.length; j += 16) {
+				StringBuilder line = new StringBuilder(".byte ");
+				for (int k = j; k < Math.min(bytes.length, j + 16); k++) {
+					line.append(k > j ? "," : "").append(bytes[k]);
+				}
+				emit(line.toString());
+			}
+		}
+		output.append("\t.data\n\t.align 8\n\t.globl oak_string_table\noak_string_table:\n");
+		for (int i = 0; i < count; i++) {
+			emit(".quad .Lstring" + i + ", " + program.getStrings().get(i).getBytes().length);
+		}
+		output.append("\t.globl oak_string_count\noak_string_count:\n");
+		emit(".quad " + count);
+		output.append("\t.bss\n\t.align 8\n\t.globl oak_strings\noak_strings:\n");
+		emit(".zero " + 8 * Math.max(count, 1));
+		output.append("\t.globl oak_globals\noak_globals:\n");
+		emit(".zero " + 8 * Math.max(program.getGlobalTypes().length, 1));
+		output.append("\t.section .note.GNU-stack,\"\",@progbits\n");
+	}
+
+	// functions
+
+	private void compileFunction(IRFunction function, String label) {
+		this.function = function;
+		this.functionLabel = label;
+		LiveIntervals intervals = new LiveIntervals(function, RUNTIME_BUILTINS);
+		int[] hints = new int[function.getValueCount()];
+		Arrays.fill(hints, RegisterAllocation.NONE);
+		IntList params = new IntList();
+		IntList entry = function.getInstructions(0);
+		for (int i = 0; i < entry.size(); i++) {
+			int instruction = entry.get(i);
+			if (function.getOpcode(instruction) == IROpcode.PARAM && intervals.defines(instruction)) {
+				params.add(instruction);
+				int index = function.getFirst(instruction);
+				if (index < ARGUMENTS.length && ARGUMENTS[index] != RDX) {
+					hints[intervals.getInterval(instruction)] = ARGUMENTS[index];
+				}
+			}
+		}
+		allocation = new LinearScan(intervals, NAMES.length, CALLER_SAVED, CALLEE_SAVED, hints).allocate();
+		savedRegisters = new ArrayList<>();
+		for (int register : CALLEE_SAVED) {
+			if (allocation.isUsed(register)) {
+				savedRegisters.add(register);
+			}
+		}
+		computeStackArea();
+		stubs = new StringBuilder();
+		output.append(label).append(":\t# ").append(function.getName()).append("\n");
+		int start = output.length();
+		emitPrologue(params);
+		int[] order = intervals.getOrder();
+		for (int i = 0; i < order.length; i++) {
+			output.append(getLabel(order[i])).append(":\n");
+			compileBlock(order[i], i + 1 < order.length ? order[i + 1] : RegisterAllocation.NONE);
+		}
+		output.append(stubs);
+		List<String> lines = peephole.optimize(Arrays.asList(output.substring(start).split("\n")));
+		output.setLength(start);
+		for (String line : lines) {
+			output.append(line).append('\n');
+		}
+	}
+
+	private String getLabel(int block) {
+		return ".L" + functionLabel + "_" + block;
+	}
+
+	private String newLabel() {
+		return ".L" + functionLabel + "_x" + labelCount++;
+	}
+
+	private void computeStackArea() {
+		stackOffsets = new int[function.getValueCount()];
+		stackAreaSize = 0;
+		for (int block = 0; block < function.getBlockCount(); block++) {
+			IntList instructions = function.getInstructions(block);
+			for (int i = 0; i < instructions.size(); i++) {
+				int instruction = instructions.get(i);
+				if (isStackAllocation(instruction)) {
+					stackOffsets[instruction] = stackAreaSize;
+					stackAreaSize += (int) (function.getConstant(function.getFirst(instruction)) + 7) & ~7;
+				}
+			}
+		}
+	}
+
+	private boolean isStackAllocation(int instruction) {
+		return function.getOpcode(instruction) == IROpcode.BUILTIN && function.getBuiltin(instruction) == Builtin.MALLOC
+				&& function.hasFlag(instruction, IRFunction.STACK) && function.isConstant(function.getFirst(instruction));
+	}
+
+	/**
+	 * Return the number of 8 byte slots of the frame below the saved registers: the spill slots and the slot
+	 * storing the begin of the stack area of the function.
+	 */
+	private int getFrameSlots() {
+		return allocation.getSlotCount() + (stackAreaSize > 0 ? 1 : 0);
+	}
+
+	private String getStackAreaSlot() {
+		return getSlotAddress(allocation.getSlotCount());
+	}
+
+	private String getSlotAddress(int slot) {
+		return -8 * (savedRegisters.size() + 1 + slot) + "(%rbp)";
+	}
+
+	private void emitPrologue(IntList params) {
+		emit("pushq %rbp");
+		emit("movq %rsp, %rbp");
+		emit("cmpq oak_stack_limit(%rip), %rsp");
+		emit("jb .Loak_stack_overflow");
+		for (int register : savedRegisters) {
+			emit("pushq %" + NAMES[register]);
+		}
+		int frame = 8 * getFrameSlots();
+		if ((frame + 8 * savedRegisters.size()) % 16 != 0) {
+			frame += 8;
+		}
+		if (frame > 0) {
+			emit("subq $" + frame + ", %rsp");
+		}
+		if (stackAreaSize > 0) {
+			emit("movq oak_stack_top(%rip), %rax");
+			emit("movq %rax, " + getStackAreaSlot());
+			emit("addq $" + stackAreaSize + ", %rax");
+			emit("cmpq oak_stack_end(%rip), %rax");
+			emit("ja .Loak_stack_overflow");
+			emit("movq %rax, oak_stack_top(%rip)");
+		}
+		ParallelMoves moves = new ParallelMoves();
+		for (int i = 0; i < params.size(); i++) {
+			int index = function.getFirst(params.get(i));
+			if (index < ARGUMENTS.length) {
+				moves.addMove(allocation.getLocation(params.get(i)), ARGUMENTS[index]);
+			}
+		}
+		moves.emit(moveEmitter, R11);
+		for (int i = 0; i < params.size(); i++) {
+			int index = function.getFirst(params.get(i));
+			if (index >= ARGUMENTS.length) {
+				String source = 16 + 8 * (index - ARGUMENTS.length) + "(%rbp)";
+				int location = allocation.getLocation(params.get(i));
+				if (RegisterAllocation.isRegister(location)) {
+					emit("movq " + source + ", " + getLocation(location));
+				} else {
+					emit("movq " + source + ", %rax");
+					emit("movq %rax, " + getLocation(location));
+				}
+			}
+		}
+	}
+
+	private void emitEpilogue() {
+		if (stackAreaSize > 0) {
+			emit("movq " + getStackAreaSlot() + ", %r11");
+			emit("movq %r11, oak_stack_top(%rip)");
+		}
+		if (savedRegisters.isEmpty()) {
+			emit("leave");
+		} else {
+			emit("leaq " + -8 * savedRegisters.size() + "(%rbp), %rsp");
+			for (int i = savedRegisters.size() - 1; i >= 0; i--) {
+				emit("popq %" + NAMES[savedRegisters.get(i)]);
+			}
+			emit("popq %rbp");
+		}
+		emit("ret");
+	}
+
+	private void compileBlock(int block, int next) {
+		IntList instructions = function.getInstructions(block);
+		for (int i = 0; i < instructions.size(); i++) {
+			int instruction = instructions.get(i);
+			switch (function.getOpcode(instruction)) {
+				case IROpcode.PARAM:
+				case IROpcode.PHI:
+				case IROpcode.NOP:
+					break;
+				case IROpcode.COPY:
+					moveValue(allocation.getLocation(instruction), function.getFirst(instruction));
+					break;
+				case IROpcode.LOAD_GLOBAL:
+					int target = getTarget(instruction);
+					emit("movq " + getGlobal(instruction) + ", %" + NAMES[target]);
+					finish(instruction, target);
+					break;
+				case IROpcode.STORE_GLOBAL:
+					emit("movq %" + NAMES[getRegister(function.getFirst(instruction), RAX)] + ", "
+							+ getGlobal(instruction));
+					break;
+				case IROpcode.CALL:
+					compileCall(instruction);
+					break;
+				case IROpcode.BUILTIN:
+					compileBuiltin(instruction);
+					break;
+				case IROpcode.JUMP:
+					compileEdge(block, function.getFirst(instruction), next);
+					break;
+				case IROpcode.BRANCH:
+					compileBranch(block, instruction, next);
+					break;
+				case IROpcode.RETURN:
+					if (function.getFirst(instruction) != IRFunction.NONE) {
+						moveValue(RAX, function.getFirst(instruction));
+					}
+					emitEpilogue();
+					break;
+				default:
+					throw new IllegalStateException("Unexpected instruction " + function.formatInstruction(instruction));
+			}
+		}
+	}
+
+	private String getGlobal(int instruction) {
+		return "oak_globals+" + 8 * function.getThird(instruction) + "(%rip)";
+	}
+
+	// control flow
+
+	private ParallelMoves getPhiMoves(int block, int successor) {
+		ParallelMoves moves = new ParallelMoves();
+		int predecessor = function.getPredecessors(successor).indexOf(block);
+		IntList instructions = function.getInstructions(successor);
+		for (int i = 0; i < instructions.size() && function.getOpcode(instructions.get(i)) == IROpcode.PHI; i++) {
+			int phi = instructions.get(i);
+			int operand = function.getOperand(phi, predecessor);
+			if (function.getBlock(operand) == IRFunction.NONE) {
+				moves.addLoad(allocation.getLocation(phi), operand);
+			} else {
+				moves.addMove(allocation.getLocation(phi), allocation.getLocation(operand));
+			}
+		}
+		return moves;
+	}
+
+	private void compileEdge(int block, int successor, int next) {
+		getPhiMoves(block, successor).emit(moveEmitter, R11);
+		if (successor != next) {
+			emit("jmp " + getLabel(successor));
+		}
+	}
+
+	private void compileBranch(int block, int branch, int next) {
+		int condition = function.getFirst(branch);
+		int trueTarget = function.getSecond(branch);
+		int falseTarget = function.getThird(branch);
+		if (function.isConstant(condition)) {
+			compileEdge(block, function.getConstant(condition) != 0 ? trueTarget : falseTarget, next);
+			return;
+		}
+		ParallelMoves trueMoves = getPhiMoves(block, trueTarget);
+		ParallelMoves falseMoves = getPhiMoves(block, falseTarget);
+		emit("cmpq $0, " + getOperand(condition, RAX));
+		if (falseTarget == next && falseMoves.isEmpty() && trueMoves.isEmpty()) {
+			emit("jne " + getLabel(trueTarget));
+			return;
+		}
+		String falseLabel = falseMoves.isEmpty() ? getLabel(falseTarget) : newLabel();
+		emit("je " + falseLabel);
+		trueMoves.emit(moveEmitter, R11);
+		if (trueTarget != next || !falseMoves.isEmpty()) {
+			emit("jmp " + getLabel(trueTarget));
+		}
+		if (!falseMoves.isEmpty()) {
+			output.append(falseLabel).append(":\n");
+			compileEdge(block, falseTarget, next);
+		}
+	}
+
+	// calls
+
+	private void compileCall(int instruction) {
+		int count = function.getOperandCount(instruction);
+		int stackArguments = Math.max(0, count - ARGUMENTS.length);
+		int padding = stackArguments % 2 == 1 ? 8 : 0;
+		if (padding > 0) {
+			emit("subq $8, %rsp");
+		}
+		for (int i = count - 1; i >= ARGUMENTS.length; i--) {
+			emit("pushq " + getOperand(function.getOperand(instruction, i), RAX));
+		}
+		ParallelMoves moves = new ParallelMoves();
+		for (int i = 0; i < Math.min(count, ARGUMENTS.length); i++) {
+			addArgument(moves, ARGUMENTS[i], function.getOperand(instruction, i));
+		}
+		moves.emit(moveEmitter, R11);
+		emit("call " + getFunctionLabel(function.getThird(instruction)));
+		if (stackArguments > 0) {
+			emit("addq $" + (8 * stackArguments + padding) + ", %rsp");
+		}
+		finish(instruction, RAX);
+	}
+
+	private void addArgument(ParallelMoves moves, int register, int value) {
+		if (function.getBlock(value) == IRFunction.NONE) {
+			moves.addLoad(register, value);
+		} else {
+			moves.addMove(register, allocation.getLocation(value));
+		}
+	}
+
+	private void compileRuntimeCall(int instruction) {
+		Builtin builtin = function.getBuiltin(instruction);
+		ParallelMoves moves = new ParallelMoves();
+		if (function.getFirst(instruction) != IRFunction.NONE) {
+			addArgument(moves, RDI, function.getFirst(instruction));
+		}
+		if (function.getSecond(instruction) != IRFunction.NONE) {
+			addArgument(moves, RSI, function.getSecond(instruction));
+		}
+		moves.emit(moveEmitter, R11);
+		emit("movl $" + function.getLine(instruction) + ", %edx");
+		emit("call oak_" + builtin.name().toLowerCase(Locale.ROOT));
+		finish(instruction, RAX);
+	}
+
+	// built in functions
+
+	private void compileBuiltin(int instruction) {
+		Builtin builtin = function.getBuiltin(instruction);
+		int first = function.getFirst(instruction);
+		int second = function.getSecond(instruction);
+		if (isStackAllocation(instruction)) {
+			compileStackAllocation(instruction);
+			return;
+		}
+		if (RUNTIME_BUILTINS.contains(builtin)) {
+			compileRuntimeCall(instruction);
+			return;
+		}
+		switch (builtin) {
+			case TO_BYTE_BOOL:
+			case TO_INT_BOOL:
+			case TO_INT_BYTE:
+			case TO_POINTER_STRING:
+			case TO_STRING_POINTER:
+			case GET_REF_BOOL:
+			case GET_REF_BYTE:
+			case GET_REF_INT:
+			case GET_REF_FLOAT:
+			case GET_REF_POINTER:
+			case GET_REF_STRING:
+				moveValue(allocation.getLocation(instruction), first);
+				break;
+			case TO_BOOL_BYTE:
+			case TO_BOOL_INT:
+				emit("cmpq $0, %" + NAMES[getRegister(first, RAX)]);
+				compileSet(instruction, "setne");
+				break;
+			case TO_BOOL_FLOAT:
+				loadFloat(first, 0, RAX);
+				emit("xorps %xmm1, %xmm1");
+				emit("ucomiss %xmm1, %xmm0");
+				compileSet(instruction, "setne");
+				break;
+			case TO_BYTE_INT:
+				moveValue(RAX, first);
+				emit("movsbq %al, %r11");
+				emit("cmpq %rax, %r11");
+				emit("jne " + addStub(instruction, FAIL_BYTE, "movq %rax, %rdx"));
+				finish(instruction, R11);
+				break;
+			case TO_FLOAT_INT:
+				emit("cvtsi2ssl %" + NAMES32[getRegister(first, RAX)] + ", %xmm0");
+				finishFloat(instruction);
+				break;
+			case ADD_BYTE:
+				compileIntOperation(instruction, "addl", true);
+				break;
+			case SUB_BYTE:
+				compileIntOperation(instruction, "subl", true);
+				break;
+			case MUL_BYTE:
+				compileIntOperation(instruction, "imull", true);
+				break;
+			case ADD_INT:
+				compileIntOperation(instruction, "addl", false);
+				break;
+			case SUB_INT:
+				compileIntOperation(instruction, "subl", false);
+				break;
+			case MUL_INT:
+				compileIntOperation(instruction, "imull", false);
+				break;
+			case ADD_FLOAT:
+				compileFloatOperation(instruction, "addss");
+				break;
+			case SUB_FLOAT:
+				compileFloatOperation(instruction, "subss");
+				break;
+			case MUL_FLOAT:
+				compileFloatOperation(instruction, "mulss");
+				break;
+			case NOT:
+				int target = getTarget(instruction);
+				moveValue(target, first);
+				emit("xorq $1, %" + NAMES[target]);
+				finish(instruction, target);
+				break;
+			case AND:
+				compileLongOperation(instruction, "andq");
+				break;
+			case OR:
+				compileLongOperation(instruction, "orq");
+				break;
+			case XOR:
+				compileLongOperation(instruction, "xorq");
+				break;
+			case EQUAL_BOOL:
+			case EQUAL_BYTE:
+			case EQUAL_INT:
+			case EQUAL_POINTER:
+				compileComparison(instruction, "sete");
+				break;
+			case LESS_BYTE:
+			case LESS_INT:
+				compileComparison(instruction, "setl");
+				break;
+			case EQUAL_FLOAT:
+				loadFloat(first, 0, RAX);
+				loadFloat(second, 1, R11);
+				emit("ucomiss %xmm1, %xmm0");
+				emit("sete %al");
+				emit("setnp %r11b");
+				emit("andb %r11b, %al");
+				emit("movzbl %al, %eax");
+				finish(instruction, RAX);
+				break;
+			case LESS_FLOAT:
+				loadFloat(first, 0, RAX);
+				loadFloat(second, 1, R11);
+				emit("ucomiss %xmm0, %xmm1");
+				compileSet(instruction, "seta");
+				break;
+			case ADD_POINTER:
+				compileAddPointer(instruction);
+				break;
+			case MEM_SIZE:
+				moveValue(RAX, first);
+				emit("movq %rax, %r11");
+				emit("sarq $32, %r11");
+				emit("subl %r11d, %eax");
+				emit("incl %eax");
+				emit("movslq %eax, %rax");
+				emit("movq $-1, %r11");
+				emit("testq %rax, %rax");
+				emit("cmovsq %r11, %rax");
+				finish(instruction, RAX);
+				break;
+			case GET_BOOL:
+			case GET_BYTE:
+			case GET_INT:
+			case GET_FLOAT:
+			case GET_POINTER:
+			case GET_STRING:
+				compileLoad(instruction);
+				break;
+			case SET_BOOL:
+			case SET_BYTE:
+			case SET_INT:
+			case SET_FLOAT:
+			case SET_POINTER:
+			case SET_STRING:
+				compileStore(instruction);
+				break;
+			default:
+				throw new IllegalStateException("Unsupported built in function " + builtin);
+		}
+	}
+
+	/**
+	 * Compute "target = first op second" with 32 bit operations, the result is sign extended to the
+	 * encoding of ints or bytes.
+	 */
+	private void compileIntOperation(int instruction, String operation, boolean isByte) {
+		int target = getTarget(instruction, getRegisterLocation(function.getSecond(instruction)));
+		emit("movl " + getOperand32(function.getFirst(instruction)) + ", %" + NAMES32[target]);
+		emit(operation + " " + getOperand32(function.getSecond(instruction)) + ", %" + NAMES32[target]);
+		if (isByte) {
+			emit("movsbq %" + NAMES8[target] + ", %" + NAMES[target]);
+		} else {
+			emit("movslq %" + NAMES32[target] + ", %" + NAMES[target]);
+		}
+		finish(instruction, target);
+	}
+
+	private void compileLongOperation(int instruction, String operation) {
+		int target = getTarget(instruction, getRegisterLocation(function.getSecond(instruction)));
+		moveValue(target, function.getFirst(instruction));
+		emit(operation + " " + getOperand(function.getSecond(instruction), R11) + ", %" + NAMES[target]);
+		finish(instruction, target);
+	}
+
+	private void compileComparison(int instruction, String set) {
+		int first = getRegister(function.getFirst(instruction), RAX);
+		emit("cmpq " + getOperand(function.getSecond(instruction), R11) + ", %" + NAMES[first]);
+		compileSet(instruction, set);
+	}
+
+	/**
+	 * Materialize a flag as bool.
+	 */
+	private void compileSet(int instruction, String set) {
+		int target = getTarget(instruction);
+		emit(set + " %" + NAMES8[target]);
+		emit("movzbl %" + NAMES8[target] + ", %" + NAMES32[target]);
+		finish(instruction, target);
+	}
+
+	private void loadFloat(int value, int xmm, int scratch) {
+		emit("movd %" + NAMES32[getRegister(value, scratch)] + ", %xmm" + xmm);
+	}
+
+	private void finishFloat(int instruction) {
+		emit("movd %xmm0, %eax");
+		emit("movslq %eax, %rax");
+		finish(instruction, RAX);
+	}
+
+	private void compileFloatOperation(int instruction, String operation) {
+		loadFloat(function.getFirst(instruction), 0, RAX);
+		loadFloat(function.getSecond(instruction), 1, R11);
+		emit(operation + " %xmm1, %xmm0");
+		finishFloat(instruction);
+	}
+
+	/**
+	 * Add an offset to the begin address of a pointer, which is in the upper half of the encoded pointer.
+	 */
+	private void compileAddPointer(int instruction) {
+		moveValue(RAX, function.getFirst(instruction));
+		if (function.hasFlag(instruction, IRFunction.UNCHECKED)) {
+			emit("movl " + getOperand32(function.getSecond(instruction)) + ", %edx");
+		} else {
+			emit("movq %rax, %rdx");
+			emit("sarq $32, %rdx");
+			emit("movl %eax, %r11d");
+			emit("subl %edx, %r11d");
+			emit("incl %r11d");
+			emit("js " + addStub(instruction, FAIL_INVALID_POINTER, null));
+			emit("movl " + getOperand32(function.getSecond(instruction)) + ", %edx");
+			emit("cmpl %r11d, %edx");
+			emit("ja " + addStub(instruction, FAIL_OFFSET, "movslq %edx, %rdx"));
+		}
+		emit("shlq $32, %rdx");
+		emit("addq %rdx, %rax");
+		finish(instruction, RAX);
+	}
+
+	/**
+	 * Compute the address of the memory accessed by the given get_TYPE or set_TYPE in rdx.
+	 */
+	private void compileAddress(int instruction, Type type) {
+		int pointer = function.getFirst(instruction);
+		if (function.hasFlag(instruction, IRFunction.UNCHECKED)) {
+			moveValue(RDX, pointer);
+			emit("sarq $32, %rdx");
+		} else {
+			moveValue(RAX, pointer);
+			emit("movq %rax, %rdx");
+			emit("sarq $32, %rdx");
+			emit("subl %edx, %eax");
+			emit("cmpl $" + (type.getSize() - 1) + ", %eax");
+			emit("jl " + addStub(instruction, FAIL_TOO_SMALL, "movl $" + type.ordinal() + ", %edx"));
+		}
+		emit("addq oak_heap(%rip), %rdx");
+	}
+
+	private void compileLoad(int instruction) {
+		Type type = function.getBuiltin(instruction).getReturnType();
+		compileAddress(instruction, type);
+		int target = getTarget(instruction);
+		String register = "%" + NAMES[target];
+		switch (type) {
+			case BOOL:
+				emit("cmpb $0, (%rdx)");
+				emit("setne %" + NAMES8[target]);
+				emit("movzbl %" + NAMES8[target] + ", %" + NAMES32[target]);
+				break;
+			case BYTE:
+				emit("movsbq (%rdx), " + register);
+				break;
+			case INT:
+			case FLOAT:
+				emit("movslq (%rdx), " + register);
+				break;
+			default:
+				emit("movq (%rdx), " + register);
+		}
+		finish(instruction, target);
+	}
+
+	private void compileStore(int instruction) {
+		Type type = function.getBuiltin(instruction).getParameterTypes().get(1);
+		compileAddress(instruction, type);
+		int value = getRegister(function.getSecond(instruction), R11);
+		switch (type) {
+			case BOOL:
+			case BYTE:
+				emit("movb %" + NAMES8[value] + ", (%rdx)");
+				break;
+			case INT:
+			case FLOAT:
+				emit("movl %" + NAMES32[value] + ", (%rdx)");
+				break;
+			default:
+				emit("movq %" + NAMES[value] + ", (%rdx)");
+		}
+	}
+
+	/**
+	 * Allocate the memory area of a malloc flagged with STACK in the stack area of the function and clear it.
+	 */
+	private void compileStackAllocation(int instruction) {
+		long size = function.getConstant(function.getFirst(instruction));
+		long rounded = (size + 7) & ~7;
+		String loop = newLabel();
+		emit("movq " + getStackAreaSlot() + ", %rax");
+		emit("addq $" + stackOffsets[instruction] + ", %rax");
+		emit("movq oak_heap(%rip), %rdx");
+		emit("addq %rax, %rdx");
+		emit("movl $" + rounded / 8 + ", %r11d");
+		output.append(loop).append(":\n");
+		emit("movq $0, -8(%rdx,%r11,8)");
+		emit("decl %r11d");
+		emit("jnz " + loop);
+		emit("leaq " + (size - 1) + "(%rax), %rdx");
+		emit("shlq $32, %rax");
+		emit("orq %rdx, %rax");
+		finish(instruction, RAX);
+	}
+
+	/**
+	 * Add an out of line call of oak_fail.
+	 * @param setValue instruction setting the value argument (rdx) or null
+	 * @return label of the call
+	 */
+	private String addStub(int instruction, int kind, String setValue) {
+		String label = newLabel();
+		stubs.append(label).append(":\n");
+		if (setValue != null) {
+			stubs.append('\t').append(setValue).append('\n');
+		}
+		stubs.append("\tmovl $").append(function.getLine(instruction)).append(", %esi\n");
+		stubs.append("\tmovl $").append(kind).append(", %edi\n");
+		stubs.append("\tcall oak_fail\n");
+		return label;
+	}
+
+	// operands and locations
+
+	private void emit(String instruction) {
+		output.append('\t').append(instruction).append('\n');
+	}
+
+	private static String getLocation(int location) {
+		return "%" + NAMES[location];
+	}
+
+	private String getLocationOperand(int location) {
+		if (RegisterAllocation.isRegister(location)) {
+			return "%" + NAMES[location];
+		}
+		return getSlotAddress(RegisterAllocation.getSlot(location));
+	}
+
+	private static boolean fitsImmediate(long constant) {
+		return constant == (int) constant;
+	}
+
+	/**
+	 * Return an operand reading the given value: a register, a memory operand or a 32 bit immediate,
+	 * larger constants are loaded into the scratch register.
+	 */
+	private String getOperand(int value, int scratch) {
+		switch (function.getOpcode(value)) {
+			case IROpcode.CONST:
+				long constant = function.getConstant(value);
+				if (fitsImmediate(constant)) {
+					return "$" + constant;
+				}
+				emit("movabsq $" + constant + ", %" + NAMES[scratch]);
+				return "%" + NAMES[scratch];
+			case IROpcode.STRING:
+				return "oak_strings+" + 8 * function.getThird(value) + "(%rip)";
+			default:
+				return getLocationOperand(allocation.getLocation(value));
+		}
+	}
+
+	/**
+	 * Return an operand reading the lower 32 bits of the given value (an int, byte or bool).
+	 */
+	private String getOperand32(int value) {
+		if (function.getOpcode(value) == IROpcode.CONST) {
+			return "$" + (int) function.getConstant(value);
+		}
+		int location = allocation.getLocation(value);
+		if (RegisterAllocation.isRegister(location)) {
+			return "%" + NAMES32[location];
+		}
+		return getLocationOperand(location);
+	}
+
+	/**
+	 * Return the register of the given value, if it isn't in a register, it's loaded into the scratch register.
+	 */
+	private int getRegister(int value, int scratch) {
+		int location = getRegisterLocation(value);
+		if (location != RegisterAllocation.NONE) {
+			return location;
+		}
+		moveValue(scratch, value);
+		return scratch;
+	}
+
+	/**
+	 * Return the register of the given value or NONE if it's a constant or spilled.
+	 */
+	private int getRegisterLocation(int value) {
+		if (function.getBlock(value) == IRFunction.NONE) {
+			return RegisterAllocation.NONE;
+		}
+		int location = allocation.getLocation(value);
+		return RegisterAllocation.isRegister(location) ? location : RegisterAllocation.NONE;
+	}
+
+	/**
+	 * Return the register to compute the result of the instruction in: its own register, if it has one
+	 * that isn't read by the computation after the first write, or rax.
+	 */
+	private int getTarget(int instruction, int... avoided) {
+		int location = allocation.getLocation(instruction);
+		if (!RegisterAllocation.isRegister(location)) {
+			return RAX;
+		}
+		for (int register : avoided) {
+			if (register == location) {
+				return RAX;
+			}
+		}
+		return location;
+	}
+
+	/**
+	 * Move the result of the instruction from the given register to its location.
+	 */
+	private void finish(int instruction, int register) {
+		int location = allocation.getLocation(instruction);
+		if (location != RegisterAllocation.NONE && location != register) {
+			emit("movq %" + NAMES[register] + ", " + getLocationOperand(location));
+		}
+	}
+
+	/**
+	 * Move the given value (with or without location) to the given location.
+	 */
+	private void moveValue(int location, int value) {
+		if (location == RegisterAllocation.NONE) {
+			return;
+		}
+		if (function.getBlock(value) == IRFunction.NONE) {
+			moveEmitter.load(location, value);
+		} else {
+			moveEmitter.move(location, allocation.getLocation(value));
+		}
+	}
+
+	private class MoveEmitter implements ParallelMoves.Emitter {
+
+		@Override
+		public void move(int destination, int source) {
+			if (destination == source) {
+				return;
+			}
+			if (!RegisterAllocation.isRegister(destination) && !RegisterAllocation.isRegister(source)) {
+				emit("movq " + getLocationOperand(source) + ", %rax");
+				source = RAX;
+			}
+			emit("movq " + getLocationOperand(source) + ", " + getLocationOperand(destination));
+		}
+
+		@Override
+		public void load(int destination, int value) {
+			String operand = getOperand(value, RAX);
+			if (!RegisterAllocation.isRegister(destination) && operand.endsWith("(%rip)")) {
+				emit("movq " + operand + ", %rax");
+				operand = "%rax";
+			}
+			if (!operand.equals(getLocationOperand(destination))) {
+				emit("movq " + operand + ", " + getLocationOperand(destination));
+			}
+		}
+	}
+
+	// linking
+
+	/**
+	 * Assemble the given code and link it with the runtime, using gcc.
+	 * @param assembly code generated by compile
+	 * @param executable file of the linked program
+	 * @throws IOException gcc failed
+	 * @throws InterruptedException the thread was interrupted while waiting for gcc
+	 */
+	public static void link(String assembly, File executable) throws IOException, InterruptedException {
+		Path source = Files.createTempFile("oak", ".s");
+		try {
+			Files.write(source, assembly.getBytes(StandardCharsets.ISO_8859_1));
+			link(source, executable);
+		} finally {
+			Files.delete(source);
+		}
+	}
+
+	/**
+	 * Assemble the code in the given file (with the suffix .s) and link it with the runtime, using gcc.
+	 * @param assembly file of the code generated by compile
+	 * @param executable file of the linked program
+	 * @throws IOException gcc failed
+	 * @throws InterruptedException the thread was interrupted while waiting for gcc
+	 */
+	public static void link(Path assembly, File executable) throws IOException, InterruptedException {
+		Path directory = Files.createTempDirectory("oak");
+		try {
+			Path runtime = directory.resolve(RUNTIME);
+			try (InputStream input = X86Compiler.class.getResourceAsStream(RUNTIME)) {
+				Files.copy(input, runtime, StandardCopyOption.REPLACE_EXISTING);
+			}
+			Process process = new ProcessBuilder("gcc", "-O2", "-o", executable.getAbsolutePath(), assembly.toString(),
+					runtime.toString(), "-lm").redirectErrorStream(true).start();
+			ByteArrayOutputStream messages = new ByteArrayOutputStream();
+			try (InputStream input = process.getInputStream()) {
+				byte[] buffer = new byte[4096];
+				for (int length = input.read(buffer); length >= 0; length = input.read(buffer)) {
+					messages.write(buffer, 0, length);
+				}
+			}
+			if (process.waitFor() != 0) {
+				throw new IOException("Linking failed: " + messages.toString("ISO-8859-1"));
+			}
+		} finally {
+			File[] files = directory.toFile().listFiles();
+			if (files != null) {
+				for (File file : files) {
+					file.delete();
+				}
+			}
+			directory.toFile().delete();
+		}
+	}
+}
@@ -0,0 +1,644 @@
+package intothewoods.x86;
+
+import intothewoods.backend.ControlFlowRules;
+import intothewoods.backend.PeepholeOptimizer;
+import intothewoods.backend.PeepholeRule;
+import intothewoods.backend.PeepholeTarget;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Peephole rules for the x86-64 code, working on the lines of the assembly: labels ("label:") and
+ * instructions ("\topcode operands", operands separated by ", ").
+ *
+ * Registers are named by their 64 bit names (or xmm names), the flags by the pseudo register "flags".
+ * Writing a 32 bit register clears the upper half, writing a smaller one keeps it and counts therefore as
+ * read. Calls follow the conventions of X86Compiler: they read the argument registers and may change all
+ * caller saved registers, returns read rax and the callee saved registers.
+ */
+public class X86Peephole implements PeepholeTarget<String> {
+
+	static final String FLAGS = "flags";
+
+	private static final Map<String, String> REGISTERS = new HashMap<>();
+	private static final Set<String> FULL_REGISTERS = new HashSet<>();
+	private static final Map<String, String> INVERTED = new HashMap<>();
+	private static final Set<String> CALL_READS = new HashSet<>(Arrays.asList("rdi", "rsi", "rdx", "rcx", "r8",
+			"r9", "rsp"));
+	private static final Set<String> CALL_WRITES = new HashSet<>(Arrays.asList("rax", "rcx", "rdx", "rsi", "rdi",
+			"r8", "r9", "r10", "r11", FLAGS));
+	private static final Set<String> RETURN_READS = new HashSet<>(Arrays.asList("rax", "rbx", "rbp", "rsp", "r12",
+			"r13", "r14", "r15"));
+
+	/**
+	 * Instructions copying or converting their first operand into the second.
+	 */
+	private static final Set<String> MOVES = new HashSet<>(Arrays.asList("movq", "movl", "movw", "movb",
+			"movabsq", "movslq", "movsbq", "movsbl", "movswq", "movzbl", "movzbq", "movzwl", "leaq", "movd",
+			"cvttss2si", "cvttss2sil", "cvttss2siq", "cvtss2si"));
+
+	/**
+	 * Instructions combining both operands into the second one and setting the flags.
+	 */
+	private static final Set<String> OPERATIONS = new HashSet<>(Arrays.asList("addq", "addl", "subq", "subl",
+			"andq", "andl", "andb", "orq", "orl", "xorq", "xorl", "imulq", "imull", "shlq", "shll", "salq", "sall",
+			"sarq", "sarl", "shrq", "shrl"));
+
+	private static final Set<String> COMPARISONS = new HashSet<>(Arrays.asList("cmpq", "cmpl", "cmpb", "testq",
+			"testl", "testb", "ucomiss", "comiss"));
+
+	static {
+		String[][] names = {
+				{"rax", "eax", "ax", "al", "ah"}, {"rbx", "ebx", "bx", "bl", "bh"}, {"rcx", "ecx", "cx", "cl", "ch"},
+				{"rdx", "edx", "dx", "dl", "dh"}, {"rsi", "esi", "si", "sil"}, {"rdi", "edi", "di", "dil"},
+				{"rbp", "ebp", "bp", "bpl"}, {"rsp", "esp", "sp", "spl"}};
+		for (String[] aliases : names) {
+			for (String alias : aliases) {
+				REGISTERS.put(alias, aliases[0]);
+			}
+			FULL_REGISTERS.add(aliases[0]);
+			FULL_REGISTERS.add(aliases[1]);
+		}
+		for (int i = 8; i < 16; i++) {
+			String name = "r" + i;
+			for (String suffix : new String[]{"", "d", "w", "b"}) {
+				REGISTERS.put(name + suffix, name);
+			}
+			FULL_REGISTERS.add(name);
+			FULL_REGISTERS.add(name + "d");
+		}
+		for (int i = 0; i < 16; i++) {
+			REGISTERS.put("xmm" + i, "xmm" + i);
+			CALL_WRITES.add("xmm" + i);
+		}
+		String[] pairs = {"je", "jne", "jz", "jnz", "jl", "jge", "jle", "jg", "jb", "jae", "jbe", "ja", "js", "jns",
+				"jp", "jnp", "jo", "jno"};
+		for (int i = 0; i < pairs.length; i += 2) {
+			INVERTED.put(pairs[i], pairs[i + 1]);
+			INVERTED.put(pairs[i + 1], pairs[i]);
+		}
+	}
+
+	private X86Peephole() {
+	}
+
+	/**
+	 * Create an optimizer with the rules.
+	 */
+	public static PeepholeOptimizer<String> create() {
+		List<PeepholeRule<String>> rules = ControlFlowRules.create();
+		rules.add(new SelfMove());
+		rules.add(new StoreLoad());
+		rules.add(new CopyPropagation());
+		rules.add(new StrengthReduction());
+		rules.add(new ConditionFusion());
+		rules.add(new DeadCode());
+		return new PeepholeOptimizer<>(new X86Peephole(), rules);
+	}
+
+	static String getOpcode(String line) {
+		int space = line.indexOf(' ');
+		return line.substring(1, space < 0 ? line.length() : space);
+	}
+
+	/**
+	 * Return the operands of an instruction, commas in memory operands don't separate operands.
+	 */
+	static List<String> getOperands(String line) {
+		List<String> operands = new ArrayList<>();
+		int space = line.indexOf(' ');
+		if (space < 0) {
+			return operands;
+		}
+		int depth = 0;
+		int start = space + 1;
+		for (int i = start; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (c == '(') {
+				depth++;
+			} else if (c == ')') {
+				depth--;
+			} else if (c == ',' && depth == 0) {
+				operands.add(line.substring(start, i).trim());
+				start = i + 1;
+			}
+		}
+		operands.add(line.substring(start).trim());
+		return operands;
+	}
+
+	static String instruction(String opcode, String... operands) {
+		StringBuilder builder = new StringBuilder("\t").append(opcode);
+		for (int i = 0; i < operands.length; i++) {
+			builder.append(i == 0 ? " " : ", ").append(operands[i]);
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Return the 64 bit name of a register operand or null if it's no register.
+	 */
+	static String getRegister(String operand) {
+		return operand.startsWith("%") ? REGISTERS.get(operand.substring(1)) : null;
+	}
+
+	/**
+	 * Checks whether writing the register operand changes the whole register.
+	 */
+	private static boolean isFullRegister(String operand) {
+		return FULL_REGISTERS.contains(operand.substring(1)) || operand.startsWith("%xmm");
+	}
+
+	private static boolean isMemory(String operand) {
+		return operand.endsWith(")");
+	}
+
+	/**
+	 * Add the registers read by the operand: the register itself or the registers of the address.
+	 */
+	private static boolean addReads(Set<String> reads, String operand) {
+		if (isMemory(operand)) {
+			for (String part : operand.substring(operand.indexOf('(') + 1, operand.length() - 1).split(",")) {
+				if (part.startsWith("%") && !part.equals("%rip")) {
+					String register = getRegister(part);
+					if (register == null) {
+						return false;
+					}
+					reads.add(register);
+				}
+			}
+		} else if (operand.startsWith("%")) {
+			String register = getRegister(operand);
+			if (register == null) {
+				return false;
+			}
+			reads.add(register);
+		}
+		return true;
+	}
+
+	/**
+	 * Add the effects of writing the destination operand.
+	 * @param full whether the instruction writes the whole destination (else it counts as read)
+	 */
+	private static boolean addWrite(Set<String> reads, Set<String> writes, String operand, boolean full) {
+		if (!operand.startsWith("%")) {
+			return addReads(reads, operand);
+		}
+		String register = getRegister(operand);
+		if (register == null) {
+			return false;
+		}
+		if (!full || !isFullRegister(operand)) {
+			reads.add(register);
+		}
+		writes.add(register);
+		return true;
+	}
+
+	/**
+	 * Compute the registers read and written by an instruction.
+	 * @return false if the instruction is unknown
+	 */
+	private static boolean computeEffects(String line, Set<String> reads, Set<String> writes) {
+		String opcode = getOpcode(line);
+		List<String> operands = getOperands(line);
+		String last = operands.isEmpty() ? null : operands.get(operands.size() - 1);
+		switch (opcode) {
+			case "call":
+				reads.addAll(CALL_READS);
+				writes.addAll(CALL_WRITES);
+				return true;
+			case "ret":
+				reads.addAll(RETURN_READS);
+				return true;
+			case "jmp":
+				return operands.size() == 1 && !last.startsWith("*");
+			case "leave":
+				reads.add("rbp");
+				writes.add("rbp");
+				writes.add("rsp");
+				return true;
+			case "pushq":
+				reads.add("rsp");
+				writes.add("rsp");
+				return addReads(reads, last);
+			case "popq":
+				reads.add("rsp");
+				writes.add("rsp");
+				return addWrite(reads, writes, last, true);
+			case "cqto":
+			case "cltd":
+				reads.add("rax");
+				writes.add("rdx");
+				return true;
+			case "cltq":
+				reads.add("rax");
+				writes.add("rax");
+				return true;
+			case "idivl":
+			case "idivq":
+			case "divl":
+			case "divq":
+				reads.add("rax");
+				reads.add("rdx");
+				writes.add("rax");
+				writes.add("rdx");
+				writes.add(FLAGS);
+				return addReads(reads, last);
+			case "negq":
+			case "negl":
+				writes.add(FLAGS);
+				return addWrite(reads, writes, last, false);
+			case "notq":
+			case "notl":
+				return addWrite(reads, writes, last, false);
+			case "incq":
+			case "incl":
+			case "decq":
+			case "decl":
+				// the carry flag stays unchanged
+				reads.add(FLAGS);
+				writes.add(FLAGS);
+				return addWrite(reads, writes, last, false);
+			default:
+		}
+		if (operands.size() == 2 && operands.get(0).equals(last) && !isMemory(last)
+				&& (opcode.equals("xorl") || opcode.equals("xorq") || opcode.equals("xorps"))) {
+			// zeroing idiom
+			if (!opcode.equals("xorps")) {
+				writes.add(FLAGS);
+			}
+			return addWrite(reads, writes, last, true);
+		}
+		if (MOVES.contains(opcode) || opcode.startsWith("cvt")) {
+			if (operands.size() != 2) {
+				return false;
+			}
+			// for leaq only the registers of the address
+			if (!addReads(reads, operands.get(0))) {
+				return false;
+			}
+			// the conversions to floats keep the upper part of the xmm register
+			return addWrite(reads, writes, last, !opcode.startsWith("cvtsi"));
+		}
+		if (OPERATIONS.contains(opcode)) {
+			writes.add(FLAGS);
+			if (operands.size() == 3) {
+				// imul with immediate
+				return opcode.startsWith("imul") && addReads(reads, operands.get(1))
+						&& addWrite(reads, writes, last, true);
+			}
+			if (operands.size() != 2 || !addReads(reads, operands.get(0))) {
+				return false;
+			}
+			if ((opcode.startsWith("sh") || opcode.startsWith("sa")) && !operands.get(0).startsWith("$")) {
+				// shifts by zero keep the flags
+				reads.add(FLAGS);
+			}
+			return addWrite(reads, writes, last, false);
+		}
+		if (COMPARISONS.contains(opcode)) {
+			writes.add(FLAGS);
+			for (String operand : operands) {
+				if (!addReads(reads, operand)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		if (opcode.startsWith("set") && operands.size() == 1) {
+			reads.add(FLAGS);
+			return addWrite(reads, writes, last, false);
+		}
+		if (opcode.startsWith("cmov") && operands.size() == 2) {
+			reads.add(FLAGS);
+			return addReads(reads, operands.get(0)) && addWrite(reads, writes, last, false);
+		}
+		if (INVERTED.containsKey(opcode)) {
+			reads.add(FLAGS);
+			return true;
+		}
+		if ((opcode.endsWith("ss") || opcode.endsWith("ps")) && operands.size() == 2) {
+			return addReads(reads, operands.get(0)) && addWrite(reads, writes, last, false);
+		}
+		return false;
+	}
+
+	@Override
+	public String getLabel(String entry) {
+		return !entry.startsWith("\t") && entry.endsWith(":") ? entry.substring(0, entry.length() - 1) : null;
+	}
+
+	@Override
+	public String getTarget(String instruction) {
+		String opcode = getOpcode(instruction);
+		if (opcode.equals("jmp") || INVERTED.containsKey(opcode)) {
+			String target = instruction.substring(instruction.indexOf(' ') + 1);
+			return target.startsWith("*") ? null : target;
+		}
+		return null;
+	}
+
+	@Override
+	public boolean isJump(String instruction) {
+		String opcode = getOpcode(instruction);
+		return opcode.equals("jmp") || opcode.equals("ret");
+	}
+
+	@Override
+	public boolean isBranch(String instruction) {
+		return INVERTED.containsKey(getOpcode(instruction));
+	}
+
+	@Override
+	public boolean isDelaySlot(String instruction) {
+		return false;
+	}
+
+	@Override
+	public String retarget(String instruction, String label) {
+		return instruction(getOpcode(instruction), label);
+	}
+
+	@Override
+	public String invert(String branch, String label) {
+		return instruction(INVERTED.get(getOpcode(branch)), label);
+	}
+
+	@Override
+	public Set<String> getReads(String instruction) {
+		Set<String> reads = new HashSet<>();
+		return computeEffects(instruction, reads, new HashSet<String>()) ? reads : null;
+	}
+
+	@Override
+	public Set<String> getWrites(String instruction) {
+		Set<String> writes = new HashSet<>();
+		return computeEffects(instruction, new HashSet<String>(), writes) ? writes : null;
+	}
+
+	/**
+	 * The stack overflow handler doesn't read any registers.
+	 */
+	@Override
+	public boolean isLiveOutside(String label, String register) {
+		return !label.equals(".Loak_stack_overflow");
+	}
+
+	private static boolean is(PeepholeOptimizer<String> optimizer, String line, String opcode) {
+		return !optimizer.isLabel(line) && getOpcode(line).equals(opcode);
+	}
+
+	/**
+	 * Removes moves of a register to itself.
+	 */
+	static class SelfMove implements PeepholeRule<String> {
+
+		@Override
+		public String getName() {
+			return "self move";
+		}
+
+		@Override
+		public boolean apply(PeepholeOptimizer<String> optimizer, List<String> code, int index) {
+			String line = code.get(index);
+			if (!is(optimizer, line, "movq")) {
+				return false;
+			}
+			List<String> operands = getOperands(line);
+			if (operands.size() != 2 || !operands.get(0).equals(operands.get(1)) || getRegister(operands.get(0)) == null) {
+				return false;
+			}
+			code.remove(index);
+			return true;
+		}
+	}
+
+	/**
+	 * Replaces the load of a just stored value with a move and removes the store of a just loaded value.
+	 */
+	static class StoreLoad implements PeepholeRule<String> {
+
+		@Override
+		public String getName() {
+			return "store load";
+		}
+
+		@Override
+		public boolean apply(PeepholeOptimizer<String> optimizer, List<String> code, int index) {
+			if (index + 1 >= code.size() || optimizer.isLabel(code.get(index)) || optimizer.isLabel(code.get(index + 1))) {
+				return false;
+			}
+			String opcode = getOpcode(code.get(index));
+			if (!(opcode.equals("movq") || opcode.equals("movl")) || !getOpcode(code.get(index + 1)).equals(opcode)) {
+				return false;
+			}
+			List<String> first = getOperands(code.get(index));
+			List<String> second = getOperands(code.get(index + 1));
+			if (first.size() != 2 || second.size() != 2) {
+				return false;
+			}
+			if (isMemory(first.get(1)) && first.get(1).equals(second.get(0)) && getRegister(first.get(0)) != null
+					&& getRegister(second.get(1)) != null) {
+				// store and load
+				if (first.get(0).equals(second.get(1))) {
+					code.remove(index + 1);
+				} else {
+					code.set(index + 1, instruction(opcode, first.get(0), second.get(1)));
+				}
+				return true;
+			}
+			if (isMemory(first.get(0)) && first.get(0).equals(second.get(1)) && first.get(1).equals(second.get(0))
+					&& getRegister(first.get(1)) != null) {
+				// load and store
+				Set<String> address = new HashSet<>();
+				addReads(address, first.get(0));
+				if (!address.contains(getRegister(first.get(1)))) {
+					code.remove(index + 1);
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Lets a move read the source of the move (or the immediate) that set its source register.
+	 */
+	static class CopyPropagation implements PeepholeRule<String> {
+
+		@Override
+		public String getName() {
+			return "copy propagation";
+		}
+
+		@Override
+		public boolean apply(PeepholeOptimizer<String> optimizer, List<String> code, int index) {
+			String line = code.get(index);
+			if (!(is(optimizer, line, "movq") || is(optimizer, line, "movl"))) {
+				return false;
+			}
+			List<String> operands = getOperands(line);
+			String register = operands.size() == 2 ? getRegister(operands.get(0)) : null;
+			if (register == null || !isFullRegister(operands.get(0))) {
+				return false;
+			}
+			int definition = optimizer.findDefinition(code, index, register);
+			if (definition < 0 || !is(optimizer, code.get(definition), "movq")) {
+				return false;
+			}
+			List<String> defined = getOperands(code.get(definition));
+			String source = defined.get(0);
+			if (!defined.get(1).equals("%" + register)) {
+				return false;
+			}
+			if (source.startsWith("$")) {
+				code.set(index, instruction(getOpcode(line), source, operands.get(1)));
+				return true;
+			}
+			String sourceRegister = getRegister(source);
+			if (sourceRegister == null || sourceRegister.equals(register) || sourceRegister.startsWith("xmm")
+					|| !optimizer.isUnchanged(code, definition, index, sourceRegister)) {
+				return false;
+			}
+			String renamed = getOpcode(line).equals("movq") ? source : "%" + get32BitName(sourceRegister);
+			code.set(index, instruction(getOpcode(line), renamed, operands.get(1)));
+			return true;
+		}
+
+		private static String get32BitName(String register) {
+			return register.startsWith("r") && Character.isDigit(register.charAt(1)) ? register + "d"
+					: "e" + register.substring(1);
+		}
+	}
+
+	/**
+	 * Replaces multiplications with powers of two by shifts if the flags aren't needed.
+	 */
+	static class StrengthReduction implements PeepholeRule<String> {
+
+		@Override
+		public String getName() {
+			return "strength reduction";
+		}
+
+		@Override
+		public boolean apply(PeepholeOptimizer<String> optimizer, List<String> code, int index) {
+			String line = code.get(index);
+			if (!(is(optimizer, line, "imull") || is(optimizer, line, "imulq"))) {
+				return false;
+			}
+			List<String> operands = getOperands(line);
+			if (operands.size() != 2 || !operands.get(0).startsWith("$") || getRegister(operands.get(1)) == null) {
+				return false;
+			}
+			long factor;
+			try {
+				factor = Long.parseLong(operands.get(0).substring(1));
+			} catch (NumberFormatException e) {
+				return false;
+			}
+			if (factor <= 0 || Long.bitCount(factor) != 1 || !optimizer.isDead(code, index, FLAGS)) {
+				return false;
+			}
+			if (factor == 1) {
+				code.remove(index);
+			} else {
+				String shift = getOpcode(line).equals("imull") ? "shll" : "shlq";
+				code.set(index, instruction(shift, "$" + Long.numberOfTrailingZeros(factor), operands.get(1)));
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Lets a branch on a materialized flag ("setCC; movzbl; cmpq $0; jne/je") branch on the flag directly.
+	 */
+	static class ConditionFusion implements PeepholeRule<String> {
+
+		@Override
+		public String getName() {
+			return "condition fusion";
+		}
+
+		@Override
+		public boolean apply(PeepholeOptimizer<String> optimizer, List<String> code, int index) {
+			if (index + 3 >= code.size() || optimizer.isLabel(code.get(index))) {
+				return false;
+			}
+			String set = getOpcode(code.get(index));
+			String condition = "j" + set.substring(Math.min(3, set.length()));
+			if (!set.startsWith("set") || !INVERTED.containsKey(condition)) {
+				return false;
+			}
+			List<String> flag = getOperands(code.get(index));
+			String register = flag.size() == 1 ? getRegister(flag.get(0)) : null;
+			if (register == null || !is(optimizer, code.get(index + 1), "movzbl")
+					|| !is(optimizer, code.get(index + 2), "cmpq")
+					|| !(is(optimizer, code.get(index + 3), "jne") || is(optimizer, code.get(index + 3), "je"))) {
+				return false;
+			}
+			List<String> extension = getOperands(code.get(index + 1));
+			List<String> comparison = getOperands(code.get(index + 2));
+			if (extension.size() != 2 || comparison.size() != 2 || !extension.get(0).equals(flag.get(0))
+					|| !register.equals(getRegister(extension.get(1))) || !comparison.get(0).equals("$0")
+					|| !register.equals(getRegister(comparison.get(1)))
+					|| !optimizer.isDead(code, index + 3, register) || !optimizer.isDead(code, index + 3, FLAGS)) {
+				return false;
+			}
+			String label = optimizer.getTarget().getTarget(code.get(index + 3));
+			if (is(optimizer, code.get(index + 3), "je")) {
+				condition = INVERTED.get(condition);
+			}
+			code.subList(index, index + 4).clear();
+			code.add(index, instruction(condition, label));
+			return true;
+		}
+	}
+
+	/**
+	 * Removes moves and operations on registers whose results (flags included) are never read.
+	 */
+	static class DeadCode implements PeepholeRule<String> {
+
+		@Override
+		public String getName() {
+			return "dead code";
+		}
+
+		@Override
+		public boolean apply(PeepholeOptimizer<String> optimizer, List<String> code, int index) {
+			String line = code.get(index);
+			if (optimizer.isLabel(line)) {
+				return false;
+			}
+			String opcode = getOpcode(line);
+			if (!(MOVES.contains(opcode) || OPERATIONS.contains(opcode) || COMPARISONS.contains(opcode)
+					|| opcode.startsWith("set") || opcode.startsWith("cmov") || opcode.startsWith("cvt"))) {
+				return false;
+			}
+			List<String> operands = getOperands(line);
+			if (!COMPARISONS.contains(opcode) && (operands.isEmpty() || getRegister(operands.get(operands.size() - 1)) == null)) {
+				return false;
+			}
+			Set<String> writes = optimizer.getTarget().getWrites(line);
+			if (writes == null || writes.contains("rsp") || writes.contains("rbp")) {
+				return false;
+			}
+			for (String register : writes) {
+				if (!optimizer.isDead(code, index, register)) {
+					return false;
+				}
+			}
+			code.remove(index);
+			return true;
+		}
+	}
+}
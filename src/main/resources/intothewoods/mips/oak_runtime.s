@@ -0,0 +1,846 @@
+# Runtime of the programs compiled by the MIPS back end (see MipsCompiler): the heap, the standard
+# streams and the built in functions that the generated code calls.
+#
+# The routines take their arguments in a0 to a3 and the line of the call in t9 and return their result
+# in v0 (and v1). They may change v0, v1, a0 to a3, t0 to t9, hi, lo and the floating point registers,
+# the other registers are preserved. Pointers are pairs of the addresses of the first and the last byte
+# of their memory area. Runtime errors are reported like by the Java engines ("Error at line N: message"
+# on stderr) and end the program with the exit code 1. The delay slots are filled by hand.
+
+	.text
+
+# initialize the heap
+oak_start:
+	move $a0, $zero
+	ori $v0, $zero, 9
+	syscall
+	la $t0, oak_heap_start
+	jr $ra
+	sw $v0, 0($t0)
+
+# heap: blocks of up to 1024 bytes are kept in a free list per size, larger blocks in a list of blocks
+# whose second word is their size, new blocks are taken from sbrk up to the stack limit
+
+# malloc a0 (changes t0 to t5, a0, v0, v1)
+oak_malloc:
+	bltz $a0, oak_malloc_negative
+	addiu $t0, $a0, 7
+	beq $a0, $zero, oak_malloc_empty
+	srl $t0, $t0, 3
+	sll $t0, $t0, 3
+	la $t2, oak_small_free
+	sltiu $t1, $t0, 1025
+	beq $t1, $zero, oak_malloc_large
+	srl $t3, $t0, 1
+	addu $t2, $t2, $t3
+	lw $t4, 0($t2)
+	nop
+	beq $t4, $zero, oak_malloc_fresh
+	nop
+	lw $t5, 0($t4)
+	j oak_malloc_clear
+	sw $t5, 0($t2)
+oak_malloc_large:
+	la $t2, oak_large_free
+oak_malloc_next:
+	lw $t4, 0($t2)
+	nop
+	beq $t4, $zero, oak_malloc_fresh
+	nop
+	lw $t5, 4($t4)
+	nop
+	beq $t5, $t0, oak_malloc_take
+	nop
+	j oak_malloc_next
+	move $t2, $t4
+oak_malloc_take:
+	lw $t5, 0($t4)
+	nop
+	sw $t5, 0($t2)
+oak_malloc_clear:
+	addu $t1, $t4, $t0
+	move $t2, $t4
+oak_malloc_clear_loop:
+	addiu $t2, $t2, 4
+	bne $t2, $t1, oak_malloc_clear_loop
+	sw $zero, -4($t2)
+	move $v0, $t4
+	addu $v1, $t4, $a0
+	jr $ra
+	addiu $v1, $v1, -1
+oak_malloc_fresh:
+	move $t5, $a0
+	move $a0, $t0
+	ori $v0, $zero, 9
+	syscall
+	lw $t1, 0($gp)
+	addu $t2, $v0, $t0
+	sltu $t1, $t1, $t2
+	bne $t1, $zero, oak_out_of_memory
+	addu $v1, $v0, $t5
+	jr $ra
+	addiu $v1, $v1, -1
+oak_malloc_empty:
+	move $v0, $zero
+	jr $ra
+	addiu $v1, $zero, -1
+oak_malloc_negative:
+	move $a2, $a0
+	ori $a0, $zero, 7
+	j oak_fail
+	move $a1, $t9
+oak_out_of_memory:
+	ori $a0, $zero, 8
+	j oak_fail
+	move $a1, $t9
+
+# free a0 a1, memory outside of the heap (strings, stack allocations) and unaligned blocks are ignored
+oak_free:
+	subu $t0, $a1, $a0
+	addiu $t0, $t0, 1
+	bltz $t0, oak_invalid_pointer
+	addiu $t0, $t0, 7
+	srl $t0, $t0, 3
+	beq $t0, $zero, oak_return
+	sll $t0, $t0, 3
+	andi $t1, $a0, 7
+	bne $t1, $zero, oak_return
+	lw $t1, 0($gp)
+	sltu $t1, $a0, $t1
+	beq $t1, $zero, oak_return
+	nop
+	la $t2, oak_heap_start
+	lw $t2, 0($t2)
+	sltu $t1, $a0, $t2
+	bne $t1, $zero, oak_return
+	sltiu $t1, $t0, 1025
+	beq $t1, $zero, oak_free_large
+	srl $t3, $t0, 1
+	la $t2, oak_small_free
+	addu $t2, $t2, $t3
+	lw $t4, 0($t2)
+	sw $a0, 0($t2)
+	jr $ra
+	sw $t4, 0($a0)
+oak_free_large:
+	la $t2, oak_large_free
+	lw $t4, 0($t2)
+	sw $t0, 4($a0)
+	sw $a0, 0($t2)
+	jr $ra
+	sw $t4, 0($a0)
+oak_return:
+	jr $ra
+	move $v0, $zero
+oak_invalid_pointer:
+	ori $a0, $zero, 1
+	j oak_fail
+	move $a1, $t9
+
+# copy t2 bytes from t1 to t0, the areas may overlap (changes t0 to t4)
+oak_memmove:
+	beq $t2, $zero, oak_memmove_end
+	sltu $t3, $t1, $t0
+	bne $t3, $zero, oak_memmove_backwards
+	addu $t3, $t0, $t2
+oak_memmove_forwards:
+	lbu $t4, 0($t1)
+	addiu $t1, $t1, 1
+	addiu $t0, $t0, 1
+	bne $t0, $t3, oak_memmove_forwards
+	sb $t4, -1($t0)
+oak_memmove_end:
+	jr $ra
+	nop
+oak_memmove_backwards:
+	addu $t1, $t1, $t2
+oak_memmove_backwards_loop:
+	addiu $t1, $t1, -1
+	lbu $t4, 0($t1)
+	addiu $t3, $t3, -1
+	bne $t3, $t0, oak_memmove_backwards_loop
+	sb $t4, 0($t3)
+	jr $ra
+	nop
+
+oak_clone_mem:
+	subu $t7, $a1, $a0
+	addiu $t7, $t7, 1
+	bltz $t7, oak_invalid_pointer
+	move $t8, $ra
+	move $t6, $a0
+	jal oak_malloc
+	move $a0, $t7
+	move $t0, $v0
+	move $t1, $t6
+	jal oak_memmove
+	move $t2, $t7
+	jr $t8
+	nop
+
+# copy_mem a0 a1 (source) a2 a3 (destination)
+oak_copy_mem:
+	subu $t7, $a1, $a0
+	addiu $t7, $t7, 1
+	bltz $t7, oak_invalid_pointer
+	subu $t6, $a3, $a2
+	addiu $t6, $t6, 1
+	bltz $t6, oak_invalid_pointer
+	slt $t5, $t6, $t7
+	bne $t5, $zero, oak_copy_too_small
+	move $t0, $a2
+	move $t1, $a0
+	j oak_memmove
+	move $t2, $t7
+oak_copy_too_small:
+	ori $a0, $zero, 9
+	j oak_fail
+	move $a1, $t9
+
+oak_append_pointer:
+oak_append_string:
+	subu $t7, $a1, $a0
+	addiu $t7, $t7, 1
+	bltz $t7, oak_invalid_pointer
+	subu $a3, $a3, $a2
+	addiu $a3, $a3, 1
+	bltz $a3, oak_invalid_pointer
+	move $t8, $ra
+	move $t6, $a0
+	jal oak_malloc
+	addu $a0, $t7, $a3
+	move $t0, $v0
+	move $t1, $t6
+	jal oak_memmove
+	move $t2, $t7
+	addu $t0, $v0, $t7
+	move $t1, $a2
+	jal oak_memmove
+	move $t2, $a3
+	jr $t8
+	nop
+
+oak_equal_string:
+	subu $t0, $a1, $a0
+	addiu $t0, $t0, 1
+	bltz $t0, oak_invalid_pointer
+	subu $t1, $a3, $a2
+	addiu $t1, $t1, 1
+	bltz $t1, oak_invalid_pointer
+	nop
+	bne $t0, $t1, oak_return
+	nop
+	beq $a0, $a2, oak_equal_true
+	addu $t1, $a0, $t0
+oak_equal_loop:
+	beq $a0, $t1, oak_equal_true
+	nop
+	lbu $t2, 0($a0)
+	lbu $t3, 0($a2)
+	addiu $a0, $a0, 1
+	beq $t2, $t3, oak_equal_loop
+	addiu $a2, $a2, 1
+	jr $ra
+	move $v0, $zero
+oak_equal_true:
+	jr $ra
+	ori $v0, $zero, 1
+
+# numbers
+
+oak_to_int_float:
+	sll $t0, $a0, 1
+	lui $t1, 0xff00
+	sltu $t2, $t1, $t0
+	bne $t2, $zero, oak_return
+	lui $t1, 0x9e00
+	sltu $t2, $t0, $t1
+	beq $t2, $zero, oak_saturate
+	mtc1 $a0, $f0
+	trunc.w.s $f0, $f0
+	jr $ra
+	mfc1 $v0, $f0
+oak_saturate:
+	bltz $a0, oak_saturate_end
+	lui $v0, 0x8000
+	addiu $v0, $v0, -1
+oak_saturate_end:
+	jr $ra
+	nop
+
+oak_round:
+	sll $t0, $a0, 1
+	lui $t1, 0xff00
+	sltu $t2, $t1, $t0
+	bne $t2, $zero, oak_fail_nan
+	ori $t3, $zero, 10
+	lui $t1, 0x9e00
+	sltu $t2, $t0, $t1
+	beq $t2, $zero, oak_saturate
+	mtc1 $a0, $f0
+	cvt.d.s $f0, $f0
+	ori $t0, $zero, 1
+	mtc1 $t0, $f2
+	cvt.d.w $f2, $f2
+	ori $t0, $zero, 2
+	mtc1 $t0, $f4
+	cvt.d.w $f4, $f4
+	div.d $f2, $f2, $f4
+	add.d $f0, $f0, $f2
+	floor.w.d $f0, $f0
+	jr $ra
+	mfc1 $v0, $f0
+
+oak_floor:
+	sll $t0, $a0, 1
+	lui $t1, 0xff00
+	sltu $t2, $t1, $t0
+	bne $t2, $zero, oak_fail_nan
+	ori $t3, $zero, 11
+	lui $t1, 0x9e00
+	sltu $t2, $t0, $t1
+	beq $t2, $zero, oak_saturate
+	mtc1 $a0, $f0
+	floor.w.s $f0, $f0
+	jr $ra
+	mfc1 $v0, $f0
+oak_fail_nan:
+	move $a0, $t3
+	j oak_fail
+	move $a1, $t9
+
+# strings
+
+# allocate the t7 bytes at t6 and return to t8
+oak_allocate_text:
+	jal oak_malloc
+	move $a0, $t7
+	move $t0, $v0
+	move $t1, $t6
+	jal oak_memmove
+	move $t2, $t7
+	jr $t8
+	nop
+
+# format the int a1 at the end of oak_text_buffer, t3 is its first character (changes t0 to t3)
+oak_format_int:
+	la $t3, oak_text_end
+	move $t0, $a1
+	bgez $a1, oak_format_digits
+	ori $t2, $zero, 10
+	subu $t0, $zero, $a1
+oak_format_digits:
+	divu $t0, $t2
+	mflo $t0
+	mfhi $t1
+	addiu $t1, $t1, 48
+	addiu $t3, $t3, -1
+	bne $t0, $zero, oak_format_digits
+	sb $t1, 0($t3)
+	bgez $a1, oak_format_end
+	ori $t1, $zero, 45
+	addiu $t3, $t3, -1
+	sb $t1, 0($t3)
+oak_format_end:
+	jr $ra
+	nop
+
+oak_to_string_byte:
+oak_to_string_int:
+	move $t8, $ra
+	jal oak_format_int
+	move $a1, $a0
+	move $t6, $t3
+	la $t7, oak_text_end
+	j oak_allocate_text
+	subu $t7, $t7, $t3
+
+# append the character a3 to the text t6 of length t7 (changes t0)
+oak_put:
+	addu $t0, $t6, $t7
+	sb $a3, 0($t0)
+	jr $ra
+	addiu $t7, $t7, 1
+
+# Format a float like OakRuntime.formatFloat: the shortest digits (up to 9, computed with doubles) that
+# identify the float, in decimal notation if the magnitude is in [10^-3, 10^7), else in computerized
+# scientific notation.
+oak_to_string_float:
+	move $t8, $ra
+	la $t6, oak_text_buffer
+	move $t7, $zero
+	sll $t0, $a0, 1
+	lui $t1, 0xff00
+	sltu $t2, $t1, $t0
+	bne $t2, $zero, oak_float_nan
+	nop
+	bgez $a0, oak_float_positive
+	nop
+	jal oak_put
+	ori $a3, $zero, 45
+oak_float_positive:
+	sll $t0, $a0, 1
+	lui $t1, 0xff00
+	beq $t0, $t1, oak_float_infinity
+	nop
+	beq $t0, $zero, oak_float_zero
+	nop
+	mtc1 $a0, $f0
+	abs.s $f0, $f0
+	cvt.d.s $f2, $f0
+	ori $t0, $zero, 10
+	mtc1 $t0, $f4
+	cvt.d.w $f4, $f4
+	ori $t0, $zero, 1
+	mtc1 $t0, $f6
+	cvt.d.w $f6, $f6
+	mov.d $f8, $f2
+	move $t2, $zero
+# decimal exponent e (t2) of the magnitude
+oak_float_down:
+	c.le.d $f4, $f8
+	bc1f oak_float_up
+	nop
+	div.d $f8, $f8, $f4
+	j oak_float_down
+	addiu $t2, $t2, 1
+oak_float_up:
+	c.lt.d $f8, $f6
+	bc1f oak_float_precision
+	nop
+	mul.d $f8, $f8, $f4
+	j oak_float_up
+	addiu $t2, $t2, -1
+# digits n (t0) for the precisions p (t3) 1 to 9, until they identify the float
+oak_float_precision:
+	ori $t3, $zero, 1
+oak_float_try:
+	subu $t4, $t2, $t3
+	addiu $t4, $t4, 1
+	mov.d $f10, $f6
+	bgez $t4, oak_float_power
+	move $t5, $t4
+	subu $t5, $zero, $t4
+oak_float_power:
+	beq $t5, $zero, oak_float_scaled
+	nop
+	mul.d $f10, $f10, $f4
+	j oak_float_power
+	addiu $t5, $t5, -1
+oak_float_scaled:
+	bltz $t4, oak_float_negative_scale
+	nop
+	div.d $f12, $f2, $f10
+	round.w.d $f12, $f12
+	mfc1 $t0, $f12
+	cvt.d.w $f14, $f12
+	j oak_float_check
+	mul.d $f14, $f14, $f10
+oak_float_negative_scale:
+	mul.d $f12, $f2, $f10
+	round.w.d $f12, $f12
+	mfc1 $t0, $f12
+	cvt.d.w $f14, $f12
+	div.d $f14, $f14, $f10
+oak_float_check:
+	cvt.s.d $f14, $f14
+	c.eq.s $f14, $f0
+	bc1t oak_float_found
+	nop
+	sltiu $t1, $t3, 9
+	beq $t1, $zero, oak_float_found
+	nop
+	j oak_float_try
+	addiu $t3, $t3, 1
+# the digits (a2 of them at t5) without trailing zeros, the exponent is corrected by the count
+oak_float_found:
+	la $t5, oak_digits_end
+	ori $t1, $zero, 10
+oak_float_digit:
+	divu $t0, $t1
+	mflo $t0
+	mfhi $a1
+	addiu $a1, $a1, 48
+	addiu $t5, $t5, -1
+	bne $t0, $zero, oak_float_digit
+	sb $a1, 0($t5)
+	la $a2, oak_digits_end
+	subu $a2, $a2, $t5
+	subu $t1, $a2, $t3
+	addu $t2, $t2, $t1
+oak_float_strip:
+	addu $t0, $t5, $a2
+	lbu $t0, -1($t0)
+	ori $t1, $zero, 48
+	bne $t0, $t1, oak_float_format
+	sltiu $t1, $a2, 2
+	bne $t1, $zero, oak_float_format
+	nop
+	j oak_float_strip
+	addiu $a2, $a2, -1
+oak_float_format:
+	lui $t0, 0x3a83
+	ori $t0, $t0, 0x126f
+	mtc1 $t0, $f12
+	c.lt.s $f0, $f12
+	bc1t oak_float_scientific
+	nop
+	lui $t0, 0x4b18
+	ori $t0, $t0, 0x9680
+	mtc1 $t0, $f12
+	c.lt.s $f0, $f12
+	bc1f oak_float_scientific
+	nop
+	bltz $t2, oak_float_small
+	move $t1, $zero
+oak_float_integer:
+	slt $t0, $t1, $a2
+	ori $a3, $zero, 48
+	beq $t0, $zero, oak_float_integer_put
+	addu $t0, $t5, $t1
+	lbu $a3, 0($t0)
+oak_float_integer_put:
+	jal oak_put
+	nop
+	bne $t1, $t2, oak_float_integer
+	addiu $t1, $t1, 1
+	jal oak_put
+	ori $a3, $zero, 46
+	slt $t0, $t1, $a2
+	bne $t0, $zero, oak_float_fraction
+	nop
+	jal oak_put
+	ori $a3, $zero, 48
+	j oak_allocate_text
+	nop
+oak_float_fraction:
+	addu $t0, $t5, $t1
+	lbu $a3, 0($t0)
+	jal oak_put
+	addiu $t1, $t1, 1
+	bne $t1, $a2, oak_float_fraction
+	nop
+	j oak_allocate_text
+	nop
+oak_float_small:
+	jal oak_put
+	ori $a3, $zero, 48
+	jal oak_put
+	ori $a3, $zero, 46
+	addiu $t1, $zero, -1
+oak_float_zeros:
+	bne $t1, $t2, oak_float_zero_digit
+	nop
+	j oak_float_fraction
+	move $t1, $zero
+oak_float_zero_digit:
+	jal oak_put
+	ori $a3, $zero, 48
+	j oak_float_zeros
+	addiu $t1, $t1, -1
+oak_float_scientific:
+	lbu $a3, 0($t5)
+	jal oak_put
+	nop
+	jal oak_put
+	ori $a3, $zero, 46
+	ori $t1, $zero, 1
+	bne $a2, $t1, oak_float_mantissa
+	nop
+	jal oak_put
+	ori $a3, $zero, 48
+	j oak_float_exponent
+	nop
+oak_float_mantissa:
+	addu $t0, $t5, $t1
+	lbu $a3, 0($t0)
+	jal oak_put
+	addiu $t1, $t1, 1
+	bne $t1, $a2, oak_float_mantissa
+	nop
+oak_float_exponent:
+	jal oak_put
+	ori $a3, $zero, 69
+	bgez $t2, oak_float_exponent_digits
+	nop
+	jal oak_put
+	ori $a3, $zero, 45
+	subu $t2, $zero, $t2
+oak_float_exponent_digits:
+	ori $t1, $zero, 10
+	slt $t0, $t2, $t1
+	bne $t0, $zero, oak_float_last_digit
+	nop
+	div $t2, $t1
+	mflo $a3
+	mfhi $t2
+	jal oak_put
+	addiu $a3, $a3, 48
+oak_float_last_digit:
+	jal oak_put
+	addiu $a3, $t2, 48
+	j oak_allocate_text
+	nop
+oak_float_nan:
+	la $a1, oak_nan_text
+	j oak_float_copy
+	nop
+oak_float_infinity:
+	la $a1, oak_infinity_text
+	j oak_float_copy
+	nop
+oak_float_zero:
+	la $a1, oak_zero_text
+# append the zero terminated text a1 and allocate the result
+oak_float_copy:
+	lbu $t0, 0($a1)
+	addiu $a1, $a1, 1
+	beq $t0, $zero, oak_allocate_text
+	addu $t1, $t6, $t7
+	sb $t0, 0($t1)
+	j oak_float_copy
+	addiu $t7, $t7, 1
+
+# streams and control
+
+oak_print:
+	ori $t0, $zero, 1
+# write a0 a1 to the file t0
+oak_write:
+	subu $a2, $a1, $a0
+	addiu $a2, $a2, 1
+	bltz $a2, oak_invalid_pointer
+	move $a1, $a0
+	move $a0, $t0
+	ori $v0, $zero, 15
+	syscall
+	jr $ra
+	nop
+oak_print_err:
+	j oak_write
+	ori $t0, $zero, 2
+
+oak_read_byte:
+	move $a0, $zero
+	la $a1, oak_byte_buffer
+	ori $a2, $zero, 1
+	ori $v0, $zero, 14
+	syscall
+	blez $v0, oak_read_end
+	nop
+	jr $ra
+	lb $v0, 0($a1)
+oak_read_end:
+	jr $ra
+	addiu $v0, $zero, -1
+
+# read a line (without the line break), lines are read in parts of at most 4096 bytes
+oak_read_string:
+	move $t8, $ra
+	la $t6, oak_line_buffer
+	move $t7, $zero
+oak_read_string_loop:
+	move $a0, $zero
+	addu $a1, $t6, $t7
+	ori $a2, $zero, 1
+	ori $v0, $zero, 14
+	syscall
+	blez $v0, oak_allocate_text
+	lbu $t0, 0($a1)
+	ori $t1, $zero, 10
+	beq $t0, $t1, oak_allocate_text
+	nop
+	addiu $t7, $t7, 1
+	sltiu $t0, $t7, 4096
+	bne $t0, $zero, oak_read_string_loop
+	nop
+	j oak_allocate_text
+	nop
+
+oak_exit:
+	ori $v0, $zero, 17
+	syscall
+
+# errors
+
+oak_stack_overflow:
+	ori $a0, $zero, 3
+	j oak_fail
+	move $a1, $zero
+
+# write the zero terminated text a1 to stderr (changes t0, a0 to a2, v0)
+oak_write_text:
+	move $a2, $zero
+oak_write_text_length:
+	addu $t0, $a1, $a2
+	lbu $t0, 0($t0)
+	bne $t0, $zero, oak_write_text_length
+	addiu $a2, $a2, 1
+	addiu $a2, $a2, -1
+	ori $a0, $zero, 2
+	ori $v0, $zero, 15
+	syscall
+	jr $ra
+	nop
+
+# write the int a1 to stderr (changes t0 to t3, a0 to a2, v0)
+oak_write_int:
+	move $t8, $ra
+	jal oak_format_int
+	nop
+	la $a2, oak_text_end
+	subu $a2, $a2, $t3
+	move $a1, $t3
+	ori $a0, $zero, 2
+	ori $v0, $zero, 15
+	syscall
+	jr $t8
+	nop
+
+# report the error a0 (see oak_fail_table) in the line a1 (none if 0) with the argument a2 (a3) and exit
+oak_fail:
+	move $t6, $a0
+	move $t7, $a1
+	move $t4, $a2
+	blez $t7, oak_fail_message
+	move $t5, $a3
+	la $a1, oak_error_line
+	jal oak_write_text
+	nop
+	jal oak_write_int
+	move $a1, $t7
+	la $a1, oak_error_colon
+	jal oak_write_text
+	nop
+oak_fail_message:
+	la $t0, oak_fail_table
+	sll $t1, $t6, 2
+	sll $t2, $t6, 3
+	addu $t1, $t1, $t2
+	addu $t9, $t0, $t1
+	lw $a1, 0($t9)
+	jal oak_write_text
+	nop
+	lw $t0, 4($t9)
+	ori $t1, $zero, 1
+	beq $t0, $zero, oak_fail_suffix
+	nop
+	bne $t0, $t1, oak_fail_string
+	nop
+	jal oak_write_int
+	move $a1, $t4
+	j oak_fail_suffix
+	nop
+oak_fail_string:
+	subu $a2, $t5, $t4
+	addiu $a2, $a2, 1
+	bltz $a2, oak_fail_suffix
+	move $a1, $t4
+	ori $a0, $zero, 2
+	ori $v0, $zero, 15
+	syscall
+oak_fail_suffix:
+	lw $a1, 8($t9)
+	jal oak_write_text
+	nop
+	la $a1, oak_newline
+	jal oak_write_text
+	nop
+	ori $a0, $zero, 1
+	ori $v0, $zero, 17
+	syscall
+
+	.data
+	.align 2
+oak_heap_start:
+	.word 0
+oak_large_free:
+	.word 0
+oak_small_free:
+	.space 516
+# prefix, argument (0: none, 1: int, 2: string) and suffix of each error
+oak_fail_table:
+	.word oak_message_offset, 1, oak_message_offset_end
+	.word oak_message_invalid, 0, oak_empty
+	.word oak_message_byte, 1, oak_message_byte_end
+	.word oak_message_stack, 0, oak_empty
+	.word oak_message_division, 0, oak_empty
+	.word oak_message_assertion, 0, oak_empty
+	.word oak_message_assertion_colon, 2, oak_empty
+	.word oak_message_negative, 1, oak_empty
+	.word oak_message_memory, 0, oak_empty
+	.word oak_message_copy, 0, oak_empty
+	.word oak_message_round, 0, oak_empty
+	.word oak_message_floor, 0, oak_empty
+	.word oak_message_small, 0, oak_type_bool
+	.word oak_message_small, 0, oak_type_byte
+	.word oak_message_small, 0, oak_type_int
+	.word oak_message_small, 0, oak_type_float
+	.word oak_message_small, 0, oak_type_pointer
+	.word oak_message_small, 0, oak_type_string
+oak_byte_buffer:
+	.space 4
+oak_text_buffer:
+	.space 64
+oak_text_end:
+oak_digits:
+	.space 16
+oak_digits_end:
+oak_line_buffer:
+	.space 4096
+oak_empty:
+	.byte 0
+oak_newline:
+	.byte 10, 0
+oak_nan_text:
+	.asciiz "NaN"
+oak_infinity_text:
+	.asciiz "Infinity"
+oak_zero_text:
+	.asciiz "0.0"
+oak_error_line:
+	.asciiz "Error at line "
+oak_error_colon:
+	.asciiz ": "
+oak_message_offset:
+	.asciiz "Pointer offset "
+oak_message_offset_end:
+	.asciiz " out of range"
+oak_message_invalid:
+	.asciiz "Invalid pointer"
+oak_message_byte:
+	.asciiz "Int "
+oak_message_byte_end:
+	.asciiz " too large for a byte"
+oak_message_stack:
+	.asciiz "Stack overflow"
+oak_message_division:
+	.asciiz "Division by zero"
+oak_message_assertion:
+	.asciiz "Assertion failed"
+oak_message_assertion_colon:
+	.asciiz "Assertion failed: "
+oak_message_negative:
+	.asciiz "Negative allocation size "
+oak_message_memory:
+	.asciiz "Out of memory"
+oak_message_copy:
+	.asciiz "Destination of copy_mem is too small"
+oak_message_round:
+	.asciiz "Can't round NaN"
+oak_message_floor:
+	.asciiz "Can't floor NaN"
+oak_message_small:
+	.asciiz "Memory area too small to access a "
+oak_type_bool:
+	.asciiz "bool"
+oak_type_byte:
+	.asciiz "byte"
+oak_type_int:
+	.asciiz "int"
+oak_type_float:
+	.asciiz "float"
+oak_type_pointer:
+	.asciiz "pointer"
+oak_type_string:
+	.asciiz "string"
@@ -0,0 +1,476 @@
+/*
+ * Runtime of the programs compiled by the x86-64 back end (see X86Compiler): the heap, the standard
+ * streams and the built in functions that the generated code calls.
+ *
+ * Values are encoded like in the Java runtime (see OakRuntime and Pointers): floats are passed as their
+ * bits, pointers contain the begin and the end offset of their memory area. The offsets are relative to
+ * oak_heap, a reserved area whose lower part is managed by the allocator and whose upper part is the
+ * stack area for the allocations flagged with STACK. Runtime errors are reported like by the Java engines
+ * ("Error at line N: message" on stderr) and end the program with the exit code 1.
+ */
+#include <math.h>
+#include <stdarg.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <sys/mman.h>
+#include <sys/resource.h>
+
+#define HEAP_SIZE 0x80000000L
+#define STACK_AREA 0x70000000L
+#define SMALL_LIMIT 4096
+#define STACK_RESERVE (256 * 1024)
+
+#define FAIL_OFFSET 1
+#define FAIL_TOO_SMALL 2
+#define FAIL_INVALID_POINTER 3
+#define FAIL_BYTE 4
+#define FAIL_STACK_OVERFLOW 5
+
+extern long oak_entry(void);
+extern long oak_string_table[];
+extern long oak_string_count;
+extern long oak_strings[];
+
+char *oak_heap;
+char *oak_stack_limit;
+long oak_stack_top = STACK_AREA;
+long oak_stack_end = HEAP_SIZE;
+
+static const char *type_names[] = {"bool", "byte", "int", "float", "pointer", "string"};
+
+/* first free block of each small size (in units of 8 bytes), its first int links to the next one */
+static int small_free[SMALL_LIMIT / 8 + 1];
+/* first free large block, it starts with the link to the next one and its size */
+static int large_free;
+static long heap_top = 16;
+
+/* pointers */
+
+static long create(int begin, int end) {
+	return ((long) begin << 32) | (unsigned int) end;
+}
+
+static int begin(long pointer) {
+	return (int) (pointer >> 32);
+}
+
+static int size(long pointer) {
+	return (int) ((unsigned int) pointer - (unsigned int) begin(pointer) + 1u);
+}
+
+/* errors */
+
+static void fail(long line, const char *format, ...) __attribute__((noreturn, format(printf, 2, 3)));
+
+static void fail(long line, const char *format, ...) {
+	va_list arguments;
+	fflush(stdout);
+	if (line > 0) {
+		fprintf(stderr, "Error at line %ld: ", line);
+	}
+	va_start(arguments, format);
+	vfprintf(stderr, format, arguments);
+	va_end(arguments);
+	fputc('\n', stderr);
+	exit(1);
+}
+
+void oak_fail(long kind, long line, long value) {
+	switch (kind) {
+		case FAIL_OFFSET:
+			fail(line, "Pointer offset %d out of range", (int) value);
+		case FAIL_TOO_SMALL:
+			fail(line, "Memory area too small to access a %s", type_names[value]);
+		case FAIL_INVALID_POINTER:
+			fail(line, "Invalid pointer");
+		case FAIL_BYTE:
+			fail(line, "Int %d too large for a byte", (int) value);
+		default:
+			fail(line, "Stack overflow");
+	}
+}
+
+static void check_valid(long pointer, long line) {
+	if (size(pointer) < 0) {
+		fail(line, "Invalid pointer");
+	}
+}
+
+/* heap */
+
+static int *link_of(int block) {
+	return (int *) (oak_heap + block);
+}
+
+long oak_malloc(long requested, long unused, long line) {
+	int length = (int) requested;
+	long rounded = ((long) length + 7) & ~7L;
+	int block = 0;
+	if (length < 0) {
+		fail(line, "Negative allocation size %d", length);
+	}
+	if (length == 0) {
+		return create(0, -1);
+	}
+	if (rounded <= SMALL_LIMIT && small_free[rounded / 8] != 0) {
+		block = small_free[rounded / 8];
+		small_free[rounded / 8] = link_of(block)[0];
+	} else if (rounded > SMALL_LIMIT) {
+		int previous = 0;
+		for (int current = large_free; current != 0; previous = current, current = link_of(current)[0]) {
+			int available = link_of(current)[1];
+			if (available >= rounded) {
+				int rest = available - (int) rounded;
+				int next = link_of(current)[0];
+				if (rest > 0) {
+					int remainder = current + (int) rounded;
+					if (rest <= SMALL_LIMIT) {
+						link_of(remainder)[0] = small_free[rest / 8];
+						small_free[rest / 8] = remainder;
+					} else {
+						link_of(remainder)[0] = next;
+						link_of(remainder)[1] = rest;
+						next = remainder;
+					}
+				}
+				if (previous == 0) {
+					large_free = next;
+				} else {
+					link_of(previous)[0] = next;
+				}
+				block = current;
+				break;
+			}
+		}
+	}
+	if (block != 0) {
+		memset(oak_heap + block, 0, rounded);
+	} else {
+		if (heap_top + rounded > STACK_AREA) {
+			fail(line, "Out of memory");
+		}
+		block = (int) heap_top;
+		heap_top += rounded;
+	}
+	return create(block, block + length - 1);
+}
+
+long oak_free(long pointer, long unused, long line) {
+	int block = begin(pointer);
+	int rounded = (size(pointer) + 7) & ~7;
+	check_valid(pointer, line);
+	if (rounded == 0 || block >= STACK_AREA) {
+		return 0;
+	}
+	if (rounded <= SMALL_LIMIT) {
+		link_of(block)[0] = small_free[rounded / 8];
+		small_free[rounded / 8] = block;
+	} else {
+		link_of(block)[0] = large_free;
+		link_of(block)[1] = rounded;
+		large_free = block;
+	}
+	return 0;
+}
+
+static long allocate_bytes(const char *bytes, int length, long line) {
+	long pointer = oak_malloc(length, 0, line);
+	memcpy(oak_heap + begin(pointer), bytes, length);
+	return pointer;
+}
+
+long oak_clone_mem(long pointer, long unused, long line) {
+	check_valid(pointer, line);
+	return allocate_bytes(oak_heap + begin(pointer), size(pointer), line);
+}
+
+long oak_copy_mem(long source, long destination, long line) {
+	check_valid(source, line);
+	check_valid(destination, line);
+	if (size(destination) < size(source)) {
+		fail(line, "Destination of copy_mem is too small");
+	}
+	memmove(oak_heap + begin(destination), oak_heap + begin(source), size(source));
+	return 0;
+}
+
+long oak_append_pointer(long first, long second, long line) {
+	check_valid(first, line);
+	check_valid(second, line);
+	long result = oak_malloc((int) ((unsigned int) size(first) + (unsigned int) size(second)), 0, line);
+	memcpy(oak_heap + begin(result), oak_heap + begin(first), size(first));
+	memcpy(oak_heap + begin(result) + size(first), oak_heap + begin(second), size(second));
+	return result;
+}
+
+long oak_append_string(long first, long second, long line) {
+	return oak_append_pointer(first, second, line);
+}
+
+long oak_equal_string(long first, long second, long line) {
+	check_valid(first, line);
+	check_valid(second, line);
+	if (first == second) {
+		return 1;
+	}
+	return size(first) == size(second)
+			&& memcmp(oak_heap + begin(first), oak_heap + begin(second), size(first)) == 0;
+}
+
+/* numbers */
+
+static float to_float(long value) {
+	float result;
+	int bits = (int) value;
+	memcpy(&result, &bits, sizeof(result));
+	return result;
+}
+
+static long of_float(float value) {
+	int bits;
+	memcpy(&bits, &value, sizeof(bits));
+	return bits;
+}
+
+static long saturate(double value) {
+	if (value >= 2147483647.0) {
+		return 2147483647;
+	}
+	if (value <= -2147483648.0) {
+		return -2147483647 - 1;
+	}
+	return (int) value;
+}
+
+long oak_to_int_float(long value, long unused, long line) {
+	float f = to_float(value);
+	return isnan(f) ? 0 : saturate(f);
+}
+
+long oak_round(long value, long unused, long line) {
+	float f = to_float(value);
+	if (isnan(f)) {
+		fail(line, "Can't round NaN");
+	}
+	return saturate(floor((double) f + 0.5));
+}
+
+long oak_floor(long value, long unused, long line) {
+	float f = to_float(value);
+	if (isnan(f)) {
+		fail(line, "Can't floor NaN");
+	}
+	return saturate(floor(f));
+}
+
+long oak_div_int(long first, long second, long line) {
+	int a = (int) first;
+	int b = (int) second;
+	if (b == 0) {
+		fail(line, "Division by zero");
+	}
+	return b == -1 ? (int) (0u - (unsigned int) a) : a / b;
+}
+
+long oak_div_byte(long first, long second, long line) {
+	return (signed char) oak_div_int(first, second, line);
+}
+
+long oak_mod_int(long first, long second, long line) {
+	int a = (int) first;
+	int b = (int) second;
+	int result;
+	if (b == 0) {
+		fail(line, "Division by zero");
+	}
+	if (b == -1) {
+		return 0;
+	}
+	result = a % b;
+	if (result < 0) {
+		return b < 0 ? result - b : result + b;
+	}
+	return result;
+}
+
+long oak_mod_byte(long first, long second, long line) {
+	return (signed char) oak_mod_int(first, second, line);
+}
+
+long oak_div_float(long first, long second, long line) {
+	if (to_float(second) == 0) {
+		fail(line, "Division by zero");
+	}
+	return of_float(to_float(first) / to_float(second));
+}
+
+/* strings */
+
+static long allocate_text(const char *text, long line) {
+	return allocate_bytes(text, (int) strlen(text), line);
+}
+
+long oak_to_string_int(long value, long unused, long line) {
+	char text[24];
+	snprintf(text, sizeof(text), "%ld", value);
+	return allocate_text(text, line);
+}
+
+long oak_to_string_byte(long value, long unused, long line) {
+	return oak_to_string_int(value, unused, line);
+}
+
+/*
+ * Format a float like OakRuntime.formatFloat: the shortest digits that identify the float, in decimal
+ * notation if the magnitude is in [10^-3, 10^7), else in computerized scientific notation.
+ */
+long oak_to_string_float(long value, long unused, long line) {
+	float f = to_float(value);
+	char scientific[32];
+	char digits[16];
+	char text[48];
+	int count = 0;
+	int exponent;
+	int length = 0;
+	if (isnan(f)) {
+		return allocate_text("NaN", line);
+	}
+	if (isinf(f)) {
+		return allocate_text(f > 0 ? "Infinity" : "-Infinity", line);
+	}
+	if (f == 0) {
+		return allocate_text(signbit(f) ? "-0.0" : "0.0", line);
+	}
+	for (int precision = 1; precision <= 9; precision++) {
+		snprintf(scientific, sizeof(scientific), "%.*e", precision - 1, (double) fabsf(f));
+		if (strtof(scientific, NULL) == fabsf(f)) {
+			break;
+		}
+	}
+	for (char *c = scientific; *c != 'e'; c++) {
+		if (*c != '.') {
+			digits[count++] = *c;
+		}
+	}
+	while (count > 1 && digits[count - 1] == '0') {
+		count--;
+	}
+	exponent = atoi(strchr(scientific, 'e') + 1);
+	if (f < 0) {
+		text[length++] = '-';
+	}
+	if (fabsf(f) >= 1e-3f && fabsf(f) < 1e7f) {
+		if (exponent >= 0) {
+			for (int i = 0; i <= exponent; i++) {
+				text[length++] = i < count ? digits[i] : '0';
+			}
+			text[length++] = '.';
+			if (count <= exponent + 1) {
+				text[length++] = '0';
+			}
+			for (int i = exponent + 1; i < count; i++) {
+				text[length++] = digits[i];
+			}
+		} else {
+			text[length++] = '0';
+			text[length++] = '.';
+			for (int i = -1; i > exponent; i--) {
+				text[length++] = '0';
+			}
+			for (int i = 0; i < count; i++) {
+				text[length++] = digits[i];
+			}
+		}
+		text[length] = '\0';
+	} else {
+		text[length++] = digits[0];
+		text[length++] = '.';
+		if (count == 1) {
+			text[length++] = '0';
+		}
+		for (int i = 1; i < count; i++) {
+			text[length++] = digits[i];
+		}
+		snprintf(text + length, sizeof(text) - length, "E%d", exponent);
+	}
+	return allocate_text(text, line);
+}
+
+/* streams and control */
+
+long oak_print(long string, long unused, long line) {
+	check_valid(string, line);
+	fwrite(oak_heap + begin(string), 1, size(string), stdout);
+	return 0;
+}
+
+long oak_print_err(long string, long unused, long line) {
+	check_valid(string, line);
+	fwrite(oak_heap + begin(string), 1, size(string), stderr);
+	return 0;
+}
+
+long oak_read_byte(long unused, long unused2, long line) {
+	return (signed char) getchar();
+}
+
+long oak_read_string(long unused, long unused2, long line) {
+	int capacity = 64;
+	int length = 0;
+	char *buffer = malloc(capacity);
+	long result;
+	for (int c = getchar(); c != EOF && c != '\n'; c = getchar()) {
+		if (length == capacity) {
+			capacity *= 2;
+			buffer = realloc(buffer, capacity);
+		}
+		buffer[length++] = (char) c;
+	}
+	result = allocate_bytes(buffer, length, line);
+	free(buffer);
+	return result;
+}
+
+long oak_exit(long code, long unused, long line) {
+	fflush(stdout);
+	exit((int) code);
+}
+
+long oak_assert(long condition, long unused, long line) {
+	if (!condition) {
+		fail(line, "Assertion failed");
+	}
+	return 0;
+}
+
+long oak_assert_message(long condition, long message, long line) {
+	if (!condition) {
+		check_valid(message, line);
+		fail(line, "Assertion failed: %.*s", size(message), oak_heap + begin(message));
+	}
+	return 0;
+}
+
+int main(void) {
+	static char output[1 << 16];
+	char marker;
+	struct rlimit limit;
+	long stack = 8L << 20;
+	long result;
+	oak_heap = mmap(NULL, HEAP_SIZE, PROT_READ | PROT_WRITE, MAP_PRIVATE | MAP_ANONYMOUS | MAP_NORESERVE, -1, 0);
+	if (oak_heap == MAP_FAILED) {
+		fail(0, "Out of memory");
+	}
+	if (getrlimit(RLIMIT_STACK, &limit) == 0 && limit.rlim_cur != RLIM_INFINITY) {
+		stack = (long) limit.rlim_cur;
+	}
+	oak_stack_limit = &marker - stack + STACK_RESERVE;
+	setvbuf(stdout, output, _IOFBF, sizeof(output));
+	for (long i = 0; i < oak_string_count; i++) {
+		oak_strings[i] = allocate_bytes((const char *) oak_string_table[2 * i], (int) oak_string_table[2 * i + 1], 0);
+	}
+	result = oak_entry();
+	fflush(stdout);
+	return (int) result;
+}
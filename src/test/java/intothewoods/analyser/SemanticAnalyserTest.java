@@ -0,0 +1,97 @@
+package intothewoods.analyser;
+
+import intothewoods.common.Builtin;
+import intothewoods.common.Type;
+import intothewoods.lexer.BasicLexer;
+import intothewoods.parser.ASTNode;
+import intothewoods.parser.BasicParser;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the SemanticAnalyser.
+ *
+ * It assumes that the BasicLexer and the BasicParser work correctly.
+ */
+public class SemanticAnalyserTest {
+
+	@Test
+	public void testGlobalsAndFunctions() throws Exception {
+		Program program = analyse("int a = 3\nint b = a\n" +
+				"_function int twice : int x\nadd x x\n_return ret_int\n_end\n" +
+				"_function void main\n_end");
+		assertEquals("Analysing globals failed", 2, program.getGlobals().size());
+		assertEquals("Analysing globals failed, type", Type.INT, program.getGlobals().get(1).getType());
+		assertEquals("Analysing functions failed", 2, program.getFunctions().size());
+		assertEquals("Finding main failed", "main", program.getMainFunction().getName());
+		Function twice = program.getFunctions().get(0);
+		assertEquals("Analysing function header failed", "int twice int", twice.toString());
+		assertNotNull("Creating ret_int failed", twice.getReturnVariable(Type.INT));
+		assertEquals("Analysing locals failed", 2, twice.getLocals().size());
+	}
+
+	@Test
+	public void testCallResolution() throws Exception {
+		Program program = analyse("_function void f : int x\n_end\n_function void f : float x\n_end\n" +
+				"_function void main\nf 1.0\nadd 1 2\nadd 1.0 2.0\n_end");
+		ASTNode body = program.getMainFunction().getBody();
+		assertEquals("Resolving overloaded function failed", Type.FLOAT,
+				program.getCalledFunction(body.getChild(0)).getParameterTypes().get(0));
+		assertEquals("Resolving builtin failed", Builtin.ADD_INT, program.getCalledBuiltin(body.getChild(1)));
+		assertEquals("Resolving builtin failed", Builtin.ADD_FLOAT, program.getCalledBuiltin(body.getChild(2)));
+		assertEquals("Resolving call target failed", Type.FLOAT, program.getTarget(body.getChild(2)).getType());
+	}
+
+	@Test
+	public void testScopes() throws Exception {
+		Program program = analyse("_function void main\nint a = 1\n_if true\nbool a = false\na = true\n_end\na = 2\n_end");
+		ASTNode body = program.getMainFunction().getBody();
+		ASTNode innerAssignment = body.getChild(1).getChild(1).getChild(1);
+		assertEquals("Hiding variable failed", Type.BOOL, program.getTarget(innerAssignment).getType());
+		assertEquals("Leaving scope failed", Type.INT, program.getTarget(body.getChild(2)).getType());
+	}
+
+	@Test
+	public void testGetRef() throws Exception {
+		Program program = analyse("_function void main\nint a = 1\nget_ref a\n_end");
+		assertTrue("Marking referenced variable failed", program.getMainFunction().getLocals().get(0).isReferenced());
+	}
+
+	@Test(expected = SemanticException.class)
+	public void testTypeMismatch() throws Exception {
+		analyse("_function void main\nint a = true\n_end");
+	}
+
+	@Test(expected = SemanticException.class)
+	public void testUnknownVariable() throws Exception {
+		analyse("_function void main\na = 3\n_end");
+	}
+
+	@Test(expected = SemanticException.class)
+	public void testUnknownFunction() throws Exception {
+		analyse("_function void main\nadd 1 true\n_end");
+	}
+
+	@Test(expected = SemanticException.class)
+	public void testMissingReturn() throws Exception {
+		analyse("_function int main\n_end");
+	}
+
+	@Test(expected = SemanticException.class)
+	public void testRedeclaration() throws Exception {
+		analyse("_function void main\nint a = 1\nint a = 2\n_end");
+	}
+
+	@Test(expected = SemanticException.class)
+	public void testByteLiteralOutOfRange() throws Exception {
+		analyse("byte a = 300b");
+	}
+
+	private Program analyse(String input) throws Exception {
+		BasicParser parser = new BasicParser(new BasicLexer(new ByteArrayInputStream(input.getBytes())));
+		return new SemanticAnalyser(parser.parseTokens()).analyse();
+	}
+}
@@ -0,0 +1,104 @@
+package intothewoods.backend;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that the AssemblyWriter writes the parts in order, independent of the number of threads.
+ */
+public class AssemblyWriterTest {
+
+	/**
+	 * Part with lines of a given length that takes some time to emit.
+	 */
+	private static class Lines implements AssemblyWriter.Part {
+
+		private final int index;
+		private final int lines;
+		private final int delay;
+
+		Lines(int index, int lines, int delay) {
+			this.index = index;
+			this.lines = lines;
+			this.delay = delay;
+		}
+
+		@Override
+		public void emit(StringBuilder output) {
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException ex) {
+				throw new IllegalStateException(ex);
+			}
+			for (int i = 0; i < lines; i++) {
+				output.append("part").append(index).append('\t').append(i).append('\n');
+			}
+		}
+	}
+
+	private static List<AssemblyWriter.Part> createParts(int count) {
+		Random random = new Random(42);
+		List<AssemblyWriter.Part> parts = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			// some parts are larger than the minimum capacity of the buffers
+			parts.add(new Lines(i, i % 17 == 0 ? 20000 : random.nextInt(50), random.nextInt(3)));
+		}
+		return parts;
+	}
+
+	private static String write(List<AssemblyWriter.Part> parts, int threads) throws IOException {
+		Path file = Files.createTempFile("oak", ".s");
+		try {
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE);
+			     AssemblyWriter writer = new AssemblyWriter(channel, threads)) {
+				for (AssemblyWriter.Part part : parts) {
+					writer.add(part);
+				}
+				writer.finish();
+				assertEquals(Files.size(file), writer.getWritten());
+			}
+			return new String(Files.readAllBytes(file), StandardCharsets.ISO_8859_1);
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void testOrder() throws IOException {
+		List<AssemblyWriter.Part> parts = createParts(200);
+		StringBuilder expected = new StringBuilder();
+		for (AssemblyWriter.Part part : parts) {
+			part.emit(expected);
+		}
+		assertEquals(expected.toString(), write(parts, 1));
+		assertEquals(expected.toString(), write(parts, 8));
+	}
+
+	@Test
+	public void testEmpty() throws IOException {
+		assertEquals("", write(new ArrayList<AssemblyWriter.Part>(), 2));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testFailingPart() throws IOException {
+		List<AssemblyWriter.Part> parts = createParts(10);
+		parts.add(5, new AssemblyWriter.Part() {
+			@Override
+			public void emit(StringBuilder output) {
+				throw new IllegalStateException("Unsupported instruction");
+			}
+		});
+		write(parts, 4);
+	}
+}
@@ -0,0 +1,82 @@
+package intothewoods.backend;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the sequentialization of parallel moves by simulating the emitted moves on an array of locations.
+ */
+public class ParallelMovesTest {
+
+	private static final int TEMPORARY = 9;
+
+	private static class Simulator implements ParallelMoves.Emitter {
+
+		private final int[] locations = new int[10];
+		private int count;
+
+		Simulator() {
+			for (int i = 0; i < locations.length; i++) {
+				locations[i] = i * 10;
+			}
+		}
+
+		@Override
+		public void move(int destination, int source) {
+			locations[destination] = locations[source];
+			count++;
+		}
+
+		@Override
+		public void load(int destination, int value) {
+			locations[destination] = -value;
+			count++;
+		}
+	}
+
+	private static Simulator emit(int[][] moves) {
+		ParallelMoves parallelMoves = new ParallelMoves();
+		for (int[] move : moves) {
+			parallelMoves.addMove(move[0], move[1]);
+		}
+		Simulator simulator = new Simulator();
+		parallelMoves.emit(simulator, TEMPORARY);
+		assertTrue(parallelMoves.isEmpty());
+		return simulator;
+	}
+
+	@Test
+	public void testChain() {
+		Simulator simulator = emit(new int[][]{{1, 0}, {2, 1}, {3, 2}});
+		assertEquals("[0, 0, 10, 20]", Arrays.toString(Arrays.copyOf(simulator.locations, 4)));
+		assertEquals(3, simulator.count);
+	}
+
+	@Test
+	public void testSwap() {
+		Simulator simulator = emit(new int[][]{{0, 1}, {1, 0}});
+		assertEquals(10, simulator.locations[0]);
+		assertEquals(0, simulator.locations[1]);
+		assertEquals(3, simulator.count);
+	}
+
+	@Test
+	public void testCycleWithBranch() {
+		Simulator simulator = emit(new int[][]{{0, 1}, {1, 2}, {2, 0}, {3, 0}, {4, 4}});
+		assertEquals("[10, 20, 0, 0, 40]", Arrays.toString(Arrays.copyOf(simulator.locations, 5)));
+	}
+
+	@Test
+	public void testLoadsAfterMoves() {
+		ParallelMoves moves = new ParallelMoves();
+		moves.addLoad(0, 5);
+		moves.addMove(1, 0);
+		Simulator simulator = new Simulator();
+		moves.emit(simulator, TEMPORARY);
+		assertEquals(-5, simulator.locations[0]);
+		assertEquals(0, simulator.locations[1]);
+	}
+}
@@ -0,0 +1,82 @@
+package intothewoods.batch;
+
+import intothewoods.analyser.SemanticAnalyser;
+import intothewoods.lexer.BasicLexer;
+import intothewoods.parser.BasicParser;
+import intothewoods.vm.Bytecode;
+import intothewoods.vm.BytecodeCompiler;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the concurrent and isolated runs of the BatchRunner.
+ */
+public class BatchRunnerTest {
+
+	private final BatchRunner runner = new BatchRunner(4);
+
+	@After
+	public void close() {
+		runner.close();
+	}
+
+	private Bytecode compile(String source) throws Exception {
+		return new BytecodeCompiler(new SemanticAnalyser(new BasicParser(new BasicLexer(
+				new ByteArrayInputStream(source.getBytes()))).parseTokens()).analyse()).compile();
+	}
+
+	@Test
+	public void testIsolatedRuns() throws Exception {
+		Bytecode bytecode = compile("string line = \"\"\n" +
+				"_function void main\nread_string\nappend line ret_string\nline = ret_string\n" +
+				"print line\n_end");
+		List<String> inputs = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			inputs.add("run " + i + "\n");
+		}
+		List<RunResult> results = runner.runAll(bytecode, inputs, BatchRunner.DEFAULT_TIMEOUT_MILLIS,
+				BatchRunner.DEFAULT_MEMORY_LIMIT);
+		for (int i = 0; i < inputs.size(); i++) {
+			assertTrue(results.get(i).toString(), results.get(i).isSuccessful());
+			assertEquals("Runs aren't isolated", "run " + i, results.get(i).getOutput());
+		}
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		Bytecode endless = compile("_function void main\n_while true\n_end\n_end");
+		Bytecode recursive = compile("_function void f\nprint \"\"\nf\n_end\n_function void main\nf\n_end");
+		RunResult loop = runner.submit(endless, "", 100, BatchRunner.DEFAULT_MEMORY_LIMIT).get();
+		assertTrue("Endless loop didn't time out", loop.isTimedOut());
+		assertFalse(loop.isSuccessful());
+		RunResult afterwards = runner.submit(compile("_function int main\n_return 3\n_end"), "").get();
+		assertFalse("Timeout affected the next run", afterwards.isTimedOut());
+		assertEquals(3, afterwards.getExitCode());
+		assertNotNull("Endless recursion didn't fail", runner.submit(recursive, "", 1000,
+				BatchRunner.DEFAULT_MEMORY_LIMIT).get().getError());
+	}
+
+	@Test
+	public void testMemoryLimit() throws Exception {
+		Bytecode bytecode = compile("_function void main\nmalloc 1000\nmalloc 1000\n_end");
+		RunResult result = runner.submit(bytecode, "", BatchRunner.DEFAULT_TIMEOUT_MILLIS, 1500).get();
+		assertTrue("Exceeding the memory limit didn't fail: " + result, result.getError().contains("Out of memory"));
+		assertTrue(runner.submit(bytecode, "", BatchRunner.DEFAULT_TIMEOUT_MILLIS, 2000).get().isSuccessful());
+	}
+
+	@Test
+	public void testOutputLimit() throws Exception {
+		Bytecode bytecode = compile("_function void main\n_while true\nprint \"0123456789\"\n_end\n_end");
+		RunResult result = runner.submit(bytecode, "", BatchRunner.DEFAULT_TIMEOUT_MILLIS, 1000).get();
+		assertFalse("Printing in a loop timed out", result.isTimedOut());
+		assertTrue("Exceeding the memory limit by printing didn't fail: " + result,
+				result.getError().contains("memory limit"));
+		assertTrue("Captured output exceeds the memory limit", result.getOutput().length() <= 1000);
+	}
+}
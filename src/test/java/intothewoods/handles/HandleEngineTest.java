@@ -0,0 +1,62 @@
+package intothewoods.handles;
+
+import intothewoods.analyser.Program;
+import intothewoods.runtime.AbstractEngineTest;
+import intothewoods.runtime.BasicHeap;
+import intothewoods.runtime.OakRuntime;
+import intothewoods.runtime.OakRuntimeException;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.invoke.MethodHandle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the HandleEngine and the handles built by the HandleBuilder.
+ */
+public class HandleEngineTest extends AbstractEngineTest {
+
+	@Override
+	protected int execute(Program program, OakRuntime runtime) throws Exception {
+		return new HandleEngine(program, runtime).run();
+	}
+
+	@Test
+	public void testDeepRecursion() throws Exception {
+		assertOutputEquals("Running deep recursion failed", "200000",
+				"_function int count : int n\n" +
+				"equal n 0\n" +
+				"_if ret_bool\n_return 0\n_end\n" +
+				"sub n 1\ncount ret_int\nadd ret_int 1\n_return ret_int\n" +
+				"_end\n" +
+				"_function void main\ncount 200000\nto_string ret_int\nprint ret_string\n_end");
+	}
+
+	@Test
+	public void testStackOverflowLine() throws Exception {
+		try {
+			run("_function void f\n\nf\n_end\n_function void main\nf\n_end", "");
+			fail("Infinite recursion didn't fail");
+		} catch (OakRuntimeException ex) {
+			assertEquals("Stack overflow reported in wrong line", 3, ex.getLine());
+		}
+	}
+
+	@Test
+	public void testFunctionHandle() throws Throwable {
+		Program program = analyse("_function int twice : int x\nadd x x\n_return ret_int\n_end\n" +
+				"_function void main\ntwice 1\n_end");
+		OakRuntime runtime = new OakRuntime(new BasicHeap(), new ByteArrayInputStream(new byte[0]),
+				new ByteArrayOutputStream(), new ByteArrayOutputStream());
+		HandleBuilder builder = new HandleBuilder(program, runtime, new long[0]);
+		builder.buildFunctions();
+		MethodHandle twice = builder.getFunctionHandle(program.getFunctions().get(0));
+		assertEquals("Function handle has the wrong type", Combinators.VALUE, twice.type());
+		long[] frame = new long[HandleBuilder.getFrameSize(program.getFunctions().get(0))];
+		frame[0] = 21;
+		assertEquals("Invoking function handle failed", 42L, (long) twice.invokeExact(frame));
+	}
+}
@@ -0,0 +1,86 @@
+package intothewoods.interpreter;
+
+import intothewoods.analyser.Program;
+import intothewoods.runtime.AbstractEngineTest;
+import intothewoods.runtime.BasicHeap;
+import intothewoods.runtime.OakRuntime;
+import intothewoods.runtime.OakRuntimeException;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the Interpreter and the specialization of its nodes.
+ */
+public class InterpreterTest extends AbstractEngineTest {
+
+	@Override
+	protected int execute(Program program, OakRuntime runtime) throws Exception {
+		return new Interpreter(program, runtime).run();
+	}
+
+	@Test
+	public void testDeepRecursion() throws Exception {
+		assertOutputEquals("Running deep recursion failed", "500000",
+				"_function int count : int n\n" +
+				"equal n 0\n" +
+				"_if ret_bool\n_return 0\n_end\n" +
+				"sub n 1\ncount ret_int\nadd ret_int 1\n_return ret_int\n" +
+				"_end\n" +
+				"_function void main\ncount 500000\nto_string ret_int\nprint ret_string\n_end");
+	}
+
+	@Test
+	public void testStackOverflow() throws Exception {
+		try {
+			run("_function void f\nf\n_end\n_function void main\nf\n_end", "");
+			fail("Infinite recursion didn't fail");
+		} catch (OakRuntimeException ex) {
+			assertEquals("Stack overflow", ex.getMessage());
+		}
+	}
+
+	@Test
+	public void testCallStackReusesFrames() throws Exception {
+		CallStack stack = new CallStack(16);
+		Frame first = stack.push(4);
+		first.set(0, 42);
+		Frame second = stack.push(8);
+		second.set(1, 7);
+		assertEquals("Frames overlap", 42, first.get(0));
+		stack.pop(second);
+		assertSame("Frame wasn't reused", second, stack.push(8));
+		assertEquals("Reused frame isn't cleared", 0, second.get(1));
+		assertEquals(2, stack.getDepth());
+		try {
+			stack.push(5);
+			fail("Exceeding the maximum size didn't fail");
+		} catch (OakRuntimeException ex) {
+			assertEquals("Stack overflow", ex.getMessage());
+		}
+	}
+
+	@Test
+	public void testCallSpecialization() throws Exception {
+		Program program = analyse("_function int id : int x\n_return x\n_end\n" +
+				"_function void main\nadd 1 2\nid 3\nmalloc 4\nget_int ret_pointer\n_end");
+		OakRuntime runtime = new OakRuntime(new BasicHeap(), new ByteArrayInputStream(new byte[0]),
+				new ByteArrayOutputStream(), new ByteArrayOutputStream());
+		NodeBuilder builder = new NodeBuilder(program, runtime, new long[0]);
+		FunctionNode main = builder.getFunctionNode(program.getMainFunction());
+		main.invoke(new CallStack().push(main.getFrameSize()));
+		BlockNode body = builder.buildBody(program.getMainFunction());
+		assertEquals("Call node isn't uninitialized before the first execution",
+				UninitializedCallNode.class, body.getStatement(body.size() - 1).getClass());
+		body.execute(new CallStack().push(main.getFrameSize()));
+		int start = body.size() - 4;
+		assertEquals("Specializing add failed", CallNodes.AddInt.class, body.getStatement(start).getClass());
+		assertEquals("Specializing user function call failed",
+				CallNodes.Direct.class, body.getStatement(start + 1).getClass());
+		assertEquals("Specializing malloc failed", CallNodes.Generic.class, body.getStatement(start + 2).getClass());
+		assertEquals("Specializing get_int failed", CallNodes.GetInt.class, body.getStatement(start + 3).getClass());
+	}
+}
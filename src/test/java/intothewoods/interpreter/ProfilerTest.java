@@ -0,0 +1,84 @@
+package intothewoods.interpreter;
+
+import intothewoods.analyser.Function;
+import intothewoods.analyser.Program;
+import intothewoods.analyser.SemanticAnalyser;
+import intothewoods.common.Builtin;
+import intothewoods.lexer.BasicLexer;
+import intothewoods.parser.BasicParser;
+import intothewoods.runtime.BasicHeap;
+import intothewoods.runtime.OakRuntime;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the Profiler with programs run by the Interpreter.
+ */
+public class ProfilerTest {
+
+	private static final String SOURCE = "_function int square : int x\nmul x x\n_return ret_int\n_end\n" +
+			"_function void main\nint i = 0\nless i 10\n_while ret_bool\nsquare i\nadd i 1\ni = ret_int\n" +
+			"less i 10\n_end\n_end";
+
+	private Profiler run(String source) throws Exception {
+		Program program = new SemanticAnalyser(new BasicParser(new BasicLexer(
+				new ByteArrayInputStream(source.getBytes()))).parseTokens()).analyse();
+		OakRuntime runtime = new OakRuntime(new BasicHeap(), new ByteArrayInputStream(new byte[0]),
+				new ByteArrayOutputStream(), new ByteArrayOutputStream());
+		Profiler profiler = new Profiler(program);
+		new Interpreter(program, runtime, profiler).run();
+		return profiler;
+	}
+
+	@Test
+	public void testCounts() throws Exception {
+		Profiler profiler = run(SOURCE);
+		Function square = profiler.getProgram().getFunctions().get(0);
+		Function main = profiler.getProgram().getMainFunction();
+		assertEquals("Counting calls failed", 10, profiler.getCalls(square));
+		assertEquals("Counting calls of main failed", 1, profiler.getCalls(main));
+		assertEquals("Counting loop iterations failed", 10, profiler.getLoopIterations(8));
+		assertEquals("Counting built in calls failed", 11, profiler.getBuiltinCalls(Builtin.LESS_INT));
+		assertEquals("Counting built in calls failed", 10, profiler.getBuiltinCalls(Builtin.MUL_INT));
+		assertTrue("Total time is smaller than the self time",
+				profiler.getTotalNanos(main) >= profiler.getSelfNanos(main));
+		assertTrue("Total time of main is smaller than the time of its callees",
+				profiler.getTotalNanos(main) >= profiler.getTotalNanos(square));
+	}
+
+	@Test
+	public void testRecursion() throws Exception {
+		Profiler profiler = run("_function int count : int n\nequal n 0\n_if ret_bool\n_return 0\n_end\n" +
+				"sub n 1\ncount ret_int\n_return ret_int\n_end\n_function void main\ncount 20\n_end");
+		Function count = profiler.getProgram().getFunctions().get(0);
+		assertEquals("Counting recursive calls failed", 21, profiler.getCalls(count));
+		Function main = profiler.getProgram().getMainFunction();
+		assertTrue("Total time of recursive function counted multiple times",
+				profiler.getTotalNanos(count) <= profiler.getTotalNanos(main));
+	}
+
+	@Test
+	public void testReport() throws Exception {
+		String report = run(SOURCE).getReport();
+		assertTrue("Report lacks function:\n" + report, report.contains("line 1 int square int: 10 calls"));
+		assertTrue("Report lacks loop:\n" + report, report.contains("line 8: 10"));
+		assertTrue("Report lacks built in function:\n" + report, report.contains(": 11"));
+	}
+
+	@Test
+	public void testFlightRecorderExport() throws Exception {
+		Profiler profiler = run(SOURCE);
+		boolean available;
+		try {
+			Class.forName("jdk.jfr.EventFactory");
+			available = true;
+		} catch (ClassNotFoundException ex) {
+			available = false;
+		}
+		assertEquals("Exporting to the flight recorder failed", available, profiler.exportToFlightRecorder());
+	}
+}
@@ -0,0 +1,98 @@
+package intothewoods.interpreter;
+
+import intothewoods.analyser.Function;
+import intothewoods.analyser.Program;
+import intothewoods.runtime.AbstractEngineTest;
+import intothewoods.runtime.BasicHeap;
+import intothewoods.runtime.OakRuntime;
+import intothewoods.runtime.OakRuntimeException;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the tiered execution of the Interpreter, the engine tests compile every function on its first call.
+ */
+public class TieredInterpreterTest extends AbstractEngineTest {
+
+	private static final Executor SAME_THREAD = new Executor() {
+		@Override
+		public void execute(Runnable command) {
+			command.run();
+		}
+	};
+
+	private static final String SOURCE = "_function int square : int x\nmul x x\n_return ret_int\n_end\n" +
+			"_function void main\nint i = 0\nint sum = 0\nless i 100\n_while ret_bool\nsquare i\n" +
+			"add sum ret_int\nsum = ret_int\nadd i 1\ni = ret_int\nless i 100\n_end\n" +
+			"to_string sum\nprint ret_string\n_end";
+
+	@Override
+	protected int execute(Program program, OakRuntime runtime) throws Exception {
+		return new Interpreter(program, runtime, null, new TierManager(program, 1, SAME_THREAD)).run();
+	}
+
+	private OakRuntime createRuntime(ByteArrayOutputStream output) {
+		return new OakRuntime(new BasicHeap(), new ByteArrayInputStream(new byte[0]),
+				output, new ByteArrayOutputStream());
+	}
+
+	@Test
+	public void testHotFunctionIsCompiled() throws Exception {
+		Program program = analyse(SOURCE);
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		TierManager tiers = new TierManager(program, 10, SAME_THREAD);
+		NodeBuilder builder = new NodeBuilder(program, createRuntime(output), new long[0], null, tiers);
+		Function square = program.getFunctions().get(0);
+		FunctionNode main = builder.getFunctionNode(program.getMainFunction());
+		main.invoke(new CallStack().push(main.getFrameSize()));
+		assertEquals("Mixed execution computed wrong result", "328350", output.toString());
+		assertTrue("Program wasn't compiled", tiers.isCompiled());
+		assertTrue("Hot function wasn't switched to its compiled method",
+				builder.getFunctionNode(square).isCompiled());
+		assertTrue("Loop iterations didn't make the main function hot", main.isCompiled());
+	}
+
+	@Test
+	public void testColdFunctionIsInterpreted() throws Exception {
+		Program program = analyse(SOURCE);
+		TierManager tiers = new TierManager(program, 1000, SAME_THREAD);
+		NodeBuilder builder = new NodeBuilder(program, createRuntime(new ByteArrayOutputStream()), new long[0],
+				null, tiers);
+		FunctionNode main = builder.getFunctionNode(program.getMainFunction());
+		main.invoke(new CallStack().push(main.getFrameSize()));
+		assertFalse("Program was compiled although no function got hot", tiers.isCompiled());
+		assertFalse("Cold function was switched", builder.getFunctionNode(program.getFunctions().get(0)).isCompiled());
+	}
+
+	@Test
+	public void testBackgroundCompilation() throws Exception {
+		Program program = analyse(SOURCE);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		TierManager tiers = new TierManager(program, 10, executor);
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		new Interpreter(program, createRuntime(output), null, tiers).run();
+		executor.shutdown();
+		assertTrue("Background compilation didn't finish", executor.awaitTermination(10, TimeUnit.SECONDS));
+		assertEquals("Tiered execution computed wrong result", "328350", output.toString());
+		assertTrue("Program wasn't compiled in the background", tiers.isCompiled());
+		assertFalse(tiers.hasFailed());
+	}
+
+	@Test
+	public void testRuntimeErrorInCompiledFunction() throws Exception {
+		try {
+			run("_function int f : int a\ndiv 1 a\n_return ret_int\n_end\n_function void main\nf 1\nf 0\n_end", "");
+			fail("Division by zero didn't fail");
+		} catch (OakRuntimeException ex) {
+			assertEquals("Division by zero in compiled code reported in wrong line", 2, ex.getLine());
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package intothewoods.ir;
+
+import intothewoods.analyser.Program;
+import intothewoods.common.Builtin;
+import intothewoods.runtime.AbstractEngineTest;
+import intothewoods.runtime.OakRuntime;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the construction of the SSA form, the verifier and the execution of the SSA form.
+ */
+public class IRBuilderTest extends AbstractEngineTest {
+
+	@Override
+	protected int execute(Program program, OakRuntime runtime) throws Exception {
+		IRProgram ir = new IRBuilder(program).build();
+		IRVerifier.verify(ir);
+		return new IRInterpreter(ir, runtime).run();
+	}
+
+	private IRFunction build(String source, String function) throws Exception {
+		for (IRFunction irFunction : new IRBuilder(analyse(source)).build().getFunctions()) {
+			if (irFunction.getName().equals(function)) {
+				IRVerifier.verify(irFunction);
+				return irFunction;
+			}
+		}
+		throw new AssertionError("No function " + function);
+	}
+
+	private int count(IRFunction function, int opcode) {
+		int count = 0;
+		for (int block = 0; block < function.getBlockCount(); block++) {
+			IntList instructions = function.getInstructions(block);
+			for (int i = 0; i < instructions.size(); i++) {
+				if (function.getOpcode(instructions.get(i)) == opcode) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	@Test
+	public void testLoopPhis() throws Exception {
+		IRFunction function = build("_function int main\nint i = 0\nint unchanged = 5\n_while true\n" +
+				"add i unchanged\ni = ret_int\n_end\n_return i\n_end", "main");
+		assertEquals("Loop needs a single phi for the changed variable:\n" + function, 1,
+				count(function, IROpcode.PHI));
+		assertEquals("Wrong number of blocks:\n" + function, 4, function.getBlockCount());
+	}
+
+	@Test
+	public void testNestedControlFlow() throws Exception {
+		assertOutputEquals("Nested loops and conditions failed", "111",
+				"_function int steps : int n\nint count = 0\n_while true\nequal n 1\n_if ret_bool\n" +
+				"_return count\n_end\nmod n 2\nequal ret_int 0\n_if ret_bool\ndiv n 2\nn = ret_int\n_else\n" +
+				"mul n 3\nadd ret_int 1\nn = ret_int\n_end\nadd count 1\ncount = ret_int\n_end\n_return 0\n_end\n" +
+				"_function void main\nsteps 27\nto_string ret_int\nprint ret_string\n_end");
+	}
+
+	@Test
+	public void testUnreachableCodeRemoved() throws Exception {
+		IRFunction function = build("_function void main\n_return\nprint \"dead\"\n_end", "main");
+		assertEquals("Dead code wasn't removed:\n" + function, 1, function.getBlockCount());
+		assertEquals(0, count(function, IROpcode.BUILTIN));
+	}
+
+	@Test
+	public void testReferencedVariables() throws Exception {
+		String source = "_function void main\nint a = 1\nget_ref a\nset_int ret_pointer 2\n" +
+				"to_string a\nprint ret_string\n_end";
+		String dump = build(source, "main").toString();
+		assertTrue("Referenced variable isn't stored in a cell:\n" + dump,
+				dump.contains(Builtin.MALLOC.name().toLowerCase()) && dump.contains(Builtin.GET_INT.name().toLowerCase()));
+		assertOutputEquals("Writing referenced variable failed", "2", source);
+	}
+
+	@Test
+	public void testDump() throws Exception {
+		IRFunction function = build("_function int f : bool a\n_if a\n_return 1\n_end\n_return 2\n_end\n" +
+				"_function void main\nf true\n_end", "f");
+		String dump = function.toString();
+		assertTrue(dump, dump.startsWith("function int f f0(bool)\n"));
+		assertTrue(dump, dump.contains("v0 = param 0 : bool"));
+		assertTrue(dump, dump.contains("branch "));
+		assertTrue(dump, dump.contains("return 1"));
+	}
+
+	@Test
+	public void testVerifierDetectsInvalidFunctions() throws Exception {
+		IRFunction function = build("_function int main\nint i = 0\n_while true\nadd i 1\ni = ret_int\n_end\n" +
+				"_return i\n_end", "main");
+		int phi = IRFunction.NONE;
+		for (int block = 0; block < function.getBlockCount(); block++) {
+			IntList instructions = function.getInstructions(block);
+			if (function.getOpcode(instructions.get(0)) == IROpcode.PHI) {
+				phi = instructions.get(0);
+			}
+		}
+		assertNotEquals(IRFunction.NONE, phi);
+		function.setPhiOperands(phi, new int[]{function.getOperand(phi, 0)});
+		try {
+			IRVerifier.verify(function);
+			fail("Verifier accepted phi with missing operand:\n" + function);
+		} catch (IllegalStateException ex) {
+			assertTrue(ex.getMessage(), ex.getMessage().contains("predecessors"));
+		}
+	}
+}
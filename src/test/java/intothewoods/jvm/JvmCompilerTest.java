@@ -0,0 +1,77 @@
+package intothewoods.jvm;
+
+import intothewoods.analyser.Program;
+import intothewoods.runtime.AbstractEngineTest;
+import intothewoods.runtime.OakRuntime;
+import intothewoods.runtime.OakRuntimeException;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the JvmCompiler and the execution of the compiled programs.
+ */
+public class JvmCompilerTest extends AbstractEngineTest {
+
+	@Override
+	protected int execute(Program program, OakRuntime runtime) throws Exception {
+		return new JvmCompiler(program).compile().run(runtime);
+	}
+
+	@Test
+	public void testCompiledClass() throws Exception {
+		JvmProgram program = new JvmCompiler(analyse("_function int id : int x\n_return x\n_end\n" +
+				"_function void main\nid 1\n_end")).compile();
+		Method method = program.getCompiledClass().getMethod("id$0", JvmContext.class, long.class);
+		assertTrue("Function isn't compiled to a static method", Modifier.isStatic(method.getModifiers()));
+		assertEquals("Calling compiled function failed", 42L,
+				method.invoke(null, new JvmContext(null, new long[0], new long[0]), 42L));
+	}
+
+	@Test
+	public void testRuntimeErrorFunction() throws Exception {
+		try {
+			run("_function int f : int a\ndiv 1 a\n_return ret_int\n_end\n_function void main\nf 0\n_end", "");
+			fail("Division by zero didn't fail");
+		} catch (OakRuntimeException ex) {
+			assertEquals("Division by zero reported in wrong line", 2, ex.getLine());
+			assertEquals("Error at line 2: Division by zero", ex.getMessage());
+		}
+	}
+
+	@Test
+	public void testDeepRecursion() throws Exception {
+		assertOutputEquals("Running deep recursion failed", "200000",
+				"_function int count : int n\n" +
+				"equal n 0\n" +
+				"_if ret_bool\n_return 0\n_end\n" +
+				"sub n 1\ncount ret_int\nadd ret_int 1\n_return ret_int\n" +
+				"_end\n" +
+				"_function void main\ncount 200000\nto_string ret_int\nprint ret_string\n_end");
+	}
+
+	@Test
+	public void testStackOverflowLine() throws Exception {
+		try {
+			run("_function void f\n\nf\n_end\n_function void main\nf\n_end", "");
+			fail("Infinite recursion didn't fail");
+		} catch (OakRuntimeException ex) {
+			assertEquals("Stack overflow reported in wrong line", 3, ex.getLine());
+		}
+	}
+
+	@Test
+	public void testLargeMethod() throws Exception {
+		StringBuilder source = new StringBuilder("_function void main\nint a = 0\n");
+		for (int i = 0; i < 3000; i++) {
+			source.append("add a 1000\na = ret_int\n");
+		}
+		source.append("to_string a\nprint ret_string\n_end");
+		assertOutputEquals("Running large method failed", "3000000", source.toString());
+	}
+}
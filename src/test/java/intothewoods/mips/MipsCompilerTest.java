@@ -0,0 +1,167 @@
+package intothewoods.mips;
+
+import intothewoods.analyser.Program;
+import intothewoods.common.Builtin;
+import intothewoods.ir.IRBuilder;
+import intothewoods.ir.IRProgram;
+import intothewoods.optimizer.PassManager;
+import intothewoods.runtime.AbstractEngineTest;
+import intothewoods.runtime.OakRuntime;
+import intothewoods.runtime.OakRuntimeException;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the MIPS back end by compiling the programs and running them with the MipsSimulator.
+ */
+public class MipsCompilerTest extends AbstractEngineTest {
+
+	private static final Pattern ERROR = Pattern.compile("Error at line (\\d+): (.*)\\n?");
+
+	private int level = PassManager.MAX_LEVEL;
+	private IRProgram ir;
+	private String assembly;
+	private long instructionCount;
+
+	@Override
+	protected int execute(Program program, OakRuntime runtime) throws Exception {
+		ir = new IRBuilder(program).build();
+		try (PassManager manager = PassManager.create(level, 2)) {
+			manager.optimize(ir);
+		}
+		ByteArrayOutputStream input = new ByteArrayOutputStream();
+		for (long c = runtime.call(Builtin.READ_BYTE, 0, 0); c != -1; c = runtime.call(Builtin.READ_BYTE, 0, 0)) {
+			input.write((int) c);
+		}
+		assembly = new MipsCompiler(ir).compile();
+		MipsSimulator simulator = new MipsSimulator(assembly);
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		ByteArrayOutputStream error = new ByteArrayOutputStream();
+		int exitCode = simulator.run(new ByteArrayInputStream(input.toByteArray()), output, error);
+		instructionCount = simulator.getInstructionCount();
+		runtime.call(Builtin.PRINT, runtime.allocateString(new String(output.toByteArray(),
+				StandardCharsets.ISO_8859_1)), 0);
+		String errorText = new String(error.toByteArray(), StandardCharsets.ISO_8859_1);
+		if (exitCode == 1 && !errorText.isEmpty()) {
+			Matcher matcher = ERROR.matcher(errorText);
+			if (matcher.matches()) {
+				throw new OakRuntimeException(matcher.group(2), Integer.parseInt(matcher.group(1)));
+			}
+			throw new OakRuntimeException(errorText.trim());
+		}
+		return exitCode;
+	}
+
+	@Test
+	public void testUnoptimized() throws Exception {
+		level = 0;
+		testLoop();
+		testRecursion();
+		testPointers();
+		testFloats();
+		testSpillingAndArguments();
+	}
+
+	@Test
+	public void testSpillingAndArguments() throws Exception {
+		assertOutputEquals("Calls with stack arguments failed", "36 8",
+				"_function int sum : int a, int b, int c, int d, int e, int f, int g, int h\n" +
+				"add a b\nadd ret_int c\nadd ret_int d\nadd ret_int e\nadd ret_int f\nadd ret_int g\n" +
+				"add ret_int h\n_return ret_int\n_end\n" +
+				"_function int last : int a, int b, int c, int d, int e, int f, int g, int h\n_return h\n_end\n" +
+				"_function void main\n" +
+				"sum 1 2 3 4 5 6 7 8\nto_string ret_int\nprint ret_string\nprint \" \"\n" +
+				"last 1 2 3 4 5 6 7 8\nto_string ret_int\nprint ret_string\n_end");
+	}
+
+	@Test
+	public void testReferencedParameter() throws Exception {
+		String program = "_function int f : int a, int b\nto_string 5\n" +
+				"_if false\nget_ref a\nset_int ret_pointer b\n_end\n_return a\n_end\n" +
+				"_function void main\nf 1 2\nto_string ret_int\nprint ret_string\n_end";
+		for (level = 0; level <= 1; level++) {
+			assertOutputEquals("Parameters share a register at level " + level, "1", program);
+		}
+	}
+
+	@Test
+	public void testFloatFormatting() throws Exception {
+		assertOutputEquals("Formatting floats failed", "0.1 1.0E7 -3.0 1.0E-4",
+				"_function void main\n" +
+				"to_string 0.1\nprint ret_string\nprint \" \"\n" +
+				"mul 1000.0 10000.0\nto_string ret_float\nprint ret_string\nprint \" \"\n" +
+				"sub 0.0 3.0\nto_string ret_float\nprint ret_string\nprint \" \"\n" +
+				"div 1.0 10000.0\nto_string ret_float\nprint ret_string\n_end");
+	}
+
+	@Test
+	public void testRangeCheck() throws Exception {
+		try {
+			run("_function void main\nmalloc 4\npointer p = ret_pointer\nadd p 2\nget_int ret_pointer\n_end", "");
+			fail("Access out of range didn't fail");
+		} catch (OakRuntimeException ex) {
+			assertEquals("Error at line 5: Memory area too small to access a int", ex.getMessage());
+		}
+	}
+
+	@Test
+	public void testDelaySlots() throws Exception {
+		testRecursion();
+		int transfers = 0;
+		int nops = 0;
+		for (String line : assembly.split("\n")) {
+			String opcode = line.trim().split("\\s+")[0];
+			if (MipsInstruction.of(opcode).isControlTransfer()) {
+				transfers++;
+			} else if (opcode.equals("nop")) {
+				nops++;
+			}
+		}
+		assertTrue("Only " + (transfers - nops) + " of " + transfers + " delay slots are filled", nops < transfers / 2);
+	}
+
+	@Test
+	public void testOptimizationLevels() throws Exception {
+		level = 0;
+		testSpillingAndArguments();
+		long unoptimized = instructionCount;
+		level = PassManager.MAX_LEVEL;
+		testSpillingAndArguments();
+		assertTrue("Optimized code executes " + instructionCount + " instead of less than " + unoptimized
+				+ " instructions", instructionCount < unoptimized);
+	}
+
+	@Test
+	public void testParallelEmission() throws Exception {
+		testSpillingAndArguments();
+		assertEquals(assembly, emit(1));
+		assertEquals(assembly, emit(4));
+	}
+
+	/**
+	 * Compile the last program through a file channel.
+	 */
+	private String emit(int threads) throws IOException {
+		Path file = Files.createTempFile("oak", ".s");
+		try {
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+				new MipsCompiler(ir).compile(channel, threads);
+			}
+			return new String(Files.readAllBytes(file), StandardCharsets.ISO_8859_1);
+		} finally {
+			Files.delete(file);
+		}
+	}
+}
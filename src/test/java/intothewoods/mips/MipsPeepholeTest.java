@@ -0,0 +1,70 @@
+package intothewoods.mips;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static intothewoods.mips.MipsInstruction.label;
+import static intothewoods.mips.MipsInstruction.of;
+import static intothewoods.mips.MipsInstruction.slot;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the MIPS peephole rules on small listings.
+ */
+public class MipsPeepholeTest {
+
+	private static List<String> optimize(MipsInstruction... code) {
+		List<String> lines = new ArrayList<>();
+		for (MipsInstruction instruction : MipsPeephole.create().optimize(Arrays.asList(code))) {
+			lines.add(instruction.toString());
+		}
+		return lines;
+	}
+
+	@Test
+	public void testCopies() {
+		assertEquals(Arrays.asList("\taddu $v0, $a0, $t2", "\tjr $ra"),
+				optimize(of("move", "$t0", "$t0"), of("move", "$t1", "$a0"), of("addu", "$v0", "$t1", "$t2"),
+						of("jr", "$ra")));
+	}
+
+	@Test
+	public void testStoreLoad() {
+		assertEquals(Arrays.asList("\tsw $t0, 4($sp)", "\tmove $v0, $t0", "\tjr $ra"),
+				optimize(of("sw", "$t0", "4($sp)"), of("lw", "$t1", "4($sp)"), of("move", "$v0", "$t1"),
+						of("jr", "$ra")));
+		assertEquals(Arrays.asList("\tlw $v0, 4($sp)", "\tjr $ra"),
+				optimize(of("lw", "$v0", "4($sp)"), of("sw", "$v0", "4($sp)"), of("jr", "$ra")));
+	}
+
+	@Test
+	public void testStrengthReduction() {
+		assertEquals(Arrays.asList("\tsll $v0, $a0, 3", "\tjr $ra"),
+				optimize(of("ori", "$t9", "$zero", "8"), of("mult", "$a0", "$t9"), of("mflo", "$v0"),
+						of("jr", "$ra")));
+		assertEquals(5, optimize(of("ori", "$t9", "$zero", "8"), of("mult", "$a0", "$t9"), of("mflo", "$v0"),
+				of("mfhi", "$v1"), of("jr", "$ra")).size());
+	}
+
+	@Test
+	public void testConditionFusion() {
+		assertEquals(Arrays.asList("\tbeq $a0, $zero, f_1", "\tjal f", "f_1:", "\tjr $ra"),
+				optimize(of("sltu", "$t0", "$zero", "$a0"), of("beq", "$t0", "$zero", "f_1"), of("jal", "f"),
+						label("f_1"), of("jr", "$ra")));
+	}
+
+	@Test
+	public void testJumpsAndStubs() {
+		assertEquals(Arrays.asList("\tbne $t0, $zero, f_x0", "f_1:", "\tjr $ra", "f_x0:", "\tori $a1, $zero, 12",
+				"\tj oak_fail", "\tori $a0, $zero, 3"),
+				optimize(of("bne", "$t0", "$zero", "f_x0"), of("j", "f_1"), label("f_1"), of("jr", "$ra"),
+						label("f_x0"), of("move", "$t5", "$t0"), of("ori", "$a1", "$zero", "12"),
+						of("j", "oak_fail"), slot("ori", "$a0", "$zero", "3")));
+		assertEquals(Arrays.asList("\tbeq $t0, $zero, f_2", "\tori $t1, $zero, 1", "f_1:", "f_2:", "\tj f_2"),
+				optimize(of("beq", "$t0", "$zero", "f_1"), slot("ori", "$t1", "$zero", "1"), label("f_1"),
+						of("j", "f_2"), label("f_2"), of("j", "f_2")));
+	}
+}
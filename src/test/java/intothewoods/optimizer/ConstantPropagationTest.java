@@ -0,0 +1,89 @@
+package intothewoods.optimizer;
+
+import intothewoods.analyser.Program;
+import intothewoods.ir.IRBuilder;
+import intothewoods.ir.IRFunction;
+import intothewoods.ir.IRInterpreter;
+import intothewoods.ir.IROpcode;
+import intothewoods.ir.IRProgram;
+import intothewoods.ir.IRVerifier;
+import intothewoods.ir.IntList;
+import intothewoods.runtime.AbstractEngineTest;
+import intothewoods.runtime.OakRuntime;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the sparse conditional constant propagation.
+ */
+public class ConstantPropagationTest extends AbstractEngineTest {
+
+	private final ConstantPropagation pass = new ConstantPropagation();
+
+	@Override
+	protected int execute(Program program, OakRuntime runtime) throws Exception {
+		IRProgram ir = new IRBuilder(program).build();
+		pass.run(ir.getInitialization());
+		for (IRFunction function : ir.getFunctions()) {
+			pass.run(function);
+		}
+		IRVerifier.verify(ir);
+		return new IRInterpreter(ir, runtime).run();
+	}
+
+	private IRFunction optimize(String source) throws Exception {
+		IRProgram ir = new IRBuilder(analyse(source)).build();
+		IRFunction main = ir.getFunction(ir.getMainFunction());
+		pass.run(main);
+		IRVerifier.verify(main);
+		return main;
+	}
+
+	private int count(IRFunction function, int opcode) {
+		int count = 0;
+		for (int block = 0; block < function.getBlockCount(); block++) {
+			IntList instructions = function.getInstructions(block);
+			for (int i = 0; i < instructions.size(); i++) {
+				if (function.getOpcode(instructions.get(i)) == opcode) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	@Test
+	public void testFoldArithmetic() throws Exception {
+		IRFunction main = optimize("_function int main\nint a = 2\nmul a 3\nadd ret_int 1\nless ret_int 10\n" +
+				"_if ret_bool\n_return 7\n_end\n_return 8\n_end");
+		assertEquals("Arithmetic wasn't folded:\n" + main, 0, count(main, IROpcode.BUILTIN));
+		assertEquals("Constant branch wasn't pruned:\n" + main, 1, main.getBlockCount());
+		assertTrue(main.toString(), main.toString().contains("return 7"));
+	}
+
+	@Test
+	public void testFoldLoopInvariantPhis() throws Exception {
+		IRFunction main = optimize("_function int main\nint a = 1\nint i = 0\n_while true\nless i 10\n" +
+				"_if ret_bool\n_else\n_return a\n_end\nmul a 1\na = ret_int\nadd i 1\ni = ret_int\n_end\n_return 0\n_end");
+		assertEquals("Loop carried constant wasn't propagated:\n" + main, 1, count(main, IROpcode.PHI));
+		assertTrue(main.toString(), main.toString().contains("return 1"));
+	}
+
+	@Test
+	public void testRuntimeSemantics() throws Exception {
+		assertOutputEquals("Folding doesn't match the runtime", "-2147483648 -128 2 -2 1 true",
+				"_function void main\nadd 2147483647 1\nto_string ret_int\nprint ret_string\nprint \" \"\n" +
+				"add 127b 1b\nto_string ret_byte\nprint ret_string\nprint \" \"\n" +
+				"mod -7 3\nto_string ret_int\nprint ret_string\nprint \" \"\n" +
+				"div -7 3\nto_string ret_int\nprint ret_string\nprint \" \"\n" +
+				"round 0.5\nto_string ret_int\nprint ret_string\nprint \" \"\n" +
+				"to_bool 0.1\n_if ret_bool\nprint \"true\"\n_end\n_end");
+	}
+
+	@Test
+	public void testFailingCallsAreKept() throws Exception {
+		IRFunction main = optimize("_function int main\nint a = 0\ndiv 1 a\n_return ret_int\n_end");
+		assertEquals("Failing division was folded:\n" + main, 1, count(main, IROpcode.BUILTIN));
+	}
+}
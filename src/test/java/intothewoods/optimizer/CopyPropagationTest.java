@@ -0,0 +1,124 @@
+package intothewoods.optimizer;
+
+import intothewoods.analyser.Program;
+import intothewoods.ir.Coalescing;
+import intothewoods.ir.Dominators;
+import intothewoods.ir.IRBuilder;
+import intothewoods.ir.IRFunction;
+import intothewoods.ir.IRInterpreter;
+import intothewoods.ir.IRProgram;
+import intothewoods.ir.IRVerifier;
+import intothewoods.ir.Liveness;
+import intothewoods.runtime.AbstractEngineTest;
+import intothewoods.runtime.OakRuntime;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the copy propagation and the coalescing of phis with their operands.
+ */
+public class CopyPropagationTest extends AbstractEngineTest {
+
+	@Override
+	protected int execute(Program program, OakRuntime runtime) throws Exception {
+		return new IRInterpreter(propagate(program), runtime).run();
+	}
+
+	private IRProgram propagate(Program program) {
+		IRProgram ir = new IRBuilder(program).build();
+		CopyPropagation propagation = new CopyPropagation();
+		for (IRFunction function : ir.getFunctions()) {
+			propagation.run(function);
+		}
+		propagation.run(ir.getInitialization());
+		IRVerifier.verify(ir);
+		return ir;
+	}
+
+	private static Coalescing coalesce(IRFunction function) {
+		Dominators dominators = new Dominators(function);
+		return new Coalescing(function, new Liveness(function, dominators));
+	}
+
+	@Test
+	public void testGlobalRoundTrips() throws Exception {
+		String source = "int counter = 0\n_function void main\nadd counter 1\ncounter = ret_int\nadd counter 2\n" +
+				"counter = ret_int\nto_string counter\nprint ret_string\n_end";
+		IRProgram ir = propagate(analyse(source));
+		String main = ir.getFunction(ir.getMainFunction()).toString();
+		assertEquals("Global wasn't forwarded:\n" + main, 1, countOccurrences(main, "load_global"));
+		assertEquals("Overwritten store wasn't removed:\n" + main, 1, countOccurrences(main, "store_global"));
+		assertOutputEquals("Forwarded global has the wrong value", "3", source);
+	}
+
+	@Test
+	public void testCallsKillForwardedGlobals() throws Exception {
+		assertOutputEquals("Global changed by a call was forwarded", "22",
+				"int counter = 0\n_function void increment\nadd counter 1\ncounter = ret_int\n_end\n" +
+				"_function void main\ncounter = 1\nincrement\nto_string counter\nprint ret_string\n" +
+				"counter = 1\nincrement\nincrement\nsub counter 1\nto_string ret_int\nprint ret_string\n_end");
+	}
+
+	@Test
+	public void testRedundantPhiCycles() throws Exception {
+		String source = "_function void main\nint a = 7\nint i = 0\nless i 3\n_while ret_bool\nint j = 0\n" +
+				"less j 3\n_while ret_bool\nadd j 1\nj = ret_int\nless j 3\n_end\nadd i 1\ni = ret_int\nless i 3\n_end\n" +
+				"to_string a\nprint ret_string\n_end";
+		IRProgram ir = propagate(analyse(source));
+		IRFunction main = ir.getFunction(ir.getMainFunction());
+		assertEquals("Phi cycle of an unchanged variable wasn't removed:\n" + main, 4,
+				countOccurrences(main.toString(), "phi"));
+		assertOutputEquals("Unchanged variable has the wrong value", "7", source);
+	}
+
+	@Test
+	public void testCallResultsAreCoalesced() throws Exception {
+		IRProgram ir = propagate(analyse("_function int next : int i\nadd i 1\n_return ret_int\n_end\n" +
+				"_function void main\nint i = 0\nless i 10\n_while ret_bool\nnext i\ni = ret_int\nless i 10\n_end\n" +
+				"to_string i\nprint ret_string\n_end"));
+		IRFunction main = ir.getFunction(ir.getMainFunction());
+		Coalescing coalescing = coalesce(main);
+		for (int value = 0; value < main.getValueCount(); value++) {
+			if (main.getBlock(value) != IRFunction.NONE && main.formatInstruction(value).contains("call")) {
+				assertTrue("Call result isn't written to the loop variable:\n" + main,
+						coalescing.getMembers(value).size() > 1);
+			}
+		}
+		assertEquals("Only the constant initial value needs a copy:\n" + main, 1, coalescing.getCopyCount());
+	}
+
+	@Test
+	public void testInterferingValuesAreNotCoalesced() throws Exception {
+		IRProgram ir = propagate(analyse("_function void main\nint a = 1\nint b = 2\nint i = 0\n" +
+				"less i 3\n_while ret_bool\nint t = a\na = b\nb = t\nadd i 1\ni = ret_int\nless i 3\n_end\n" +
+				"sub a b\nto_string ret_int\nprint ret_string\n_end"));
+		IRFunction main = ir.getFunction(ir.getMainFunction());
+		Coalescing coalescing = coalesce(main);
+		for (int value = 0; value < main.getValueCount(); value++) {
+			if (main.getBlock(value) == IRFunction.NONE) {
+				continue;
+			}
+			for (int other = value + 1; other < main.getValueCount(); other++) {
+				if (main.getBlock(other) != IRFunction.NONE
+						&& coalescing.getRepresentative(value) == coalescing.getRepresentative(other)) {
+					assertFalse("Swapped variables share a location:\n" + main,
+							main.formatInstruction(value).contains("phi") && main.formatInstruction(other).contains("phi")
+									&& main.getBlock(value) == main.getBlock(other));
+				}
+			}
+		}
+		assertOutputEquals("Swapped variables have the wrong values", "1",
+				"_function void main\nint a = 1\nint b = 2\nint i = 0\n" +
+				"less i 3\n_while ret_bool\nint t = a\na = b\nb = t\nadd i 1\ni = ret_int\nless i 3\n_end\n" +
+				"sub a b\nto_string ret_int\nprint ret_string\n_end");
+	}
+
+	private static int countOccurrences(String text, String part) {
+		int count = 0;
+		for (int index = text.indexOf(part); index >= 0; index = text.indexOf(part, index + 1)) {
+			count++;
+		}
+		return count;
+	}
+}
@@ -0,0 +1,110 @@
+package intothewoods.optimizer;
+
+import intothewoods.analyser.Program;
+import intothewoods.ir.IRBuilder;
+import intothewoods.ir.IRFunction;
+import intothewoods.ir.IRInterpreter;
+import intothewoods.ir.IRProgram;
+import intothewoods.ir.IRVerifier;
+import intothewoods.runtime.AbstractEngineTest;
+import intothewoods.runtime.OakRuntime;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the escape analysis with the scalar replacement and stack allocation of non escaping mallocs.
+ */
+public class EscapeAnalysisTest extends AbstractEngineTest {
+
+	@Override
+	protected int execute(Program program, OakRuntime runtime) throws Exception {
+		return new IRInterpreter(optimize(program), runtime).run();
+	}
+
+	private IRProgram optimize(Program program) {
+		IRProgram ir = new IRBuilder(program).build();
+		EscapeAnalysis analysis = new EscapeAnalysis();
+		for (IRFunction function : ir.getFunctions()) {
+			analysis.run(function);
+		}
+		analysis.run(ir.getInitialization());
+		IRVerifier.verify(ir);
+		return ir;
+	}
+
+	private String optimizeMain(String source) throws Exception {
+		IRProgram ir = optimize(analyse(source));
+		return ir.getFunction(ir.getMainFunction()).toString();
+	}
+
+	@Test
+	public void testScratchBuffer() throws Exception {
+		String source = "_function void main\nmalloc 8\npointer p = ret_pointer\nset_int p 3\nadd p 4\n" +
+				"set_int ret_pointer 4\nadd p 4\nget_int ret_pointer\nint b = ret_int\nget_int p\nmul ret_int b\n" +
+				"to_string ret_int\nprint ret_string\nmem_size p\nto_string ret_int\nprint ret_string\nfree p\n_end";
+		String main = optimizeMain(source);
+		assertFalse("Scratch buffer wasn't replaced:\n" + main, main.contains("malloc") || main.contains("get_int")
+				|| main.contains("free"));
+		assertOutputEquals("Scalar replaced buffer has the wrong values", "128", source);
+	}
+
+	@Test
+	public void testFieldsInLoops() throws Exception {
+		String source = "_function void main\nmalloc 9\npointer p = ret_pointer\nint i = 0\nless i 5\n" +
+				"_while ret_bool\nget_int p\nadd ret_int i\nset_int p ret_int\nadd i 1\ni = ret_int\nless i 5\n_end\n" +
+				"get_int p\nto_string ret_int\nprint ret_string\nadd p 8\nget_byte ret_pointer\nto_string ret_byte\nprint ret_string\nfree p\n_end";
+		String main = optimizeMain(source);
+		assertFalse("Sum in the heap wasn't replaced:\n" + main, main.contains("malloc"));
+		assertOutputEquals("Fields merged by phis have the wrong values", "100", source);
+	}
+
+	@Test
+	public void testReferencedVariables() throws Exception {
+		String source = "_function void main\nint a = 1\nget_ref a\nset_int ret_pointer 2\nadd a 3\n" +
+				"to_string ret_int\nprint ret_string\n_end";
+		String main = optimizeMain(source);
+		assertFalse("Cell of a locally referenced variable wasn't replaced:\n" + main, main.contains("malloc"));
+		assertOutputEquals("Replaced cell has the wrong value", "5", source);
+	}
+
+	@Test
+	public void testEscapingPointers() throws Exception {
+		String source = "_function void keep : pointer p\nset_int p 7\n_end\n" +
+				"_function pointer make\nmalloc 4\n_return ret_pointer\n_end\n" +
+				"_function void main\nmalloc 4\nkeep ret_pointer\nmake\nset_int ret_pointer 1\n" +
+				"int a = 1\nget_ref a\nkeep ret_pointer\nto_string a\nprint ret_string\n_end";
+		IRProgram ir = optimize(analyse(source));
+		for (IRFunction function : ir.getFunctions()) {
+			assertFalse("Escaping allocation was optimized:\n" + function,
+					function.toString().contains("[stack]") || (function.getName().equals("make")
+							&& !function.toString().contains("malloc")));
+		}
+		assertTrue(ir.getFunction(ir.getMainFunction()).toString().contains("malloc"));
+		assertOutputEquals("Escaping cell has the wrong value", "7", source);
+	}
+
+	@Test
+	public void testStackAllocation() throws Exception {
+		String source = "_function void main\nmalloc 40\npointer p = ret_pointer\nint i = 0\nless i 10\n" +
+				"_while ret_bool\nmul i 4\nadd p ret_int\nset_int ret_pointer i\nadd i 1\ni = ret_int\nless i 10\n_end\n" +
+				"add p 36\nget_int ret_pointer\nto_string ret_int\nprint ret_string\nfree p\n_end";
+		String main = optimizeMain(source);
+		assertTrue("Buffer with variable offsets wasn't allocated on the stack:\n" + main,
+				main.contains("malloc 40 : pointer [stack]"));
+		assertOutputEquals("Stack allocated buffer has the wrong values", "9", source);
+		assertFalse("Large buffer was allocated on the stack",
+				optimizeMain(source.replace("40", "4000")).contains("[stack]"));
+	}
+
+	@Test
+	public void testUseAfterFree() throws Exception {
+		String main = optimizeMain("_function void main\nmalloc 4\npointer p = ret_pointer\npointer q = p\nset_int p 1\n" +
+				"free p\nget_int q\nto_string ret_int\nprint ret_string\n_end");
+		assertTrue("Allocation used after a free was optimized:\n" + main, main.contains("malloc")
+				&& !main.contains("[stack]"));
+		main = optimizeMain("_function void main\nmalloc 4\npointer p = ret_pointer\nint i = 0\nless i 2\n" +
+				"_while ret_bool\nfree p\nadd i 1\ni = ret_int\nless i 2\n_end\n_end");
+		assertTrue("Allocation freed twice was optimized:\n" + main, main.contains("free"));
+	}
+}
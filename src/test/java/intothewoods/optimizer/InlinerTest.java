@@ -0,0 +1,101 @@
+package intothewoods.optimizer;
+
+import intothewoods.analyser.Program;
+import intothewoods.interpreter.Interpreter;
+import intothewoods.interpreter.Profiler;
+import intothewoods.ir.IRBuilder;
+import intothewoods.ir.IRFunction;
+import intothewoods.ir.IRInterpreter;
+import intothewoods.ir.IROpcode;
+import intothewoods.ir.IRProgram;
+import intothewoods.ir.IRVerifier;
+import intothewoods.ir.IntList;
+import intothewoods.runtime.AbstractEngineTest;
+import intothewoods.runtime.BasicHeap;
+import intothewoods.runtime.OakRuntime;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the inlining of user defined functions.
+ */
+public class InlinerTest extends AbstractEngineTest {
+
+	@Override
+	protected int execute(Program program, OakRuntime runtime) throws Exception {
+		IRProgram ir = new IRBuilder(program).build();
+		new Inliner(1000, Inliner.DEFAULT_MAX_FUNCTION_SIZE, null).run(ir);
+		IRVerifier.verify(ir);
+		return new IRInterpreter(ir, runtime).run();
+	}
+
+	private IRFunction inlineMain(String source, Inliner inliner) throws Exception {
+		IRProgram ir = new IRBuilder(analyse(source)).build();
+		inliner.run(ir);
+		IRVerifier.verify(ir);
+		return ir.getFunction(ir.getMainFunction());
+	}
+
+	private int countCalls(IRFunction function) {
+		int count = 0;
+		for (int block = 0; block < function.getBlockCount(); block++) {
+			IntList instructions = function.getInstructions(block);
+			for (int i = 0; i < instructions.size(); i++) {
+				if (function.getOpcode(instructions.get(i)) == IROpcode.CALL) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	private static final String ABS = "_function int abs : int a\nless a 0\n_if ret_bool\nsub 0 a\n_return ret_int\n" +
+			"_end\n_return a\n_end\n";
+
+	@Test
+	public void testInlineMultipleReturns() throws Exception {
+		String source = ABS + "_function void main\nabs -3\nabs ret_int\nint b = ret_int\nabs 4\nadd b ret_int\n" +
+				"to_string ret_int\nprint ret_string\n_end";
+		IRFunction main = inlineMain(source, new Inliner());
+		assertEquals("Small function wasn't inlined:\n" + main, 0, countCalls(main));
+		assertOutputEquals("Inlined function returned wrong value", "7", source);
+	}
+
+	@Test
+	public void testNestedAndRecursiveFunctions() throws Exception {
+		String source = ABS + "_function int twice : int a\nabs a\nmul ret_int 2\n_return ret_int\n_end\n" +
+				"_function int fact : int n\nless n 2\n_if ret_bool\n_return 1\n_end\nsub n 1\nfact ret_int\n" +
+				"mul ret_int n\n_return ret_int\n_end\n" +
+				"_function void main\ntwice -5\nfact ret_int\nto_string ret_int\nprint ret_string\n_end";
+		IRFunction main = inlineMain(source, new Inliner());
+		assertEquals("Only the recursive function should be called:\n" + main, 1, countCalls(main));
+		assertOutputEquals("Inlining nested functions failed", "3628800", source);
+	}
+
+	@Test
+	public void testBudget() throws Exception {
+		String source = ABS + "_function void main\nabs -3\n_end";
+		assertEquals("Function above the budget was inlined", 1, countCalls(inlineMain(source,
+				new Inliner(3, Inliner.DEFAULT_MAX_FUNCTION_SIZE, null))));
+	}
+
+	@Test
+	public void testProfileGuidedBudget() throws Exception {
+		String source = ABS + "_function void cold\nabs 1\n_end\n_function void main\nint i = 0\n_while true\n" +
+				"less i 2000\n_if ret_bool\n_else\n_return\n_end\nabs i\nadd i 1\ni = ret_int\n_end\n_end";
+		Program program = analyse(source);
+		Profiler profiler = new Profiler(program);
+		new Interpreter(program, new OakRuntime(new BasicHeap(), new ByteArrayInputStream(new byte[0]),
+				new ByteArrayOutputStream(), new ByteArrayOutputStream()), profiler).run();
+		IRProgram ir = new IRBuilder(program).build();
+		int size = ir.getFunction(0).getInstructionCount();
+		new Inliner(size / 2, Inliner.DEFAULT_MAX_FUNCTION_SIZE, profiler).run(ir);
+		IRVerifier.verify(ir);
+		assertEquals("Hot function wasn't inlined", 0, countCalls(ir.getFunction(ir.getMainFunction())));
+		assertEquals("Cold call was inlined", 1, countCalls(ir.getFunction(1)));
+	}
+}
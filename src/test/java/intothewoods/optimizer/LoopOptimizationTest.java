@@ -0,0 +1,106 @@
+package intothewoods.optimizer;
+
+import intothewoods.analyser.Program;
+import intothewoods.common.Builtin;
+import intothewoods.ir.Dominators;
+import intothewoods.ir.IRBuilder;
+import intothewoods.ir.IRFunction;
+import intothewoods.ir.IRInterpreter;
+import intothewoods.ir.IROpcode;
+import intothewoods.ir.IRProgram;
+import intothewoods.ir.IRVerifier;
+import intothewoods.ir.IntList;
+import intothewoods.ir.Loops;
+import intothewoods.runtime.AbstractEngineTest;
+import intothewoods.runtime.OakRuntime;
+import intothewoods.runtime.OakRuntimeException;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the loop invariant code motion and the induction variable optimization.
+ */
+public class LoopOptimizationTest extends AbstractEngineTest {
+
+	private static final String SUM = "_function int main\nint n = 10\nint sum = 0\nint i = 0\nless i n\n" +
+			"_while ret_bool\nmul n 3\nmul i 4\nadd ret_int sum\nsum = ret_int\nadd i 1\ni = ret_int\nless i n\n_end\n" +
+			"to_string sum\nprint ret_string\n_return 0\n_end";
+
+	@Override
+	protected int execute(Program program, OakRuntime runtime) throws Exception {
+		IRProgram ir = new IRBuilder(program).build();
+		optimize(ir.getInitialization());
+		for (IRFunction function : ir.getFunctions()) {
+			optimize(function);
+		}
+		return new IRInterpreter(ir, runtime).run();
+	}
+
+	private void optimize(IRFunction function) {
+		new LoopInvariantCodeMotion().run(function);
+		IRVerifier.verify(function);
+		new InductionVariables().run(function);
+		IRVerifier.verify(function);
+		new DeadCodeElimination().run(function);
+		IRVerifier.verify(function);
+	}
+
+	private IRFunction optimizeMain(String source) throws Exception {
+		IRProgram ir = new IRBuilder(analyse(source)).build();
+		IRFunction main = ir.getFunction(ir.getMainFunction());
+		optimize(main);
+		return main;
+	}
+
+	private int countInLoops(IRFunction function, Builtin builtin) {
+		Loops loops = new Loops(function, new Dominators(function));
+		int count = 0;
+		for (int block = 0; block < function.getBlockCount(); block++) {
+			IntList instructions = function.getInstructions(block);
+			for (int i = 0; loops.getLoop(block) != null && i < instructions.size(); i++) {
+				int instruction = instructions.get(i);
+				if (function.getOpcode(instruction) == IROpcode.BUILTIN && function.getBuiltin(instruction) == builtin) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	@Test
+	public void testHoistInvariants() throws Exception {
+		IRFunction main = optimizeMain("_function int main\nint n = 7\nint i = 0\n_while true\n" +
+				"mul n 3\nless i ret_int\n_if ret_bool\n_else\n_return i\n_end\nadd i 1\ni = ret_int\n_end\n_return 0\n_end");
+		assertEquals("Invariant multiplication wasn't hoisted:\n" + main, 0, countInLoops(main, Builtin.MUL_INT));
+	}
+
+	@Test
+	public void testFailingInstructionsStayInLoop() throws Exception {
+		String source = "_function void main\nint zero = 0\nint i = 0\n_while false\ndiv 1 zero\n_end\n" +
+				"_while true\nprint \"a\"\ndiv 1 zero\n_end\n_end";
+		IRFunction main = optimizeMain(source);
+		assertEquals("Failing division was hoisted:\n" + main, 2, countInLoops(main, Builtin.DIV_INT));
+		try {
+			run(source, "");
+			fail("Division by zero didn't fail");
+		} catch (OakRuntimeException ex) {
+			assertEquals("Division by zero reported in wrong line", 9, ex.getLine());
+		}
+	}
+
+	@Test
+	public void testCountedLoop() throws Exception {
+		IRFunction main = optimizeMain(SUM);
+		List<InductionVariables.CountedLoop> loops = InductionVariables.findCountedLoops(main);
+		assertEquals("Counted loop wasn't recognized:\n" + main, 1, loops.size());
+		InductionVariables.CountedLoop loop = loops.get(0);
+		assertEquals(1, loop.getVariable().getStep());
+		assertTrue(loop.isUpperBound(main));
+		assertEquals("Old comparisons weren't removed:\n" + main, 1, countInLoops(main, Builtin.LESS_INT));
+		assertEquals("Multiplication wasn't strength reduced:\n" + main, 0, countInLoops(main, Builtin.MUL_INT));
+		assertOutputEquals("Optimized loop computed wrong sum", "180", SUM);
+	}
+}
@@ -0,0 +1,94 @@
+package intothewoods.optimizer;
+
+import intothewoods.analyser.Program;
+import intothewoods.ir.IRBuilder;
+import intothewoods.ir.IRInterpreter;
+import intothewoods.ir.IRProgram;
+import intothewoods.runtime.AbstractEngineTest;
+import intothewoods.runtime.OakRuntime;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the pass manager with the optimization pipelines, the engine tests run the fully optimized IR.
+ */
+public class PassManagerTest extends AbstractEngineTest {
+
+	private static final String SOURCE = "int total = 0\n" +
+			"_function int square : int a\nmul a a\n_return ret_int\n_end\n" +
+			"_function int sum : pointer p\nint s = 0\nmem_size p\nint n = ret_int\nint i = 0\nless i n\n" +
+			"_while ret_bool\nadd p i\nget_byte ret_pointer\nto_int ret_byte\nadd s ret_int\ns = ret_int\nadd i 1\n" +
+			"i = ret_int\nless i n\n_end\n_return s\n_end\n" +
+			"_function void unused\nprint \"unused\"\n_end\n" +
+			"_function void main\nmalloc 3\npointer p = ret_pointer\nset_byte p 1b\nadd p 2\nset_byte ret_pointer 4b\n" +
+			"sum p\nsquare ret_int\nadd total ret_int\ntotal = ret_int\nint i = 0\nless i 3\n_while ret_bool\n" +
+			"square i\nadd total ret_int\ntotal = ret_int\nadd i 1\ni = ret_int\nless i 3\n_end\n" +
+			"to_string total\nprint ret_string\n_end";
+
+	@Override
+	protected int execute(Program program, OakRuntime runtime) throws Exception {
+		return new IRInterpreter(optimize(program, PassManager.MAX_LEVEL, 4), runtime).run();
+	}
+
+	private static IRProgram optimize(Program program, int level, int threads) {
+		IRProgram ir = new IRBuilder(program).build();
+		try (PassManager manager = PassManager.create(level, threads)) {
+			manager.setVerifying(true);
+			manager.optimize(ir);
+		}
+		return ir;
+	}
+
+	@Test
+	public void testOptimizedProgram() throws Exception {
+		assertOutputEquals("Optimized program has the wrong result", "30", SOURCE);
+		String optimized = optimize(analyse(SOURCE), PassManager.MAX_LEVEL, 2).toString();
+		assertFalse("Unused function wasn't removed:\n" + optimized, optimized.contains("function void unused"));
+		assertFalse("Small function wasn't inlined:\n" + optimized, optimized.contains("call"));
+	}
+
+	@Test
+	public void testDeterministicOutput() throws Exception {
+		String expected = optimize(analyse(SOURCE), PassManager.MAX_LEVEL, 1).toString();
+		for (int threads = 2; threads <= 8; threads *= 2) {
+			assertEquals("Result depends on the number of threads", expected,
+					optimize(analyse(SOURCE), PassManager.MAX_LEVEL, threads).toString());
+		}
+	}
+
+	@Test
+	public void testLevelZero() throws Exception {
+		IRProgram ir = new IRBuilder(analyse(SOURCE)).build();
+		String unoptimized = ir.toString();
+		try (PassManager manager = PassManager.create(0, 2)) {
+			assertFalse("Empty pipeline changed the program", manager.optimize(ir));
+			assertTrue(manager.getStatistics().isEmpty());
+		}
+		assertEquals(unoptimized, ir.toString());
+	}
+
+	@Test
+	public void testStatistics() throws Exception {
+		IRProgram ir = new IRBuilder(analyse(SOURCE)).build();
+		int functions = ir.getFunctions().size() + 1;
+		int size = ir.getInstructionCount();
+		try (PassManager manager = PassManager.create(1, 2)) {
+			manager.optimize(ir);
+			List<PassManager.PassStatistics> statistics = manager.getStatistics();
+			String[] names = {"sccp", "copy", "dce", "prune"};
+			long delta = 0;
+			for (int i = 0; i < names.length; i++) {
+				assertEquals(names[i], statistics.get(i).getName());
+				assertTrue(manager.getReport().contains("  " + names[i] + ": "));
+				delta += statistics.get(i).getInstructionDelta();
+			}
+			assertEquals("Function pass wasn't run once per function", functions, statistics.get(0).getRuns());
+			assertEquals("Program pass wasn't run once", 1, statistics.get(3).getRuns());
+			assertTrue("Unused function wasn't removed", statistics.get(3).getInstructionDelta() < 0);
+			assertEquals("Instruction deltas don't add up", ir.getInstructionCount() - size, delta);
+		}
+	}
+}
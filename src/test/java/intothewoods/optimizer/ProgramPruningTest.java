@@ -0,0 +1,66 @@
+package intothewoods.optimizer;
+
+import intothewoods.analyser.Program;
+import intothewoods.common.Type;
+import intothewoods.ir.IRBuilder;
+import intothewoods.ir.IRFunction;
+import intothewoods.ir.IRInterpreter;
+import intothewoods.ir.IRProgram;
+import intothewoods.ir.IRVerifier;
+import intothewoods.runtime.AbstractEngineTest;
+import intothewoods.runtime.OakRuntime;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the whole program and the function local dead code elimination.
+ */
+public class ProgramPruningTest extends AbstractEngineTest {
+
+	@Override
+	protected int execute(Program program, OakRuntime runtime) throws Exception {
+		IRProgram ir = prune(program);
+		return new IRInterpreter(ir, runtime).run();
+	}
+
+	private IRProgram prune(Program program) {
+		IRProgram ir = new IRBuilder(program).build();
+		new ProgramPruning().run(ir);
+		IRVerifier.verify(ir);
+		return ir;
+	}
+
+	@Test
+	public void testUnreachableFunctions() throws Exception {
+		IRProgram ir = prune(analyse("_function void unused\nused\n_end\n_function void used\nprint \"a\"\n_end\n" +
+				"_function void helper\n_end\n_function void main\nused\n_end\n" +
+				"_function void cycle\ncycle\n_end"));
+		assertNull("Uncalled function wasn't removed", ir.getFunction(0));
+		assertNotNull("Called function was removed", ir.getFunction(1));
+		assertNull(ir.getFunction(2));
+		assertNull("Recursive uncalled function wasn't removed", ir.getFunction(4));
+	}
+
+	@Test
+	public void testUnreadGlobals() throws Exception {
+		String source = "int written = 1\nint read = 2\n_function void main\nmul read 3\nwritten = ret_int\n" +
+				"to_string read\nprint ret_string\n_end";
+		IRProgram ir = prune(analyse(source));
+		assertEquals("Unread global wasn't removed", Type.VOID, ir.getGlobalTypes()[0]);
+		assertEquals(Type.INT, ir.getGlobalTypes()[1]);
+		IRFunction main = ir.getFunction(ir.getMainFunction());
+		assertFalse("Computation of dead store wasn't removed:\n" + main, main.toString().contains("mul_int"));
+		assertOutputEquals("Pruned program failed", "2", source);
+	}
+
+	@Test
+	public void testDeadValuesAndSideEffects() throws Exception {
+		IRProgram ir = prune(analyse("_function int main\nint a = 5\nadd a 1\nsub a 1\nprint \"x\"\n" +
+				"div a 0\n_return a\n_end"));
+		String main = ir.getFunction(ir.getMainFunction()).toString();
+		assertFalse("Unused ret_int values weren't removed:\n" + main, main.contains("add_int") || main.contains("sub_int"));
+		assertTrue("Side effect was removed:\n" + main, main.contains("print"));
+		assertTrue("Failing division was removed:\n" + main, main.contains("div_int"));
+	}
+}
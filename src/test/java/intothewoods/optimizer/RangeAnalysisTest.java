@@ -0,0 +1,131 @@
+package intothewoods.optimizer;
+
+import intothewoods.analyser.Program;
+import intothewoods.ir.IRBuilder;
+import intothewoods.ir.IRFunction;
+import intothewoods.ir.IRInterpreter;
+import intothewoods.ir.IRProgram;
+import intothewoods.ir.IRVerifier;
+import intothewoods.runtime.AbstractEngineTest;
+import intothewoods.runtime.OakRuntime;
+import intothewoods.runtime.OakRuntimeException;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the elimination of range checks, statically and with checks before loops.
+ */
+public class RangeAnalysisTest extends AbstractEngineTest {
+
+	@Override
+	protected int execute(Program program, OakRuntime runtime) throws Exception {
+		return new IRInterpreter(optimize(program), runtime).run();
+	}
+
+	private IRProgram optimize(Program program) {
+		IRProgram ir = new IRBuilder(program).build();
+		for (IRFunction function : ir.getFunctions()) {
+			new InductionVariables().run(function);
+			new RangeAnalysis().run(function);
+			new DeadCodeElimination().run(function);
+		}
+		IRVerifier.verify(ir);
+		return ir;
+	}
+
+	private IRFunction optimizeFunction(String source, String name) throws Exception {
+		for (IRFunction function : optimize(analyse(source)).getFunctions()) {
+			if (function.getName().equals(name)) {
+				return function;
+			}
+		}
+		throw new AssertionError("Function " + name + " not found");
+	}
+
+	private static int count(String text, String part) {
+		int count = 0;
+		for (int index = text.indexOf(part); index >= 0; index = text.indexOf(part, index + 1)) {
+			count++;
+		}
+		return count;
+	}
+
+	private static final String SUM = "_function int sum : pointer p\nint s = 0\nmem_size p\nint n = ret_int\n" +
+			"int i = 0\nless i n\n_while ret_bool\nadd p i\nget_byte ret_pointer\nto_int ret_byte\nadd s ret_int\n" +
+			"s = ret_int\nadd i 1\ni = ret_int\nless i n\n_end\n_return s\n_end\n";
+
+	@Test
+	public void testLoopOverMemorySize() throws Exception {
+		String function = optimizeFunction(SUM + "_function void main\n_end", "sum").toString();
+		assertEquals("Accesses weren't proven:\n" + function, 2, count(function, "[unchecked]"));
+		assertFalse("Loop was duplicated:\n" + function, function.contains("div_int"));
+		assertOutputEquals("Unchecked loop has the wrong result", "6", SUM + "_function void main\n" +
+				"malloc 3\npointer p = ret_pointer\nset_byte p 1b\nadd p 1\nset_byte ret_pointer 2b\nadd p 2\n" +
+				"set_byte ret_pointer 3b\nsum p\nto_string ret_int\nprint ret_string\n_end");
+	}
+
+	@Test
+	public void testWordLoop() throws Exception {
+		String source = "_function int sum : pointer p\nint s = 0\nmem_size p\ndiv ret_int 4\nint n = ret_int\n" +
+				"int i = 0\nless i n\n_while ret_bool\nmul i 4\nadd p ret_int\nget_int ret_pointer\nadd s ret_int\n" +
+				"s = ret_int\nadd i 1\ni = ret_int\nless i n\n_end\n_return s\n_end\n" +
+				"_function void main\nmalloc 11\npointer p = ret_pointer\nset_int p 5\nadd p 4\nset_int ret_pointer 7\n" +
+				"sum p\nto_string ret_int\nprint ret_string\n_end";
+		String function = optimizeFunction(source, "sum").toString();
+		assertEquals("Word accesses weren't proven:\n" + function, 2, count(function, "[unchecked]"));
+		assertOutputEquals("Unchecked word loop has the wrong result", "12", source);
+	}
+
+	@Test
+	public void testConstantSizes() throws Exception {
+		String source = "_function void main\nmalloc 8\npointer p = ret_pointer\nset_int p 1\nadd p 4\n" +
+				"set_int ret_pointer 2\nadd p 8\nadd p 6\nget_int ret_pointer\n_end";
+		String main = optimizeFunction(source, "main").toString();
+		assertEquals("Constant accesses weren't proven:\n" + main, 5, count(main, "[unchecked]"));
+		assertFalse("Access out of range was proven:\n" + main, main.contains("get_int v") && main.contains(
+				": int [unchecked]"));
+		try {
+			run(source, "");
+			fail("Access out of range didn't fail");
+		} catch (OakRuntimeException ex) {
+			assertEquals("Access out of range reported in wrong line", 9, ex.getLine());
+		}
+	}
+
+	@Test
+	public void testCheckBeforeLoop() throws Exception {
+		String fill = "_function void fill : pointer p, int n\nint i = 0\nless i n\n_while ret_bool\nmul i 4\n" +
+				"add p ret_int\nset_int ret_pointer i\nadd i 1\ni = ret_int\nless i n\n_end\n_end\n";
+		IRFunction function = optimizeFunction(fill + "_function void main\n_end", "fill");
+		String text = function.toString();
+		assertEquals("Loop wasn't duplicated:\n" + text, 2, count(text, "set_int"));
+		assertEquals("Copied loop isn't unchecked:\n" + text, 2, count(text, "[unchecked]"));
+		String main = "_function void main\nmalloc 12\npointer p = ret_pointer\nfill p 3\nadd p 8\n" +
+				"get_int ret_pointer\nto_string ret_int\nprint ret_string\n";
+		assertOutputEquals("Unchecked copy has the wrong result", "2", fill + main + "_end");
+		try {
+			run(fill + main + "fill p 4\n_end", "");
+			fail("Checked loop didn't fail");
+		} catch (OakRuntimeException ex) {
+			assertEquals("Access out of range reported in wrong line", 7, ex.getLine());
+		}
+	}
+
+	@Test
+	public void testLoopValuesAfterDuplication() throws Exception {
+		String source = "_function int fill : pointer p, int start, int n\nint i = start\nless i n\n" +
+				"_while ret_bool\nadd p i\nset_byte ret_pointer 1b\nadd i 1\ni = ret_int\nless i n\n_end\n_return i\n_end\n" +
+				"_function void main\nmalloc 4\npointer p = ret_pointer\nfill p 1 4\nto_string ret_int\n" +
+				"print ret_string\nfill p 2 5\n_end";
+		String function = optimizeFunction(source, "fill").toString();
+		assertTrue("Loop wasn't duplicated:\n" + function, function.contains("[unchecked]"));
+		try {
+			run(source, "");
+			fail("Out of range access didn't fail");
+		} catch (OakRuntimeException ex) {
+			assertTrue(ex.getMessage(), ex.getMessage().contains("too small"));
+		}
+		assertOutputEquals("Loop variable after the duplicated loop is wrong", "4", source.replace("fill p 2 5\n", ""));
+	}
+}
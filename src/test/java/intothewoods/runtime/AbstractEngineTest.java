@@ -0,0 +1,227 @@
+package intothewoods.runtime;
+
+import intothewoods.analyser.Program;
+import intothewoods.analyser.SemanticAnalyser;
+import intothewoods.lexer.BasicLexer;
+import intothewoods.parser.BasicParser;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests an execution engine by running small programs, subclasses run them with a specific engine.
+ *
+ * It assumes that the lexer, the parser and the semantic analyser work correctly.
+ */
+public abstract class AbstractEngineTest {
+
+	protected int exitCode;
+
+	@Test
+	public void testLoop() throws Exception {
+		assertOutputEquals("Running loop failed", "55",
+				"_function void main\n" +
+				"int i = 0\nint sum = 0\nbool running = true\n" +
+				"_while running\n" +
+				"add i 1\ni = ret_int\nadd sum i\nsum = ret_int\nless i 10\nrunning = ret_bool\n" +
+				"_end\n" +
+				"to_string sum\nprint ret_string\n" +
+				"_end");
+	}
+
+	@Test
+	public void testRecursion() throws Exception {
+		assertOutputEquals("Running recursive function failed", "6765",
+				"_function int fib : int n\n" +
+				"less n 2\n" +
+				"_if ret_bool\n_return n\n_end\n" +
+				"sub n 1\nfib ret_int\nint a = ret_int\n" +
+				"sub n 2\nfib ret_int\nadd a ret_int\n" +
+				"_return ret_int\n" +
+				"_end\n" +
+				"_function void main\nfib 20\nto_string ret_int\nprint ret_string\n_end");
+	}
+
+	@Test
+	public void testGlobalsAndConditions() throws Exception {
+		assertOutputEquals("Running conditions failed", "else",
+				"bool flag = false\nstring yes = \"if\"\n" +
+				"_function void main\n" +
+				"_if flag\nprint yes\n_else\nprint \"else\"\n_end\n" +
+				"_end");
+	}
+
+	@Test
+	public void testStrings() throws Exception {
+		assertOutputEquals("Running string functions failed", "Hello World\ntrue",
+				"_function void main\n" +
+				"append \"Hello \" \"World\\n\"\nprint ret_string\n" +
+				"append \"a\" \"b\"\nequal ret_string \"ab\"\n" +
+				"_if ret_bool\nprint \"true\"\n_end\n" +
+				"_end");
+	}
+
+	@Test
+	public void testWritingIntoAppendedStrings() throws Exception {
+		assertOutputEquals("Writing via to_pointer didn't change the appended string", "Zbc Zbcd",
+				"_function void main\n" +
+				"append \"a\" \"b\"\nappend ret_string \"c\"\nstring s = ret_string\n" +
+				"to_pointer s\npointer p = ret_pointer\nset_byte p 90b\n" +
+				"print s\nprint \" \"\nappend s \"d\"\nprint ret_string\n" +
+				"free p\n" +
+				"_end");
+	}
+
+	@Test
+	public void testPointers() throws Exception {
+		assertOutputEquals("Running pointer functions failed", "42 4",
+				"_function void main\n" +
+				"malloc 8\npointer p = ret_pointer\n" +
+				"add p 4\nset_int ret_pointer 42\n" +
+				"add p 4\nget_int ret_pointer\nto_string ret_int\nprint ret_string\n" +
+				"print \" \"\nadd p 4\nmem_size ret_pointer\nto_string ret_int\nprint ret_string\n" +
+				"free p\n" +
+				"_end");
+	}
+
+	@Test
+	public void testGetRef() throws Exception {
+		assertOutputEquals("Running get_ref failed", "7",
+				"_function void setSeven : pointer p\nset_int p 7\n_end\n" +
+				"_function void main\n" +
+				"int a = 1\nget_ref a\nsetSeven ret_pointer\nto_string a\nprint ret_string\n" +
+				"_end");
+	}
+
+	@Test
+	public void testFreeingCells() throws Exception {
+		AbstractHeap heap = new BasicHeap();
+		heap.setMemoryLimit(1 << 14);
+		assertEquals("Memory cells of referenced variables aren't freed", "60000",
+				run("_function void setSix : pointer p\nset_int p 6\n_end\n" +
+				"_function int six : int n\nint a = n\nget_ref a\nsetSix ret_pointer\n_return a\n_end\n" +
+				"_function void main\n" +
+				"int i = 0\nint sum = 0\nbool running = true\n" +
+				"_while running\n" +
+				"int b = 0\nget_ref b\nsetSix ret_pointer\nsix b\nadd sum ret_int\nsum = ret_int\n" +
+				"add i 1\ni = ret_int\nless i 10000\nrunning = ret_bool\n" +
+				"_end\n" +
+				"to_string sum\nprint ret_string\n" +
+				"_end", "", heap));
+	}
+
+	@Test
+	public void testFreeingCellsOfRecursiveCalls() throws Exception {
+		AbstractHeap heap = new BasicHeap();
+		heap.setMemoryLimit(1 << 14);
+		assertEquals("Memory cells of recursive calls aren't freed", "100000",
+				run("_function int depth : int n\nint a = 1\nget_ref a\nless n 1\n_if ret_bool\n_return a\n_end\n" +
+				"sub n 1\ndepth ret_int\nadd ret_int a\n_return ret_int\n_end\n" +
+				"_function void main\n" +
+				"int i = 0\nint sum = 0\nbool running = true\n" +
+				"_while running\n" +
+				"depth 99\nadd sum ret_int\nsum = ret_int\n" +
+				"add i 1\ni = ret_int\nless i 1000\nrunning = ret_bool\n" +
+				"_end\n" +
+				"to_string sum\nprint ret_string\n" +
+				"_end", "", heap));
+	}
+
+	@Test
+	public void testFloats() throws Exception {
+		assertOutputEquals("Running float functions failed", "2.5 3",
+				"_function void main\n" +
+				"div 5.0 2.0\nfloat f = ret_float\nto_string f\nprint ret_string\nprint \" \"\n" +
+				"round f\nto_string ret_int\nprint ret_string\n" +
+				"_end");
+	}
+
+	@Test
+	public void testShortestFloatDigits() throws Exception {
+		assertOutputEquals("Floats aren't formatted with the shortest digits", "1.2345679E8 0.001 -2.5E-4 1.0E-45",
+				"_function void main\n" +
+				"to_string 123456789.0\nprint ret_string\nprint \" \"\n" +
+				"to_string 0.001\nprint ret_string\nprint \" \"\n" +
+				"to_string -0.00025\nprint ret_string\nprint \" \"\n" +
+				"div 1.0E-38 10000000.0\nto_string ret_float\nprint ret_string\n" +
+				"_end");
+	}
+
+	@Test
+	public void testInput() throws Exception {
+		assertEquals("Reading input failed", "line",
+				run("_function void main\nread_string\nprint ret_string\n_end", "line\nrest"));
+	}
+
+	@Test
+	public void testExitCode() throws Exception {
+		run("_function int main\nexit 3\n_return 0\n_end", "");
+		assertEquals("Exiting failed", 3, exitCode);
+		run("_function int main\n_return 4\n_end", "");
+		assertEquals("Returning exit code from main failed", 4, exitCode);
+	}
+
+	@Test
+	public void testRuntimeError() throws Exception {
+		try {
+			run("_function void main\nint a = 0\n\ndiv 1 a\n_end", "");
+			fail("Division by zero didn't fail");
+		} catch (OakRuntimeException ex) {
+			assertEquals("Division by zero reported in wrong line", 4, ex.getLine());
+		}
+	}
+
+	@Test
+	public void testRuntimeErrorInFunction() throws Exception {
+		try {
+			run("_function int f : int a\nint b = 2\ndiv b a\n_return ret_int\n_end\n_function void main\nf 0\n_end", "");
+			fail("Division by zero didn't fail");
+		} catch (OakRuntimeException ex) {
+			assertEquals("Error at line 3: Division by zero", ex.getMessage());
+		}
+	}
+
+	@Test(expected = OakRuntimeException.class)
+	public void testStackOverflow() throws Exception {
+		run("_function void f\nf\n_end\n_function void main\nf\n_end", "");
+	}
+
+	@Test(expected = OakRuntimeException.class)
+	public void testAssertion() throws Exception {
+		run("_function void main\nassert false \"message\"\n_end", "");
+	}
+
+	protected void assertOutputEquals(String message, String expectedOutput, String input) throws Exception {
+		assertEquals(message, expectedOutput, run(input, ""));
+	}
+
+	/**
+	 * Run the given program with the tested engine.
+	 * @param program analysed program
+	 * @param runtime runtime to use
+	 * @return exit code
+	 * @throws Exception the program failed
+	 */
+	protected abstract int execute(Program program, OakRuntime runtime) throws Exception;
+
+	protected Program analyse(String source) throws Exception {
+		BasicParser parser = new BasicParser(new BasicLexer(new ByteArrayInputStream(source.getBytes())));
+		return new SemanticAnalyser(parser.parseTokens()).analyse();
+	}
+
+	protected String run(String source, String input) throws Exception {
+		return run(source, input, new BasicHeap());
+	}
+
+	protected String run(String source, String input, AbstractHeap heap) throws Exception {
+		Program program = analyse(source);
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		OakRuntime runtime = new OakRuntime(heap, new ByteArrayInputStream(input.getBytes()),
+				output, new ByteArrayOutputStream());
+		exitCode = execute(program, runtime);
+		return output.toString();
+	}
+}
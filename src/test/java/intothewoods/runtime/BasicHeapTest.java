@@ -0,0 +1,65 @@
+package intothewoods.runtime;
+
+import intothewoods.common.Type;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the BasicHeap and the pointer operations of the AbstractHeap.
+ */
+public class BasicHeapTest {
+
+	protected final AbstractHeap heap = createHeap();
+
+	protected AbstractHeap createHeap() {
+		return new BasicHeap();
+	}
+
+	@Test
+	public void testLoadAndStore() throws Exception {
+		long pointer = heap.malloc(16);
+		assertEquals("Allocating failed", 16, AbstractHeap.memSize(pointer));
+		heap.store(pointer, Type.INT, -123456);
+		assertEquals("Storing int failed", -123456, heap.load(pointer, Type.INT));
+		heap.store(pointer, Type.POINTER, Pointers.create(42, -7));
+		assertEquals("Storing pointer failed", Pointers.create(42, -7), heap.load(pointer, Type.POINTER));
+		heap.store(pointer, Type.BYTE, -3);
+		assertEquals("Storing byte failed", -3, heap.load(pointer, Type.BYTE));
+	}
+
+	@Test
+	public void testAppendAndEquality() throws Exception {
+		long first = heap.allocateBytes("ab".getBytes());
+		long second = heap.allocateBytes("cd".getBytes());
+		long result = heap.append(first, second);
+		assertArrayEquals("Appending failed", "abcd".getBytes(), heap.toBytes(result));
+		assertTrue("Comparing bytes failed", heap.equalBytes(result, heap.allocateBytes("abcd".getBytes())));
+		assertFalse("Comparing bytes failed", heap.equalBytes(result, first));
+		assertArrayEquals("Cloning failed", "abcd".getBytes(), heap.toBytes(heap.cloneMem(result)));
+	}
+
+	@Test
+	public void testAddOffset() throws Exception {
+		long pointer = heap.malloc(8);
+		long moved = AbstractHeap.addOffset(pointer, 4);
+		assertEquals("Adding offset failed", 4, AbstractHeap.memSize(moved));
+		assertEquals("Adding offset failed", 0, AbstractHeap.memSize(AbstractHeap.addOffset(pointer, 8)));
+	}
+
+	@Test(expected = OakRuntimeException.class)
+	public void testAddOffsetOutOfRange() throws Exception {
+		AbstractHeap.addOffset(heap.malloc(8), 9);
+	}
+
+	@Test(expected = OakRuntimeException.class)
+	public void testAccessTooSmallArea() throws Exception {
+		heap.load(heap.malloc(3), Type.INT);
+	}
+
+	@Test
+	public void testInvalidPointer() throws Exception {
+		assertEquals("Invalid pointer has wrong size", -1, AbstractHeap.memSize(Pointers.INVALID));
+		assertEquals("Empty pointer has wrong size", 0, AbstractHeap.memSize(Pointers.EMPTY));
+	}
+}
@@ -0,0 +1,61 @@
+package intothewoods.runtime;
+
+import intothewoods.common.Builtin;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the buffered input and output of the BufferedRuntime.
+ */
+public class BufferedRuntimeTest {
+
+	private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+	private final ByteArrayOutputStream errorOutput = new ByteArrayOutputStream();
+
+	private BufferedRuntime create(String input, int bufferSize) {
+		return new BufferedRuntime(new SlabHeap(), new ByteArrayInputStream(input.getBytes()), output, errorOutput,
+				bufferSize);
+	}
+
+	@Test
+	public void testPrint() throws Exception {
+		BufferedRuntime runtime = create("", 8);
+		runtime.call(Builtin.PRINT, runtime.allocateString("abc"), 0);
+		runtime.call(Builtin.PRINT_ERR, runtime.allocateString("error"), 0);
+		assertEquals("Output isn't buffered", 0, output.size());
+		runtime.call(Builtin.PRINT, runtime.allocateString("defghijklmn"), 0);
+		assertEquals("Full buffer isn't written", "abcdefgh", output.toString());
+		runtime.flush();
+		assertEquals("Flushing output failed", "abcdefghijklmn", output.toString());
+		assertEquals("Flushing error output failed", "error", errorOutput.toString());
+	}
+
+	@Test
+	public void testFlushOnExit() throws Exception {
+		BufferedRuntime runtime = create("", 1024);
+		runtime.call(Builtin.PRINT, runtime.allocateString("bye"), 0);
+		try {
+			runtime.call(Builtin.EXIT, 3, 0);
+			fail("Exit didn't throw");
+		} catch (ExitException ex) {
+			assertEquals("Output isn't flushed on exit", "bye", output.toString());
+		}
+	}
+
+	@Test
+	public void testRead() throws Exception {
+		BufferedRuntime runtime = create("first line\nx", 4);
+		runtime.call(Builtin.PRINT, runtime.allocateString("prompt"), 0);
+		long line = runtime.call(Builtin.READ_STRING, 0, 0);
+		assertEquals("Output isn't flushed before reading", "prompt", output.toString());
+		assertArrayEquals("Reading line failed", "first line".getBytes(), runtime.getHeap().toBytes(line));
+		assertEquals("Reading byte failed", 'x', runtime.call(Builtin.READ_BYTE, 0, 0));
+		assertEquals("Reading at the end of the input failed", -1, runtime.call(Builtin.READ_BYTE, 0, 0));
+		assertEquals("Reading line at the end of the input failed", 0,
+				AbstractHeap.memSize(runtime.call(Builtin.READ_STRING, 0, 0)));
+	}
+}
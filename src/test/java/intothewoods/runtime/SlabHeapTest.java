@@ -0,0 +1,98 @@
+package intothewoods.runtime;
+
+import intothewoods.common.Type;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the SlabHeap, including the pointer operations tested for the BasicHeap.
+ */
+public class SlabHeapTest extends BasicHeapTest {
+
+	@Override
+	protected AbstractHeap createHeap() {
+		return new SlabHeap();
+	}
+
+	@Test
+	public void testReuseFreedBlock() throws Exception {
+		long first = heap.malloc(12);
+		heap.store(first, Type.INT, 42);
+		heap.free(first);
+		assertEquals("Freeing failed", 0, heap.getAllocatedBytes());
+		long second = heap.malloc(10);
+		assertEquals("Freed block isn't reused", Pointers.begin(first), Pointers.begin(second));
+		assertEquals("Reused block isn't zeroed", 0, heap.load(second, Type.INT));
+		heap.free(second);
+		try {
+			heap.free(second);
+			fail("Double free didn't fail");
+		} catch (OakRuntimeException ex) {
+			assertEquals("Invalid pointer", ex.getMessage());
+		}
+		assertNotEquals("Double free corrupted the free list", Pointers.begin(heap.malloc(16)), Pointers.begin(heap.malloc(16)));
+	}
+
+	@Test
+	public void testLargeArea() throws Exception {
+		int size = SlabHeap.SLAB_SIZE * 2 + 5;
+		long pointer = heap.malloc(size);
+		long last = AbstractHeap.addOffset(pointer, size - 8);
+		heap.store(last, Type.POINTER, -1);
+		assertEquals("Storing at the end of a large area failed", -1, heap.load(last, Type.POINTER));
+		long clone = heap.cloneMem(pointer);
+		assertTrue("Cloning large area failed", heap.equalBytes(pointer, clone));
+		heap.free(pointer);
+		long reused = heap.malloc(size);
+		assertEquals("Freed span isn't reused", Pointers.begin(pointer), Pointers.begin(reused));
+		assertEquals("Reused span isn't zeroed", 0, heap.load(AbstractHeap.addOffset(reused, size - 8), Type.POINTER));
+	}
+
+	@Test
+	public void testReuseMergedSpans() throws Exception {
+		long first = heap.malloc(SlabHeap.SLAB_SIZE);
+		long second = heap.malloc(SlabHeap.SLAB_SIZE * 2);
+		long third = heap.malloc(SlabHeap.SLAB_SIZE);
+		heap.free(first);
+		heap.free(second);
+		long merged = heap.malloc(SlabHeap.SLAB_SIZE * 3);
+		assertEquals("Neighbouring freed spans aren't merged", Pointers.begin(first), Pointers.begin(merged));
+		heap.store(AbstractHeap.addOffset(merged, SlabHeap.SLAB_SIZE * 3 - 8), Type.POINTER, 42);
+		heap.free(merged);
+		long split = heap.malloc(SlabHeap.SLAB_SIZE + 1);
+		assertEquals("Freed span isn't split", Pointers.begin(first), Pointers.begin(split));
+		heap.free(split);
+		heap.free(third);
+	}
+
+	@Test
+	public void testMixedLargeSizes() throws Exception {
+		SlabHeap slabHeap = (SlabHeap) heap;
+		heap.free(heap.malloc(SlabHeap.SLAB_SIZE * 8));
+		long reserved = slabHeap.getReservedBytes();
+		for (int i = 0; i < 64; i++) {
+			heap.free(heap.malloc(SlabHeap.SLAB_SIZE * (i % 7 + 1) + 1));
+		}
+		assertEquals("Freed spans of other sizes aren't reused", reserved, slabHeap.getReservedBytes());
+	}
+
+	@Test
+	public void testOverlappingCopy() throws Exception {
+		long pointer = heap.allocateBytes("abcdef".getBytes());
+		heap.copyMem(AbstractHeap.addOffset(pointer, 2), pointer);
+		assertArrayEquals("Overlapping copy failed", "cdefef".getBytes(), heap.toBytes(pointer));
+	}
+
+	@Test
+	public void testFreeOffsetPointer() throws Exception {
+		long pointer = heap.malloc(16);
+		try {
+			heap.free(AbstractHeap.addOffset(pointer, 8));
+			fail("Freeing a pointer into an area didn't fail");
+		} catch (OakRuntimeException ex) {
+			assertEquals("Invalid pointer", ex.getMessage());
+		}
+		assertEquals("Freeing a pointer into an area released memory", 16, heap.getAllocatedBytes());
+	}
+}
@@ -0,0 +1,88 @@
+package intothewoods.runtime;
+
+import intothewoods.common.Builtin;
+import intothewoods.common.Type;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the in place appending of strings by the OakRuntime.
+ */
+public class StringAppenderTest {
+
+	private final AbstractHeap heap = new SlabHeap();
+	private final OakRuntime runtime = new OakRuntime(heap, new ByteArrayInputStream(new byte[0]),
+			new ByteArrayOutputStream(), new ByteArrayOutputStream());
+
+	private String toString(long string) throws OakRuntimeException {
+		return new String(heap.toBytes(string));
+	}
+
+	@Test
+	public void testAppendInPlace() throws Exception {
+		long ab = runtime.call(Builtin.APPEND_STRING, runtime.allocateString("a"), runtime.allocateString("b"));
+		long abc = runtime.call(Builtin.APPEND_STRING, ab, runtime.allocateString("c"));
+		long abcd = runtime.call(Builtin.APPEND_STRING, abc, runtime.allocateString("d"));
+		assertEquals("ab", toString(ab));
+		assertEquals("abc", toString(abc));
+		assertEquals("abcd", toString(abcd));
+		assertEquals("Appending to an appended string didn't reuse its buffer",
+				Pointers.begin(abc), Pointers.begin(abcd));
+		long abx = runtime.call(Builtin.APPEND_STRING, ab, runtime.allocateString("x"));
+		assertEquals("Appending to a shorter string of a buffer failed", "abx", toString(abx));
+		assertEquals("Appending changed a string of the buffer", "abcd", toString(abcd));
+		long self = runtime.call(Builtin.APPEND_STRING, abcd, abcd);
+		assertEquals("abcdabcd", toString(self));
+	}
+
+	@Test
+	public void testLinearAppendLoop() throws Exception {
+		long string = runtime.allocateString("");
+		long character = runtime.allocateString("x");
+		for (int i = 0; i < 10000; i++) {
+			string = runtime.call(Builtin.APPEND_STRING, string, character);
+		}
+		assertEquals(10000, Pointers.size(string));
+		assertTrue("Appending in a loop copied the string every time: " + heap.getAllocatedBytes(),
+				heap.getAllocatedBytes() < 100000);
+	}
+
+	@Test
+	public void testFreeSharedBuffer() throws Exception {
+		long first = runtime.call(Builtin.APPEND_STRING, runtime.allocateString("abc"), runtime.allocateString("d"));
+		long second = runtime.call(Builtin.APPEND_STRING, first, runtime.allocateString("e"));
+		long third = runtime.call(Builtin.APPEND_STRING, second, runtime.allocateString("f"));
+		assertEquals("Third string doesn't share the buffer of the second", Pointers.begin(second), Pointers.begin(third));
+		runtime.call(Builtin.FREE, first, 0);
+		long allocated = heap.getAllocatedBytes();
+		runtime.call(Builtin.FREE, second, 0);
+		assertEquals("Buffer was released while a string still uses it", allocated, heap.getAllocatedBytes());
+		assertEquals("abcdef", toString(third));
+		runtime.call(Builtin.FREE, third, 0);
+		assertTrue("Buffer wasn't released after freeing all its strings", heap.getAllocatedBytes() < allocated);
+	}
+
+	@Test
+	public void testToPointer() throws Exception {
+		long abc = runtime.call(Builtin.APPEND_STRING, runtime.allocateString("ab"), runtime.allocateString("c"));
+		long allocated = heap.getAllocatedBytes();
+		long pointer = runtime.call(Builtin.TO_POINTER_STRING, abc, 0);
+		assertEquals("Converting a string didn't return its own bytes", abc, pointer);
+		heap.store(pointer, Type.BYTE, 'Z');
+		assertEquals("Zbc", toString(abc));
+		runtime.call(Builtin.FREE, pointer, 0);
+		assertTrue("Freeing the pointer didn't release the string", heap.getAllocatedBytes() < allocated);
+	}
+
+	@Test
+	public void testEqualAppendedStrings() throws Exception {
+		long ab = runtime.call(Builtin.APPEND_STRING, runtime.allocateString("a"), runtime.allocateString("b"));
+		assertEquals(1, runtime.call(Builtin.EQUAL_STRING, ab, ab));
+		assertEquals(1, runtime.call(Builtin.EQUAL_STRING, ab, runtime.allocateString("ab")));
+		assertEquals(0, runtime.call(Builtin.EQUAL_STRING, ab, runtime.allocateString("abc")));
+	}
+}
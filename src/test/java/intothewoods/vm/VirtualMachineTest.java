@@ -0,0 +1,52 @@
+package intothewoods.vm;
+
+import intothewoods.analyser.Program;
+import intothewoods.runtime.AbstractEngineTest;
+import intothewoods.runtime.OakRuntime;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the BytecodeCompiler and the VirtualMachine.
+ */
+public class VirtualMachineTest extends AbstractEngineTest {
+
+	@Override
+	protected int execute(Program program, OakRuntime runtime) throws Exception {
+		return new VirtualMachine(new BytecodeCompiler(program).compile(), runtime).run();
+	}
+
+	@Test
+	public void testDeepRecursion() throws Exception {
+		assertOutputEquals("Running deep recursion failed", "100000",
+				"_function int count : int n\n" +
+				"equal n 0\n" +
+				"_if ret_bool\n_return 0\n_end\n" +
+				"sub n 1\ncount ret_int\nadd ret_int 1\n_return ret_int\n" +
+				"_end\n" +
+				"_function void main\ncount 100000\nto_string ret_int\nprint ret_string\n_end");
+	}
+
+	@Test
+	public void testCompiledCode() throws Exception {
+		Bytecode bytecode = new BytecodeCompiler(analyse("_function void main\nint a = 1\nadd a 2\na = ret_int\n_end"))
+				.compile();
+		String code = bytecode.toString();
+		assertTrue("Fusing add and assignment failed:\n" + code, code.contains("add_int_move r1 r0 2 r0"));
+		assertFalse("Fusing add and assignment failed:\n" + code, code.contains("move r0 r1"));
+	}
+
+	@Test
+	public void testFusedConditions() throws Exception {
+		String source = "_function void main\nint i = 0\nless i 3\n_while ret_bool\n" +
+				"equal i 1\n_if ret_bool\nprint \"one\"\n_end\nadd i 1\ni = ret_int\nless i 3\n_end\n_end";
+		String code = new BytecodeCompiler(analyse(source)).compile().toString();
+		assertTrue("Fusing loop condition failed:\n" + code, code.contains("less_jump_if_true"));
+		assertTrue("Fusing loop entry condition failed:\n" + code, code.contains("less_jump_if_false"));
+		assertTrue("Fusing if condition failed:\n" + code, code.contains("equal_jump_if_false"));
+		assertFalse("Fused code contains a plain conditional jump:\n" + code, code.contains(" jump_if"));
+		assertOutputEquals("Running fused code failed", "one", source);
+	}
+}
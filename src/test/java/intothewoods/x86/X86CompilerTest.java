@@ -0,0 +1,131 @@
+package intothewoods.x86;
+
+import intothewoods.analyser.Program;
+import intothewoods.common.Builtin;
+import intothewoods.ir.IRBuilder;
+import intothewoods.ir.IRProgram;
+import intothewoods.optimizer.PassManager;
+import intothewoods.runtime.AbstractEngineTest;
+import intothewoods.runtime.OakRuntime;
+import intothewoods.runtime.OakRuntimeException;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the x86-64 back end by compiling the programs, linking them with gcc and running the executables,
+ * it's skipped if gcc isn't available.
+ */
+public class X86CompilerTest extends AbstractEngineTest {
+
+	private static final Pattern ERROR = Pattern.compile("Error at line (\\d+): (.*)\\n?");
+
+	private int level = PassManager.MAX_LEVEL;
+
+	@BeforeClass
+	public static void checkCompiler() throws Exception {
+		boolean available;
+		try {
+			available = new ProcessBuilder("gcc", "--version").start().waitFor() == 0;
+		} catch (Exception ex) {
+			available = false;
+		}
+		Assume.assumeTrue(available);
+	}
+
+	@Override
+	protected int execute(Program program, OakRuntime runtime) throws Exception {
+		IRProgram ir = new IRBuilder(program).build();
+		try (PassManager manager = PassManager.create(level, 2)) {
+			manager.optimize(ir);
+		}
+		ByteArrayOutputStream input = new ByteArrayOutputStream();
+		for (long c = runtime.call(Builtin.READ_BYTE, 0, 0); c != -1; c = runtime.call(Builtin.READ_BYTE, 0, 0)) {
+			input.write((int) c);
+		}
+		File directory = Files.createTempDirectory("oak").toFile();
+		File executable = new File(directory, "program");
+		File assembly = new File(directory, "program.s");
+		File inputFile = new File(directory, "input");
+		File outputFile = new File(directory, "output");
+		File errorFile = new File(directory, "error");
+		try {
+			try (FileChannel channel = FileChannel.open(assembly.toPath(), StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE)) {
+				new X86Compiler(ir).compile(channel, 2);
+			}
+			X86Compiler.link(assembly.toPath(), executable);
+			Files.write(inputFile.toPath(), input.toByteArray());
+			int exitCode = new ProcessBuilder(executable.getAbsolutePath()).redirectInput(inputFile)
+					.redirectOutput(outputFile).redirectError(errorFile).start().waitFor();
+			String output = new String(Files.readAllBytes(outputFile.toPath()), StandardCharsets.ISO_8859_1);
+			String error = new String(Files.readAllBytes(errorFile.toPath()), StandardCharsets.ISO_8859_1);
+			runtime.call(Builtin.PRINT, runtime.allocateString(output), 0);
+			if (exitCode == 1 && !error.isEmpty()) {
+				Matcher matcher = ERROR.matcher(error);
+				if (matcher.matches()) {
+					throw new OakRuntimeException(matcher.group(2), Integer.parseInt(matcher.group(1)));
+				}
+				throw new OakRuntimeException(error.trim());
+			}
+			return exitCode;
+		} finally {
+			for (File file : new File[]{executable, assembly, inputFile, outputFile, errorFile, directory}) {
+				file.delete();
+			}
+		}
+	}
+
+	@Test
+	public void testUnoptimized() throws Exception {
+		level = 0;
+		testLoop();
+		testRecursion();
+		testPointers();
+		testFloats();
+		testSpillingAndArguments();
+	}
+
+	@Test
+	public void testSpillingAndArguments() throws Exception {
+		assertOutputEquals("Calls with stack arguments failed", "36 8",
+				"_function int sum : int a, int b, int c, int d, int e, int f, int g, int h\n" +
+				"add a b\nadd ret_int c\nadd ret_int d\nadd ret_int e\nadd ret_int f\nadd ret_int g\n" +
+				"add ret_int h\n_return ret_int\n_end\n" +
+				"_function int last : int a, int b, int c, int d, int e, int f, int g, int h\n_return h\n_end\n" +
+				"_function void main\n" +
+				"sum 1 2 3 4 5 6 7 8\nto_string ret_int\nprint ret_string\nprint \" \"\n" +
+				"last 1 2 3 4 5 6 7 8\nto_string ret_int\nprint ret_string\n_end");
+	}
+
+	@Test
+	public void testFloatFormatting() throws Exception {
+		assertOutputEquals("Formatting floats failed", "0.1 1.0E7 -3.0 1.0E-4",
+				"_function void main\n" +
+				"to_string 0.1\nprint ret_string\nprint \" \"\n" +
+				"mul 1000.0 10000.0\nto_string ret_float\nprint ret_string\nprint \" \"\n" +
+				"sub 0.0 3.0\nto_string ret_float\nprint ret_string\nprint \" \"\n" +
+				"div 1.0 10000.0\nto_string ret_float\nprint ret_string\n_end");
+	}
+
+	@Test
+	public void testRangeCheck() throws Exception {
+		try {
+			run("_function void main\nmalloc 4\npointer p = ret_pointer\nadd p 2\nget_int ret_pointer\n_end", "");
+			fail("Access out of range didn't fail");
+		} catch (OakRuntimeException ex) {
+			assertEquals("Error at line 5: Memory area too small to access a int", ex.getMessage());
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package intothewoods.x86;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the x86 peephole rules on small listings.
+ */
+public class X86PeepholeTest {
+
+	private static List<String> optimize(String... lines) {
+		return X86Peephole.create().optimize(Arrays.asList(lines));
+	}
+
+	@Test
+	public void testCopies() {
+		assertEquals(Arrays.asList("\tcall oak_read_string", "\tmovq %rax, %rbx", "\tmovq %rax, %rdi",
+				"\tcall oak_print", "\tmovq %rbx, %rax", "\tret"),
+				optimize("\tcall oak_read_string", "\tmovq %rax, %rbx", "\tmovq %rbx, %r10", "\tmovq %r10, %rdi",
+						"\tcall oak_print", "\tmovq %rbx, %rbx", "\tmovq %rbx, %rax", "\tret"));
+		assertEquals(Arrays.asList("\tmovl $5, %edi", "\tcall oak_print", "\tret"),
+				optimize("\tmovq $5, %r10", "\tmovl %r10d, %edi", "\tcall oak_print", "\tret"));
+	}
+
+	@Test
+	public void testLiveValues() {
+		String[] code = {"\tmovq %rdi, %r10", "\tcmpq $0, %rsi", "\tje .L1", "\tmovq $1, %r10", ".L1:",
+				"\tmovq %r10, %rax", "\tret"};
+		assertEquals(Arrays.asList(code), optimize(code));
+	}
+
+	@Test
+	public void testStoreLoad() {
+		assertEquals(Arrays.asList("\tmovq %rax, -8(%rbp)", "\tmovq %rax, %rbx", "\tret"),
+				optimize("\tmovq %rax, -8(%rbp)", "\tmovq -8(%rbp), %rbx", "\tmovq %rbx, %rax", "\tret"));
+		assertEquals(Arrays.asList("\tmovq -8(%rbp), %rax", "\tret"),
+				optimize("\tmovq -8(%rbp), %rax", "\tmovq %rax, -8(%rbp)", "\tret"));
+		String[] address = {"\tmovq (%rax), %rax", "\tmovq %rax, (%rax)", "\tret"};
+		assertEquals(Arrays.asList(address), optimize(address));
+	}
+
+	@Test
+	public void testJumps() {
+		assertEquals(Arrays.asList("\tcmpq $0, %rdi", "\tje .L3", ".L1:", "\tmovq $1, %rax", ".L2:", ".L3:",
+				"\tret"),
+				optimize("\tcmpq $0, %rdi", "\tjne .L1", "\tjmp .L2", ".L1:", "\tmovq $1, %rax", "\tjmp .L3",
+						"\tmovq $2, %rax", ".L2:", "\tjmp .L3", ".L3:", "\tret"));
+	}
+
+	@Test
+	public void testStrengthReduction() {
+		assertEquals(Arrays.asList("\tshll $3, %eax", "\tmovslq %eax, %rax", "\tret"),
+				optimize("\timull $8, %eax", "\tmovslq %eax, %rax", "\tret"));
+		String[] flags = {"\timull $8, %eax", "\tjo .L1", "\tret", ".L1:", "\tcall oak_overflow"};
+		assertEquals(Arrays.asList(flags), optimize(flags));
+		String[] other = {"\timull $6, %eax", "\tmovslq %eax, %rax", "\tret"};
+		assertEquals(Arrays.asList(other), optimize(other));
+	}
+
+	@Test
+	public void testConditionFusion() {
+		assertEquals(Arrays.asList("\tcmpq %rsi, %rdi", "\tjge .L1", "\tcall oak_a", ".L1:", "\tcall oak_b",
+				"\tret"),
+				optimize("\tcmpq %rsi, %rdi", "\tsetl %al", "\tmovzbl %al, %eax", "\tcmpq $0, %rax", "\tje .L1",
+						"\tcall oak_a", ".L1:", "\tcall oak_b", "\tret"));
+		String[] live = {"\tcmpq %rsi, %rdi", "\tsetl %al", "\tmovzbl %al, %eax", "\tcmpq $0, %rax", "\tje .L1",
+				"\tcall oak_a", ".L1:", "\tret"};
+		assertEquals(Arrays.asList(live), optimize(live));
+	}
+}